@@ -0,0 +1,110 @@
+/*
+	Copyright 2017 Digital Learning Sciences (DLS) at the
+	University Corporation for Atmospheric Research (UCAR),
+	P.O. Box 3000, Boulder, CO 80307
+
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+
+	http://www.apache.org/licenses/LICENSE-2.0
+
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+package org.dlese.dpc.benchmark;
+
+import java.util.*;
+
+/**
+ *  A throughput benchmark run by the {@link BenchmarkRunner}. The runner calls {@link #setUp} once, then for
+ *  each number of threads runs warmup and measurement iterations of a fixed length, in which every thread
+ *  calls {@link #runOperation} until the iteration is over. The score is the number of units of work reported
+ *  by the operations per second, over all threads. {@link #tearDown} is called when all iterations are done,
+ *  or when one has failed.
+ *
+ * @author    John Weatherley
+ */
+public abstract class Benchmark {
+
+	/**
+	 *  Gets the name of the benchmark, used to select it with the 'benchmark.include' property and to
+	 *  identify its results.
+	 *
+	 * @return    The name
+	 */
+	public abstract String getName();
+
+
+	/**
+	 *  Gets the name of the units of work reported by {@link #runOperation}, for example 'records'. The score is
+	 *  reported in units per second.
+	 *
+	 * @return    The unit
+	 */
+	public String getUnit() {
+		return "ops";
+	}
+
+
+	/**
+	 *  Gets the numbers of threads to run the benchmark with. By default the benchmark is run by a single
+	 *  thread. Benchmarks of code that is used by many threads at once return the configured thread counts.
+	 *
+	 * @param  configured  The thread counts from the 'benchmark.threads' property
+	 * @return             The thread counts to run
+	 */
+	public int[] getThreadCounts(int[] configured) {
+		return new int[]{1};
+	}
+
+
+	/**
+	 *  Prepares the benchmark. Called once, before any iteration.
+	 *
+	 * @param  context        The shared corpus, repository and settings
+	 * @exception  Exception  If the benchmark can not be run
+	 */
+	public abstract void setUp(BenchmarkContext context) throws Exception;
+
+
+	/**
+	 *  Called before each iteration with the number of threads that will run it, so per-thread state may be
+	 *  reset.
+	 *
+	 * @param  numThreads     The number of threads
+	 * @exception  Exception  If error
+	 */
+	public void setUpIteration(int numThreads) throws Exception { }
+
+
+	/**
+	 *  Performs one operation. Called repeatedly and concurrently by the threads running an iteration.
+	 *
+	 * @param  thread         The index of the calling thread, from zero to the number of threads less one
+	 * @return                The number of units of work done
+	 * @exception  Exception  If the operation failed, which fails the benchmark
+	 */
+	public abstract int runOperation(int thread) throws Exception;
+
+
+	/**
+	 *  Releases any resources held by the benchmark.
+	 *
+	 * @exception  Exception  If error
+	 */
+	public void tearDown() throws Exception { }
+
+
+	/**
+	 *  Gets the parameters of the benchmark, written with its results. By default there are none.
+	 *
+	 * @return    A Map of parameter names to values
+	 */
+	public Map getParams() {
+		return new LinkedHashMap();
+	}
+}
@@ -0,0 +1,241 @@
+/*
+	Copyright 2017 Digital Learning Sciences (DLS) at the
+	University Corporation for Atmospheric Research (UCAR),
+	P.O. Box 3000, Boulder, CO 80307
+
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+
+	http://www.apache.org/licenses/LICENSE-2.0
+
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+package org.dlese.dpc.benchmark;
+
+import org.dlese.dpc.index.FileIndexingObserver;
+import org.dlese.dpc.repository.*;
+import org.dlese.dpc.xml.XMLConversionService;
+
+import java.io.*;
+
+/**
+ *  The settings, synthetic corpus and repository shared by the benchmarks in a run. The corpus and the
+ *  repository are made the first time a benchmark asks for them, so a run of benchmarks that need neither does
+ *  not pay for them. The repository is a {@link RepositoryManager} configured the way the OAI provider
+ *  configures it, with one set for each corpus format and an {@link XMLConversionService} with the adn,
+ *  nsdl_dc and oai_dc converters, and with all of its records indexed.
+ *
+ * @author    John Weatherley
+ */
+public class BenchmarkContext {
+	private final static String[] XSL_CONVERTERS = {
+		"adn-v0.6.50-to-nsdl_dc-v1.02.xsl|adn|nsdl_dc",
+		"adn-v0.6.50-to-oai_dc.xsl|adn|oai_dc",
+		"nsdl_dc_v102_to_oai_dc.xsl|nsdl_dc|oai_dc"};
+
+	private File webappDir = null;
+	private File workDir = null;
+	private int numRecords;
+	private SyntheticCorpus corpus = null;
+	private RepositoryManager rm = null;
+	private Exception rmError = null;
+
+
+	/**
+	 *  Constructor for the BenchmarkContext object
+	 *
+	 * @param  webappDir   The webapp directory holding WEB-INF/conf, WEB-INF/sample_metadata and
+	 *      WEB-INF/xsl_files
+	 * @param  workDir     A directory for the corpus, the repository and its index, removed by the runner
+	 * @param  numRecords  The number of records to generate in each corpus format
+	 */
+	public BenchmarkContext(File webappDir, File workDir, int numRecords) {
+		this.webappDir = webappDir;
+		this.workDir = workDir;
+		this.numRecords = numRecords;
+	}
+
+
+	/**
+	 *  Gets the webapp directory.
+	 *
+	 * @return    The webappDir value
+	 */
+	public File getWebappDir() {
+		return webappDir;
+	}
+
+
+	/**
+	 *  Gets the directory for files made by the run.
+	 *
+	 * @return    The workDir value
+	 */
+	public File getWorkDir() {
+		return workDir;
+	}
+
+
+	/**
+	 *  Gets the number of records in each corpus format.
+	 *
+	 * @return    The numRecords value
+	 */
+	public int getNumRecords() {
+		return numRecords;
+	}
+
+
+	/**
+	 *  Gets the synthetic corpus, generating it the first time.
+	 *
+	 * @return                The corpus
+	 * @exception  Exception  If error
+	 */
+	public synchronized SyntheticCorpus getCorpus() throws Exception {
+		if (corpus == null) {
+			long start = System.currentTimeMillis();
+			corpus = new SyntheticCorpus(webappDir, new File(workDir, "corpus"), numRecords);
+			prtln("Generated " + numRecords + " adn and nsdl_dc records in " + (System.currentTimeMillis() - start) + " ms");
+		}
+		return corpus;
+	}
+
+
+	/**
+	 *  Gets the repository holding the synthetic corpus, creating and indexing it the first time.
+	 *
+	 * @return                The RepositoryManager
+	 * @exception  Exception  If the repository can not be initialized or indexed
+	 */
+	public synchronized RepositoryManager getRepositoryManager() throws Exception {
+		// The repository's configuration is saved in its data directory, so a failed setup is not tried again
+		if (rmError != null)
+			throw rmError;
+		if (rm == null) {
+			try {
+				rm = createRepositoryManager();
+			} catch (Exception e) {
+				rmError = e;
+				throw e;
+			}
+		}
+		return rm;
+	}
+
+
+	private RepositoryManager createRepositoryManager() throws Exception {
+		SyntheticCorpus corpus = getCorpus();
+		File dataDir = new File(workDir, "repository_data");
+		dataDir.mkdirs();
+		RepositoryManager repository =
+			new RepositoryManager(new File(webappDir, "WEB-INF/conf"), dataDir.getAbsolutePath(), 0, 500, false);
+		if (repository.init(false) != 1)
+			throw new Exception("Unable to initialize the RepositoryManager");
+		try {
+			File cacheDir = new File(workDir, "converted_xml_cache");
+			cacheDir.mkdirs();
+			repository.setXMLConversionService(newXMLConversionService(cacheDir));
+
+			repository.addSetInfo(new SetInfo("Synthetic adn", "bench-adn", "", "true",
+				corpus.getDirectory("adn").getAbsolutePath(), "adn", "bench-adn"));
+			repository.addSetInfo(new SetInfo("Synthetic nsdl_dc", "bench-nsdl_dc", "", "true",
+				corpus.getDirectory("nsdl_dc").getAbsolutePath(), "nsdl_dc", "bench-nsdl_dc"));
+
+			long start = System.currentTimeMillis();
+			IndexingObserver observer = new IndexingObserver();
+			repository.indexFiles(observer, true);
+			observer.awaitCompletion();
+			prtln("Indexed the repository in " + (System.currentTimeMillis() - start) + " ms: " + observer.getMessage());
+			return repository;
+		} catch (Exception e) {
+			repository.destroy();
+			throw e;
+		}
+	}
+
+
+	/**
+	 *  Creates an XMLConversionService with the adn, nsdl_dc and oai_dc converters from the webapp.
+	 *
+	 * @param  cacheDir       The directory for the converted files
+	 * @return                The XMLConversionService
+	 * @exception  Exception  If error
+	 */
+	public XMLConversionService newXMLConversionService(File cacheDir) throws Exception {
+		XMLConversionService service = new XMLConversionService(cacheDir, true);
+		File xslDir = new File(webappDir, "WEB-INF/xsl_files");
+		for (int i = 0; i < XSL_CONVERTERS.length; i++) {
+			if (!service.addXslConverterHelper(XSL_CONVERTERS[i], xslDir))
+				throw new Exception("Unable to add the converter " + XSL_CONVERTERS[i]);
+		}
+		return service;
+	}
+
+
+	/**  Shuts down the repository, if one was created. */
+	public synchronized void destroy() {
+		if (rm != null) {
+			rm.destroy();
+			rm = null;
+		}
+	}
+
+
+	/**
+	 *  A FileIndexingObserver that lets a thread wait for indexing to complete, and fails if indexing did not
+	 *  succeed.
+	 */
+	public static class IndexingObserver implements FileIndexingObserver {
+		private boolean completed = false;
+		private int status;
+		private String message = null;
+
+
+		/**
+		 *  Called by the indexer when indexing is complete.
+		 *
+		 * @param  status   The status
+		 * @param  message  The message
+		 */
+		public synchronized void indexingCompleted(int status, String message) {
+			this.status = status;
+			this.message = message;
+			completed = true;
+			notifyAll();
+		}
+
+
+		/**
+		 *  Waits for indexing to complete.
+		 *
+		 * @exception  Exception  If indexing did not succeed
+		 */
+		public synchronized void awaitCompletion() throws Exception {
+			while (!completed)
+				wait();
+			if (status != FileIndexingObserver.INDEXING_COMPLETED_SUCCESS)
+				throw new Exception("Indexing did not succeed (status " + status + "): " + message);
+		}
+
+
+		/**
+		 *  Gets the message given when indexing completed.
+		 *
+		 * @return    The message
+		 */
+		public synchronized String getMessage() {
+			return message;
+		}
+	}
+
+
+	private static void prtln(String s) {
+		System.out.println(s);
+	}
+}
@@ -0,0 +1,419 @@
+/*
+	Copyright 2017 Digital Learning Sciences (DLS) at the
+	University Corporation for Atmospheric Research (UCAR),
+	P.O. Box 3000, Boulder, CO 80307
+
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+
+	http://www.apache.org/licenses/LICENSE-2.0
+
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+package org.dlese.dpc.benchmark;
+
+import org.dlese.dpc.index.document.FileContentTools;
+import org.dlese.dpc.util.Files;
+
+import java.io.*;
+import java.text.SimpleDateFormat;
+import java.util.*;
+
+import org.json.*;
+
+/**
+ *  Runs the throughput benchmarks for the OAI provider and indexing hot paths and writes the results to a
+ *  JSON file, so results may be compared between releases. Each benchmark is run in the manner of a JMH
+ *  throughput benchmark: after it is set up, a number of warmup iterations of a fixed length are run and
+ *  discarded, then the measurement iterations are run, for each number of threads the benchmark supports. The
+ *  score for an iteration is the units of work done per second by all threads, and the mean, standard
+ *  deviation, minimum and maximum over the measurement iterations are reported, along with each iteration's
+ *  score. A benchmark that fails is reported with its error and the remaining benchmarks are still run. <p>
+ *
+ *  The following System properties may be used to configure the run:
+ *  <ul>
+ *    <li> 'benchmark.webapp.dir' - the webapp directory (default 'web')
+ *    <li> 'benchmark.conf.dir' - the benchmark configuration directory (default 'benchmarks/conf')
+ *    <li> 'benchmark.work.dir' - the directory under which the corpus and repository are made and removed
+ *    (default java.io.tmpdir)
+ *    <li> 'benchmark.records' - the number of records in each corpus format (default 1000)
+ *    <li> 'benchmark.iteration.ms' - the length of each iteration (default 2000)
+ *    <li> 'benchmark.warmup.iterations' - the number of warmup iterations (default 2)
+ *    <li> 'benchmark.iterations' - the number of measurement iterations (default 5)
+ *    <li> 'benchmark.threads' - the thread counts for concurrent benchmarks, comma separated (default
+ *    '1,2,4')
+ *    <li> 'benchmark.include' - run only the benchmarks whose names contain one of these comma separated
+ *    strings (default all)
+ *    <li> 'benchmark.output' - the JSON file to write (default 'benchmark-results.json')
+ *    <li> 'benchmark.app.version' - the application version recorded with the results
+ *  </ul>
+ *
+ *
+ * @author    John Weatherley
+ */
+public class BenchmarkRunner {
+	private long iterationMs;
+	private int warmupIterations;
+	private int iterations;
+	private int[] threadCounts;
+	private String[] includes;
+
+	private volatile boolean stopped = false;
+
+
+	/**
+	 *  Gets the benchmarks, in the order they are run. A benchmark that compares against the approach its code
+	 *  replaced is followed by the baseline. The repository benchmarks follow the indexing benchmark, which
+	 *  reindexes the repository.
+	 *
+	 * @param  confDir  The benchmark configuration directory
+	 * @return          The benchmarks
+	 */
+	private static Benchmark[] getBenchmarks(File confDir) {
+		return new Benchmark[]{
+			new XMLIndexerBenchmark("adn", confDir),
+			new XMLIndexerBenchmark("nsdl_dc", confDir),
+			new XMLIndexerFieldsPlanBenchmark("adn", confDir, false),
+			new XMLIndexerFieldsPlanBenchmark("adn", confDir, true),
+			new XMLIndexerFieldsPlanBenchmark("nsdl_dc", confDir, false),
+			new XMLIndexerFieldsPlanBenchmark("nsdl_dc", confDir, true),
+			new Dom4jLocalizeBenchmark("adn", false),
+			new Dom4jLocalizeBenchmark("adn", true),
+			new Dom4jLocalizeBenchmark("nsdl_dc", false),
+			new Dom4jLocalizeBenchmark("nsdl_dc", true),
+			new XMLConversionBenchmark(XMLConversionBenchmark.CONVERT_XML),
+			new XMLConversionBenchmark(XMLConversionBenchmark.SHARED_TRANSFORMER),
+			new XMLConversionBenchmark(XMLConversionBenchmark.GET_CONVERTED_XML),
+			new XMLValidatorBenchmark(true),
+			new XMLValidatorBenchmark(false),
+			new HarvesterParsingBenchmark(),
+			new PackedRecordStoreBenchmark(true),
+			new PackedRecordStoreBenchmark(false),
+			new HarvestQueueBenchmark(true),
+			new HarvestQueueBenchmark(false),
+			new DcsDataManagerBenchmark(DcsDataManagerBenchmark.LOOKUP),
+			new DcsDataManagerBenchmark(DcsDataManagerBenchmark.LOOKUP_LOCKED_MAP),
+			new DcsDataManagerBenchmark(DcsDataManagerBenchmark.VALIDATE_WRITE_BEHIND),
+			new DcsDataManagerBenchmark(DcsDataManagerBenchmark.VALIDATE_SYNCHRONOUS),
+			new StandardsSnapshotBenchmark(true),
+			new StandardsSnapshotBenchmark(false),
+			new FileContentStorageBenchmark(FileContentTools.STORAGE_COMPRESSED),
+			new FileContentStorageBenchmark(FileContentTools.STORAGE_PLAIN),
+			new FileIndexingBenchmark(),
+			new LuceneSearchBenchmark(),
+			new OaiQueryResultsBenchmark()
+			};
+	}
+
+
+	/**
+	 *  Constructor for the BenchmarkRunner object
+	 *
+	 * @param  iterationMs       The length of each iteration, in milliseconds
+	 * @param  warmupIterations  The number of warmup iterations
+	 * @param  iterations        The number of measurement iterations
+	 * @param  threadCounts      The thread counts for concurrent benchmarks
+	 * @param  includes          Run only benchmarks whose names contain one of these, or null for all
+	 */
+	public BenchmarkRunner(long iterationMs, int warmupIterations, int iterations, int[] threadCounts, String[] includes) {
+		this.iterationMs = iterationMs;
+		this.warmupIterations = warmupIterations;
+		this.iterations = Math.max(1, iterations);
+		this.threadCounts = threadCounts;
+		this.includes = includes;
+	}
+
+
+	/**
+	 *  Runs the given benchmarks that are included.
+	 *
+	 * @param  benchmarks  The benchmarks
+	 * @param  context     The context shared by the benchmarks
+	 * @return             A JSONArray with the results of each benchmark and thread count
+	 */
+	public JSONArray run(Benchmark[] benchmarks, BenchmarkContext context) {
+		JSONArray results = new JSONArray();
+		for (int i = 0; i < benchmarks.length; i++) {
+			if (isIncluded(benchmarks[i].getName()))
+				run(benchmarks[i], context, results);
+		}
+		return results;
+	}
+
+
+	private void run(Benchmark benchmark, BenchmarkContext context, JSONArray results) {
+		String name = benchmark.getName();
+		prtln("");
+		prtln("# Benchmark: " + name);
+		try {
+			benchmark.setUp(context);
+		} catch (Throwable t) {
+			prtlnErr(name + " could not be set up: " + t);
+			t.printStackTrace();
+			results.put(errorResult(benchmark, 0, t));
+			tearDown(benchmark);
+			return;
+		}
+
+		int[] counts = benchmark.getThreadCounts(threadCounts);
+		for (int c = 0; c < counts.length; c++) {
+			int numThreads = counts[c];
+			try {
+				for (int i = 0; i < warmupIterations; i++) {
+					double score = runIteration(benchmark, numThreads);
+					prtln("# Warmup iteration " + (i + 1) + ", " + numThreads + " threads: " + format(score) + " " + benchmark.getUnit() + "/s");
+				}
+				double[] scores = new double[iterations];
+				for (int i = 0; i < iterations; i++) {
+					scores[i] = runIteration(benchmark, numThreads);
+					prtln("Iteration " + (i + 1) + ", " + numThreads + " threads: " + format(scores[i]) + " " + benchmark.getUnit() + "/s");
+				}
+				JSONObject result = scoreResult(benchmark, numThreads, scores);
+				prtln("Result " + name + ", " + numThreads + " threads: " + result.getJSONObject("primaryMetric").toString());
+				results.put(result);
+			} catch (Throwable t) {
+				prtlnErr(name + " failed with " + numThreads + " threads: " + t);
+				t.printStackTrace();
+				results.put(errorResult(benchmark, numThreads, t));
+				break;
+			}
+		}
+		tearDown(benchmark);
+	}
+
+
+	/**
+	 *  Runs one iteration with the given number of threads.
+	 *
+	 * @param  benchmark      The benchmark
+	 * @param  numThreads     The number of threads
+	 * @return                The units of work done per second
+	 * @exception  Exception  If an operation failed
+	 */
+	private double runIteration(Benchmark benchmark, int numThreads) throws Exception {
+		benchmark.setUpIteration(numThreads);
+		stopped = false;
+		Worker[] workers = new Worker[numThreads];
+		for (int t = 0; t < numThreads; t++)
+			workers[t] = new Worker(benchmark, t);
+
+		long start = System.currentTimeMillis();
+		for (int t = 0; t < numThreads; t++)
+			workers[t].start();
+		long endTime = start + iterationMs;
+		long now;
+		while (!stopped && (now = System.currentTimeMillis()) < endTime)
+			Thread.sleep(Math.min(50, endTime - now));
+		stopped = true;
+
+		// Operations in progress are allowed to finish, and are counted
+		long units = 0;
+		for (int t = 0; t < numThreads; t++) {
+			workers[t].join();
+			if (workers[t].error != null)
+				throw new Exception("Operation failed in thread " + t + ": " + workers[t].error, workers[t].error);
+			units += workers[t].units;
+		}
+		long elapsed = System.currentTimeMillis() - start;
+		return units * 1000.0 / Math.max(1, elapsed);
+	}
+
+
+	/**  A thread that runs operations until the iteration is stopped. */
+	private class Worker extends Thread {
+		Benchmark benchmark;
+		int thread;
+		long units = 0;
+		Throwable error = null;
+
+
+		Worker(Benchmark benchmark, int thread) {
+			super("benchmark-" + thread);
+			this.benchmark = benchmark;
+			this.thread = thread;
+		}
+
+
+		public void run() {
+			try {
+				while (!stopped)
+					units += benchmark.runOperation(thread);
+			} catch (Throwable t) {
+				error = t;
+				stopped = true;
+			}
+		}
+	}
+
+
+	private JSONObject scoreResult(Benchmark benchmark, int numThreads, double[] scores) throws JSONException {
+		double sum = 0;
+		double min = Double.MAX_VALUE;
+		double max = 0;
+		JSONArray rawData = new JSONArray();
+		for (int i = 0; i < scores.length; i++) {
+			sum += scores[i];
+			min = Math.min(min, scores[i]);
+			max = Math.max(max, scores[i]);
+			rawData.put(round(scores[i]));
+		}
+		double mean = sum / scores.length;
+		double squares = 0;
+		for (int i = 0; i < scores.length; i++)
+			squares += (scores[i] - mean) * (scores[i] - mean);
+		double stdDev = scores.length > 1 ? Math.sqrt(squares / (scores.length - 1)) : 0;
+
+		JSONObject metric = new JSONObject();
+		metric.put("score", round(mean));
+		metric.put("scoreStdDev", round(stdDev));
+		metric.put("scoreMin", round(min));
+		metric.put("scoreMax", round(max));
+		metric.put("scoreUnit", benchmark.getUnit() + "/s");
+		metric.put("rawData", rawData);
+
+		JSONObject result = newResult(benchmark, numThreads);
+		result.put("warmupIterations", warmupIterations);
+		result.put("measurementIterations", iterations);
+		result.put("iterationTimeMs", iterationMs);
+		result.put("primaryMetric", metric);
+		return result;
+	}
+
+
+	private JSONObject errorResult(Benchmark benchmark, int numThreads, Throwable t) {
+		try {
+			JSONObject result = newResult(benchmark, numThreads);
+			result.put("error", String.valueOf(t));
+			return result;
+		} catch (JSONException e) {
+			throw new RuntimeException(e.toString());
+		}
+	}
+
+
+	private JSONObject newResult(Benchmark benchmark, int numThreads) throws JSONException {
+		JSONObject result = new JSONObject();
+		result.put("benchmark", benchmark.getName());
+		result.put("mode", "thrpt");
+		result.put("threads", numThreads);
+		result.put("params", benchmark.getParams());
+		return result;
+	}
+
+
+	private void tearDown(Benchmark benchmark) {
+		try {
+			benchmark.tearDown();
+		} catch (Throwable t) {
+			prtlnErr(benchmark.getName() + " could not be torn down: " + t);
+		}
+	}
+
+
+	private boolean isIncluded(String name) {
+		if (includes == null)
+			return true;
+		for (int i = 0; i < includes.length; i++) {
+			if (name.toLowerCase().indexOf(includes[i].toLowerCase()) != -1)
+				return true;
+		}
+		return false;
+	}
+
+
+	private static double round(double d) {
+		return Math.round(d * 1000) / 1000.0;
+	}
+
+
+	private static String format(double d) {
+		return Long.toString(Math.round(d));
+	}
+
+
+	private static int[] parseInts(String value) {
+		String[] vals = value.split(",");
+		int[] ints = new int[vals.length];
+		for (int i = 0; i < vals.length; i++)
+			ints[i] = Integer.parseInt(vals[i].trim());
+		return ints;
+	}
+
+
+	/**
+	 *  Runs the benchmarks configured by the System properties and writes their results, exiting with status 1
+	 *  if any benchmark failed.
+	 *
+	 * @param  args           Not used
+	 * @exception  Exception  If the results can not be written
+	 */
+	public static void main(String[] args) throws Exception {
+		File webappDir = new File(System.getProperty("benchmark.webapp.dir", "web"));
+		File confDir = new File(System.getProperty("benchmark.conf.dir", "benchmarks/conf"));
+		File workBase = new File(System.getProperty("benchmark.work.dir", System.getProperty("java.io.tmpdir")));
+		int numRecords = Integer.getInteger("benchmark.records", 1000).intValue();
+		long iterationMs = Long.getLong("benchmark.iteration.ms", 2000).longValue();
+		int warmupIterations = Integer.getInteger("benchmark.warmup.iterations", 2).intValue();
+		int iterations = Integer.getInteger("benchmark.iterations", 5).intValue();
+		int[] threadCounts = parseInts(System.getProperty("benchmark.threads", "1,2,4"));
+		String include = System.getProperty("benchmark.include", "").trim();
+		String[] includes = include.length() == 0 ? null : include.split("\\s*,\\s*");
+		File output = new File(System.getProperty("benchmark.output", "benchmark-results.json"));
+
+		workBase.mkdirs();
+		File workDir = File.createTempFile("benchmark", "", workBase);
+		workDir.delete();
+		workDir.mkdirs();
+
+		Date start = new Date();
+		BenchmarkContext context = new BenchmarkContext(webappDir, workDir, numRecords);
+		BenchmarkRunner runner = new BenchmarkRunner(iterationMs, warmupIterations, iterations, threadCounts, includes);
+		JSONArray results;
+		try {
+			results = runner.run(getBenchmarks(confDir), context);
+		} finally {
+			context.destroy();
+			Files.deleteDirectory(workDir);
+		}
+
+		JSONObject json = new JSONObject();
+		json.put("appVersion", System.getProperty("benchmark.app.version", "unknown"));
+		json.put("date", new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ssZ").format(start));
+		json.put("javaVersion", System.getProperty("java.version"));
+		json.put("javaVmName", System.getProperty("java.vm.name"));
+		json.put("osName", System.getProperty("os.name"));
+		json.put("osArch", System.getProperty("os.arch"));
+		json.put("availableProcessors", Runtime.getRuntime().availableProcessors());
+		json.put("maxMemory", Runtime.getRuntime().maxMemory());
+		json.put("records", numRecords);
+		json.put("benchmarks", results);
+
+		File dir = output.getAbsoluteFile().getParentFile();
+		if (dir != null)
+			dir.mkdirs();
+		Files.writeFile(json.toString(2) + "\n", output);
+		prtln("");
+		prtln("Wrote results to " + output.getAbsolutePath());
+
+		for (int i = 0; i < results.length(); i++) {
+			if (results.getJSONObject(i).has("error"))
+				System.exit(1);
+		}
+		System.exit(0);
+	}
+
+
+	private static void prtln(String s) {
+		System.out.println(s);
+	}
+
+
+	private static void prtlnErr(String s) {
+		System.err.println("BenchmarkRunner: " + s);
+	}
+}
@@ -0,0 +1,261 @@
+/*
+	Copyright 2017 Digital Learning Sciences (DLS) at the
+	University Corporation for Atmospheric Research (UCAR),
+	P.O. Box 3000, Boulder, CO 80307
+
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+
+	http://www.apache.org/licenses/LICENSE-2.0
+
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+package org.dlese.dpc.benchmark;
+
+import org.dlese.dpc.repository.RepositoryManager;
+import org.dlese.dpc.schemedit.dcs.*;
+
+import java.io.*;
+import java.util.*;
+
+import org.dom4j.*;
+
+/**
+ *  Measures the {@link DcsDataManager} from one or more threads, either looking up cached records or standing
+ *  in for the validating service, which looks up a record, sets its validation report and writes it. Each
+ *  write takes a fixed time, standing in for serializing the record to disk. For comparison, lookups may
+ *  instead be made in a HashMap guarded by one lock, and records may be written as they are validated instead
+ *  of scheduled for the write-behind thread, which is how the manager worked before. The number of writes
+ *  made is given with the results.
+ *
+ * @author    ostwald
+ */
+public class DcsDataManagerBenchmark extends Benchmark {
+	/**  Looks up records in the DcsDataManager's cache. */
+	public final static int LOOKUP = 0;
+	/**  Looks up records in a HashMap guarded by one lock. */
+	public final static int LOOKUP_LOCKED_MAP = 1;
+	/**  Validates records and schedules their writes. */
+	public final static int VALIDATE_WRITE_BEHIND = 2;
+	/**  Validates records and writes each before going on to the next. */
+	public final static int VALIDATE_SYNCHRONOUS = 3;
+
+	private final static String[] MODE_NAMES = {"lookup", "lookup.lockedMap", "validate", "validate.synchronous"};
+	private final static long WRITE_MS = 2;
+
+	private int mode;
+	private File dataDir = null;
+	private DcsDataManager dcsDataManager = null;
+	private Map lockedMap = null;
+	private String[] ids = null;
+	private BenchmarkRecord[] records = null;
+	private Random[] randoms = null;
+	private int[] next = null;
+
+
+	/**
+	 *  Constructor for the DcsDataManagerBenchmark object
+	 *
+	 * @param  mode  LOOKUP, LOOKUP_LOCKED_MAP, VALIDATE_WRITE_BEHIND or VALIDATE_SYNCHRONOUS
+	 */
+	public DcsDataManagerBenchmark(int mode) {
+		this.mode = mode;
+	}
+
+
+	/**
+	 *  Gets the name of the benchmark
+	 *
+	 * @return    The name
+	 */
+	public String getName() {
+		return "DcsDataManager." + MODE_NAMES[mode];
+	}
+
+
+	/**
+	 *  Gets the unit of work
+	 *
+	 * @return    'lookups' or 'records'
+	 */
+	public String getUnit() {
+		return mode == LOOKUP || mode == LOOKUP_LOCKED_MAP ? "lookups" : "records";
+	}
+
+
+	/**
+	 *  Runs with each configured thread count.
+	 *
+	 * @param  configured  The configured thread counts
+	 * @return             The configured thread counts
+	 */
+	public int[] getThreadCounts(int[] configured) {
+		return configured;
+	}
+
+
+	/**
+	 *  Creates the manager and caches a record for each record of the corpus.
+	 *
+	 * @param  context        The context
+	 * @exception  Exception  If error
+	 */
+	public void setUp(BenchmarkContext context) throws Exception {
+		DcsDataRecord.setDebug(false);
+		dataDir = new File(context.getWorkDir(), "dcs_data_" + MODE_NAMES[mode]);
+		dataDir.mkdirs();
+		final String recordsLocation = dataDir.getAbsolutePath();
+		RepositoryManager rm =
+			new RepositoryManager(dataDir, recordsLocation, 0, 0, false) {
+				public String getMetadataRecordsLocation() {
+					return recordsLocation;
+				}
+			};
+		dcsDataManager = new DcsDataManager(rm, null, null);
+		dcsDataManager.setMaxCachedRecords(context.getNumRecords() * 2);
+
+		ids = new String[context.getNumRecords()];
+		records = new BenchmarkRecord[ids.length];
+		lockedMap = new HashMap();
+		for (int i = 0; i < ids.length; i++) {
+			ids[i] = "id-" + i;
+			records[i] = new BenchmarkRecord(new File(dataDir, ids[i] + ".xml"), dcsDataManager);
+			records[i].setId(ids[i]);
+			if (mode == VALIDATE_WRITE_BEHIND || mode == VALIDATE_SYNCHRONOUS)
+				records[i].writeMs = WRITE_MS;
+			dcsDataManager.cacheRecord(records[i]);
+			lockedMap.put(ids[i], records[i]);
+		}
+	}
+
+
+	/**
+	 *  Gives each thread its own random sequence of lookups and starts each thread at a different record.
+	 *
+	 * @param  numThreads  The number of threads
+	 */
+	public void setUpIteration(int numThreads) {
+		randoms = new Random[numThreads];
+		next = new int[numThreads];
+		for (int t = 0; t < numThreads; t++) {
+			randoms[t] = new Random(t);
+			next[t] = t * ids.length / numThreads;
+		}
+	}
+
+
+	/**
+	 *  Looks up a record, or validates the thread's next record.
+	 *
+	 * @param  thread         The thread
+	 * @return                1
+	 * @exception  Exception  If a record is missing or can not be written
+	 */
+	public int runOperation(int thread) throws Exception {
+		if (mode == LOOKUP || mode == LOOKUP_LOCKED_MAP) {
+			String id = ids[randoms[thread].nextInt(ids.length)];
+			Object rec;
+			if (mode == LOOKUP)
+				rec = dcsDataManager.getDcsDataRecord(null, null, null, id);
+			else {
+				synchronized (lockedMap) {
+					rec = lockedMap.get(id);
+				}
+			}
+			if (rec == null)
+				throw new Exception("Record " + id + " is missing");
+			return 1;
+		}
+
+		int n = next[thread]++;
+		String id = ids[n % ids.length];
+		DcsDataRecord rec = dcsDataManager.getDcsDataRecord(null, null, null, id);
+		if (rec == null)
+			throw new Exception("Record " + id + " is missing");
+		rec.setValidationReport("report " + n);
+		if (mode == VALIDATE_WRITE_BEHIND)
+			dcsDataManager.scheduleWrite(rec);
+		else
+			rec.flushToDisk();
+		return 1;
+	}
+
+
+	/**  Writes the records waiting to be written and stops the manager's write-behind thread. */
+	public void tearDown() {
+		if (dcsDataManager != null) {
+			dcsDataManager.flushPendingWrites();
+			dcsDataManager.destroy();
+		}
+	}
+
+
+	/**
+	 *  Gets the parameters of the benchmark
+	 *
+	 * @return    The number of records and, when validating, the time and number of writes
+	 */
+	public Map getParams() {
+		Map params = super.getParams();
+		params.put("records", new Integer(ids == null ? 0 : ids.length));
+		if (mode == VALIDATE_WRITE_BEHIND || mode == VALIDATE_SYNCHRONOUS) {
+			params.put("writeMs", new Long(WRITE_MS));
+			long writes = 0;
+			for (int i = 0; records != null && i < records.length; i++)
+				writes += records[i].getNumWrites();
+			params.put("writes", new Long(writes));
+		}
+		return params;
+	}
+
+
+	/**
+	 *  A DcsDataRecord that is not read from a framework, and that counts its writes and waits instead of
+	 *  writing.
+	 */
+	private static class BenchmarkRecord extends DcsDataRecord {
+		long writeMs = 0;
+		private int numWrites = 0;
+
+
+		BenchmarkRecord(File file, DcsDataManager dcsDataManager) {
+			super(file, null, null, dcsDataManager);
+		}
+
+
+		public Document getDocument() throws Exception {
+			// only called while constructing, before the document is held by the record
+			return DocumentHelper.parseText(
+				"<dcsDataRecord><recordID/><lastTouchDate/><validationReport/><statusEntries/></dcsDataRecord>");
+		}
+
+
+		public String getWritableXml() throws Exception {
+			return getValidationReport();
+		}
+
+
+		public void writeToDisk(String xml) throws Exception {
+			if (writeMs > 0)
+				Thread.sleep(writeMs);
+			synchronized (this) {
+				numWrites++;
+			}
+		}
+
+
+		public void flushToDisk() throws Exception {
+			writeToDisk(getWritableXml());
+		}
+
+
+		synchronized int getNumWrites() {
+			return numWrites;
+		}
+	}
+}
@@ -0,0 +1,141 @@
+/*
+	Copyright 2017 Digital Learning Sciences (DLS) at the
+	University Corporation for Atmospheric Research (UCAR),
+	P.O. Box 3000, Boulder, CO 80307
+
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+
+	http://www.apache.org/licenses/LICENSE-2.0
+
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+package org.dlese.dpc.benchmark;
+
+import org.dlese.dpc.xml.Dom4jUtils;
+import org.dlese.dpc.xml.XSLTransformer;
+
+import java.util.*;
+
+import org.dom4j.Document;
+
+/**
+ *  Measures the records per second localized from an XML String by {@link
+ *  Dom4jUtils#getXmlDocumentLocalized(String)} for one corpus format, which removes the namespaces while
+ *  parsing. For comparison the records may instead be localized the way Dom4jUtils did before: the XML is
+ *  transformed with the remove-namespaces XSL and the result is parsed.
+ *
+ * @author    John Weatherley
+ */
+public class Dom4jLocalizeBenchmark extends Benchmark {
+	private String format;
+	private boolean xsl;
+	private String[] records = null;
+	private int[] next = null;
+
+
+	/**
+	 *  Constructor for the Dom4jLocalizeBenchmark object
+	 *
+	 * @param  format  The corpus format, 'adn' or 'nsdl_dc'
+	 * @param  xsl     True to localize with the remove-namespaces XSL, false to localize while parsing
+	 */
+	public Dom4jLocalizeBenchmark(String format, boolean xsl) {
+		this.format = format;
+		this.xsl = xsl;
+	}
+
+
+	/**
+	 *  Gets the name of the benchmark
+	 *
+	 * @return    The name
+	 */
+	public String getName() {
+		return "Dom4jUtils.getXmlDocumentLocalized." + format + (xsl ? ".xsl" : "");
+	}
+
+
+	/**
+	 *  Gets the unit of work
+	 *
+	 * @return    'records'
+	 */
+	public String getUnit() {
+		return "records";
+	}
+
+
+	/**
+	 *  Runs with each configured thread count.
+	 *
+	 * @param  configured  The configured thread counts
+	 * @return             The configured thread counts
+	 */
+	public int[] getThreadCounts(int[] configured) {
+		return configured;
+	}
+
+
+	/**
+	 *  Reads the records.
+	 *
+	 * @param  context        The context
+	 * @exception  Exception  If error
+	 */
+	public void setUp(BenchmarkContext context) throws Exception {
+		List recordList = context.getCorpus().readRecords(format);
+		records = (String[]) recordList.toArray(new String[recordList.size()]);
+	}
+
+
+	/**
+	 *  Starts each thread at a different record.
+	 *
+	 * @param  numThreads  The number of threads
+	 */
+	public void setUpIteration(int numThreads) {
+		next = new int[numThreads];
+		for (int t = 0; t < numThreads; t++)
+			next[t] = t * records.length / numThreads;
+	}
+
+
+	/**
+	 *  Localizes the next record.
+	 *
+	 * @param  thread         The thread
+	 * @return                1
+	 * @exception  Exception  If the record could not be localized
+	 */
+	public int runOperation(int thread) throws Exception {
+		String xml = records[next[thread]++ % records.length];
+		Document doc;
+		if (xsl)
+			doc = Dom4jUtils.getXmlDocument(XSLTransformer.transformString(xml, Dom4jUtils.getLocalizingTransformer()));
+		else
+			doc = Dom4jUtils.getXmlDocumentLocalized(xml);
+		if (doc == null || doc.getRootElement() == null)
+			throw new Exception("Unable to localize a " + format + " record");
+		return 1;
+	}
+
+
+	/**
+	 *  Gets the parameters of the benchmark
+	 *
+	 * @return    The format, localizing method and number of records
+	 */
+	public Map getParams() {
+		Map params = super.getParams();
+		params.put("format", format);
+		params.put("localizer", xsl ? "xsl" : "filter");
+		params.put("records", new Integer(records == null ? 0 : records.length));
+		return params;
+	}
+}
@@ -0,0 +1,183 @@
+/*
+	Copyright 2017 Digital Learning Sciences (DLS) at the
+	University Corporation for Atmospheric Research (UCAR),
+	P.O. Box 3000, Boulder, CO 80307
+
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+
+	http://www.apache.org/licenses/LICENSE-2.0
+
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+package org.dlese.dpc.benchmark;
+
+import org.dlese.dpc.index.ResultDocList;
+import org.dlese.dpc.index.document.FileContentTools;
+import org.dlese.dpc.index.reader.XMLDocReader;
+import org.dlese.dpc.repository.*;
+import org.dlese.dpc.xml.XMLConversionService;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ *  Measures the records per second served in ListRecords pages for one of the {@link FileContentTools}
+ *  storage modes of the <code>filecontent</code> field. The adn corpus is indexed into a repository of its own
+ *  that stores the field in the given mode, and each operation serves the next page of a harvest of it in adn,
+ *  the records' native format, reading the header and XML of each record on the page the way the provider
+ *  does. The size of the index and its ratio to the size of the XML are given with the results.
+ *
+ * @author    John Weatherley
+ */
+public class FileContentStorageBenchmark extends Benchmark {
+	private final static String FORMAT = "adn";
+	private final static int PAGE_SIZE = 300;
+
+	private String storage;
+	private RepositoryManager rm = null;
+	private ResultDocList results = null;
+	private int page = 0;
+	private long indexBytes = 0;
+	private long xmlBytes = 0;
+
+
+	/**
+	 *  Constructor for the FileContentStorageBenchmark object
+	 *
+	 * @param  storage  The storage mode, FileContentTools.STORAGE_PLAIN or FileContentTools.STORAGE_COMPRESSED
+	 */
+	public FileContentStorageBenchmark(String storage) {
+		this.storage = storage;
+	}
+
+
+	/**
+	 *  Gets the name of the benchmark
+	 *
+	 * @return    The name
+	 */
+	public String getName() {
+		return "FileContentTools.storage." + storage;
+	}
+
+
+	/**
+	 *  Gets the unit of work
+	 *
+	 * @return    'records'
+	 */
+	public String getUnit() {
+		return "records";
+	}
+
+
+	/**
+	 *  Indexes the adn corpus into a new repository that stores file content in the benchmark's mode, and runs
+	 *  the query for the harvest.
+	 *
+	 * @param  context        The context
+	 * @exception  Exception  If error
+	 */
+	public void setUp(BenchmarkContext context) throws Exception {
+		File recordsDir = context.getCorpus().getDirectory(FORMAT);
+		List files = context.getCorpus().getFiles(FORMAT);
+		for (int i = 0; i < files.size(); i++)
+			xmlBytes += ((File) files.get(i)).length();
+
+		File dataDir = new File(context.getWorkDir(), "file_content_storage_" + storage);
+		dataDir.mkdirs();
+		rm = new RepositoryManager(new File(context.getWebappDir(), "WEB-INF/conf"), dataDir.getAbsolutePath(), 0, 500, false);
+		rm.setFileContentStorage(storage);
+		if (rm.init(false) != 1)
+			throw new Exception("Unable to initialize the RepositoryManager");
+
+		// The records are served in their native format, which needs no converters
+		File cacheDir = new File(dataDir, "converted_xml_cache");
+		cacheDir.mkdirs();
+		rm.setXMLConversionService(new XMLConversionService(cacheDir, true));
+		rm.addSetInfo(new SetInfo("Storage " + storage, "storage-" + storage, "", "true",
+			recordsDir.getAbsolutePath(), FORMAT, "storage-" + storage));
+		BenchmarkContext.IndexingObserver observer = new BenchmarkContext.IndexingObserver();
+		rm.indexFiles(observer, true);
+		observer.awaitCompletion();
+		indexBytes = getSize(new File(dataDir, "repository_index"));
+
+		results = rm.getOaiQueryResults(FORMAT, null, null, null);
+		if (results == null || results.size() != files.size())
+			throw new Exception("Expected " + files.size() + " " + FORMAT + " results from the repository, found " +
+				(results == null ? 0 : results.size()));
+		if (!results.acquireReader())
+			throw new Exception("The index was updated after indexing completed");
+	}
+
+
+	/**
+	 *  Serves the next page of the harvest.
+	 *
+	 * @param  thread         The thread
+	 * @return                The number of records on the page
+	 * @exception  Exception  If a record on the page can not be disseminated
+	 */
+	public int runOperation(int thread) throws Exception {
+		int offset = page * PAGE_SIZE;
+		int end = Math.min(results.size(), offset + PAGE_SIZE);
+		StringBuffer out = new StringBuffer("<ListRecords>");
+		for (int i = offset; i < end; i++) {
+			XMLDocReader rdr = (XMLDocReader) results.get(i).getDocReader();
+			String metadata = rdr.getXmlFormat(FORMAT, true);
+			if (metadata == null || metadata.length() == 0)
+				throw new Exception("Unable to disseminate result " + i + " in " + FORMAT);
+			out.append("<record><header><identifier>").append(rdr.getId());
+			out.append("</identifier><datestamp>").append(rdr.getOaiDatestamp()).append("</datestamp>");
+			List sets = rdr.getOaiSets();
+			for (int j = 0; sets != null && j < sets.size(); j++)
+				out.append("<setSpec>").append(sets.get(j)).append("</setSpec>");
+			out.append("</header><metadata>").append(metadata).append("</metadata></record>");
+		}
+		out.append("</ListRecords>");
+		page = (end >= results.size() ? 0 : page + 1);
+		return end - offset;
+	}
+
+
+	/**  Releases the results and shuts down the repository. */
+	public void tearDown() {
+		if (results != null)
+			results.releaseReader();
+		if (rm != null)
+			rm.destroy();
+	}
+
+
+	/**
+	 *  Gets the parameters of the benchmark
+	 *
+	 * @return    The storage mode, page size, number of records, and the size of the index and XML
+	 */
+	public Map getParams() {
+		Map params = super.getParams();
+		params.put("storage", storage);
+		params.put("format", FORMAT);
+		params.put("pageSize", new Integer(PAGE_SIZE));
+		params.put("records", new Integer(results == null ? 0 : results.size()));
+		params.put("indexBytes", new Long(indexBytes));
+		params.put("xmlBytes", new Long(xmlBytes));
+		params.put("indexToXmlRatio", new Double(xmlBytes == 0 ? 0 : Math.round(indexBytes * 100.0 / xmlBytes) / 100.0));
+		return params;
+	}
+
+
+	private static long getSize(File dir) {
+		long size = 0;
+		File[] files = dir.listFiles();
+		for (int i = 0; files != null && i < files.length; i++)
+			size += (files[i].isDirectory() ? getSize(files[i]) : files[i].length());
+		return size;
+	}
+}
@@ -0,0 +1,96 @@
+/*
+	Copyright 2017 Digital Learning Sciences (DLS) at the
+	University Corporation for Atmospheric Research (UCAR),
+	P.O. Box 3000, Boulder, CO 80307
+
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+
+	http://www.apache.org/licenses/LICENSE-2.0
+
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+package org.dlese.dpc.benchmark;
+
+import org.dlese.dpc.index.FileIndexingService;
+
+import java.util.*;
+
+/**
+ *  Measures the records per second indexed by the {@link FileIndexingService} of the benchmark repository.
+ *  Each operation reindexes all of the adn and nsdl_dc records in the repository and waits for indexing to
+ *  complete, so an operation usually runs past the end of an iteration; it is counted in the iteration it
+ *  started in.
+ *
+ * @author    John Weatherley
+ */
+public class FileIndexingBenchmark extends Benchmark {
+	private FileIndexingService fileIndexingService = null;
+	private int numRecords = 0;
+
+
+	/**
+	 *  Gets the name of the benchmark
+	 *
+	 * @return    The name
+	 */
+	public String getName() {
+		return "FileIndexingService.indexFiles";
+	}
+
+
+	/**
+	 *  Gets the unit of work
+	 *
+	 * @return    'records'
+	 */
+	public String getUnit() {
+		return "records";
+	}
+
+
+	/**
+	 *  Gets the repository's FileIndexingService.
+	 *
+	 * @param  context        The context
+	 * @exception  Exception  If error
+	 */
+	public void setUp(BenchmarkContext context) throws Exception {
+		fileIndexingService = context.getRepositoryManager().getFileIndexingService();
+		numRecords = context.getCorpus().getNumRecords() * 2;
+	}
+
+
+	/**
+	 *  Reindexes all records.
+	 *
+	 * @param  thread         The thread
+	 * @return                The number of records indexed
+	 * @exception  Exception  If indexing did not succeed
+	 */
+	public int runOperation(int thread) throws Exception {
+		BenchmarkContext.IndexingObserver observer = new BenchmarkContext.IndexingObserver();
+		fileIndexingService.indexFiles(true, observer);
+		observer.awaitCompletion();
+		return numRecords;
+	}
+
+
+	/**
+	 *  Gets the parameters of the benchmark
+	 *
+	 * @return    The number of records and indexing threads
+	 */
+	public Map getParams() {
+		Map params = super.getParams();
+		params.put("records", new Integer(numRecords));
+		if (fileIndexingService != null)
+			params.put("indexingThreads", new Integer(fileIndexingService.getNumIndexingThreads()));
+		return params;
+	}
+}
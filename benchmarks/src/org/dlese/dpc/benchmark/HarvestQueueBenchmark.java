@@ -0,0 +1,190 @@
+/*
+	Copyright 2017 Digital Learning Sciences (DLS) at the
+	University Corporation for Atmospheric Research (UCAR),
+	P.O. Box 3000, Boulder, CO 80307
+
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+
+	http://www.apache.org/licenses/LICENSE-2.0
+
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+package org.dlese.dpc.benchmark;
+
+import org.dlese.dpc.oai.harvester.HarvestQueue;
+
+import java.util.*;
+
+/**
+ *  Measures the harvests per second finished when a burst of scheduled harvests all come due at once and are
+ *  run by a {@link HarvestQueue}. For comparison the harvests may instead each be started in a thread of
+ *  their own, as the ScheduledHarvestManager did before. Each simulated harvest holds a buffer, standing in
+ *  for the DOM of a response, for a fixed time while it sends requests to its host, and each operation runs
+ *  one burst. The peak number of harvests running at once, overall and against one host, and the peak heap
+ *  used are given with the results.
+ *
+ * @author    John Weatherley
+ */
+public class HarvestQueueBenchmark extends Benchmark {
+	private final static int NUM_HARVESTS = 60;
+	private final static int NUM_HOSTS = 12;
+	private final static int NUM_WORKERS = 4;
+	private final static long HARVEST_MS = 20;
+	private final static int HARVEST_BYTES = 1000000;
+
+	private boolean queued;
+	private int running = 0;
+	private int peakRunning = 0;
+	// Host number (Integer) to the number of its harvests that are running (int[1])
+	private HashMap runningPerHost = new HashMap();
+	private int peakPerHost = 0;
+	private long peakHeap = 0;
+
+
+	/**
+	 *  Constructor for the HarvestQueueBenchmark object
+	 *
+	 * @param  queued  True to run the harvests in a HarvestQueue, false to start a thread for each
+	 */
+	public HarvestQueueBenchmark(boolean queued) {
+		this.queued = queued;
+	}
+
+
+	/**
+	 *  Gets the name of the benchmark
+	 *
+	 * @return    The name
+	 */
+	public String getName() {
+		return queued ? "HarvestQueue.submit" : "HarvestQueue.submit.threadPerHarvest";
+	}
+
+
+	/**
+	 *  Gets the unit of work
+	 *
+	 * @return    'harvests'
+	 */
+	public String getUnit() {
+		return "harvests";
+	}
+
+
+	/**
+	 *  Does nothing: the harvests are simulated.
+	 *
+	 * @param  context  The context
+	 */
+	public void setUp(BenchmarkContext context) { }
+
+
+	/**
+	 *  Runs a burst of harvests and waits for all of them to finish.
+	 *
+	 * @param  thread         The thread
+	 * @return                The number of harvests
+	 * @exception  Exception  If a harvest did not run once
+	 */
+	public int runOperation(int thread) throws Exception {
+		int[] runs = new int[NUM_HARVESTS];
+		if (queued) {
+			HarvestQueue queue = new HarvestQueue(NUM_WORKERS, 1, 0);
+			try {
+				for (int i = 0; i < NUM_HARVESTS; i++)
+					queue.submit(new Integer(i), getBaseURL(i), HarvestQueue.PRIORITY_SCHEDULED, "harvest " + i, new SimulatedHarvest(i, runs));
+				while (queue.getNumCompleted() < NUM_HARVESTS)
+					Thread.sleep(5);
+			} finally {
+				queue.shutdown();
+			}
+		}
+		else {
+			Thread[] threads = new Thread[NUM_HARVESTS];
+			for (int i = 0; i < NUM_HARVESTS; i++) {
+				threads[i] = new Thread(new SimulatedHarvest(i, runs));
+				threads[i].start();
+			}
+			for (int i = 0; i < NUM_HARVESTS; i++)
+				threads[i].join();
+		}
+		for (int i = 0; i < NUM_HARVESTS; i++) {
+			if (runs[i] != 1)
+				throw new Exception("Harvest " + i + " ran " + runs[i] + " times");
+		}
+		return NUM_HARVESTS;
+	}
+
+
+	private static String getBaseURL(int i) {
+		return "http://provider" + (i % NUM_HOSTS) + ".example.org/oai";
+	}
+
+
+	/**
+	 *  Gets the parameters of the benchmark
+	 *
+	 * @return    The burst, and the peak harvests running and heap used
+	 */
+	public synchronized Map getParams() {
+		Map params = super.getParams();
+		params.put("execution", queued ? "HarvestQueue" : "threadPerHarvest");
+		params.put("harvests", new Integer(NUM_HARVESTS));
+		params.put("hosts", new Integer(NUM_HOSTS));
+		if (queued)
+			params.put("workers", new Integer(NUM_WORKERS));
+		params.put("harvestMs", new Long(HARVEST_MS));
+		params.put("harvestBytes", new Integer(HARVEST_BYTES));
+		params.put("peakRunning", new Integer(peakRunning));
+		params.put("peakRunningPerHost", new Integer(peakPerHost));
+		params.put("peakHeapBytes", new Long(peakHeap));
+		return params;
+	}
+
+
+	/**  Stands in for a harvest: holds a buffer while it runs and records how many are running. */
+	private class SimulatedHarvest implements Runnable {
+		int num;
+		int[] runs;
+
+
+		SimulatedHarvest(int num, int[] runs) {
+			this.num = num;
+			this.runs = runs;
+		}
+
+
+		public void run() {
+			Integer host = new Integer(num % NUM_HOSTS);
+			synchronized (HarvestQueueBenchmark.this) {
+				runs[num]++;
+				running++;
+				peakRunning = Math.max(peakRunning, running);
+				int[] count = (int[]) runningPerHost.get(host);
+				if (count == null) {
+					count = new int[1];
+					runningPerHost.put(host, count);
+				}
+				count[0]++;
+				peakPerHost = Math.max(peakPerHost, count[0]);
+			}
+			byte[] response = new byte[HARVEST_BYTES];
+			Arrays.fill(response, (byte) num);
+			try {
+				Thread.sleep(HARVEST_MS);
+			} catch (InterruptedException e) {}
+			Runtime rt = Runtime.getRuntime();
+			synchronized (HarvestQueueBenchmark.this) {
+				peakHeap = Math.max(peakHeap, rt.totalMemory() - rt.freeMemory());
+				running--;
+				((int[]) runningPerHost.get(host))[0]--;
+			}
+		}
+	}
+}
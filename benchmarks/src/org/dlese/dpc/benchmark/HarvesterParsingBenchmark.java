@@ -0,0 +1,115 @@
+/*
+	Copyright 2017 Digital Learning Sciences (DLS) at the
+	University Corporation for Atmospheric Research (UCAR),
+	P.O. Box 3000, Boulder, CO 80307
+
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+
+	http://www.apache.org/licenses/LICENSE-2.0
+
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+package org.dlese.dpc.benchmark;
+
+import org.dlese.dpc.oai.harvester.Harvester;
+import org.dlese.dpc.oai.harvester.LoopbackOAIProvider;
+
+import java.util.*;
+
+/**
+ *  Measures the records per second harvested by the {@link Harvester} from the nsdl_dc corpus. The records
+ *  are served by a {@link LoopbackOAIProvider} that answers Identify and ListRecords
+ *  requests with responses built before the run, so the time measured is mostly the Harvester's own requests
+ *  and parsing. Each operation is a complete harvest into memory, following the resumptionTokens through
+ *  every page.
+ *
+ * @author    John Weatherley
+ */
+public class HarvesterParsingBenchmark extends Benchmark {
+	private final static String PREFIX = "nsdl_dc";
+	private final static int PAGE_SIZE = 100;
+
+	private LoopbackOAIProvider provider = null;
+	private int numRecords = 0;
+	private boolean streamingEnabled = true;
+
+
+	/**
+	 *  Gets the name of the benchmark
+	 *
+	 * @return    The name
+	 */
+	public String getName() {
+		return "Harvester.doHarvest";
+	}
+
+
+	/**
+	 *  Gets the unit of work
+	 *
+	 * @return    'records'
+	 */
+	public String getUnit() {
+		return "records";
+	}
+
+
+	/**
+	 *  Builds the responses and starts the provider.
+	 *
+	 * @param  context        The context
+	 * @exception  Exception  If error
+	 */
+	public void setUp(BenchmarkContext context) throws Exception {
+		List records = context.getCorpus().readRecords(PREFIX);
+		numRecords = records.size();
+		provider = new LoopbackOAIProvider(LoopbackOAIProvider.makeListRecordsPages(records, PREFIX, "bench-" + PREFIX, PAGE_SIZE));
+		provider.start();
+		streamingEnabled = new Harvester().isStreamingEnabled();
+	}
+
+
+	/**
+	 *  Harvests all records.
+	 *
+	 * @param  thread         The thread
+	 * @return                The number of records harvested
+	 * @exception  Exception  If the harvest failed or did not return every record
+	 */
+	public int runOperation(int thread) throws Exception {
+		Harvester harvester = new Harvester(null, null, 60000);
+		String[][] records = harvester.doHarvest(provider.getBaseURL(), PREFIX, null, null, null,
+			null, false, null, null, false, true, false);
+		if (records == null || records.length != numRecords)
+			throw new Exception("Harvested " + (records == null ? 0 : records.length) + " records, expected " + numRecords);
+		return records.length;
+	}
+
+
+	/**  Stops the provider. */
+	public void tearDown() {
+		if (provider != null)
+			provider.shutdown();
+	}
+
+
+	/**
+	 *  Gets the parameters of the benchmark
+	 *
+	 * @return    The format, page size, number of records and whether streaming is enabled
+	 */
+	public Map getParams() {
+		Map params = super.getParams();
+		params.put("format", PREFIX);
+		params.put("pageSize", new Integer(PAGE_SIZE));
+		params.put("records", new Integer(numRecords));
+		params.put("streamingEnabled", new Boolean(streamingEnabled));
+		return params;
+	}
+}
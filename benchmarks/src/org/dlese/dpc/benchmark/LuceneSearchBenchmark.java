@@ -0,0 +1,141 @@
+/*
+	Copyright 2017 Digital Learning Sciences (DLS) at the
+	University Corporation for Atmospheric Research (UCAR),
+	P.O. Box 3000, Boulder, CO 80307
+
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+
+	http://www.apache.org/licenses/LICENSE-2.0
+
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+package org.dlese.dpc.benchmark;
+
+import org.dlese.dpc.index.*;
+
+import java.util.*;
+
+/**
+ *  Measures the searches per second done by {@link SimpleLuceneIndex#searchDocs(String)} over the benchmark
+ *  repository's index, from one or more threads. Each thread runs a fixed mix of term, boolean, field,
+ *  phrase and prefix queries over words from the synthetic corpus vocabulary, starting at a different point in
+ *  the mix.
+ *
+ * @author    John Weatherley
+ */
+public class LuceneSearchBenchmark extends Benchmark {
+	private SimpleLuceneIndex index = null;
+	private String[] queries = null;
+	private int[] next = null;
+
+
+	/**
+	 *  Gets the name of the benchmark
+	 *
+	 * @return    The name
+	 */
+	public String getName() {
+		return "SimpleLuceneIndex.searchDocs";
+	}
+
+
+	/**
+	 *  Gets the unit of work
+	 *
+	 * @return    'searches'
+	 */
+	public String getUnit() {
+		return "searches";
+	}
+
+
+	/**
+	 *  Runs with each configured thread count.
+	 *
+	 * @param  configured  The configured thread counts
+	 * @return             The configured thread counts
+	 */
+	public int[] getThreadCounts(int[] configured) {
+		return configured;
+	}
+
+
+	/**
+	 *  Gets the index and the queries that have matches.
+	 *
+	 * @param  context        The context
+	 * @exception  Exception  If no query has matches
+	 */
+	public void setUp(BenchmarkContext context) throws Exception {
+		index = context.getRepositoryManager().getIndex();
+		String[] words = SyntheticCorpus.VOCABULARY;
+		List list = new ArrayList();
+		for (int i = 0; i < words.length; i++) {
+			String next = words[(i + 1) % words.length];
+			list.add(words[i]);
+			list.add(words[i] + " AND " + next);
+			list.add(words[i] + " OR " + next);
+			list.add("title:" + words[i]);
+			list.add("\"" + words[i] + " " + next + "\"");
+			list.add(words[i].substring(0, 3) + "*");
+			list.add("xmlFormat:adn AND " + words[i]);
+		}
+		// A small corpus may not hold every phrase, so only the queries that have matches are used
+		for (Iterator it = list.iterator(); it.hasNext(); ) {
+			ResultDocList results = index.searchDocs((String) it.next());
+			if (results == null || results.size() == 0)
+				it.remove();
+		}
+		if (list.size() == 0)
+			throw new Exception("No matches for any query. Is the repository indexed?");
+		queries = (String[]) list.toArray(new String[list.size()]);
+	}
+
+
+	/**
+	 *  Starts each thread at a different query.
+	 *
+	 * @param  numThreads  The number of threads
+	 */
+	public void setUpIteration(int numThreads) {
+		next = new int[numThreads];
+		for (int t = 0; t < numThreads; t++)
+			next[t] = t * queries.length / numThreads;
+	}
+
+
+	/**
+	 *  Runs the next query.
+	 *
+	 * @param  thread         The thread
+	 * @return                1
+	 * @exception  Exception  If the search failed
+	 */
+	public int runOperation(int thread) throws Exception {
+		String query = queries[next[thread]++ % queries.length];
+		ResultDocList results = index.searchDocs(query);
+		if (results == null || results.size() == 0)
+			throw new Exception("No matches for query " + query);
+		return 1;
+	}
+
+
+	/**
+	 *  Gets the parameters of the benchmark
+	 *
+	 * @return    The number of queries and indexed records
+	 */
+	public Map getParams() {
+		Map params = super.getParams();
+		params.put("queries", new Integer(queries == null ? 0 : queries.length));
+		if (index != null)
+			params.put("indexedRecords", new Integer(index.getNumDocs()));
+		return params;
+	}
+}
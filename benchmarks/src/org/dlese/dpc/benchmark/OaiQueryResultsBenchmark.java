@@ -0,0 +1,166 @@
+/*
+	Copyright 2017 Digital Learning Sciences (DLS) at the
+	University Corporation for Atmospheric Research (UCAR),
+	P.O. Box 3000, Boulder, CO 80307
+
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+
+	http://www.apache.org/licenses/LICENSE-2.0
+
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+package org.dlese.dpc.benchmark;
+
+import org.dlese.dpc.index.*;
+import org.dlese.dpc.index.reader.*;
+import org.dlese.dpc.repository.*;
+
+import java.util.*;
+
+/**
+ *  Measures the ListRecords resumption pages per second served from {@link
+ *  RepositoryManager#getOaiQueryResults}, from one or more threads, each of which harvests the benchmark
+ *  repository in oai_dc page by page. A page is served the way the provider serves it: the first page runs
+ *  the query and keeps the results in the {@link ResumptionTokenStore}, the following pages take the results
+ *  from the store, running the query again only if they are no longer stored, and the XML of each record on
+ *  the page is read in the requested format.
+ *
+ * @author    John Weatherley
+ */
+public class OaiQueryResultsBenchmark extends Benchmark {
+	private final static String FORMAT = "oai_dc";
+	private final static int DEFAULT_PAGE_SIZE = 300;
+
+	private RepositoryManager rm = null;
+	private ResumptionTokenStore tokenStore = null;
+	private int pageSize = DEFAULT_PAGE_SIZE;
+	private int numResults = 0;
+	private int[] pages = null;
+	private String[] storeKeys = null;
+
+
+	/**
+	 *  Gets the name of the benchmark
+	 *
+	 * @return    The name
+	 */
+	public String getName() {
+		return "RepositoryManager.getOaiQueryResults";
+	}
+
+
+	/**
+	 *  Gets the unit of work
+	 *
+	 * @return    'pages'
+	 */
+	public String getUnit() {
+		return "pages";
+	}
+
+
+	/**
+	 *  Runs with each configured thread count.
+	 *
+	 * @param  configured  The configured thread counts
+	 * @return             The configured thread counts
+	 */
+	public int[] getThreadCounts(int[] configured) {
+		return configured;
+	}
+
+
+	/**
+	 *  Gets the repository and the page size it is configured with, and checks that the query has results.
+	 *
+	 * @param  context        The context
+	 * @exception  Exception  If the query has no results
+	 */
+	public void setUp(BenchmarkContext context) throws Exception {
+		rm = context.getRepositoryManager();
+		tokenStore = rm.getResumptionTokenStore();
+		try {
+			pageSize = Integer.parseInt(rm.getNumRecordsResults().trim());
+		} catch (Throwable t) {
+			pageSize = DEFAULT_PAGE_SIZE;
+		}
+		ResultDocList results = rm.getOaiQueryResults(FORMAT, null, null, null);
+		if (results == null || results.size() == 0)
+			throw new Exception("No " + FORMAT + " results from the repository");
+		numResults = results.size();
+	}
+
+
+	/**
+	 *  Starts each thread at the first page.
+	 *
+	 * @param  numThreads  The number of threads
+	 */
+	public void setUpIteration(int numThreads) {
+		pages = new int[numThreads];
+		storeKeys = new String[numThreads];
+	}
+
+
+	/**
+	 *  Serves the thread's next page.
+	 *
+	 * @param  thread         The thread
+	 * @return                1
+	 * @exception  Exception  If a record on the page can not be disseminated
+	 */
+	public int runOperation(int thread) throws Exception {
+		ResultDocList results = null;
+		if (storeKeys[thread] != null)
+			results = tokenStore.get(storeKeys[thread], FORMAT, null, null, null);
+		if (results == null) {
+			results = rm.getOaiQueryResults(FORMAT, null, null, null);
+			if (results == null || results.size() == 0)
+				throw new Exception("No " + FORMAT + " results from the repository");
+			if (!results.acquireReader())
+				throw new Exception("The index was updated during the run");
+			if (results.size() > pageSize)
+				storeKeys[thread] = tokenStore.put(results, FORMAT, null, null, null);
+		}
+
+		int offset = pages[thread] * pageSize;
+		int end = Math.min(results.size(), offset + pageSize);
+		try {
+			for (int i = offset; i < end; i++) {
+				DocReader docReader = results.get(i).getDocReader();
+				if (!(docReader instanceof XMLDocReader) || ((XMLDocReader) docReader).getXmlFormat(FORMAT, true).length() == 0)
+					throw new Exception("Unable to disseminate result " + i + " in " + FORMAT);
+			}
+		} finally {
+			results.releaseReader();
+		}
+
+		if (end >= results.size()) {
+			pages[thread] = 0;
+			storeKeys[thread] = null;
+		}
+		else
+			pages[thread]++;
+		return 1;
+	}
+
+
+	/**
+	 *  Gets the parameters of the benchmark
+	 *
+	 * @return    The format, page size and number of results
+	 */
+	public Map getParams() {
+		Map params = super.getParams();
+		params.put("format", FORMAT);
+		params.put("pageSize", new Integer(pageSize));
+		params.put("results", new Integer(numResults));
+		return params;
+	}
+}
@@ -0,0 +1,179 @@
+/*
+	Copyright 2017 Digital Learning Sciences (DLS) at the
+	University Corporation for Atmospheric Research (UCAR),
+	P.O. Box 3000, Boulder, CO 80307
+
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+
+	http://www.apache.org/licenses/LICENSE-2.0
+
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+package org.dlese.dpc.benchmark;
+
+import org.dlese.dpc.oai.harvester.PackedRecordStore;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ *  Measures the records per second saved by an incremental harvest into a {@link PackedRecordStore}. The adn
+ *  corpus is saved once as a full harvest during setup, then each operation saves all of the records again
+ *  as the next incremental harvest, in which every tenth record has changed, and flushes the store. For
+ *  comparison the records may instead be saved one file per record, the way the Harvester did before,
+ *  reading each previous file to compare it with the new content.
+ *
+ * @author    John Weatherley
+ */
+public class PackedRecordStoreBenchmark extends Benchmark {
+	private boolean packed;
+	private File dir = null;
+	private PackedRecordStore store = null;
+	private String[] paths = null;
+	private String[] records = null;
+	private int harvest = 0;
+
+
+	/**
+	 *  Constructor for the PackedRecordStoreBenchmark object
+	 *
+	 * @param  packed  True to save the records in a PackedRecordStore, false to save a file per record
+	 */
+	public PackedRecordStoreBenchmark(boolean packed) {
+		this.packed = packed;
+	}
+
+
+	/**
+	 *  Gets the name of the benchmark
+	 *
+	 * @return    The name
+	 */
+	public String getName() {
+		return packed ? "PackedRecordStore.put" : "PackedRecordStore.put.files";
+	}
+
+
+	/**
+	 *  Gets the unit of work
+	 *
+	 * @return    'records'
+	 */
+	public String getUnit() {
+		return "records";
+	}
+
+
+	/**
+	 *  Reads the records and saves them as a full harvest.
+	 *
+	 * @param  context        The context
+	 * @exception  Exception  If error
+	 */
+	public void setUp(BenchmarkContext context) throws Exception {
+		List files = context.getCorpus().getFiles("adn");
+		List recordList = context.getCorpus().readRecords("adn");
+		paths = new String[files.size()];
+		records = (String[]) recordList.toArray(new String[recordList.size()]);
+		for (int i = 0; i < paths.length; i++)
+			paths[i] = "bench-adn/" + ((File) files.get(i)).getName();
+
+		dir = new File(context.getWorkDir(), "record_store_" + (packed ? "packed" : "files"));
+		if (packed)
+			store = new PackedRecordStore(dir);
+		saveHarvest();
+	}
+
+
+	/**
+	 *  Saves the next incremental harvest.
+	 *
+	 * @param  thread         The thread
+	 * @return                The number of records saved
+	 * @exception  Exception  If error
+	 */
+	public int runOperation(int thread) throws Exception {
+		harvest++;
+		saveHarvest();
+		return paths.length;
+	}
+
+
+	private void saveHarvest() throws Exception {
+		for (int i = 0; i < paths.length; i++) {
+			// Every tenth record changes in each harvest
+			String xml = records[i];
+			if (i % 10 == harvest % 10)
+				xml = xml + "<!-- harvest " + harvest + " -->\n";
+			byte[] content = xml.getBytes("UTF-8");
+			if (packed)
+				store.put(paths[i], content);
+			else
+				writeFile(new File(dir, paths[i]), content);
+		}
+		if (packed)
+			store.flush();
+	}
+
+
+	/**
+	 *  Writes a record file the way the Harvester did before, reading the previous file to compare.
+	 *
+	 * @param  f              The file
+	 * @param  content        The content
+	 * @return                True if the content was unchanged
+	 * @exception  Exception  If error
+	 */
+	private static boolean writeFile(File f, byte[] content) throws Exception {
+		File parent = f.getParentFile();
+		if (!parent.exists())
+			parent.mkdirs();
+		byte[] previous = null;
+		if (f.exists()) {
+			previous = new byte[(int) f.length()];
+			DataInputStream in = new DataInputStream(new FileInputStream(f));
+			try {
+				in.readFully(previous);
+			} finally {
+				in.close();
+			}
+		}
+		FileOutputStream out = new FileOutputStream(f);
+		try {
+			out.write(content);
+		} finally {
+			out.close();
+		}
+		return previous != null && Arrays.equals(previous, content);
+	}
+
+
+	/**
+	 *  Closes the store.
+	 *
+	 * @exception  Exception  If error
+	 */
+	public void tearDown() throws Exception {
+		if (store != null)
+			store.close();
+	}
+
+
+	/**
+	 *  Gets the parameters of the benchmark
+	 *
+	 * @return    The storage and number of records
+	 */
+	public Map getParams() {
+		Map params = super.getParams();
+		params.put("storage", packed ? "packed" : "files");
+		params.put("records", new Integer(paths == null ? 0 : paths.length));
+		return params;
+	}
+}
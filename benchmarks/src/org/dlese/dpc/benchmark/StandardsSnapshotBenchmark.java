@@ -0,0 +1,187 @@
+/*
+	Copyright 2017 Digital Learning Sciences (DLS) at the
+	University Corporation for Atmospheric Research (UCAR),
+	P.O. Box 3000, Boulder, CO 80307
+
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+
+	http://www.apache.org/licenses/LICENSE-2.0
+
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+package org.dlese.dpc.benchmark;
+
+import org.dlese.dpc.schemedit.standards.StandardsSnapshotStore;
+import org.dlese.dpc.standards.asn.AsnDocument;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ *  Measures the standards documents per second read from their {@link StandardsSnapshotStore} snapshots, as
+ *  the TreeCache reads a document on a miss. For comparison the document may instead be parsed from its ASN
+ *  XML file, as the TreeCache did before. A generated ASN document of 5000 statements, in three levels under
+ *  the document, is used.
+ *
+ * @author    Jonathan Ostwald
+ */
+public class StandardsSnapshotBenchmark extends Benchmark {
+	private final static String UID = "D4000001";
+	private final static int NUM_STATEMENTS = 5000;
+	private final static int PER_PARENT = 10;
+
+	private boolean snapshot;
+	private File source = null;
+	private StandardsSnapshotStore store = null;
+
+
+	/**
+	 *  Constructor for the StandardsSnapshotBenchmark object
+	 *
+	 * @param  snapshot  True to read the document from its snapshot, false to parse the ASN XML
+	 */
+	public StandardsSnapshotBenchmark(boolean snapshot) {
+		this.snapshot = snapshot;
+	}
+
+
+	/**
+	 *  Gets the name of the benchmark
+	 *
+	 * @return    The name
+	 */
+	public String getName() {
+		return snapshot ? "StandardsSnapshotStore.getAsnDocument" : "AsnDocument.parse";
+	}
+
+
+	/**
+	 *  Gets the unit of work
+	 *
+	 * @return    'documents'
+	 */
+	public String getUnit() {
+		return "documents";
+	}
+
+
+	/**
+	 *  Writes the ASN document and, for the snapshot, reads it once so its snapshot is written.
+	 *
+	 * @param  context        The context
+	 * @exception  Exception  If error
+	 */
+	public void setUp(BenchmarkContext context) throws Exception {
+		File dir = new File(context.getWorkDir(), "standards_" + (snapshot ? "snapshot" : "xml"));
+		dir.mkdirs();
+		source = writeAsnDocument(new File(dir, UID + ".xml"));
+		if (snapshot) {
+			store = new StandardsSnapshotStore(new File(dir, "snapshots"));
+			store.getAsnDocument(source);
+			if (store.getNumWritten() != 1)
+				throw new Exception("The snapshot of " + source + " was not written");
+		}
+	}
+
+
+	/**
+	 *  Reads the document.
+	 *
+	 * @param  thread         The thread
+	 * @return                1
+	 * @exception  Exception  If the document was not read
+	 */
+	public int runOperation(int thread) throws Exception {
+		AsnDocument asnDoc = (snapshot ? store.getAsnDocument(source) : new AsnDocument(source));
+		// The standards include the document itself
+		if (asnDoc.getStandards().size() != NUM_STATEMENTS + 1)
+			throw new Exception("Read " + asnDoc.getStandards().size() + " standards, expected " + (NUM_STATEMENTS + 1));
+		return 1;
+	}
+
+
+	/**
+	 *  Gets the parameters of the benchmark
+	 *
+	 * @return    The source and the number of statements
+	 */
+	public Map getParams() {
+		Map params = super.getParams();
+		params.put("source", snapshot ? "snapshot" : "xml");
+		params.put("statements", new Integer(NUM_STATEMENTS));
+		if (source != null)
+			params.put("xmlBytes", new Long(source.length()));
+		return params;
+	}
+
+
+	/**
+	 *  Writes the generated ASN standards document.
+	 *
+	 * @param  file           the file
+	 * @return                the file
+	 * @exception  Exception  If error
+	 */
+	private static File writeAsnDocument(File file) throws Exception {
+		String docId = "http://purl.org/ASN/resources/" + UID;
+		StringBuffer xml = new StringBuffer();
+		xml.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+		xml.append("<rdf:RDF xmlns:rdf=\"http://www.w3.org/1999/02/22-rdf-syntax-ns#\"" +
+			" xmlns:asn=\"http://purl.org/ASN/schema/core/\" xmlns:dcterms=\"http://purl.org/dc/terms/\"" +
+			" xmlns:gemq=\"http://purl.org/gem/qualifiers/\">\n");
+		xml.append("<asn:StandardDocument rdf:about=\"" + docId + "\">\n");
+		xml.append("  <dcterms:title>Generated Science Standards " + UID + "</dcterms:title>\n");
+		xml.append("  <asn:jurisdiction rdf:resource=\"http://purl.org/ASN/scheme/ASNJurisdiction/NSES\"/>\n");
+		xml.append("  <dcterms:subject rdf:resource=\"http://purl.org/ASN/scheme/ASNTopic/science\"/>\n");
+		xml.append("  <dcterms:description>Generated for benchmarking</dcterms:description>\n");
+		xml.append("  <asn:exportVersion>http://purl.org/ASN/export/2.0.0</asn:exportVersion>\n");
+		xml.append("  <dcterms:created>2005</dcterms:created>\n");
+		xml.append("  <asn:fileCreated>2009-06-25</asn:fileCreated>\n");
+		appendChildren(xml, 0, PER_PARENT);
+		xml.append("</asn:StandardDocument>\n");
+
+		for (int i = 0; i < NUM_STATEMENTS; i++) {
+			String parentId = (i < PER_PARENT ? docId : statementId(i / PER_PARENT - 1));
+			xml.append("<asn:Statement rdf:about=\"" + statementId(i) + "\">\n");
+			xml.append("  <gemq:isChildOf rdf:resource=\"" + parentId + "\"/>\n");
+			xml.append("  <dcterms:isPartOf rdf:resource=\"" + docId + "\"/>\n");
+			xml.append("  <dcterms:subject rdf:resource=\"http://purl.org/ASN/scheme/ASNTopic/science\"/>\n");
+			xml.append("  <dcterms:educationLevel rdf:resource=\"http://purl.org/ASN/scheme/ASNEducationLevel/" + (i % 5 + 1) + "\"/>\n");
+			xml.append("  <dcterms:educationLevel rdf:resource=\"http://purl.org/ASN/scheme/ASNEducationLevel/" + (i % 5 + 4) + "\"/>\n");
+			xml.append("  <dcterms:description>Students should understand that statement " + i +
+				" describes properties of matter, motion and forces, and the transfer of energy &amp; heat</dcterms:description>\n");
+			int firstChild = (i + 1) * PER_PARENT;
+			if (firstChild < NUM_STATEMENTS)
+				appendChildren(xml, firstChild, Math.min(firstChild + PER_PARENT, NUM_STATEMENTS));
+			xml.append("</asn:Statement>\n");
+		}
+		xml.append("</rdf:RDF>\n");
+
+		Writer out = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+		try {
+			out.write(xml.toString());
+		} finally {
+			out.close();
+		}
+		return file;
+	}
+
+
+	private static void appendChildren(StringBuffer xml, int from, int to) {
+		xml.append("  <gemq:hasChild><rdf:Seq>\n");
+		for (int c = from; c < to; c++)
+			xml.append("    <rdf:li rdf:resource=\"" + statementId(c) + "\"/>\n");
+		xml.append("  </rdf:Seq></gemq:hasChild>\n");
+	}
+
+
+	private static String statementId(int i) {
+		return "http://purl.org/ASN/resources/S" + UID.substring(1) + "_" + i;
+	}
+}
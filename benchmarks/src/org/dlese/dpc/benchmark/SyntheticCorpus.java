@@ -0,0 +1,184 @@
+/*
+	Copyright 2017 Digital Learning Sciences (DLS) at the
+	University Corporation for Atmospheric Research (UCAR),
+	P.O. Box 3000, Boulder, CO 80307
+
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+
+	http://www.apache.org/licenses/LICENSE-2.0
+
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+package org.dlese.dpc.benchmark;
+
+import org.dlese.dpc.util.Files;
+import org.dlese.dpc.xml.*;
+
+import java.io.*;
+import java.util.*;
+
+import javax.xml.transform.Transformer;
+
+/**
+ *  A corpus of synthetic adn records, and the nsdl_dc records made from them, used by the benchmarks. Each adn
+ *  record is made from one of the adn records in the sample_metadata directory of the webapp, with a new id
+ *  and a title and description drawn from a fixed vocabulary, so the records differ in their content as well
+ *  as their ids. The nsdl_dc records are made from the adn records by the adn to nsdl_dc XSL. The random
+ *  choices are seeded, so the same number of records gives the same corpus in every run and release. <p>
+ *
+ *  The records are written to the 'adn' and 'nsdl_dc' sub-directories of the corpus directory, in files named
+ *  by record id. The records in the two formats have different ids, so both may be indexed in one repository.
+ *
+ * @author    John Weatherley
+ */
+public class SyntheticCorpus {
+	/**  The words used for the synthetic titles and descriptions, which benchmark queries may search for. */
+	public final static String[] VOCABULARY = {
+		"ocean", "glacier", "climate", "volcano", "earthquake", "hurricane", "sediment", "aquifer",
+		"atmosphere", "plate", "tectonics", "erosion", "watershed", "drought", "tsunami", "mineral",
+		"fossil", "carbon", "weather", "satellite", "estuary", "permafrost", "monsoon", "magma"};
+
+	private final static long SEED = 20170101L;
+
+	private File corpusDir = null;
+	private List adnFiles = new ArrayList();
+	private List nsdlDcFiles = new ArrayList();
+
+
+	/**
+	 *  Generates the corpus.
+	 *
+	 * @param  webappDir      The webapp directory holding WEB-INF/sample_metadata and WEB-INF/xsl_files
+	 * @param  corpusDir      The directory to write the records to
+	 * @param  numRecords     The number of records to generate in each format
+	 * @exception  Exception  If no adn templates are found, or the records can not be written
+	 */
+	public SyntheticCorpus(File webappDir, File corpusDir, int numRecords) throws Exception {
+		this.corpusDir = corpusDir;
+		List templates = new ArrayList();
+		File[] files = new File(webappDir, "WEB-INF/sample_metadata").listFiles(new XMLFileFilter());
+		if (files != null)
+			Arrays.sort(files);
+		for (int i = 0; files != null && i < files.length; i++) {
+			String xml = Files.readFileToEncoding(files[i], "UTF-8").toString();
+			if (xml.indexOf("<itemRecord") != -1)
+				templates.add(xml);
+		}
+		if (templates.size() == 0)
+			throw new Exception("No adn records found in " + new File(webappDir, "WEB-INF/sample_metadata"));
+
+		Transformer toNsdlDc = XSLTransformer.getTransformer(
+			new File(webappDir, "WEB-INF/xsl_files/adn-v0.6.50-to-nsdl_dc-v1.02.xsl").getAbsolutePath());
+
+		File adnDir = new File(corpusDir, "adn");
+		File nsdlDcDir = new File(corpusDir, "nsdl_dc");
+		adnDir.mkdirs();
+		nsdlDcDir.mkdirs();
+
+		Random random = new Random(SEED);
+		for (int i = 0; i < numRecords; i++) {
+			String id = "BENCH-ADN-000-" + pad(i);
+			String adn = makeAdnRecord((String) templates.get(i % templates.size()), id, random);
+			File adnFile = new File(adnDir, id + ".xml");
+			Files.writeFile(adn, adnFile);
+			adnFiles.add(adnFile);
+
+			String nsdlDc = XSLTransformer.transformString(adn, toNsdlDc);
+			if (nsdlDc == null || nsdlDc.length() == 0)
+				throw new Exception("Unable to make the nsdl_dc record for " + id);
+			File nsdlDcFile = new File(nsdlDcDir, "BENCH-DC-000-" + pad(i) + ".xml");
+			Files.writeFile(nsdlDc, nsdlDcFile);
+			nsdlDcFiles.add(nsdlDcFile);
+		}
+	}
+
+
+	/**
+	 *  Gets the directory holding the records in the given format.
+	 *
+	 * @param  format  'adn' or 'nsdl_dc'
+	 * @return         The directory
+	 */
+	public File getDirectory(String format) {
+		return new File(corpusDir, format);
+	}
+
+
+	/**
+	 *  Gets the record files in the given format.
+	 *
+	 * @param  format  'adn' or 'nsdl_dc'
+	 * @return         A List of Files
+	 */
+	public List getFiles(String format) {
+		if (format.equals("adn"))
+			return adnFiles;
+		if (format.equals("nsdl_dc"))
+			return nsdlDcFiles;
+		throw new IllegalArgumentException("Unknown corpus format " + format);
+	}
+
+
+	/**
+	 *  Reads the records in the given format.
+	 *
+	 * @param  format         'adn' or 'nsdl_dc'
+	 * @return                A List of Strings holding the XML of each record
+	 * @exception  Exception  If error
+	 */
+	public List readRecords(String format) throws Exception {
+		List files = getFiles(format);
+		List records = new ArrayList(files.size());
+		for (int i = 0; i < files.size(); i++)
+			records.add(Files.readFileToEncoding((File) files.get(i), "UTF-8").toString());
+		return records;
+	}
+
+
+	/**
+	 *  Gets the number of records in each format.
+	 *
+	 * @return    The number of records
+	 */
+	public int getNumRecords() {
+		return adnFiles.size();
+	}
+
+
+	private static String makeAdnRecord(String template, String id, Random random) {
+		String title = words(random, 3 + random.nextInt(4));
+		StringBuffer description = new StringBuffer();
+		int numSentences = 2 + random.nextInt(5);
+		for (int i = 0; i < numSentences; i++) {
+			String sentence = words(random, 8 + random.nextInt(12));
+			description.append(Character.toUpperCase(sentence.charAt(0)) + sentence.substring(1) + ". ");
+		}
+
+		String xml = template.replaceFirst("(<catalog[^>]*entry=\")[^\"]*(\")", "$1" + id + "$2");
+		xml = xml.replaceFirst("<title>[^<]*</title>", "<title>" + title + "</title>");
+		return xml.replaceFirst("<description>", "<description>" + description);
+	}
+
+
+	private static String words(Random random, int numWords) {
+		StringBuffer words = new StringBuffer();
+		for (int i = 0; i < numWords; i++) {
+			if (i > 0)
+				words.append(' ');
+			words.append(VOCABULARY[random.nextInt(VOCABULARY.length)]);
+		}
+		return words.toString();
+	}
+
+
+	private static String pad(int i) {
+		String s = "000000" + i;
+		return s.substring(s.length() - 6, s.length() - 3) + "-" + s.substring(s.length() - 3);
+	}
+}
@@ -0,0 +1,191 @@
+/*
+	Copyright 2017 Digital Learning Sciences (DLS) at the
+	University Corporation for Atmospheric Research (UCAR),
+	P.O. Box 3000, Boulder, CO 80307
+
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+
+	http://www.apache.org/licenses/LICENSE-2.0
+
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+package org.dlese.dpc.benchmark;
+
+import org.dlese.dpc.xml.XMLConversionService;
+import org.dlese.dpc.xml.XSLTransformer;
+
+import java.io.*;
+import java.util.*;
+
+import javax.xml.transform.Transformer;
+
+/**
+ *  Measures the adn to oai_dc conversions per second done by the {@link XMLConversionService}, from one or
+ *  more threads. {@link XMLConversionService#getConvertedXml(String,String,File)} is measured the way the OAI
+ *  provider uses it: the records are converted and cached during setup, so each operation checks the record
+ *  and returns its cached conversion. {@link XMLConversionService#convertXml} is measured as well, which runs
+ *  the XSL for every record, and for comparison the same XSL run with a single Transformer shared by all
+ *  threads under a lock, which is how conversions were made before the service pooled its Transformers.
+ *
+ * @author    John Weatherley
+ */
+public class XMLConversionBenchmark extends Benchmark {
+	/**  Measures XMLConversionService.convertXml. */
+	public final static int CONVERT_XML = 0;
+	/**  Measures XMLConversionService.getConvertedXml with the converted files cached. */
+	public final static int GET_CONVERTED_XML = 1;
+	/**  Measures a single Transformer shared by all threads under a lock. */
+	public final static int SHARED_TRANSFORMER = 2;
+
+	private final static String XSL_FILE = "adn-v0.6.50-to-oai_dc.xsl";
+
+	private int mode;
+	private XMLConversionService service = null;
+	private Transformer sharedTransformer = null;
+	private File[] files = null;
+	private String[] records = null;
+	private int[] next = null;
+
+
+	/**
+	 *  Constructor for the XMLConversionBenchmark object
+	 *
+	 * @param  mode  CONVERT_XML, GET_CONVERTED_XML or SHARED_TRANSFORMER
+	 */
+	public XMLConversionBenchmark(int mode) {
+		this.mode = mode;
+	}
+
+
+	/**
+	 *  Gets the name of the benchmark
+	 *
+	 * @return    The name
+	 */
+	public String getName() {
+		if (mode == GET_CONVERTED_XML)
+			return "XMLConversionService.getConvertedXml";
+		if (mode == SHARED_TRANSFORMER)
+			return "XSLTransformer.transformString.shared";
+		return "XMLConversionService.convertXml";
+	}
+
+
+	/**
+	 *  Gets the unit of work
+	 *
+	 * @return    'conversions'
+	 */
+	public String getUnit() {
+		return "conversions";
+	}
+
+
+	/**
+	 *  Runs with each configured thread count.
+	 *
+	 * @param  configured  The configured thread counts
+	 * @return             The configured thread counts
+	 */
+	public int[] getThreadCounts(int[] configured) {
+		return configured;
+	}
+
+
+	/**
+	 *  Creates the service or the shared Transformer and, for the cached conversions, converts each record
+	 *  once.
+	 *
+	 * @param  context        The context
+	 * @exception  Exception  If error
+	 */
+	public void setUp(BenchmarkContext context) throws Exception {
+		List fileList = context.getCorpus().getFiles("adn");
+		files = (File[]) fileList.toArray(new File[fileList.size()]);
+		if (mode == SHARED_TRANSFORMER) {
+			sharedTransformer = XSLTransformer.getTransformer(
+				new File(context.getWebappDir(), "WEB-INF/xsl_files/" + XSL_FILE).getAbsolutePath());
+		}
+		else {
+			File cacheDir = new File(context.getWorkDir(), "conversion_benchmark_cache_" + mode);
+			cacheDir.mkdirs();
+			service = context.newXMLConversionService(cacheDir);
+		}
+		if (mode == GET_CONVERTED_XML) {
+			for (int i = 0; i < files.length; i++) {
+				if (service.getConvertedXml("adn", "oai_dc", files[i]) == null)
+					throw new Exception("Unable to convert " + files[i]);
+			}
+		}
+		else {
+			List recordList = context.getCorpus().readRecords("adn");
+			records = (String[]) recordList.toArray(new String[recordList.size()]);
+		}
+	}
+
+
+	/**
+	 *  Starts each thread at a different record.
+	 *
+	 * @param  numThreads  The number of threads
+	 */
+	public void setUpIteration(int numThreads) {
+		next = new int[numThreads];
+		for (int t = 0; t < numThreads; t++)
+			next[t] = t * files.length / numThreads;
+	}
+
+
+	/**
+	 *  Converts the next record.
+	 *
+	 * @param  thread         The thread
+	 * @return                1
+	 * @exception  Exception  If the conversion failed
+	 */
+	public int runOperation(int thread) throws Exception {
+		int i = next[thread]++ % files.length;
+		Object converted;
+		if (mode == GET_CONVERTED_XML)
+			converted = service.getConvertedXml("adn", "oai_dc", files[i]);
+		else if (mode == SHARED_TRANSFORMER) {
+			String xml;
+			synchronized (sharedTransformer) {
+				xml = XSLTransformer.transformString(records[i], sharedTransformer);
+			}
+			converted = (xml.length() > 0 ? xml : null);
+		}
+		else
+			converted = service.convertXml("adn", "oai_dc", records[i]);
+		if (converted == null)
+			throw new Exception("Unable to convert " + files[i]);
+		return 1;
+	}
+
+
+	/**  Stops the service's background thread. */
+	public void tearDown() {
+		if (service != null)
+			service.destroy();
+	}
+
+
+	/**
+	 *  Gets the parameters of the benchmark
+	 *
+	 * @return    The formats and number of records
+	 */
+	public Map getParams() {
+		Map params = super.getParams();
+		params.put("from", "adn");
+		params.put("to", "oai_dc");
+		params.put("records", new Integer(files == null ? 0 : files.length));
+		return params;
+	}
+}
@@ -0,0 +1,135 @@
+/*
+	Copyright 2017 Digital Learning Sciences (DLS) at the
+	University Corporation for Atmospheric Research (UCAR),
+	P.O. Box 3000, Boulder, CO 80307
+
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+
+	http://www.apache.org/licenses/LICENSE-2.0
+
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+package org.dlese.dpc.benchmark;
+
+import org.dlese.dpc.index.writer.xml.*;
+import org.dlese.dpc.xml.Dom4jUtils;
+
+import java.io.*;
+import java.util.*;
+
+import org.dom4j.Document;
+
+/**
+ *  Measures the records per second indexed by {@link XMLIndexer#indexFields} for one corpus format, using the
+ *  XMLIndexerFieldsConfig in the 'xmlIndexerFieldsConfig' directory of the benchmark configuration. The
+ *  records are localized before the run, as the indexing writers do before indexing fields.
+ *
+ * @author    John Weatherley
+ */
+public class XMLIndexerBenchmark extends Benchmark {
+	private String format;
+	private File confDir;
+	private XMLIndexerFieldsConfig config = null;
+	private Document[] docs = null;
+	private int[] next = null;
+
+
+	/**
+	 *  Constructor for the XMLIndexerBenchmark object
+	 *
+	 * @param  format   The corpus format, 'adn' or 'nsdl_dc'
+	 * @param  confDir  The benchmark configuration directory
+	 */
+	public XMLIndexerBenchmark(String format, File confDir) {
+		this.format = format;
+		this.confDir = confDir;
+	}
+
+
+	/**
+	 *  Gets the name of the benchmark
+	 *
+	 * @return    The name
+	 */
+	public String getName() {
+		return "XMLIndexer.indexFields." + format;
+	}
+
+
+	/**
+	 *  Gets the unit of work
+	 *
+	 * @return    'records'
+	 */
+	public String getUnit() {
+		return "records";
+	}
+
+
+	/**
+	 *  Reads the configuration and localizes the records.
+	 *
+	 * @param  context        The context
+	 * @exception  Exception  If error
+	 */
+	public void setUp(BenchmarkContext context) throws Exception {
+		File configIndex = new File(confDir, "xmlIndexerFieldsConfig/xmlIndexerFieldsConfigIndex.xml");
+		config = new XMLIndexerFieldsConfig(configIndex.toURL());
+		if (config.getFormatConfig(format) == null)
+			throw new Exception("No XMLIndexerFieldsConfig for " + format + " in " + configIndex);
+
+		List records = context.getCorpus().readRecords(format);
+		docs = new Document[records.size()];
+		for (int i = 0; i < docs.length; i++)
+			docs[i] = Dom4jUtils.getXmlDocumentLocalized((String) records.get(i));
+	}
+
+
+	/**
+	 *  Starts each thread at a different record.
+	 *
+	 * @param  numThreads  The number of threads
+	 */
+	public void setUpIteration(int numThreads) {
+		next = new int[numThreads];
+		for (int t = 0; t < numThreads; t++)
+			next[t] = t * docs.length / numThreads;
+	}
+
+
+	/**
+	 *  Indexes the fields of the next record.
+	 *
+	 * @param  thread         The thread
+	 * @return                1
+	 * @exception  Exception  If error
+	 */
+	public int runOperation(int thread) throws Exception {
+		Document xmlDoc = docs[next[thread]++ % docs.length];
+		org.apache.lucene.document.Document luceneDoc = new org.apache.lucene.document.Document();
+		XMLIndexer xmlIndexer = new XMLIndexer(xmlDoc, format, config);
+		xmlIndexer.indexFields(luceneDoc);
+		if (luceneDoc.getFields().size() == 0)
+			throw new Exception("No fields were indexed for a " + format + " record");
+		return 1;
+	}
+
+
+	/**
+	 *  Gets the parameters of the benchmark
+	 *
+	 * @return    The format and number of records
+	 */
+	public Map getParams() {
+		Map params = super.getParams();
+		params.put("format", format);
+		params.put("records", new Integer(docs == null ? 0 : docs.length));
+		return params;
+	}
+}
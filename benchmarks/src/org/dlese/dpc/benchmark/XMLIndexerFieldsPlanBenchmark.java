@@ -0,0 +1,185 @@
+/*
+	Copyright 2017 Digital Learning Sciences (DLS) at the
+	University Corporation for Atmospheric Research (UCAR),
+	P.O. Box 3000, Boulder, CO 80307
+
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+
+	http://www.apache.org/licenses/LICENSE-2.0
+
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+package org.dlese.dpc.benchmark;
+
+import org.dlese.dpc.index.writer.xml.*;
+import org.dlese.dpc.xml.Dom4jUtils;
+
+import java.io.*;
+import java.util.*;
+
+import org.dom4j.Document;
+import org.dom4j.Node;
+
+/**
+ *  Measures the records per second from which the configured custom fields, standard fields and
+ *  relationships are extracted with the {@link XMLIndexerFieldsPlan} for one corpus format, using the
+ *  XMLIndexerFieldsConfig in the 'xmlIndexerFieldsConfig' directory of the benchmark configuration. For
+ *  comparison the fields may instead be extracted the way XMLIndexer did before the plan: the field
+ *  definitions are selected from the configuration and each xPath is compiled for every record. The records
+ *  are localized before the run.
+ *
+ * @author    John Weatherley
+ */
+public class XMLIndexerFieldsPlanBenchmark extends Benchmark {
+	private final static String[] FIELD_PATHS = {
+		"/XMLIndexerFieldsConfig/customFields/customField",
+		"/XMLIndexerFieldsConfig/standardFields/standardField",
+		"/XMLIndexerFieldsConfig/relationships/relationship"};
+
+	private String format;
+	private File confDir;
+	private boolean perRecord;
+	private XMLIndexerFieldsPlan plan = null;
+	private Document configXmlDoc = null;
+	private Document[] docs = null;
+	private int[] next = null;
+
+
+	/**
+	 *  Constructor for the XMLIndexerFieldsPlanBenchmark object
+	 *
+	 * @param  format     The corpus format, 'adn' or 'nsdl_dc'
+	 * @param  confDir    The benchmark configuration directory
+	 * @param  perRecord  True to compile the configured xPaths for each record, false to use the plan
+	 */
+	public XMLIndexerFieldsPlanBenchmark(String format, File confDir, boolean perRecord) {
+		this.format = format;
+		this.confDir = confDir;
+		this.perRecord = perRecord;
+	}
+
+
+	/**
+	 *  Gets the name of the benchmark
+	 *
+	 * @return    The name
+	 */
+	public String getName() {
+		return "XMLIndexerFieldsPlan.selectContent." + format + (perRecord ? ".perRecord" : "");
+	}
+
+
+	/**
+	 *  Gets the unit of work
+	 *
+	 * @return    'records'
+	 */
+	public String getUnit() {
+		return "records";
+	}
+
+
+	/**
+	 *  Reads the configuration, compiles the plan and localizes the records.
+	 *
+	 * @param  context        The context
+	 * @exception  Exception  If error
+	 */
+	public void setUp(BenchmarkContext context) throws Exception {
+		File configIndex = new File(confDir, "xmlIndexerFieldsConfig/xmlIndexerFieldsConfigIndex.xml");
+		XMLIndexerFieldsConfig config = new XMLIndexerFieldsConfig(configIndex.toURL());
+		configXmlDoc = config.getFormatConfig(format);
+		plan = config.getFormatPlan(format);
+		if (configXmlDoc == null || plan == null)
+			throw new Exception("No XMLIndexerFieldsConfig for " + format + " in " + configIndex);
+
+		List records = context.getCorpus().readRecords(format);
+		docs = new Document[records.size()];
+		for (int i = 0; i < docs.length; i++)
+			docs[i] = Dom4jUtils.getXmlDocumentLocalized((String) records.get(i));
+	}
+
+
+	/**
+	 *  Starts each thread at a different record.
+	 *
+	 * @param  numThreads  The number of threads
+	 */
+	public void setUpIteration(int numThreads) {
+		next = new int[numThreads];
+		for (int t = 0; t < numThreads; t++)
+			next[t] = t * docs.length / numThreads;
+	}
+
+
+	/**
+	 *  Extracts the configured fields from the next record.
+	 *
+	 * @param  thread         The thread
+	 * @return                1
+	 * @exception  Exception  If no content was extracted
+	 */
+	public int runOperation(int thread) throws Exception {
+		Document xmlDoc = docs[next[thread]++ % docs.length];
+		int count;
+		if (perRecord)
+			count = extractPerRecord(xmlDoc);
+		else
+			count = extractWithPlan(plan.getCustomFields(), xmlDoc) + extractWithPlan(plan.getStandardFields(), xmlDoc) +
+				extractWithPlan(plan.getRelationships(), xmlDoc);
+		if (count == 0)
+			throw new Exception("No fields were extracted from a " + format + " record");
+		return 1;
+	}
+
+
+	private static int extractWithPlan(XMLIndexerFieldsPlan.PlanField[] fields, Document xmlDoc) throws Exception {
+		int count = 0;
+		for (int i = 0; i < fields.length; i++) {
+			for (int x = 0; x < fields[i].getNumXPaths(); x++)
+				count += fields[i].selectContent(x, xmlDoc).size();
+		}
+		return count;
+	}
+
+
+	private int extractPerRecord(Document xmlDoc) {
+		int count = 0;
+		for (int p = 0; p < FIELD_PATHS.length; p++) {
+			List fields = configXmlDoc.selectNodes(FIELD_PATHS[p]);
+			for (int i = 0; i < fields.size(); i++) {
+				List xPaths = ((Node) fields.get(i)).selectNodes("xpaths/xpath");
+				for (int x = 0; x < xPaths.size(); x++) {
+					List contentNodes = xmlDoc.selectNodes(((Node) xPaths.get(x)).getText());
+					for (int j = 0; j < contentNodes.size(); j++) {
+						Object c = contentNodes.get(j);
+						String text = (c instanceof String ? (String) c : ((Node) c).getText()).trim();
+						if (text.length() > 0)
+							count++;
+					}
+				}
+			}
+		}
+		return count;
+	}
+
+
+	/**
+	 *  Gets the parameters of the benchmark
+	 *
+	 * @return    The format, extraction method and number of records
+	 */
+	public Map getParams() {
+		Map params = super.getParams();
+		params.put("format", format);
+		params.put("extraction", perRecord ? "perRecord" : "plan");
+		params.put("records", new Integer(docs == null ? 0 : docs.length));
+		return params;
+	}
+}
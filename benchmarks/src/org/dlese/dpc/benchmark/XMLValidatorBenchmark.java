@@ -0,0 +1,209 @@
+/*
+	Copyright 2017 Digital Learning Sciences (DLS) at the
+	University Corporation for Atmospheric Research (UCAR),
+	P.O. Box 3000, Boulder, CO 80307
+
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+
+	http://www.apache.org/licenses/LICENSE-2.0
+
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+package org.dlese.dpc.benchmark;
+
+import org.dlese.dpc.util.Files;
+import org.dlese.dpc.xml.LocalSchemaCatalog;
+import org.dlese.dpc.xml.XMLValidator;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ *  Measures the records per second validated by {@link XMLValidator#validateString(String)} with the shared
+ *  grammar pool, from one or more threads. For comparison the records may instead be validated the way they
+ *  were before the pool, with a new parser that reads the schema again for each record, from one thread. The
+ *  schema is made of two files, one included by the other, written to the work directory and served through
+ *  a {@link LocalSchemaCatalog} under an http URI prefix, so the benchmark runs offline. The records are
+ *  generated to reference the schema by its http URI, and every tenth is not valid.
+ *
+ * @author    John Weatherley
+ */
+public class XMLValidatorBenchmark extends Benchmark {
+	private final static String NAMESPACE = "http://schemas.example.org/record";
+	private final static String SCHEMA_URI_PREFIX = "http://schemas.example.org/record/1.0/";
+
+	private final static String RECORD_XSD =
+		"<?xml version='1.0' encoding='UTF-8'?>\n" +
+		"<xsd:schema xmlns:xsd='http://www.w3.org/2001/XMLSchema' xmlns='" + NAMESPACE + "'\n" +
+		"    targetNamespace='" + NAMESPACE + "' elementFormDefault='qualified'>\n" +
+		"  <xsd:include schemaLocation='types.xsd'/>\n" +
+		"  <xsd:element name='record'>\n" +
+		"    <xsd:complexType>\n" +
+		"      <xsd:sequence>\n" +
+		"        <xsd:element name='id' type='idType'/>\n" +
+		"        <xsd:element name='title' type='xsd:string'/>\n" +
+		"        <xsd:element name='subject' type='subjectType' maxOccurs='unbounded'/>\n" +
+		"        <xsd:element name='date' type='xsd:date'/>\n" +
+		"      </xsd:sequence>\n" +
+		"    </xsd:complexType>\n" +
+		"  </xsd:element>\n" +
+		"</xsd:schema>\n";
+
+	private final static String TYPES_XSD =
+		"<?xml version='1.0' encoding='UTF-8'?>\n" +
+		"<xsd:schema xmlns:xsd='http://www.w3.org/2001/XMLSchema' xmlns='" + NAMESPACE + "'\n" +
+		"    targetNamespace='" + NAMESPACE + "' elementFormDefault='qualified'>\n" +
+		"  <xsd:simpleType name='idType'>\n" +
+		"    <xsd:restriction base='xsd:string'><xsd:pattern value='REC-[0-9]+'/></xsd:restriction>\n" +
+		"  </xsd:simpleType>\n" +
+		"  <xsd:simpleType name='subjectType'>\n" +
+		"    <xsd:restriction base='xsd:string'>\n" +
+		"      <xsd:enumeration value='Atmospheric science'/>\n" +
+		"      <xsd:enumeration value='Geology'/>\n" +
+		"      <xsd:enumeration value='Oceanography'/>\n" +
+		"    </xsd:restriction>\n" +
+		"  </xsd:simpleType>\n" +
+		"</xsd:schema>\n";
+
+	private boolean grammarCaching;
+	private String[] records = null;
+	private int[] next = null;
+	private LocalSchemaCatalog previousCatalog = null;
+	private boolean previousGrammarCaching = true;
+
+
+	/**
+	 *  Constructor for the XMLValidatorBenchmark object
+	 *
+	 * @param  grammarCaching  True to validate with the grammar pool, false to read the schema for each record
+	 */
+	public XMLValidatorBenchmark(boolean grammarCaching) {
+		this.grammarCaching = grammarCaching;
+	}
+
+
+	/**
+	 *  Gets the name of the benchmark
+	 *
+	 * @return    The name
+	 */
+	public String getName() {
+		return "XMLValidator.validateString" + (grammarCaching ? "" : ".uncached");
+	}
+
+
+	/**
+	 *  Gets the unit of work
+	 *
+	 * @return    'records'
+	 */
+	public String getUnit() {
+		return "records";
+	}
+
+
+	/**
+	 *  Runs with each configured thread count when the grammar pool is used, and with one thread otherwise.
+	 *
+	 * @param  configured  The configured thread counts
+	 * @return             The thread counts to run
+	 */
+	public int[] getThreadCounts(int[] configured) {
+		return grammarCaching ? configured : super.getThreadCounts(configured);
+	}
+
+
+	/**
+	 *  Writes the schema, maps its URI prefix to it and generates the records.
+	 *
+	 * @param  context        The context
+	 * @exception  Exception  If error
+	 */
+	public void setUp(BenchmarkContext context) throws Exception {
+		File schemaDir = new File(context.getWorkDir(), "validator_benchmark_schemas");
+		schemaDir.mkdirs();
+		Files.writeFile(RECORD_XSD, new File(schemaDir, "record.xsd"));
+		Files.writeFile(TYPES_XSD, new File(schemaDir, "types.xsd"));
+
+		LocalSchemaCatalog catalog = new LocalSchemaCatalog();
+		catalog.addMapping(SCHEMA_URI_PREFIX, schemaDir);
+		previousCatalog = XMLValidator.getLocalSchemaCatalog();
+		previousGrammarCaching = XMLValidator.isGrammarCachingEnabled();
+		XMLValidator.setLocalSchemaCatalog(catalog);
+		XMLValidator.setGrammarCachingEnabled(grammarCaching);
+		XMLValidator.clearGrammarCache();
+
+		String[] subjects = {"Atmospheric science", "Geology", "Oceanography"};
+		records = new String[context.getNumRecords()];
+		for (int i = 0; i < records.length; i++) {
+			StringBuffer xml = new StringBuffer();
+			xml.append("<?xml version='1.0' encoding='UTF-8'?>\n");
+			xml.append("<record xmlns='" + NAMESPACE + "' xmlns:xsi='http://www.w3.org/2001/XMLSchema-instance'");
+			xml.append(" xsi:schemaLocation='" + NAMESPACE + " " + SCHEMA_URI_PREFIX + "record.xsd'>\n");
+			xml.append("  <id>REC-" + i + "</id>\n");
+			xml.append("  <title>Record number " + i + "</title>\n");
+			for (int j = 0; j <= i % 3; j++)
+				xml.append("  <subject>" + subjects[(i + j) % 3] + "</subject>\n");
+			if (i % 10 == 9)
+				xml.append("  <subject>Astrology</subject>\n");
+			xml.append("  <date>2009-0" + (1 + i % 9) + "-15</date>\n");
+			xml.append("</record>\n");
+			records[i] = xml.toString();
+		}
+	}
+
+
+	/**
+	 *  Starts each thread at a different record.
+	 *
+	 * @param  numThreads  The number of threads
+	 */
+	public void setUpIteration(int numThreads) {
+		next = new int[numThreads];
+		for (int t = 0; t < numThreads; t++)
+			next[t] = t * records.length / numThreads;
+	}
+
+
+	/**
+	 *  Validates the next record.
+	 *
+	 * @param  thread         The thread
+	 * @return                1
+	 * @exception  Exception  If a record was not validated as expected
+	 */
+	public int runOperation(int thread) throws Exception {
+		int i = next[thread]++ % records.length;
+		String message = XMLValidator.validateString(records[i]);
+		if ((i % 10 == 9) != (message != null && message.startsWith("NOT VALID")))
+			throw new Exception("Unexpected result validating record " + i + ": " + message);
+		return 1;
+	}
+
+
+	/**  Restores the validator's schema catalog and grammar caching. */
+	public void tearDown() {
+		XMLValidator.setLocalSchemaCatalog(previousCatalog);
+		XMLValidator.setGrammarCachingEnabled(previousGrammarCaching);
+		XMLValidator.clearGrammarCache();
+	}
+
+
+	/**
+	 *  Gets the parameters of the benchmark
+	 *
+	 * @return    Whether the grammar pool is used, and the number of records
+	 */
+	public Map getParams() {
+		Map params = super.getParams();
+		params.put("grammarCaching", Boolean.valueOf(grammarCaching));
+		params.put("records", new Integer(records == null ? 0 : records.length));
+		return params;
+	}
+}
@@ -51,6 +51,31 @@ public abstract class DataManager implements Serializable {
 	public abstract List get(List oids)
 		throws OIDDoesNotExistException;
 
+	/**
+	 * Retrieves a copy of a single data object, suitable for modifying. This
+	 * implementation copies the object returned by {@link #get(String)} by
+	 * serializing it. Implementations that can read a fresh copy from their
+	 * store should override it.
+	 *
+	 * @param oid	The data identifier
+	 * @return A copy of the <code>Object</code> of data 
+	 */
+	public Object getCopy(String oid)
+		throws OIDDoesNotExistException {
+		Object obj = get(oid);
+		try {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			ObjectOutputStream out = new ObjectOutputStream(bytes);
+			out.writeObject(obj);
+			out.close();
+			return new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray())).readObject();
+		} catch (IOException ioe) {
+			throw new OIDDoesNotExistException("Problem copying OID " + oid + ": " + ioe.toString());
+		} catch (ClassNotFoundException ce) {
+			throw new OIDDoesNotExistException("Problem copying OID " + oid + ": " + ce.toString());
+		}
+	}
+
 	/**
 	 * Adds a new object of data.
 	 *
@@ -0,0 +1,1027 @@
+/*
+	Copyright 2017 Digital Learning Sciences (DLS) at the
+	University Corporation for Atmospheric Research (UCAR),
+	P.O. Box 3000, Boulder, CO 80307
+
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+
+	http://www.apache.org/licenses/LICENSE-2.0
+
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+package org.dlese.dpc.datamgr;
+
+import java.util.*;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ *  A DataManager with the same interface as the {@link SerializedDataManager} that keeps its objects in a
+ *  single append-only log file instead of one file per OID. Each put, update or delete appends a record to
+ *  the log, and an index of the latest record for each OID is held in RAM and rebuilt from the log when the
+ *  DataManager is opened. When more than half of the log is made up of records that have been replaced or
+ *  deleted, the live records are copied to a new log that replaces the old one. <p>
+ *
+ *  The index is split into stripes by the hash of the OID, each with its own lock, so threads working on
+ *  different OIDs seldom wait on each other, and a slow write to disk holds up only the OIDs in one stripe.
+ *  Objects are serialized before any lock is taken. If caching is on, each OID's object is held with its
+ *  index entry, and the same cautions apply to modifying the objects returned from the get methods as for the
+ *  SerializedDataManager. <p>
+ *
+ *  Unlike the SerializedDataManager, only one LogStructuredDataManager may use a given dataPath at a time,
+ *  and it should be closed with {@link #close()} when no longer needed.
+ *
+ * @author    John Weatherley
+ * @see       SerializedDataManager
+ */
+public class LogStructuredDataManager extends DataManager implements Serializable {
+	/**  The name of the log file in the dataPath directory */
+	public final static String LOG_FILE_NAME = "datamanager.log";
+
+	// Suffixes of the compacted log while it is written and of the old log while it is replaced:
+	private final static String COMPACT_SUFFIX = ".compact";
+	private final static String OLD_SUFFIX = ".old";
+
+	private final static int MAGIC = 0x53444d4c; // "SDML"
+	private final static int VERSION = 1;
+	private final static int HEADER_LENGTH = 8;
+	private final static byte PUT = 1;
+	private final static byte DELETE = 2;
+	private final static int NUM_STRIPES = 16;
+
+	private static boolean debug = false;
+
+	private String dataPath = null;
+	private boolean useCache = false;
+	private transient File logFile = null;
+	private transient RandomAccessFile log = null;
+	private transient FileChannel channel = null;
+	private final Object logLock = new Object();
+	private long logLength = 0;
+	private long garbageBytes = 0;
+	private long minCompactionBytes = 1024 * 1024;
+	private long numCompactions = 0;
+	private final Stripe[] stripes;
+
+	/**  Lock keys for OIDs locked by users, keyed by OID */
+	private Hashtable locks = new Hashtable(50);
+	private long nextLockKey = 0;
+	private final static long MAX = 1000000000;
+
+
+	/**
+	 *  Constructs a new LogStructuredDataManager that reads and writes data to a log file in the given
+	 *  dataPath directory, reading the index of the objects from the log if it exists.
+	 *
+	 * @param  dataPath       The directory where the log is stored.
+	 * @param  useCache       Indicates whether to cache the objects in RAM memory for faster retrievel.
+	 * @exception  Exception  If the directory does not exist or the log can not be read.
+	 */
+	public LogStructuredDataManager(String dataPath, boolean useCache)
+		 throws Exception {
+		File f = new File(dataPath);
+		if (!f.isDirectory())
+			throw new Exception("Directory " + dataPath + " does not exist.");
+
+		this.dataPath = dataPath;
+		this.useCache = useCache;
+		stripes = new Stripe[NUM_STRIPES];
+		for (int i = 0; i < stripes.length; i++)
+			stripes[i] = new Stripe();
+
+		logFile = new File(f, LOG_FILE_NAME);
+		open();
+	}
+
+
+	/**
+	 *  Retrieves a single data object. If caching is enabled, the object that is returned is not safe to
+	 *  modify.
+	 *
+	 * @param  oid                           The data identifier
+	 * @return                               <code>Object</code> of data
+	 * @exception  OIDDoesNotExistException  If no object exists for the given uid.
+	 * @see                                  #getCopy(String)
+	 */
+	public Object get(String oid)
+		 throws OIDDoesNotExistException {
+		return read(oid, useCache);
+	}
+
+
+	/**
+	 *  Retrieves a copy of a single data object, sutable for modifying.
+	 *
+	 * @param  oid                           The data identifier.
+	 * @return                               A copy of the <code>Object</code> of data
+	 * @exception  OIDDoesNotExistException  If no object exists for the given uid.
+	 * @see                                  #get(String)
+	 */
+	public Object getCopy(String oid)
+		 throws OIDDoesNotExistException {
+		return read(oid, false);
+	}
+
+
+	/**
+	 *  Retrieves a <code>List</code> of data objects. If caching is enabled, the objects that are returned
+	 *  are not safe to modify.
+	 *
+	 * @param  oids                          <code>List</code> of data identifiers
+	 * @return                               <code>List</code> of corresponding data objects
+	 * @exception  OIDDoesNotExistException  If no object exists for the given uid.
+	 * @see                                  #getCopy(List)
+	 */
+	public List get(List oids)
+		 throws OIDDoesNotExistException {
+		List list = new ArrayList(oids.size());
+		for (int i = 0; i < oids.size(); i++)
+			list.add(get((String) oids.get(i)));
+		return list;
+	}
+
+
+	/**
+	 *  Retrieves a <code>List</code> of copied data objects, suitable for modifying.
+	 *
+	 * @param  oids                          <code>List</code> of data identifiers.
+	 * @return                               <code>List</code> of corresponding data objects copies.
+	 * @exception  OIDDoesNotExistException  If no object exists for the given uid.
+	 * @see                                  #get(List)
+	 */
+	public List getCopy(List oids)
+		 throws OIDDoesNotExistException {
+		List list = new ArrayList(oids.size());
+		for (int i = 0; i < oids.size(); i++)
+			list.add(getCopy((String) oids.get(i)));
+		return list;
+	}
+
+
+	/**
+	 *  Retrieves a <code>String []</code> of all IDs that exist in this DataManager, in no particular order.
+	 *
+	 * @return    <code>String []</code> of the IDs in this DataManager
+	 */
+	public String[] getIDs() {
+		List ids = new ArrayList();
+		for (int i = 0; i < stripes.length; i++) {
+			synchronized (stripes[i]) {
+				ids.addAll(stripes[i].keySet());
+			}
+		}
+		return (String[]) ids.toArray(new String[]{});
+	}
+
+
+	/**
+	 *  Retrieves a <code>String []</code> of all IDs that exists in this DataManager sorted lexagraphically.
+	 *
+	 * @return    A lexagraphically sorted <code>String []</code> of the IDs in this DataManager
+	 */
+	public String[] getIDsSorted() {
+		String[] IDs = getIDs();
+		Arrays.sort(IDs);
+		return IDs;
+	}
+
+
+	/**
+	 *  Get the number of records in this DataManager.
+	 *
+	 * @return    The number of records in this DataManager.
+	 */
+	public long getNumRecords() {
+		long n = 0;
+		for (int i = 0; i < stripes.length; i++) {
+			synchronized (stripes[i]) {
+				n += stripes[i].size();
+			}
+		}
+		return n;
+	}
+
+
+	/**
+	 *  Adds a new object of data.
+	 *
+	 * @param  oid                              The unique identifier that references the new data object
+	 * @param  obj                              The new data object
+	 * @return                                  The added data object iff successful, otherwise null
+	 * @exception  OIDAlreadyExistsException    If an object with given oid already exists in the data
+	 *      store.
+	 * @exception  ObjectNotSupportedException  If the object type is not suppored.
+	 */
+	public Object put(String oid, Object obj)
+		 throws OIDAlreadyExistsException, ObjectNotSupportedException {
+		byte[] bytes = serialize(oid, obj);
+		Stripe stripe = stripeFor(oid);
+		synchronized (stripe) {
+			if (stripe.containsKey(oid))
+				throw new OIDAlreadyExistsException("OID " + oid + " already exists.");
+			if (!write(stripe, oid, obj, bytes))
+				return null;
+		}
+		compactIfNeeded();
+		return obj;
+	}
+
+
+	/**
+	 *  Removes an existing data object, assuming the caller had requested and recieved the necessary lock for
+	 *  the object.
+	 *
+	 * @param  oid                           The unique identifier that references the data object to be
+	 *      removed
+	 * @param  lockKey                       The key corresponding to the lock on this data object
+	 * @return                               The removed data object iff successful, otherwise null
+	 * @exception  OIDDoesNotExistException  If no object exists for the given uid.
+	 * @exception  InvalidLockException      If the lock provided for the object is not valid.
+	 */
+	public Object remove(String oid, String lockKey)
+		 throws OIDDoesNotExistException, InvalidLockException {
+		Object o;
+		Stripe stripe = stripeFor(oid);
+		synchronized (stripe) {
+			if (!isLocked(oid))
+				throw new InvalidLockException("OID " + oid + " must be locked prior to removal");
+			if (!isValidLock(oid, lockKey))
+				throw new InvalidLockException("Invalid lock key for OID " + oid);
+			o = read(oid, useCache);
+			erase(stripe, oid);
+			locks.remove(oid);
+		}
+		compactIfNeeded();
+		return o;
+	}
+
+
+	/**
+	 *  Removes an existing data object iff the object is not locked by another user.
+	 *
+	 * @param  oid                            The unique identifier that references the data object to be
+	 *      removed
+	 * @return                                The Object that was removed.
+	 * @exception  OIDDoesNotExistException   If no object exists for the given uid.
+	 * @exception  LockNotAvailableException  If another user currently has a lock on this object.
+	 */
+	public Object remove(String oid)
+		 throws OIDDoesNotExistException, LockNotAvailableException {
+		Object o;
+		Stripe stripe = stripeFor(oid);
+		synchronized (stripe) {
+			if (isLocked(oid))
+				throw new LockNotAvailableException("OID " + oid + " is locked and cannot be removed");
+			o = read(oid, useCache);
+			erase(stripe, oid);
+		}
+		compactIfNeeded();
+		return o;
+	}
+
+
+	/**
+	 *  Deletes an existing data object, assuming the caller had requested and recieved the necessary lock.
+	 *
+	 * @param  oid                           The unique identifier that references the data object to be
+	 *      deleted
+	 * @param  lockKey                       The key corresponding to the lock on this data object
+	 * @return                               True if the object was deleted
+	 * @exception  OIDDoesNotExistException  If no object exists for the given uid.
+	 * @exception  InvalidLockException      If the lock provided for the object is not valid.
+	 */
+	public boolean delete(String oid, String lockKey)
+		 throws OIDDoesNotExistException, InvalidLockException {
+		Stripe stripe = stripeFor(oid);
+		synchronized (stripe) {
+			if (!stripe.containsKey(oid))
+				throw new OIDDoesNotExistException(oid);
+			if (!isValidLock(oid, lockKey))
+				throw new InvalidLockException("Invalid lock key for OID " + oid);
+			erase(stripe, oid);
+			locks.remove(oid);
+		}
+		compactIfNeeded();
+		return true;
+	}
+
+
+	/**
+	 *  Deletes an existing data object iff the object is not locked by another user.
+	 *
+	 * @param  oid                            The unique identifier that references the data object to be
+	 *      deleted
+	 * @return                                True if the object was deleted
+	 * @exception  OIDDoesNotExistException   If no object exists for the given uid.
+	 * @exception  LockNotAvailableException  If another user currently has a lock on this object.
+	 */
+	public boolean delete(String oid)
+		 throws OIDDoesNotExistException, LockNotAvailableException {
+		Stripe stripe = stripeFor(oid);
+		synchronized (stripe) {
+			if (!stripe.containsKey(oid))
+				throw new OIDDoesNotExistException(oid);
+			if (isLocked(oid))
+				throw new LockNotAvailableException("OID " + oid + " is locked and cannot be deleted");
+			erase(stripe, oid);
+		}
+		compactIfNeeded();
+		return true;
+	}
+
+
+	/**
+	 *  Updates an object of data, assuming the caller had requested and recieved the necessary lock. The
+	 *  caller retains the lock after this method returns.
+	 *
+	 * @param  oid                              The unique identifier that references the data object to be
+	 *      updated
+	 * @param  obj                              The new updated data object
+	 * @param  lockKey                          The key corresponding to the lock on this data object
+	 * @return                                  The updated data object, if successful otherwise null
+	 * @exception  OIDDoesNotExistException     If no object exists for the given uid.
+	 * @exception  ObjectNotSupportedException  If the object type is not suppored.
+	 * @exception  InvalidLockException         If the lock provided for the object is not valid.
+	 */
+	public Object update(String oid, Object obj, String lockKey)
+		 throws OIDDoesNotExistException, ObjectNotSupportedException, InvalidLockException {
+		byte[] bytes = serialize(oid, obj);
+		Stripe stripe = stripeFor(oid);
+		synchronized (stripe) {
+			if (!stripe.containsKey(oid))
+				throw new OIDDoesNotExistException(oid);
+			if (!isValidLock(oid, lockKey))
+				throw new InvalidLockException("Invalid lock key for OID " + oid);
+			if (!write(stripe, oid, obj, bytes))
+				return null;
+		}
+		compactIfNeeded();
+		return obj;
+	}
+
+
+	/**
+	 *  Updates an object of data iff the object is not locked by another user.
+	 *
+	 * @param  oid                              The unique identifier that references the data object to be
+	 *      updated
+	 * @param  obj                              The new updated data object
+	 * @return                                  The updated data object, if successful otherwise null
+	 * @exception  OIDDoesNotExistException     If no object exists for the given uid.
+	 * @exception  ObjectNotSupportedException  If the object type is not suppored.
+	 * @exception  LockNotAvailableException    If another user currently has a lock on this object.
+	 */
+	public Object update(String oid, Object obj)
+		 throws OIDDoesNotExistException, ObjectNotSupportedException, LockNotAvailableException {
+		byte[] bytes = serialize(oid, obj);
+		Stripe stripe = stripeFor(oid);
+		synchronized (stripe) {
+			if (!stripe.containsKey(oid))
+				throw new OIDDoesNotExistException(oid);
+			if (isLocked(oid))
+				throw new LockNotAvailableException("OID " + oid + " is locked and cannot be updated");
+			if (!write(stripe, oid, obj, bytes))
+				return null;
+		}
+		compactIfNeeded();
+		return obj;
+	}
+
+
+	/**
+	 *  Get a user-requested lock for a data object, preventing it from being written by other threads that
+	 *  are using this DataManager.
+	 *
+	 * @param  oid                            The unique identifier that references the data object to be
+	 *      locked
+	 * @return                                The key used to unlock this object.
+	 * @exception  OIDDoesNotExistException   If no object exists for the given uid.
+	 * @exception  LockNotAvailableException  If another user currently has a lock on this object.
+	 */
+	public String lock(String oid)
+		 throws OIDDoesNotExistException, LockNotAvailableException {
+		Stripe stripe = stripeFor(oid);
+		synchronized (stripe) {
+			if (!stripe.containsKey(oid))
+				throw new OIDDoesNotExistException("OID not found: " + oid);
+			if (isLocked(oid))
+				throw new LockNotAvailableException("OID " + oid);
+			String lock = getNextLockKey();
+			locks.put(oid, lock);
+			return lock;
+		}
+	}
+
+
+	/**
+	 *  Remove the lock on a data object, if it exists.
+	 *
+	 * @param  oid                           The unique identifier that references the locked data object
+	 * @param  lockKey                       The key corresponding to the lock on this data object
+	 * @return                               <b>true</b> iff the lock has been removed for the given object
+	 *      regardless of whether it had been locked prior to calling this method.
+	 * @exception  OIDDoesNotExistException  If no object exists for the given uid.
+	 * @exception  InvalidLockException      If the lock provided for the object is not valid.
+	 */
+	public boolean unlock(String oid, String lockKey)
+		 throws OIDDoesNotExistException, InvalidLockException {
+		Stripe stripe = stripeFor(oid);
+		synchronized (stripe) {
+			if (!stripe.containsKey(oid))
+				throw new OIDDoesNotExistException("OID not found: " + oid);
+			if (!isLocked(oid))
+				return true;
+			if (!isValidLock(oid, lockKey))
+				throw new InvalidLockException("Invalid lock key for OID " + oid);
+			locks.remove(oid);
+			return true;
+		}
+	}
+
+
+	/**
+	 *  Returns the time that the object denoted by this oid was last modified.
+	 *
+	 * @param  oid                           The unique identifier that references the data object
+	 * @return                               The time the object was last written, measured in milliseconds
+	 *      since the epoch
+	 * @exception  OIDDoesNotExistException  If no object exists for the given uid.
+	 */
+	public long getLastModifiedDate(String oid)
+		 throws OIDDoesNotExistException {
+		Stripe stripe = stripeFor(oid);
+		synchronized (stripe) {
+			Entry entry = (Entry) stripe.get(oid);
+			if (entry == null)
+				throw new OIDDoesNotExistException("OID not found: " + oid);
+			return entry.lastModified;
+		}
+	}
+
+
+	/**
+	 *  Determines whether an object with the given oid exists in the DataManager.
+	 *
+	 * @param  oid  The unique identifier that references the data object
+	 * @return      True iff the given object exists in this DataManager
+	 */
+	public boolean oidExists(String oid) {
+		if (oid == null)
+			return false;
+		Stripe stripe = stripeFor(oid);
+		synchronized (stripe) {
+			return stripe.containsKey(oid);
+		}
+	}
+
+
+	/**
+	 *  Determine whether a given object is locked by another user.
+	 *
+	 * @param  oid  The unique identifier that references the data object
+	 * @return      True iff the object referred to by this oid is locked
+	 */
+	public boolean isLocked(String oid) {
+		return (oid != null && locks.containsKey(oid));
+	}
+
+
+	/**
+	 *  Determine whether a given object is locked with the given key.
+	 *
+	 * @param  oid      The unique identifier that references the data object
+	 * @param  lockKey  The lock key
+	 * @return          True iff the object referred to by this oid is locked with the given key
+	 */
+	public boolean isValidLock(String oid, String lockKey) {
+		String storedKey = (String) locks.get(oid);
+		return (storedKey != null && lockKey != null && storedKey.equals(lockKey));
+	}
+
+
+	/**
+	 *  Copies the live records to a new log that replaces the current one, dropping the records that have
+	 *  been replaced or deleted. This is done automatically when more than half of the log is garbage. All
+	 *  reads and writes wait while the log is compacted.
+	 *
+	 * @exception  IOException  If the new log can not be written or moved into place, in which case the current
+	 *      log is kept
+	 */
+	public void compact() throws IOException {
+		compact(0);
+	}
+
+
+	/**
+	 *  Sets the least number of bytes of replaced or deleted records for which the log is compacted.
+	 *
+	 * @param  bytes  The new minCompactionBytes value
+	 */
+	public void setMinCompactionBytes(long bytes) {
+		synchronized (logLock) {
+			minCompactionBytes = bytes;
+		}
+	}
+
+
+	/**
+	 *  Gets the length of the log file.
+	 *
+	 * @return    The logLength value
+	 */
+	public long getLogLength() {
+		synchronized (logLock) {
+			return logLength;
+		}
+	}
+
+
+	/**
+	 *  Gets the number of bytes in the log taken by records that have been replaced or deleted.
+	 *
+	 * @return    The garbageBytes value
+	 */
+	public long getGarbageBytes() {
+		synchronized (logLock) {
+			return garbageBytes;
+		}
+	}
+
+
+	/**
+	 *  Gets the number of times the log has been compacted.
+	 *
+	 * @return    The numCompactions value
+	 */
+	public long getNumCompactions() {
+		synchronized (logLock) {
+			return numCompactions;
+		}
+	}
+
+
+	/**  Closes the log. The DataManager may not be used after it is closed. */
+	public void close() {
+		synchronized (logLock) {
+			try {
+				if (log != null)
+					log.close();
+			} catch (IOException e) {
+				prtlnErr("Error closing " + logFile + ": " + e);
+			}
+			log = null;
+			channel = null;
+		}
+	}
+
+
+	/**
+	 *  Reads the object for the given OID, from the cache if indicated.
+	 *
+	 * @param  oid                           The data identifier
+	 * @param  fromCache                     Whether to return the cached object, if any
+	 * @return                               The object
+	 * @exception  OIDDoesNotExistException  If no object exists for the given uid.
+	 */
+	private Object read(String oid, boolean fromCache)
+		 throws OIDDoesNotExistException {
+		Stripe stripe = stripeFor(oid);
+		synchronized (stripe) {
+			Entry entry = (Entry) stripe.get(oid);
+			if (entry == null)
+				throw new OIDDoesNotExistException(oid);
+			if (fromCache && entry.obj != null)
+				return entry.obj;
+			Object o;
+			try {
+				o = deserialize(readBytes(entry.offset, entry.length));
+			} catch (IOException ioe) {
+				throw new OIDDoesNotExistException("Problem retrieving OID " + oid + ": " + ioe.toString());
+			} catch (ClassNotFoundException ce) {
+				throw new OIDDoesNotExistException("Problem retrieving OID " + oid + ": " + ce.toString());
+			}
+			if (fromCache)
+				entry.obj = o;
+			return o;
+		}
+	}
+
+
+	/**
+	 *  Appends a PUT record for the given OID to the log and makes it the OID's entry. Must be called holding
+	 *  the lock of the OID's stripe.
+	 *
+	 * @param  stripe  The stripe holding the OID
+	 * @param  oid     The data identifier
+	 * @param  obj     The data object
+	 * @param  bytes   The serialized object
+	 * @return         True if the record was written
+	 */
+	private boolean write(Stripe stripe, String oid, Object obj, byte[] bytes) {
+		long now = System.currentTimeMillis();
+		long offset;
+		try {
+			offset = append(PUT, oid, now, bytes);
+		} catch (IOException e) {
+			prtlnErr("Error writing object " + oid + ": " + e);
+			return false;
+		}
+		Entry old = (Entry) stripe.put(oid, new Entry(offset, bytes.length, now, useCache ? obj : null));
+		if (old != null)
+			addGarbage(recordLength(oid, old.length));
+		return true;
+	}
+
+
+	/**
+	 *  Appends a DELETE record for the given OID to the log and removes the OID's entry. Must be called
+	 *  holding the lock of the OID's stripe.
+	 *
+	 * @param  stripe  The stripe holding the OID
+	 * @param  oid     The data identifier
+	 */
+	private void erase(Stripe stripe, String oid) {
+		try {
+			append(DELETE, oid, System.currentTimeMillis(), new byte[0]);
+		} catch (IOException e) {
+			// The object is gone until the DataManager is opened again
+			prtlnErr("Error writing delete of " + oid + ": " + e);
+		}
+		Entry old = (Entry) stripe.remove(oid);
+		if (old != null)
+			addGarbage(recordLength(oid, old.length) + recordLength(oid, 0));
+	}
+
+
+	/**
+	 *  Appends a record to the log.
+	 *
+	 * @param  op               PUT or DELETE
+	 * @param  oid              The data identifier
+	 * @param  time             The time of the write
+	 * @param  bytes            The serialized object, empty for a DELETE
+	 * @return                  The offset in the log of the object bytes
+	 * @exception  IOException  If error
+	 */
+	private long append(byte op, String oid, long time, byte[] bytes) throws IOException {
+		byte[] oidBytes = oid.getBytes("UTF-8");
+		ByteBuffer record = ByteBuffer.allocate(1 + 4 + oidBytes.length + 8 + 4 + bytes.length);
+		record.put(op).putInt(oidBytes.length).put(oidBytes).putLong(time).putInt(bytes.length).put(bytes);
+		record.flip();
+		synchronized (logLock) {
+			if (channel == null)
+				throw new IOException("DataManager is closed");
+			long start = logLength;
+			while (record.hasRemaining())
+				channel.write(record, start + record.position());
+			logLength += record.limit();
+			return start + record.limit() - bytes.length;
+		}
+	}
+
+
+	private byte[] readBytes(long offset, int length) throws IOException {
+		ByteBuffer buf = ByteBuffer.allocate(length);
+		FileChannel c;
+		synchronized (logLock) {
+			c = channel;
+		}
+		if (c == null)
+			throw new IOException("DataManager is closed");
+		while (buf.hasRemaining()) {
+			if (c.read(buf, offset + buf.position()) < 0)
+				throw new EOFException("Record at " + offset + " is past the end of " + logFile);
+		}
+		return buf.array();
+	}
+
+
+	private void addGarbage(long bytes) {
+		synchronized (logLock) {
+			garbageBytes += bytes;
+		}
+	}
+
+
+	private static int recordLength(String oid, int length) {
+		try {
+			return 1 + 4 + oid.getBytes("UTF-8").length + 8 + 4 + length;
+		} catch (UnsupportedEncodingException e) {
+			throw new RuntimeException(e.toString());
+		}
+	}
+
+
+	/**
+	 *  Compacts the log if more than half of it is garbage. Must be called without holding any stripe lock.
+	 */
+	private void compactIfNeeded() {
+		synchronized (logLock) {
+			if (garbageBytes < minCompactionBytes || garbageBytes * 2 < logLength)
+				return;
+		}
+		try {
+			compact();
+		} catch (IOException e) {
+			prtlnErr("Error compacting " + logFile + ": " + e);
+		}
+	}
+
+
+	/**
+	 *  Takes the locks of the stripes from the given one on, in order, and compacts the log holding all of
+	 *  them. Writers take their stripe's lock before the log lock, so the stripe locks are taken first here.
+	 *
+	 * @param  i                The stripe to lock next
+	 * @exception  IOException  If error
+	 */
+	private void compact(int i) throws IOException {
+		if (i < stripes.length) {
+			synchronized (stripes[i]) {
+				compact(i + 1);
+			}
+			return;
+		}
+		synchronized (logLock) {
+			if (channel == null)
+				throw new IOException("DataManager is closed");
+			File newFile = new File(logFile.getPath() + COMPACT_SUFFIX);
+			newFile.delete();
+			FileOutputStream newLog = new FileOutputStream(newFile);
+			Map newOffsets = new HashMap();
+			long length;
+			try {
+				DataOutputStream out = new DataOutputStream(new BufferedOutputStream(newLog, 65536));
+				out.writeInt(MAGIC);
+				out.writeInt(VERSION);
+				length = HEADER_LENGTH;
+				for (int s = 0; s < stripes.length; s++) {
+					for (Iterator it = stripes[s].entrySet().iterator(); it.hasNext(); ) {
+						Map.Entry me = (Map.Entry) it.next();
+						String oid = (String) me.getKey();
+						Entry entry = (Entry) me.getValue();
+						byte[] oidBytes = oid.getBytes("UTF-8");
+						out.writeByte(PUT);
+						out.writeInt(oidBytes.length);
+						out.write(oidBytes);
+						out.writeLong(entry.lastModified);
+						out.writeInt(entry.length);
+						out.write(readBytes(entry.offset, entry.length));
+						length += recordLength(oid, entry.length);
+						newOffsets.put(oid, new Long(length - entry.length));
+					}
+				}
+				out.flush();
+				newLog.getFD().sync();
+			} catch (IOException e) {
+				newLog.close();
+				newFile.delete();
+				throw e;
+			}
+			newLog.close();
+			log.close();
+			boolean replaced = replaceLog(newFile);
+			if (!replaced && !logFile.exists()) {
+				// Leave the logs on disk as they are for recoverCompaction() when next opened
+				log = null;
+				channel = null;
+				throw new IOException("Could not replace " + logFile + " with " + newFile + " or restore it. Re-open the DataManager to recover.");
+			}
+			log = new RandomAccessFile(logFile, "rw");
+			channel = log.getChannel();
+			if (!replaced) {
+				// The old log is still in place, so the offsets are still good
+				newFile.delete();
+				throw new IOException("Could not replace " + logFile + " with " + newFile);
+			}
+			for (int s = 0; s < stripes.length; s++) {
+				for (Iterator it = stripes[s].entrySet().iterator(); it.hasNext(); ) {
+					Map.Entry me = (Map.Entry) it.next();
+					((Entry) me.getValue()).offset = ((Long) newOffsets.get(me.getKey())).longValue();
+				}
+			}
+			prtln("Compacted " + logFile + " from " + logLength + " to " + length + " bytes");
+			logLength = length;
+			garbageBytes = 0;
+			numCompactions++;
+		}
+	}
+
+
+	/**
+	 *  Moves the given compacted log into the place of the log. The compacted log is renamed over the log, or
+	 *  where that is not possible the log is first moved aside, so there is always a complete log on disk that
+	 *  {@link #recoverCompaction()} can find.
+	 *
+	 * @param  newFile  The compacted log
+	 * @return          True if the log was replaced, false if the log is unchanged
+	 */
+	private boolean replaceLog(File newFile) {
+		if (newFile.renameTo(logFile))
+			return true;
+		File oldFile = new File(logFile.getPath() + OLD_SUFFIX);
+		oldFile.delete();
+		if (!logFile.renameTo(oldFile))
+			return false;
+		if (!newFile.renameTo(logFile)) {
+			oldFile.renameTo(logFile);
+			return false;
+		}
+		oldFile.delete();
+		return true;
+	}
+
+
+	/**
+	 *  Finishes or rolls back a compaction that was cut short, as by a crash. If the log is missing, the
+	 *  compacted log, which is complete by the time the log is replaced, or else the old log that was moved
+	 *  aside is moved into its place. Once the log is in place, any compacted or old log left beside it is
+	 *  deleted.
+	 *
+	 * @exception  IOException  If the log is missing and can not be restored
+	 */
+	private void recoverCompaction() throws IOException {
+		File newFile = new File(logFile.getPath() + COMPACT_SUFFIX);
+		File oldFile = new File(logFile.getPath() + OLD_SUFFIX);
+		if (!logFile.exists()) {
+			File from = (newFile.exists() ? newFile : oldFile);
+			if (from.exists()) {
+				prtlnErr("Restoring " + logFile + " from " + from);
+				if (!from.renameTo(logFile))
+					throw new IOException("Could not move " + from + " to " + logFile);
+			}
+		}
+		if (logFile.exists()) {
+			newFile.delete();
+			oldFile.delete();
+		}
+	}
+
+
+	/**
+	 *  Opens the log, creating it if it does not exist, and reads the index of the objects from it. A record
+	 *  cut short at the end of the log, as by a crash while it was written, is dropped.
+	 *
+	 * @exception  IOException  If the log can not be read
+	 */
+	private void open() throws IOException {
+		recoverCompaction();
+		log = new RandomAccessFile(logFile, "rw");
+		channel = log.getChannel();
+		if (log.length() == 0) {
+			log.writeInt(MAGIC);
+			log.writeInt(VERSION);
+			logLength = HEADER_LENGTH;
+			return;
+		}
+
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(logFile), 65536));
+		long fileLength = log.length();
+		long pos = 0;
+		try {
+			if (in.readInt() != MAGIC || in.readInt() != VERSION)
+				throw new IOException(logFile + " is not a DataManager log");
+			pos = HEADER_LENGTH;
+			while (pos < fileLength) {
+				if (fileLength - pos < 9)
+					break;
+				byte op = in.readByte();
+				int oidLength = in.readInt();
+				if (oidLength < 0 || pos + 5 + oidLength + 12 > fileLength)
+					break;
+				byte[] oidBytes = new byte[oidLength];
+				in.readFully(oidBytes);
+				long time = in.readLong();
+				int length = in.readInt();
+				long offset = pos + 5 + oidLength + 12;
+				if (length < 0 || offset + length > fileLength)
+					break;
+				String oid = new String(oidBytes, "UTF-8");
+				Stripe stripe = stripeFor(oid);
+				Entry old;
+				if (op == PUT) {
+					for (int skipped = 0; skipped < length; )
+						skipped += in.skipBytes(length - skipped);
+					old = (Entry) stripe.put(oid, new Entry(offset, length, time, null));
+				}
+				else if (op == DELETE) {
+					old = (Entry) stripe.remove(oid);
+					garbageBytes += recordLength(oid, 0);
+				}
+				else
+					break;
+				if (old != null)
+					garbageBytes += recordLength(oid, old.length);
+				pos = offset + length;
+			}
+		} finally {
+			in.close();
+		}
+		if (pos < fileLength) {
+			prtlnErr("Dropping " + (fileLength - pos) + " bytes of incomplete records at the end of " + logFile);
+			log.setLength(pos);
+		}
+		logLength = pos;
+	}
+
+
+	/**
+	 *  Serializes an object.
+	 *
+	 * @param  oid                              The data identifier, for messages
+	 * @param  obj                              The object
+	 * @return                                  The serialized object
+	 * @exception  ObjectNotSupportedException  If the object can not be serialized
+	 */
+	private byte[] serialize(String oid, Object obj) throws ObjectNotSupportedException {
+		try {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			ObjectOutputStream o = new ObjectOutputStream(bytes);
+			o.writeObject(obj);
+			o.close();
+			return bytes.toByteArray();
+		} catch (InvalidClassException ce) {
+			throw new ObjectNotSupportedException("OID " + oid + " object type not supported: " + ce);
+		} catch (NotSerializableException se) {
+			throw new ObjectNotSupportedException("OID " + oid + " object type not supported: " + se);
+		} catch (IOException e) {
+			throw new ObjectNotSupportedException("OID " + oid + " could not be serialized: " + e);
+		}
+	}
+
+
+	private static Object deserialize(byte[] bytes) throws IOException, ClassNotFoundException {
+		ObjectInputStream o = new ObjectInputStream(new ByteArrayInputStream(bytes));
+		try {
+			return o.readObject();
+		} finally {
+			o.close();
+		}
+	}
+
+
+	private String getNextLockKey() {
+		synchronized (locks) {
+			nextLockKey++;
+			if (nextLockKey >= MAX)
+				nextLockKey = 0;
+			return Long.toString(nextLockKey);
+		}
+	}
+
+
+	private Stripe stripeFor(String oid) {
+		int h = oid.hashCode();
+		h ^= (h >>> 16);
+		return stripes[(h & 0x7fffffff) % stripes.length];
+	}
+
+
+	/**  The location in the log of the latest record for an OID, and its cached object. */
+	private static class Entry {
+		long offset;
+		int length;
+		long lastModified;
+		Object obj;
+
+
+		Entry(long offset, int length, long lastModified, Object obj) {
+			this.offset = offset;
+			this.length = length;
+			this.lastModified = lastModified;
+			this.obj = obj;
+		}
+	}
+
+
+	/**  One stripe of the index, mapping OIDs to their Entry. Its own lock guards it. */
+	private static class Stripe extends HashMap { }
+
+
+	/**
+	 *  Sets the debug attribute of the LogStructuredDataManager class
+	 *
+	 * @param  isDebugOutput  The new debug value
+	 */
+	public static void setDebug(boolean isDebugOutput) {
+		debug = isDebugOutput;
+	}
+
+
+	private static void prtln(String s) {
+		if (debug)
+			System.out.println("LogStructuredDataManager: " + s);
+	}
+
+
+	private static void prtlnErr(String s) {
+		System.err.println("LogStructuredDataManager: " + s);
+	}
+}
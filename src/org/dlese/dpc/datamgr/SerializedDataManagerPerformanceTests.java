@@ -18,17 +18,24 @@
 package org.dlese.dpc.datamgr;
 
 import org.dlese.dpc.junit.TestTools;
+import org.dlese.dpc.util.Files;
 
 import junit.framework.*;
 import java.util.Date;
 import java.util.Random;
 import java.util.Enumeration;
 import java.util.*;
+import java.io.*;
 //import org.dlese.dpc.oai.datamgr.*;
 
 
 /**
- *  DESCRIPTION
+ *  Performance tests for the SerializedDataManager, and a throughput benchmark comparing it with the
+ *  {@link LogStructuredDataManager}. In the benchmark a number of threads each make a number of random reads
+ *  and updates of a set of objects in each engine, and the operations per second are reported. <p>
+ *
+ *  The following System properties may be used to configure the benchmark: 'sdm.threads' (default 4),
+ *  'sdm.oids' (default 500), 'sdm.ops' (default 2000, per thread) and 'sdm.write.percent' (default 20).
  *
  * @author    John Weatherley
  */
@@ -51,6 +58,12 @@ public class SerializedDataManagerPerformanceTests extends TestCase
 
 	static int recNum = 0;
 
+	int numThreads;
+	int numOids;
+	int numOps;
+	int writePercent;
+	List tempDirs = new ArrayList();
+
 
 	/**
 	 *  The JUnit setup method. Gets called prior to running EACH test method call.
@@ -61,6 +74,10 @@ public class SerializedDataManagerPerformanceTests extends TestCase
 			 throws Exception {
 		prtln(".");
 		// introduce some space between the tests
+		numThreads = Integer.getInteger("sdm.threads", 4).intValue();
+		numOids = Integer.getInteger("sdm.oids", 500).intValue();
+		numOps = Integer.getInteger("sdm.ops", 2000).intValue();
+		writePercent = Integer.getInteger("sdm.write.percent", 20).intValue();
 
 		// Assumes a java prop was set that defines junit.test.dir prior to execution.
 		// This prop is defined in the Ant build.xml file.
@@ -240,6 +257,151 @@ public class SerializedDataManagerPerformanceTests extends TestCase
 	}
 
 
+	/**
+	 *  Measures random reads and updates from several threads in a SerializedDataManager and a
+	 *  LogStructuredDataManager, both with caching on.
+	 *
+	 * @exception  Exception  Exception
+	 */
+	public void test_engine_throughput()
+			 throws Exception {
+		prtln(numThreads + " threads, " + numOps + " operations each on " + numOids + " objects, "
+				 + writePercent + "% updates:");
+		prtln("engine\telapsed (ms)\toperations/sec");
+
+		SerializedDataManager sdm = new SerializedDataManager(makeTempDir(), true);
+		runThroughput("SerializedDataManager", sdm);
+
+		LogStructuredDataManager ldm = new LogStructuredDataManager(makeTempDir(), true);
+		try {
+			runThroughput("LogStructuredDataManager", ldm);
+			prtln("log " + ldm.getLogLength() + " bytes after " + ldm.getNumCompactions() + " compactions");
+		} finally {
+			ldm.close();
+		}
+	}
+
+
+	/**
+	 *  Checks that a LogStructuredDataManager reads back its objects when opened again, that compacting the
+	 *  log keeps them, and that a record cut short at the end of the log is dropped.
+	 *
+	 * @exception  Exception  Exception
+	 */
+	public void test_log_reopen_and_compact()
+			 throws Exception {
+		String dir = makeTempDir();
+		LogStructuredDataManager ldm = new LogStructuredDataManager(dir, true);
+		for (int i = 0; i < 100; i++)
+			ldm.put("oid:" + i, "value " + i);
+		for (int i = 0; i < 100; i += 2)
+			ldm.update("oid:" + i, "updated " + i);
+		for (int i = 0; i < 100; i += 5)
+			ldm.delete("oid:" + i);
+		String key = ldm.lock("oid:1");
+		ldm.update("oid:1", "locked update", key);
+		ldm.unlock("oid:1", key);
+		long length = ldm.getLogLength();
+		ldm.close();
+
+		ldm = new LogStructuredDataManager(dir, false);
+		checkLogContents(ldm);
+		Assert.assertEquals(length, ldm.getLogLength());
+		Assert.assertTrue(ldm.getGarbageBytes() > 0);
+
+		ldm.compact();
+		Assert.assertTrue("Log not compacted: " + ldm.getLogLength(), ldm.getLogLength() < length);
+		Assert.assertEquals(0, ldm.getGarbageBytes());
+		checkLogContents(ldm);
+		ldm.put("oid:new", "new");
+		length = ldm.getLogLength();
+		ldm.close();
+
+		// cut the last record short
+		RandomAccessFile raf = new RandomAccessFile(new File(dir, LogStructuredDataManager.LOG_FILE_NAME), "rw");
+		raf.setLength(length - 3);
+		raf.close();
+		ldm = new LogStructuredDataManager(dir, true);
+		Assert.assertFalse(ldm.oidExists("oid:new"));
+		checkLogContents(ldm);
+		ldm.put("oid:new", "new again");
+		Assert.assertEquals("new again", ldm.get("oid:new"));
+		ldm.close();
+	}
+
+
+	private void checkLogContents(LogStructuredDataManager ldm) throws Exception {
+		Assert.assertEquals(80, ldm.getNumRecords());
+		for (int i = 0; i < 100; i++) {
+			String oid = "oid:" + i;
+			if (i % 5 == 0)
+				Assert.assertFalse(ldm.oidExists(oid));
+			else if (i == 1)
+				Assert.assertEquals("locked update", ldm.get(oid));
+			else if (i % 2 == 0)
+				Assert.assertEquals("updated " + i, ldm.get(oid));
+			else
+				Assert.assertEquals("value " + i, ldm.getCopy(oid));
+		}
+	}
+
+
+	private void runThroughput(String engine, final DataManager dm) throws Exception {
+		final String[] oids = new String[numOids];
+		for (int i = 0; i < numOids; i++) {
+			oids[i] = "oai:dlese.org:DLESE-000-000-000-" + i;
+			dm.put(oids[i], makePayload(i));
+		}
+		final Throwable[] failure = new Throwable[1];
+		Thread[] threads = new Thread[numThreads];
+		long start = System.currentTimeMillis();
+		for (int t = 0; t < threads.length; t++) {
+			threads[t] =
+				new Thread() {
+					public void run() {
+						Random random = new Random();
+						try {
+							for (int i = 0; i < numOps; i++) {
+								int n = random.nextInt(oids.length);
+								if (random.nextInt(100) < writePercent)
+									dm.update(oids[n], makePayload(n));
+								else if (dm.get(oids[n]) == null)
+									throw new Exception("missing " + oids[n]);
+							}
+						} catch (Throwable e) {
+							failure[0] = e;
+						}
+					}
+				};
+			threads[t].start();
+		}
+		for (int t = 0; t < threads.length; t++)
+			threads[t].join();
+		long elapsed = Math.max(1, System.currentTimeMillis() - start);
+		if (failure[0] != null)
+			throw new Exception(engine + " failed: " + failure[0]);
+		prtln(engine + "\t" + elapsed + "\t" + ((long) numThreads * numOps * 1000 / elapsed));
+	}
+
+
+	private HashMap makePayload(int i) {
+		HashMap payload = new HashMap();
+		payload.put("id", new Integer(i));
+		payload.put("lastHarvest", new Date());
+		payload.put("status", "Harvest of set " + i + " completed successfully with no errors");
+		return payload;
+	}
+
+
+	private String makeTempDir() throws IOException {
+		File dir = File.createTempFile("SerializedDataManagerPerformanceTests", "");
+		dir.delete();
+		dir.mkdirs();
+		tempDirs.add(dir);
+		return dir.getAbsolutePath();
+	}
+
+
 	/**
 	 *  Gets the uniqueString attribute of the
 	 *  SerializedDataManagerPerformanceTests object
@@ -257,6 +419,9 @@ public class SerializedDataManagerPerformanceTests extends TestCase
 	/**  The teardown method for JUnit */
 	protected void tearDown() {
 		//prtln("tearDown()");
+		for (int i = 0; i < tempDirs.size(); i++)
+			Files.deleteDirectory((File) tempDirs.get(i));
+		tempDirs.clear();
 	}
 
 
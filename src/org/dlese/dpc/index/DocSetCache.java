@@ -0,0 +1,289 @@
+/*
+	Copyright 2017 Digital Learning Sciences (DLS) at the
+	University Corporation for Atmospheric Research (UCAR),
+	P.O. Box 3000, Boulder, CO 80307
+
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+
+	http://www.apache.org/licenses/LICENSE-2.0
+
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+package org.dlese.dpc.index;
+
+import java.io.IOException;
+import java.util.*;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.TermDocs;
+import org.apache.lucene.search.*;
+import org.apache.lucene.util.OpenBitSet;
+
+/**
+ *  Caches the set of documents that match a Query, as an OpenBitSet, for the IndexReader the sets were
+ *  computed from. Sets are computed with a non-scoring Collector, or directly from the postings for a
+ *  TermQuery, and are used to count matches and to intersect frequently used clauses without running a
+ *  scored search. When the IndexSearcher passed in reads from a different IndexReader than the cached sets
+ *  (the index has been updated and a new searcher generation swapped in), all cached sets are discarded. The
+ *  least recently used sets are evicted once the configured maximum number of sets is held. <p>
+ *
+ *  The sets returned must not be modified.
+ *
+ * @see       SimpleLuceneIndex#getNumDocs(String[],String)
+ */
+public final class DocSetCache {
+
+	/**  Default maximum number of sets held. */
+	public final static int DEFAULT_MAX_SETS = 256;
+
+	private int maxSets = DEFAULT_MAX_SETS;
+	private IndexReader cachedReader = null;
+	private long numHits = 0;
+	private long numMisses = 0;
+
+	// Access-ordered so iteration begins with the least recently used set:
+	private final LinkedHashMap sets = new LinkedHashMap(16, 0.75f, true);
+
+
+	/**  Constructor for the DocSetCache using the default maximum number of sets. */
+	public DocSetCache() { }
+
+
+	/**
+	 *  Constructor for the DocSetCache.
+	 *
+	 * @param  maxSets  Maximum number of sets held
+	 */
+	public DocSetCache(int maxSets) {
+		setMaxSets(maxSets);
+	}
+
+
+	/**
+	 *  Gets the set of documents in the searcher's IndexReader that match the given Query, computing and caching
+	 *  it if needed. The searcher must remain acquired while the set is used.
+	 *
+	 * @param  searcher         An acquired IndexSearcher
+	 * @param  query            The Query
+	 * @return                  The matching documents, indexed by document number
+	 * @exception  IOException  If error reading the index
+	 */
+	public OpenBitSet getDocSet(IndexSearcher searcher, Query query) throws IOException {
+		IndexReader reader = searcher.getIndexReader();
+		synchronized (this) {
+			if (reader != cachedReader) {
+				sets.clear();
+				cachedReader = reader;
+			}
+			OpenBitSet bits = (OpenBitSet) sets.get(query);
+			if (bits != null) {
+				numHits++;
+				return bits;
+			}
+			numMisses++;
+		}
+
+		// Compute outside the lock so other threads are not held up:
+		OpenBitSet bits = computeDocSet(searcher, query);
+
+		synchronized (this) {
+			if (reader == cachedReader && maxSets > 0) {
+				sets.put(query, bits);
+				Iterator it = sets.values().iterator();
+				while (sets.size() > maxSets && it.hasNext()) {
+					it.next();
+					it.remove();
+				}
+			}
+		}
+		return bits;
+	}
+
+
+	/**
+	 *  Computes the set of documents in the searcher's IndexReader that match the given Query, without caching.
+	 *
+	 * @param  searcher         An acquired IndexSearcher
+	 * @param  query            The Query
+	 * @return                  The matching documents, indexed by document number
+	 * @exception  IOException  If error reading the index
+	 */
+	public static OpenBitSet computeDocSet(IndexSearcher searcher, Query query) throws IOException {
+		IndexReader reader = searcher.getIndexReader();
+		OpenBitSet bits = new OpenBitSet(reader.maxDoc());
+
+		// Read a single term directly from its postings:
+		if (query instanceof TermQuery) {
+			Term term = ((TermQuery) query).getTerm();
+			TermDocs termDocs = reader.termDocs(term);
+			try {
+				while (termDocs.next())
+					bits.fastSet(termDocs.doc());
+			} finally {
+				termDocs.close();
+			}
+			return bits;
+		}
+
+		searcher.search(query, new DocSetCollector(bits));
+		return bits;
+	}
+
+
+	/**
+	 *  Computes the set of documents in the given IndexReader that are accepted by the given Filter, without
+	 *  caching. The Filter is applied to the reader as a whole rather than to each of its segments. The set
+	 *  returned may be the one held by the Filter and must not be modified.
+	 *
+	 * @param  reader           The IndexReader
+	 * @param  filter           The Filter
+	 * @return                  The accepted documents, indexed by document number
+	 * @exception  IOException  If error reading the index
+	 */
+	public static OpenBitSet computeDocSet(IndexReader reader, Filter filter) throws IOException {
+		DocIdSet docIdSet = filter.getDocIdSet(reader);
+		if (docIdSet instanceof OpenBitSet)
+			return (OpenBitSet) docIdSet;
+
+		OpenBitSet bits = new OpenBitSet(reader.maxDoc());
+		DocIdSetIterator it = (docIdSet == null ? null : docIdSet.iterator());
+		if (it != null) {
+			int doc;
+			while ((doc = it.nextDoc()) != DocIdSetIterator.NO_MORE_DOCS)
+				bits.fastSet(doc);
+		}
+		return bits;
+	}
+
+
+	/**
+	 *  Counts the documents in the searcher's IndexReader that match the given Query, without scoring or
+	 *  caching.
+	 *
+	 * @param  searcher         An acquired IndexSearcher
+	 * @param  query            The Query
+	 * @return                  The number of matching documents
+	 * @exception  IOException  If error reading the index
+	 */
+	public static int countDocs(IndexSearcher searcher, Query query) throws IOException {
+		final int[] count = new int[1];
+		searcher.search(query,
+			new Collector() {
+				public void setScorer(Scorer scorer) { }
+
+
+				public void collect(int doc) {
+					count[0]++;
+				}
+
+
+				public void setNextReader(IndexReader reader, int docBase) { }
+
+
+				public boolean acceptsDocsOutOfOrder() {
+					return true;
+				}
+			});
+		return count[0];
+	}
+
+
+	/**  Removes all cached sets. */
+	public synchronized void clear() {
+		sets.clear();
+		cachedReader = null;
+	}
+
+
+	/**
+	 *  Gets the number of sets currently held.
+	 *
+	 * @return    The number of sets
+	 */
+	public synchronized int getNumSets() {
+		return sets.size();
+	}
+
+
+	/**
+	 *  Gets the number of requests that were answered from the cache.
+	 *
+	 * @return    The numHits value
+	 */
+	public synchronized long getNumHits() {
+		return numHits;
+	}
+
+
+	/**
+	 *  Gets the number of requests that required a set to be computed.
+	 *
+	 * @return    The numMisses value
+	 */
+	public synchronized long getNumMisses() {
+		return numMisses;
+	}
+
+
+	/**
+	 *  Sets the maximum number of sets held. Each set uses one bit per document in the index. Use 0 to disable
+	 *  caching.
+	 *
+	 * @param  maxSets  The new maxSets value
+	 */
+	public synchronized void setMaxSets(int maxSets) {
+		this.maxSets = Math.max(0, maxSets);
+		Iterator it = sets.values().iterator();
+		while (sets.size() > this.maxSets && it.hasNext()) {
+			it.next();
+			it.remove();
+		}
+	}
+
+
+	/**
+	 *  Gets the maximum number of sets held.
+	 *
+	 * @return    The maxSets value
+	 */
+	public synchronized int getMaxSets() {
+		return maxSets;
+	}
+
+
+	/**  A Collector that records matching documents in an OpenBitSet without computing scores. */
+	private final static class DocSetCollector extends Collector {
+		private final OpenBitSet bits;
+		private int docBase = 0;
+
+
+		DocSetCollector(OpenBitSet bits) {
+			this.bits = bits;
+		}
+
+
+		public void setScorer(Scorer scorer) { }
+
+
+		public void collect(int doc) {
+			bits.fastSet(docBase + doc);
+		}
+
+
+		public void setNextReader(IndexReader reader, int docBase) {
+			this.docBase = docBase;
+		}
+
+
+		public boolean acceptsDocsOutOfOrder() {
+			return true;
+		}
+	}
+}
@@ -0,0 +1,159 @@
+/*
+	Copyright 2017 Digital Learning Sciences (DLS) at the
+	University Corporation for Atmospheric Research (UCAR),
+	P.O. Box 3000, Boulder, CO 80307
+
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+
+	http://www.apache.org/licenses/LICENSE-2.0
+
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+package org.dlese.dpc.index;
+
+import java.io.IOException;
+import java.util.*;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.search.*;
+import org.apache.lucene.util.OpenBitSet;
+import org.apache.lucene.util.ReaderUtil;
+
+/**
+ *  A Filter that accepts the documents in a precomputed set, such as one obtained from a {@link DocSetCache}
+ *  and combined with other sets using OpenBitSet and/andNot. The set is indexed by the document numbers of
+ *  the IndexReader it was computed from. Since searches are run one segment at a time, the filter hands each
+ *  segment of that reader the slice of the set that belongs to it. <p>
+ *
+ *  If the filter is applied to a reader that was not part of the reader the set was computed from, for
+ *  example because the index was updated and a new searcher swapped in between computing the set and
+ *  running the search, the fallback Filter is used for that reader instead.
+ *
+ * @see       DocSetCache
+ */
+public final class DocSetFilter extends Filter {
+	private final IndexReader reader;
+	private final OpenBitSet bits;
+	private final Filter fallback;
+	private final Map docBases = new IdentityHashMap();
+
+
+	/**
+	 *  Constructor for the DocSetFilter.
+	 *
+	 * @param  reader    The IndexReader the set was computed from
+	 * @param  bits      The accepted documents, indexed by document number in the reader. Must not be modified
+	 *      while the filter is in use
+	 * @param  fallback  A Filter that accepts the same documents, used for readers other than the given one
+	 */
+	public DocSetFilter(IndexReader reader, OpenBitSet bits, Filter fallback) {
+		this.reader = reader;
+		this.bits = bits;
+		this.fallback = fallback;
+
+		List subReaders = new ArrayList();
+		ReaderUtil.gatherSubReaders(subReaders, reader);
+		int docBase = 0;
+		for (int i = 0; i < subReaders.size(); i++) {
+			IndexReader subReader = (IndexReader) subReaders.get(i);
+			docBases.put(subReader, new Integer(docBase));
+			docBase += subReader.maxDoc();
+		}
+	}
+
+
+	/**
+	 *  Gets the IndexReader the set was computed from.
+	 *
+	 * @return    The reader
+	 */
+	public IndexReader getReader() {
+		return reader;
+	}
+
+
+	/**
+	 *  Gets the accepted documents, indexed by document number in the reader the set was computed from.
+	 *
+	 * @return    The set, which must not be modified
+	 */
+	public OpenBitSet getDocSet() {
+		return bits;
+	}
+
+
+	/**
+	 *  Gets the accepted documents in the given reader.
+	 *
+	 * @param  r                The reader, normally one segment of the reader the set was computed from
+	 * @return                  The accepted documents
+	 * @exception  IOException  If error reading the index
+	 */
+	public DocIdSet getDocIdSet(IndexReader r) throws IOException {
+		if (r == reader)
+			return bits;
+		Integer docBase = (Integer) docBases.get(r);
+		if (docBase == null)
+			return fallback.getDocIdSet(r);
+		return new SliceDocIdSet(docBase.intValue(), r.maxDoc());
+	}
+
+
+	/**
+	 *  A String representation of this filter.
+	 *
+	 * @return    The String
+	 */
+	public String toString() {
+		return "DocSetFilter(" + bits.cardinality() + " docs)";
+	}
+
+
+	/**  The part of the set that belongs to one segment, renumbered from zero. */
+	private final class SliceDocIdSet extends DocIdSet {
+		private final int docBase;
+		private final int maxDoc;
+
+
+		SliceDocIdSet(int docBase, int maxDoc) {
+			this.docBase = docBase;
+			this.maxDoc = maxDoc;
+		}
+
+
+		public DocIdSetIterator iterator() {
+			return
+				new DocIdSetIterator() {
+					private int doc = -1;
+
+
+					public int docID() {
+						return doc;
+					}
+
+
+					public int nextDoc() {
+						return (doc == NO_MORE_DOCS ? doc : advance(doc + 1));
+					}
+
+
+					public int advance(int target) {
+						int next = (target >= maxDoc ? -1 : bits.nextSetBit(docBase + target));
+						doc = (next == -1 || next >= docBase + maxDoc) ? NO_MORE_DOCS : next - docBase;
+						return doc;
+					}
+				};
+		}
+
+
+		public boolean isCacheable() {
+			return true;
+		}
+	}
+}
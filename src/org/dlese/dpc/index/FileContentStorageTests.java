@@ -0,0 +1,249 @@
+/*
+	Copyright 2017 Digital Learning Sciences (DLS) at the
+	University Corporation for Atmospheric Research (UCAR),
+	P.O. Box 3000, Boulder, CO 80307
+
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+
+	http://www.apache.org/licenses/LICENSE-2.0
+
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+package org.dlese.dpc.index;
+
+import org.dlese.dpc.util.Files;
+import org.dlese.dpc.index.document.FileContentTools;
+import org.dlese.dpc.index.reader.XMLDocReader;
+import org.dlese.dpc.repository.RepositoryManager;
+import org.dlese.dpc.repository.SetInfo;
+import org.dlese.dpc.xml.XMLConversionService;
+
+import junit.framework.*;
+import java.io.*;
+import java.util.*;
+
+/**
+ *  Checks each of the {@link FileContentTools} storage modes of the <code>filecontent</code> field. For each
+ *  mode, the XML records in a directory are each copied a number of times with new ids into a set of a fresh
+ *  {@link RepositoryManager}, which indexes them. A harvest of the set is then read page by page the way the
+ *  provider serves ListRecords in the records' native format, and the records read in each mode must be the
+ *  records that were written. The index size and the rate at which pages are served in each mode are measured
+ *  by the FileContentStorageBenchmark in the benchmarks module. <p>
+ *
+ *  The following System properties may be used to configure the run: 'filecontent.records.dir' (default
+ *  'web/WEB-INF/sample_metadata', which holds adn records), 'filecontent.format' (the format of the records,
+ *  default 'adn'), 'filecontent.page.size' (records per ListRecords page, default 300, the provider's
+ *  default) and 'filecontent.copies' (number of times each record is indexed, default 5).
+ *
+ * @author    John Weatherley
+ */
+public class FileContentStorageTests extends TestCase {
+	File testBaseDir = null;
+	List records = null;
+
+	String format;
+	int pageSize;
+	int copies;
+
+
+	/**
+	 *  A unit test suite for JUnit
+	 *
+	 * @return    The test suite
+	 */
+	public static Test suite() {
+		// Use java reflection to run all test methods in this class:
+		prtln("");
+		return new TestSuite(FileContentStorageTests.class);
+	}
+
+
+	/**
+	 *  The JUnit setup method. Gets called prior to running EACH test method call.
+	 *
+	 * @exception  Exception  If error
+	 */
+	protected void setUp()
+			 throws Exception {
+		prtln(".");
+
+		File recordsDir = new File(System.getProperty("filecontent.records.dir", "web/WEB-INF/sample_metadata"));
+		format = System.getProperty("filecontent.format", "adn");
+		pageSize = Integer.getInteger("filecontent.page.size", 300).intValue();
+		copies = Integer.getInteger("filecontent.copies", 5).intValue();
+
+		// Assumes a java prop was set that defines junit.test.dir prior to execution.
+		// This prop is defined in the Ant build.xml file.
+		String testDir = System.getProperty("junit.test.dir", System.getProperty("java.io.tmpdir"));
+		testBaseDir = new File(testDir, "file_content_storage");
+
+		records = new ArrayList();
+		addRecords(recordsDir, records);
+		Assert.assertTrue("No XML records found in " + recordsDir, records.size() > 0);
+	}
+
+
+	/**
+	 *  The JUnit tearDown method. Removes the repositories that were created.
+	 *
+	 * @exception  Exception  If error
+	 */
+	protected void tearDown()
+			 throws Exception {
+		Files.deleteDirectory(testBaseDir);
+	}
+
+
+	/**
+	 *  Indexes the records in each storage mode and checks that every record served is the record written.
+	 *
+	 * @exception  Exception  If error
+	 */
+	public void test_storage_modes()
+			 throws Exception {
+		Files.deleteDirectory(testBaseDir);
+		File recordsDir = new File(testBaseDir, "records");
+		Map written = writeRecords(recordsDir);
+
+		String[] modes = {FileContentTools.STORAGE_PLAIN, FileContentTools.STORAGE_COMPRESSED};
+		for (int m = 0; m < modes.length; m++) {
+			File dataDir = new File(testBaseDir, modes[m]);
+			dataDir.mkdirs();
+			RepositoryManager rm = new RepositoryManager(new File("web/WEB-INF/conf"), dataDir.getAbsolutePath(), 0, 500, false);
+			rm.setFileContentStorage(modes[m]);
+			Assert.assertEquals("Unable to initialize the RepositoryManager", 1, rm.init(false));
+			try {
+				// The records are served in their native format, which needs no converters
+				File cacheDir = new File(dataDir, "converted_xml_cache");
+				cacheDir.mkdirs();
+				rm.setXMLConversionService(new XMLConversionService(cacheDir, true));
+				rm.addSetInfo(new SetInfo("Storage test", "storage-test", "", "true", recordsDir.getAbsolutePath(), format, "storage-test"));
+				IndexingObserver observer = new IndexingObserver();
+				rm.indexFiles(observer, true);
+				observer.awaitCompletion();
+
+				Map served = serveListRecords(rm);
+				Assert.assertEquals(modes[m] + ": wrong number of records served", written.size(), served.size());
+				for (Iterator it = written.keySet().iterator(); it.hasNext(); ) {
+					String id = (String) it.next();
+					Assert.assertEquals(modes[m] + ": record " + id + " served", stripXmlDeclaration((String) written.get(id)),
+						stripXmlDeclaration((String) served.get(id)));
+				}
+			} finally {
+				rm.destroy();
+			}
+		}
+	}
+
+
+	/**
+	 *  Reads every page of a ListRecords harvest of the repository in the test format, reading the header and
+	 *  metadata of each record on a page as the provider does.
+	 *
+	 * @param  rm             The repository
+	 * @return                Map of record id to the XML served
+	 * @exception  Exception  If error
+	 */
+	private Map serveListRecords(RepositoryManager rm) throws Exception {
+		Map served = new HashMap();
+		ResultDocList results = rm.getOaiQueryResults(format, null, null, null);
+		Assert.assertTrue("The index was updated during the run", results.acquireReader());
+		try {
+			for (int offset = 0; offset < results.size(); offset += pageSize) {
+				int end = Math.min(results.size(), offset + pageSize);
+				for (int i = offset; i < end; i++) {
+					XMLDocReader rdr = (XMLDocReader) results.get(i).getDocReader();
+					String metadata = rdr.getXmlFormat(format, true);
+					Assert.assertTrue("Record content missing", metadata != null && metadata.length() > 0);
+					Assert.assertNotNull("Record datestamp missing", rdr.getOaiDatestamp());
+					served.put(rdr.getId(), metadata);
+				}
+			}
+		} finally {
+			results.releaseReader();
+		}
+		return served;
+	}
+
+
+	/**
+	 *  Writes each record the configured number of times to the given directory, with a new id in each copy.
+	 *
+	 * @param  dir            The directory
+	 * @return                Map of id to the XML written
+	 * @exception  Exception  If error
+	 */
+	private Map writeRecords(File dir) throws Exception {
+		dir.mkdirs();
+		Map written = new HashMap();
+		for (int c = 0; c < copies; c++) {
+			for (int i = 0; i < records.size(); i++) {
+				String id = "STORAGE-" + c + "-" + i;
+				String xml = ((String) records.get(i)).replaceFirst("(<catalog[^>]*entry=\")[^\"]*(\")", "$1" + id + "$2");
+				Files.writeFile(xml, new File(dir, id + ".xml"));
+				written.put(id, xml);
+			}
+		}
+		return written;
+	}
+
+
+	private static String stripXmlDeclaration(String xml) {
+		return xml.replaceFirst("^\\s*<\\?xml[^>]*\\?>\\s*", "").trim();
+	}
+
+
+	private void addRecords(File dir, List records) throws Exception {
+		File[] files = dir.listFiles();
+		for (int i = 0; files != null && i < files.length; i++) {
+			if (files[i].isDirectory())
+				addRecords(files[i], records);
+			else if (files[i].getName().endsWith(".xml"))
+				records.add(Files.readFileToEncoding(files[i], "UTF-8").toString());
+		}
+	}
+
+
+	/**  A FileIndexingObserver that lets the test wait for indexing to complete. */
+	private static class IndexingObserver implements FileIndexingObserver {
+		private boolean completed = false;
+		private int status;
+		private String message = null;
+
+
+		public synchronized void indexingCompleted(int status, String message) {
+			this.status = status;
+			this.message = message;
+			completed = true;
+			notifyAll();
+		}
+
+
+		synchronized void awaitCompletion() throws Exception {
+			while (!completed)
+				wait();
+			Assert.assertEquals("Indexing did not succeed: " + message, FileIndexingObserver.INDEXING_COMPLETED_SUCCESS, status);
+		}
+	}
+
+
+	private static void prtln(String s) {
+		System.out.println(s);
+	}
+
+
+	/**
+	 *  Main method for running this single suite from the command line
+	 *
+	 * @param  args  The command line arguments
+	 */
+	public static void main(String[] args) {
+		junit.textui.TestRunner.run(suite());
+	}
+}
@@ -31,6 +31,7 @@ import org.dlese.dpc.webapps.tools.*;
 import org.dlese.dpc.repository.*;
 import org.dlese.dpc.services.mmd.*;
 import org.dlese.dpc.index.document.DateFieldTools;
+import org.dlese.dpc.index.document.FileContentTools;
 /*
  *  To Do: Add functionality to update disable the discovery of a collection in the
  *  query parser. Create a class that returns the discoverable (or NOT discoverable) collections
@@ -93,11 +94,13 @@ public final class FileIndexingService {
 
 	private boolean indexErrors = true;
 	private boolean validateFiles = true;
+	private String fileContentStorage = FileContentTools.STORAGE_PLAIN;
 	private boolean saveDeletes = false;
 	private static boolean debug = true;
 	private String idFieldToRemove = null;
 	private boolean isIndexing = false;
-	private boolean stopIndexing = false;
+	private volatile boolean stopIndexing = false;
+	private int numIndexingThreads = 1;
 	// Max num files to index at one time
 	int maxNumFilesToIndex = 500;
 	// For testing only...
@@ -270,16 +273,67 @@ public final class FileIndexingService {
 
 	/**
 	 *  Sets whether or not to validate the files being indexed and create a validation report, which is indexed.
-	 *  If set to true, the files will be validated, otherwise they will not. Default is true.
+	 *  If set to true, the files will be validated, otherwise they will not. Default is true. Files are validated
+	 *  as their Documents are created, so they are validated in parallel when more than one indexing thread is
+	 *  used, and the schemas are shared through the grammar pool in {@link org.dlese.dpc.xml.XMLValidator}.
 	 *
 	 * @param  validateFiles  True to validate, else false.
 	 * @see                   org.dlese.dpc.index.writer.FileIndexingServiceWriter#getValidationReport()
+	 * @see                   #setNumIndexingThreads(int)
 	 */
 	public void setValidationEnabled(boolean validateFiles) {
 		this.validateFiles = validateFiles;
 	}
 
 
+	/**
+	 *  Sets how the full content of each file is stored in the index, either {@link
+	 *  FileContentTools#STORAGE_PLAIN} (the default) or {@link FileContentTools#STORAGE_COMPRESSED}. Compressed
+	 *  storage makes the index considerably smaller at the cost of inflating each record when it is read. When
+	 *  the mode is changed, records that were stored in the other mode are re-indexed the next time their
+	 *  directory is indexed, whether or not the files have changed, so an existing index is converted by the
+	 *  next indexing pass.
+	 *
+	 * @param  fileContentStorage  The storage mode
+	 * @exception  IllegalArgumentException  If the value is not a storage mode
+	 * @see                        org.dlese.dpc.index.writer.FileIndexingServiceWriter#setFileContentStorage(String)
+	 */
+	public void setFileContentStorage(String fileContentStorage) throws IllegalArgumentException {
+		this.fileContentStorage = FileContentTools.getStorageMode(fileContentStorage);
+	}
+
+
+	/**
+	 *  Gets how the full content of each file is stored in the index.
+	 *
+	 * @return    The storage mode
+	 */
+	public String getFileContentStorage() {
+		return fileContentStorage;
+	}
+
+	/**
+	 *  Sets the number of threads used to parse the files and create their Documents when indexing. The
+	 *  Documents are still written to the index by a single thread, in the same order as before. Values less
+	 *  than 2 index each file in turn in the indexing thread. Default is 1.
+	 *
+	 * @param  numIndexingThreads  The number of indexing threads
+	 */
+	public void setNumIndexingThreads(int numIndexingThreads) {
+		this.numIndexingThreads = numIndexingThreads;
+	}
+
+
+	/**
+	 *  Gets the number of threads used to parse the files and create their Documents when indexing.
+	 *
+	 * @return    The number of indexing threads
+	 */
+	public int getNumIndexingThreads() {
+		return numIndexingThreads;
+	}
+
+
 	/**
 	 *  Adds a directory of files to be monitored for changes, or replaces the current one if one exists with the
 	 *  same absolute path.
@@ -580,6 +634,7 @@ public final class FileIndexingService {
 					throw new FileIndexingServiceException("The directory '" + fileToIndex.getParentFile() +
 						"' is not configured for indexing by the FileIndexingService.");
 				myDocWriter.setValidationEnabled(false);
+				myDocWriter.setFileContentStorage(fileContentStorage);
 				recordDataService = (RecordDataService) index.getAttribute("recordDataService");
 				// Initialize the idMapper:
 				if (recordDataService != null)
@@ -597,6 +652,7 @@ public final class FileIndexingService {
 					removeDocsFromIndex(index, docsToRemove);
 					// Add the new document:
 					index.update("docsource", ab, newDocData.getDoc(), SimpleLuceneIndex.BLOCK);
+					updateConversionCache(Collections.singletonList(newDocData.getDoc()), null);
 				}
 				else
 					throw new FileIndexingServiceException("Unable to create index entry for file");
@@ -1358,6 +1414,7 @@ public final class FileIndexingService {
 			addIndexingMessage(msg);			
 			
 			RecordDataService recordDataService = null;
+			IndexingWorkerPool workerPool = null;
 			FileIndexingServiceException thrown = null;
 			try {
 				int MAX_SIZE = maxNumFilesToIndex;
@@ -1379,111 +1436,89 @@ public final class FileIndexingService {
 				recordDataService = (RecordDataService) index.getAttribute("recordDataService");
 				Hashtable filesHash = new Hashtable(docsToUpdateList.size());
 				FileIndexingServiceWriter myDocWriter = null;
-				List thisDoc;
+				PreparedItem item;
 				FileIndexingServiceData newDocData;
 				Document doc;
 				//Document newDoc;
-				Document dupIdDoc;
 				List dupsToRemove = null;
 				String newID;
 				String rmAb;
 				String ab;
-				String deletedStr;
-				String errorDocStr;
-				String doc_mtime;
 				File fileToUpdate;
-				SimpleFileIndexingServiceDocReader tmpReader;
 				// Initialize the idMapper ToDo: refactor so this does not need to occur each time!
 				if (recordDataService != null)
 					recordDataService.initIdMapper();
 				Thread myThread = Thread.currentThread();
 				myThread.setPriority(Thread.MIN_PRIORITY);
+				// Look up and create the Documents in worker threads if configured, writing them here in order:
+				if (numIndexingThreads > 1 && docsToUpdateList.size() > 1)
+					workerPool = new IndexingWorkerPool(docsToUpdateList, srcDir, reindexAll, indexingSessionAttributes);
 				for (int i = 0; i < docsToUpdateList.size() && !stopIndexing; i++) {
 					//prtln("doIndexObjects() loop start i=" + i);
-					// Handle File []
-					if (object_type == FILE_ARRAY) {
-						//prtln("doIndexObjects() FILE_ARRAY");
-						myDocWriter = getNewFileIndexingServiceWriter(srcDir.getAbsolutePath());
-						myDocWriter.setValidationEnabled(validateFiles);
-						fileToUpdate = (File) docsToUpdateList.get(i);
-						ab = fileToUpdate.getAbsolutePath();
-						thisDoc = index.listDocs("docsource", ab);
+					if (workerPool != null) {
+						item = workerPool.take();
+						if (item == null)
+							break;
 					}
-					// Handle Document [] or ResultDocList
-					else {
-						if (object_type == DOCUMENT_ARRAY) {
-							//prtln("doIndexObjects() DOCUMENT_ARRAY");
-							tmpReader = new SimpleFileIndexingServiceDocReader((Document) docsToUpdateList.get(i));
-						}
-						else {
-							//prtln("doIndexObjects() RESULTDOC_ARRAY");
-							tmpReader = new SimpleFileIndexingServiceDocReader(((ResultDoc) docsToUpdateList.get(i)).getDocument());
+					else
+						item = prepareItem(docsToUpdateList.get(i), srcDir, reindexAll, indexingSessionAttributes);
+					if (item.fatal != null)
+						throw item.fatal;
+					// Check against the files before this one in the session here, in order, so the first file with an ID wins:
+					if (item.error == null && item.newDocData != null && item.newDocData.getDoc() != null) {
+						try {
+							item.docWriter.checkSession(indexingSessionAttributes);
+						} catch (Throwable e) {
+							item.error = e;
+							item.newDocData = null;
 						}
-						thisDoc = new ArrayList(1);
-						thisDoc.add(docsToUpdateList.get(i));
-						fileToUpdate = tmpReader.getFile();
-						ab = fileToUpdate.getAbsolutePath();
-						srcDir = new File(tmpReader.getDocDir());
-						myDocWriter = getNewFileIndexingServiceWriter(srcDir.getAbsolutePath());
-						myDocWriter.setValidationEnabled(validateFiles);
-						//System.out.println("just got a new DocWriter Not File " + (myDocWriter == null ? " is null" : " not null"));
 					}
-					Thread.yield();
+					myDocWriter = item.docWriter;
+					fileToUpdate = item.file;
+					ab = item.docsource;
+					if (object_type != FILE_ARRAY)
+						srcDir = item.srcDir;
+					doc = item.existingDoc;
 					// Replace if the file is in index but mod times are different,
 					// or it's status had been deleted.
-					if (thisDoc != null && thisDoc.size() == 1) {
-						doc = (Document) thisDoc.get(0);
-						doc_mtime = doc.get("modtime");
-						errorDocStr = doc.get("doctype");
-						boolean isErrorDoc = (errorDocStr != null && errorDocStr.equals("0errordoc"));
-						deletedStr = doc.get("deleted");
-						boolean isDeleted = (deletedStr != null && deletedStr.equals("true"));
-						// Check if modtime is different, or if the record had previously been deleted.
-						
-						// Convert file mod time using DateFieldTools.timeToString to ensure same granularity: 
-						String file_mtime = DateFieldTools.timeToString(fileToUpdate.lastModified());
-												
-						if (reindexAll ||
-							!doc_mtime.equals(file_mtime) ||
-							isErrorDoc ||
-							isDeleted) {
+					if (item.numExisting == 1) {
+						if (item.needsUpdate) {
 							// To replace, add the file to both the remove and add lists.
-							try {
+							if (item.error == null) {
 								//prtln("doIndexDocs() case 1");
-								newDocData = myDocWriter.create(fileToUpdate, doc, null, indexingSessionAttributes);
+								newDocData = item.newDocData;
 								if (newDocData != null && newDocData.getDoc() != null) {
 									addDocs.add(newDocData.getDoc());
 									removeFilesByPath.add(ab);
 									num_replace++;
 								}
 								addRemoveFields(newDocData, removeItemsHashMap);
-							} catch (Throwable e) {
+							}
+							else {
 								errorOccured = true;
 								if (indexErrors) {
-									//prtln("Indexing an error: " + e);
-									//e.printStackTrace();
+									//prtln("Indexing an error: " + item.error);
 									ErrorFileIndexingWriter errDoc =
-										new ErrorFileIndexingWriter(e);
+										new ErrorFileIndexingWriter(item.error);
 									newDocData = errDoc.create(fileToUpdate, doc, null, indexingSessionAttributes);
 									if (newDocData != null && newDocData.getDoc() != null) {
-										//prtln("Adding an error: " + e);
+										//prtln("Adding an error: " + item.error);
 										addDocs.add(newDocData.getDoc());
 										removeFilesByPath.add(ab);
 									}
 									addRemoveFields(newDocData, removeItemsHashMap);
 								}
 								else {
-									prtlnErr("Error: " + e);
-									//e.printStackTrace();
+									prtlnErr("Error: " + item.error);
 								}
 							}
 						}
 					}
 					// Add the file if it's not found in the index
-					else if (thisDoc == null || thisDoc.size() == 0) {
-						try {
+					else if (item.numExisting == 0) {
+						if (item.error == null) {
 							//prtln("doIndexDocs() case 2");
-							newDocData = myDocWriter.create(fileToUpdate, null, null, indexingSessionAttributes);
+							newDocData = item.newDocData;
 							if (newDocData != null && newDocData.getDoc() != null) {
 								addDocs.add(newDocData.getDoc());
 								num_add++;
@@ -1507,13 +1542,14 @@ public final class FileIndexingService {
 							} catch (Throwable e) {
 								prtlnErr("Error removing dup ID: " + e);
 							}
-						} catch (Throwable e) {
+						}
+						else {
 							errorOccured = true;
 							if (indexErrors) {
-								prtln("Indexing an error: " + e);
-								e.printStackTrace();
+								prtln("Indexing an error: " + item.error);
+								item.error.printStackTrace();
 								ErrorFileIndexingWriter errDoc =
-									new ErrorFileIndexingWriter(e);
+									new ErrorFileIndexingWriter(item.error);
 								newDocData = errDoc.create(fileToUpdate, null, null, indexingSessionAttributes);
 								if (newDocData != null && newDocData.getDoc() != null) {
 									addDocs.add(newDocData.getDoc());
@@ -1521,12 +1557,11 @@ public final class FileIndexingService {
 								addRemoveFields(newDocData, removeItemsHashMap);
 							}
 							else {
-								prtlnErr("Error: " + e);
-								//e.printStackTrace();
+								prtlnErr("Error: " + item.error);
 							}
 						}
 					}
-					else if (thisDoc != null) {
+					else {
 						// This should never happen
 						prtlnErr("Error: index contains multiple entries for file: " + ab);
 					}
@@ -1542,15 +1577,13 @@ public final class FileIndexingService {
 						// Remove docs that the writers have requested to be removed and update the index
 						removeDocsFromIndex(index, removeItemsHashMap);
 						index.update("docsource", removeFilesByPath, addDocs);
+						updateConversionCache(addDocs, removeFilesByPath);
 						removeItemsHashMap.clear();
 						addDocs.clear();
 						removeFilesByPath.clear();
 						indexingSessionAttributes.clear();
 					}
-					if (thisDoc != null) {
-						thisDoc.clear();
-					}
-					thisDoc = null;
+					item = null;
 					doc = null;
 					ab = null;
 					if (i % 50 == 0 && i != 0) {
@@ -1575,6 +1608,7 @@ public final class FileIndexingService {
 					if (myDocWriter == null && object_type == FILE_ARRAY) {
 						myDocWriter = getNewFileIndexingServiceWriter(srcDir.getAbsolutePath());
 						myDocWriter.setValidationEnabled(validateFiles);
+						myDocWriter.setFileContentStorage(fileContentStorage);
 					}
 
 
@@ -1670,6 +1704,7 @@ public final class FileIndexingService {
 				// Remove docs that the writers have requested to be removed and update the index
 				removeDocsFromIndex(index, removeItemsHashMap);
 				index.update("docsource", removeFilesByPath, addDocs);
+				updateConversionCache(addDocs, removeFilesByPath);
 				// Garbage collect
 				removeItemsHashMap.clear();
 				addDocs.clear();
@@ -1697,6 +1732,8 @@ public final class FileIndexingService {
 				}
 				thrown = new FileIndexingServiceException(msg + ". Reason: " + e.toString());
 			} finally {
+				if (workerPool != null)
+					workerPool.stop();
 				if (recordDataService != null)
 					recordDataService.closeIdMapper();
 				numIndexingQue--;
@@ -1721,6 +1758,259 @@ public final class FileIndexingService {
 	}
 
 
+	/**
+	 *  Looks up the given File, Document or ResultDoc in the index and, if it is new or needs to be re-indexed,
+	 *  creates its Document using the configured FileIndexingServiceWriter. Errors creating the Document are
+	 *  recorded in the returned item. This does not modify the index and may be called from more than one thread
+	 *  at a time.
+	 *
+	 * @param  obj                A File, Document or ResultDoc
+	 * @param  srcDir             The source file directory, used if obj is a File
+	 * @param  reindexAll         True to create the Document even if the file has not changed
+	 * @param  sessionAttributes  The attributes shared by the writers in this indexing session
+	 * @return                    The prepared item
+	 * @exception  Exception      If the item could not be looked up, which aborts the indexing
+	 */
+	private PreparedItem prepareItem(Object obj, File srcDir, boolean reindexAll, HashMap sessionAttributes)
+		 throws Exception {
+		PreparedItem item = new PreparedItem();
+		List thisDoc;
+		// Handle File []
+		if (obj instanceof File) {
+			item.srcDir = srcDir;
+			item.docWriter = getNewFileIndexingServiceWriter(srcDir.getAbsolutePath());
+			item.docWriter.setValidationEnabled(validateFiles);
+			item.docWriter.setFileContentStorage(fileContentStorage);
+			item.file = (File) obj;
+			item.docsource = item.file.getAbsolutePath();
+			thisDoc = index.listDocs("docsource", item.docsource);
+		}
+		// Handle Document [] or ResultDocList
+		else {
+			Document existing = (obj instanceof Document ? (Document) obj : ((ResultDoc) obj).getDocument());
+			SimpleFileIndexingServiceDocReader tmpReader = new SimpleFileIndexingServiceDocReader(existing);
+			thisDoc = new ArrayList(1);
+			thisDoc.add(existing);
+			item.file = tmpReader.getFile();
+			item.docsource = item.file.getAbsolutePath();
+			item.srcDir = new File(tmpReader.getDocDir());
+			item.docWriter = getNewFileIndexingServiceWriter(item.srcDir.getAbsolutePath());
+			item.docWriter.setValidationEnabled(validateFiles);
+			item.docWriter.setFileContentStorage(fileContentStorage);
+		}
+		Thread.yield();
+		item.numExisting = (thisDoc == null ? 0 : thisDoc.size());
+		if (item.numExisting == 1) {
+			Document doc = (Document) thisDoc.get(0);
+			item.existingDoc = doc;
+			String doc_mtime = doc.get("modtime");
+			String errorDocStr = doc.get("doctype");
+			boolean isErrorDoc = (errorDocStr != null && errorDocStr.equals("0errordoc"));
+			String deletedStr = doc.get("deleted");
+			boolean isDeleted = (deletedStr != null && deletedStr.equals("true"));
+
+			// Convert file mod time using DateFieldTools.timeToString to ensure same granularity:
+			String file_mtime = DateFieldTools.timeToString(item.file.lastModified());
+
+			// Check if modtime is different, if the record had previously been deleted, or if its content is
+			// stored in a different mode than is now configured.
+			if (reindexAll ||
+				!doc_mtime.equals(file_mtime) ||
+				isErrorDoc ||
+				isDeleted ||
+				!FileContentTools.isStoredAs(doc, "filecontent", fileContentStorage)) {
+				item.needsUpdate = true;
+				try {
+					item.newDocData = item.docWriter.create(item.file, doc, null, sessionAttributes);
+				} catch (Throwable e) {
+					item.error = e;
+				}
+			}
+		}
+		else if (item.numExisting == 0) {
+			item.needsUpdate = true;
+			try {
+				item.newDocData = item.docWriter.create(item.file, null, null, sessionAttributes);
+			} catch (Throwable e) {
+				item.error = e;
+			}
+		}
+		return item;
+	}
+
+
+	/**
+	 *  A File, Document or ResultDoc that has been looked up in the index and, if needed, had its new Document
+	 *  created, ready to be written to the index.
+	 */
+	private final static class PreparedItem {
+		File file = null;
+		String docsource = null;
+		File srcDir = null;
+		FileIndexingServiceWriter docWriter = null;
+		// The Document currently in the index for this file, if exactly one exists
+		Document existingDoc = null;
+		int numExisting = 0;
+		boolean needsUpdate = false;
+		FileIndexingServiceData newDocData = null;
+		// Error creating the new Document, which is indexed as an error doc
+		Throwable error = null;
+		// Error looking up the item, which aborts the indexing
+		Throwable fatal = null;
+	}
+
+
+	/**
+	 *  Prepares the items for indexing using a number of worker threads and hands them back in their original
+	 *  order. The workers run at most a fixed number of items ahead of the thread that takes them, so only a
+	 *  small number of Documents are held in memory at once.
+	 *
+	 * @see    #setNumIndexingThreads(int)
+	 */
+	private class IndexingWorkerPool {
+		private List items;
+		private File srcDir;
+		private boolean reindexAll;
+		private HashMap sessionAttributes;
+		private PreparedItem[] window;
+		private int nextToPrepare = 0;
+		private int nextToTake = 0;
+		private boolean stopped = false;
+
+
+		/**
+		 *  Starts the worker threads, which begin preparing the items immediately.
+		 *
+		 * @param  items              The Files, Documents or ResultDocs to prepare
+		 * @param  srcDir             The source file directory, used if the items are Files
+		 * @param  reindexAll         True to create the Documents even if the files have not changed
+		 * @param  sessionAttributes  The attributes shared by the writers in this indexing session
+		 */
+		IndexingWorkerPool(List items, File srcDir, boolean reindexAll, HashMap sessionAttributes) {
+			this.items = items;
+			this.srcDir = srcDir;
+			this.reindexAll = reindexAll;
+			this.sessionAttributes = sessionAttributes;
+			int numThreads = Math.min(numIndexingThreads, items.size());
+			window = new PreparedItem[numThreads * 10];
+			for (int i = 0; i < numThreads; i++) {
+				Thread worker = new IndexingWorkerThread();
+				worker.setDaemon(true);
+				worker.setPriority(Thread.MIN_PRIORITY);
+				worker.start();
+			}
+		}
+
+
+		/**
+		 *  Waits for and returns the next item in order.
+		 *
+		 * @return                           The next item, or null if indexing has been stopped
+		 * @exception  InterruptedException  If interrupted
+		 */
+		synchronized PreparedItem take() throws InterruptedException {
+			int slot = nextToTake % window.length;
+			while (window[slot] == null) {
+				if (nextToTake >= nextToPrepare && (stopped || stopIndexing))
+					return null;
+				wait();
+			}
+			PreparedItem item = window[slot];
+			window[slot] = null;
+			nextToTake++;
+			notifyAll();
+			return item;
+		}
+
+
+		/**  Stops the workers once they have finished the items they are working on. */
+		synchronized void stop() {
+			stopped = true;
+			notifyAll();
+		}
+
+
+		/**
+		 *  Gets the position of the next item for a worker to prepare, waiting while the workers are too far ahead.
+		 *
+		 * @return                           The position, or -1 if there is nothing more to do
+		 * @exception  InterruptedException  If interrupted
+		 */
+		private synchronized int nextItem() throws InterruptedException {
+			while (!stopped && !stopIndexing && nextToPrepare < items.size() && nextToPrepare - nextToTake >= window.length)
+				wait();
+			if (stopped || stopIndexing || nextToPrepare >= items.size()) {
+				// Wake a taker that may be waiting on an item that will now never be prepared
+				notifyAll();
+				return -1;
+			}
+			return nextToPrepare++;
+		}
+
+
+		private synchronized void put(int i, PreparedItem item) {
+			window[i % window.length] = item;
+			notifyAll();
+		}
+
+
+		/**  A worker that prepares items until there are none left. */
+		private class IndexingWorkerThread extends Thread {
+			/**  Main processing method for the IndexingWorkerThread object */
+			public void run() {
+				try {
+					int i;
+					while ((i = nextItem()) != -1) {
+						PreparedItem item;
+						try {
+							item = prepareItem(items.get(i), srcDir, reindexAll, sessionAttributes);
+						} catch (Throwable t) {
+							item = new PreparedItem();
+							item.fatal = t;
+						}
+						put(i, item);
+					}
+				} catch (InterruptedException e) {}
+			}
+		}
+	}
+
+
+	/**
+	 *  Updates the XMLConversionService set in the index attribute 'xmlConversionService', if any, after a block
+	 *  of Documents has been written to the index. The files for the newly indexed Documents are queued to be
+	 *  converted in the background, and files that were removed from the index or indexed as deleted are removed
+	 *  from the service's cache. Error records are skipped.
+	 *
+	 * @param  docs          The Documents that were added to the index
+	 * @param  removedPaths  The docsource paths of the Documents that were removed from the index, or null
+	 */
+	private void updateConversionCache(List docs, List removedPaths) {
+		XMLConversionService xmlConversionService = (XMLConversionService) index.getAttribute("xmlConversionService");
+		if (xmlConversionService == null || docs == null)
+			return;
+		HashSet indexedPaths = new HashSet();
+		for (int i = 0; i < docs.size(); i++) {
+			Document doc = (Document) docs.get(i);
+			String docsource = doc.get("docsource");
+			String doctype = doc.get("doctype");
+			if (docsource == null || doctype == null || doctype.length() < 2 || doctype.equals("0errordoc"))
+				continue;
+			if ("true".equals(doc.get("deleted")))
+				continue;
+			indexedPaths.add(docsource);
+			// Remove the leading '0' from the doctype to get the format
+			xmlConversionService.preConvertInBackground(doctype.substring(1), new File(docsource), doc.get("contenthash"));
+		}
+		// Paths that were replaced by a new Document are updated by the pre-conversion above
+		for (int i = 0; removedPaths != null && i < removedPaths.size(); i++) {
+			String path = (String) removedPaths.get(i);
+			if (path != null && !indexedPaths.contains(path))
+				xmlConversionService.removeFromFreshnessIndex(new File(path));
+		}
+	}
+
+
 	private void addRemoveFields(FileIndexingServiceData data, HashMap docsToRemove) {
 		if (data == null || docsToRemove == null) {
 			return;
@@ -0,0 +1,37 @@
+/*
+	Copyright 2017 Digital Learning Sciences (DLS) at the
+	University Corporation for Atmospheric Research (UCAR),
+	P.O. Box 3000, Boulder, CO 80307
+
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+
+	http://www.apache.org/licenses/LICENSE-2.0
+
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+package org.dlese.dpc.index;
+
+/**
+ *  Receives notice each time a {@link SimpleLuceneIndex} swaps in a new IndexReader after the index has been
+ *  updated. Useful for rebuilding caches that are tied to the reader ahead of the next search.
+ *
+ * @see       SimpleLuceneIndex#addReopenListener(IndexReopenListener)
+ */
+public interface IndexReopenListener {
+
+	/**
+	 *  Called after a new IndexReader has been swapped in. Called while the index holds its update lock, so
+	 *  implementations must return quickly and do any real work in another thread.
+	 *
+	 * @param  index             The index
+	 * @param  readerGeneration  The generation of the new reader
+	 * @see                      SimpleLuceneIndex#getReaderGeneration()
+	 */
+	public void indexReopened(SimpleLuceneIndex index, long readerGeneration);
+}
@@ -0,0 +1,161 @@
+/*
+	Copyright 2017 Digital Learning Sciences (DLS) at the
+	University Corporation for Atmospheric Research (UCAR),
+	P.O. Box 3000, Boulder, CO 80307
+
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+
+	http://www.apache.org/licenses/LICENSE-2.0
+
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+package org.dlese.dpc.index;
+
+import java.io.IOException;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.search.IndexSearcher;
+
+/**
+ *  Manages the current {@link org.apache.lucene.search.IndexSearcher} for a {@link SimpleLuceneIndex},
+ *  allowing any number of threads to search concurrently while the index is being updated. Each caller
+ *  acquires a reference-counted snapshot of the searcher, uses it, and then releases it. When the index is
+ *  updated a new searcher is swapped in atomically and the previous IndexReader is closed only after the last
+ *  in-flight search has released it. <p>
+ *
+ *  Usage:<p>
+ *
+ *  <code>
+ *  IndexSearcher searcher = manager.acquire();<br>
+ *  if (searcher != null) {<br>
+ *  &nbsp;&nbsp;try {<br>
+ *  &nbsp;&nbsp;&nbsp;&nbsp;// search or read documents...<br>
+ *  &nbsp;&nbsp;} finally {<br>
+ *  &nbsp;&nbsp;&nbsp;&nbsp;manager.release(searcher);<br>
+ *  &nbsp;&nbsp;}<br>
+ *  }
+ *  </code>
+ *
+ * @see       SimpleLuceneIndex#acquireSearcher()
+ * @see       SimpleLuceneIndex#releaseSearcher(IndexSearcher)
+ */
+public final class IndexSearcherManager {
+
+	private volatile IndexSearcher _current = null;
+	private volatile long _generation = 0;
+
+
+	/**  Constructor for an IndexSearcherManager that has no searcher until {@link #swap(IndexReader)} is called. */
+	public IndexSearcherManager() { }
+
+
+	/**
+	 *  Acquires the current IndexSearcher, incrementing the reference count of its IndexReader. Every call
+	 *  that returns non-null must be paired with a call to {@link #release(IndexSearcher)}.
+	 *
+	 * @return    The current IndexSearcher, or null if no index is open
+	 */
+	public IndexSearcher acquire() {
+		while (true) {
+			IndexSearcher searcher = _current;
+			if (searcher == null)
+				return null;
+			if (tryIncRef(searcher.getIndexReader()))
+				return searcher;
+			// The searcher was swapped out and closed between the read and the incRef - try again with the new one
+		}
+	}
+
+
+	/**
+	 *  Releases an IndexSearcher that was previously obtained from {@link #acquire()}. The underlying
+	 *  IndexReader is closed when the last reference to it is released.
+	 *
+	 * @param  searcher  The IndexSearcher to release, may be null
+	 */
+	public void release(IndexSearcher searcher) {
+		if (searcher == null)
+			return;
+		try {
+			searcher.getIndexReader().decRef();
+		} catch (IOException e) {
+			prtlnErr("Error releasing IndexReader: " + e);
+		}
+	}
+
+
+	/**
+	 *  Atomically replaces the current searcher with one that reads from the given IndexReader. This manager
+	 *  takes ownership of the reader: the previous reader is released and will close once no searches are using
+	 *  it. Pass null to close the current searcher without replacing it.
+	 *
+	 * @param  newReader  The freshly opened IndexReader, or null
+	 */
+	public void swap(IndexReader newReader) {
+		IndexSearcher old = null;
+		synchronized (this) {
+			old = _current;
+			_current = (newReader == null ? null : new IndexSearcher(newReader));
+			_generation++;
+		}
+		release(old);
+	}
+
+
+	/**
+	 *  Gets the current IndexReader without acquiring a reference to it. The reader may be closed at any time
+	 *  after the next index update, so callers that read from it over any length of time should use {@link
+	 *  #acquire()} instead.
+	 *
+	 * @return    The current IndexReader, or null if no index is open
+	 */
+	public IndexReader getCurrentReader() {
+		IndexSearcher searcher = _current;
+		return (searcher == null ? null : searcher.getIndexReader());
+	}
+
+
+	/**
+	 *  Gets the generation of the current searcher, which is incremented each time a new searcher is swapped in.
+	 *  Useful for invalidating caches that are tied to a given IndexReader.
+	 *
+	 * @return    The generation
+	 */
+	public long getGeneration() {
+		return _generation;
+	}
+
+
+	/**
+	 *  Increments the reference count of the given IndexReader if it has not yet been closed.
+	 *
+	 * @param  reader  The IndexReader
+	 * @return         True if a reference was acquired, false if the reader is already closed
+	 */
+	public static boolean tryIncRef(IndexReader reader) {
+		// IndexReader's ref count methods synchronize on the reader, so this makes the check and increment atomic
+		synchronized (reader) {
+			if (reader.getRefCount() > 0) {
+				reader.incRef();
+				return true;
+			}
+			return false;
+		}
+	}
+
+
+	/**
+	 *  Output a line of text to error out, with datestamp.
+	 *
+	 * @param  s  The text that will be output to error out.
+	 */
+	private final static void prtlnErr(String s) {
+		System.err.println(SimpleLuceneIndex.getDateStamp() + " IndexSearcherManager ERROR: " + s);
+	}
+}
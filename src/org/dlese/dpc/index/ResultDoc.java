@@ -224,18 +224,33 @@ public class ResultDoc implements Comparable, Serializable {
 
 
 	/**
-	 *  Gets the Lucene {@link org.apache.lucene.document.Document} associated with this ResultDoc. If the index
-	 *  has changed since the search was conducted, this method may return an empty or incorrect Document. It is
-	 *  therefore best to read all Documents as soon as possible after a search if the index is being
-	 *  concurrently modified.
+	 *  Gets the Lucene {@link org.apache.lucene.document.Document} associated with this ResultDoc. The Document
+	 *  is loaded from the same IndexReader snapshot the search was performed over, which the search results hold
+	 *  open until {@link ResultDocList#releaseReader()} is called or they are garbage collected. Documents that
+	 *  were not read before the reader was released can not be read afterwards, since the document number may
+	 *  refer to a different record in the current reader.
 	 *
-	 * @return    The {@link org.apache.lucene.document.Document} associated with this ResultDoc.
+	 * <p>
+	 *
+	 *  All stored fields are read up front, unless the results are a {@link ResultDocList#getFieldProjection
+	 *  field projection}, in which case only the projected fields are read up front and others are read from
+	 *  the snapshot when first accessed.
+	 *
+	 * @return                            The {@link org.apache.lucene.document.Document} associated with this
+	 *      ResultDoc.
+	 * @exception  IllegalStateException  If the Document was not read before the results released their
+	 *      IndexReader
 	 */
 	public final Document getDocument() {
 		try {
-			if (_document == null)
-				_document = _resultDocConfig.index.getReader().document(_docNum);
+			if (_document == null) {
+				_document = _resultDocConfig.index.getDocument(_resultDocConfig.indexReader, _docNum, _resultDocConfig.fieldSelector);
+				if (_document == null)
+					return new Document();
+			}
 			return _document;
+		} catch (IllegalStateException e) {
+			throw e;
 		} catch (Throwable e) {
 			prtlnErr("Error retrieving document: " + e);
 			e.printStackTrace();
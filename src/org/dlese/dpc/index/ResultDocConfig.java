@@ -45,6 +45,13 @@ public final class ResultDocConfig {
 	public Filter filter = null;
 	/**  The attributes that will be made availalbe to DocReaders at search time. */
 	public HashMap attributes = null;
+	/**  The IndexReader snapshot that was searched over, used to lazily load the matching Documents */
+	public IndexReader indexReader = null;
+	/**
+	 *  Selects which stored fields are read up front when the matching Documents are loaded, or null to read
+	 *  all fields
+	 */
+	public FieldSelector fieldSelector = null;
 
 
 	/**
@@ -66,6 +73,23 @@ public final class ResultDocConfig {
 	}
 
 
+	/**
+	 *  Constructor for the ResultDocConfig that records the IndexReader snapshot the search was performed over,
+	 *  so that the Lucene document numbers in the results remain valid if the index is updated.
+	 *
+	 * @param  myQuery              The query that was used (as a String)
+	 * @param  luceneQueryObj       The Lucene Query object used
+	 * @param  myFilter             The Filter used to refine the search, or null if none used.
+	 * @param  docReaderAttributes  Attributes that will be made availalbe to DocReaders. May be null.
+	 * @param  myIndex              A pointer to the index that was searched over.
+	 * @param  searchedReader       The IndexReader that was searched over, or null
+	 */
+	public ResultDocConfig(String myQuery, Query luceneQueryObj, Filter myFilter, HashMap docReaderAttributes, SimpleLuceneIndex myIndex, IndexReader searchedReader) {
+		this(myQuery, luceneQueryObj, myFilter, docReaderAttributes, myIndex);
+		indexReader = searchedReader;
+	}
+
+
 	/**
 	 *  Minimum constructor for the ResultDocConfig.
 	 *
@@ -33,7 +33,9 @@ import org.dlese.dpc.index.reader.*;
 import java.io.*;
 
 /**
- *  A List of ResultDocs returned by a SimpleLucenIndex search.
+ *  A List of ResultDocs returned by a SimpleLucenIndex search. The results hold the IndexReader that was
+ *  searched over, so their Documents are read from the same snapshot even while the index is updated, until
+ *  {@link #releaseReader()} is called or the results are garbage collected.
  *
  * @author    John Weatherley
  * @see       SimpleLuceneIndex
@@ -43,9 +45,11 @@ public class ResultDocList extends AbstractList {
 	private static boolean debug = true;
 
 	private TopDocs _topDocs = null;
+	private int[] _docNums = null;
 	private ResultDocConfig _resultDocConfig = null;
 
 	private ResultDoc[] _resultDocs = null;
+	private boolean _readerHeld = false;
 
 
 	/**  Creates an empty ResultDocList that can not be expanded. */
@@ -77,6 +81,38 @@ public class ResultDocList extends AbstractList {
 	}
 
 
+	/**
+	 *  Creates a ResultDocList backed by the given search results that takes over a reference to the
+	 *  IndexReader in the resultDocConfig, which is released by {@link #releaseReader()} or when this
+	 *  ResultDocList is garbage collected.
+	 *
+	 * @param  topDocs          The TopDocs
+	 * @param  resultDocConfig  The config
+	 * @param  readerHeld       True if the caller has incremented the reference count of the reader for these
+	 *      results
+	 */
+	ResultDocList(TopDocs topDocs, ResultDocConfig resultDocConfig, boolean readerHeld) {
+		_topDocs = topDocs;
+		_resultDocConfig = resultDocConfig;
+		_readerHeld = readerHeld;
+	}
+
+
+	/**
+	 *  Creates a ResultDocList backed by the given Lucene document numbers, in order, that can not be expanded.
+	 *  Scores are not retained. The document numbers must refer to the IndexReader recorded in the
+	 *  resultDocConfig.
+	 *
+	 * @param  docNums          The Lucene document numbers
+	 * @param  resultDocConfig  The config
+	 * @see                     #getDocNums()
+	 */
+	public ResultDocList(int[] docNums, ResultDocConfig resultDocConfig) {
+		_docNums = docNums;
+		_resultDocConfig = resultDocConfig;
+	}
+
+
 	private int numGets = 0;
 
 
@@ -97,6 +133,9 @@ public class ResultDocList extends AbstractList {
 			return _resultDocs[i];
 		}
 
+		if (_docNums != null)
+			return new ResultDoc(_resultDocConfig, _docNums[i], 0);
+
 		// If not backed by an array, fetch from the index:
 		ScoreDoc scoreDoc = _topDocs.scoreDocs[i];
 		return new ResultDoc(_resultDocConfig, scoreDoc.doc, scoreDoc.score);
@@ -110,11 +149,152 @@ public class ResultDocList extends AbstractList {
 	public int size() {
 		if (_resultDocs != null)
 			return _resultDocs.length;
+		if (_docNums != null)
+			return _docNums.length;
 		if (_topDocs == null)
 			return 0;
 		return _topDocs.totalHits;
 	}
 
+	/**
+	 *  Gets the Lucene document numbers of the results, in order, or null if this ResultDocList is not backed by
+	 *  a search.
+	 *
+	 * @return    The document numbers, or null
+	 */
+	public int[] getDocNums() {
+		if (_docNums != null)
+			return _docNums;
+		if (_topDocs == null || _resultDocs != null)
+			return null;
+		int[] docNums = new int[_topDocs.scoreDocs.length];
+		for (int i = 0; i < docNums.length; i++)
+			docNums[i] = _topDocs.scoreDocs[i].doc;
+		return docNums;
+	}
+
+
+	/**
+	 *  Gets the config for the search that produced this ResultDocList, or null if none.
+	 *
+	 * @return    The ResultDocConfig
+	 */
+	public ResultDocConfig getResultDocConfig() {
+		return _resultDocConfig;
+	}
+
+
+	/**
+	 *  Gets a ResultDocList over the same results that reads only the given stored fields up front when each
+	 *  Document is loaded, reading any other field lazily when it is first accessed. Use this when only a few
+	 *  small fields are displayed, for example the identifiers and datestamps in an OAI ListIdentifiers
+	 *  response, to avoid reading the full content of each record. This ResultDocList is not changed, except
+	 *  that a reference to the IndexReader held with {@link #acquireReader()} is handed over to the projection.
+	 *
+	 * @param  fields  The names of the fields to read up front
+	 * @return         A ResultDocList over the same results, or this ResultDocList if it is not backed by a
+	 *      search
+	 * @see            ResultFieldSelector
+	 */
+	public ResultDocList getFieldProjection(String[] fields) {
+		if (_resultDocs != null || _resultDocConfig == null)
+			return this;
+		ResultDocConfig c = _resultDocConfig;
+		ResultDocConfig conf = new ResultDocConfig(c.query, c.luceneQuery, c.filter, c.attributes, c.index, c.indexReader);
+		conf.fieldSelector = new ResultFieldSelector(fields);
+		ResultDocList projection;
+		if (_docNums != null)
+			projection = new ResultDocList(_docNums, conf);
+		else
+			projection = new ResultDocList(_topDocs, conf);
+		synchronized (this) {
+			projection._readerHeld = _readerHeld;
+			_readerHeld = false;
+		}
+		return projection;
+	}
+
+
+	/**
+	 *  Gets a ResultDocList holding the results from start up to end with their Documents already read, so they
+	 *  can be used after the IndexReader has been released. All stored fields are read, including the full file
+	 *  content, unless this ResultDocList is a field projection, in which case the projected fields are read.
+	 *
+	 * @param  start  The index of the first result
+	 * @param  end    The index after the last result
+	 * @return        The loaded results, or this ResultDocList if it is not backed by a search
+	 * @see           #acquireReader()
+	 */
+	public ResultDocList getLoadedPage(int start, int end) {
+		if (_resultDocs != null || _resultDocConfig == null)
+			return this;
+		ResultDocConfig c = _resultDocConfig;
+		ResultDocConfig conf = new ResultDocConfig(c.query, c.luceneQuery, c.filter, c.attributes, c.index, c.indexReader);
+		conf.fieldSelector = c.fieldSelector;
+
+		start = Math.max(0, start);
+		end = Math.min(size(), end);
+		ResultDoc[] page = new ResultDoc[Math.max(0, end - start)];
+		for (int i = 0; i < page.length; i++) {
+			if (_docNums != null)
+				page[i] = new ResultDoc(conf, _docNums[start + i], 0);
+			else
+				page[i] = new ResultDoc(conf, _topDocs.scoreDocs[start + i].doc, _topDocs.scoreDocs[start + i].score);
+			page[i].getDocument();
+		}
+		return new ResultDocList(page);
+	}
+
+
+	/**
+	 *  Holds a reference to the IndexReader these results were found in so that their Documents, including
+	 *  fields that are loaded lazily, can be read from it until {@link #releaseReader()} is called, even if the
+	 *  index is updated in the mean time. The results of a search already hold the reader, so this is needed
+	 *  only to read them again after the reader was released, for example results kept between the pages of an
+	 *  OAI response. Calling this method again before the reader is released has no effect.
+	 *
+	 * @return    True if the reader is held or this ResultDocList is not backed by a search, false if the reader
+	 *      has already been closed, in which case the search should be run again
+	 */
+	public synchronized boolean acquireReader() {
+		if (_readerHeld || _resultDocConfig == null || _resultDocConfig.indexReader == null)
+			return true;
+		_readerHeld = IndexSearcherManager.tryIncRef(_resultDocConfig.indexReader);
+		return _readerHeld;
+	}
+
+
+	/**
+	 *  Releases the reference to the IndexReader held by the search or by {@link #acquireReader()}, so the reader
+	 *  may be closed once the index has been updated. Call this when done with the results rather than waiting
+	 *  for them to be garbage collected. Has no effect if no reference is held.
+	 */
+	public synchronized void releaseReader() {
+		if (!_readerHeld)
+			return;
+		_readerHeld = false;
+		try {
+			_resultDocConfig.indexReader.decRef();
+		} catch (IOException e) {
+			prtlnErr("Error releasing IndexReader: " + e);
+		}
+	}
+
+
+	/**
+	 *  Releases the IndexReader if it is still held when these results are garbage collected.
+	 *
+	 * @exception  Throwable  If error
+	 */
+	protected void finalize() throws Throwable {
+		try {
+			releaseReader();
+		} finally {
+			super.finalize();
+		}
+	}
+
+
 	/**
 	 *  Gets the ResultDocs as an array. Note that this is significantly less efficient than using the List
 	 *  methods for access.
@@ -0,0 +1,75 @@
+/*
+	Copyright 2017 Digital Learning Sciences (DLS) at the
+	University Corporation for Atmospheric Research (UCAR),
+	P.O. Box 3000, Boulder, CO 80307
+
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+
+	http://www.apache.org/licenses/LICENSE-2.0
+
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+package org.dlese.dpc.index;
+
+import java.util.*;
+
+import org.apache.lucene.document.FieldSelector;
+import org.apache.lucene.document.FieldSelectorResult;
+
+/**
+ *  A FieldSelector that determines which stored fields are read when the Document for a search result is
+ *  loaded. Fields that are read up front are loaded with the Document. All other fields are loaded lazily,
+ *  that is only when their value is first accessed, so a DocReader may still read any field even if it was
+ *  not declared. The fields 'readerclass' and 'doctype', which {@link ResultDoc} needs to choose a DocReader,
+ *  are always read up front. <p>
+ *
+ *  Lazily loaded fields are read from the IndexReader that was searched over, so they should be accessed soon
+ *  after the search, in the same way as described for {@link ResultDoc#getDocument()}.
+ *
+ * @author    John Weatherley
+ * @see       ResultDocList#getFieldProjection(String[])
+ * @see       ResultDocConfig#fieldSelector
+ */
+public final class ResultFieldSelector implements FieldSelector {
+
+	private final Set fieldsToLoad;
+
+
+	/**
+	 *  Constructor for a ResultFieldSelector that reads the given fields up front and all others lazily.
+	 *
+	 * @param  fieldsToLoad  The names of the fields to read up front
+	 */
+	public ResultFieldSelector(String[] fieldsToLoad) {
+		this.fieldsToLoad = new HashSet(Arrays.asList(fieldsToLoad));
+		this.fieldsToLoad.add("readerclass");
+		this.fieldsToLoad.add("doctype");
+	}
+
+
+	/**
+	 *  Determines how the given field is loaded.
+	 *
+	 * @param  fieldName  The field name
+	 * @return            LOAD or LAZY_LOAD
+	 */
+	public FieldSelectorResult accept(String fieldName) {
+		return fieldsToLoad.contains(fieldName) ? FieldSelectorResult.LOAD : FieldSelectorResult.LAZY_LOAD;
+	}
+
+
+	/**
+	 *  A String representation of this selector.
+	 *
+	 * @return    The String
+	 */
+	public String toString() {
+		return "ResultFieldSelector(" + fieldsToLoad + ", others lazy)";
+	}
+}
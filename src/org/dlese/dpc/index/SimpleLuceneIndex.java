@@ -26,6 +26,7 @@ import org.apache.lucene.search.*;
 import org.apache.lucene.analysis.*;
 import org.apache.lucene.analysis.standard.StandardAnalyzer;
 import org.apache.lucene.util.Version;
+import org.apache.lucene.util.OpenBitSet;
 import org.apache.lucene.store.instantiated.InstantiatedIndexReader;
 import org.apache.lucene.document.*;
 import org.apache.lucene.queryParser.*;
@@ -54,15 +55,17 @@ public final class SimpleLuceneIndex {
 	/**  The maximum number of hits that can be returned in a search */
 	private final int MAX_NUM_HITS = 10000000;
 
-	/**  The number of milliseconds to wait after the last index update before running the optimizer (30 minutes) */
-	private final static long OPTIMIZE_DELAY_TIME = 1800000;
-	//private final static long OPTIMIZE_DELAY_TIME = 2000; // test every 3 seconds...
+	/**  The default amount of RAM, in MB, used to buffer added documents before they are flushed to a new segment. */
+	public final static double DEFAULT_RAM_BUFFER_SIZE_MB = 32.0;
+
+	/**  The default number of segments of about the same size that are merged together in the background. */
+	public final static int DEFAULT_MERGE_FACTOR = 10;
 
 	/**
-	 *  The number of records updated before the optimizer is run. Use -1 to never run the optimizer based on
-	 *  number of records updated (optimizer will be run based on time elapsed since the last update only)
+	 *  The default maximum number of milliseconds that updates are held before they are committed to disk. Zero
+	 *  commits after every update.
 	 */
-	private final static long NUM_RECORDS_FOR_OPTIMIZER = -1;
+	public final static long DEFAULT_COMMIT_INTERVAL = 0;
 
 	// This increases the number of clauses for wildcard and other searches (default is 1024):
 	private final static int MAX_CLAUSE_COUNT = 30000;
@@ -106,9 +109,9 @@ public final class SimpleLuceneIndex {
 
 	private Analyzer defaultAnalyzer = null;
 
-	private IndexReader _myReader = null;
-	private IndexSearcher _mySearcher = null;
-	private Object _readerSearcherUpdateLock = new Object();
+	private final IndexSearcherManager _searcherManager = new IndexSearcherManager();
+	private final DocSetCache docSetCache = new DocSetCache();
+	private final ArrayList reopenListeners = new ArrayList();
 	private Object _updateLock = new Object();
 	private Object _stopperLock = new Object();
 
@@ -123,7 +126,18 @@ public final class SimpleLuceneIndex {
 	// The max number of search re-tries if there was an exception (which can occur during index updating)
 	private final static int MAX_TRIES = 3;
 
-	private OptimizeMonitorThread optimizeMonitorThread = null;
+	private CommitMonitorThread commitMonitorThread = null;
+
+	// The writer is opened on the first update and kept open until the index is closed. Guarded by _updateLock:
+	private IndexWriter _indexWriter = null;
+	private double ramBufferSizeMB = DEFAULT_RAM_BUFFER_SIZE_MB;
+	private int mergeFactor = DEFAULT_MERGE_FACTOR;
+	private long commitInterval = DEFAULT_COMMIT_INTERVAL;
+	private boolean hasUncommittedChanges = false;
+	private long lastCommitTime = System.currentTimeMillis();
+	private long numCommits = 0;
+	// Number of updates made since this index was opened, which counts updates that have not yet been committed:
+	private long numUpdates = 0;
 
 
 	/**
@@ -179,9 +193,6 @@ public final class SimpleLuceneIndex {
 			indexDir = new File(indexDirPath);
 			luceneIndexDir = new File(indexDir, "lucene_index");
 
-			optimizeMonitorThread = new OptimizeMonitorThread(this);
-			optimizeMonitorThread.start();
-
 			init();
 		} catch (Throwable t) {
 			prtlnErr("Unable to create new SimpleLuceneIndex: " + t);
@@ -227,7 +238,6 @@ public final class SimpleLuceneIndex {
 				synchronized (_updateLock) {
 					// Open and close the writer, which creates a new index
 					IndexWriter tmpWriter = new IndexWriter(FSDirectory.open(luceneIndexDir), this.getAnalyzer(), true, IndexWriter.MaxFieldLength.UNLIMITED);
-					tmpWriter.optimize();
 					tmpWriter.close();
 					tmpWriter = null;
 				}
@@ -251,23 +261,38 @@ public final class SimpleLuceneIndex {
 
 	/**
 	 *  Creates and loads a new IndexReader and IndexSearcher. Should be called only within a synchronized
-	 *  (_updateLock) block after any IndexWriter.close() operations have been called.
+	 *  (_updateLock) block after updates have been made. If the writer is open, the new reader is obtained
+	 *  from it and sees all updates whether or not they have been committed, otherwise the current reader is
+	 *  reopened. Either way only the segments that have changed are loaded. The new searcher is swapped in
+	 *  atomically, and the previous reader is closed once all in-flight searches have released it.
 	 */
 	private void loadNewReaderAndSearcher() {
 		try {
 			synchronized (_updateLock) {
-				synchronized (_readerSearcherUpdateLock) {
-					if (_myReader != null)
-						_myReader.close();
-					if (_mySearcher != null)
-						_mySearcher.close();
-
+				IndexReader newReader = null;
+				if (_indexWriter != null) {
+					newReader = _indexWriter.getReader();
+				}
+				else {
+					IndexReader currentReader = _searcherManager.getCurrentReader();
+					if (currentReader != null) {
+						try {
+							newReader = currentReader.reopen();
+							if (newReader == currentReader)
+								return;
+						} catch (Throwable t) {
+							// For example the reader came from a writer that has since been closed - open a new one below
+							newReader = null;
+						}
+					}
 					/* Note: FSDirectory.open instantiates SimpleFSDirectory on Windows and NIOFSDirectory on Linux. 
 					Some NIO ClosedChannelExceptions were seen on Linux when using FSDirectory.open so trying SimpleFSDirectory instead... */
-					//_myReader = IndexReader.open(FSDirectory.open(luceneIndexDir));
-					_myReader = IndexReader.open(new SimpleFSDirectory(luceneIndexDir)); // The basic directory reader, blocks on IO operations...
-					_mySearcher = new IndexSearcher(_myReader);
+					if (newReader == null)
+						newReader = IndexReader.open(new SimpleFSDirectory(luceneIndexDir)); // The basic directory reader, blocks on IO operations...
 				}
+				_searcherManager.swap(newReader);
+				docSetCache.clear();
+				fireIndexReopened();
 			}
 		} catch (Throwable t) {
 			prtlnErr("Unable to load a new reader or searcher: " + t);
@@ -275,18 +300,240 @@ public final class SimpleLuceneIndex {
 	}
 
 
+	/**  Notifies the IndexReopenListeners that a new reader has been swapped in. */
+	private void fireIndexReopened() {
+		Object[] listeners = null;
+		synchronized (reopenListeners) {
+			listeners = reopenListeners.toArray();
+		}
+		long generation = _searcherManager.getGeneration();
+		for (int i = 0; i < listeners.length; i++) {
+			try {
+				((IndexReopenListener) listeners[i]).indexReopened(this, generation);
+			} catch (Throwable t) {
+				prtlnErr("IndexReopenListener error: " + t);
+			}
+		}
+	}
+
+
+	/**
+	 *  Gets the shared IndexWriter, opening it if it is not already open. Should be called only within a
+	 *  synchronized (_updateLock) block.
+	 *
+	 * @return                  The IndexWriter
+	 * @exception  IOException  If the writer could not be opened
+	 */
+	private IndexWriter getIndexWriter() throws IOException {
+		if (_indexWriter == null) {
+			// Readers obtained from the writer use its directory, so use SimpleFSDirectory here too (see above)
+			IndexWriter writer = new IndexWriter(new SimpleFSDirectory(luceneIndexDir), getAnalyzer(), false, IndexWriter.MaxFieldLength.UNLIMITED);
+			writer.setRAMBufferSizeMB(ramBufferSizeMB);
+			LogByteSizeMergePolicy mergePolicy = new LogByteSizeMergePolicy(writer);
+			mergePolicy.setMergeFactor(mergeFactor);
+			writer.setMergePolicy(mergePolicy);
+			// Merge segments in background threads as they accumulate, rather than optimizing the whole index
+			writer.setMergeScheduler(new ConcurrentMergeScheduler());
+			_indexWriter = writer;
+		}
+		return _indexWriter;
+	}
+
+
+	/**
+	 *  Commits any pending updates to disk. Should be called only within a synchronized (_updateLock) block.
+	 *
+	 * @exception  IOException  If error
+	 */
+	private void doCommit() throws IOException {
+		if (_indexWriter != null && hasUncommittedChanges) {
+			_indexWriter.commit();
+			numCommits++;
+		}
+		hasUncommittedChanges = false;
+		lastCommitTime = System.currentTimeMillis();
+	}
+
+
+	/**
+	 *  Closes the shared IndexWriter, if open, which waits for any background merges to finish. Should be
+	 *  called only within a synchronized (_updateLock) block.
+	 *
+	 * @param  commitChanges  True to commit pending updates, false to discard them
+	 */
+	private void closeIndexWriter(boolean commitChanges) {
+		if (_indexWriter == null)
+			return;
+		try {
+			if (commitChanges) {
+				_indexWriter.close();
+				if (hasUncommittedChanges)
+					numCommits++;
+			}
+			else
+				_indexWriter.rollback();
+		} catch (Throwable t) {
+			prtlnErr("Error closing writer: " + t);
+		}
+		_indexWriter = null;
+		hasUncommittedChanges = false;
+		lastCommitTime = System.currentTimeMillis();
+	}
+
+
+	/**
+	 *  Commits any pending updates to disk. Updates are visible to searches as soon as they are made, but are
+	 *  not guaranteed to survive a crash until they have been committed.
+	 *
+	 * @see    #setCommitInterval(long)
+	 */
+	public void commit() {
+		synchronized (_updateLock) {
+			try {
+				doCommit();
+			} catch (Throwable t) {
+				prtlnErr("Unable to commit updates: " + t);
+			}
+		}
+	}
+
+
+	/**
+	 *  Sets the maximum number of milliseconds that updates are held before they are committed to disk. Zero
+	 *  (the default) commits after every update. Longer intervals make frequent small updates faster, but
+	 *  updates made within the interval may be lost if the JVM stops without closing the index.
+	 *
+	 * @param  commitInterval  The commit interval in milliseconds
+	 */
+	public void setCommitInterval(long commitInterval) {
+		synchronized (_updateLock) {
+			this.commitInterval = commitInterval;
+			if (commitInterval > 0 && commitMonitorThread == null) {
+				commitMonitorThread = new CommitMonitorThread();
+				commitMonitorThread.start();
+			}
+		}
+	}
+
+
+	/**
+	 *  Gets the maximum number of milliseconds that updates are held before they are committed to disk.
+	 *
+	 * @return    The commit interval in milliseconds
+	 */
+	public long getCommitInterval() {
+		return commitInterval;
+	}
+
+
+	/**
+	 *  Sets the amount of RAM used to buffer added documents before they are flushed to a new segment. Larger
+	 *  buffers index faster and create fewer segments. Default is {@link #DEFAULT_RAM_BUFFER_SIZE_MB}.
+	 *
+	 * @param  ramBufferSizeMB  The buffer size in MB
+	 */
+	public void setRamBufferSizeMB(double ramBufferSizeMB) {
+		synchronized (_updateLock) {
+			this.ramBufferSizeMB = ramBufferSizeMB;
+			if (_indexWriter != null)
+				_indexWriter.setRAMBufferSizeMB(ramBufferSizeMB);
+		}
+	}
+
+
+	/**
+	 *  Gets the amount of RAM used to buffer added documents before they are flushed to a new segment.
+	 *
+	 * @return    The buffer size in MB
+	 */
+	public double getRamBufferSizeMB() {
+		return ramBufferSizeMB;
+	}
+
+
+	/**
+	 *  Sets the number of segments of about the same size that are merged together in the background. Smaller
+	 *  values keep fewer segments, which searches faster, at the cost of more merging while indexing. Default
+	 *  is {@link #DEFAULT_MERGE_FACTOR}.
+	 *
+	 * @param  mergeFactor  The merge factor, 2 or more
+	 */
+	public void setMergeFactor(int mergeFactor) {
+		synchronized (_updateLock) {
+			this.mergeFactor = mergeFactor;
+			if (_indexWriter != null)
+				((LogMergePolicy) _indexWriter.getMergePolicy()).setMergeFactor(mergeFactor);
+		}
+	}
+
+
+	/**
+	 *  Gets the number of segments of about the same size that are merged together in the background.
+	 *
+	 * @return    The merge factor
+	 */
+	public int getMergeFactor() {
+		return mergeFactor;
+	}
+
+
+	/**
+	 *  Gets the number of segments in the current view of the index.
+	 *
+	 * @return    The number of segments
+	 */
+	public int getNumSegments() {
+		IndexSearcher searcher = _searcherManager.acquire();
+		if (searcher == null)
+			return 0;
+		try {
+			IndexReader[] subReaders = searcher.getIndexReader().getSequentialSubReaders();
+			return (subReaders == null ? 1 : subReaders.length);
+		} finally {
+			_searcherManager.release(searcher);
+		}
+	}
+
+
+	/**
+	 *  Gets the number of times updates have been committed to disk since this index was opened.
+	 *
+	 * @return    The number of commits
+	 */
+	public long getNumCommits() {
+		return numCommits;
+	}
+
+
+	/**
+	 *  Gets the time updates were last committed to disk, or the time this index was opened if none have been.
+	 *
+	 * @return    The last commit time
+	 */
+	public Date getLastCommitTime() {
+		return new Date(lastCommitTime);
+	}
+
+
+	/**
+	 *  Indicates whether there are updates that are visible to searches but have not yet been committed to disk.
+	 *
+	 * @return    True if there are uncommitted updates
+	 */
+	public boolean hasUncommittedChanges() {
+		return hasUncommittedChanges;
+	}
+
+
 	/**  Deletes the index and re-initializes a new, empty one in its place. */
 	public void deleteAndReinititlize() {
 		stopIndexing();
 		synchronized (_updateLock) {
 			try {
 				cachedLastModifiedCount = getLastModifiedCount() + 1;
-				synchronized (_readerSearcherUpdateLock) {
-					if (_myReader != null)
-						_myReader.close();
-					if (_mySearcher != null)
-						_mySearcher.close();
-				}
+				closeIndexWriter(false);
+				_searcherManager.swap(null);
+				docSetCache.clear();
 
 				Files.deleteDirectory(indexDir);
 			} catch (Throwable e) {
@@ -655,6 +902,8 @@ public final class SimpleLuceneIndex {
 		if (query == null)
 			return new ResultDocList();
 
+		// A reference to the searched reader that is handed to the results
+		IndexReader heldReader = null;
 		try {
 
 			// If an Analyzer is supplied, use only it. If no
@@ -708,31 +957,37 @@ public final class SimpleLuceneIndex {
 
 			TopDocs topDocs = null;
 
-			// Peform the search over the current read index
+			// Peform the search over a snapshot of the current read index. The snapshot stays open until it is
+			// released, so searches run concurrently with each other and with index updates.
+			IndexSearcher searcher = _searcherManager.acquire();
+			IndexReader searchedReader = null;
 			try {
-				synchronized (_readerSearcherUpdateLock) {
-					if (_mySearcher != null) {
-						//prtln("Search qeury: " + luceneQueryObj + " sort: " + sort);
-						
-						if (sort == null)
-							topDocs = _mySearcher.search(luceneQueryObj, filter, MAX_NUM_HITS);
-						else {
-							try {
-								//prtln("Search with sort on '" + sort + "'");
-								topDocs = _mySearcher.search(luceneQueryObj, filter, MAX_NUM_HITS, sort);
-							} catch (ArrayIndexOutOfBoundsException ae) {
-								// If the sort field is tokenized it can throw this exception, so perform the search without sorting:
-								topDocs = _mySearcher.search(luceneQueryObj, filter, MAX_NUM_HITS);
-								prtlnErr("Requested sort field '" + sort + "' appears to be invalid. Sort fields must contain a single token only (e.g. should not be analyzed). Sort criteria was ignored...");
-							}
+				if (searcher != null) {
+					searchedReader = searcher.getIndexReader();
+					//prtln("Search qeury: " + luceneQueryObj + " sort: " + sort);
+					
+					if (sort == null)
+						topDocs = searcher.search(luceneQueryObj, filter, MAX_NUM_HITS);
+					else {
+						try {
+							//prtln("Search with sort on '" + sort + "'");
+							topDocs = searcher.search(luceneQueryObj, filter, MAX_NUM_HITS, sort);
+						} catch (ArrayIndexOutOfBoundsException ae) {
+							// If the sort field is tokenized it can throw this exception, so perform the search without sorting:
+							topDocs = searcher.search(luceneQueryObj, filter, MAX_NUM_HITS);
+							prtlnErr("Requested sort field '" + sort + "' appears to be invalid. Sort fields must contain a single token only (e.g. should not be analyzed). Sort criteria was ignored...");
 						}
 					}
+					searchedReader.incRef();
+					heldReader = searchedReader;
 				}
 			} catch (Throwable e) {
 				if (!(e instanceof ParseException) && numTries < MAX_TRIES)
 					return doSearchDocs(query, defaultField, filter, sort, analyzer, docReaderAttributes, ++numTries);
 				prtlnErr("doSearchDocs() caught exception after " + numTries + " tries for query ' " + luceneQueryObj + "' msg: " + e);
 				e.printStackTrace();
+			} finally {
+				_searcherManager.release(searcher);
 			}
 
 			// If there were no matches, try searching using a KeywordFieldAnalyzer
@@ -747,20 +1002,27 @@ public final class SimpleLuceneIndex {
 				qp.parse((String) query);
 
 				// Peform the search over the current read index
+				searcher = _searcherManager.acquire();
 				try {
-					synchronized (_readerSearcherUpdateLock) {
-						if (_mySearcher != null)
-							topDocs = _mySearcher.search(luceneQueryObj, filter, MAX_NUM_HITS);
+					if (searcher != null) {
+						releaseHeldReader(heldReader);
+						heldReader = null;
+						searchedReader = searcher.getIndexReader();
+						topDocs = searcher.search(luceneQueryObj, filter, MAX_NUM_HITS);
+						searchedReader.incRef();
+						heldReader = searchedReader;
 					}
 				} catch (Throwable e) {
 					if (!(e instanceof ParseException) && numTries < MAX_TRIES)
 						return doSearchDocs(query, defaultField, filter, sort, analyzer, docReaderAttributes, ++numTries);
 					//prtlnErr("doSearchDocs() 2 caught exception after " + numTries + " tries: " + e);
 					//e.printStackTrace();
+				} finally {
+					_searcherManager.release(searcher);
 				}
 			}
 
-			ResultDocConfig resultDocConfig = new ResultDocConfig(queryString, luceneQueryObj, filter, docReaderAttributes, this);
+			ResultDocConfig resultDocConfig = new ResultDocConfig(queryString, luceneQueryObj, filter, docReaderAttributes, this, searchedReader);
 
 			//System.out.println(". Num results: " + collector.results().length + "\n");
 			if (topDocs == null) {
@@ -768,7 +1030,8 @@ public final class SimpleLuceneIndex {
 				return new ResultDocList();
 			}
 			else {
-				ResultDocList resultDocList = new ResultDocList(topDocs, resultDocConfig);
+				ResultDocList resultDocList = new ResultDocList(topDocs, resultDocConfig, heldReader != null);
+				heldReader = null;
 				//prtln("doSearchDocs() returning empty ResultDocList.size(): " + resultDocList.size());
 				return resultDocList;
 			}
@@ -780,12 +1043,25 @@ public final class SimpleLuceneIndex {
 				return doSearchDocs(query, defaultField, filter, sort, analyzer, docReaderAttributes, ++numTries);
 			prtlnErr("doSearchDocs() 3 caught exception after " + numTries + " tries: " + e);
 			e.printStackTrace();
+		} finally {
+			releaseHeldReader(heldReader);
 		}
 
 		return new ResultDocList();
 	}
 
 
+	private void releaseHeldReader(IndexReader reader) {
+		if (reader == null)
+			return;
+		try {
+			reader.decRef();
+		} catch (IOException e) {
+			prtlnErr("Error releasing IndexReader: " + e);
+		}
+	}
+
+
 	/**
 	 *  Searches the index and returns a ResultDocCollection that is backed by Lucene {@link
 	 *  org.apache.lucene.search.Hits}.
@@ -978,44 +1254,202 @@ public final class SimpleLuceneIndex {
 
 
 	/**
-	 *  Gets the IndexReader.
+	 *  Gets the current IndexReader. Note that the reader may be closed by a subsequent index update, so
+	 *  callers that read from the index over any length of time should use {@link #acquireSearcher()} and
+	 *  {@link #releaseSearcher(IndexSearcher)} instead.
 	 *
 	 * @return    The reader value
 	 */
 	public IndexReader getReader() {
-		synchronized (_readerSearcherUpdateLock) {
-			return _myReader;
-		}
+		return _searcherManager.getCurrentReader();
+	}
+
+
+	/**
+	 *  Acquires a snapshot of the current IndexSearcher that remains open and unchanged until it is released,
+	 *  even if the index is updated in the mean time. Every call that returns non-null must be paired with a
+	 *  call to {@link #releaseSearcher(IndexSearcher)}, typically in a finally block.
+	 *
+	 * @return    The IndexSearcher, or null if the index is not available
+	 * @see       IndexSearcherManager
+	 */
+	public IndexSearcher acquireSearcher() {
+		return _searcherManager.acquire();
 	}
 
 
 	/**
-	 *  Gets the number of documents that match the given query.
+	 *  Releases an IndexSearcher that was obtained from {@link #acquireSearcher()}.
+	 *
+	 * @param  searcher  The IndexSearcher to release, may be null
+	 */
+	public void releaseSearcher(IndexSearcher searcher) {
+		_searcherManager.release(searcher);
+	}
+
+
+	/**
+	 *  Gets the generation of the current IndexReader, which is incremented each time a new reader is loaded
+	 *  after an index update. Useful for invalidating caches that depend on Lucene document numbers.
+	 *
+	 * @return    The reader generation
+	 */
+	public long getReaderGeneration() {
+		return _searcherManager.getGeneration();
+	}
+
+
+	/**
+	 *  Gets the number of documents that match the given query. The matches are counted without scoring or
+	 *  loading the results.
 	 *
 	 * @param  query  The query to perform over the index.
 	 * @return        The number of matching documents.
 	 */
 	public int getNumDocs(String query) {
-		List docs = searchDocs(query);
-		if (docs == null)
-			return 0;
-		else
-			return docs.size();
+		try {
+			return getNumDocs(getQueryParser().parse(query));
+		} catch (Throwable e) {
+			// ParseException or empty index
+		}
+		return 0;
 	}
 
 
 	/**
-	 *  Gets the number of documents that match the given query.
+	 *  Gets the number of documents that match the given query. The matches are counted without scoring or
+	 *  loading the results.
 	 *
 	 * @param  query  The query to perform over the index.
 	 * @return        The number of matching documents.
 	 */
 	public int getNumDocs(Query query) {
-		List docs = searchDocs(query);
-		if (docs == null)
+		if (query == null)
 			return 0;
-		else
-			return docs.size();
+		IndexSearcher searcher = _searcherManager.acquire();
+		if (searcher == null)
+			return 0;
+		try {
+			return DocSetCache.countDocs(searcher, query);
+		} catch (Throwable e) {
+			prtlnErr("getNumDocs() error for query '" + query + "': " + e);
+		} finally {
+			_searcherManager.release(searcher);
+		}
+		return 0;
+	}
+
+
+	/**
+	 *  Gets the number of documents that match each of the given queries and also match the given constraint, in
+	 *  one pass over a single snapshot of the index. For example, the number of records in a collection that are
+	 *  deleted, that have errors and that are valid. The set of documents matching each query and the constraint
+	 *  is cached until the index is next updated, so repeated counts over the same clauses are answered by
+	 *  intersecting bit sets rather than searching. Queries are parsed as in {@link #searchDocs(String)}.
+	 *
+	 * @param  queries     The queries to count. A null entry counts the documents that match the constraint
+	 * @param  constraint  A query all counted documents must also match, or null for no constraint
+	 * @return             The number of matching documents for each query, in the same order
+	 * @see                #getDocSetCache()
+	 */
+	public int[] getNumDocs(String[] queries, String constraint) {
+		try {
+			QueryParser parser = getQueryParser();
+			Query[] parsed = new Query[queries.length];
+			for (int i = 0; i < queries.length; i++)
+				parsed[i] = (queries[i] == null ? null : parser.parse(queries[i]));
+			return getNumDocs(parsed, constraint == null ? null : parser.parse(constraint));
+		} catch (ParseException e) {
+			prtlnErr("getNumDocs() unable to parse query: " + e.getMessage());
+		}
+		return new int[queries.length];
+	}
+
+
+	/**
+	 *  Gets the number of documents that match each of the given queries and also match the given constraint, in
+	 *  one pass over a single snapshot of the index. See {@link #getNumDocs(String[],String)}.
+	 *
+	 * @param  queries     The queries to count. A null entry counts the documents that match the constraint
+	 * @param  constraint  A query all counted documents must also match, or null for no constraint
+	 * @return             The number of matching documents for each query, in the same order
+	 */
+	public int[] getNumDocs(Query[] queries, Query constraint) {
+		int[] counts = new int[queries.length];
+		IndexSearcher searcher = _searcherManager.acquire();
+		if (searcher == null)
+			return counts;
+		try {
+			OpenBitSet constraintSet = (constraint == null ? null : docSetCache.getDocSet(searcher, constraint));
+			for (int i = 0; i < queries.length; i++) {
+				if (queries[i] == null)
+					counts[i] = (constraintSet == null ? searcher.getIndexReader().numDocs() : (int) constraintSet.cardinality());
+				else if (constraintSet == null)
+					counts[i] = (int) docSetCache.getDocSet(searcher, queries[i]).cardinality();
+				else
+					counts[i] = (int) OpenBitSet.intersectionCount(docSetCache.getDocSet(searcher, queries[i]), constraintSet);
+			}
+		} catch (Throwable e) {
+			prtlnErr("getNumDocs() error: " + e);
+		} finally {
+			_searcherManager.release(searcher);
+		}
+		return counts;
+	}
+
+
+	/**
+	 *  Gets the number of documents that contain each of the given values in the given field and also match the
+	 *  given constraint. The values are matched as exact terms, without analysis. See {@link
+	 *  #getNumDocs(String[],String)}.
+	 *
+	 * @param  field       The field, for example 'collection'
+	 * @param  values      The terms to count in the field
+	 * @param  constraint  A query all counted documents must also match, or null for no constraint
+	 * @return             The number of matching documents for each value, in the same order
+	 */
+	public int[] getNumDocs(String field, String[] values, Query constraint) {
+		Query[] queries = new Query[values.length];
+		for (int i = 0; i < values.length; i++)
+			queries[i] = new TermQuery(new Term(field, values[i]));
+		return getNumDocs(queries, constraint);
+	}
+
+
+	/**
+	 *  Gets the cache of document sets used by {@link #getNumDocs(String[],String)}. The cached sets are
+	 *  discarded each time the index is updated.
+	 *
+	 * @return    The DocSetCache
+	 */
+	public DocSetCache getDocSetCache() {
+		return docSetCache;
+	}
+
+
+	/**
+	 *  Adds a listener that is notified each time a new IndexReader is swapped in after the index has been
+	 *  updated.
+	 *
+	 * @param  listener  The listener
+	 */
+	public void addReopenListener(IndexReopenListener listener) {
+		synchronized (reopenListeners) {
+			if (listener != null && !reopenListeners.contains(listener))
+				reopenListeners.add(listener);
+		}
+	}
+
+
+	/**
+	 *  Removes a listener that was added with {@link #addReopenListener(IndexReopenListener)}.
+	 *
+	 * @param  listener  The listener
+	 */
+	public void removeReopenListener(IndexReopenListener listener) {
+		synchronized (reopenListeners) {
+			reopenListeners.remove(listener);
+		}
 	}
 
 
@@ -1027,11 +1461,12 @@ public final class SimpleLuceneIndex {
 	public int getNumDocs() {
 		//prtln("numDocs()1");
 		int num = 0;
-		synchronized (_readerSearcherUpdateLock) {
-			if (_myReader != null) {
-				try {
-					num = _myReader.numDocs();
-				} catch (Throwable e) {}
+		IndexSearcher searcher = _searcherManager.acquire();
+		if (searcher != null) {
+			try {
+				num = searcher.getIndexReader().numDocs();
+			} catch (Throwable e) {} finally {
+				_searcherManager.release(searcher);
 			}
 		}
 		//prtln("numDocs()2");
@@ -1048,21 +1483,23 @@ public final class SimpleLuceneIndex {
 	public List listDocs() {
 		//prtln("listDocs() called");
 		ArrayList list = new ArrayList();
-		synchronized (_readerSearcherUpdateLock) {
-			if (_myReader != null) {
-				try {
-					int numdocs = _myReader.numDocs();
-					for (int i = 0; i < numdocs; i++) {
-						try {
-							list.add(_myReader.document(i));
-						} catch (Exception e) {}
-					}
-				} catch (Throwable e) {}
-			}
-			else {
-				prtlnErr("listDocs couldn't get reader...");
+		IndexSearcher searcher = _searcherManager.acquire();
+		if (searcher != null) {
+			try {
+				IndexReader reader = searcher.getIndexReader();
+				int numdocs = reader.numDocs();
+				for (int i = 0; i < numdocs; i++) {
+					try {
+						list.add(reader.document(i));
+					} catch (Exception e) {}
+				}
+			} catch (Throwable e) {} finally {
+				_searcherManager.release(searcher);
 			}
 		}
+		else {
+			prtlnErr("listDocs couldn't get reader...");
+		}
 
 		return list;
 	}
@@ -1133,17 +1570,19 @@ public final class SimpleLuceneIndex {
 	public void doWithDocument(Callback cal, String field, String term ) {
 
 		Document doc;
-		synchronized (_readerSearcherUpdateLock) {
-			if (_myReader != null) {
-				try {
-					TermDocs iterator = _myReader.termDocs(new Term(field, term));
-					while (iterator.next() && !abortUpdate ) {
-						doc = _myReader.document(iterator.doc());
-						cal.doWithDocument(doc);
-					}
-					iterator.close();
-					iterator = null;
-				} catch (Throwable e) {}
+		IndexSearcher searcher = _searcherManager.acquire();
+		if (searcher != null) {
+			try {
+				IndexReader reader = searcher.getIndexReader();
+				TermDocs iterator = reader.termDocs(new Term(field, term));
+				while (iterator.next() && !abortUpdate ) {
+					doc = reader.document(iterator.doc());
+					cal.doWithDocument(doc);
+				}
+				iterator.close();
+				iterator = null;
+			} catch (Throwable e) {} finally {
+				_searcherManager.release(searcher);
 			}
 		}
 
@@ -1162,17 +1601,19 @@ public final class SimpleLuceneIndex {
 
 		ArrayList list = new ArrayList();
 		Document doc;
-		synchronized (_readerSearcherUpdateLock) {
-			if (_myReader != null) {
-				try {
-					TermDocs iterator = _myReader.termDocs(new Term(field, term));
-					while (iterator.next()) {
-						doc = _myReader.document(iterator.doc());
-						list.add(doc);
-					}
-					iterator.close();
-					iterator = null;
-				} catch (Throwable e) {}
+		IndexSearcher searcher = _searcherManager.acquire();
+		if (searcher != null) {
+			try {
+				IndexReader reader = searcher.getIndexReader();
+				TermDocs iterator = reader.termDocs(new Term(field, term));
+				while (iterator.next()) {
+					doc = reader.document(iterator.doc());
+					list.add(doc);
+				}
+				iterator.close();
+				iterator = null;
+			} catch (Throwable e) {} finally {
+				_searcherManager.release(searcher);
 			}
 		}
 		//prtln("doListDocs() 2");
@@ -1191,15 +1632,16 @@ public final class SimpleLuceneIndex {
 		//prtln("listTerms()");
 
 		ArrayList list = null;
-		synchronized (_readerSearcherUpdateLock) {
-			if (_myReader != null) {
-				try {
-					list = new ArrayList();
-					TermEnum iterator = _myReader.terms();
-					while (iterator.next()) {
-						list.add(iterator.term());
-					}
-				} catch (Exception e) {}
+		IndexSearcher searcher = _searcherManager.acquire();
+		if (searcher != null) {
+			try {
+				list = new ArrayList();
+				TermEnum iterator = searcher.getIndexReader().terms();
+				while (iterator.next()) {
+					list.add(iterator.term());
+				}
+			} catch (Exception e) {} finally {
+				_searcherManager.release(searcher);
 			}
 		}
 		return list;
@@ -1217,27 +1659,28 @@ public final class SimpleLuceneIndex {
 		//prtln("getFields()");
 
 		ArrayList fields = null;
-		synchronized (_readerSearcherUpdateLock) {
-			if (_myReader != null) {
-				try {
-					fields = new ArrayList();
-					Map map = new HashMap();
-					TermEnum iterator = _myReader.terms();
-					while (iterator.next()) {
-						Term t = iterator.term();
-						Object obj = map.get(t.field());
-						if (obj == null) {
-							obj = new Object();
-
-							if (t.text() != null && t.text().trim().length() > 0) {
-								map.put(t.field(), obj);
-								fields.add(t.field());
-							}
+		IndexSearcher searcher = _searcherManager.acquire();
+		if (searcher != null) {
+			try {
+				fields = new ArrayList();
+				Map map = new HashMap();
+				TermEnum iterator = searcher.getIndexReader().terms();
+				while (iterator.next()) {
+					Term t = iterator.term();
+					Object obj = map.get(t.field());
+					if (obj == null) {
+						obj = new Object();
+
+						if (t.text() != null && t.text().trim().length() > 0) {
+							map.put(t.field(), obj);
+							fields.add(t.field());
 						}
 					}
-					map.clear();
-					map = null;
-				} catch (Throwable e) {}
+				}
+				map.clear();
+				map = null;
+			} catch (Throwable e) {} finally {
+				_searcherManager.release(searcher);
 			}
 		}
 
@@ -1257,21 +1700,22 @@ public final class SimpleLuceneIndex {
 
 
 		HashMap map = null;
-		synchronized (_readerSearcherUpdateLock) {
-			if (_myReader != null) {
-				try {
-					map = new HashMap();
-					TermEnum iterator = _myReader.terms();
-					while (iterator.next()) {
-						Term t = iterator.term();
-						List list = (List) map.get(t.field());
-						if (list == null) {
-							list = new ArrayList();
-							map.put(t.field(), list);
-						}
-						list.add(t.text());
+		IndexSearcher searcher = _searcherManager.acquire();
+		if (searcher != null) {
+			try {
+				map = new HashMap();
+				TermEnum iterator = searcher.getIndexReader().terms();
+				while (iterator.next()) {
+					Term t = iterator.term();
+					List list = (List) map.get(t.field());
+					if (list == null) {
+						list = new ArrayList();
+						map.put(t.field(), list);
 					}
-				} catch (Throwable e) {}
+					list.add(t.text());
+				}
+			} catch (Throwable e) {} finally {
+				_searcherManager.release(searcher);
 			}
 		}
 
@@ -1292,12 +1736,13 @@ public final class SimpleLuceneIndex {
 
 		ArrayList terms = null;
 		TermEnum iterator = null;
-		synchronized (_readerSearcherUpdateLock) {
-			if (_myReader != null) {
-				try {
-					iterator = _myReader.terms();
-				} catch (Throwable e) {}
-			}
+		IndexSearcher searcher = _searcherManager.acquire();
+		if (searcher == null)
+			return null;
+		try {
+			try {
+				iterator = searcher.getIndexReader().terms();
+			} catch (Throwable e) {}
 			if (iterator == null)
 				return null;
 
@@ -1309,6 +1754,8 @@ public final class SimpleLuceneIndex {
 						terms.add(t.text());
 				}
 			} catch (Throwable e) {}
+		} finally {
+			_searcherManager.release(searcher);
 		}
 
 		return terms;
@@ -1370,24 +1817,21 @@ public final class SimpleLuceneIndex {
 
 			map = new HashMap();
 			TermEnum iterator = null;
-			synchronized (_readerSearcherUpdateLock) {
-				if (_myReader != null) {
-					try {
-						iterator = _myReader.terms();
-					} catch (Throwable e) {}
-				}
+			IndexSearcher searcher = _searcherManager.acquire();
+			if (searcher == null)
+				return map;
+			try {
+				IndexReader reader = searcher.getIndexReader();
+				iterator = reader.terms();
 				while (iterator.next()) {
 					Term t = iterator.term();
 					TermDocs td = null;
 					if (fMap == null || fMap.containsKey(t.field())) {
-						if (_myReader != null) {
-							try {
-								td = _myReader.termDocs(t);
-							} catch (Throwable e) {}
-						}
+						td = reader.termDocs(t);
 						int total = 0;
 						while (td.next())
 							total += td.freq();
+						td.close();
 
 						Integer i = (Integer) map.get(t.text());
 						if (i == null) {
@@ -1398,6 +1842,8 @@ public final class SimpleLuceneIndex {
 						}
 					}
 				}
+			} finally {
+				_searcherManager.release(searcher);
 			}
 		} catch (Exception e) {}
 		return map;
@@ -1453,27 +1899,24 @@ public final class SimpleLuceneIndex {
 			// Iterate over the term docs and keep counts.
 			map = new TreeMap();
 			TermEnum iterator = null;
-			synchronized (_readerSearcherUpdateLock) {
-				if (_myReader != null) {
-					try {
-						iterator = _myReader.terms();
-					} catch (Throwable e) {}
-				}
+			IndexSearcher searcher = _searcherManager.acquire();
+			if (searcher == null)
+				return map;
+			try {
+				IndexReader reader = searcher.getIndexReader();
+				iterator = reader.terms();
 				TermDocs td = null;
 				while (iterator.next()) {
 					Term t = iterator.term();
 					if (fMap == null || fMap.containsKey(t.field())) {
-						if (_myReader != null) {
-							try {
-								td = _myReader.termDocs(t);
-							} catch (Throwable e) {}
-						}
+						td = reader.termDocs(t);
 						int total_terms = 0;
 						int total_docs = 0;
 						while (td.next()) {
 							total_terms += td.freq();
 							total_docs++;
 						}
+						td.close();
 
 						TermDocCount termDocCount = (TermDocCount) map.get(t.text());
 
@@ -1499,6 +1942,8 @@ public final class SimpleLuceneIndex {
 							map.put(t.text(), termDocCount);
 					}
 				}
+			} finally {
+				_searcherManager.release(searcher);
 			}
 		} catch (Exception e) {}
 		return map;
@@ -1532,14 +1977,15 @@ public final class SimpleLuceneIndex {
 		int freq = -1;
 		List fields = getFields();
 		if (fields != null) {
-			synchronized (_readerSearcherUpdateLock) {
-				if (_myReader != null) {
-					try {
-						freq = 0;
-						for (int i = 0; i < fields.size(); i++) {
-							freq += _myReader.docFreq(new Term((String) fields.get(i), term));
-						}
-					} catch (Exception e) {}
+			IndexSearcher searcher = _searcherManager.acquire();
+			if (searcher != null) {
+				try {
+					freq = 0;
+					for (int i = 0; i < fields.size(); i++) {
+						freq += searcher.getIndexReader().docFreq(new Term((String) fields.get(i), term));
+					}
+				} catch (Exception e) {} finally {
+					_searcherManager.release(searcher);
 				}
 			}
 		}
@@ -1558,11 +2004,12 @@ public final class SimpleLuceneIndex {
 		//prtln("getTermFrequency()");
 
 		int freq = -1;
-		synchronized (_readerSearcherUpdateLock) {
-			if (_myReader != null) {
-				try {
-					freq = _myReader.docFreq(new Term(field, term));
-				} catch (Throwable e) {}
+		IndexSearcher searcher = _searcherManager.acquire();
+		if (searcher != null) {
+			try {
+				freq = searcher.getIndexReader().docFreq(new Term(field, term));
+			} catch (Throwable e) {} finally {
+				_searcherManager.release(searcher);
 			}
 		}
 		return freq;
@@ -1816,11 +2263,14 @@ public final class SimpleLuceneIndex {
 		//prtln("getLastModifiedCount()");
 
 		long lastMod = cachedLastModifiedCount;
-		synchronized (_readerSearcherUpdateLock) {
-			if (_myReader != null) {
-				try {
-					lastMod = _myReader.getCurrentVersion(FSDirectory.open(luceneIndexDir)) + cachedLastModifiedCount;
-				} catch (Throwable e) {}
+		// The reader version only changes on commit, so add the number of updates made to count those that are not yet committed
+		IndexSearcher searcher = _searcherManager.acquire();
+		if (searcher != null) {
+			try {
+				lastMod = searcher.getIndexReader().getVersion() + numUpdates + cachedLastModifiedCount;
+			} catch (Throwable e) {
+			} finally {
+				_searcherManager.release(searcher);
 			}
 		}
 		return lastMod;
@@ -1837,20 +2287,70 @@ public final class SimpleLuceneIndex {
 		//prtln("getDocument()");
 
 		Document doc = null;
-		synchronized (_readerSearcherUpdateLock) {
-			if (_myReader != null) {
-				try {
-					doc = _myReader.document(n);
-				} catch (Throwable e) {
-					prtlnErr("Error retrieving document " + n + ": " + e);
-					//e.printStackTrace();
-				}
+		IndexSearcher searcher = _searcherManager.acquire();
+		if (searcher != null) {
+			try {
+				doc = searcher.getIndexReader().document(n);
+			} catch (Throwable e) {
+				prtlnErr("Error retrieving document " + n + ": " + e);
+				//e.printStackTrace();
+			} finally {
+				_searcherManager.release(searcher);
 			}
 		}
 		return doc;
 	}
 
 
+	/**
+	 *  Gets the nth document from the given IndexReader snapshot, for example the reader that a search was
+	 *  performed over, so that document numbers from the search remain valid.
+	 *
+	 * @param  snapshot                   The IndexReader the document number refers to, or null to use the
+	 *      current reader
+	 * @param  n                          The document number
+	 * @return                            The document value, or null if it could not be read
+	 * @exception  IllegalStateException  If the snapshot has been closed
+	 */
+	Document getDocument(IndexReader snapshot, int n) {
+		return getDocument(snapshot, n, null);
+	}
+
+
+	/**
+	 *  Gets the nth document from the given IndexReader snapshot, reading the stored fields chosen by the given
+	 *  FieldSelector. Fields the selector loads lazily are read from the snapshot when first accessed. If the
+	 *  snapshot has since been closed an IllegalStateException is thrown, since the document number may refer
+	 *  to a different document in the current reader and the caller should run its search again.
+	 *
+	 * @param  snapshot                   The IndexReader the document number refers to, or null to use the
+	 *      current reader
+	 * @param  n                          The document number
+	 * @param  selector                   The FieldSelector, or null to read all fields
+	 * @return                            The document value, or null if it could not be read
+	 * @exception  IllegalStateException  If the snapshot has been closed
+	 * @see                               ResultDocList#acquireReader()
+	 */
+	Document getDocument(IndexReader snapshot, int n, FieldSelector selector) {
+		if (snapshot == null)
+			return getDocument(n);
+		if (IndexSearcherManager.tryIncRef(snapshot)) {
+			try {
+				return snapshot.document(n, selector);
+			} catch (Throwable e) {
+				prtlnErr("Error retrieving document " + n + ": " + e);
+				return null;
+			} finally {
+				try {
+					snapshot.decRef();
+				} catch (IOException e) {}
+			}
+		}
+		throw new IllegalStateException("Unable to retrieve document " + n +
+			": the IndexReader it was found in has been released and closed");
+	}
+
+
 	/**
 	 *  Indicates whether the index is currently being updated or modified. This means documents are in the
 	 *  process of being added or removed from the index.
@@ -1877,18 +2377,9 @@ public final class SimpleLuceneIndex {
 				Thread.yield();
 			abortUpdate = false;
 		}
-		
-		if (optimizeMonitorThread != null) // stop the monitoring thread to avoid zombies
-			optimizeMonitorThread.stopMonitoring();
-		
 	}
 
 
-	private long optimize_count = 0;
-	private long last_update_time = System.currentTimeMillis();
-	private boolean is_optimized = true;
-
-
 	/**
 	 *  Updates the index by deleting and then adding Documents.
 	 *
@@ -1906,151 +2397,61 @@ public final class SimpleLuceneIndex {
 
 		// Wait for other indexing updates to complete before continuing...
 		synchronized (_updateLock) {
-			IndexWriter tmpWriter = null;
-			//boolean changed = false;
 			try {
 				//prtln("Beginning doUpdateIndex(). Num docs: " + getNumDocs());
 
-				tmpWriter = new IndexWriter(FSDirectory.open(luceneIndexDir), getAnalyzer(), false, IndexWriter.MaxFieldLength.UNLIMITED);
+				IndexWriter writer = getIndexWriter();
 				isIndexing = true;
 
-				/* if (deleteValues != null && deleteValues.length > 0)
-					prtln("processing deleteField: " + deleteField + " deleteValues[0]: " + deleteValues[0]);
-				else
-					prtln("processing deleteField: " + deleteField + " deleteValues[0]: " + deleteValues[0]); */
 				// ---- Handle deletions first ----
 				if (deleteField != null && deleteValues != null && deleteValues.length > 0) {
-					//IndexWriter tmpWriter = null;
-					/* try { */
-					//tmpWriter = new IndexWriter(luceneIndexDir, getAnalyzer(), false);
-					//int count = 0;
 					for (int i = 0; i < deleteValues.length && !abortUpdate; i++) {
 						if (deleteValues[i] != null) {
 							try {
-								tmpWriter.deleteDocuments(new Term(deleteField, deleteValues[i]));
-								//changed = true;
-								//prtln("Deleting " + deleteField + ":" + deleteValues[i] + " had " + count + " deletions");
+								writer.deleteDocuments(new Term(deleteField, deleteValues[i]));
+								hasUncommittedChanges = true;
 							} catch (IOException ioe) {
 								prtlnErr("Problem deleting a document: " + ioe);
 							}
 						}
 					}
-					/* if (count > 0) {
-							changed = true;
-						} */
-					//tmpWriter.close();
-					//tmpWriter = null;
-
-					//prtln("\tdeleted " + count + " documents.");
-
-					/* } catch (IOException ioe) {
-						// this means we had trouble opening a reader on the writeDirectory?!
-						prtlnErr("doUpdateIndex() deletion exception: " + ioe);
-						try {
-							if (tmpWriter != null) {
-								tmpWriter.close();
-								tmpWriter = null;
-							}
-						} catch (Throwable t) {
-							prtlnErr("doUpdateIndex() error closing writer: " + t);
-						}
-						loadNewReaderAndSearcher();
-						isIndexing = false;
-						return false;
-					} */
-				}
-				else {
-					//prtln("\tno docs to remove");
 				}
 
 				// ---- Add in the new and/or replacement docs ----
-
-				//IndexWriter tmpWriter = null;
-				try {
-
-					if (addDocs != null && addDocs.length > 0) {
-						//tmpWriter = new IndexWriter(luceneIndexDir, getAnalyzer(), false);
-						int count = 0;
-						for (int i = 0; i < addDocs.length && !abortUpdate; i++) {
-
-							if (addDocs[i] != null) {
-								try {
-									tmpWriter.addDocument(addDocs[i]);
-									count++;
-									optimize_count++;
-								} catch (Throwable t) {
-									// if one add fails for some reason,
-									// we don't want to abort the rest...
-									prtlnErr("Problem writing a document: " + t);
-									if (t instanceof java.lang.NullPointerException)
-										t.printStackTrace();
-								}
+				if (addDocs != null && addDocs.length > 0) {
+					for (int i = 0; i < addDocs.length && !abortUpdate; i++) {
+						if (addDocs[i] != null) {
+							try {
+								writer.addDocument(addDocs[i]);
+								hasUncommittedChanges = true;
+							} catch (Throwable t) {
+								// if one add fails for some reason,
+								// we don't want to abort the rest...
+								prtlnErr("Problem writing a document: " + t);
+								if (t instanceof java.lang.NullPointerException)
+									t.printStackTrace();
 							}
 						}
-						/* if (count > 0) {
-							changed = true;
-						} */
-						//prtln("doUpdateIndex() added " + count + " documents.");
-
-					}
-					else {
-						// prtln("no docs to write");
-					}
-
-					//if (changed) {
-					last_update_time = System.currentTimeMillis();
-					is_optimized = false;
-					if (NUM_RECORDS_FOR_OPTIMIZER > 0 && optimize_count >= NUM_RECORDS_FOR_OPTIMIZER) {
-						//prtln("Optimizer starting.");
-						tmpWriter.optimize();
-						optimize_count = 0;
-						//prtln("Optimizer finished.");
-						is_optimized = true;
-					}
-					//}
-
-					/* if (tmpWriter != null) {
-						tmpWriter.close();
-						tmpWriter = null;
-					} */
-				} catch (IOException ioe) {
-					// this means we had trouble opening a writer on the writeDirectory?!
-					prtlnErr("doUpdateIndex() write document exception: " + ioe);
-					try {
-						if (tmpWriter != null) {
-							tmpWriter.close();
-							tmpWriter = null;
-						}
-					} catch (Throwable t) {
-						prtlnErr("doUpdateIndex() error closing writer: " + t);
 					}
-					isIndexing = false;
-					loadNewReaderAndSearcher();
-					return false;
 				}
 
-				// finsihed processing index updates...
+				if (hasUncommittedChanges)
+					numUpdates++;
 
-				//System.gc();
-				//System.runFinalization();
+				// Commit now unless updates are being held for the commit interval
+				if (commitInterval <= 0 || System.currentTimeMillis() - lastCommitTime >= commitInterval)
+					doCommit();
 
 				complete = true;
-
 			} catch (Throwable e) {
 				prtlnErr("doUpdateIndex(): " + e);
 				e.printStackTrace();
+				// The writer may be unusable (for example after an OutOfMemoryError) - close it so a new one is opened next time
+				closeIndexWriter(true);
 			} finally {
 				isIndexing = false;
-				try {
-					if (tmpWriter != null) {
-						tmpWriter.close();
-						tmpWriter = null;
-					}
-					// Load new reader and searcher so changes will be seen:
-					loadNewReaderAndSearcher();
-				} catch (Throwable t) {
-					prtlnErr("doUpdateIndex() error closing writer: " + t);
-				}
+				// Load new reader and searcher so changes will be seen:
+				loadNewReaderAndSearcher();
 				//prtln("Finished doUpdateIndex(). Num docs: " + getNumDocs());
 			}
 		}
@@ -2060,23 +2461,17 @@ public final class SimpleLuceneIndex {
 
 
 	/**
-	 *  Monitors the index and performs delayed optimization if enough time has elapsed since the last write
-	 *  operation.
+	 *  Commits updates to disk once the commit interval has elapsed, if they have not already been committed by
+	 *  a later update.
 	 *
-	 * @author    jweather
+	 * @see    #setCommitInterval(long)
 	 */
-	private class OptimizeMonitorThread extends Thread {
-		//private Object syncObj = null;
+	private class CommitMonitorThread extends Thread {
 		private boolean isRunning = true;
 
 
-		/**
-		 *  Constructor for the OptimizeMonitorThread object
-		 *
-		 * @param  syncObj  The object used to synchronize indexing write operations
-		 */
-		public OptimizeMonitorThread(Object syncObj) {
-			//this.syncObj = syncObj;
+		/**  Constructor for the CommitMonitorThread object */
+		public CommitMonitorThread() {
 			setDaemon(true);
 		}
 
@@ -2088,45 +2483,19 @@ public final class SimpleLuceneIndex {
 		}
 
 
-		/**  Main processing method for the OptimizeMonitorThread object */
+		/**  Main processing method for the CommitMonitorThread object */
 		public void run() {
 			while (isRunning) {
 				try {
-					sleep(OPTIMIZE_DELAY_TIME);
-					//prtln("Optimizer thread: checking if need to optimize...");
-					if (!is_optimized) {
-						// if enough time has passed, optimize...
-						if ((System.currentTimeMillis() - last_update_time) > OPTIMIZE_DELAY_TIME) {
-							synchronized (_updateLock) {
-								if (isRunning) {
-									IndexWriter tmpWriter = null;
-									try {
-										tmpWriter = new IndexWriter(FSDirectory.open(luceneIndexDir), getAnalyzer(), false, IndexWriter.MaxFieldLength.UNLIMITED);
-										tmpWriter.optimize();
-										tmpWriter.close();
-										tmpWriter = null;
-										last_update_time = System.currentTimeMillis();
-										is_optimized = true;
-										loadNewReaderAndSearcher();
-									} catch (Throwable t) {
-										prtlnErr("Optimizer thread: Unable to optimize index: " + t);
-										try {
-											if (tmpWriter != null) {
-												tmpWriter.close();
-												tmpWriter = null;
-											}
-										} catch (Throwable t2) {
-											prtlnErr("Optimizer thread: Error closing writer: " + t2);
-										}
-										last_update_time = System.currentTimeMillis();
-									}
-								}
-							}
-						}
+					sleep(Math.max(commitInterval, 1000));
+					synchronized (_updateLock) {
+						if (isRunning && hasUncommittedChanges && (System.currentTimeMillis() - lastCommitTime) >= commitInterval)
+							doCommit();
 					}
-				} catch (Throwable t3) {
-					if (!isRunning) // we interrupt if we are stopping te thread, do not show error message then 
-					prtlnErr("Optimizer thread: Indexing excetpion: " + t3);
+				} catch (Throwable t) {
+					if (!isRunning) // we interrupt if we are stopping the thread, do not show error message then
+						break;
+					prtlnErr("Commit thread: Unable to commit updates: " + t);
 				}
 			}
 		}
@@ -2144,21 +2513,18 @@ public final class SimpleLuceneIndex {
 
 
 
-	/**  Closes the writers and performs clean-up */
+	/**  Commits any pending updates, closes the writer and readers and performs clean-up */
 	public void close() {
 		try {
 			stopIndexing();
-			synchronized (_readerSearcherUpdateLock) {
-				if (_myReader != null)
-					_myReader.close();
-				if (_mySearcher != null)
-					_mySearcher.close();
-				if (optimizeMonitorThread != null)
-					optimizeMonitorThread.stopMonitoring();
-				_myReader = null;
-				_mySearcher = null;
+			synchronized (_updateLock) {
+				if (commitMonitorThread != null)
+					commitMonitorThread.stopMonitoring();
+				commitMonitorThread = null;
+				closeIndexWriter(true);
 			}
-			optimizeMonitorThread = null;
+			_searcherManager.swap(null);
+			docSetCache.clear();
 		} catch (Exception e) {}
 	}
 
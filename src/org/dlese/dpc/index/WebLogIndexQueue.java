@@ -0,0 +1,389 @@
+/*
+	Copyright 2017 Digital Learning Sciences (DLS) at the
+	University Corporation for Atmospheric Research (UCAR),
+	P.O. Box 3000, Boulder, CO 80307
+
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+
+	http://www.apache.org/licenses/LICENSE-2.0
+
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+package org.dlese.dpc.index;
+
+import java.util.*;
+import java.text.SimpleDateFormat;
+
+import org.apache.lucene.document.Document;
+
+/**
+ *  Queues web log entries and adds them to a web log {@link SimpleLuceneIndex} in batches from a background
+ *  thread so that request threads never wait on an index update. A batch is written when the configured
+ *  number of entries is waiting or when the oldest waiting entry has been queued for the configured flush
+ *  interval, whichever comes first. <p>
+ *
+ *  The queue is bounded. If entries arrive faster than they can be indexed and the queue is full, new entries
+ *  are dropped and counted rather than blocking the request. Call {@link #close()} on shutdown to write any
+ *  entries still waiting in the queue.
+ *
+ * @author    John Weatherley
+ * @see       org.dlese.dpc.index.writer.WebLogWriter
+ */
+public final class WebLogIndexQueue {
+	private static boolean debug = false;
+
+	/**  Default maximum number of entries waiting to be indexed. */
+	public final static int DEFAULT_MAX_QUEUE_SIZE = 10000;
+
+	/**  Default number of entries written to the index in one batch. */
+	public final static int DEFAULT_BATCH_SIZE = 100;
+
+	/**  Default maximum number of milliseconds an entry waits before it is written (5 seconds). */
+	public final static long DEFAULT_FLUSH_INTERVAL = 5000;
+
+	private final SimpleLuceneIndex webLogIndex;
+	private final LinkedList queue = new LinkedList();
+	private int maxQueueSize = DEFAULT_MAX_QUEUE_SIZE;
+	private int batchSize = DEFAULT_BATCH_SIZE;
+	private long flushInterval = DEFAULT_FLUSH_INTERVAL;
+
+	private long oldestQueuedTime = 0;
+	private boolean flushRequested = false;
+	private boolean closed = false;
+	private boolean writing = false;
+
+	private long numQueued = 0;
+	private long numIndexed = 0;
+	private long numDropped = 0;
+	private long numBatches = 0;
+
+	private WebLogIndexingThread indexingThread = null;
+
+
+	/**
+	 *  Constructor for the WebLogIndexQueue using the default queue size, batch size and flush interval.
+	 *
+	 * @param  webLogIndex  The index the log entries are written to
+	 */
+	public WebLogIndexQueue(SimpleLuceneIndex webLogIndex) {
+		this(webLogIndex, DEFAULT_MAX_QUEUE_SIZE, DEFAULT_BATCH_SIZE, DEFAULT_FLUSH_INTERVAL);
+	}
+
+
+	/**
+	 *  Constructor for the WebLogIndexQueue.
+	 *
+	 * @param  webLogIndex    The index the log entries are written to
+	 * @param  maxQueueSize   Maximum number of entries waiting to be indexed, after which new entries are dropped
+	 * @param  batchSize      Number of entries written to the index in one batch
+	 * @param  flushInterval  Maximum number of milliseconds an entry waits before it is written
+	 */
+	public WebLogIndexQueue(SimpleLuceneIndex webLogIndex, int maxQueueSize, int batchSize, long flushInterval) {
+		this.webLogIndex = webLogIndex;
+		this.maxQueueSize = Math.max(1, maxQueueSize);
+		this.batchSize = Math.max(1, batchSize);
+		this.flushInterval = Math.max(1, flushInterval);
+		indexingThread = new WebLogIndexingThread();
+		indexingThread.start();
+	}
+
+
+	/**
+	 *  Queues a log entry to be added to the index. Never blocks. If the queue is full or has been closed the
+	 *  entry is dropped.
+	 *
+	 * @param  doc  The web log Document, for example from {@link org.dlese.dpc.index.writer.WebLogWriter}
+	 * @return      True if the entry was queued, false if it was dropped
+	 */
+	public boolean add(Document doc) {
+		if (doc == null)
+			return false;
+		synchronized (queue) {
+			if (closed || queue.size() >= maxQueueSize) {
+				numDropped++;
+				if (!closed && (numDropped == 1 || numDropped % 1000 == 0))
+					prtlnErr("Web log queue is full. " + numDropped + " log entries have been dropped.");
+				return false;
+			}
+			if (queue.isEmpty())
+				oldestQueuedTime = System.currentTimeMillis();
+			queue.addLast(doc);
+			numQueued++;
+			if (queue.size() >= batchSize)
+				queue.notifyAll();
+			return true;
+		}
+	}
+
+
+	/**
+	 *  Writes all entries currently waiting in the queue to the index and waits for the write to complete.
+	 */
+	public void flush() {
+		synchronized (queue) {
+			if (indexingThread == null || !indexingThread.isAlive()) {
+				writeRemaining();
+				return;
+			}
+			flushRequested = true;
+			queue.notifyAll();
+			while ((!queue.isEmpty() || writing) && indexingThread.isAlive()) {
+				try {
+					queue.wait(1000);
+				} catch (InterruptedException e) {
+					return;
+				}
+			}
+		}
+	}
+
+
+	/**
+	 *  Stops accepting new entries, writes all entries still waiting in the queue to the index and stops the
+	 *  background thread. The web log index itself is not closed.
+	 */
+	public void close() {
+		synchronized (queue) {
+			if (closed)
+				return;
+			closed = true;
+			queue.notifyAll();
+		}
+		try {
+			indexingThread.join();
+		} catch (InterruptedException e) {}
+
+		// In case the thread exited abnormally:
+		synchronized (queue) {
+			writeRemaining();
+		}
+		prtln("Closed. Queued: " + numQueued + " indexed: " + numIndexed + " dropped: " + numDropped);
+	}
+
+
+	/**
+	 *  Gets the number of entries currently waiting to be indexed.
+	 *
+	 * @return    The queue size
+	 */
+	public int getQueueSize() {
+		synchronized (queue) {
+			return queue.size();
+		}
+	}
+
+
+	/**
+	 *  Gets the maximum number of entries that may be waiting to be indexed.
+	 *
+	 * @return    The maxQueueSize value
+	 */
+	public int getMaxQueueSize() {
+		return maxQueueSize;
+	}
+
+
+	/**
+	 *  Gets the number of entries written to the index in one batch.
+	 *
+	 * @return    The batchSize value
+	 */
+	public int getBatchSize() {
+		return batchSize;
+	}
+
+
+	/**
+	 *  Gets the maximum number of milliseconds an entry waits before it is written.
+	 *
+	 * @return    The flushInterval value
+	 */
+	public long getFlushInterval() {
+		return flushInterval;
+	}
+
+
+	/**
+	 *  Gets the total number of entries that have been queued.
+	 *
+	 * @return    The numQueued value
+	 */
+	public long getNumQueued() {
+		synchronized (queue) {
+			return numQueued;
+		}
+	}
+
+
+	/**
+	 *  Gets the total number of entries that have been written to the index.
+	 *
+	 * @return    The numIndexed value
+	 */
+	public long getNumIndexed() {
+		synchronized (queue) {
+			return numIndexed;
+		}
+	}
+
+
+	/**
+	 *  Gets the total number of entries that were dropped because the queue was full.
+	 *
+	 * @return    The numDropped value
+	 */
+	public long getNumDropped() {
+		synchronized (queue) {
+			return numDropped;
+		}
+	}
+
+
+	/**
+	 *  Gets the number of batches that have been written to the index.
+	 *
+	 * @return    The numBatches value
+	 */
+	public long getNumBatches() {
+		synchronized (queue) {
+			return numBatches;
+		}
+	}
+
+
+	/**
+	 *  Writes all entries waiting in the queue to the index from the calling thread. Used only when the
+	 *  background thread is no longer running. Must be called while synchronized on the queue.
+	 */
+	private void writeRemaining() {
+		while (!queue.isEmpty()) {
+			int n = Math.min(batchSize, queue.size());
+			Document[] docs = new Document[n];
+			for (int i = 0; i < n; i++)
+				docs[i] = (Document) queue.removeFirst();
+			if (writeDocs(docs)) {
+				numIndexed += n;
+				numBatches++;
+			}
+		}
+		oldestQueuedTime = 0;
+	}
+
+
+	/**
+	 *  Writes the given entries to the index.
+	 *
+	 * @param  docs  The entries
+	 * @return       True if successful
+	 */
+	private boolean writeDocs(Document[] docs) {
+		try {
+			prtln("Writing " + docs.length + " web log entries to the index");
+			return webLogIndex.addDocs(docs);
+		} catch (Throwable t) {
+			prtlnErr("Error writing " + docs.length + " web log entries to the index: " + t);
+			return false;
+		}
+	}
+
+
+	/**  Writes queued entries to the index in the background. */
+	private class WebLogIndexingThread extends Thread {
+		/**  Constructor for the WebLogIndexingThread object */
+		public WebLogIndexingThread() {
+			super("WebLogIndexQueue indexer");
+			setDaemon(true);
+		}
+
+
+		/**  Main processing method for the WebLogIndexingThread object */
+		public void run() {
+			while (true) {
+				Document[] docs = null;
+				synchronized (queue) {
+					while (!closed && !flushRequested && queue.size() < batchSize) {
+						long wait = queue.isEmpty() ? 0 : flushInterval - (System.currentTimeMillis() - oldestQueuedTime);
+						if (!queue.isEmpty() && wait <= 0)
+							break;
+						try {
+							queue.wait(wait);
+						} catch (InterruptedException e) {}
+					}
+					if (queue.isEmpty()) {
+						flushRequested = false;
+						queue.notifyAll();
+						if (closed)
+							return;
+						continue;
+					}
+					int n = Math.min(batchSize, queue.size());
+					docs = new Document[n];
+					for (int i = 0; i < n; i++)
+						docs[i] = (Document) queue.removeFirst();
+					oldestQueuedTime = queue.isEmpty() ? 0 : System.currentTimeMillis();
+					writing = true;
+				}
+
+				boolean success = writeDocs(docs);
+
+				synchronized (queue) {
+					writing = false;
+					if (success) {
+						numIndexed += docs.length;
+						numBatches++;
+					}
+					queue.notifyAll();
+				}
+			}
+		}
+	}
+
+
+	// ---------------------- Debug methods -------------------------------
+	/**
+	 *  Gets a datestamp of the current time formatted for display with logs and output.
+	 *
+	 * @return    A datestamp for display purposes.
+	 */
+	public final static String getDateStamp() {
+		return
+			new SimpleDateFormat("MMM d, yyyy h:mm:ss a zzz").format(new Date());
+	}
+
+
+	/**
+	 *  Output a line of text to error out, with datestamp.
+	 *
+	 * @param  s  The text that will be output to error out.
+	 */
+	private final static void prtlnErr(String s) {
+		System.err.println(getDateStamp() + " WebLogIndexQueue ERROR: " + s);
+	}
+
+
+	/**
+	 *  Output a line of text to standard out, with datestamp, if debug is set to true.
+	 *
+	 * @param  s  The String that will be output.
+	 */
+	private final static void prtln(String s) {
+		if (debug)
+			System.out.println(getDateStamp() + " WebLogIndexQueue: " + s);
+	}
+
+
+	/**
+	 *  Sets the debug attribute of the WebLogIndexQueue object
+	 *
+	 * @param  db  The new debug value
+	 */
+	public static void setDebug(boolean db) {
+		debug = db;
+	}
+}
@@ -0,0 +1,123 @@
+/*
+	Copyright 2017 Digital Learning Sciences (DLS) at the
+	University Corporation for Atmospheric Research (UCAR),
+	P.O. Box 3000, Boulder, CO 80307
+
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+
+	http://www.apache.org/licenses/LICENSE-2.0
+
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+package org.dlese.dpc.index.document;
+
+import java.util.zip.DataFormatException;
+
+import org.apache.lucene.document.CompressionTools;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.Fieldable;
+
+/**
+ *  Stores and reads large stored-only text fields, such as the full content of an indexed file, in one of two
+ *  storage modes. In the 'plain' mode the text is stored as a regular String field. In the 'compressed' mode
+ *  it is deflated with {@link org.apache.lucene.document.CompressionTools} and stored as a binary field,
+ *  which typically reduces the size of an index of XML records by half at the cost of inflating each record
+ *  when it is read. Documents stored in either mode may be read regardless of the mode currently in use, so an
+ *  index may be converted from one mode to the other one record at a time.
+ *
+ * @author    John Weatherley
+ * @see       org.dlese.dpc.index.writer.FileIndexingServiceWriter#setFileContentStorage(String)
+ */
+public class FileContentTools {
+
+	/**  Storage mode that stores the text as a regular, uncompressed String field. */
+	public final static String STORAGE_PLAIN = "plain";
+
+	/**  Storage mode that stores the text deflated in a binary field. */
+	public final static String STORAGE_COMPRESSED = "compressed";
+
+
+	/**
+	 *  Creates a stored, un-indexed Field that holds the given text in the given storage mode.
+	 *
+	 * @param  name     The field name, for example 'filecontent'
+	 * @param  content  The text
+	 * @param  storage  {@link #STORAGE_PLAIN} or {@link #STORAGE_COMPRESSED}
+	 * @return          The Field
+	 */
+	public final static Field createField(String name, String content, String storage) {
+		if (STORAGE_COMPRESSED.equals(storage))
+			return new Field(name, CompressionTools.compressString(content), Field.Store.YES);
+		return new Field(name, content, Field.Store.YES, Field.Index.NO);
+	}
+
+
+	/**
+	 *  Gets the text held in the given field of a Document, in whichever storage mode it was stored.
+	 *
+	 * @param  doc   The Document
+	 * @param  name  The field name, for example 'filecontent'
+	 * @return       The text, or null if the Document does not contain the field
+	 */
+	public final static String getContent(Document doc, String name) {
+		if (doc == null)
+			return null;
+		Fieldable field = doc.getFieldable(name);
+		if (field == null)
+			return null;
+		if (!field.isBinary())
+			return field.stringValue();
+		byte[] bytes = field.getBinaryValue();
+		if (field.getBinaryOffset() != 0 || field.getBinaryLength() != bytes.length) {
+			byte[] b = new byte[field.getBinaryLength()];
+			System.arraycopy(bytes, field.getBinaryOffset(), b, 0, b.length);
+			bytes = b;
+		}
+		try {
+			return CompressionTools.decompressString(bytes);
+		} catch (DataFormatException e) {
+			System.err.println("FileContentTools ERROR: Unable to inflate field '" + name + "': " + e);
+			return null;
+		}
+	}
+
+
+	/**
+	 *  Determines whether the given field of a Document was stored in the given storage mode. Documents that do
+	 *  not contain the field are considered to be stored in any mode.
+	 *
+	 * @param  doc      The Document
+	 * @param  name     The field name, for example 'filecontent'
+	 * @param  storage  {@link #STORAGE_PLAIN} or {@link #STORAGE_COMPRESSED}
+	 * @return          True if the field is stored in the given mode
+	 */
+	public final static boolean isStoredAs(Document doc, String name, String storage) {
+		Fieldable field = (doc == null ? null : doc.getFieldable(name));
+		if (field == null)
+			return true;
+		return field.isBinary() == STORAGE_COMPRESSED.equals(storage);
+	}
+
+
+	/**
+	 *  Checks that the given value names a storage mode, returning the mode to use.
+	 *
+	 * @param  storage                   The storage mode, case insensitive
+	 * @return                           {@link #STORAGE_PLAIN} or {@link #STORAGE_COMPRESSED}
+	 * @exception  IllegalArgumentException  If the value is not a storage mode
+	 */
+	public final static String getStorageMode(String storage) throws IllegalArgumentException {
+		if (storage != null && storage.trim().equalsIgnoreCase(STORAGE_COMPRESSED))
+			return STORAGE_COMPRESSED;
+		if (storage != null && storage.trim().equalsIgnoreCase(STORAGE_PLAIN))
+			return STORAGE_PLAIN;
+		throw new IllegalArgumentException("Storage mode must be '" + STORAGE_PLAIN + "' or '" + STORAGE_COMPRESSED + "', not '" + storage + "'");
+	}
+}
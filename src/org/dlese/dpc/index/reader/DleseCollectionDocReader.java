@@ -488,7 +488,7 @@ public class DleseCollectionDocReader extends XMLDocReader {
 	 * @return    The numIndexed value
 	 */
 	public String getNumIndexed() {
-		return Integer.toString(getIndex().getNumDocs("collection:0" + getKey()));
+		return Integer.toString(getIndex().getNumDocs(new String[]{null}, "collection:0" + getKey())[0]);
 	}
 
 
@@ -498,8 +498,8 @@ public class DleseCollectionDocReader extends XMLDocReader {
 	 * @return    The numIndexingErrors value
 	 */
 	public String getNumIndexingErrors() {
-		return Integer.toString(getIndex().getNumDocs("error:true AND docdir:\"" +
-			SimpleLuceneIndex.escape(new File(getLocationOfFiles()).getAbsolutePath()) + "\""));
+		return Integer.toString(getIndex().getNumDocs(new String[]{"error:true"}, "docdir:\"" +
+			SimpleLuceneIndex.escape(new File(getLocationOfFiles()).getAbsolutePath()) + "\"")[0]);
 	}
 
 
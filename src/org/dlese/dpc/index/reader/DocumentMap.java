@@ -223,7 +223,7 @@ public class DocumentMap implements Map {
 			String key;
 			String value;
 			for(int j=0; j < fields.size(); j++) {
-				Field field = (Field) fields.get(j);
+				Fieldable field = (Fieldable) fields.get(j);
 				key = field.name();
 				value = "";
 				String[] values = myDoc.getValues(key);
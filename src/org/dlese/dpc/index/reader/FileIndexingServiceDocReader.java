@@ -24,6 +24,7 @@ import org.dlese.dpc.xml.*;
 import org.dlese.dpc.webapps.tools.*;
 import org.dlese.dpc.util.*;
 import org.dlese.dpc.index.document.DateFieldTools;
+import org.dlese.dpc.index.document.FileContentTools;
 
 import javax.servlet.*;
 import java.io.*;
@@ -70,14 +71,17 @@ public abstract class FileIndexingServiceDocReader extends DocReader implements
 	 *  Gets the full content of the file that was used to index the {@link org.apache.lucene.document.Document}.
 	 *  This includes all XML or HTML tags, etc.
 	 *
-	 * @return    The full content as text, or empty string if unable to process.
+	 * @return                            The full content as text, or empty string if unable to process.
+	 * @exception  IllegalStateException  If the content was loaded lazily and its IndexReader has been closed
 	 */
 	public final String getFullContent() {
 		try {
-			String content = doc.get("filecontent");
+			String content = getStoredContent();
 			if(content == null)
 				content = Files.readFile(getFile()).toString();
 			return content;	
+		} catch (IllegalStateException e) {
+			throw e;
 		} catch (Exception e) {
 			prtlnErr("Error reading file ( FileIndexingServiceDocReader.getFullContent() )" + e);
 			return "";
@@ -89,15 +93,18 @@ public abstract class FileIndexingServiceDocReader extends DocReader implements
 	 *  Gets the full content of the file that was used to index the {@link org.apache.lucene.document.Document},
 	 *  returned in the given character encoding, for example UTF-8.
 	 *
-	 * @param  characterEncoding  The character encoding to return, for example 'UTF-8'
-	 * @return                    The full content as text, or empty string if unable to process.
+	 * @param  characterEncoding           The character encoding to return, for example 'UTF-8'
+	 * @return                            The full content as text, or empty string if unable to process.
+	 * @exception  IllegalStateException  If the content was loaded lazily and its IndexReader has been closed
 	 */
 	public final String getFullContentEncodedAs(String characterEncoding) {
 		try {
-			String content = doc.get("filecontent");
+			String content = getStoredContent();
 			if(content == null)
 				content = Files.readFileToEncoding(getFile(),characterEncoding).toString();
 			return content;			
+		} catch (IllegalStateException e) {
+			throw e;
 		} catch (Exception e) {
 			prtlnErr("Error reading file ( FileIndexingServiceDocReader.getFullContentEncodedAs() )" + e);
 			return "";
@@ -105,6 +112,26 @@ public abstract class FileIndexingServiceDocReader extends DocReader implements
 	}
 
 
+	/**
+	 *  Gets the full content stored in the index. The content is loaded lazily only for results that are a field
+	 *  projection, in which case it can only be read while the IndexReader that was searched over is open. If
+	 *  that reader has been closed the failure is reported, since reading the document number from the current
+	 *  reader may give a different record.
+	 *
+	 * @return                         The content, or null if not stored in the index
+	 * @exception  IllegalStateException  If the content can no longer be read
+	 * @see                            org.dlese.dpc.index.ResultDocList#acquireReader()
+	 */
+	private String getStoredContent() {
+		try {
+			return FileContentTools.getContent(doc, "filecontent");
+		} catch (RuntimeException e) {
+			throw new IllegalStateException("Unable to read the content stored in the index for record '" +
+				doc.get("id") + "', the IndexReader it was found in has been closed: " + e);
+		}
+	}
+
+
 	/**
 	 *  Gets doctype associated with the {@link org.apache.lucene.document.Document}, for example 'dlese_ims,'
 	 *  'adn,' or 'html'. Note that to support wildcard searching, the doctype is indexed with a leading '0'
@@ -287,7 +287,7 @@ public class LazyDocumentMap implements Map {
 				// Ensure there are no duplicate field names:
 				_fieldList = new ArrayList(fieldList.size());
 				for(int i = 0; i < fieldList.size(); i++) {
-					String fieldName = ((Field)fieldList.get(i)).name();
+					String fieldName = ((Fieldable)fieldList.get(i)).name();
 					if(!_fieldList.contains(fieldName))
 						_fieldList.add(fieldName);
 				}
@@ -320,7 +320,7 @@ public class LazyDocumentMap implements Map {
 				return null;
 			if (_fieldList.get(i) == null)
 				return null;
-			return ((Field) _fieldList.get(i)).name();
+			return _fieldList.get(i);
 		}
 
 
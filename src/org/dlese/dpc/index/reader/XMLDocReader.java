@@ -51,6 +51,14 @@ import java.util.*;
  */
 public class XMLDocReader extends FileIndexingServiceDocReader {
 	private static boolean debug = false;
+
+	/**
+	 *  The stored fields read by {@link #getId()}, {@link #getOaiDatestamp()} and {@link #isDeleted()}, which
+	 *  are all that is needed to write OAI record headers.
+	 *
+	 * @see    org.dlese.dpc.index.ResultDocList#getFieldProjection(String[])
+	 */
+	public final static String[] OAI_HEADER_FIELDS = {"idvalue", "oaimodtime", "deleted"};
 	
 	private final String DEFAULT = "(null)";
 	private static XMLConversionService xmlConversionService = null;
@@ -689,6 +697,34 @@ public class XMLDocReader extends FileIndexingServiceDocReader {
 	}
 
 
+	/**
+	 *  Writes XML in the given format to the given Writer, with the XML declaration stripped out. The output is
+	 *  the same as that of {@link #getXmlFormat(String, boolean) getXmlFormat(format, true)}, but the record is
+	 *  copied to the Writer as it is read from the cache or index rather than built as a String first, for use
+	 *  when a response holds many records. Nothing is written if unable to dissiminate the format.
+	 *
+	 * @param  format           The format desired.
+	 * @param  out              The Writer
+	 * @return                  True if the XML was written, false if unable to process
+	 * @exception  IOException  If error writing the XML
+	 */
+	public boolean writeXmlFormat(String format, Writer out) throws IOException {
+		if (format == null)
+			return false;
+		if (format.equals(getDoctype())) {
+			if (xmlStripped != null)
+				out.write(xmlStripped);
+			else
+				XMLConversionService.stripXmlDeclaration(new BufferedReader(new StringReader(getXml())), out);
+			return true;
+		}
+		else if (xmlConversionService != null)
+			return xmlConversionService.writeConvertedXml(getDoctype(), format, getFile(), this, out);
+		else
+			return false;
+	}
+
+
 	/**
 	 *  Gets XML in the format that was previously specified using the {@link #setRequestedXmlFormat(String)}
 	 *  method, or the localized native format if none was specified. The resulting String contains XML in the
@@ -823,6 +859,17 @@ public class XMLDocReader extends FileIndexingServiceDocReader {
 	}
 
 
+	/**
+	 *  Gets the hash of the file content when the record was indexed, which keys the converted formats cached
+	 *  by the {@link org.dlese.dpc.xml.XMLConversionService}.
+	 *
+	 * @return    The hex-encoded content hash, or null if it was not indexed
+	 */
+	public String getContentHash() {
+		return doc.get("contenthash");
+	}
+
+
 	/**
 	 *  Gets the oaiDatestamp in UTC format for the given record.
 	 *
@@ -26,6 +26,7 @@ import org.dlese.dpc.index.*;
 import org.dlese.dpc.util.*;
 import org.apache.lucene.document.*;
 import org.dlese.dpc.index.document.DateFieldTools;
+import org.dlese.dpc.index.document.FileContentTools;
 
 /**
  *  Abstract class for creating customized Lucene {@link org.apache.lucene.document.Document}s for different
@@ -58,21 +59,32 @@ import org.dlese.dpc.index.document.DateFieldTools;
  *    <li> <code>modtime</code> - The file modification time, which is used by the {@link
  *    org.dlese.dpc.index.FileIndexingService} to determine if the file has changed and needs update and may
  *    be used by beans or other classes that wish to query the modtime for the record.</li>
- *    <li> <code>filecontent</code> - The full content of the file, stored but not indexed.</li>
+ *    <li> <code>filecontent</code> - The full content of the file, stored but not indexed. Stored as plain
+ *    text or compressed, see {@link #setFileContentStorage(String)}.</li>
  *    <li> <code>deleted</code> - Set to 'true' if the file or record for this document has been deleted,
  *    otherwise this field does not exist. Stored. </li>
  *    <li> <code>valid</code> - Set to 'true' if the file or record for this document is valid, otherwise
  *    'false'. This field may also be ommited. Not stored. </li>
  *    <li> <code>validationreport</code> - Contains a report that provides validation information about the
  *    underlying file. This field may be ommited. Not stored.</li>
+ *    <li> <code>indexversion</code> - The {@link #INDEX_VERSION} of the fields written for the document, used
+ *    to tell whether records indexed by earlier versions of the software remain in the index. Not stored.</li>
  *  </ul>
  *
  *
  * @author    John Weatherley
  */
 public abstract class FileIndexingServiceWriter implements DocWriter {
+	/**
+	 *  The version of the fields written by this class and its sub-classes, indexed in the 'indexversion' field
+	 *  of every Document. Incremented when a change to the fields needs existing records to be re-indexed before
+	 *  it may be relied on. Version 2 adds the trie encoded 'oaidatestamp' field.
+	 */
+	public final static String INDEX_VERSION = "2";
+
 	private static boolean debug = false;
 	private boolean validateFiles = false;
+	private String fileContentStorage = FileContentTools.STORAGE_PLAIN;
 	private boolean abortIndexing = false;
 	private FileIndexingService fileIndexingService = null;
 	private File source = null;
@@ -183,11 +195,11 @@ public abstract class FileIndexingServiceWriter implements DocWriter {
 	public String getFileContent() throws IOException {
 		if (fileContent == null) {
 			if (isMakingDeletedDoc())
-				fileContent = previousRecordDoc.get("filecontent");
+				fileContent = FileContentTools.getContent(previousRecordDoc, "filecontent");
 			else if (source.exists())
 				fileContent = Files.readFileToEncoding(source, "UTF-8").toString();
 			if (fileContent == null && previousRecordDoc != null)
-				fileContent = previousRecordDoc.get("filecontent");
+				fileContent = FileContentTools.getContent(previousRecordDoc, "filecontent");
 			if (fileContent == null)
 				fileContent = "";
 
@@ -235,6 +247,20 @@ public abstract class FileIndexingServiceWriter implements DocWriter {
 	}
 
 
+	/**
+	 *  Checks the Document made by the last call to create() against the other files indexed in the same
+	 *  session, for example for duplicate IDs. The FileIndexingService calls this for each file in file order
+	 *  before the Document is added to the index, so the result does not depend on the order in which Documents
+	 *  were created when that is done by more than one thread. Does nothing by default.
+	 *
+	 * @param  sessionAttributes  The attributes shared by the writers in this indexing session
+	 * @exception  Exception      If the Document should not be indexed, in which case an error doc is indexed in
+	 *      its place
+	 * @see                       #getSessionAttributes()
+	 */
+	public void checkSession(HashMap sessionAttributes) throws Exception { }
+
+
 	/**
 	 *  Gets the sourceFile that is being indexed. Only available after create() has been called.
 	 *
@@ -331,6 +357,19 @@ public abstract class FileIndexingServiceWriter implements DocWriter {
 	}
 
 
+	/**
+	 *  Sets how the full content of the file is stored in the <code>filecontent</code> field, either {@link
+	 *  FileContentTools#STORAGE_PLAIN} or {@link FileContentTools#STORAGE_COMPRESSED}. This value is set by the
+	 *  {@link org.dlese.dpc.index.FileIndexingService} prior to indexing. Default is plain.
+	 *
+	 * @param  fileContentStorage  The storage mode
+	 * @see                        org.dlese.dpc.index.FileIndexingService#setFileContentStorage(String)
+	 */
+	public void setFileContentStorage(String fileContentStorage) {
+		this.fileContentStorage = fileContentStorage;
+	}
+
+
 	/**
 	 *  Gets a report detailing any errors found in the validation of the file, or null if no error was found.
 	 *  This method should be overridden by concrete classes that need to validate the underlying file before
@@ -501,6 +540,9 @@ public abstract class FileIndexingServiceWriter implements DocWriter {
 			// A field/term that matches all records:
 			doc.add(new Field("allrecords", "true", Field.Store.NO, Field.Index.ANALYZED));
 
+			// The version of the fields written, so that records from earlier versions can be counted:
+			doc.add(new Field("indexversion", INDEX_VERSION, Field.Store.NO, Field.Index.NOT_ANALYZED));
+
 			// A field used to determine whether the file has been deleted (also used for OAI deletion status):
 			if (isMakingDeletedDoc())
 				doc.add(new Field("deleted", "true", Field.Store.YES, Field.Index.ANALYZED));
@@ -529,7 +571,7 @@ public abstract class FileIndexingServiceWriter implements DocWriter {
 				doc.add(new Field("modtime", DateFieldTools.timeToString(System.currentTimeMillis()), Field.Store.YES, Field.Index.NOT_ANALYZED));
 
 			// See class JavaDoc for details on this field.
-			doc.add(new Field("filecontent", getFileContent(), Field.Store.YES, Field.Index.NO));
+			doc.add(FileContentTools.createField("filecontent", getFileContent(), fileContentStorage));
 
 			// -------------- Required fields for DocWriter --------------
 
@@ -56,6 +56,9 @@ public abstract class XMLFileIndexingWriter extends FileIndexingServiceWriter {
 	private XMLIndexer _xmlIndexer = null;
 	private String[] _collections = null;
 	private ResultDocList _myAnnoResultDocs = null;
+	// The ID to check against the other files in the indexing session, see checkSession():
+	private String sessionCheckId = null;
+	private String sessionCheckIdEncoded = null;
 
 	/**  Constructor for the XMLFileIndexingWriter. */
 	public XMLFileIndexingWriter() { }
@@ -576,10 +579,23 @@ public abstract class XMLFileIndexingWriter extends FileIndexingServiceWriter {
 		newDoc.add(new Field("metadatapfx", '0' + getDocType(), Field.Store.YES, Field.Index.NOT_ANALYZED));
 		newDoc.add(new Field("xmlFormat", getDocType(), Field.Store.YES, Field.Index.NOT_ANALYZED));
 
+		// Hash of the file content, which keys the converted formats cached by the XMLConversionService:
+		String contentHash = XMLConversionService.getContentHash(sourceFile);
+		if (contentHash != null)
+			newDoc.add(new Field("contenthash", contentHash, Field.Store.YES, Field.Index.NO));
+
 		String oaimodtime = getOaiModtime(sourceFile, existingDoc);
-		if (oaimodtime != null)
+		if (oaimodtime != null) {
 			newDoc.add(new Field("oaimodtime", oaimodtime, Field.Store.YES, Field.Index.NOT_ANALYZED));
 
+			// The same datestamp as a trie encoded number, used to filter and sort OAI-PMH ListRecords and ListIdentifiers requests:
+			try {
+				newDoc.add(new NumericField("oaidatestamp").setLongValue(DateFieldTools.stringToTime(oaimodtime)));
+			} catch (ParseException e) {
+				prtlnErr("Unable to index OAI datestamp '" + oaimodtime + "': " + e.getMessage());
+			}
+		}
+
 		// ---------- Handle all required metadata fields from sub-classes ------
 
 		// What's new date and time
@@ -591,6 +607,8 @@ public abstract class XMLFileIndexingWriter extends FileIndexingServiceWriter {
 			newDoc.add(new Field("wntype", wntype, Field.Store.YES, Field.Index.ANALYZED));
 
 		// ------ Check that this record does not already exist in the repository, throw ErrorDocException if needed ------
+		sessionCheckId = null;
+		sessionCheckIdEncoded = null;
 		if (!isMakingDeletedDoc()) {
 			// Get the ids for this XML document (used below):
 			String[] ids = getIds();
@@ -635,29 +653,10 @@ public abstract class XMLFileIndexingWriter extends FileIndexingServiceWriter {
 								}
 							}
 
-							// Check if another file with the same ID exists in the current indexing session:
-							if (recordIdAlreadyInRepository == null) {
-								HashMap sessionIDs = null;
-								HashMap sessionAttributes = getSessionAttributes();
-								if (sessionAttributes != null) {
-									sessionIDs = (HashMap) sessionAttributes.get("sessionIDs");
-									if (sessionIDs == null) {
-										sessionIDs = new HashMap();
-										sessionAttributes.put("sessionIDs", sessionIDs);
-									}
-
-									// If another file in the directory has the same ID, throw error...
-									File fileInDirectory = (File) sessionIDs.get(idsEncoded[i]);
-									if (fileInDirectory != null && getSourceFile().exists() && fileInDirectory.exists()) {
-										//prtln("found dup ID in same dir: " + getIds()[i] + " dup path: " + fileInDirectory.getAbsolutePath() + " my path: " + this.getSourceFile().getAbsolutePath());
-										recordIdAlreadyInRepository = fileInDirectory;
-									}
-									else {
-										//prtln("no dup ID in same dir: " + getIds()[i]);
-										//prtln("sessionIDs.put: " + getSourceFile());
-										sessionIDs.put(idsEncoded[i], getSourceFile());
-									}
-								}
+							// Other files in the current indexing session with the same ID are checked in file order by checkSession():
+							if (recordIdAlreadyInRepository == null && getSessionAttributes() != null) {
+								sessionCheckId = ids[i];
+								sessionCheckIdEncoded = idsEncoded[i];
 							}
 
 							// If this ID is already in the repository, throw an Exception and store the dup info:
@@ -841,6 +840,33 @@ public abstract class XMLFileIndexingWriter extends FileIndexingServiceWriter {
 
 
 
+	/**
+	 *  Checks that no other file indexed earlier in the same indexing session has the same ID as the record
+	 *  created by the last call to create(). The first file with a given ID is indexed and the others are
+	 *  indexed as dup ID error docs.
+	 *
+	 * @param  sessionAttributes  The attributes shared by the writers in this indexing session
+	 * @exception  Exception      An ErrorDocException if another file in the session has the same ID
+	 */
+	public void checkSession(HashMap sessionAttributes) throws Exception {
+		if (sessionCheckId == null || sessionAttributes == null)
+			return;
+		HashMap sessionIDs = (HashMap) sessionAttributes.get("sessionIDs");
+		if (sessionIDs == null) {
+			sessionIDs = new HashMap();
+			sessionAttributes.put("sessionIDs", sessionIDs);
+		}
+
+		// If another file in the directory has the same ID, throw error...
+		File fileInDirectory = (File) sessionIDs.get(sessionCheckIdEncoded);
+		if (fileInDirectory != null && getSourceFile().exists() && fileInDirectory.exists()) {
+			//prtln("found dup ID in same dir: " + sessionCheckId + " dup path: " + fileInDirectory.getAbsolutePath() + " my path: " + this.getSourceFile().getAbsolutePath());
+			throw makeErrorDocException(sessionCheckId, sessionCheckIdEncoded, fileInDirectory);
+		}
+		sessionIDs.put(sessionCheckIdEncoded, getSourceFile());
+	}
+
+
 	private ErrorDocException makeErrorDocException(String id,
 	                                                String encodedId,
 	                                                File recordIdAlreadyInRepository) {
@@ -51,8 +51,8 @@ public class XMLIndexer {
 	
 	private String xmlFormat = null;
 	private org.dom4j.Document xmlDoc = null;
-	private String fullXmlElementContent = ""; // Extract the full content from the XML Elements or JavaBean properties
-	private String fullXmlAttributeContent = ""; // Extract the full content from the XML Attributes
+	private StringBuffer fullXmlElementContent = new StringBuffer(); // Extract the full content from the XML Elements or JavaBean properties
+	private StringBuffer fullXmlAttributeContent = new StringBuffer(); // Extract the full content from the XML Attributes
 	private boolean xmlProcessed = false;
 	private XMLIndexerFieldsConfig xmlIndexerFieldsConfig = null;
 
@@ -363,7 +363,7 @@ public class XMLIndexer {
 	public String getFullXmlElementContent() throws IllegalStateException {
 		if (!xmlProcessed)
 			throw new IllegalStateException(illegalPreProssingMsg);
-		return fullXmlElementContent;
+		return fullXmlElementContent.toString();
 	}
 
 	/**
@@ -376,7 +376,7 @@ public class XMLIndexer {
 	public String getFullXmlAttributeContent() throws IllegalStateException {
 		if (!xmlProcessed)
 			throw new IllegalStateException(illegalPreProssingMsg);
-		return fullXmlAttributeContent;
+		return fullXmlAttributeContent.toString();
 	}	
 	
 	/**
@@ -429,7 +429,7 @@ public class XMLIndexer {
 	public XMLIndexer(URL urlToXml, String xmlFormat, XMLIndexerFieldsConfig xmlIndexerFieldsConfig) throws Exception {
 		this.xmlFormat = xmlFormat;
 		this.xmlIndexerFieldsConfig = xmlIndexerFieldsConfig;
-		xmlDoc = Dom4jUtils.localizeXml(Dom4jUtils.getXmlDocument(urlToXml));
+		xmlDoc = Dom4jUtils.getXmlDocumentLocalized(urlToXml);
 	}
 
 
@@ -449,18 +449,19 @@ public class XMLIndexer {
 			indexXpathFields(luceneDoc);
 
 		// Index specific fields for this xmlFormat, if configured:
-		indexCustomFields(xmlFormat, luceneDoc);
-		extractStandardFields(xmlFormat);
-		extractRelationships(xmlFormat);
+		XMLIndexerFieldsPlan plan = getFormatPlan(xmlFormat);
+		indexCustomFields(plan, luceneDoc);
+		extractStandardFields(plan);
+		extractRelationships(plan);
 
 		// Index specific fields for this schema, if configured:
 		String schema = xmlDoc.getRootElement().valueOf("@schemaLocation").trim();
 		if (schema.length() > 0) {
 			String[] s = schema.split("\\s+");
-			schema = s[s.length - 1];
-			indexCustomFields(schema, luceneDoc);
-			extractStandardFields(schema);
-			extractRelationships(schema);
+			plan = getFormatPlan(s[s.length - 1]);
+			indexCustomFields(plan, luceneDoc);
+			extractStandardFields(plan);
+			extractRelationships(plan);
 		}
 
 		xmlProcessed = true;
@@ -471,64 +472,53 @@ public class XMLIndexer {
 
 
 	/**
-	 *  Indexes the configured fields for this xmlFormat or schema instance doc.
+	 *  Gets the compiled plan for the given xmlFormat or schema.
 	 *
 	 * @param  xmlFormatOrSchema  The xmlFormat or schema
-	 * @param  luceneDoc          The {@link org.apache.lucene.document.Document} to add fields to
-	 * @exception  Exception      If error, provides an appropriate message to display in indexing reports.
+	 * @return                    The plan, or null if not configured
 	 */
-	private void indexCustomFields(String xmlFormatOrSchema, org.apache.lucene.document.Document luceneDoc) throws Exception {
-
+	private XMLIndexerFieldsPlan getFormatPlan(String xmlFormatOrSchema) {
 		if (xmlIndexerFieldsConfig == null)
-			return;
-
-		// Loop through each field and add the contents of the xPath to the index for that field
-		org.dom4j.Document configXmlDoc = xmlIndexerFieldsConfig.getFormatConfig(xmlFormatOrSchema);
-		if (configXmlDoc != null) {
-
-			List fields = configXmlDoc.selectNodes("/XMLIndexerFieldsConfig/customFields/customField");
-			
-			prtln("indexCustomFields() for " + xmlFormatOrSchema + " (found " + fields.size() + " XPaths defined)");
-			for (int j = 0; j < fields.size(); j++) {
-				Node field = (Node) fields.get(j);
-				String fieldName = field.valueOf("@name").trim();
-				String type = field.valueOf("@type").trim().toLowerCase();
-				String store = field.valueOf("@store").trim().toLowerCase();
-				String analyzer = field.valueOf("@analyzer").trim();
+			return null;
+		return xmlIndexerFieldsConfig.getFormatPlan(xmlFormatOrSchema);
+	}
 
-				// Set up the index Field properties
-				Field.Store fieldStore = Field.Store.YES;
-				if (store.equals("no"))
-					fieldStore = Field.Store.NO;
 
-				Field.Index fieldIndex = Field.Index.ANALYZED;
-				if (type.equals("key") || analyzer.indexOf("KeywordAnalyzer") >= 0)
-					fieldIndex = Field.Index.NOT_ANALYZED;
+	/**
+	 *  Indexes the configured fields for this xmlFormat or schema instance doc.
+	 *
+	 * @param  plan           The plan for the xmlFormat or schema, or null if not configured
+	 * @param  luceneDoc      The {@link org.apache.lucene.document.Document} to add fields to
+	 * @exception  Exception  If error, provides an appropriate message to display in indexing reports.
+	 */
+	private void indexCustomFields(XMLIndexerFieldsPlan plan, org.apache.lucene.document.Document luceneDoc) throws Exception {
 
-				prtln("indexCustomFields() for " + xmlFormatOrSchema + " field:" + fieldName);
+		if (plan == null)
+			return;
 
-				// Get the content from the XML at the given xpaths and index it in this field
-				List xPaths = field.selectNodes("xpaths/xpath");
-				for(Object xp : xPaths) {
-					try {
-						Node xPathElement = (Node) xp;
-						String xPath = xPathElement.getText();
-						List contentNodes = xmlDoc.selectNodes(xPath);
-						for(Object c : contentNodes) {
-							String indexContent;
-							if(c instanceof String)
-								indexContent = ((String)c).trim();
-							else {
-								Node contentNode = (Node) c;
-								indexContent = contentNode.getText().trim();
-							}
-							prtln("Adding configured field to index:\n  fieldName:"+fieldName+ " store:" + fieldStore + " tokenize:" + fieldIndex + "\n  content:'" + indexContent + "'");
-							if(indexContent.length() > 0)
-								luceneDoc.add(new Field(fieldName, indexContent, fieldStore, fieldIndex));
-						}
-					} catch (Exception e) {
-						throw new Exception("Error indexing custom field:'" + fieldName + "' for format:'" + xmlFormatOrSchema + "': " + e.getMessage());
+		// Loop through each field and add the contents of the xPath to the index for that field
+		XMLIndexerFieldsPlan.PlanField[] fields = plan.getCustomFields();
+		prtln("indexCustomFields() for " + plan.getXmlFormatOrSchema() + " (found " + fields.length + " XPaths defined)");
+		for (int j = 0; j < fields.length; j++) {
+			XMLIndexerFieldsPlan.PlanField field = fields[j];
+			String fieldName = field.getName();
+			Field.Store fieldStore = field.getStore();
+			Field.Index fieldIndex = field.getIndex();
+
+			prtln("indexCustomFields() for " + plan.getXmlFormatOrSchema() + " field:" + fieldName);
+
+			// Get the content from the XML at the given xpaths and index it in this field
+			for (int x = 0; x < field.getNumXPaths(); x++) {
+				try {
+					List content = field.selectContent(x, xmlDoc);
+					for (int c = 0; c < content.size(); c++) {
+						String indexContent = (String) content.get(c);
+						prtln("Adding configured field to index:\n  fieldName:"+fieldName+ " store:" + fieldStore + " tokenize:" + fieldIndex + "\n  content:'" + indexContent + "'");
+						if(indexContent.length() > 0)
+							luceneDoc.add(new Field(fieldName, indexContent, fieldStore, fieldIndex));
 					}
+				} catch (Exception e) {
+					throw new Exception("Error indexing custom field:'" + fieldName + "' for format:'" + plan.getXmlFormatOrSchema() + "': " + e.getMessage());
 				}
 			}
 		}
@@ -537,52 +527,39 @@ public class XMLIndexer {
 	/**
 	 *  Extracts the standard field data from the XML, such as title, description, url, id, boundingBox, if configured.
 	 *
-	 * @param  xmlFormatOrSchema  The xmlFormat or schema
-	 * @exception  Exception      If error, provides an appropriate message to display in indexing reports.
+	 * @param  plan           The plan for the xmlFormat or schema, or null if not configured
+	 * @exception  Exception  If error, provides an appropriate message to display in indexing reports.
 	 */
-	private void extractStandardFields(String xmlFormatOrSchema) throws Exception {
-
-		if (xmlIndexerFieldsConfig == null)
-			return;
+	private void extractStandardFields(XMLIndexerFieldsPlan plan) throws Exception {
 
 		// Loop through each field and add the contents of the xPath to the index for that field
-		org.dom4j.Document configXmlDoc = xmlIndexerFieldsConfig.getFormatConfig(xmlFormatOrSchema);
-		if (configXmlDoc != null) {
+		if (plan != null) {
 		
 			String geoBBNorth = null;
 			String geoBBWest = null;
 			String geoBBEast = null;
 			String geoBBSouth = null;
 
-			List fields = configXmlDoc.selectNodes("/XMLIndexerFieldsConfig/standardFields/standardField");
-			prtln("extractStandardFields() for " + xmlFormatOrSchema + " (found " + fields.size() + " XPaths defined)");
-			for (int j = 0; j < fields.size(); j++) {
-				Node field = (Node) fields.get(j);
-				String fieldName = field.valueOf("@name").trim();
+			XMLIndexerFieldsPlan.PlanField[] fields = plan.getStandardFields();
+			prtln("extractStandardFields() for " + plan.getXmlFormatOrSchema() + " (found " + fields.length + " XPaths defined)");
+			for (int j = 0; j < fields.length; j++) {
+				XMLIndexerFieldsPlan.PlanField field = fields[j];
+				String fieldName = field.getName();
 
 				List extractedContent = new ArrayList();
 				
 				// Get the content from the XML at the given xpaths and index it in this field
-				List xPaths = field.selectNodes("xpaths/xpath");
-				for(Object xp : xPaths) {
+				for (int x = 0; x < field.getNumXPaths(); x++) {
 					try {
-						Node xPathElement = (Node) xp;
-						String xPath = xPathElement.getText();
-						List contentNodes = xmlDoc.selectNodes(xPath);
-						for(Object c : contentNodes) {
-							String indexContent;
-							if(c instanceof String)
-								indexContent = ((String)c).trim();
-							else {
-								Node contentNode = (Node) c;
-								indexContent = contentNode.getText().trim();
-							}
+						List content = field.selectContent(x, xmlDoc);
+						for (int c = 0; c < content.size(); c++) {
+							String indexContent = (String) content.get(c);
 							prtln("Adding standard field to index:\n  fieldName:"+fieldName+"\n  content:'" + indexContent + "'");
 							if(indexContent.length() > 0)
 								extractedContent.add(indexContent);
 						}
 					} catch (Exception e) {
-						throw new Exception("Error indexing standard field:'" + fieldName + "' for format:'" + xmlFormatOrSchema + "': " + e.getMessage());
+						throw new Exception("Error indexing standard field:'" + fieldName + "' for format:'" + plan.getXmlFormatOrSchema() + "': " + e.getMessage());
 					}
 				}
 				
@@ -653,17 +630,13 @@ public class XMLIndexer {
 	 *  Extracts the relationship data from the XML including the target ids and urls and relationship type 'isAnnotatedBy'
 	 *  ect.
 	 *
-	 * @param  xmlFormatOrSchema  The xmlFormat or schema
-	 * @exception  Exception      If error, provides an appropriate message to display in indexing reports.
+	 * @param  plan           The plan for the xmlFormat or schema, or null if not configured
+	 * @exception  Exception  If error, provides an appropriate message to display in indexing reports.
 	 */
-	private void extractRelationships(String xmlFormatOrSchema) throws Exception {
-
-		if (xmlIndexerFieldsConfig == null)
-			return;
+	private void extractRelationships(XMLIndexerFieldsPlan plan) throws Exception {
 
 		// Loop through each field and add the contents of the xPath to the index for that field
-		org.dom4j.Document configXmlDoc = xmlIndexerFieldsConfig.getFormatConfig(xmlFormatOrSchema);
-		if (configXmlDoc != null) {
+		if (plan != null) {
 			
 			Map relatedIdsMap = new TreeMap();
 			Map relatedUrlsMap = new TreeMap();
@@ -671,34 +644,20 @@ public class XMLIndexer {
 			List relatedIds = new ArrayList();
 			List relatedUrls = new ArrayList();
 			
-			List relationships = configXmlDoc.selectNodes("/XMLIndexerFieldsConfig/relationships/relationship");
+			XMLIndexerFieldsPlan.PlanField[] relationships = plan.getRelationships();
 			
-			prtln("extractRelationships() for " + xmlFormatOrSchema + " (found " + relationships.size() + " XPaths defined)");
-			for (int j = 0; j < relationships.size(); j++) {
-				Node relationship = (Node) relationships.get(j);
-				
-				String relationName = relationship.valueOf("@name").trim();
-				if(relationName == null || relationName.length() == 0)
-					continue;
+			prtln("extractRelationships() for " + plan.getXmlFormatOrSchema() + " (found " + relationships.length + " XPaths defined)");
+			for (int j = 0; j < relationships.length; j++) {
+				XMLIndexerFieldsPlan.PlanField relationship = relationships[j];
+				String relationName = relationship.getName();
 				
 				// Get the content from the XML at the given xpaths and index it in this field
-				List xPaths = relationship.selectNodes("xpaths/xpath");
-				for(Object xp : xPaths) {
+				for (int x = 0; x < relationship.getNumXPaths(); x++) {
 					try {
-						Node xPathElement = (Node) xp;
-						String xPath = xPathElement.getText();
-						String type = xPathElement.valueOf("@type");
-						if(type == null || !(type.equalsIgnoreCase("id") || type.equalsIgnoreCase("url")))
-							throw new Exception("XMLIndexerFieldsConfig relationships: xpath type must be either 'id' or 'url' but found: " + type);  
-						List contentNodes = xmlDoc.selectNodes(xPath);
-						for(Object c : contentNodes) {
-							String indexContent;
-							if(c instanceof String)
-								indexContent = ((String)c).trim();
-							else {
-								Node contentNode = (Node) c;
-								indexContent = contentNode.getText().trim();
-							}
+						String type = relationship.getType(x);
+						List content = relationship.selectContent(x, xmlDoc);
+						for (int c = 0; c < content.size(); c++) {
+							String indexContent = (String) content.get(c);
 							prtln("Adding relation type '" + type + "':\n  relationName:"+relationName+"\n  content:'" + indexContent + "'");
 							
 							Map relationMap;
@@ -722,7 +681,7 @@ public class XMLIndexer {
 							}
 						}
 					} catch (Exception e) {
-						throw new Exception("Error extracting relationships:'" + relationName + "' for format:'" + xmlFormatOrSchema + "': " + e.getMessage());
+						throw new Exception("Error extracting relationships:'" + relationName + "' for format:'" + plan.getXmlFormatOrSchema() + "': " + e.getMessage());
 					}
 				}
 			}
@@ -843,62 +802,62 @@ public class XMLIndexer {
 	public void indexXpathFields(org.apache.lucene.document.Document luceneDoc) throws Exception {
 		String prefix = (xPathFieldsPrefix == null ? "" : xPathFieldsPrefix);
 		
-		// Grab the content and index it in the xPath fields, Elements and Attributes...
-		List nodes = xmlDoc.selectNodes("//*");
-		if (nodes != null) {
-			for (int i = 0; i < nodes.size(); i++) {
-				
-				// Index the Elements:
-				Node node = ((Node) nodes.get(i));
-				if (node instanceof Element) {
-					String text = node.getText().trim();
-					if (text.length() > 0 && luceneDoc != null) {
-						luceneDoc.add(new Field(prefix + "/text/" + node.getPath(), text, Field.Store.YES, Field.Index.ANALYZED));
-						luceneDoc.add(new Field(prefix + "/stems/" + node.getPath(), text, Field.Store.NO, Field.Index.ANALYZED)); // No need to stem: handled by the PerFieldAnalyzer...
-						luceneDoc.add(new Field(prefix + "/key/" + node.getPath(), text, Field.Store.NO, Field.Index.NOT_ANALYZED));
-						luceneDoc.add(new Field("indexedXpaths", node.getPath(), Field.Store.NO, Field.Index.NOT_ANALYZED));
-					
-						//prtln("element field: " + node.getPath() + " value: " + text);
-						if (indexDefaultAndStemsField) {
-							IndexingTools.addToDefaultAndStemsFields(luceneDoc, text);
-							IndexingTools.addToAdminDefaultField(luceneDoc, text);
-						}
-						
-						fullXmlElementContent += " " + text;
-					}
-					
-					// Index the Attributes:
-					List attributes = ((Element) node).attributes();
-					for (int j = 0; j < attributes.size(); j++) {
-						Attribute attribute = (Attribute) attributes.get(j);
-						String attText = attribute.getText().trim();
-						if (attText.length() > 0 && luceneDoc != null) {
-							luceneDoc.add(new Field(prefix + "/text/" + attribute.getPath(), attText, Field.Store.YES, Field.Index.ANALYZED));
-							luceneDoc.add(new Field(prefix + "/stems/" + attribute.getPath(), attText, Field.Store.NO, Field.Index.ANALYZED)); // No need to stem: handled by the PerFieldAnalyzer...
-							luceneDoc.add(new Field(prefix + "/key/" + attribute.getPath(), attText, Field.Store.NO, Field.Index.NOT_ANALYZED));
-							luceneDoc.add(new Field("indexedXpaths", attribute.getPath(), Field.Store.NO, Field.Index.NOT_ANALYZED));
-						
-							if (indexDefaultAndStemsField) {
-								IndexingTools.addToDefaultAndStemsFields(luceneDoc, attText);
-								IndexingTools.addToAdminDefaultField(luceneDoc, attText);
-							}
-						
-							fullXmlAttributeContent += " " + attText;
-						}
-						//prtln("attribute field: " + attribute.getPath() + " value: " + attText);
-					}
-					//prtln("nodeElementName: " + node.getName());
-				}
-				else if (node instanceof Attribute) {
-					//prtln("nodeAttributeName: " + ((Attribute)node).getQName());
-				}
-				else if (node instanceof Namespace) {
-					//prtln("nodeNamespaceName: " + ((Namespace)node).getName());
-				}
-				else {
-					//prtln("node"+node.getClass()+"Name: " + node.getName());
+		// Grab the content and index it in the xPath fields, Elements and Attributes, one level of the tree at a 
+		// time (the order in which '//*' selected them) so the field content is the same as it was...
+		List elements = new ArrayList();
+		elements.add(xmlDoc.getRootElement());
+		for (int i = 0; i < elements.size(); i++) {
+			Element element = (Element) elements.get(i);
+			indexXpathFields(element, prefix, luceneDoc);
+			for (int j = 0, size = element.nodeCount(); j < size; j++) {
+				Node child = element.node(j);
+				if (child instanceof Element)
+					elements.add(child);
+			}
+		}
+	}
+
+
+	private void indexXpathFields(Element element, String prefix, org.apache.lucene.document.Document luceneDoc) {
+		
+		// Index the Element:
+		String text = element.getText().trim();
+		if (text.length() > 0 && luceneDoc != null) {
+			String path = element.getPath();
+			luceneDoc.add(new Field(prefix + "/text/" + path, text, Field.Store.YES, Field.Index.ANALYZED));
+			luceneDoc.add(new Field(prefix + "/stems/" + path, text, Field.Store.NO, Field.Index.ANALYZED)); // No need to stem: handled by the PerFieldAnalyzer...
+			luceneDoc.add(new Field(prefix + "/key/" + path, text, Field.Store.NO, Field.Index.NOT_ANALYZED));
+			luceneDoc.add(new Field("indexedXpaths", path, Field.Store.NO, Field.Index.NOT_ANALYZED));
+		
+			//prtln("element field: " + path + " value: " + text);
+			if (indexDefaultAndStemsField) {
+				IndexingTools.addToDefaultAndStemsFields(luceneDoc, text);
+				IndexingTools.addToAdminDefaultField(luceneDoc, text);
+			}
+			
+			fullXmlElementContent.append(" ").append(text);
+		}
+		
+		// Index the Attributes:
+		List attributes = element.attributes();
+		for (int j = 0; j < attributes.size(); j++) {
+			Attribute attribute = (Attribute) attributes.get(j);
+			String attText = attribute.getText().trim();
+			if (attText.length() > 0 && luceneDoc != null) {
+				String path = attribute.getPath();
+				luceneDoc.add(new Field(prefix + "/text/" + path, attText, Field.Store.YES, Field.Index.ANALYZED));
+				luceneDoc.add(new Field(prefix + "/stems/" + path, attText, Field.Store.NO, Field.Index.ANALYZED)); // No need to stem: handled by the PerFieldAnalyzer...
+				luceneDoc.add(new Field(prefix + "/key/" + path, attText, Field.Store.NO, Field.Index.NOT_ANALYZED));
+				luceneDoc.add(new Field("indexedXpaths", path, Field.Store.NO, Field.Index.NOT_ANALYZED));
+			
+				if (indexDefaultAndStemsField) {
+					IndexingTools.addToDefaultAndStemsFields(luceneDoc, attText);
+					IndexingTools.addToAdminDefaultField(luceneDoc, attText);
 				}
+			
+				fullXmlAttributeContent.append(" ").append(attText);
 			}
+			//prtln("attribute field: " + attribute.getPath() + " value: " + attText);
 		}
 	}
 	
@@ -960,7 +919,7 @@ public class XMLIndexer {
 								IndexingTools.addToAdminDefaultField(luceneDoc, value);
 							}
 							
-							fullXmlElementContent += " " + value;
+							fullXmlElementContent.append(" ").append(value);
 							
 							fieldsIndexed = true;
 						}
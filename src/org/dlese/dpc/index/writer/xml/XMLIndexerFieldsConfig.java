@@ -28,7 +28,14 @@ import org.dlese.dpc.util.*;
 import org.dlese.dpc.index.analysis.PerFieldAnalyzer;
 
 /**
- *  Holds a configuration for XML fields indexed by XMLIndexer and used in PerFieldAnalyzer.
+ *  Holds a configuration for XML fields indexed by XMLIndexer and used in PerFieldAnalyzer. Each format's
+ *  configuration is also compiled into an {@link XMLIndexerFieldsPlan} that XMLIndexer reuses for every
+ *  record. <p>
+ *
+ *  The configuration files are checked for changes at most once per reload check interval when a plan is
+ *  requested, and if any has been modified the whole configuration is loaded again and swapped in. Records
+ *  indexed while a reload is in progress use the previous configuration. Analyzers for new custom fields only
+ *  take effect once the index is re-initialized.
  *
  * @author    John Weatherley
  * @see       XMLIndexer
@@ -39,9 +46,19 @@ public class XMLIndexerFieldsConfig {
 		- add config for indexing in XMLIndexer
 		- document
 	*/
-	private Document configIndexXmlDoc = null;
-	private Map formatConfigDocs = new TreeMap();
-	private Map fieldAnalyzers = new TreeMap();
+	/**  Default number of milliseconds between checks for modified configuration files. */
+	public final static long DEFAULT_RELOAD_CHECK_INTERVAL = 5000;
+
+	private final URL configIndexUrl;
+	private volatile Document configIndexXmlDoc = null;
+	private volatile Map formatConfigDocs = new TreeMap();
+	private volatile Map formatPlans = new TreeMap();
+	private volatile Map fieldAnalyzers = new TreeMap();
+
+	// The config files that were read, mapped to their last modified times:
+	private Map configFileTimes = new HashMap();
+	private volatile long lastReloadCheck = 0;
+	private volatile long reloadCheckInterval = DEFAULT_RELOAD_CHECK_INTERVAL;
 
 
 	/**
@@ -49,8 +66,25 @@ public class XMLIndexerFieldsConfig {
 	 * @exception  Exception   If error
 	 */
 	public XMLIndexerFieldsConfig(URL configIndexUrl) throws Exception {
+		this.configIndexUrl = configIndexUrl;
+		load();
+		lastReloadCheck = System.currentTimeMillis();
+	}
 
-		configIndexXmlDoc = Dom4jUtils.localizeXml(Dom4jUtils.getXmlDocument(configIndexUrl));
+
+	/**
+	 *  Reads the config index file and each format's configuration file, then swaps in the new configuration.
+	 *
+	 * @exception  Exception  If error
+	 */
+	private void load() throws Exception {
+		Map configFileTimes = new HashMap();
+		Map formatConfigDocs = new TreeMap();
+		Map formatPlans = new TreeMap();
+		Map fieldAnalyzers = new TreeMap();
+
+		configFileTimes.put(configIndexUrl, new Long(getLastModified(configIndexUrl)));
+		Document configIndexXmlDoc = Dom4jUtils.getXmlDocumentLocalized(configIndexUrl);
 
 		// Loop through each format's configuration file:
 		List nodes = configIndexXmlDoc.selectNodes("/XMLIndexerFieldsConfigIndex/configurationFiles/configurationFile");
@@ -58,7 +92,8 @@ public class XMLIndexerFieldsConfig {
 			for (int i = 0; i < nodes.size(); i++) {
 				try {
 					URL confUrl = new URL(configIndexUrl, ((Node) nodes.get(i)).getText().trim());
-					Document confDoc = Dom4jUtils.localizeXml(Dom4jUtils.getXmlDocument(confUrl));
+					configFileTimes.put(confUrl, new Long(getLastModified(confUrl)));
+					Document confDoc = Dom4jUtils.getXmlDocumentLocalized(confUrl);
 					//prtln("confDoc: " + confDoc.asXML());
 					String xmlFormat = confDoc.valueOf("/XMLIndexerFieldsConfig/@xmlFormat").trim();
 					String schema = confDoc.valueOf("/XMLIndexerFieldsConfig/@schema").trim();
@@ -66,11 +101,15 @@ public class XMLIndexerFieldsConfig {
 						prtlnErr("Not valid to specify both an XML format and a schema. Skipping xmlFormat: '" + xmlFormat + "' schema: '" + schema + "'");
 						continue;
 					}
-					else if (xmlFormat.length() > 0)
+					else if (xmlFormat.length() > 0) {
 						formatConfigDocs.put(xmlFormat, confDoc);
-					else if (schema.length() > 0)
+						formatPlans.put(xmlFormat, new XMLIndexerFieldsPlan(xmlFormat, confDoc));
+					}
+					else if (schema.length() > 0) {
 						formatConfigDocs.put(schema, confDoc);
-					
+						formatPlans.put(schema, new XMLIndexerFieldsPlan(schema, confDoc));
+					}
+
 					// Loop through all custom fields and extract their type/analyzers:
 					List fields = confDoc.selectNodes("/XMLIndexerFieldsConfig/customFields/customField");
 					for (int j = 0; j < fields.size(); j++) { 
@@ -100,6 +139,94 @@ public class XMLIndexerFieldsConfig {
 				}
 			}
 		}
+
+		synchronized (this) {
+			this.configFileTimes = configFileTimes;
+			this.configIndexXmlDoc = configIndexXmlDoc;
+			this.formatConfigDocs = formatConfigDocs;
+			this.formatPlans = formatPlans;
+			this.fieldAnalyzers = fieldAnalyzers;
+		}
+	}
+
+
+	/**
+	 *  Loads the configuration again if any of the configuration files have been modified since they were read.
+	 *  Files are only checked if the reload check interval has passed since the last check. If the modified
+	 *  configuration can not be loaded, the current configuration is kept until the files are modified again.
+	 *
+	 * @return    True if the configuration was reloaded
+	 */
+	public boolean reloadIfModified() {
+		long interval = reloadCheckInterval;
+		if (interval < 0 || System.currentTimeMillis() - lastReloadCheck < interval)
+			return false;
+
+		Map checkedTimes = new HashMap();
+		boolean modified = false;
+		synchronized (this) {
+			// Another thread is checking or already checked:
+			if (System.currentTimeMillis() - lastReloadCheck < interval)
+				return false;
+			lastReloadCheck = System.currentTimeMillis();
+			for (Iterator it = configFileTimes.entrySet().iterator(); it.hasNext(); ) {
+				Map.Entry entry = (Map.Entry) it.next();
+				long lastModified = getLastModified((URL) entry.getKey());
+				checkedTimes.put(entry.getKey(), new Long(lastModified));
+				if (lastModified != ((Long) entry.getValue()).longValue())
+					modified = true;
+			}
+			if (!modified)
+				return false;
+
+			try {
+				load();
+				prtln("Reloaded the modified configuration '" + configIndexUrl + "'");
+				return true;
+			} catch (Exception e) {
+				configFileTimes = checkedTimes;
+				prtlnErr("Unable to reload the modified configuration '" + configIndexUrl + "'. Keeping the previous configuration: " + e);
+				return false;
+			}
+		}
+	}
+
+
+	/**
+	 *  Sets the minimum number of milliseconds between checks for modified configuration files. Use 0 to check
+	 *  each time a plan is requested or -1 to never reload.
+	 *
+	 * @param  reloadCheckInterval  The interval in milliseconds
+	 */
+	public void setReloadCheckInterval(long reloadCheckInterval) {
+		this.reloadCheckInterval = reloadCheckInterval;
+	}
+
+
+	/**
+	 *  Gets the minimum number of milliseconds between checks for modified configuration files.
+	 *
+	 * @return    The interval in milliseconds
+	 */
+	public long getReloadCheckInterval() {
+		return reloadCheckInterval;
+	}
+
+
+	/**
+	 *  Gets the last modified time of a configuration file, or 0 if it is not a local file.
+	 *
+	 * @param  url  The URL to the file
+	 * @return      The last modified time
+	 */
+	private static long getLastModified(URL url) {
+		if (!"file".equals(url.getProtocol()))
+			return 0;
+		try {
+			return new File(url.toURI()).lastModified();
+		} catch (Exception e) {
+			return new File(url.getFile()).lastModified();
+		}
 	}
 
 
@@ -123,6 +250,20 @@ public class XMLIndexerFieldsConfig {
 	public Document getFormatConfig(String xmlFormatOrSchema) {
 		return (Document)formatConfigDocs.get(xmlFormatOrSchema);
 	}
+
+
+	/**
+	 *  Gets the compiled plan for a given xmlFormat or schema, first reloading the configuration if it has been
+	 *  modified.
+	 *
+	 * @param  xmlFormatOrSchema  An xmlFormat key or schema location for the format
+	 * @return                    The plan or null if not configured
+	 * @see                       #reloadIfModified()
+	 */
+	public XMLIndexerFieldsPlan getFormatPlan(String xmlFormatOrSchema) {
+		reloadIfModified();
+		return (XMLIndexerFieldsPlan) formatPlans.get(xmlFormatOrSchema);
+	}
 	
 	/**
 	 *  Determine if the given xmlFormat or schema has a configuration. Example xmlFormat keys are 'oai_dc',
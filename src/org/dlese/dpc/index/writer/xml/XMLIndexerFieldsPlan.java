@@ -0,0 +1,228 @@
+/*
+	Copyright 2017 Digital Learning Sciences (DLS) at the
+	University Corporation for Atmospheric Research (UCAR),
+	P.O. Box 3000, Boulder, CO 80307
+
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+
+	http://www.apache.org/licenses/LICENSE-2.0
+
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+package org.dlese.dpc.index.writer.xml;
+
+import java.util.*;
+import org.dom4j.*;
+import org.jaxen.SimpleNamespaceContext;
+
+import org.apache.lucene.document.Field;
+
+/**
+ *  The custom fields, standard fields and relationships configured for one xmlFormat or schema in an {@link
+ *  XMLIndexerFieldsConfig}, with each xPath compiled once so that it can be evaluated against any number of
+ *  records. A plan is immutable and may be shared by any number of threads. <p>
+ *
+ *  The xPaths are evaluated against localized XML, so they are compiled with an empty namespace context. An
+ *  xPath that does not compile, or a relationship xPath with an invalid type, is kept with its error message
+ *  and reported when the plan is applied to a record, as it was when each xPath was compiled per record.
+ *
+ * @author    John Weatherley
+ * @see       XMLIndexerFieldsConfig#getFormatPlan(String)
+ * @see       XMLIndexer
+ */
+public final class XMLIndexerFieldsPlan {
+	private final String xmlFormatOrSchema;
+	private final PlanField[] customFields;
+	private final PlanField[] standardFields;
+	private final PlanField[] relationships;
+
+
+	/**
+	 *  Compiles the plan for a format configuration Document.
+	 *
+	 * @param  xmlFormatOrSchema  The xmlFormat or schema the configuration is for
+	 * @param  configXmlDoc       The localized configuration Document
+	 */
+	public XMLIndexerFieldsPlan(String xmlFormatOrSchema, Document configXmlDoc) {
+		this.xmlFormatOrSchema = xmlFormatOrSchema;
+		customFields = compile(configXmlDoc.selectNodes("/XMLIndexerFieldsConfig/customFields/customField"), false);
+		standardFields = compile(configXmlDoc.selectNodes("/XMLIndexerFieldsConfig/standardFields/standardField"), false);
+		relationships = compile(configXmlDoc.selectNodes("/XMLIndexerFieldsConfig/relationships/relationship"), true);
+	}
+
+
+	/**
+	 *  Gets the xmlFormat or schema this plan is for.
+	 *
+	 * @return    The xmlFormat or schema
+	 */
+	public String getXmlFormatOrSchema() {
+		return xmlFormatOrSchema;
+	}
+
+
+	/**
+	 *  Gets the custom fields, in configuration order.
+	 *
+	 * @return    The custom fields
+	 */
+	public PlanField[] getCustomFields() {
+		return customFields;
+	}
+
+
+	/**
+	 *  Gets the standard fields such as id, url, title and description, in configuration order.
+	 *
+	 * @return    The standard fields
+	 */
+	public PlanField[] getStandardFields() {
+		return standardFields;
+	}
+
+
+	/**
+	 *  Gets the relationships, in configuration order. Relationships with no name are not included.
+	 *
+	 * @return    The relationships
+	 */
+	public PlanField[] getRelationships() {
+		return relationships;
+	}
+
+
+	private static PlanField[] compile(List fieldNodes, boolean isRelationship) {
+		List fields = new ArrayList();
+		for (int i = 0; i < fieldNodes.size(); i++) {
+			PlanField field = new PlanField((Node) fieldNodes.get(i), isRelationship);
+			if (!isRelationship || field.getName().length() > 0)
+				fields.add(field);
+		}
+		return (PlanField[]) fields.toArray(new PlanField[]{});
+	}
+
+
+	/**  A configured field or relationship and its compiled xPaths. */
+	public final static class PlanField {
+		private final String name;
+		private final Field.Store store;
+		private final Field.Index index;
+		private final XPath[] xPaths;
+		private final String[] types;
+		private final String[] errors;
+
+
+		PlanField(Node field, boolean isRelationship) {
+			name = field.valueOf("@name").trim();
+			String type = field.valueOf("@type").trim().toLowerCase();
+			String analyzer = field.valueOf("@analyzer").trim();
+
+			store = field.valueOf("@store").trim().toLowerCase().equals("no") ? Field.Store.NO : Field.Store.YES;
+			if (type.equals("key") || analyzer.indexOf("KeywordAnalyzer") >= 0)
+				index = Field.Index.NOT_ANALYZED;
+			else
+				index = Field.Index.ANALYZED;
+
+			List xPathElements = field.selectNodes("xpaths/xpath");
+			xPaths = new XPath[xPathElements.size()];
+			types = new String[xPathElements.size()];
+			errors = new String[xPathElements.size()];
+			for (int i = 0; i < xPathElements.size(); i++) {
+				Node xPathElement = (Node) xPathElements.get(i);
+				types[i] = xPathElement.valueOf("@type");
+				if (isRelationship && !(types[i].equalsIgnoreCase("id") || types[i].equalsIgnoreCase("url"))) {
+					errors[i] = "XMLIndexerFieldsConfig relationships: xpath type must be either 'id' or 'url' but found: " + types[i];
+					continue;
+				}
+				try {
+					xPaths[i] = DocumentHelper.createXPath(xPathElement.getText());
+					// A fixed context keeps the XPath from taking one from each record it is evaluated against:
+					xPaths[i].setNamespaceContext(new SimpleNamespaceContext());
+				} catch (Exception e) {
+					errors[i] = e.getMessage();
+				}
+			}
+		}
+
+
+		/**
+		 *  Gets the field or relationship name.
+		 *
+		 * @return    The name
+		 */
+		public String getName() {
+			return name;
+		}
+
+
+		/**
+		 *  Gets how the field content is stored in the index.
+		 *
+		 * @return    The Field.Store
+		 */
+		public Field.Store getStore() {
+			return store;
+		}
+
+
+		/**
+		 *  Gets how the field content is indexed.
+		 *
+		 * @return    The Field.Index
+		 */
+		public Field.Index getIndex() {
+			return index;
+		}
+
+
+		/**
+		 *  Gets the number of xPaths configured for the field.
+		 *
+		 * @return    The number of xPaths
+		 */
+		public int getNumXPaths() {
+			return xPaths.length;
+		}
+
+
+		/**
+		 *  Gets the type of a relationship xPath, 'id' or 'url'.
+		 *
+		 * @param  i  The xPath number
+		 * @return    The type
+		 */
+		public String getType(int i) {
+			return types[i];
+		}
+
+
+		/**
+		 *  Selects the trimmed text of each node matched by an xPath in the given record.
+		 *
+		 * @param  i              The xPath number
+		 * @param  xmlDoc         The localized record
+		 * @return                The text of each match, including empty Strings
+		 * @exception  Exception  If the xPath is not valid or is unable to be evaluated
+		 */
+		public List selectContent(int i, Document xmlDoc) throws Exception {
+			if (errors[i] != null)
+				throw new Exception(errors[i]);
+			List contentNodes = xPaths[i].selectNodes(xmlDoc);
+			List content = new ArrayList(contentNodes.size());
+			for (int j = 0; j < contentNodes.size(); j++) {
+				Object c = contentNodes.get(j);
+				if (c instanceof String)
+					content.add(((String) c).trim());
+				else
+					content.add(((Node) c).getText().trim());
+			}
+			return content;
+		}
+	}
+}
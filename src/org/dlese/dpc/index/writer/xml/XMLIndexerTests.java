@@ -0,0 +1,268 @@
+/*
+	Copyright 2017 Digital Learning Sciences (DLS) at the
+	University Corporation for Atmospheric Research (UCAR),
+	P.O. Box 3000, Boulder, CO 80307
+
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+
+	http://www.apache.org/licenses/LICENSE-2.0
+
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+package org.dlese.dpc.index.writer.xml;
+
+import org.dlese.dpc.util.Files;
+import org.dlese.dpc.xml.*;
+
+import junit.framework.*;
+import java.io.*;
+import java.util.*;
+
+import javax.xml.transform.Transformer;
+
+import org.dom4j.Document;
+import org.dom4j.Node;
+
+import org.apache.lucene.document.Fieldable;
+
+/**
+ *  Checks the fields indexed by {@link XMLIndexer} with the {@link XMLIndexerFieldsPlan} compiled once per
+ *  format against the previous approach, which selected the field definitions from the configuration and
+ *  compiled each xPath for every record, and checks that a plan is compiled again when its configuration
+ *  changes. Two corpora are used: the adn records in the sample_metadata directory and the nsdl_dc records
+ *  produced from them by the adn to nsdl_dc XSL. An XMLIndexerFieldsConfig with custom fields, standard
+ *  fields and relationships for both formats is written to a temporary directory. The throughput of both
+ *  approaches is measured by the XMLIndexerFieldsPlanBenchmark in the benchmarks module. <p>
+ *
+ *  The System property 'xmlindexer.webapp.dir' sets the webapp directory (default 'web').
+ *
+ * @author    John Weatherley
+ */
+public class XMLIndexerTests extends TestCase {
+	private final static String ADN_CONFIG =
+		"<XMLIndexerFieldsConfig xmlFormat='adn'>\n" +
+		"  <standardFields>\n" +
+		"    <standardField name='id'><xpaths><xpath>/itemRecord/metaMetadata/catalogEntries/catalog/@entry</xpath></xpaths></standardField>\n" +
+		"    <standardField name='url'><xpaths><xpath>/itemRecord/technical/online/primaryURL</xpath></xpaths></standardField>\n" +
+		"    <standardField name='title'><xpaths><xpath>/itemRecord/general/title</xpath></xpaths></standardField>\n" +
+		"    <standardField name='description'><xpaths><xpath>/itemRecord/general/description</xpath></xpaths></standardField>\n" +
+		"  </standardFields>\n" +
+		"  <customFields>\n" +
+		"    <customField name='adnKeyword' type='text'><xpaths><xpath>/itemRecord/general/keywords/keyword</xpath></xpaths></customField>\n" +
+		"    <customField name='adnSubject' type='key'><xpaths><xpath>/itemRecord/general/subjects/subject</xpath></xpaths></customField>\n" +
+		"    <customField name='adnAudience' type='key' store='no'><xpaths>" +
+		"<xpath>/itemRecord/educational/audiences/audience/gradeRange</xpath>" +
+		"<xpath>/itemRecord/educational/resourceTypes/resourceType</xpath></xpaths></customField>\n" +
+		"    <customField name='adnContributor' type='stems'><xpaths><xpath>//contributor/person/nameLast | //contributor/organization/instName</xpath></xpaths></customField>\n" +
+		"  </customFields>\n" +
+		"  <relationships>\n" +
+		"    <relationship name='isAnnotatedBy'><xpaths><xpath type='id'>/itemRecord/relations/relation/idEntry/@entry</xpath>" +
+		"<xpath type='url'>/itemRecord/relations/relation/urlEntry/@url</xpath></xpaths></relationship>\n" +
+		"  </relationships>\n" +
+		"</XMLIndexerFieldsConfig>\n";
+
+	private final static String NSDL_DC_CONFIG =
+		"<XMLIndexerFieldsConfig xmlFormat='nsdl_dc'>\n" +
+		"  <standardFields>\n" +
+		"    <standardField name='id'><xpaths><xpath>/nsdl_dc/identifier[1]</xpath></xpaths></standardField>\n" +
+		"    <standardField name='url'><xpaths><xpath>/nsdl_dc/identifier[starts-with(.,'http')]</xpath></xpaths></standardField>\n" +
+		"    <standardField name='title'><xpaths><xpath>/nsdl_dc/title</xpath></xpaths></standardField>\n" +
+		"    <standardField name='description'><xpaths><xpath>/nsdl_dc/description</xpath></xpaths></standardField>\n" +
+		"  </standardFields>\n" +
+		"  <customFields>\n" +
+		"    <customField name='dcSubject' type='text'><xpaths><xpath>/nsdl_dc/subject</xpath></xpaths></customField>\n" +
+		"    <customField name='dcType' type='key'><xpaths><xpath>/nsdl_dc/type</xpath></xpaths></customField>\n" +
+		"    <customField name='dcAudience' type='key'><xpaths><xpath>/nsdl_dc/educationLevel | /nsdl_dc/audience</xpath></xpaths></customField>\n" +
+		"    <customField name='dcCreator' type='stems'><xpaths><xpath>/nsdl_dc/creator</xpath><xpath>/nsdl_dc/contributor</xpath></xpaths></customField>\n" +
+		"  </customFields>\n" +
+		"  <relationships>\n" +
+		"    <relationship name='isPartOf'><xpaths><xpath type='url'>/nsdl_dc/isPartOf</xpath></xpaths></relationship>\n" +
+		"  </relationships>\n" +
+		"</XMLIndexerFieldsConfig>\n";
+
+	File configDir = null;
+	XMLIndexerFieldsConfig config = null;
+	Map corpora = null;
+
+
+	/**
+	 *  A unit test suite for JUnit
+	 *
+	 * @return    The test suite
+	 */
+	public static Test suite() {
+		// Use java reflection to run all test methods in this class:
+		prtln("");
+		return new TestSuite(XMLIndexerTests.class);
+	}
+
+
+	/**
+	 *  The JUnit setup method. Gets called prior to running EACH test method call.
+	 *
+	 * @exception  Exception  If error
+	 */
+	protected void setUp()
+			 throws Exception {
+		prtln(".");
+
+		File webappDir = new File(System.getProperty("xmlindexer.webapp.dir", "web"));
+
+		configDir = File.createTempFile("xmlIndexerFieldsConfig", "");
+		configDir.delete();
+		configDir.mkdirs();
+		Files.writeFile(ADN_CONFIG, new File(configDir, "adn.xml"));
+		Files.writeFile(NSDL_DC_CONFIG, new File(configDir, "nsdl_dc.xml"));
+		writeConfigIndex(new String[]{"adn.xml", "nsdl_dc.xml"});
+		config = new XMLIndexerFieldsConfig(new File(configDir, "xmlIndexerFieldsConfigIndex.xml").toURL());
+
+		List adn = new ArrayList();
+		File[] files = new File(webappDir, "WEB-INF/sample_metadata").listFiles(new XMLFileFilter());
+		for (int i = 0; files != null && i < files.length; i++) {
+			String xml = Files.readFileToEncoding(files[i], "UTF-8").toString();
+			if (xml.indexOf("<itemRecord") != -1)
+				adn.add(xml);
+		}
+		Assert.assertTrue("No adn records found in sample_metadata", adn.size() > 0);
+
+		Transformer toNsdlDc = XSLTransformer.getTransformer(
+			new File(webappDir, "WEB-INF/xsl_files/adn-v0.6.50-to-nsdl_dc-v1.02.xsl").getAbsolutePath());
+		List nsdlDc = new ArrayList();
+		for (int i = 0; i < adn.size(); i++)
+			nsdlDc.add(XSLTransformer.transformString((String) adn.get(i), toNsdlDc));
+
+		corpora = new LinkedHashMap();
+		corpora.put("adn", localize(adn));
+		corpora.put("nsdl_dc", localize(nsdlDc));
+	}
+
+
+	/**
+	 *  Removes the temporary configuration directory.
+	 *
+	 * @exception  Exception  If error
+	 */
+	protected void tearDown()
+			 throws Exception {
+		Files.deleteDirectory(configDir);
+	}
+
+
+	/**
+	 *  Checks that the fields indexed with the plans hold the same content as the configured xPaths select when
+	 *  compiled for each record.
+	 *
+	 * @exception  Exception  If error
+	 */
+	public void test_plan_output_matches_per_record_xpaths()
+			 throws Exception {
+		for (Iterator it = corpora.keySet().iterator(); it.hasNext(); ) {
+			String format = (String) it.next();
+			List docs = (List) corpora.get(format);
+			Document configXmlDoc = config.getFormatConfig(format);
+			List customFields = configXmlDoc.selectNodes("/XMLIndexerFieldsConfig/customFields/customField");
+			for (int i = 0; i < docs.size(); i++) {
+				Document xmlDoc = (Document) docs.get(i);
+				org.apache.lucene.document.Document luceneDoc = new org.apache.lucene.document.Document();
+				XMLIndexer xmlIndexer = new XMLIndexer(xmlDoc, format, config);
+				xmlIndexer.indexFields(luceneDoc);
+
+				for (int j = 0; j < customFields.size(); j++) {
+					Node field = (Node) customFields.get(j);
+					String name = field.valueOf("@name");
+					List expected = selectPerRecord(field, xmlDoc);
+					Assert.assertEquals(format + " record " + i + " field " + name, expected, Arrays.asList(luceneDoc.getValues(name)));
+					Fieldable[] indexed = luceneDoc.getFieldables(name);
+					for (int k = 0; k < indexed.length; k++)
+						Assert.assertEquals(format + " record " + i + " field " + name + " stored", !field.valueOf("@store").equals("no"), indexed[k].isStored());
+				}
+
+				Node titleField = configXmlDoc.selectSingleNode("/XMLIndexerFieldsConfig/standardFields/standardField[@name='title']");
+				List titles = selectPerRecord(titleField, xmlDoc);
+				String title = null;
+				for (int j = 0; j < titles.size(); j++)
+					title = (title == null ? "" : title) + " " + titles.get(j);
+				Assert.assertEquals(format + " record " + i + " title", title, xmlIndexer.getTitle());
+			}
+		}
+	}
+
+
+	/**
+	 *  Checks that the plan for a format is compiled again once its configuration file has been modified.
+	 *
+	 * @exception  Exception  If error
+	 */
+	public void test_plan_reloaded_when_config_modified()
+			 throws Exception {
+		XMLIndexerFieldsPlan plan = config.getFormatPlan("nsdl_dc");
+		Assert.assertSame("Plan was not reused", plan, config.getFormatPlan("nsdl_dc"));
+
+		File confFile = new File(configDir, "nsdl_dc.xml");
+		String modified = NSDL_DC_CONFIG.replaceFirst("<customFields>",
+			"<customFields>\n    <customField name='dcRights' type='text'><xpaths><xpath>/nsdl_dc/rights</xpath></xpaths></customField>");
+		Files.writeFile(modified, confFile);
+		confFile.setLastModified(confFile.lastModified() + 2000);
+
+		config.setReloadCheckInterval(0);
+		XMLIndexerFieldsPlan reloaded = config.getFormatPlan("nsdl_dc");
+		Assert.assertNotSame("Plan was not reloaded", plan, reloaded);
+		Assert.assertEquals("Reloaded plan is missing the new field", plan.getCustomFields().length + 1, reloaded.getCustomFields().length);
+		Assert.assertEquals("dcRights", reloaded.getCustomFields()[0].getName());
+		Assert.assertSame("Plan was reloaded without a modification", reloaded, config.getFormatPlan("nsdl_dc"));
+	}
+
+
+	private static List selectPerRecord(Node field, Document xmlDoc) {
+		List content = new ArrayList();
+		List xPaths = field.selectNodes("xpaths/xpath");
+		for (int i = 0; i < xPaths.size(); i++) {
+			List contentNodes = xmlDoc.selectNodes(((Node) xPaths.get(i)).getText());
+			for (int j = 0; j < contentNodes.size(); j++) {
+				Object c = contentNodes.get(j);
+				String text = (c instanceof String ? (String) c : ((Node) c).getText()).trim();
+				if (text.length() > 0)
+					content.add(text);
+			}
+		}
+		return content;
+	}
+
+
+	private void writeConfigIndex(String[] configFiles) throws Exception {
+		StringBuffer index = new StringBuffer("<XMLIndexerFieldsConfigIndex>\n  <configurationFiles>\n");
+		for (int i = 0; i < configFiles.length; i++)
+			index.append("    <configurationFile>" + configFiles[i] + "</configurationFile>\n");
+		index.append("  </configurationFiles>\n</XMLIndexerFieldsConfigIndex>\n");
+		Files.writeFile(index.toString(), new File(configDir, "xmlIndexerFieldsConfigIndex.xml"));
+	}
+
+
+	private static List localize(List records) throws Exception {
+		List docs = new ArrayList();
+		for (int i = 0; i < records.size(); i++)
+			docs.add(Dom4jUtils.getXmlDocumentLocalized((String) records.get(i)));
+		return docs;
+	}
+
+
+	private static void prtln(String s) {
+		System.out.println(s);
+	}
+
+
+	/**
+	 *  Main method for running this single suite from the command line
+	 *
+	 * @param  args  The command line arguments
+	 */
+	public static void main(String[] args) {
+		junit.textui.TestRunner.run(suite());
+	}
+}
@@ -0,0 +1,453 @@
+/*
+	Copyright 2017 Digital Learning Sciences (DLS) at the
+	University Corporation for Atmospheric Research (UCAR),
+	P.O. Box 3000, Boulder, CO 80307
+
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+
+	http://www.apache.org/licenses/LICENSE-2.0
+
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+package org.dlese.dpc.oai.harvester;
+
+import java.net.URL;
+import java.util.*;
+
+/**
+ *  Runs harvests on a bounded pool of worker threads, so that no more than a set number of harvests run at
+ *  once however many are due at the same time. Harvests wait in a queue ordered by priority, so manual
+ *  harvests run ahead of scheduled ones, then by the order they were submitted. <p>
+ *
+ *  The queue is polite to data providers: no more than a set number of harvests run against the same host at
+ *  once, and a Harvester given this queue with {@link Harvester#setHarvestQueue(HarvestQueue)} waits between
+ *  its requests so that requests to the same host from all harvests are spaced by at least a minimum
+ *  interval. <p>
+ *
+ *  Each harvest is submitted with a key, and a harvest is not queued again while a harvest with the same key
+ *  is waiting or running.
+ *
+ * @author    John Weatherley
+ * @see       ScheduledHarvestManager
+ */
+public final class HarvestQueue {
+	private static boolean debug = false;
+
+	/**  Priority for harvests requested by a user, which run ahead of scheduled harvests. */
+	public final static int PRIORITY_MANUAL = 0;
+
+	/**  Priority for harvests started by their schedule. */
+	public final static int PRIORITY_SCHEDULED = 1;
+
+	private int numWorkers;
+	private int maxPerHost;
+	private long minRequestIntervalMillis;
+
+	// Jobs waiting to run, ordered by priority then submission
+	private LinkedList queue = new LinkedList();
+	// Key to Job, for jobs that are running
+	private HashMap running = new HashMap();
+	// Host (String) to the number of its harvests that are running (int[1])
+	private HashMap runningPerHost = new HashMap();
+	// Host (String) to the earliest time its next request may be sent (long[1])
+	private HashMap nextRequestTimes = new HashMap();
+
+	private List workers = new ArrayList();
+	private long nextSeq = 0;
+	private long numCompleted = 0;
+	private boolean isShutdown = false;
+
+
+	/**
+	 *  Constructor for the HarvestQueue.
+	 *
+	 * @param  numWorkers                The maximum number of harvests that run at once
+	 * @param  maxPerHost                The maximum number of harvests that run at once against the same host
+	 * @param  minRequestIntervalMillis  The minimum time between requests to the same host, or 0 for none
+	 */
+	public HarvestQueue(int numWorkers, int maxPerHost, long minRequestIntervalMillis) {
+		this.maxPerHost = Math.max(1, maxPerHost);
+		this.minRequestIntervalMillis = Math.max(0, minRequestIntervalMillis);
+		setNumWorkers(numWorkers);
+	}
+
+
+	/**
+	 *  Queues a harvest, unless a harvest with the same key is already waiting or running. If the waiting
+	 *  harvest has a lower priority, it is moved up to the given priority, behind the harvests already waiting
+	 *  at that priority, and runs the given task in place of its own, so a harvest requested by a user runs
+	 *  with the options the user asked for.
+	 *
+	 * @param  key          Identifies the harvest, for example the ScheduledHarvest uid
+	 * @param  baseURL      The baseURL of the data provider, used to find its host
+	 * @param  priority     {@link #PRIORITY_MANUAL} or {@link #PRIORITY_SCHEDULED}
+	 * @param  description  A description of the harvest for display
+	 * @param  task         The harvest to run
+	 * @return              True if the harvest was queued, false if a harvest with the same key was already
+	 *      waiting or running
+	 */
+	public synchronized boolean submit(Object key, String baseURL, int priority, String description, Runnable task) {
+		if (isShutdown || running.containsKey(key))
+			return false;
+		Job waiting = findQueued(key);
+		if (waiting != null) {
+			if (priority < waiting.priority) {
+				queue.remove(waiting);
+				waiting.description = description;
+				waiting.task = task;
+				waiting.priority = priority;
+				waiting.seq = nextSeq++;
+				insert(waiting);
+				prtln("Moved up '" + description + "', " + queue.size() + " waiting, " + running.size() + " running");
+			}
+			return false;
+		}
+		insert(new Job(key, getHost(baseURL), priority, nextSeq++, description, task));
+		prtln("Queued '" + description + "', " + queue.size() + " waiting, " + running.size() + " running");
+		notifyAll();
+		return true;
+	}
+
+
+	/**
+	 *  Determines whether a harvest with the given key is waiting to run.
+	 *
+	 * @param  key  The harvest key
+	 * @return      True if waiting
+	 */
+	public synchronized boolean isQueued(Object key) {
+		return findQueued(key) != null;
+	}
+
+
+	/**
+	 *  Determines whether a harvest with the given key is running.
+	 *
+	 * @param  key  The harvest key
+	 * @return      True if running
+	 */
+	public synchronized boolean isRunning(Object key) {
+		return running.containsKey(key);
+	}
+
+
+	/**
+	 *  Gets the number of harvests waiting to run.
+	 *
+	 * @return    The number of harvests waiting
+	 */
+	public synchronized int getNumQueued() {
+		return queue.size();
+	}
+
+
+	/**
+	 *  Gets the number of harvests running.
+	 *
+	 * @return    The number of harvests running
+	 */
+	public synchronized int getNumRunning() {
+		return running.size();
+	}
+
+
+	/**
+	 *  Gets the number of harvests that have finished since this queue was created.
+	 *
+	 * @return    The number of harvests completed
+	 */
+	public synchronized long getNumCompleted() {
+		return numCompleted;
+	}
+
+
+	/**
+	 *  Gets the descriptions of the harvests waiting to run, in the order they will run when their hosts allow.
+	 *
+	 * @return    A List of Strings
+	 */
+	public synchronized List getQueuedDescriptions() {
+		List descriptions = new ArrayList();
+		for (Iterator i = queue.iterator(); i.hasNext(); )
+			descriptions.add(((Job) i.next()).description);
+		return descriptions;
+	}
+
+
+	/**
+	 *  Gets the descriptions of the harvests that are running.
+	 *
+	 * @return    A List of Strings
+	 */
+	public synchronized List getRunningDescriptions() {
+		List descriptions = new ArrayList();
+		for (Iterator i = running.values().iterator(); i.hasNext(); )
+			descriptions.add(((Job) i.next()).description);
+		Collections.sort(descriptions);
+		return descriptions;
+	}
+
+
+	/**
+	 *  Sets the maximum number of harvests that run at once. Workers above the new number stop once their
+	 *  current harvest is done.
+	 *
+	 * @param  numWorkers  The number of worker threads, at least 1
+	 */
+	public synchronized void setNumWorkers(int numWorkers) {
+		this.numWorkers = Math.max(1, numWorkers);
+		while (!isShutdown && workers.size() < this.numWorkers) {
+			Worker worker = new Worker();
+			workers.add(worker);
+			worker.start();
+		}
+		notifyAll();
+	}
+
+
+	/**
+	 *  Gets the maximum number of harvests that run at once.
+	 *
+	 * @return    The number of worker threads
+	 */
+	public synchronized int getNumWorkers() {
+		return numWorkers;
+	}
+
+
+	/**
+	 *  Sets the maximum number of harvests that run at once against the same host.
+	 *
+	 * @param  maxPerHost  The maximum, at least 1
+	 */
+	public synchronized void setMaxPerHost(int maxPerHost) {
+		this.maxPerHost = Math.max(1, maxPerHost);
+		notifyAll();
+	}
+
+
+	/**
+	 *  Gets the maximum number of harvests that run at once against the same host.
+	 *
+	 * @return    The maximum
+	 */
+	public synchronized int getMaxPerHost() {
+		return maxPerHost;
+	}
+
+
+	/**
+	 *  Sets the minimum time between requests to the same host by harvesters that use this queue.
+	 *
+	 * @param  minRequestIntervalMillis  The interval in milliseconds, or 0 for none
+	 */
+	public synchronized void setMinRequestIntervalMillis(long minRequestIntervalMillis) {
+		this.minRequestIntervalMillis = Math.max(0, minRequestIntervalMillis);
+	}
+
+
+	/**
+	 *  Gets the minimum time between requests to the same host.
+	 *
+	 * @return    The interval in milliseconds
+	 */
+	public synchronized long getMinRequestIntervalMillis() {
+		return minRequestIntervalMillis;
+	}
+
+
+	/**
+	 *  Waits until a request may be sent to the host of the given URL and reserves the slot, so that requests
+	 *  to the same host are spaced by at least the minimum request interval.
+	 *
+	 * @param  url                       The URL about to be requested
+	 * @exception  InterruptedException  If interrupted while waiting
+	 */
+	public void awaitRequestSlot(String url) throws InterruptedException {
+		long wait;
+		synchronized (this) {
+			if (minRequestIntervalMillis <= 0)
+				return;
+			String host = getHost(url);
+			long[] next = (long[]) nextRequestTimes.get(host);
+			if (next == null) {
+				next = new long[1];
+				nextRequestTimes.put(host, next);
+			}
+			long now = System.currentTimeMillis();
+			long slot = Math.max(now, next[0]);
+			next[0] = slot + minRequestIntervalMillis;
+			wait = slot - now;
+		}
+		if (wait > 0)
+			Thread.sleep(wait);
+	}
+
+
+	/**  Removes the waiting harvests and stops the workers once their current harvests are done. */
+	public synchronized void shutdown() {
+		isShutdown = true;
+		queue.clear();
+		notifyAll();
+	}
+
+
+	// ---------------------- Internal methods ----------------------
+
+	private void insert(Job job) {
+		ListIterator i = queue.listIterator();
+		while (i.hasNext()) {
+			Job other = (Job) i.next();
+			if (job.priority < other.priority || (job.priority == other.priority && job.seq < other.seq)) {
+				i.previous();
+				break;
+			}
+		}
+		i.add(job);
+	}
+
+
+	private Job findQueued(Object key) {
+		for (Iterator i = queue.iterator(); i.hasNext(); ) {
+			Job job = (Job) i.next();
+			if (job.key.equals(key))
+				return job;
+		}
+		return null;
+	}
+
+
+	/**
+	 *  Waits for the first waiting harvest whose host is below its limit and marks it running.
+	 *
+	 * @param  worker  The calling worker
+	 * @return         The harvest to run, or null if the worker should stop
+	 */
+	private synchronized Job take(Worker worker) {
+		while (true) {
+			if (isShutdown || workers.size() > numWorkers) {
+				workers.remove(worker);
+				return null;
+			}
+			for (Iterator i = queue.iterator(); i.hasNext(); ) {
+				Job job = (Job) i.next();
+				int[] count = (int[]) runningPerHost.get(job.host);
+				if (count == null || count[0] < maxPerHost) {
+					i.remove();
+					if (count == null) {
+						count = new int[1];
+						runningPerHost.put(job.host, count);
+					}
+					count[0]++;
+					running.put(job.key, job);
+					return job;
+				}
+			}
+			try {
+				wait();
+			} catch (InterruptedException e) {
+				workers.remove(worker);
+				return null;
+			}
+		}
+	}
+
+
+	private synchronized void done(Job job) {
+		running.remove(job.key);
+		int[] count = (int[]) runningPerHost.get(job.host);
+		if (count != null && --count[0] <= 0)
+			runningPerHost.remove(job.host);
+		numCompleted++;
+		notifyAll();
+	}
+
+
+	/**
+	 *  Gets the host of the given URL, in lower case, or the URL itself if it can not be parsed.
+	 *
+	 * @param  url  The URL
+	 * @return      The host
+	 */
+	static String getHost(String url) {
+		if (url == null)
+			return "";
+		try {
+			return new URL(url).getHost().toLowerCase();
+		} catch (Throwable t) {
+			return url.toLowerCase();
+		}
+	}
+
+
+	/**  A harvest waiting or running in the queue. */
+	private static class Job {
+		Object key;
+		String host;
+		int priority;
+		long seq;
+		String description;
+		Runnable task;
+
+
+		Job(Object key, String host, int priority, long seq, String description, Runnable task) {
+			this.key = key;
+			this.host = host;
+			this.priority = priority;
+			this.seq = seq;
+			this.description = description;
+			this.task = task;
+		}
+	}
+
+
+	/**  Runs harvests from the queue. */
+	private class Worker extends Thread {
+		Worker() {
+			super("HarvestQueue worker");
+			setDaemon(true);
+			setPriority(Thread.MIN_PRIORITY);
+		}
+
+
+		public void run() {
+			Job job;
+			while ((job = take(this)) != null) {
+				try {
+					job.task.run();
+				} catch (Throwable t) {
+					prtlnErr("Harvest '" + job.description + "' failed: " + t);
+				} finally {
+					done(job);
+				}
+			}
+		}
+	}
+
+
+	/**
+	 *  Sets the debug attribute of the HarvestQueue class
+	 *
+	 * @param  isDebugOutput  The new debug value
+	 */
+	public static void setDebug(boolean isDebugOutput) {
+		debug = isDebugOutput;
+	}
+
+
+	private static void prtln(String s) {
+		if (debug)
+			System.out.println("HarvestQueue: " + s);
+	}
+
+
+	private static void prtlnErr(String s) {
+		System.err.println("HarvestQueue Error: " + s);
+	}
+}
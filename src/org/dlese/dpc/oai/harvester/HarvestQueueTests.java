@@ -0,0 +1,284 @@
+/*
+	Copyright 2017 Digital Learning Sciences (DLS) at the
+	University Corporation for Atmospheric Research (UCAR),
+	P.O. Box 3000, Boulder, CO 80307
+
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+
+	http://www.apache.org/licenses/LICENSE-2.0
+
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+package org.dlese.dpc.oai.harvester;
+
+import junit.framework.*;
+import java.util.*;
+
+/**
+ *  Checks the {@link HarvestQueue}: that a burst of harvests that all come due at once runs with no more than
+ *  the set number of harvests at once, overall and against one host, that manual harvests run ahead of
+ *  scheduled ones, and that requests to a host are spaced by the minimum request interval. Each simulated
+ *  harvest holds a buffer, standing in for the DOM of a response, for a fixed time while it sends requests to
+ *  its host. The throughput of a burst, in the queue and with a thread for each harvest, is measured by the
+ *  HarvestQueueBenchmark in the benchmarks module. <p>
+ *
+ *  The following System properties may be used to configure the run: 'queue.num.harvests' (default 60),
+ *  'queue.num.hosts' (default 12), 'queue.workers' (default 4), 'queue.harvest.ms' (default 100) and
+ *  'queue.harvest.bytes' (default 4000000).
+ *
+ * @author    John Weatherley
+ */
+public class HarvestQueueTests extends TestCase {
+	int numHarvests;
+	int numHosts;
+	int numWorkers;
+	long harvestMs;
+	int harvestBytes;
+
+	int running;
+	int peakRunning;
+	HashMap runningPerHost;
+	int peakPerHost;
+
+
+	/**
+	 *  A unit test suite for JUnit
+	 *
+	 * @return    The test suite
+	 */
+	public static Test suite() {
+		// Use java reflection to run all test methods in this class:
+		prtln("");
+		return new TestSuite(HarvestQueueTests.class);
+	}
+
+
+	/**
+	 *  The JUnit setup method. Gets called prior to running EACH test method call.
+	 *
+	 * @exception  Exception  If error
+	 */
+	protected void setUp()
+			 throws Exception {
+		prtln(".");
+		numHarvests = Integer.getInteger("queue.num.harvests", 60).intValue();
+		numHosts = Integer.getInteger("queue.num.hosts", 12).intValue();
+		numWorkers = Integer.getInteger("queue.workers", 4).intValue();
+		harvestMs = Long.getLong("queue.harvest.ms", 100).longValue();
+		harvestBytes = Integer.getInteger("queue.harvest.bytes", 4000000).intValue();
+		resetCounts();
+	}
+
+
+	/**
+	 *  Checks that no more than the set number of harvests run at once, overall and per host, and that every
+	 *  harvest runs once.
+	 *
+	 * @exception  Exception  If error
+	 */
+	public void test_bounded_concurrency()
+			 throws Exception {
+		HarvestQueue queue = new HarvestQueue(numWorkers, 1, 0);
+		int[] runs = new int[numHarvests];
+		for (int i = 0; i < numHarvests; i++)
+			Assert.assertTrue(queue.submit(new Integer(i), getBaseURL(i), HarvestQueue.PRIORITY_SCHEDULED, "harvest " + i, new SimulatedHarvest(i, runs)));
+		// A harvest already waiting is not queued twice
+		Assert.assertFalse(queue.submit(new Integer(numHarvests - 1), getBaseURL(numHarvests - 1), HarvestQueue.PRIORITY_SCHEDULED, "again", new SimulatedHarvest(0, runs)));
+		awaitCompletion(queue, numHarvests);
+		queue.shutdown();
+
+		for (int i = 0; i < numHarvests; i++)
+			Assert.assertEquals("Harvest " + i + " runs", 1, runs[i]);
+		Assert.assertTrue("Peak running " + peakRunning, peakRunning <= numWorkers);
+		Assert.assertEquals("Peak running per host", 1, peakPerHost);
+	}
+
+
+	/**
+	 *  Checks that a manual harvest submitted behind waiting scheduled harvests runs before them.
+	 *
+	 * @exception  Exception  If error
+	 */
+	public void test_manual_ahead_of_scheduled()
+			 throws Exception {
+		HarvestQueue queue = new HarvestQueue(1, 1, 0);
+		final List order = Collections.synchronizedList(new ArrayList());
+		final Object gate = new Object();
+		final boolean[] open = {false};
+
+		// Hold the only worker until everything is queued
+		queue.submit("first", "http://a.example.org/oai", HarvestQueue.PRIORITY_SCHEDULED, "first",
+			new Runnable() {
+				public void run() {
+					synchronized (gate) {
+						while (!open[0]) {
+							try {
+								gate.wait();
+							} catch (InterruptedException e) {}
+						}
+					}
+					order.add("first");
+				}
+			});
+		while (queue.getNumRunning() == 0)
+			Thread.sleep(5);
+		for (int i = 0; i < 3; i++)
+			queue.submit("scheduled" + i, getBaseURL(i), HarvestQueue.PRIORITY_SCHEDULED, "scheduled" + i, new Recorder("scheduled" + i, order));
+		queue.submit("manual", getBaseURL(5), HarvestQueue.PRIORITY_MANUAL, "manual", new Recorder("manual", order));
+		// Asking for a waiting scheduled harvest now moves it ahead of the other scheduled harvests, with the new task
+		Assert.assertFalse(queue.submit("scheduled2", getBaseURL(2), HarvestQueue.PRIORITY_MANUAL, "scheduled2", new Recorder("again", order)));
+		Assert.assertEquals(Arrays.asList(new String[]{"manual", "scheduled2", "scheduled0", "scheduled1"}), queue.getQueuedDescriptions());
+
+		synchronized (gate) {
+			open[0] = true;
+			gate.notifyAll();
+		}
+		awaitCompletion(queue, 5);
+		queue.shutdown();
+		Assert.assertEquals(Arrays.asList(new String[]{"first", "manual", "again", "scheduled0", "scheduled1"}), order);
+	}
+
+
+	/**
+	 *  Checks that requests to the same host from several threads are spaced by the minimum request interval,
+	 *  and that requests to other hosts are not held up.
+	 *
+	 * @exception  Exception  If error
+	 */
+	public void test_request_interval()
+			 throws Exception {
+		final HarvestQueue queue = new HarvestQueue(1, 4, 50);
+		final List times = Collections.synchronizedList(new ArrayList());
+		Thread[] threads = new Thread[4];
+		for (int t = 0; t < threads.length; t++) {
+			threads[t] =
+				new Thread() {
+					public void run() {
+						try {
+							for (int i = 0; i < 3; i++) {
+								queue.awaitRequestSlot("http://slow.example.org/oai?verb=ListRecords");
+								times.add(new Long(System.currentTimeMillis()));
+							}
+						} catch (InterruptedException e) {}
+					}
+				};
+			threads[t].start();
+		}
+		long start = System.currentTimeMillis();
+		queue.awaitRequestSlot("http://other.example.org/oai?verb=Identify");
+		long otherWait = System.currentTimeMillis() - start;
+		for (int t = 0; t < threads.length; t++)
+			threads[t].join();
+		queue.shutdown();
+
+		List sorted = new ArrayList(times);
+		Collections.sort(sorted);
+		for (int i = 1; i < sorted.size(); i++) {
+			long gap = ((Long) sorted.get(i)).longValue() - ((Long) sorted.get(i - 1)).longValue();
+			Assert.assertTrue("Requests " + gap + " ms apart", gap >= 45);
+		}
+		Assert.assertTrue("Other host waited " + otherWait + " ms", otherWait < 45);
+	}
+
+
+	private String getBaseURL(int i) {
+		return "http://provider" + (i % numHosts) + ".example.org/oai";
+	}
+
+
+	private void resetCounts() {
+		running = 0;
+		peakRunning = 0;
+		runningPerHost = new HashMap();
+		peakPerHost = 0;
+	}
+
+
+	private void awaitCompletion(HarvestQueue queue, int num) throws Exception {
+		long timeout = System.currentTimeMillis() + 60000;
+		while (queue.getNumCompleted() < num) {
+			Assert.assertTrue("Harvests did not complete", System.currentTimeMillis() < timeout);
+			Thread.sleep(10);
+		}
+	}
+
+
+	/**  Stands in for a harvest: holds a buffer while it runs and records how many are running. */
+	private class SimulatedHarvest implements Runnable {
+		int num;
+		int[] runs;
+
+
+		SimulatedHarvest(int num, int[] runs) {
+			this.num = num;
+			this.runs = runs;
+		}
+
+
+		public void run() {
+			String host = HarvestQueue.getHost(getBaseURL(num));
+			synchronized (HarvestQueueTests.this) {
+				runs[num]++;
+				running++;
+				peakRunning = Math.max(peakRunning, running);
+				int[] count = (int[]) runningPerHost.get(host);
+				if (count == null) {
+					count = new int[1];
+					runningPerHost.put(host, count);
+				}
+				count[0]++;
+				peakPerHost = Math.max(peakPerHost, count[0]);
+			}
+			byte[] response = new byte[harvestBytes];
+			Arrays.fill(response, (byte) num);
+			try {
+				Thread.sleep(harvestMs);
+			} catch (InterruptedException e) {}
+			synchronized (HarvestQueueTests.this) {
+				running--;
+				((int[]) runningPerHost.get(host))[0]--;
+			}
+			if (response[0] != (byte) num)
+				throw new RuntimeException("Buffer changed");
+		}
+	}
+
+
+	/**  Records that it ran. */
+	private static class Recorder implements Runnable {
+		String name;
+		List order;
+
+
+		Recorder(String name, List order) {
+			this.name = name;
+			this.order = order;
+		}
+
+
+		public void run() {
+			order.add(name);
+		}
+	}
+
+
+	private static void prtln(String s) {
+		System.out.println(s);
+	}
+
+
+	/**
+	 *  Main method for running this single suite from the command line
+	 *
+	 * @param  args  The command line arguments
+	 */
+	public static void main(String[] args) {
+		junit.textui.TestRunner.run(suite());
+	}
+}
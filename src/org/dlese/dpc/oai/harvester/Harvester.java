@@ -20,11 +20,15 @@ package org.dlese.dpc.oai.harvester;
 import org.dlese.dpc.oai.*;
 import org.dlese.dpc.util.*;
 
+import java.io.BufferedOutputStream;
 import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
 import java.io.Serializable;
 import java.io.File;
 import java.io.FileWriter;
+import java.io.FileInputStream;
 import java.io.FileOutputStream;
+import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.InputStream;
 import java.io.IOException;
@@ -43,6 +47,11 @@ import lattelib.util.zip.*;
 
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 
 import org.apache.xml.serialize.XMLSerializer;
 import org.apache.xml.serialize.OutputFormat;
@@ -110,13 +119,23 @@ public class Harvester implements ErrorHandler {
 	private long endTime = 0;
 	private boolean isRunning = false;
 	private boolean hasDoneHarvest = false;
-	private boolean killed = false;
+	// Set by kill() from another thread and read by the harvest and page fetcher threads
+	private volatile boolean killed = false;
 	private String outputDir = "";
 	private HarvestMessageHandler msgHandler = null;
 	private int messagingNum = 100;
 	private long harvestId;
 	private int timeOutMilliseconds = 180000;
 	private OAIChangeListener oaiChangeListener = null;
+	private boolean streamingEnabled = true;
+	private int numPrefetchPages = 0;
+	private boolean packedStorageEnabled = false;
+	private PackedRecordStore recordStore = null;
+	private HarvestQueue harvestQueue = null;
+	private PageFetcher pageFetcher = null;
+	private volatile InputStream activeStream = null;
+	private XMLInputFactory xmlInputFactory = null;
+	private DocumentBuilder recordDocBuilder = null;
 
 
 	/**
@@ -367,10 +386,106 @@ public class Harvester implements ErrorHandler {
 	}
 
 
-	/**  Gracefully kills the harvest after the current record is finished being harvested. */
+	/**
+	 *  Gracefully kills the harvest after the current record is finished being harvested. Any request to the data
+	 *  provider that is in progress is aborted.
+	 */
 	public void kill() {
 		prtln("Harvester kill() ");
 		killed = true;
+
+		// Cancel any fetch that is in progress:
+		PageFetcher fetcher = pageFetcher;
+		if (fetcher != null)
+			fetcher.cancel();
+		closeActiveStream();
+	}
+
+
+	/**
+	 *  Sets whether ListRecords responses are parsed as a stream, one record at a time, rather than building a
+	 *  DOM of the entire response. Streaming keeps memory use bounded by the size of the largest record
+	 *  regardless of the size of each response and writes the same files. Defaults to true.
+	 *
+	 * @param  streamingEnabled  True to stream responses, false to parse each response into a single DOM
+	 */
+	public void setStreamingEnabled(boolean streamingEnabled) {
+		this.streamingEnabled = streamingEnabled;
+	}
+
+
+	/**
+	 *  Determines whether ListRecords responses are parsed as a stream, one record at a time.
+	 *
+	 * @return    True if streaming is enabled
+	 */
+	public boolean isStreamingEnabled() {
+		return streamingEnabled;
+	}
+
+
+	/**
+	 *  Sets the number of ListRecords pages that may be fetched ahead of the page whose records are being
+	 *  written. When greater than 0, the next page is requested on a separate thread as soon as the
+	 *  resumptionToken of the current page has been read, so network and disk I/O overlap. At most this many
+	 *  pages are held waiting to be written, each with all of its records in memory. Responses are streamed as described in {@link
+	 *  #setStreamingEnabled}. Defaults to 0, which requests each page only after the previous page has been
+	 *  written.
+	 *
+	 * @param  numPrefetchPages  The maximum number of pages fetched ahead, or 0 to disable
+	 */
+	public void setNumPrefetchPages(int numPrefetchPages) {
+		this.numPrefetchPages = Math.max(0, numPrefetchPages);
+	}
+
+
+	/**
+	 *  Gets the number of ListRecords pages that may be fetched ahead of the page whose records are being
+	 *  written.
+	 *
+	 * @return    The numPrefetchPages value, or 0 if disabled
+	 */
+	public int getNumPrefetchPages() {
+		return numPrefetchPages;
+	}
+
+
+	/**
+	 *  Sets whether harvested records are saved in a {@link PackedRecordStore} in the output directory rather
+	 *  than one file per record. Records are stored under the same relative paths the files would have, and
+	 *  records that have not changed since the previous harvest are not written again. The zip archive of the
+	 *  harvest is written from the store. Use {@link PackedRecordStore#exportFiles(File)} to write the records
+	 *  out as files. A harvest into a directory that was previously harvested with a different setting should
+	 *  harvest all records. Defaults to false.
+	 *
+	 * @param  packedStorageEnabled  True to save records in a PackedRecordStore, false to save one file per
+	 *      record
+	 */
+	public void setPackedStorageEnabled(boolean packedStorageEnabled) {
+		this.packedStorageEnabled = packedStorageEnabled;
+	}
+
+
+	/**
+	 *  Determines whether harvested records are saved in a {@link PackedRecordStore}.
+	 *
+	 * @return    True if packed storage is enabled
+	 */
+	public boolean isPackedStorageEnabled() {
+		return packedStorageEnabled;
+	}
+
+
+	/**
+	 *  Sets the HarvestQueue this harvest runs in. Before each request the harvester waits for the queue's
+	 *  minimum request interval for the data provider's host, which is shared with the other harvests in the
+	 *  queue. Defaults to null, for no waiting between requests.
+	 *
+	 * @param  harvestQueue  The HarvestQueue, or null
+	 * @see                  HarvestQueue#awaitRequestSlot(String)
+	 */
+	public void setHarvestQueue(HarvestQueue harvestQueue) {
+		this.harvestQueue = harvestQueue;
 	}
 
 
@@ -589,7 +704,6 @@ public class Harvester implements ErrorHandler {
 
 			int ipref;
 
-			String verb = "ListRecords";
 			String resumption = null;
 			LinkedList reslist = null;
 			if (outdir == null) {
@@ -661,6 +775,14 @@ public class Harvester implements ErrorHandler {
 				throw new Hexception(errorMsg);
 			}
 
+			if (packedStorageEnabled && oD != null) {
+				try {
+					recordStore = new PackedRecordStore(oD);
+				} catch (IOException e) {
+					throw new Hexception("Unable to open packed record store in '" + oD.getAbsolutePath() + "': " + e.getMessage());
+				}
+			}
+
 			// If metadataPrefix is not specified, harvest all supported formats
 			String[] prefices;
 			if (metadataPrefix == null) {
@@ -672,64 +794,46 @@ public class Harvester implements ErrorHandler {
 
 			for (ipref = 0; ipref < prefices.length; ipref++) {
 				String prefix = prefices[ipref];
+
+				// Fetch the next page in the background while the records in the current page are written:
+				if (numPrefetchPages > 0) {
+					harvestPipelined(prefix, baseURL, setSpec, from, until, reslist, outdir, splitBySet, writeHeaders);
+					continue;
+				}
+
 				while (true) {
 					if (killed) {
 						throw new Hexception("Harvest received kill signal");
 					}
-					String request = baseURL;
-					String reqMessage;
-					if (resumption == null) {
-						request += "?verb=" + verb;
-						request += "&metadataPrefix=" + URLEncoder.encode(prefix, "UTF-8");
-						if (setSpec != null && setSpec.length() > 0) {
-							request += "&set=" + URLEncoder.encode(setSpec, "UTF-8");
-						}
-						if (from != null) {
-							request += "&from="
-									 + formatDate(granularity, from);
-						}
-						if (until != null) {
-							request += "&until="
-									 + formatDate(granularity, until);
-						}
-						reqMessage = "A request for ListRecords has been made. Establishing connection with the data provider...";
-					}
-					else {
-						reqMessage = "A request for ListRecords with resumptionToken " + resumption + " has been made. Establishing connection with the data provider...";
-
-						prtln("\n\nResumption unencoded is: " + resumption + "\n\n");
-						try {
-							resumption = URLEncoder.encode(resumption, "UTF-8");
-						} catch (Exception e) {}
-						request += "?verb=" + verb
-								 + "&resumptionToken=" + resumption;
-						//prtln("\n\nResumption encoded is: " + resumption + "\n\n");
-					}
-
 					if (msgHandler != null) {
-						msgHandler.statusMessage(reqMessage);
+						msgHandler.statusMessage(getListRecordsMessage(resumption));
 					}
+					String request = getListRecordsRequest(baseURL, prefix, setSpec, from, until, resumption);
 
 					// Perform the harvest...
 					prtln("sending request '" + request + "'");
-					Document doc = getDoc(request);
-					if (bugs >= 10) {
-						try {
-							prtln("\n========== begin doc");
-							XMLSerializer ser = new XMLSerializer(System.out, null);
-							ser.serialize(doc);
-							prtln("\n========== end doc\n");
-						} catch (IOException ioe) {
-							throw new Hexception("cannot serialize: " + ioe);
+					if (streamingEnabled) {
+						resumption = streamRecords(prefix, request, reslist, outdir, baseURL, splitBySet, writeHeaders, null);
+					}
+					else {
+						Document doc = getDoc(request);
+						if (bugs >= 10) {
+							try {
+								prtln("\n========== begin doc");
+								XMLSerializer ser = new XMLSerializer(System.out, null);
+								ser.serialize(doc);
+								prtln("\n========== end doc\n");
+							} catch (IOException ioe) {
+								throw new Hexception("cannot serialize: " + ioe);
+							}
 						}
+						resumption = extractRecords(prefix, doc, reslist, outdir, baseURL, splitBySet, writeHeaders);
 					}
-					resumption = extractRecords(prefix, doc, reslist, outdir, baseURL, splitBySet, writeHeaders);
 					if (resumption == null) {
 						break;
 					}
 				}
 			}
-
 			if (setSpec == null) {
 				setSpec = "";
 			}
@@ -749,12 +853,17 @@ public class Harvester implements ErrorHandler {
 			File harvestedToDir = null;
 			File[] harvestedFiles = null;
 			String fullZipFileName = null;
-			if (outdir != null) {
+			if (recordStore != null) {
+				recordStore.flush();
+				if (recordStore.compact())
+					prtln("Compacted packed record store in " + outdir);
+			}
+			else if (outdir != null) {
 				harvestedToDir = new File(outdir);
 				harvestedFiles = harvestedToDir.listFiles();
 			}
 
-			if (harvestedFiles == null || harvestedFiles.length == 0) {
+			if (recordStore != null ? recordStore.size() == 0 : harvestedFiles == null || harvestedFiles.length == 0) {
 				// Do nothing...
 			}
 			else if (zipName == null || zipName.trim().length() == 0) {
@@ -793,8 +902,18 @@ public class Harvester implements ErrorHandler {
 				// Create the zip:
 				if (errorMsg == null) {
 					try {
-						ZipFile zipFile = new ZipFile(fullZipFileName);
-						zipFile.compress(harvestedToDir.getAbsolutePath());
+						if (recordStore != null) {
+							OutputStream out = new BufferedOutputStream(new FileOutputStream(fullZipFileName));
+							try {
+								recordStore.writeZip(out);
+							} finally {
+								out.close();
+							}
+						}
+						else {
+							ZipFile zipFile = new ZipFile(fullZipFileName);
+							zipFile.compress(harvestedToDir.getAbsolutePath());
+						}
 					} catch (Throwable t) {
 						errorMsg = "Unable to create zip archive: " + t.getMessage();
 					}
@@ -853,6 +972,14 @@ public class Harvester implements ErrorHandler {
 			throw he;
 		} finally {
 			isRunning = false;
+			if (recordStore != null) {
+				try {
+					recordStore.close();
+				} catch (IOException e) {
+					prtlnErr("Unable to close packed record store: " + e);
+				}
+				recordStore = null;
+			}
 		}
 
 	}
@@ -997,6 +1124,505 @@ public class Harvester implements ErrorHandler {
 
 
 
+	/**
+	 *  Builds the ListRecords request for the first page, or for the page that follows a resumptionToken.
+	 *
+	 * @param  baseURL                The base URL
+	 * @param  prefix                 The metadata prefix.
+	 * @param  setSpec                The set, or null
+	 * @param  from                   The from date, or null
+	 * @param  until                  The until date, or null
+	 * @param  resumption             The unencoded resumptionToken, or null for the first page
+	 * @return                        The request URL
+	 * @exception  Hexception         If error
+	 */
+	private String getListRecordsRequest(
+			String baseURL,
+			String prefix,
+			String setSpec,
+			Date from,
+			Date until,
+			String resumption)
+			 throws Hexception {
+		String verb = "ListRecords";
+		String request = baseURL;
+		try {
+			if (resumption == null) {
+				request += "?verb=" + verb;
+				request += "&metadataPrefix=" + URLEncoder.encode(prefix, "UTF-8");
+				if (setSpec != null && setSpec.length() > 0) {
+					request += "&set=" + URLEncoder.encode(setSpec, "UTF-8");
+				}
+				if (from != null) {
+					request += "&from="
+							 + formatDate(granularity, from);
+				}
+				if (until != null) {
+					request += "&until="
+							 + formatDate(granularity, until);
+				}
+			}
+			else {
+				prtln("\n\nResumption unencoded is: " + resumption + "\n\n");
+				try {
+					resumption = URLEncoder.encode(resumption, "UTF-8");
+				} catch (Exception e) {}
+				request += "?verb=" + verb
+						 + "&resumptionToken=" + resumption;
+				//prtln("\n\nResumption encoded is: " + resumption + "\n\n");
+			}
+		} catch (IOException e) {
+			throw new Hexception("Unable to encode request: " + e);
+		}
+		return request;
+	}
+
+
+	/**
+	 *  Gets the status message sent when a ListRecords request is made.
+	 *
+	 * @param  resumption  The resumptionToken, or null for the first page
+	 * @return             The message
+	 */
+	private String getListRecordsMessage(String resumption) {
+		if (resumption == null)
+			return "A request for ListRecords has been made. Establishing connection with the data provider...";
+		else
+			return "A request for ListRecords with resumptionToken " + resumption + " has been made. Establishing connection with the data provider...";
+	}
+
+
+	/**
+	 *  Harvests all pages for the given metadata prefix, fetching up to {@link #getNumPrefetchPages} pages ahead
+	 *  on a {@link PageFetcher} thread while the records from earlier pages are written on this thread.
+	 *
+	 * @param  prefix                 The metadata prefix.
+	 * @param  baseURL                The base URL
+	 * @param  setSpec                The set, or null
+	 * @param  from                   The from date, or null
+	 * @param  until                  The until date, or null
+	 * @param  reslist                The result list, used only when outdir is null.
+	 * @param  outdir                 The output directory.
+	 * @param  splitBySet             True to split records into sub-directories by set
+	 * @param  writeHeaders           True to have header files written.
+	 * @exception  Hexception         If serious error.
+	 * @exception  OAIErrorException  If OAI error.
+	 */
+	private void harvestPipelined(
+			String prefix,
+			String baseURL,
+			String setSpec,
+			Date from,
+			Date until,
+			LinkedList reslist,
+			String outdir,
+			boolean splitBySet,
+			boolean writeHeaders)
+			 throws Hexception, OAIErrorException {
+		PageFetcher fetcher = new PageFetcher(prefix, baseURL, setSpec, from, until, numPrefetchPages);
+		pageFetcher = fetcher;
+		fetcher.start();
+		try {
+			String resumption = null;
+			do {
+				if (killed) {
+					throw new Hexception("Harvest received kill signal");
+				}
+				if (msgHandler != null) {
+					msgHandler.statusMessage(getListRecordsMessage(resumption));
+				}
+				Page page = fetcher.takePage();
+				for (int i = 0; i < page.records.size(); i++) {
+					if (killed) {
+						throw new Hexception("Harvest received kill signal");
+					}
+					Document recdoc = (Document) page.records.get(i);
+					Element hdr = mustFindChild(recdoc.getDocumentElement(), "header");
+					extractContent(prefix, hdr, reslist, outdir, recdoc, baseURL, splitBySet, writeHeaders);
+				}
+				resumption = page.resumption;
+				if (resumption != null) {
+					resumpCount++;
+				}
+			} while (resumption != null);
+		} finally {
+			fetcher.cancel();
+			pageFetcher = null;
+		}
+	}
+
+
+	/**
+	 *  Retrieves a ListRecords response via http and extracts its records while the response is parsed as a
+	 *  stream. Each &lt;record&gt; is read into a small DOM of its own and handed to {@link #extractContent}, so
+	 *  the files written are the same as when the entire response is parsed into a single DOM by {@link
+	 *  #getDoc}, but only one record is held in memory at a time.
+	 *
+	 * @param  prefix                 The metadata prefix.
+	 * @param  request                The http request, e.g., "http://www.x.com/..."
+	 * @param  reslist                The result list, used only when outdir is null.
+	 * @param  outdir                 The output directory.
+	 * @param  baseURL                The base URL
+	 * @param  splitBySet             True to split records into sub-directories by set
+	 * @param  writeHeaders           True to have header files written.
+	 * @param  pageRecords            If not null, the DOM for each record is added to this List rather than
+	 *      extracted, and reslist, outdir, splitBySet and writeHeaders are not used.
+	 * @return                        Returns a resumption token, or null if none.
+	 * @exception  Hexception         If serious error.
+	 * @exception  OAIErrorException  If OAI error.
+	 */
+	private String streamRecords(
+			String prefix,
+			String request,
+			LinkedList reslist,
+			String outdir,
+			String baseURL, boolean splitBySet,
+			boolean writeHeaders,
+			List pageRecords)
+			 throws Hexception, OAIErrorException {
+
+		if (bugs >= 1) {
+			prtln("streamRecords: request: \"" + request + "\"");
+		}
+		InputStream istm = null;
+		XMLStreamReader reader = null;
+		awaitRequestSlot(request);
+		try {
+			istm = TimedURLConnection.getInputStream(request, timeOutMilliseconds);
+			activeStream = istm;
+			if (killed) {
+				throw new Hexception("Harvest received kill signal");
+			}
+			reader = getXMLInputFactory().createXMLStreamReader(istm);
+			return extractRecords(prefix, reader, reslist, outdir, baseURL, splitBySet, writeHeaders, pageRecords);
+		} catch (URLConnectionTimedOutException uctoe) {
+			throw new Hexception(uctoe.getMessage());
+		} catch (XMLStreamException exc) {
+			// The stream is closed by kill():
+			if (killed)
+				throw new Hexception("Harvest received kill signal");
+			throw new Hexception("The request for data resulted in an invalid response from the provider. Error: " +
+					exc.getMessage());
+		} catch (IOException exc) {
+			if (killed)
+				throw new Hexception("Harvest received kill signal");
+			String msg = "";
+			if (exc.getMessage() != null && exc.getMessage().matches(".*respcode.*")) {
+				msg =
+						"The request for data resulted in an invalid response from the provider." +
+						" The baseURL indicated may be incorrect or the service may be unavailable." +
+						" HTTP response: " + exc.getMessage();
+			}
+			else {
+				msg =
+						"The request for data resulted in an invalid response from the provider. Error: " +
+						exc.getMessage();
+			}
+			throw new Hexception(msg);
+		} finally {
+			activeStream = null;
+			try {
+				if (reader != null)
+					reader.close();
+				if (istm != null)
+					istm.close();
+			} catch (Throwable t) {}
+		}
+	}
+
+
+	/**  Closes the response stream currently being read, if any, which aborts the request. */
+	private void closeActiveStream() {
+		InputStream istm = activeStream;
+		if (istm != null) {
+			try {
+				istm.close();
+			} catch (Throwable t) {}
+		}
+	}
+
+
+	/**
+	 *  Extracts records from an OAI XML response as it is read from the given stream. If outdir is null,
+	 *  appends them to reslist. If outdir is not null, writes them to the appropriate subdir of outdir.
+	 *
+	 * @param  prefix                 The metadata prefix.
+	 * @param  reader                 The stream, positioned at the start of the response.
+	 * @param  reslist                The result list, used only when outdir is null.
+	 * @param  outdir                 The output directory.
+	 * @param  baseURL                The base URL
+	 * @param  splitBySet             True to split records into sub-directories by set
+	 * @param  writeHeaders           True to have header files written.
+	 * @param  pageRecords            If not null, the DOM for each record is added to this List rather than
+	 *      extracted.
+	 * @return                        Returns a resumption token, or null if none.
+	 * @exception  Hexception         If serious error.
+	 * @exception  OAIErrorException  If OAI error.
+	 * @exception  XMLStreamException If the response is not well-formed.
+	 */
+	private String extractRecords(
+			String prefix,
+			XMLStreamReader reader,
+			LinkedList reslist,
+			String outdir,
+			String baseURL, boolean splitBySet,
+			boolean writeHeaders,
+			List pageRecords)
+			 throws Hexception, OAIErrorException, XMLStreamException {
+		String resumption = null;
+		int numRecords = 0;
+		boolean foundRequestURL = false;
+
+		// Move to the root element:
+		while (reader.hasNext() && reader.next() != XMLStreamConstants.START_ELEMENT) {
+		}
+		if (!reader.isStartElement())
+			throw new Hexception("The data provider returned an invalid response to the ListRecords request: " +
+					"Element not found: \"record\"");
+
+		// Records are children of ListRecords, or of the root element in protocol version 1.1:
+		int depth = 1;
+		int verbDepth = 1;
+		while (reader.hasNext() && depth > 0) {
+			int event = reader.next();
+			if (event == XMLStreamConstants.END_ELEMENT) {
+				depth--;
+				continue;
+			}
+			if (event != XMLStreamConstants.START_ELEMENT)
+				continue;
+
+			String name = getQName(reader);
+			if (depth == 1 && name.equals("error")) {
+				String oaiErrCode = reader.getAttributeValue(null, "code");
+				Document errdoc = getRecordDocBuilder().newDocument();
+				Element errele = readElement(reader, errdoc);
+				throw new OAIErrorException(oaiErrCode == null ? "" : oaiErrCode, getContent(errele));
+			}
+			else if (depth == 1 && name.equals("ListRecords")) {
+				depth++;
+				verbDepth = depth;
+			}
+			else if (depth == verbDepth && name.equals("record")) {
+				if (killed) {
+					throw new Hexception("Harvest received kill signal");
+				}
+				Document recdoc = getRecordDocBuilder().newDocument();
+				Element recele = readElement(reader, recdoc);
+				recdoc.appendChild(recele);
+				if (pageRecords != null) {
+					pageRecords.add(recdoc);
+				}
+				else {
+					Element hdr = mustFindChild(recele, "header");
+					extractContent(prefix, hdr, reslist, outdir, recdoc, baseURL, splitBySet, writeHeaders);
+				}
+				numRecords++;
+			}
+			else if (depth == verbDepth && name.equals("resumptionToken") && numRecords > 0) {
+				resumption = getContent(readElement(reader, getRecordDocBuilder().newDocument()));
+				if (resumption.length() == 0) {
+					resumption = null;
+				}
+				else if (pageRecords == null) {
+					// Pages fetched ahead are counted by the harvest thread when it takes them
+					resumpCount++;
+				}
+				break;
+			}
+			else {
+				if (depth == verbDepth && name.equals("requestURL"))
+					foundRequestURL = true;
+				skipElement(reader);
+			}
+		}
+
+		if (numRecords == 0) {
+			if (foundRequestURL) {
+				throw new Hexception("No matching records were returned by the data provider (protocol version 1.x)");
+			}
+			throw new Hexception("The data provider returned an invalid response to the ListRecords request: " +
+					"Element not found: \"record\"");
+		}
+		return resumption;
+	}
+
+
+	/**
+	 *  Reads the element at the current START_ELEMENT of the stream, and all of its content, into a new Element
+	 *  owned by the given Document. The Element is built the same way the DOM parser used by {@link #getDoc}
+	 *  builds it: namespace declarations are kept as xmlns attributes, comments are dropped and adjacent text is
+	 *  joined into a single Text node. On return the stream is positioned at the element's END_ELEMENT.
+	 *
+	 * @param  reader                 The stream, positioned at a START_ELEMENT
+	 * @param  doc                    The Document that will own the new Element
+	 * @return                        The Element, not yet attached to the Document
+	 * @exception  XMLStreamException If the response is not well-formed.
+	 */
+	private Element readElement(XMLStreamReader reader, Document doc) throws XMLStreamException {
+		Element root = createElement(reader, doc);
+		Node current = root;
+		StringBuffer text = new StringBuffer();
+		StringBuffer cdata = new StringBuffer();
+		while (true) {
+			int event = reader.next();
+			if (event == XMLStreamConstants.CHARACTERS || event == XMLStreamConstants.SPACE) {
+				appendPending(cdata, current, doc, true);
+				text.append(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
+			}
+			else if (event == XMLStreamConstants.CDATA) {
+				appendPending(text, current, doc, false);
+				cdata.append(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
+			}
+			else if (event == XMLStreamConstants.START_ELEMENT) {
+				appendPending(text, current, doc, false);
+				appendPending(cdata, current, doc, true);
+				Element child = createElement(reader, doc);
+				current.appendChild(child);
+				current = child;
+			}
+			else if (event == XMLStreamConstants.END_ELEMENT) {
+				appendPending(text, current, doc, false);
+				appendPending(cdata, current, doc, true);
+				if (current == root)
+					return root;
+				current = current.getParentNode();
+			}
+			else if (event == XMLStreamConstants.PROCESSING_INSTRUCTION) {
+				appendPending(text, current, doc, false);
+				appendPending(cdata, current, doc, true);
+				current.appendChild(doc.createProcessingInstruction(reader.getPITarget(), reader.getPIData()));
+			}
+			// Comments are ignored, as they are by the DOM parser
+		}
+	}
+
+
+	/**
+	 *  Appends any pending text or CDATA to the given node as a single Text or CDATASection node.
+	 *
+	 * @param  pending  The pending text, which is cleared
+	 * @param  parent   The node to append to
+	 * @param  doc      The owner Document
+	 * @param  isCdata  True to append a CDATASection node, false for a Text node
+	 */
+	private void appendPending(StringBuffer pending, Node parent, Document doc, boolean isCdata) {
+		if (pending.length() == 0)
+			return;
+		if (isCdata)
+			parent.appendChild(doc.createCDATASection(pending.toString()));
+		else
+			parent.appendChild(doc.createTextNode(pending.toString()));
+		pending.setLength(0);
+	}
+
+
+	/**
+	 *  Creates an Element for the current START_ELEMENT of the stream, with its attributes and namespace
+	 *  declarations.
+	 *
+	 * @param  reader  The stream, positioned at a START_ELEMENT
+	 * @param  doc     The owner Document
+	 * @return         The Element
+	 */
+	private Element createElement(XMLStreamReader reader, Document doc) {
+		Element ele = doc.createElementNS(emptyToNull(reader.getNamespaceURI()), getQName(reader));
+		for (int i = 0; i < reader.getNamespaceCount(); i++) {
+			String nsPrefix = reader.getNamespacePrefix(i);
+			String nsUri = reader.getNamespaceURI(i);
+			ele.setAttributeNS("http://www.w3.org/2000/xmlns/",
+					(nsPrefix == null || nsPrefix.length() == 0) ? "xmlns" : "xmlns:" + nsPrefix,
+					nsUri == null ? "" : nsUri);
+		}
+		for (int i = 0; i < reader.getAttributeCount(); i++) {
+			String attPrefix = reader.getAttributePrefix(i);
+			String localName = reader.getAttributeLocalName(i);
+			ele.setAttributeNS(emptyToNull(reader.getAttributeNamespace(i)),
+					(attPrefix == null || attPrefix.length() == 0) ? localName : attPrefix + ":" + localName,
+					reader.getAttributeValue(i));
+		}
+		return ele;
+	}
+
+
+	/**
+	 *  Skips the element at the current START_ELEMENT of the stream. On return the stream is positioned at the
+	 *  element's END_ELEMENT.
+	 *
+	 * @param  reader                 The stream, positioned at a START_ELEMENT
+	 * @exception  XMLStreamException If the response is not well-formed.
+	 */
+	private void skipElement(XMLStreamReader reader) throws XMLStreamException {
+		int depth = 1;
+		while (depth > 0) {
+			int event = reader.next();
+			if (event == XMLStreamConstants.START_ELEMENT)
+				depth++;
+			else if (event == XMLStreamConstants.END_ELEMENT)
+				depth--;
+		}
+	}
+
+
+	/**
+	 *  Gets the qualified name of the current element of the stream, as returned by Node.getNodeName().
+	 *
+	 * @param  reader  The stream, positioned at a START_ELEMENT
+	 * @return         The qualified name
+	 */
+	private String getQName(XMLStreamReader reader) {
+		String elePrefix = reader.getPrefix();
+		if (elePrefix == null || elePrefix.length() == 0)
+			return reader.getLocalName();
+		return elePrefix + ":" + reader.getLocalName();
+	}
+
+
+	private static String emptyToNull(String s) {
+		return (s == null || s.length() == 0) ? null : s;
+	}
+
+
+	/**
+	 *  Gets the XMLInputFactory used to stream ListRecords responses, configured to match the DOM parser used by
+	 *  {@link #getDoc}.
+	 *
+	 * @return    The XMLInputFactory
+	 */
+	private XMLInputFactory getXMLInputFactory() {
+		if (xmlInputFactory == null) {
+			xmlInputFactory = XMLInputFactory.newInstance();
+			xmlInputFactory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, Boolean.TRUE);
+			xmlInputFactory.setProperty(XMLInputFactory.IS_COALESCING, Boolean.FALSE);
+			xmlInputFactory.setProperty(XMLInputFactory.IS_REPLACING_ENTITY_REFERENCES, Boolean.TRUE);
+			xmlInputFactory.setProperty(XMLInputFactory.IS_VALIDATING, Boolean.FALSE);
+			// CDATA sections are kept as such in the DOM, so have them reported separately from other text:
+			String reportCdata = "http://java.sun.com/xml/stream/properties/report-cdata-event";
+			if (xmlInputFactory.isPropertySupported(reportCdata))
+				xmlInputFactory.setProperty(reportCdata, Boolean.TRUE);
+		}
+		return xmlInputFactory;
+	}
+
+
+	/**
+	 *  Gets the DocumentBuilder used to create the DOM for each streamed record.
+	 *
+	 * @return                 The DocumentBuilder
+	 * @exception  Hexception  If the DocumentBuilder can not be created
+	 */
+	private DocumentBuilder getRecordDocBuilder() throws Hexception {
+		if (recordDocBuilder == null) {
+			try {
+				recordDocBuilder = newDocumentBuilder();
+			} catch (ParserConfigurationException e) {
+				throw new Hexception("Unable to create DocumentBuilder: " + e.getMessage());
+			}
+		}
+		return recordDocBuilder;
+	}
+
+
 	/**
 	 *  Extracts the content portion of a single record within an OAI XML document. If outdir is null, appends
 	 *  them to reslist. If outdir is not null, writes them to the appropriate subdir of outdir.
@@ -1134,8 +1760,13 @@ public class Harvester implements ErrorHandler {
 
 				String fnamebase = path + "/" + encodeIdentifier(identstg);
 
+				if (recordStore != null) {
+					String pathbase = (splitBySet ? setname + "/" : "") + encodeIdentifier(identstg);
+					if (storeRecord(pathbase, fnamebase, identstg, deleted, hdr, contele, doc, writeHeaders))
+						savedAtLeastOne = true;
+				}
 				// Remove files if status deleted.
-				if (deleted) {
+				else if (deleted) {
 					File f = new File(fnamebase + ".xml");
 					if (f.exists()) {
 						f = new File(fnamebase + ".xml");
@@ -1213,6 +1844,25 @@ public class Harvester implements ErrorHandler {
 	}
 
 
+	/**
+	 *  Waits until the HarvestQueue allows the next request to the data provider, if a queue is set.
+	 *
+	 * @param  request         The http request about to be sent
+	 * @exception  Hexception  If interrupted or killed while waiting
+	 */
+	private void awaitRequestSlot(String request) throws Hexception {
+		if (harvestQueue == null)
+			return;
+		try {
+			harvestQueue.awaitRequestSlot(request);
+		} catch (InterruptedException e) {
+			throw new Hexception("Harvest was interrupted");
+		}
+		if (killed)
+			throw new Hexception("Harvest received kill signal");
+	}
+
+
 	/**
 	 *  Retrieves an OAI XML document via http and parses the XML.
 	 *
@@ -1229,24 +1879,11 @@ public class Harvester implements ErrorHandler {
 			prtln("getDoc: request: \"" + request + "\"");
 		}
 		Document doc = null;
+		awaitRequestSlot(request);
 		try {
 			InputStream istm = TimedURLConnection.getInputStream(request, timeOutMilliseconds);
 
-			DocumentBuilderFactory docfactory
-					 = DocumentBuilderFactory.newInstance();
-			docfactory.setExpandEntityReferences(true);
-			docfactory.setIgnoringComments(true);
-			docfactory.setNamespaceAware(true);
-
-			// We must set validation false since jdk1.4 parser
-			// doesn't know about schemas.
-			docfactory.setValidating(false);
-
-			// Ignore whitespace doesn't work unless setValidating(true),
-			// according to javadocs.
-			docfactory.setIgnoringElementContentWhitespace(false);
-
-			DocumentBuilder docbuilder = docfactory.newDocumentBuilder();
+			DocumentBuilder docbuilder = newDocumentBuilder();
 
 			xmlerrors = "";
 			xmlwarnings = "";
@@ -1286,7 +1923,87 @@ public class Harvester implements ErrorHandler {
 
 
 	/**
-	 *  Writes the given element's subtree to the specified file.
+	 *  Creates a DocumentBuilder for parsing OAI responses.
+	 *
+	 * @return                                   The DocumentBuilder
+	 * @exception  ParserConfigurationException  If error
+	 */
+	private DocumentBuilder newDocumentBuilder() throws ParserConfigurationException {
+		DocumentBuilderFactory docfactory
+				 = DocumentBuilderFactory.newInstance();
+		docfactory.setExpandEntityReferences(true);
+		docfactory.setIgnoringComments(true);
+		docfactory.setNamespaceAware(true);
+
+		// We must set validation false since jdk1.4 parser
+		// doesn't know about schemas.
+		docfactory.setValidating(false);
+
+		// Ignore whitespace doesn't work unless setValidating(true),
+		// according to javadocs.
+		docfactory.setIgnoringElementContentWhitespace(false);
+
+		return docfactory.newDocumentBuilder();
+	}
+
+
+
+	/**
+	 *  Saves a record, or removes a deleted record, in the packed record store, and notifies the
+	 *  OAIChangeListener. The listener is given the path the record file would have in the output directory.
+	 *
+	 * @param  pathbase        The path of the record in the store, without the '.xml' extension
+	 * @param  fnamebase       The path of the record file in the output directory, without the '.xml' extension
+	 * @param  identifier      The OAI identifier
+	 * @param  deleted         True if the record has status deleted
+	 * @param  hdr             The &lt;header&gt; element
+	 * @param  contele         The record content element, or null if deleted
+	 * @param  doc             The Document
+	 * @param  writeHeaders    True to save the header as well
+	 * @return                 True if the record was saved
+	 * @exception  Hexception  If error
+	 */
+	private boolean storeRecord(
+			String pathbase,
+			String fnamebase,
+			String identifier,
+			boolean deleted,
+			Element hdr,
+			Element contele,
+			Document doc,
+			boolean writeHeaders)
+			 throws Hexception {
+		try {
+			if (deleted) {
+				if (recordStore.remove(pathbase + ".xml") && oaiChangeListener != null)
+					oaiChangeListener.onRecordDelete(fnamebase + ".xml", identifier);
+				recordStore.remove(pathbase + "_hdr.xml");
+				return false;
+			}
+
+			if (writeHeaders)
+				recordStore.put(pathbase + "_hdr.xml", serialize(hdr, doc));
+			boolean exists = recordStore.exists(pathbase + ".xml");
+			boolean contentEquals = recordStore.put(pathbase + ".xml", serialize(contele, doc));
+
+			if (oaiChangeListener != null) {
+				if (!exists)
+					oaiChangeListener.onRecordCreate(fnamebase + ".xml", identifier);
+				else if (contentEquals)
+					oaiChangeListener.onRecordExistsNoChange(fnamebase + ".xml", identifier);
+				else
+					oaiChangeListener.onRecordChange(fnamebase + ".xml", identifier);
+			}
+			return true;
+		} catch (IOException ioe) {
+			throw new Hexception("cannot store record \"" + pathbase + "\"  reason: " + ioe);
+		}
+	}
+
+
+	/**
+	 *  Writes the given element's subtree to the specified file. The file is left untouched if it already holds
+	 *  the same content.
 	 *
 	 * @param  fname           The output file name
 	 * @param  ele             The xml Element subtree to write to file
@@ -1301,32 +2018,19 @@ public class Harvester implements ErrorHandler {
 			Document doc)
 			 throws Hexception {
 		try {
-			boolean contentEquals = false;
+			byte[] content = serialize(ele, doc);
 
-			String s1 = null;
 			File f = new File(fname);
-			if (f.exists())
-				s1 = Files.readFileToEncoding(f, "UTF-8").toString();
+			if (f.exists() && f.length() == content.length && Arrays.equals(content, readBytes(f)))
+				return true;
 
 			FileOutputStream fos = new FileOutputStream(f);
-			OutputStreamWriter osw = new OutputStreamWriter(fos, "UTF-8");
-			Writer wtr = new BufferedWriter(osw);
-			OutputFormat format = new OutputFormat(doc, "UTF-8", true);
-			// Indenting true
-			format.setMethod("xml");
-			// May not ne necessary to call this
-			format.setLineWidth(0);
-			// No line wrapping
-			XMLSerializer ser = new XMLSerializer(wtr, format);
-			ser.serialize(ele);
-			fos.close();
-			osw.close();
-			wtr.close();
-
-			if (s1 != null)
-				contentEquals = s1.contentEquals(Files.readFileToEncoding(f, "UTF-8"));
-
-			return contentEquals;
+			try {
+				fos.write(content);
+			} finally {
+				fos.close();
+			}
+			return false;
 		} catch (IOException ioe) {
 			throw new Hexception("cannot write file \"" + fname
 					 + "\"  reason: " + ioe);
@@ -1334,6 +2038,45 @@ public class Harvester implements ErrorHandler {
 	}
 
 
+	/**
+	 *  Serializes the given element's subtree as it is saved to file, UTF-8 encoded and indented.
+	 *
+	 * @param  ele              The xml Element subtree
+	 * @param  doc              The Document
+	 * @return                  The serialized bytes
+	 * @exception  IOException  If error
+	 */
+	private byte[] serialize(Element ele, Document doc) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(4096);
+		Writer wtr = new BufferedWriter(new OutputStreamWriter(bytes, "UTF-8"));
+		OutputFormat format = new OutputFormat(doc, "UTF-8", true);
+		// Indenting true
+		format.setMethod("xml");
+		// May not ne necessary to call this
+		format.setLineWidth(0);
+		// No line wrapping
+		XMLSerializer ser = new XMLSerializer(wtr, format);
+		ser.serialize(ele);
+		wtr.close();
+		return bytes.toByteArray();
+	}
+
+
+	private static byte[] readBytes(File f) throws IOException {
+		byte[] content = new byte[(int) f.length()];
+		FileInputStream in = new FileInputStream(f);
+		try {
+			int off = 0;
+			int n;
+			while (off < content.length && (n = in.read(content, off, content.length - off)) != -1)
+				off += n;
+		} finally {
+			in.close();
+		}
+		return content;
+	}
+
+
 
 	/**
 	 *  Finds the first immediate child of the specified Element having the specified tag; throws Hexception if
@@ -1767,6 +2510,148 @@ public class Harvester implements ErrorHandler {
 	}
 
 
+	/**  A page of records from a ListRecords response, read by a {@link PageFetcher}. */
+	private final static class Page {
+		/**  The DOM for each record in the page. */
+		List records = new ArrayList();
+		/**  The resumptionToken, or null if this is the last page. */
+		String resumption = null;
+		/**  The error that occurred fetching this page, or null. */
+		Throwable error = null;
+	}
+
+
+	/**
+	 *  Fetches and reads the pages of a ListRecords harvest in order, holding at most a fixed number of pages
+	 *  that have not yet been taken.
+	 */
+	private class PageFetcher extends Thread {
+		private final LinkedList pages = new LinkedList();
+		private final int maxPages;
+		private String prefix, baseURL, setSpec;
+		private Date from, until;
+		private boolean done = false;
+		private volatile boolean cancelled = false;
+
+
+		/**
+		 *  Constructor for the PageFetcher object
+		 *
+		 * @param  prefix    The metadata prefix.
+		 * @param  baseURL   The base URL
+		 * @param  setSpec   The set, or null
+		 * @param  from      The from date, or null
+		 * @param  until     The until date, or null
+		 * @param  maxPages  Maximum number of pages held that have not been taken
+		 */
+		public PageFetcher(String prefix, String baseURL, String setSpec, Date from, Date until, int maxPages) {
+			super("Harvester page fetcher " + baseURL);
+			setDaemon(true);
+			this.prefix = prefix;
+			this.baseURL = baseURL;
+			this.setSpec = setSpec;
+			this.from = from;
+			this.until = until;
+			this.maxPages = Math.max(1, maxPages);
+		}
+
+
+		/**  Main processing method for the PageFetcher object */
+		public void run() {
+			String resumption = null;
+			try {
+				do {
+					Page page = new Page();
+					String request = getListRecordsRequest(baseURL, prefix, setSpec, from, until, resumption);
+					prtln("sending request '" + request + "'");
+					page.resumption = streamRecords(prefix, request, null, null, baseURL, false, false, page.records);
+					resumption = page.resumption;
+					if (!putPage(page))
+						return;
+				} while (resumption != null && !cancelled);
+			} catch (Throwable t) {
+				Page page = new Page();
+				page.error = t;
+				synchronized (pages) {
+					pages.addLast(page);
+					pages.notifyAll();
+				}
+			} finally {
+				synchronized (pages) {
+					done = true;
+					pages.notifyAll();
+				}
+			}
+		}
+
+
+		/**
+		 *  Adds a page, waiting while the maximum number of pages are already held.
+		 *
+		 * @param  page  The page
+		 * @return       False if the fetcher was cancelled
+		 */
+		private boolean putPage(Page page) {
+			synchronized (pages) {
+				while (pages.size() >= maxPages && !cancelled) {
+					try {
+						pages.wait();
+					} catch (InterruptedException e) {}
+				}
+				if (cancelled)
+					return false;
+				pages.addLast(page);
+				pages.notifyAll();
+				return true;
+			}
+		}
+
+
+		/**
+		 *  Takes the next page, waiting until it has been fetched.
+		 *
+		 * @return                        The page
+		 * @exception  Hexception         If the page could not be fetched or the harvest was killed
+		 * @exception  OAIErrorException  If the data provider returned an OAI error
+		 */
+		public Page takePage() throws Hexception, OAIErrorException {
+			Page page;
+			synchronized (pages) {
+				while (pages.isEmpty() && !done && !killed) {
+					try {
+						pages.wait();
+					} catch (InterruptedException e) {}
+				}
+				if (pages.isEmpty())
+					throw new Hexception(killed ? "Harvest received kill signal" : "Harvest ended unexpectedly");
+				page = (Page) pages.removeFirst();
+				pages.notifyAll();
+			}
+			if (page.error instanceof Hexception)
+				throw (Hexception) page.error;
+			if (page.error instanceof OAIErrorException)
+				throw (OAIErrorException) page.error;
+			if (page.error != null)
+				throw new Hexception("Internal harvester error: " + page.error);
+			return page;
+		}
+
+
+		/**  Stops fetching, aborting any request that is in progress, and discards the pages held. */
+		public void cancel() {
+			synchronized (pages) {
+				cancelled = true;
+				pages.clear();
+				pages.notifyAll();
+			}
+			if (isAlive()) {
+				closeActiveStream();
+				interrupt();
+			}
+		}
+	}
+
+
 	/**
 	 *  Handles fatal errors. Part of ErrorHandler interface.
 	 *
@@ -0,0 +1,228 @@
+/*
+	Copyright 2017 Digital Learning Sciences (DLS) at the
+	University Corporation for Atmospheric Research (UCAR),
+	P.O. Box 3000, Boulder, CO 80307
+
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+
+	http://www.apache.org/licenses/LICENSE-2.0
+
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+package org.dlese.dpc.oai.harvester;
+
+import junit.framework.*;
+import java.io.*;
+import java.util.*;
+
+import org.dlese.dpc.util.Files;
+
+/**
+ *  Checks that the {@link Harvester} writes the same files whether ListRecords responses are parsed as a
+ *  stream or into a DOM. The same pages are served by a {@link LoopbackOAIProvider} to a harvest with
+ *  streaming on and one with streaming off, and the files written are compared byte for byte. The pages hold
+ *  the sample adn records from the webapp along with a deleted record and a record with character
+ *  references, CDATA, comments and non-ASCII text. <p>
+ *
+ *  The System property 'junit.test.dir' sets the directory the harvests are written to (default
+ *  java.io.tmpdir) and 'harvester.webapp.dir' the webapp directory holding the sample records (default
+ *  'web').
+ *
+ * @author    John Weatherley
+ */
+public class HarvesterTests extends TestCase {
+	private final static String PREFIX = "adn";
+	private final static String SET_SPEC = "loopback-adn";
+	private final static int PAGE_SIZE = 5;
+
+	private final static String MIXED_CONTENT_RECORD =
+		"<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n" +
+		"<itemRecord xmlns=\"http://adn.dlese.org\" xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\">\n" +
+		"\t<general>\n" +
+		"\t\t<title>Ice &amp; snow: café &#233;té 氷 &lt;draft&gt;</title>\n" +
+		"\t\t<!-- a comment kept with the record -->\n" +
+		"\t\t<description><![CDATA[Temperatures < 0 & > -40]]> and 'quoted' \"text\"</description>\n" +
+		"\t\t<subjects><subject xsi:type='term'>DLESE:Cryology</subject><subject/></subjects>\n" +
+		"\t</general>\n" +
+		"</itemRecord>\n";
+
+	private LoopbackOAIProvider provider;
+	private File testBaseDir;
+	private int numRecords;
+	private int numDeleted;
+
+
+	/**
+	 *  A unit test suite for JUnit
+	 *
+	 * @return    The test suite
+	 */
+	public static Test suite() {
+		// Use java reflection to run all test methods in this class:
+		prtln("");
+		return new TestSuite(HarvesterTests.class);
+	}
+
+
+	/**
+	 *  The JUnit setup method. Builds the pages and starts the provider.
+	 *
+	 * @exception  Exception  If error
+	 */
+	protected void setUp()
+			 throws Exception {
+		prtln(".");
+		File sampleDir = new File(System.getProperty("harvester.webapp.dir", "web"), "WEB-INF/sample_metadata");
+		File[] files = sampleDir.listFiles();
+		Assert.assertNotNull("No sample records in " + sampleDir, files);
+		Arrays.sort(files);
+		List records = new ArrayList();
+		for (int i = 0; i < files.length; i++) {
+			if (files[i].getName().endsWith(".xml"))
+				records.add(Files.readFileToEncoding(files[i], "UTF-8").toString());
+			if (i == 2)
+				records.add(MIXED_CONTENT_RECORD);
+			if (i == 6)
+				records.add(null);
+		}
+		numRecords = records.size();
+		numDeleted = 1;
+
+		provider = new LoopbackOAIProvider(LoopbackOAIProvider.makeListRecordsPages(records, PREFIX, SET_SPEC, PAGE_SIZE));
+		provider.start();
+
+		// Assumes a java prop was set that defines junit.test.dir prior to execution.
+		// This prop is defined in the Ant build.xml file.
+		String testDir = System.getProperty("junit.test.dir", System.getProperty("java.io.tmpdir"));
+		testBaseDir = new File(testDir, "harvester_tests");
+		Files.deleteDirectory(testBaseDir);
+		testBaseDir.mkdirs();
+	}
+
+
+	/**
+	 *  The JUnit tearDown method. Stops the provider and removes the harvested files.
+	 *
+	 * @exception  Exception  If error
+	 */
+	protected void tearDown()
+			 throws Exception {
+		if (provider != null)
+			provider.shutdown();
+		Files.deleteDirectory(testBaseDir);
+	}
+
+
+	/**
+	 *  Checks that harvests to disk with and without streaming write the same files, with and without headers
+	 *  and split by set.
+	 *
+	 * @exception  Exception  If error
+	 */
+	public void test_streaming_writes_same_files()
+			 throws Exception {
+		boolean[][] options = {{false, false}, {true, true}};
+		for (int o = 0; o < options.length; o++) {
+			boolean splitBySet = options[o][0];
+			boolean writeHeaders = options[o][1];
+			File streamed = new File(testBaseDir, "streamed" + o);
+			File parsed = new File(testBaseDir, "parsed" + o);
+			harvest(true, streamed, splitBySet, writeHeaders);
+			harvest(false, parsed, splitBySet, writeHeaders);
+
+			Map streamedFiles = listFiles(streamed, "");
+			Map parsedFiles = listFiles(parsed, "");
+			Assert.assertEquals("Files written with splitBySet " + splitBySet + ", writeHeaders " + writeHeaders,
+				new TreeSet(parsedFiles.keySet()), new TreeSet(streamedFiles.keySet()));
+			Assert.assertTrue("Too few files: " + streamedFiles.keySet(), streamedFiles.size() >= numRecords - numDeleted);
+			Iterator it = parsedFiles.keySet().iterator();
+			while (it.hasNext()) {
+				String path = (String) it.next();
+				Assert.assertTrue("Contents differ: " + path, Arrays.equals(
+					readBytes((File) parsedFiles.get(path)), readBytes((File) streamedFiles.get(path))));
+			}
+		}
+	}
+
+
+	/**
+	 *  Checks that harvests into memory with and without streaming return the same records.
+	 *
+	 * @exception  Exception  If error
+	 */
+	public void test_streaming_returns_same_records()
+			 throws Exception {
+		String[][] streamed = harvest(true, null, false, false);
+		String[][] parsed = harvest(false, null, false, false);
+		// Deleted records are returned along with the others
+		Assert.assertEquals(numRecords, parsed.length);
+		Assert.assertEquals(parsed.length, streamed.length);
+		for (int i = 0; i < parsed.length; i++)
+			Assert.assertTrue("Record " + i + " differs", Arrays.equals(parsed[i], streamed[i]));
+	}
+
+
+	private String[][] harvest(boolean streamingEnabled, File outdir, boolean splitBySet, boolean writeHeaders) throws Exception {
+		Harvester harvester = new Harvester(null, null, 60000);
+		harvester.setStreamingEnabled(streamingEnabled);
+		return harvester.doHarvest(provider.getBaseURL(), PREFIX, null, null, null,
+			outdir == null ? null : outdir.getAbsolutePath(), splitBySet, null, null, writeHeaders, true, false);
+	}
+
+
+	/**
+	 *  Gets the files under a directory, keyed by their path relative to it.
+	 *
+	 * @param  dir   The directory
+	 * @param  path  The path of the directory relative to the top
+	 * @return       Map of relative path to File
+	 */
+	private static Map listFiles(File dir, String path) {
+		Map files = new HashMap();
+		File[] children = dir.listFiles();
+		for (int i = 0; children != null && i < children.length; i++) {
+			String childPath = path + "/" + children[i].getName();
+			if (children[i].isDirectory())
+				files.putAll(listFiles(children[i], childPath));
+			else
+				files.put(childPath, children[i]);
+		}
+		return files;
+	}
+
+
+	private static byte[] readBytes(File file) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		InputStream in = new FileInputStream(file);
+		try {
+			byte[] buf = new byte[8192];
+			int n;
+			while ((n = in.read(buf)) != -1)
+				bytes.write(buf, 0, n);
+		} finally {
+			in.close();
+		}
+		return bytes.toByteArray();
+	}
+
+
+	private static void prtln(String s) {
+		System.out.println(s);
+	}
+
+
+	/**
+	 *  Main method for running this single suite from the command line
+	 *
+	 * @param  args  The command line arguments
+	 */
+	public static void main(String[] args) {
+		junit.textui.TestRunner.run(suite());
+	}
+}
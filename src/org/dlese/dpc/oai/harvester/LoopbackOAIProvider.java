@@ -0,0 +1,191 @@
+/*
+	Copyright 2017 Digital Learning Sciences (DLS) at the
+	University Corporation for Atmospheric Research (UCAR),
+	P.O. Box 3000, Boulder, CO 80307
+
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+
+	http://www.apache.org/licenses/LICENSE-2.0
+
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+package org.dlese.dpc.oai.harvester;
+
+import java.io.*;
+import java.net.*;
+import java.util.*;
+
+/**
+ *  A minimal OAI-PMH data provider that serves prepared responses over HTTP on the loopback interface, used
+ *  to harvest known records with the {@link Harvester} in tests and benchmarks. Identify requests get a fixed
+ *  response and ListRecords requests get the prepared pages in turn: each page but the last ends with a
+ *  resumptionToken holding the number of the next page. Any other request gets a 400 response.
+ *
+ * @author    John Weatherley
+ */
+public class LoopbackOAIProvider extends Thread {
+	private ServerSocket serverSocket;
+	private byte[] identify;
+	private byte[][] pages;
+	private volatile boolean running = true;
+
+
+	/**
+	 *  Constructor for the LoopbackOAIProvider, which listens on a free port. Call start() to begin serving.
+	 *
+	 * @param  pages        The ListRecords responses, in UTF-8
+	 * @exception  IOException  If unable to listen
+	 * @see                 #makeListRecordsPages(List, String, String, int)
+	 */
+	public LoopbackOAIProvider(byte[][] pages) throws IOException {
+		super("loopback-oai-provider");
+		setDaemon(true);
+		this.pages = pages;
+		this.identify = (responseStart("<request verb=\"Identify\">http://localhost/oai</request>") +
+			"<Identify><repositoryName>Loopback</repositoryName><baseURL>http://localhost/oai</baseURL>" +
+			"<protocolVersion>2.0</protocolVersion><adminEmail>loopback@localhost</adminEmail>" +
+			"<earliestDatestamp>2017-01-01T00:00:00Z</earliestDatestamp><deletedRecord>no</deletedRecord>" +
+			"<granularity>YYYY-MM-DDThh:mm:ssZ</granularity></Identify>\n</OAI-PMH>\n").getBytes("UTF-8");
+		serverSocket = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+	}
+
+
+	/**
+	 *  Gets the baseURL to harvest from.
+	 *
+	 * @return    The baseURL
+	 */
+	public String getBaseURL() {
+		return "http://127.0.0.1:" + serverSocket.getLocalPort() + "/oai";
+	}
+
+
+	/**
+	 *  Builds the ListRecords responses for the given records. Record i has the identifier 'oai:loopback:i' and
+	 *  is in the given set. A null in place of a record's XML gives a deleted record, with a header only.
+	 *
+	 * @param  records        The XML of each record, or null for a deleted record
+	 * @param  prefix         The metadataPrefix
+	 * @param  setSpec        The setSpec of every record
+	 * @param  pageSize       The number of records in each page
+	 * @return                The response for each page, in UTF-8
+	 * @exception  Exception  If error
+	 */
+	public static byte[][] makeListRecordsPages(List records, String prefix, String setSpec, int pageSize) throws Exception {
+		int numPages = Math.max(1, (records.size() + pageSize - 1) / pageSize);
+		byte[][] pages = new byte[numPages][];
+		for (int p = 0; p < numPages; p++) {
+			StringBuffer page = new StringBuffer();
+			page.append(responseStart("<request verb=\"ListRecords\" metadataPrefix=\"" + prefix + "\">http://localhost/oai</request>"));
+			page.append("<ListRecords>\n");
+			int end = Math.min(records.size(), (p + 1) * pageSize);
+			for (int i = p * pageSize; i < end; i++) {
+				String xml = (String) records.get(i);
+				page.append("<record><header" + (xml == null ? " status=\"deleted\"" : "") + "><identifier>oai:loopback:" + i + "</identifier>");
+				page.append("<datestamp>2017-01-01</datestamp><setSpec>" + setSpec + "</setSpec></header>\n");
+				if (xml != null)
+					page.append("<metadata>" + xml.replaceFirst("^\\s*<\\?xml[^>]*\\?>", "") + "</metadata>");
+				page.append("</record>\n");
+			}
+			if (p < numPages - 1)
+				page.append("<resumptionToken completeListSize=\"" + records.size() + "\" cursor=\"" + (p * pageSize) + "\">" + (p + 1) + "</resumptionToken>\n");
+			page.append("</ListRecords>\n</OAI-PMH>\n");
+			pages[p] = page.toString().getBytes("UTF-8");
+		}
+		return pages;
+	}
+
+
+	/**
+	 *  Gets the start of an OAI-PMH response, up to and including the request element.
+	 *
+	 * @param  request  The request element
+	 * @return          The start of the response
+	 */
+	public static String responseStart(String request) {
+		return "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n" +
+			"<OAI-PMH xmlns=\"http://www.openarchives.org/OAI/2.0/\" " +
+			"xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\" " +
+			"xsi:schemaLocation=\"http://www.openarchives.org/OAI/2.0/ http://www.openarchives.org/OAI/2.0/OAI-PMH.xsd\">\n" +
+			"<responseDate>2017-01-01T00:00:00Z</responseDate>\n" + request + "\n";
+	}
+
+
+	/**  Accepts requests until shut down, answering each on its own thread. */
+	public void run() {
+		while (running) {
+			try {
+				final Socket socket = serverSocket.accept();
+				new Thread("loopback-oai-request") {
+					public void run() {
+						respond(socket);
+					}
+				}.start();
+			} catch (IOException e) {
+				if (running)
+					prtlnErr("provider error: " + e);
+			}
+		}
+	}
+
+
+	private void respond(Socket socket) {
+		try {
+			BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), "ISO-8859-1"));
+			String requestLine = in.readLine();
+			String line;
+			while ((line = in.readLine()) != null && line.length() > 0) {
+			}
+
+			byte[] body;
+			String status = "200 OK";
+			String query = requestLine == null || requestLine.indexOf('?') == -1 ? "" :
+				requestLine.substring(requestLine.indexOf('?') + 1).split(" ")[0];
+			if (query.indexOf("verb=Identify") != -1)
+				body = identify;
+			else if (query.indexOf("verb=ListRecords") != -1) {
+				int page = 0;
+				int t = query.indexOf("resumptionToken=");
+				if (t != -1)
+					page = Integer.parseInt(query.substring(t + "resumptionToken=".length()).split("&")[0]);
+				body = pages[page];
+			}
+			else {
+				status = "400 Bad Request";
+				body = new byte[0];
+			}
+
+			OutputStream out = new BufferedOutputStream(socket.getOutputStream());
+			out.write(("HTTP/1.0 " + status + "\r\nContent-Type: text/xml; charset=UTF-8\r\nContent-Length: " +
+				body.length + "\r\nConnection: close\r\n\r\n").getBytes("ISO-8859-1"));
+			out.write(body);
+			out.flush();
+		} catch (Throwable t) {
+			prtlnErr("provider error: " + t);
+		} finally {
+			try {
+				socket.close();
+			} catch (IOException e) {}
+		}
+	}
+
+
+	/**  Stops accepting requests. */
+	public void shutdown() {
+		running = false;
+		try {
+			serverSocket.close();
+		} catch (IOException e) {}
+	}
+
+
+	private final static void prtlnErr(String s) {
+		System.err.println("LoopbackOAIProvider: " + s);
+	}
+}
@@ -204,6 +204,37 @@ public final class OAIHarvesterServlet extends HttpServlet {
 		ScheduledHarvestManager scheduledHarvestManager = new ScheduledHarvestManager(harvesterSettings,
 					new File(GeneralServletTools.getAbsolutePath("WEB-INF/harvested_records", context)),
 					harvestLogIndex,harvestTimeOutMilliseconds);
+		try {
+			String harvestPrefetchPages = context.getInitParameter("harvestPrefetchPages");
+			if (harvestPrefetchPages != null && harvestPrefetchPages.trim().length() > 0)
+				scheduledHarvestManager.setNumPrefetchPages(Integer.parseInt(harvestPrefetchPages.trim()));
+		} catch (NumberFormatException nfe) {
+			prtlnErr("Error reading context parameter harvestPrefetchPages: " + nfe.getMessage());
+		}
+		String harvestPackedStorage = context.getInitParameter("harvestPackedStorage");
+		if (harvestPackedStorage != null)
+			scheduledHarvestManager.setPackedStorageEnabled(harvestPackedStorage.trim().equalsIgnoreCase("true"));
+		try {
+			String harvestMaxConcurrent = context.getInitParameter("harvestMaxConcurrent");
+			if (harvestMaxConcurrent != null && harvestMaxConcurrent.trim().length() > 0)
+				scheduledHarvestManager.setMaxConcurrentHarvests(Integer.parseInt(harvestMaxConcurrent.trim()));
+		} catch (NumberFormatException nfe) {
+			prtlnErr("Error reading context parameter harvestMaxConcurrent: " + nfe.getMessage());
+		}
+		try {
+			String harvestMaxPerHost = context.getInitParameter("harvestMaxPerHost");
+			if (harvestMaxPerHost != null && harvestMaxPerHost.trim().length() > 0)
+				scheduledHarvestManager.setMaxHarvestsPerHost(Integer.parseInt(harvestMaxPerHost.trim()));
+		} catch (NumberFormatException nfe) {
+			prtlnErr("Error reading context parameter harvestMaxPerHost: " + nfe.getMessage());
+		}
+		try {
+			String harvestMinRequestIntervalMillis = context.getInitParameter("harvestMinRequestIntervalMillis");
+			if (harvestMinRequestIntervalMillis != null && harvestMinRequestIntervalMillis.trim().length() > 0)
+				scheduledHarvestManager.setMinRequestIntervalMillis(Long.parseLong(harvestMinRequestIntervalMillis.trim()));
+		} catch (NumberFormatException nfe) {
+			prtlnErr("Error reading context parameter harvestMinRequestIntervalMillis: " + nfe.getMessage());
+		}
 		
 		// Make context scope objects available::
 		context.setAttribute("harvestLogIndex", harvestLogIndex);
@@ -0,0 +1,831 @@
+/*
+	Copyright 2017 Digital Learning Sciences (DLS) at the
+	University Corporation for Atmospheric Research (UCAR),
+	P.O. Box 3000, Boulder, CO 80307
+
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+
+	http://www.apache.org/licenses/LICENSE-2.0
+
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+package org.dlese.dpc.oai.harvester;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.security.MessageDigest;
+import java.util.*;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ *  Stores harvested records packed into a few large append-only segment files instead of one file per
+ *  record. Each record is stored under the relative path it would have as a file, for example
+ *  'mySet/oai%3Aexample.org%3A123.xml', so the store can be exported to the usual one-file-per-record layout
+ *  or streamed into a zip archive with the same entry names. <p>
+ *
+ *  A record index is kept in memory and in an append-only journal file, 'records.idx', giving the segment,
+ *  offset, length, modification time and MD5 hash of each record. A record whose content hash has not changed
+ *  is not written again, so an incremental harvest only appends the records that changed. The space held by
+ *  replaced and deleted records is reclaimed by {@link #compact()}. <p>
+ *
+ *  The index is written to disk when the store is flushed or closed. When a store is opened, the journal is
+ *  truncated at the first entry that points past the end of its segment or was only partly written, as may
+ *  happen after a crash, so the entries lost in the crash are never read again once new records are appended.
+ *  The content of each record is checked against its MD5 hash when it is read. <p>
+ *
+ *  A compaction writes the current records to new segments in a sub-directory, moves them in beside the old
+ *  segments, and then replaces the journal with the one for the new segments before deleting the old ones. If
+ *  the process stops part way through, the compaction is rolled back or completed when the store is next
+ *  opened. <p>
+ *
+ *  A PackedRecordStore may be used by several threads. Only one PackedRecordStore should be open on a given
+ *  directory at a time.
+ *
+ * @author    John Weatherley
+ * @see       Harvester#setPackedStorageEnabled(boolean)
+ */
+public class PackedRecordStore {
+	private static boolean debug = false;
+
+	/**  The name of the record index journal file inside the store directory. */
+	public final static String INDEX_FILE_NAME = "records.idx";
+
+	/**  The default maximum size of each segment file, in bytes. */
+	public final static long DEFAULT_MAX_SEGMENT_BYTES = 64L * 1024 * 1024;
+
+	private final static String SEGMENT_PREFIX = "records-";
+	private final static String SEGMENT_SUFFIX = ".seg";
+	private final static String COMPACTING_DIR_NAME = "compacting";
+
+	private File dir;
+	private long maxSegmentBytes = DEFAULT_MAX_SEGMENT_BYTES;
+
+	// Relative path (String) to Entry
+	private HashMap entries = new HashMap();
+	// Segment number (Integer) to its RandomAccessFile, opened for reading as needed
+	private HashMap segmentReaders = new HashMap();
+
+	private int segmentNum = 0;
+	private long segmentLength = 0;
+	private OutputStream segmentOut = null;
+	private Writer indexOut = null;
+
+	private long totalBytes = 0;
+	private long liveBytes = 0;
+
+
+	/**
+	 *  Opens the store in the given directory, creating it if it does not exist.
+	 *
+	 * @param  dir              The store directory
+	 * @exception  IOException  If the store can not be opened
+	 */
+	public PackedRecordStore(File dir) throws IOException {
+		this.dir = dir.getAbsoluteFile();
+		if (!this.dir.exists() && !this.dir.mkdirs())
+			throw new IOException("Unable to create directory '" + this.dir + "'");
+		open();
+	}
+
+
+	/**
+	 *  Creates an empty store whose segments are numbered after the given segment, for use by {@link
+	 *  #compact()}.
+	 *
+	 * @param  dir              The store directory, which must not hold a store
+	 * @param  lastSegmentNum   The number of the last segment in use in the store being compacted
+	 * @exception  IOException  If the store can not be created
+	 */
+	private PackedRecordStore(File dir, int lastSegmentNum) throws IOException {
+		this(dir);
+		segmentNum = lastSegmentNum;
+	}
+
+
+	/**
+	 *  Determines whether the given directory holds a PackedRecordStore.
+	 *
+	 * @param  dir  The directory
+	 * @return      True if the directory holds a store
+	 */
+	public static boolean isPackedRecordStore(File dir) {
+		return new File(dir, INDEX_FILE_NAME).isFile();
+	}
+
+
+	/**
+	 *  Sets the size at which a new segment file is started. Default is {@link #DEFAULT_MAX_SEGMENT_BYTES}.
+	 *
+	 * @param  maxSegmentBytes  The maximum segment size in bytes
+	 */
+	public synchronized void setMaxSegmentBytes(long maxSegmentBytes) {
+		this.maxSegmentBytes = maxSegmentBytes;
+	}
+
+
+	/**
+	 *  Gets the store directory.
+	 *
+	 * @return    The directory
+	 */
+	public File getDirectory() {
+		return dir;
+	}
+
+
+	/**
+	 *  Stores a record, unless a record with the same content is already stored under the given path.
+	 *
+	 * @param  path             The relative path of the record, for example 'mySet/myId.xml'
+	 * @param  content          The record content
+	 * @return                  True if a record with the same content was already stored under the path, in
+	 *      which case nothing is written
+	 * @exception  IOException  If error
+	 */
+	public synchronized boolean put(String path, byte[] content) throws IOException {
+		checkPath(path);
+		String hash = md5(content);
+		Entry existing = (Entry) entries.get(path);
+		if (existing != null && existing.length == content.length && existing.hash.equals(hash))
+			return true;
+		append(path, content, System.currentTimeMillis(), hash);
+		return false;
+	}
+
+
+	/**
+	 *  Gets the content of a stored record.
+	 *
+	 * @param  path             The relative path of the record
+	 * @return                  The record content, or null if no record is stored under the path
+	 * @exception  IOException  If error
+	 */
+	public synchronized byte[] get(String path) throws IOException {
+		Entry entry = (Entry) entries.get(path);
+		if (entry == null)
+			return null;
+		return read(entry);
+	}
+
+
+	/**
+	 *  Determines whether a record is stored under the given path.
+	 *
+	 * @param  path  The relative path of the record
+	 * @return       True if a record is stored
+	 */
+	public synchronized boolean exists(String path) {
+		return entries.containsKey(path);
+	}
+
+
+	/**
+	 *  Gets the time a stored record was last changed.
+	 *
+	 * @param  path  The relative path of the record
+	 * @return       The modification time in milliseconds, or 0 if no record is stored under the path
+	 */
+	public synchronized long lastModified(String path) {
+		Entry entry = (Entry) entries.get(path);
+		return entry == null ? 0 : entry.modified;
+	}
+
+
+	/**
+	 *  Removes a record.
+	 *
+	 * @param  path             The relative path of the record
+	 * @return                  True if a record was stored under the path
+	 * @exception  IOException  If error
+	 */
+	public synchronized boolean remove(String path) throws IOException {
+		if (!entries.containsKey(path))
+			return false;
+		openIndex();
+		indexOut.write("D\t" + path + "\n");
+		removeEntry(path);
+		return true;
+	}
+
+
+	/**
+	 *  Gets the number of records stored.
+	 *
+	 * @return    The number of records
+	 */
+	public synchronized int size() {
+		return entries.size();
+	}
+
+
+	/**
+	 *  Gets the relative paths of all stored records, in sorted order.
+	 *
+	 * @return    A sorted List of Strings
+	 */
+	public synchronized List getPaths() {
+		List paths = new ArrayList(entries.keySet());
+		Collections.sort(paths);
+		return paths;
+	}
+
+
+	/**
+	 *  Writes all stored records to a zip archive, one entry per record named by its relative path. The
+	 *  records are read from the segments in storage order. The output stream is finished but not closed.
+	 *
+	 * @param  out              The stream to write the zip archive to
+	 * @return                  The number of records written
+	 * @exception  IOException  If error
+	 */
+	public synchronized int writeZip(OutputStream out) throws IOException {
+		ZipOutputStream zip = new ZipOutputStream(out);
+		List paths = getPathsInStorageOrder();
+		for (int i = 0; i < paths.size(); i++) {
+			String path = (String) paths.get(i);
+			Entry entry = (Entry) entries.get(path);
+			ZipEntry zipEntry = new ZipEntry(path);
+			zipEntry.setTime(entry.modified);
+			zip.putNextEntry(zipEntry);
+			zip.write(read(entry));
+			zip.closeEntry();
+		}
+		zip.finish();
+		return paths.size();
+	}
+
+
+	/**
+	 *  Writes each stored record to its own file under the given directory, at its relative path. The files'
+	 *  modification times are set to the times the records were last changed, so files whose records have not
+	 *  changed since a previous export keep their times.
+	 *
+	 * @param  destDir          The directory to write the files to
+	 * @return                  The number of files written
+	 * @exception  IOException  If error
+	 */
+	public synchronized int exportFiles(File destDir) throws IOException {
+		List paths = getPathsInStorageOrder();
+		for (int i = 0; i < paths.size(); i++) {
+			String path = (String) paths.get(i);
+			Entry entry = (Entry) entries.get(path);
+			File f = new File(destDir, path);
+			File parent = f.getParentFile();
+			if (parent != null && !parent.exists() && !parent.mkdirs())
+				throw new IOException("Unable to create directory '" + parent + "'");
+			FileOutputStream fos = new FileOutputStream(f);
+			try {
+				fos.write(read(entry));
+			} finally {
+				fos.close();
+			}
+			f.setLastModified(entry.modified);
+		}
+		return paths.size();
+	}
+
+
+	/**
+	 *  Rewrites the stored records into new segments, reclaiming the space held by replaced and deleted
+	 *  records, if that space is more than the space held by the current records.
+	 *
+	 * @return                  True if the store was compacted
+	 * @exception  IOException  If error
+	 */
+	public synchronized boolean compact() throws IOException {
+		if (totalBytes - liveBytes <= liveBytes)
+			return false;
+		prtln("Compacting " + dir + ": " + liveBytes + " of " + totalBytes + " bytes are current");
+
+		File tempDir = new File(dir, COMPACTING_DIR_NAME);
+		if (tempDir.exists())
+			deleteFiles(tempDir, true);
+		// The new segments are numbered after the current ones so they can be moved in beside them
+		PackedRecordStore compacted = new PackedRecordStore(tempDir, segmentNum);
+		compacted.setMaxSegmentBytes(maxSegmentBytes);
+		List paths = getPathsInStorageOrder();
+		for (int i = 0; i < paths.size(); i++) {
+			String path = (String) paths.get(i);
+			Entry entry = (Entry) entries.get(path);
+			compacted.putCopy(path, read(entry), entry);
+		}
+		compacted.close();
+
+		closeFiles();
+		installCompacted(tempDir);
+		open();
+		return true;
+	}
+
+
+	/**
+	 *  Writes the buffered records and index entries to disk.
+	 *
+	 * @exception  IOException  If error
+	 */
+	public synchronized void flush() throws IOException {
+		// The segment data goes first so the index never points past it
+		if (segmentOut != null)
+			segmentOut.flush();
+		if (indexOut != null)
+			indexOut.flush();
+	}
+
+
+	/**
+	 *  Writes the buffered records and index entries to disk and closes the store's files.
+	 *
+	 * @exception  IOException  If error
+	 */
+	public synchronized void close() throws IOException {
+		flush();
+		closeFiles();
+	}
+
+
+	// ---------------------- Internal methods ----------------------
+
+	/**
+	 *  Reads the index journal and positions the store to append to its last segment, first finishing or
+	 *  rolling back a compaction that was interrupted. The journal is truncated at its first invalid entry.
+	 *
+	 * @exception  IOException  If error
+	 */
+	private void open() throws IOException {
+		recoverCompaction();
+		entries = new HashMap();
+		totalBytes = 0;
+		liveBytes = 0;
+		segmentNum = 0;
+
+		// Find the segments and their lengths
+		HashMap segmentLengths = new HashMap();
+		File[] files = dir.listFiles();
+		for (int i = 0; files != null && i < files.length; i++) {
+			int num = getSegmentNum(files[i].getName());
+			if (num > 0) {
+				segmentLengths.put(new Integer(num), new Long(files[i].length()));
+				totalBytes += files[i].length();
+				segmentNum = Math.max(segmentNum, num);
+			}
+		}
+
+		File indexFile = new File(dir, INDEX_FILE_NAME);
+		if (indexFile.exists()) {
+			long validLength = readJournal(indexFile, segmentLengths);
+			if (validLength < indexFile.length()) {
+				prtln("Truncating " + indexFile + " from " + indexFile.length() + " to " + validLength + " bytes");
+				RandomAccessFile raf = new RandomAccessFile(indexFile, "rw");
+				try {
+					raf.setLength(validLength);
+				} finally {
+					raf.close();
+				}
+			}
+		}
+		else {
+			// Mark the directory as a store
+			new FileOutputStream(indexFile).close();
+		}
+
+		Long length = (Long) segmentLengths.get(new Integer(segmentNum));
+		segmentLength = (length == null ? 0 : length.longValue());
+		prtln("Opened " + dir + " with " + entries.size() + " records in " + segmentLengths.size() + " segments");
+	}
+
+
+	/**
+	 *  Reads the index journal into the record index, stopping at the first entry that is incomplete, can not
+	 *  be parsed, or points past the end of its segment.
+	 *
+	 * @param  indexFile        The journal
+	 * @param  segmentLengths   The length (Long) of each segment (Integer)
+	 * @return                  The number of bytes at the start of the journal that hold valid entries
+	 * @exception  IOException  If error
+	 */
+	private long readJournal(File indexFile, HashMap segmentLengths) throws IOException {
+		InputStream in = new BufferedInputStream(new FileInputStream(indexFile), 64 * 1024);
+		try {
+			ByteArrayOutputStream line = new ByteArrayOutputStream(256);
+			long position = 0;
+			long validLength = 0;
+			int b;
+			while ((b = in.read()) != -1) {
+				position++;
+				if (b != '\n') {
+					line.write(b);
+					continue;
+				}
+				if (!readJournalEntry(line.toString("UTF-8"), segmentLengths))
+					return validLength;
+				validLength = position;
+				line.reset();
+			}
+			// Any bytes after the last newline are an entry that was only partly written
+			return validLength;
+		} finally {
+			in.close();
+		}
+	}
+
+
+	/**
+	 *  Applies one journal entry to the record index.
+	 *
+	 * @param  line            The entry
+	 * @param  segmentLengths  The length (Long) of each segment (Integer)
+	 * @return                 False if the entry is not valid
+	 */
+	private boolean readJournalEntry(String line, HashMap segmentLengths) {
+		String[] fields = line.split("\t");
+		try {
+			if (fields[0].equals("P") && fields.length == 7) {
+				Entry entry = new Entry(Integer.parseInt(fields[2]), Long.parseLong(fields[3]),
+					Integer.parseInt(fields[4]), Long.parseLong(fields[5]), fields[6]);
+				Long length = (Long) segmentLengths.get(new Integer(entry.segment));
+				if (length == null || entry.offset + entry.length > length.longValue()) {
+					prtln("Index entry points past the end of its segment: " + line);
+					return false;
+				}
+				putEntry(fields[1], entry);
+				return true;
+			}
+			if (fields[0].equals("D") && fields.length == 2) {
+				removeEntry(fields[1]);
+				return true;
+			}
+		} catch (NumberFormatException e) {}
+		prtln("Index entry can not be read: " + line);
+		return false;
+	}
+
+
+	/**
+	 *  Moves the segments of a completed compaction in beside the current segments, replaces the journal with
+	 *  the compacted one, and deletes the segments the new journal does not refer to. Until the journal is
+	 *  replaced the current store is intact.
+	 *
+	 * @param  tempDir          The directory holding the compacted store
+	 * @exception  IOException  If a file can not be moved or deleted
+	 */
+	private void installCompacted(File tempDir) throws IOException {
+		File[] files = tempDir.listFiles();
+		for (int i = 0; files != null && i < files.length; i++) {
+			if (getSegmentNum(files[i].getName()) > 0 && !files[i].renameTo(new File(dir, files[i].getName())))
+				throw new IOException("Unable to move '" + files[i] + "' into '" + dir + "'");
+		}
+		File indexFile = new File(dir, INDEX_FILE_NAME);
+		File compactedIndex = new File(tempDir, INDEX_FILE_NAME);
+		if (!compactedIndex.renameTo(indexFile)) {
+			// Some platforms do not rename over an existing file. A crash now is completed by recoverCompaction()
+			indexFile.delete();
+			if (!compactedIndex.renameTo(indexFile))
+				throw new IOException("Unable to move '" + compactedIndex + "' into '" + dir + "'");
+		}
+		deleteUnreferencedSegments(getReferencedSegments(indexFile), null);
+		deleteFiles(tempDir, true);
+	}
+
+
+	/**
+	 *  Finishes or rolls back a compaction that was interrupted. If the journal was not yet replaced, the
+	 *  compacted segments are deleted and the current store is kept. Otherwise the compaction is completed.
+	 *
+	 * @exception  IOException  If a file can not be moved or deleted
+	 */
+	private void recoverCompaction() throws IOException {
+		File tempDir = new File(dir, COMPACTING_DIR_NAME);
+		if (!tempDir.isDirectory())
+			return;
+		File indexFile = new File(dir, INDEX_FILE_NAME);
+		File compactedIndex = new File(tempDir, INDEX_FILE_NAME);
+		if (compactedIndex.exists() && indexFile.exists()) {
+			prtln("Rolling back an interrupted compaction of " + dir);
+			deleteUnreferencedSegments(getReferencedSegments(indexFile), getReferencedSegments(compactedIndex));
+			deleteFiles(tempDir, true);
+		}
+		else if (compactedIndex.exists()) {
+			prtln("Completing an interrupted compaction of " + dir);
+			installCompacted(tempDir);
+		}
+		else {
+			prtln("Completing an interrupted compaction of " + dir);
+			deleteUnreferencedSegments(getReferencedSegments(indexFile), null);
+			deleteFiles(tempDir, true);
+		}
+	}
+
+
+	/**
+	 *  Deletes the segments in the store directory that the given journal entries do not refer to.
+	 *
+	 * @param  keep             The numbers (Integer) of the segments referred to
+	 * @param  only             If not null, only segments with these numbers (Integer) are deleted
+	 * @exception  IOException  If a segment can not be deleted
+	 */
+	private void deleteUnreferencedSegments(Set keep, Set only) throws IOException {
+		File[] files = dir.listFiles();
+		for (int i = 0; files != null && i < files.length; i++) {
+			Integer num = new Integer(getSegmentNum(files[i].getName()));
+			if (num.intValue() > 0 && !keep.contains(num) && (only == null || only.contains(num)) && !files[i].delete())
+				throw new IOException("Unable to delete '" + files[i] + "'");
+		}
+	}
+
+
+	/**
+	 *  Gets the numbers of the segments that a journal refers to.
+	 *
+	 * @param  indexFile        The journal
+	 * @return                  A Set of Integers, empty if the journal does not exist
+	 * @exception  IOException  If error
+	 */
+	private static Set getReferencedSegments(File indexFile) throws IOException {
+		Set segments = new HashSet();
+		if (!indexFile.exists())
+			return segments;
+		BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(indexFile), "UTF-8"));
+		try {
+			String line;
+			while ((line = in.readLine()) != null) {
+				String[] fields = line.split("\t");
+				try {
+					if (fields[0].equals("P") && fields.length == 7)
+						segments.add(new Integer(fields[2]));
+				} catch (NumberFormatException e) {}
+			}
+		} finally {
+			in.close();
+		}
+		return segments;
+	}
+
+
+	/**
+	 *  Appends a record to the current segment, starting a new segment if the current one is full, and adds
+	 *  it to the index.
+	 *
+	 * @param  path             The relative path
+	 * @param  content          The content
+	 * @param  modified         The modification time
+	 * @param  hash             The MD5 hash of the content
+	 * @exception  IOException  If error
+	 */
+	private void append(String path, byte[] content, long modified, String hash) throws IOException {
+		if (segmentOut == null || segmentLength >= maxSegmentBytes) {
+			if (segmentOut != null)
+				segmentOut.close();
+			// A store being compacted starts after the last segment of the store it replaces
+			if (!getSegmentFile(segmentNum).isFile() || segmentLength >= maxSegmentBytes) {
+				segmentNum++;
+				segmentLength = 0;
+			}
+			segmentOut = new BufferedOutputStream(new FileOutputStream(getSegmentFile(segmentNum), true), 64 * 1024);
+		}
+		openIndex();
+
+		Entry entry = new Entry(segmentNum, segmentLength, content.length, modified, hash);
+		segmentOut.write(content);
+		segmentLength += content.length;
+		totalBytes += content.length;
+		indexOut.write("P\t" + path + "\t" + entry.segment + "\t" + entry.offset + "\t" + entry.length + "\t" +
+			entry.modified + "\t" + entry.hash + "\n");
+		putEntry(path, entry);
+	}
+
+
+	private void openIndex() throws IOException {
+		if (indexOut == null)
+			indexOut = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(new File(dir, INDEX_FILE_NAME), true), "UTF-8"));
+	}
+
+
+	/**
+	 *  Stores a copy of a record from another store, keeping its modification time.
+	 *
+	 * @param  path             The relative path
+	 * @param  content          The content
+	 * @param  from             The record's entry in the other store
+	 * @exception  IOException  If error
+	 */
+	private void putCopy(String path, byte[] content, Entry from) throws IOException {
+		append(path, content, from.modified, from.hash);
+	}
+
+
+	private void putEntry(String path, Entry entry) {
+		Entry previous = (Entry) entries.put(path, entry);
+		if (previous != null)
+			liveBytes -= previous.length;
+		liveBytes += entry.length;
+	}
+
+
+	private void removeEntry(String path) {
+		Entry previous = (Entry) entries.remove(path);
+		if (previous != null)
+			liveBytes -= previous.length;
+	}
+
+
+	private byte[] read(Entry entry) throws IOException {
+		if (entry.segment == segmentNum && segmentOut != null)
+			segmentOut.flush();
+		Integer key = new Integer(entry.segment);
+		RandomAccessFile raf = (RandomAccessFile) segmentReaders.get(key);
+		if (raf == null) {
+			raf = new RandomAccessFile(getSegmentFile(entry.segment), "r");
+			segmentReaders.put(key, raf);
+		}
+		byte[] content = new byte[entry.length];
+		raf.seek(entry.offset);
+		raf.readFully(content);
+		if (!md5(content).equals(entry.hash))
+			throw new IOException("The record at offset " + entry.offset + " in segment " + entry.segment +
+				" of '" + dir + "' does not match its hash");
+		return content;
+	}
+
+
+	private List getPathsInStorageOrder() {
+		List paths = new ArrayList(entries.keySet());
+		Collections.sort(paths,
+			new Comparator() {
+				public int compare(Object o1, Object o2) {
+					Entry e1 = (Entry) entries.get(o1);
+					Entry e2 = (Entry) entries.get(o2);
+					if (e1.segment != e2.segment)
+						return e1.segment < e2.segment ? -1 : 1;
+					if (e1.offset != e2.offset)
+						return e1.offset < e2.offset ? -1 : 1;
+					return 0;
+				}
+			});
+		return paths;
+	}
+
+
+	private void closeFiles() throws IOException {
+		if (segmentOut != null)
+			segmentOut.close();
+		segmentOut = null;
+		if (indexOut != null)
+			indexOut.close();
+		indexOut = null;
+		for (Iterator i = segmentReaders.values().iterator(); i.hasNext(); )
+			((RandomAccessFile) i.next()).close();
+		segmentReaders.clear();
+	}
+
+
+	/**
+	 *  Deletes the index journal and segment files in the given directory, and the directory itself if
+	 *  requested.
+	 *
+	 * @param  storeDir         The directory
+	 * @param  deleteDir        True to also delete the directory
+	 * @exception  IOException  If a file can not be deleted
+	 */
+	private static void deleteFiles(File storeDir, boolean deleteDir) throws IOException {
+		File[] files = storeDir.listFiles();
+		for (int i = 0; files != null && i < files.length; i++) {
+			if ((files[i].getName().equals(INDEX_FILE_NAME) || getSegmentNum(files[i].getName()) > 0) && !files[i].delete())
+				throw new IOException("Unable to delete '" + files[i] + "'");
+		}
+		if (deleteDir)
+			storeDir.delete();
+	}
+
+
+	private File getSegmentFile(int num) {
+		String n = Integer.toString(num);
+		while (n.length() < 5)
+			n = "0" + n;
+		return new File(dir, SEGMENT_PREFIX + n + SEGMENT_SUFFIX);
+	}
+
+
+	private static int getSegmentNum(String fileName) {
+		if (!fileName.startsWith(SEGMENT_PREFIX) || !fileName.endsWith(SEGMENT_SUFFIX))
+			return -1;
+		try {
+			return Integer.parseInt(fileName.substring(SEGMENT_PREFIX.length(), fileName.length() - SEGMENT_SUFFIX.length()));
+		} catch (NumberFormatException e) {
+			return -1;
+		}
+	}
+
+
+	private static void checkPath(String path) {
+		if (path == null || path.length() == 0 || path.indexOf('\t') != -1 || path.indexOf('\n') != -1 || path.indexOf('\r') != -1)
+			throw new IllegalArgumentException("Invalid record path '" + path + "'");
+	}
+
+
+	private static String md5(byte[] content) {
+		try {
+			byte[] digest = MessageDigest.getInstance("MD5").digest(content);
+			StringBuffer hex = new StringBuffer(digest.length * 2);
+			for (int i = 0; i < digest.length; i++) {
+				int b = digest[i] & 0xff;
+				if (b < 16)
+					hex.append('0');
+				hex.append(Integer.toHexString(b));
+			}
+			return hex.toString();
+		} catch (java.security.NoSuchAlgorithmException e) {
+			throw new RuntimeException("MD5 is not available: " + e);
+		}
+	}
+
+
+	/**  The location and hash of a stored record. */
+	private static class Entry {
+		int segment;
+		long offset;
+		int length;
+		long modified;
+		String hash;
+
+
+		Entry(int segment, long offset, int length, long modified, String hash) {
+			this.segment = segment;
+			this.offset = offset;
+			this.length = length;
+			this.modified = modified;
+			this.hash = hash;
+		}
+	}
+
+
+	/**
+	 *  Command line interface for exporting a store. Arguments: 'export storeDir destDir' writes each record
+	 *  to its own file under destDir. 'zip storeDir zipFile' writes the records to a zip archive.
+	 *
+	 * @param  args  The command line arguments
+	 */
+	public static void main(String[] args) {
+		if (args.length != 3 || !(args[0].equals("export") || args[0].equals("zip"))) {
+			System.out.println("Usage: java PackedRecordStore export|zip storeDir destDir|zipFile");
+			System.exit(1);
+		}
+		try {
+			File storeDir = new File(args[1]);
+			if (!isPackedRecordStore(storeDir))
+				throw new IOException("'" + storeDir + "' is not a packed record store");
+			PackedRecordStore store = new PackedRecordStore(storeDir);
+			int num;
+			if (args[0].equals("export"))
+				num = store.exportFiles(new File(args[2]));
+			else {
+				OutputStream out = new BufferedOutputStream(new FileOutputStream(args[2]));
+				try {
+					num = store.writeZip(out);
+				} finally {
+					out.close();
+				}
+			}
+			store.close();
+			System.out.println("Wrote " + num + " records to " + args[2]);
+		} catch (Exception e) {
+			System.err.println("Error: " + e.getMessage());
+			System.exit(1);
+		}
+	}
+
+
+	/**
+	 *  Sets the debug attribute of the PackedRecordStore class
+	 *
+	 * @param  isDebugOutput  The new debug value
+	 */
+	public static void setDebug(boolean isDebugOutput) {
+		debug = isDebugOutput;
+	}
+
+
+	private static void prtln(String s) {
+		if (debug)
+			System.out.println("PackedRecordStore: " + s);
+	}
+}
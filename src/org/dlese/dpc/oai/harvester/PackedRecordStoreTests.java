@@ -0,0 +1,193 @@
+/*
+	Copyright 2017 Digital Learning Sciences (DLS) at the
+	University Corporation for Atmospheric Research (UCAR),
+	P.O. Box 3000, Boulder, CO 80307
+
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+
+	http://www.apache.org/licenses/LICENSE-2.0
+
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+package org.dlese.dpc.oai.harvester;
+
+import org.dlese.dpc.util.Files;
+
+import junit.framework.*;
+import java.io.*;
+import java.util.*;
+
+/**
+ *  Checks that a {@link PackedRecordStore} saves and gives back harvested records. Generated records are saved
+ *  as a full harvest, then as an incremental harvest where every tenth record has changed, and the store
+ *  reopened from its index journal, compacted and exported must give back the same records. The throughput
+ *  of saving a harvest, in the store and as one file per record, is measured by the
+ *  PackedRecordStoreBenchmark in the benchmarks module. <p>
+ *
+ *  The following System properties may be used to configure the run: 'store.num.records' (default 5000) and
+ *  'store.record.bytes' (default 2000).
+ *
+ * @author    John Weatherley
+ */
+public class PackedRecordStoreTests extends TestCase {
+	File tempDir = null;
+	String[] paths = null;
+	byte[][] records = null;
+	byte[][] changedRecords = null;
+
+
+	/**
+	 *  A unit test suite for JUnit
+	 *
+	 * @return    The test suite
+	 */
+	public static Test suite() {
+		// Use java reflection to run all test methods in this class:
+		prtln("");
+		return new TestSuite(PackedRecordStoreTests.class);
+	}
+
+
+	/**
+	 *  The JUnit setup method. Gets called prior to running EACH test method call.
+	 *
+	 * @exception  Exception  If error
+	 */
+	protected void setUp()
+			 throws Exception {
+		prtln(".");
+
+		int numRecords = Integer.getInteger("store.num.records", 5000).intValue();
+		int recordBytes = Integer.getInteger("store.record.bytes", 2000).intValue();
+
+		tempDir = File.createTempFile("PackedRecordStoreTests", "");
+		tempDir.delete();
+		tempDir.mkdirs();
+
+		paths = new String[numRecords];
+		records = new byte[numRecords][];
+		changedRecords = new byte[numRecords][];
+		for (int i = 0; i < numRecords; i++) {
+			paths[i] = "set" + (i % 4) + "/oai%3Aexample.org%3A" + i + ".xml";
+			records[i] = makeRecord(i, recordBytes, "");
+			changedRecords[i] = (i % 10 == 0 ? makeRecord(i, recordBytes, " (revised)") : records[i]);
+		}
+	}
+
+
+	/**
+	 *  The JUnit tearDown method
+	 *
+	 * @exception  Exception  If error
+	 */
+	protected void tearDown()
+			 throws Exception {
+		Files.deleteDirectory(tempDir);
+	}
+
+
+	/**
+	 *  Checks that unchanged records are not written again, that a reopened store gives back the records, and
+	 *  that compacting and exporting keep them.
+	 *
+	 * @exception  Exception  If error
+	 */
+	public void test_store_round_trip()
+			 throws Exception {
+		File storeDir = new File(tempDir, "store");
+		PackedRecordStore store = new PackedRecordStore(storeDir);
+		store.setMaxSegmentBytes(256 * 1024);
+		for (int i = 0; i < paths.length; i++)
+			Assert.assertFalse("New record reported as unchanged", store.put(paths[i], records[i]));
+		for (int i = 0; i < paths.length; i++)
+			Assert.assertEquals("Record " + i + " change status", changedRecords[i] == records[i], store.put(paths[i], changedRecords[i]));
+		Assert.assertTrue(store.remove(paths[1]));
+		Assert.assertFalse(store.remove(paths[1]));
+		store.close();
+
+		Assert.assertTrue(PackedRecordStore.isPackedRecordStore(storeDir));
+		store = new PackedRecordStore(storeDir);
+		Assert.assertEquals(paths.length - 1, store.size());
+		assertRecords(store);
+
+		// Replace every record so that most of the space is held by old copies
+		for (int i = 0; i < paths.length; i++) {
+			if (i != 1)
+				store.put(paths[i], makeRecord(i, records[i].length, " (draft)"));
+		}
+		for (int i = 0; i < paths.length; i++) {
+			if (i != 1)
+				store.put(paths[i], changedRecords[i]);
+		}
+		Assert.assertTrue("Store was not compacted", store.compact());
+		assertRecords(store);
+		store.close();
+
+		store = new PackedRecordStore(storeDir);
+		assertRecords(store);
+		File exportDir = new File(tempDir, "export");
+		Assert.assertEquals(paths.length - 1, store.exportFiles(exportDir));
+		store.close();
+		for (int i = 0; i < paths.length; i++) {
+			File f = new File(exportDir, paths[i]);
+			Assert.assertEquals("Exported file " + f, i != 1, f.exists());
+			if (i != 1)
+				Assert.assertTrue("Exported file " + f + " differs", Arrays.equals(changedRecords[i], readBytes(f)));
+		}
+	}
+
+
+	private void assertRecords(PackedRecordStore store) throws Exception {
+		for (int i = 0; i < paths.length; i++) {
+			if (i == 1)
+				Assert.assertNull(store.get(paths[i]));
+			else
+				Assert.assertTrue("Record " + i + " differs", Arrays.equals(changedRecords[i], store.get(paths[i])));
+		}
+	}
+
+
+	private static byte[] makeRecord(int i, int numBytes, String revision) throws Exception {
+		StringBuffer xml = new StringBuffer();
+		xml.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<oai_dc:dc xmlns:oai_dc=\"http://www.openarchives.org/OAI/2.0/oai_dc/\" xmlns:dc=\"http://purl.org/dc/elements/1.1/\">\n");
+		xml.append("  <dc:identifier>oai:example.org:" + i + "</dc:identifier>\n");
+		xml.append("  <dc:title>Record number " + i + revision + "</dc:title>\n");
+		while (xml.length() < numBytes - 40)
+			xml.append("  <dc:subject>Subject " + (xml.length() % 97) + "</dc:subject>\n");
+		xml.append("</oai_dc:dc>\n");
+		return xml.toString().getBytes("UTF-8");
+	}
+
+
+	private static byte[] readBytes(File f) throws Exception {
+		byte[] content = new byte[(int) f.length()];
+		DataInputStream in = new DataInputStream(new FileInputStream(f));
+		try {
+			in.readFully(content);
+		} finally {
+			in.close();
+		}
+		return content;
+	}
+
+
+	private static void prtln(String s) {
+		System.out.println(s);
+	}
+
+
+	/**
+	 *  Main method for running this single suite from the command line
+	 *
+	 * @param  args  The command line arguments
+	 */
+	public static void main(String[] args) {
+		junit.textui.TestRunner.run(suite());
+	}
+}
@@ -44,6 +44,12 @@ public final class ScheduledHarvestManager {
 	private SimpleDataStore ds = null;
 	private SimpleLuceneIndex harvestLogIndex = null;
 	private int timeOutMilliseconds = 240000;
+	private int numPrefetchPages = 0;
+	private boolean packedStorageEnabled = false;
+
+	// One scheduler thread starts all scheduled harvests, which then run in the bounded HarvestQueue
+	private Timer scheduler = new Timer(true);
+	private HarvestQueue harvestQueue = new HarvestQueue(4, 1, 0);
 
 
 	/**
@@ -79,6 +85,92 @@ public final class ScheduledHarvestManager {
 	}
 
 
+	/**
+	 *  Sets the number of ListRecords pages each harvest may fetch ahead of the page whose records are being
+	 *  written. See {@link Harvester#setNumPrefetchPages(int)}.
+	 *
+	 * @param  numPrefetchPages  The maximum number of pages fetched ahead, or 0 to disable
+	 */
+	public void setNumPrefetchPages(int numPrefetchPages) {
+		this.numPrefetchPages = numPrefetchPages;
+	}
+
+
+	/**
+	 *  Gets the number of ListRecords pages each harvest may fetch ahead of the page whose records are being
+	 *  written.
+	 *
+	 * @return    The numPrefetchPages value
+	 */
+	public int getNumPrefetchPages() {
+		return numPrefetchPages;
+	}
+
+
+	/**
+	 *  Sets whether each harvest saves its records in a {@link PackedRecordStore} rather than one file per
+	 *  record. See {@link Harvester#setPackedStorageEnabled(boolean)}.
+	 *
+	 * @param  packedStorageEnabled  True to save records in a PackedRecordStore
+	 */
+	public void setPackedStorageEnabled(boolean packedStorageEnabled) {
+		this.packedStorageEnabled = packedStorageEnabled;
+	}
+
+
+	/**
+	 *  Determines whether each harvest saves its records in a {@link PackedRecordStore}.
+	 *
+	 * @return    True if packed storage is enabled
+	 */
+	public boolean isPackedStorageEnabled() {
+		return packedStorageEnabled;
+	}
+
+
+	/**
+	 *  Sets the maximum number of harvests that run at once. Harvests that come due while this many are
+	 *  running wait in the HarvestQueue. Defaults to 4.
+	 *
+	 * @param  maxConcurrentHarvests  The maximum number of harvests that run at once
+	 */
+	public void setMaxConcurrentHarvests(int maxConcurrentHarvests) {
+		harvestQueue.setNumWorkers(maxConcurrentHarvests);
+	}
+
+
+	/**
+	 *  Sets the maximum number of harvests that run at once against the same data provider host. Defaults to
+	 *  1.
+	 *
+	 * @param  maxHarvestsPerHost  The maximum number of harvests per host
+	 */
+	public void setMaxHarvestsPerHost(int maxHarvestsPerHost) {
+		harvestQueue.setMaxPerHost(maxHarvestsPerHost);
+	}
+
+
+	/**
+	 *  Sets the minimum time between requests to the same data provider host, across all harvests. Defaults to
+	 *  0, for no wait between requests.
+	 *
+	 * @param  minRequestIntervalMillis  The minimum interval in milliseconds
+	 */
+	public void setMinRequestIntervalMillis(long minRequestIntervalMillis) {
+		harvestQueue.setMinRequestIntervalMillis(minRequestIntervalMillis);
+	}
+
+
+	/**
+	 *  Gets the HarvestQueue the harvests run in, which gives the number of harvests waiting and running.
+	 *
+	 * @return    The HarvestQueue
+	 */
+	public HarvestQueue getHarvestQueue() {
+		return harvestQueue;
+	}
+
+
 	/**
 	 *  Removes log entries showing entrytype status inprogress and replaces them with an error message
 	 *  indicateing that the given harvest was terminated by a server shut-down or crash. This method should only
@@ -166,6 +258,17 @@ public final class ScheduledHarvestManager {
 	}
 
 
+	/**
+	 *  Determines whether the given ScheduledHarvest is waiting in the HarvestQueue to run.
+	 *
+	 * @param  shUid  ScheduledHarvest ID.
+	 * @return        True if waiting to run.
+	 */
+	public boolean isQueued(Long shUid) {
+		return harvestQueue.isQueued(shUid);
+	}
+
+
 
 	/**
 	 *  Gets all scheduledHarvests in this this manager.
@@ -294,7 +397,9 @@ public final class ScheduledHarvestManager {
 
 
 	/**
-	 *  Harvests the given ScheduledHarvest immediately, if not already running.
+	 *  Queues the given ScheduledHarvest to run ahead of scheduled harvests, if not already running. If it is
+	 *  waiting to run as a scheduled harvest, it is moved ahead of scheduled harvests and runs with the given
+	 *  options.
 	 *
 	 * @param  shUid                        Uid of the ScheduledHarvest.
 	 * @param  harvestAll                   True to havest all records, false to havest only records changed
@@ -312,7 +417,8 @@ public final class ScheduledHarvestManager {
 			sh.setHarvestAll(false);
 		}
 
-		new HarvestThread(shUid, harvestAll, harvestAllIfNoDeletedRecord, true).start();
+		harvestQueue.submit(shUid, sh.getBaseURL(), HarvestQueue.PRIORITY_MANUAL, sh.getRepositoryName(),
+			new HarvestJob(shUid, harvestAll, harvestAllIfNoDeletedRecord, true));
 	}
 
 
@@ -352,6 +458,9 @@ public final class ScheduledHarvestManager {
 				50, sh.getHarvestDir());
 			OAIChangeListener oaiChangeListener = null;
 			harvester = new Harvester(handler, oaiChangeListener, timeOutMilliseconds);
+			harvester.setNumPrefetchPages(numPrefetchPages);
+			harvester.setPackedStorageEnabled(packedStorageEnabled);
+			harvester.setHarvestQueue(harvestQueue);
 			handler.setHarvester(harvester);
 			runningHarvests.put(shUid, harvester);
 		}
@@ -456,11 +565,16 @@ public final class ScheduledHarvestManager {
 	 */
 	public boolean isRunningOneTimeHarvest(ScheduledHarvest sh) {
 		synchronized (this) {
-			return runningOneTimeHarvests.containsKey(sh.toString());
+			return runningOneTimeHarvests.containsKey(sh.toString()) || harvestQueue.isQueued(getOneTimeHarvestKey(sh));
 		}
 	}
 
 
+	private String getOneTimeHarvestKey(ScheduledHarvest sh) {
+		return "oneTime:" + sh.toString();
+	}
+
+
 	Hashtable runningOneTimeHarvests = new Hashtable();
 
 
@@ -490,6 +604,9 @@ public final class ScheduledHarvestManager {
 				50, sh.getHarvestDir());
 			OAIChangeListener oaiChangeListener = null;
 			harvester = new Harvester(handler, oaiChangeListener, timeOutMilliseconds);
+			harvester.setNumPrefetchPages(numPrefetchPages);
+			harvester.setPackedStorageEnabled(packedStorageEnabled);
+			harvester.setHarvestQueue(harvestQueue);
 			handler.setHarvester(harvester);
 			runningOneTimeHarvests.put(sh.toString(), harvester);
 		}
@@ -569,7 +686,7 @@ public final class ScheduledHarvestManager {
 
 
 	/**
-	 *  Performs a one-time only harvest in the background.
+	 *  Queues a one-time only harvest to run in the background ahead of scheduled harvests.
 	 *
 	 * @param  sh                           A ScheduledHarvest with appropriate settings.
 	 * @param  from                         From Date
@@ -579,7 +696,8 @@ public final class ScheduledHarvestManager {
 	 *      supported
 	 */
 	public void oneTimeHarvest(ScheduledHarvest sh, Date from, Date until, File harvestDir, boolean harvestAllIfNoDeletedRecord) {
-		new OneTimeHarvestThread(sh, from, until, harvestDir, harvestAllIfNoDeletedRecord).start();
+		harvestQueue.submit(getOneTimeHarvestKey(sh), sh.getBaseURL(), HarvestQueue.PRIORITY_MANUAL, sh.getRepositoryName() + " (one time)",
+			new OneTimeHarvestJob(sh, from, until, harvestDir, harvestAllIfNoDeletedRecord));
 	}
 
 
@@ -724,7 +842,7 @@ public final class ScheduledHarvestManager {
 
 
 	/**
-	 *  Start or restarts the timer thread with the given update frequency.
+	 *  Schedules or reschedules the harvest on the scheduler thread at the given update frequency.
 	 *
 	 * @param  shUid  The uid of the ScheduledHarvest.
 	 */
@@ -781,16 +899,13 @@ public final class ScheduledHarvestManager {
 			stopTimerThread(shUid);
 		}
 
-		Timer timer = (Timer) harvestTimers.get(shUid);
+		TimerTask harvestTimer = (TimerTask) harvestTimers.get(shUid);
 		if (updateFrequency > 0) {
-			if (timer != null) {
-				timer.cancel();
+			if (harvestTimer != null) {
+				harvestTimer.cancel();
 			}
 
-			// Set daemon to true
-			timer = new Timer(true);
-
-			TimerTask harvestTimer = new HarvestTask(shUid);
+			harvestTimer = new HarvestTask(shUid);
 
 			// Normalize the update frequency:
 			updateFrequency = ((updateFrequency > 0) ? updateFrequency : 60000);
@@ -798,14 +913,14 @@ public final class ScheduledHarvestManager {
 			// Start the timer
 			if (runAtDate == null) {
 				prtln("\n\nScheduling harvest interval: " + updateFrequency);
-				timer.schedule(harvestTimer, 20, updateFrequency);
+				scheduler.schedule(harvestTimer, 20, updateFrequency);
 			}
 			else {
 				prtln("\n\nScheduling harvest to begin at: " + runAtDate + " interval: " + updateFrequency);
-				timer.scheduleAtFixedRate(harvestTimer, runAtDate, updateFrequency);
+				scheduler.scheduleAtFixedRate(harvestTimer, runAtDate, updateFrequency);
 			}
 
-			harvestTimers.put(shUid, timer);
+			harvestTimers.put(shUid, harvestTimer);
 			prtln("ScheduledHarvest timer started");
 		}
 	}
@@ -822,6 +937,8 @@ public final class ScheduledHarvestManager {
 				stopTimerThread((Long) scheduled.nextElement());
 			}
 		}
+		scheduler.cancel();
+		harvestQueue.shutdown();
 
 		Harvester har;
 		if (runningHarvests != null) {
@@ -840,9 +957,9 @@ public final class ScheduledHarvestManager {
 			}
 		}
 
-		if (harvestLogIndex != null) { // stop harvesting log thread when shutting down
+		if (harvestLogIndex != null) { // close the harvest log index when shutting down
 			try {
-				harvestLogIndex.stopIndexing();
+				harvestLogIndex.close();
 			} catch (Exception e) {
 			}
 		}
@@ -855,10 +972,11 @@ public final class ScheduledHarvestManager {
 	 * @param  shUid  The uid of the ScheduledHarvest.
 	 */
 	public void stopTimerThread(Long shUid) {
-		Timer timer = (Timer) harvestTimers.get(shUid);
+		TimerTask harvestTimer = (TimerTask) harvestTimers.get(shUid);
 
-		if (timer != null) {
-			timer.cancel();
+		if (harvestTimer != null) {
+			harvestTimer.cancel();
+			scheduler.purge();
 			harvestTimers.remove(shUid);
 			prtln("ScheduledHarvest timer stopped");
 		}
@@ -901,13 +1019,13 @@ public final class ScheduledHarvestManager {
 
 
 	/**
-	 *  Runs the harvest in the background
+	 *  Runs the harvest in the HarvestQueue
 	 *
 	 * @author     John Weatherley
 	 * @version    $Id: ScheduledHarvestManager.java,v 1.23.2.3 2013/05/27 04:05:39 jweather Exp $
 	 * @created    January 13, 2006
 	 */
-	private class HarvestThread extends Thread {
+	private class HarvestJob implements Runnable {
 		Long shUid;
 		boolean harvestAll, override, harvestAllIfNoDeletedRecord;
 		ScheduledHarvest sh = null;
@@ -915,7 +1033,7 @@ public final class ScheduledHarvestManager {
 
 
 		/**
-		 *  Constructor for the HarvestThread object
+		 *  Constructor for the HarvestJob object
 		 *
 		 * @param  shUid                        The ID of the ScheduledHarvest to run.
 		 * @param  harvestAll                   True to harvest all records, false to only harvest records that have
@@ -925,7 +1043,7 @@ public final class ScheduledHarvestManager {
 		 * @param  override                     True to perform the harvest regardless of status, false to perform
 		 *      the harvest only if the status is "enabled".
 		 */
-		public HarvestThread(Long shUid, boolean harvestAll, boolean harvestAllIfNoDeletedRecord, boolean override) {
+		public HarvestJob(Long shUid, boolean harvestAll, boolean harvestAllIfNoDeletedRecord, boolean override) {
 			this.shUid = shUid;
 			this.harvestAll = harvestAll;
 			this.harvestAllIfNoDeletedRecord = harvestAllIfNoDeletedRecord;
@@ -933,16 +1051,15 @@ public final class ScheduledHarvestManager {
 		}
 
 
-		/**  Main processing method for the HarvestThread object */
+		/**  Main processing method for the HarvestJob object */
 		public void run() {
-			setPriority(Thread.MIN_PRIORITY);
 			performHarvest(shUid, harvestAll, harvestAllIfNoDeletedRecord, override);
 		}
 	}
 
 
 	/**
-	 *  Runs the harvest in the background at given intervals.
+	 *  Queues the harvest at given intervals.
 	 *
 	 * @author     John Weatherley
 	 * @version    $Id: ScheduledHarvestManager.java,v 1.23.2.3 2013/05/27 04:05:39 jweather Exp $
@@ -968,23 +1085,28 @@ public final class ScheduledHarvestManager {
 			boolean harvestAll = false;
 			boolean harvestAllIfNoDeletedRecord = true;
 
+			ScheduledHarvest sh = getScheduledHarvest(shUid);
+			if (sh == null)
+				return;
+
 			// For scheduled harvests, only harvest all if deletions are not supported:
-			new HarvestThread(shUid, harvestAll, harvestAllIfNoDeletedRecord, false).start();
+			harvestQueue.submit(shUid, sh.getBaseURL(), HarvestQueue.PRIORITY_SCHEDULED, sh.getRepositoryName(),
+				new HarvestJob(shUid, harvestAll, harvestAllIfNoDeletedRecord, false));
 
 			//new auto harvest setting which would harvest all records every time.
-			//new HarvestThread(shUid, true, false, false).start();
+			//new HarvestJob(shUid, true, false, false)
 		}
 	}
 
 
 	/**
-	 *  Runs the harvest in the background
+	 *  Runs the one-time harvest in the HarvestQueue
 	 *
 	 * @author     John Weatherley
 	 * @version    $Id: ScheduledHarvestManager.java,v 1.23.2.3 2013/05/27 04:05:39 jweather Exp $
 	 * @created    January 13, 2006
 	 */
-	private class OneTimeHarvestThread extends Thread {
+	private class OneTimeHarvestJob implements Runnable {
 		ScheduledHarvest sh = null;
 		Date from = null, until = null;
 		File harvestDir;
@@ -992,7 +1114,7 @@ public final class ScheduledHarvestManager {
 
 
 		/**
-		 *  Constructor for the OneTimeHarvestThread object
+		 *  Constructor for the OneTimeHarvestJob object
 		 *
 		 * @param  from                         From time, or null for none.
 		 * @param  until                        Until time, or null for none.
@@ -1001,7 +1123,7 @@ public final class ScheduledHarvestManager {
 		 * @param  harvestAllIfNoDeletedRecord  True to harvest all records from scratch if deleted records are not
 		 *      supported
 		 */
-		public OneTimeHarvestThread(ScheduledHarvest sh, Date from, Date until, File harvestDir, boolean harvestAllIfNoDeletedRecord) {
+		public OneTimeHarvestJob(ScheduledHarvest sh, Date from, Date until, File harvestDir, boolean harvestAllIfNoDeletedRecord) {
 			this.from = from;
 			this.until = until;
 			this.harvestDir = harvestDir;
@@ -1010,9 +1132,8 @@ public final class ScheduledHarvestManager {
 		}
 
 
-		/**  Main processing method for the OneTimeHarvestThread object */
+		/**  Main processing method for the OneTimeHarvestJob object */
 		public void run() {
-			setPriority(Thread.MIN_PRIORITY);
 			performOneTimeHarvest(sh, from, until, harvestDir, harvestAllIfNoDeletedRecord);
 		}
 	}
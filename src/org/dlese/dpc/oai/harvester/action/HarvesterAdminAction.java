@@ -108,6 +108,7 @@ public final class HarvesterAdminAction extends Action {
 		haf.setHarvestedDataDir(((File) ds.get(Keys.HARVESTED_DATA_DIR)).getAbsolutePath());
 		haf.setShHarvestedDataDir(shm.getHarvestDir().getAbsolutePath());
 		haf.setScheduledHarvests(shm.getScheduledHarvests());
+		haf.setHarvestQueue(shm.getHarvestQueue());
 		haf.setMySes(mySes.toString());
 
 		if (haf.getCommonDirs() == null) {
@@ -540,7 +541,8 @@ public final class HarvesterAdminAction extends Action {
 						saveErrors(req, errors);
 						return mapping.findForward("display.harvester.settings");
 					}
-					
+
+					// A scheduled harvest already waiting to run is moved ahead of scheduled harvests and runs with these options
 					boolean harvestAllIfNoDeletedRecord = false;
 					
 					if (req.getParameter("doAll") != null) {
@@ -551,8 +553,12 @@ public final class HarvesterAdminAction extends Action {
 
 					haf.setLastRunHarvest(shm.getScheduledHarvest(shUid));
 
-					errors.add("runHarvest", new ActionError("generic.message", "The harvest for " +
-							shm.getScheduledHarvest(shUid).getRepositoryName() + " has been started."));
+					if (shm.isQueued(shUid))
+						errors.add("runHarvest", new ActionError("generic.message", "The harvest for " +
+								shm.getScheduledHarvest(shUid).getRepositoryName() + " has been queued and will start when a harvester is free."));
+					else
+						errors.add("runHarvest", new ActionError("generic.message", "The harvest for " +
+								shm.getScheduledHarvest(shUid).getRepositoryName() + " has been started."));
 
 					saveErrors(req, errors);
 					return mapping.findForward("display.harvester.settings");
@@ -107,6 +107,8 @@ public final class HarvesterAdminForm extends ActionForm {
 
 	private Object[] scheduledHarvestsSorted = null;
 
+	private HarvestQueue harvestQueue = null;
+
 
 
 	private String shRepositoryName = null;
@@ -1436,6 +1438,46 @@ public final class HarvesterAdminForm extends ActionForm {
 
 
 
+	/**
+
+	 *  Sets the HarvestQueue whose waiting and running harvests are displayed
+
+	 *
+
+	 * @param  harvestQueue  The HarvestQueue
+
+	 */
+
+	public void setHarvestQueue(HarvestQueue harvestQueue) {
+
+		this.harvestQueue = harvestQueue;
+
+	}
+
+
+
+
+
+	/**
+
+	 *  Gets the HarvestQueue whose waiting and running harvests are displayed
+
+	 *
+
+	 * @return    The HarvestQueue
+
+	 */
+
+	public HarvestQueue getHarvestQueue() {
+
+		return harvestQueue;
+
+	}
+
+
+
+
+
 	/**
 
 	 *  Sets the validateRecords attribute of the HarvesterAdminForm object
@@ -173,6 +173,48 @@ public final class OAIProviderServlet extends HttpServlet {
 			prtlnErr("Error reading context parameter maxNumFilesToIndex: " + nfe.getMessage());
 		}
 
+		int numIndexingThreads = 1;
+		val = (String) servletContext.getInitParameter("numIndexingThreads");
+		try {
+			if (val != null && val.trim().length() > 0)
+				numIndexingThreads = Integer.parseInt(val.trim());
+		} catch (Throwable nfe) {
+			prtlnErr("Error reading context parameter numIndexingThreads: " + nfe.getMessage());
+		}
+
+		// Settings for how the index writes updates:
+		double indexRamBufferSizeMB = SimpleLuceneIndex.DEFAULT_RAM_BUFFER_SIZE_MB;
+		int indexMergeFactor = SimpleLuceneIndex.DEFAULT_MERGE_FACTOR;
+		long indexCommitInterval = SimpleLuceneIndex.DEFAULT_COMMIT_INTERVAL;
+		try {
+			val = servletContext.getInitParameter("indexRamBufferSizeMB");
+			if (val != null && val.trim().length() > 0)
+				indexRamBufferSizeMB = Double.parseDouble(val.trim());
+			val = servletContext.getInitParameter("indexMergeFactor");
+			if (val != null && val.trim().length() > 0)
+				indexMergeFactor = Integer.parseInt(val.trim());
+			val = servletContext.getInitParameter("indexCommitInterval");
+			if (val != null && val.trim().length() > 0)
+				indexCommitInterval = Long.parseLong(val.trim()) * 1000;
+		} catch (Throwable nfe) {
+			prtlnErr("Error reading index writer context parameters: " + nfe.getMessage());
+		}
+		String indexFileContentStorage = servletContext.getInitParameter("indexFileContentStorage");
+		String adminDataEngine = servletContext.getInitParameter("adminDataEngine");
+
+		// Read schemas and DTDs used for validation from local copies, if configured:
+		val = servletContext.getInitParameter("localSchemaCatalog");
+		if (val != null && val.trim().length() > 0) {
+			try {
+				LocalSchemaCatalog catalog =
+					new LocalSchemaCatalog(new File(GeneralServletTools.getAbsolutePath(val.trim(), servletContext)));
+				XMLValidator.setLocalSchemaCatalog(catalog);
+				prtln("Reading " + catalog.size() + " schema locations from local copies");
+			} catch (Throwable e) {
+				prtlnErr("Error reading context parameter localSchemaCatalog: " + e);
+			}
+		}
+
 		// Set all debugging:
 		RepositoryManager.setDebug(debug);
 		FileIndexingService.setDebug(debug);
@@ -216,6 +258,22 @@ public final class OAIProviderServlet extends HttpServlet {
 
 			// get additional indexing classes from the servlet config.
 			rm.setAdditionalIndices(getFileIndexingClasses()); 
+			rm.setNumIndexingThreads(numIndexingThreads);
+			rm.setIndexWriterSettings(indexRamBufferSizeMB, indexMergeFactor, indexCommitInterval);
+			if (indexFileContentStorage != null && indexFileContentStorage.trim().length() > 0) {
+				try {
+					rm.setFileContentStorage(indexFileContentStorage);
+				} catch (IllegalArgumentException e) {
+					prtlnErr("Error reading context parameter indexFileContentStorage: " + e.getMessage());
+				}
+			}
+			if (adminDataEngine != null && adminDataEngine.trim().length() > 0) {
+				try {
+					rm.setAdminDataEngine(adminDataEngine);
+				} catch (IllegalArgumentException e) {
+					prtlnErr("Error reading context parameter adminDataEngine: " + e.getMessage());
+				}
+			}
 
 			// Make the RepositoryManager available to the beans that use it:
 			if (rm.init(true) == 1) {
@@ -235,6 +293,29 @@ public final class OAIProviderServlet extends HttpServlet {
 		if (serverUrl != null && !serverUrl.equals("[determine-from-client]"))
 			rm.setServerUrl(serverUrl);		
 		
+		// Set up the resumptionToken store used for ListRecords and ListIdentifiers requests:
+		String tokenTimeToLive = servletContext.getInitParameter("resumptionTokenTimeToLive");
+		try {
+			if (tokenTimeToLive != null && tokenTimeToLive.trim().length() > 0)
+				rm.getResumptionTokenStore().setTimeToLive(Long.parseLong(tokenTimeToLive.trim()) * 60000);
+		} catch (Throwable nfe) {
+			prtlnErr("Error reading context parameter resumptionTokenTimeToLive: " + nfe.getMessage());
+		}
+		String tokenMaxResults = servletContext.getInitParameter("resumptionTokenMaxResults");
+		try {
+			if (tokenMaxResults != null && tokenMaxResults.trim().length() > 0)
+				rm.getResumptionTokenStore().setMaxResults(Integer.parseInt(tokenMaxResults.trim()));
+		} catch (Throwable nfe) {
+			prtlnErr("Error reading context parameter resumptionTokenMaxResults: " + nfe.getMessage());
+		}
+		String tokenMaxIndexReaders = servletContext.getInitParameter("resumptionTokenMaxIndexReaders");
+		try {
+			if (tokenMaxIndexReaders != null && tokenMaxIndexReaders.trim().length() > 0)
+				rm.getResumptionTokenStore().setMaxReaders(Integer.parseInt(tokenMaxIndexReaders.trim()));
+		} catch (Throwable nfe) {
+			prtlnErr("Error reading context parameter resumptionTokenMaxIndexReaders: " + nfe.getMessage());
+		}
+
 		// Set up the ending portion of the baseUrl for the data provider:
 		String dataProviderBaseUrlPathEnding = servletContext.getInitParameter("dataProviderBaseUrlPathEnding");
 		if(dataProviderBaseUrlPathEnding != null)
@@ -246,6 +327,26 @@ public final class OAIProviderServlet extends HttpServlet {
 		webLogIndex.setOperator(SimpleLuceneIndex.DEFAULT_AND);
 		//webLogIndex.setDebug(debug);
 
+		// Queue web log entries so they are indexed in batches in the background:
+		int webLogMaxQueueSize = WebLogIndexQueue.DEFAULT_MAX_QUEUE_SIZE;
+		int webLogBatchSize = WebLogIndexQueue.DEFAULT_BATCH_SIZE;
+		long webLogFlushInterval = WebLogIndexQueue.DEFAULT_FLUSH_INTERVAL;
+		try {
+			val = servletContext.getInitParameter("webLogMaxQueueSize");
+			if (val != null && val.trim().length() > 0)
+				webLogMaxQueueSize = Integer.parseInt(val.trim());
+			val = servletContext.getInitParameter("webLogBatchSize");
+			if (val != null && val.trim().length() > 0)
+				webLogBatchSize = Integer.parseInt(val.trim());
+			val = servletContext.getInitParameter("webLogFlushInterval");
+			if (val != null && val.trim().length() > 0)
+				webLogFlushInterval = Long.parseLong(val.trim()) * 1000;
+		} catch (Throwable nfe) {
+			prtlnErr("Error reading web log context parameters: " + nfe.getMessage());
+		}
+		WebLogIndexQueue webLogIndexQueue =
+			new WebLogIndexQueue(webLogIndex, webLogMaxQueueSize, webLogBatchSize, webLogFlushInterval);
+
 		// Set up an XMLConversionService for use in OAI and elsewhere:
 		if (rm.getXMLConversionService() == null) {
 			File xslFilesDirecoryPath = new File(GeneralServletTools.getAbsolutePath(
@@ -280,6 +381,7 @@ public final class OAIProviderServlet extends HttpServlet {
 		// Make context scope objects available to our beans:
 		getServletContext().setAttribute("index", rm.getIndex());
 		getServletContext().setAttribute("webLogIndex", webLogIndex);
+		getServletContext().setAttribute("webLogIndexQueue", webLogIndexQueue);
 		
 		
 		// For testing:
@@ -294,11 +396,20 @@ public final class OAIProviderServlet extends HttpServlet {
 	/**  Performs shutdown operations. */
 	public void destroy() {
 		rm.destroy();
-		// shutdown webLogIndex Thread to avoid zombies		
+		// write any queued web log entries before the webLogIndex is closed
+		WebLogIndexQueue webLogIndexQueue = (WebLogIndexQueue)getServletContext().getAttribute("webLogIndexQueue");
+		if(webLogIndexQueue != null) {
+			try {
+				webLogIndexQueue.close();
+			} catch (Exception e) {
+				prtlnErr("Error flushing web log queue: " + e);
+			}
+		}
+		// close the webLogIndex so its writer and threads are released
 		SimpleLuceneIndex webLogIndex = (SimpleLuceneIndex)getServletContext().getAttribute("webLogIndex");
 		if(webLogIndex!= null) {
 			try {
-				webLogIndex.stopIndexing();
+				webLogIndex.close();
 			} catch (Exception e) {
 			}
 		}
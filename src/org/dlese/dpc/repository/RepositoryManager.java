@@ -40,6 +40,7 @@ import org.apache.lucene.document.*;
 import org.apache.lucene.queryParser.QueryParser;
 import org.apache.lucene.index.*;
 import org.apache.lucene.index.Term;
+import org.apache.lucene.util.OpenBitSet;
 
 import javax.servlet.http.HttpServletRequest;
 
@@ -101,7 +102,7 @@ public class RepositoryManager {
 	private int updateFrequency = 0;
 	private String repositoryDataDir;
 	private File itemIndexerConfigDir = null;
-	private SerializedDataManager adminData = null;
+	private DataManager adminData = null;
 	private static String defaultExampleID = null;
 	private SimpleLuceneIndex index = null;
 	private SimpleLuceneIndex dupItemsIndex = null;
@@ -142,8 +143,21 @@ public class RepositoryManager {
 	private File setsConfigFile = null;
 	private VirtualSearchFieldMapper virtualSearchFieldMapper = null;
 	private Query oaiFilterQuery = null;
+	private final Object numericDatestampsLock = new Object();
+	private long numericDatestampsGeneration = -1;
+	private boolean numericDatestamps = false;
+
+	// Sets of the records that may be served by OAI-PMH, by format, for the reader and configuration they were built from:
+	private final HashMap oaiRecordsSets = new HashMap();
+	private final HashSet oaiRecordsFormats = new HashSet();
+	private IndexReader oaiRecordsSetsReader = null;
+	private long oaiRecordsSetsGeneration = -1;
+	private long oaiRecordsSetsConfigVersion = -1;
+	private long oaiConfigVersion = 0;
+	private OaiRecordsSetsBuilder oaiRecordsSetsBuilder = null;
 	private String dataProviderBaseUrlPathEnding = "/provider";
 	private String serverUrl = null;
+	private ResumptionTokenStore resumptionTokenStore = new ResumptionTokenStore();
 
 	// Lock for methods that are part of the public update API
 	private Object publicUpdateApiLock = new Object();
@@ -177,6 +191,18 @@ public class RepositoryManager {
 	private static boolean debug = false;
 	private boolean reindexAllFiles = false;
 	private int maxFilesToIndex = 500;
+	private int numIndexingThreads = 1;
+	private String fileContentStorage = org.dlese.dpc.index.document.FileContentTools.STORAGE_PLAIN;
+	private String adminDataEngine = ADMIN_DATA_SERIALIZED;
+
+	/**  Keeps the repository settings in a {@link SerializedDataManager}, one file per setting (the default). */
+	public final static String ADMIN_DATA_SERIALIZED = "serialized";
+
+	/**  Keeps the repository settings in a {@link LogStructuredDataManager}. */
+	public final static String ADMIN_DATA_LOG = "log";
+	private double indexRamBufferSizeMB = SimpleLuceneIndex.DEFAULT_RAM_BUFFER_SIZE_MB;
+	private int indexMergeFactor = SimpleLuceneIndex.DEFAULT_MERGE_FACTOR;
+	private long indexCommitInterval = SimpleLuceneIndex.DEFAULT_COMMIT_INTERVAL;
 
 	private Hashtable additionalIndexers;
 	
@@ -209,9 +235,11 @@ public class RepositoryManager {
 		}
 
 		try {
-			adminData = new SerializedDataManager(adminDataDir.getAbsolutePath(), true);
+			if (adminData instanceof LogStructuredDataManager)
+				((LogStructuredDataManager) adminData).close();
+			adminData = openAdminData(adminDataDir);
 		} catch (Exception e) {
-			prtlnErr("Error initializing the adminData SerializedDataManager " + e);
+			prtlnErr("Error initializing the adminData DataManager " + e);
 			return -1;
 		}
 
@@ -242,6 +270,8 @@ public class RepositoryManager {
 				repositoryDataDir + "/file_indexing_service_data", maxFilesToIndex);
 
 		FileIndexingService.setDebug(debug);
+		fileIndexingService.setNumIndexingThreads(numIndexingThreads);
+		fileIndexingService.setFileContentStorage(fileContentStorage);
 
 		if (getValidateRecords() != null && getValidateRecords().equals("true"))
 			fileIndexingService.setValidationEnabled(true);
@@ -394,11 +424,23 @@ public class RepositoryManager {
 
 		SimpleLuceneIndex newIndex = new SimpleLuceneIndex(indexLocation, perFieldAnalyzer);
 		newIndex.setOperator(SimpleLuceneIndex.DEFAULT_AND);
+		newIndex.setRamBufferSizeMB(indexRamBufferSizeMB);
+		newIndex.setMergeFactor(indexMergeFactor);
+		newIndex.setCommitInterval(indexCommitInterval);
 		index = newIndex;
 		index.setAttribute("repositoryManager", this);
 
-		if (oldIndex != null)
+		// Rebuild the cached OAI record sets in the background each time the index is updated:
+		if (oaiRecordsSetsBuilder == null) {
+			oaiRecordsSetsBuilder = new OaiRecordsSetsBuilder();
+			oaiRecordsSetsBuilder.start();
+		}
+		index.addReopenListener(oaiRecordsSetsBuilder);
+
+		if (oldIndex != null) {
+			oldIndex.removeReopenListener(oaiRecordsSetsBuilder);
 			oldIndex.close();
+		}
 	}
 
 
@@ -494,10 +536,17 @@ public class RepositoryManager {
 		fileIndexingService.stopTimerThread();
 		this.stopIndexingTimer();
 		fileIndexingService.stopIndexing();
+		resumptionTokenStore.clear();
+		if (oaiRecordsSetsBuilder != null)
+			oaiRecordsSetsBuilder.stopBuilding();
+		if (xmlConversionService != null)
+			xmlConversionService.destroy();
 		if (index != null)
 			index.close();
 		if (dupItemsIndex != null)
 			dupItemsIndex.close();
+		if (adminData instanceof LogStructuredDataManager)
+			((LogStructuredDataManager) adminData).close();
 		prtln("RepositoryManager destroy()");
 	}
 
@@ -512,9 +561,21 @@ public class RepositoryManager {
 	}
 
 
+	/**
+	 *  Gets the store that holds the ordered results of OAI-PMH ListRecords and ListIdentifiers requests
+	 *  between resumptionTokens.
+	 *
+	 * @return    The resumptionTokenStore
+	 */
+	public ResumptionTokenStore getResumptionTokenStore() {
+		return resumptionTokenStore;
+	}
+
+
 	/**  Deletes the repository index and re-initializes a new, empty one in its place. */
 	public void deleteIndex() {
 		fileIndexingService.stopIndexing();
+		resumptionTokenStore.clear();
 		if (index != null)
 			index.deleteAndReinititlize();
 		if (dupItemsIndex != null)
@@ -847,6 +908,157 @@ public class RepositoryManager {
 	}
 
 
+	/**
+	 *  Sets the number of threads used to parse files and create their index entries when indexing. Values
+	 *  less than 2 index each file in turn. Default is 1.
+	 *
+	 * @param  numIndexingThreads  The number of indexing threads
+	 * @see                        FileIndexingService#setNumIndexingThreads(int)
+	 */
+	public void setNumIndexingThreads(int numIndexingThreads) {
+		this.numIndexingThreads = numIndexingThreads;
+		if (fileIndexingService != null)
+			fileIndexingService.setNumIndexingThreads(numIndexingThreads);
+	}
+
+
+	/**
+	 *  Sets the DataManager used to keep the repository settings, either 'serialized' (the default) or 'log'
+	 *  for a {@link LogStructuredDataManager}. Must be called before {@link #init(boolean)}. Each time the
+	 *  engine is changed, the settings are copied from the engine that was used before.
+	 *
+	 * @param  engine                        'serialized' or 'log'
+	 * @exception  IllegalArgumentException  If the value is not one of these
+	 */
+	public void setAdminDataEngine(String engine) throws IllegalArgumentException {
+		if (engine == null || !(engine.trim().equals(ADMIN_DATA_SERIALIZED) || engine.trim().equals(ADMIN_DATA_LOG)))
+			throw new IllegalArgumentException("Unknown admin data engine '" + engine + "'. Must be '" + ADMIN_DATA_SERIALIZED + "' or '" + ADMIN_DATA_LOG + "'");
+		adminDataEngine = engine.trim();
+	}
+
+
+	/**
+	 *  Opens the DataManager for the repository settings. The engine in use is recorded in the
+	 *  admin_data_engine file, and when it differs from the one used before, the settings kept by the previous
+	 *  engine replace those in the new one, so the settings carry over whenever the engine is changed in either
+	 *  direction.
+	 *
+	 * @param  adminDataDir   The admin_data directory of the SerializedDataManager
+	 * @return                The DataManager
+	 * @exception  Exception  If error
+	 */
+	private DataManager openAdminData(File adminDataDir) throws Exception {
+		File logDir = new File(repositoryDataDir + "/admin_data_log");
+		File engineFile = new File(repositoryDataDir + "/admin_data_engine");
+		String previousEngine;
+		if (engineFile.exists())
+			previousEngine = Files.readFile(engineFile).toString().trim();
+		else {
+			// Before the engine was recorded, the settings were copied into the log only when it was empty
+			String[] existing = logDir.list();
+			previousEngine = (existing != null && existing.length > 0) ? ADMIN_DATA_LOG : ADMIN_DATA_SERIALIZED;
+		}
+
+		DataManager data;
+		if (adminDataEngine.equals(ADMIN_DATA_LOG)) {
+			logDir.mkdirs();
+			data = new LogStructuredDataManager(logDir.getAbsolutePath(), true);
+		}
+		else
+			data = new SerializedDataManager(adminDataDir.getAbsolutePath(), true);
+
+		if (!adminDataEngine.equals(previousEngine)) {
+			if (previousEngine.equals(ADMIN_DATA_LOG)) {
+				LogStructuredDataManager logData = new LogStructuredDataManager(logDir.getAbsolutePath(), false);
+				try {
+					copyAdminData(logData, logData.getIDs(), data, ((SerializedDataManager) data).getIDs());
+				} finally {
+					logData.close();
+				}
+			}
+			else {
+				SerializedDataManager serializedData = new SerializedDataManager(adminDataDir.getAbsolutePath(), false);
+				copyAdminData(serializedData, serializedData.getIDs(), data, ((LogStructuredDataManager) data).getIDs());
+			}
+			prtln("Copied the settings from the '" + previousEngine + "' admin data to the '" + adminDataEngine + "' admin data");
+		}
+		Files.writeFile(adminDataEngine, engineFile);
+		return data;
+	}
+
+
+	/**
+	 *  Replaces the settings in one admin DataManager with those in another, removing settings the source does
+	 *  not have. Does nothing if the source has no settings.
+	 *
+	 * @param  from     The DataManager to copy from
+	 * @param  fromIds  The ids in the DataManager to copy from
+	 * @param  to       The DataManager to copy to
+	 * @param  toIds    The ids in the DataManager to copy to
+	 */
+	private void copyAdminData(DataManager from, String[] fromIds, DataManager to, String[] toIds) {
+		if (fromIds.length == 0)
+			return;
+		List keep = Arrays.asList(fromIds);
+		for (int i = 0; i < toIds.length; i++) {
+			try {
+				if (!keep.contains(toIds[i]))
+					to.delete(toIds[i]);
+			} catch (Throwable t) {
+				prtlnErr("Unable to remove the setting '" + toIds[i] + "' from the '" + adminDataEngine + "' admin data: " + t);
+			}
+		}
+		for (int i = 0; i < fromIds.length; i++) {
+			try {
+				if (to.oidExists(fromIds[i]))
+					to.update(fromIds[i], from.get(fromIds[i]));
+				else
+					to.put(fromIds[i], from.get(fromIds[i]));
+			} catch (Throwable t) {
+				prtlnErr("Unable to copy the setting '" + fromIds[i] + "' to the '" + adminDataEngine + "' admin data: " + t);
+			}
+		}
+	}
+
+
+	/**
+	 *  Sets how the full content of each record is stored in the index, either 'plain' (the default) or
+	 *  'compressed'. Records stored in the other mode are converted the next time their set is indexed.
+	 *
+	 * @param  fileContentStorage  The storage mode
+	 * @exception  IllegalArgumentException  If the value is not a storage mode
+	 * @see                        FileIndexingService#setFileContentStorage(String)
+	 */
+	public void setFileContentStorage(String fileContentStorage) throws IllegalArgumentException {
+		this.fileContentStorage = org.dlese.dpc.index.document.FileContentTools.getStorageMode(fileContentStorage);
+		if (fileIndexingService != null)
+			fileIndexingService.setFileContentStorage(this.fileContentStorage);
+	}
+
+
+	/**
+	 *  Sets how the index writes updates. Applies to the current index and any that are loaded later.
+	 *
+	 * @param  ramBufferSizeMB  RAM used to buffer added documents before they are flushed to a new segment, in MB
+	 * @param  mergeFactor      Number of segments of about the same size that are merged in the background
+	 * @param  commitInterval   Max milliseconds updates are held before they are committed, or 0 to commit after
+	 *      each update
+	 * @see                     SimpleLuceneIndex#setRamBufferSizeMB(double)
+	 * @see                     SimpleLuceneIndex#setMergeFactor(int)
+	 * @see                     SimpleLuceneIndex#setCommitInterval(long)
+	 */
+	public void setIndexWriterSettings(double ramBufferSizeMB, int mergeFactor, long commitInterval) {
+		this.indexRamBufferSizeMB = ramBufferSizeMB;
+		this.indexMergeFactor = mergeFactor;
+		this.indexCommitInterval = commitInterval;
+		if (index != null) {
+			index.setRamBufferSizeMB(ramBufferSizeMB);
+			index.setMergeFactor(mergeFactor);
+			index.setCommitInterval(commitInterval);
+		}
+	}
+
+
 	/**
 	 *  Gets the fileIndexingService attribute.
 	 *
@@ -929,6 +1141,7 @@ public class RepositoryManager {
 			removeInvalidRecords = true;
 		if (value.equals("false"))
 			removeInvalidRecords = false;
+		oaiConfigChanged();
 		try {
 			if (!adminData.oidExists(Keys.REMOVE_INVALID_RECORDS)) {
 				adminData.put(Keys.REMOVE_INVALID_RECORDS, value);
@@ -1632,7 +1845,7 @@ public class RepositoryManager {
 
 		BooleanQuery bq = new BooleanQuery();
 		for (int i = 0; i < setList.size(); i++) {
-			bq.add(new TermQuery(new Term("collection", "0" + setList.get(i))), BooleanClause.Occur.MUST);
+			bq.add(new TermQuery(new Term("collection", "0" + setList.get(i))), BooleanClause.Occur.SHOULD);
 		}
 		return bq;
 	}
@@ -1640,7 +1853,7 @@ public class RepositoryManager {
 
 	/**
 	 *  Gets a single record from the repository by ID, restricted to those records that are
-	 *  avaiable/discoverable for OAI.
+	 *  avaiable/discoverable for OAI. All fields of the record, including its full content, are read up front.
 	 *
 	 * @param  id  The ID for the item
 	 * @return     The record or null if not available
@@ -1672,20 +1885,33 @@ public class RepositoryManager {
 
 		// prtln("getRecordOai() query: " + fullQuery);
 
-		resultDocs = getIndex().searchDocs(fullQuery);
-
+		// Hold the reader the record was found in while it is read, searching again if the index was just updated:
+		resultDocs = null;
+		for (int i = 0; i < 3 && resultDocs == null; i++) {
+			resultDocs = getIndex().searchDocs(fullQuery);
+			if (resultDocs == null)
+				return null;
+			if (!resultDocs.acquireReader())
+				resultDocs = null;
+		}
 		if (resultDocs == null) {
+			prtlnErr("Error in getRecordOai(): the index was updated while reading the record for id '" + id + "'");
 			return null;
 		}
 
-		if (resultDocs.size() > 1) {
-			prtlnErr("Error: more than one item in index for id '" + id + "'");
-		}
-		if (resultDocs.size() > 0) {
-			return resultDocs.get(0);
-		}
-		else {
-			return null;
+		try {
+			if (resultDocs.size() > 1) {
+				prtlnErr("Error: more than one item in index for id '" + id + "'");
+			}
+			if (resultDocs.size() > 0) {
+				// Read all fields, including the full content, so the record can be used after the reader is released:
+				return resultDocs.getLoadedPage(0, 1).get(0);
+			}
+			else {
+				return null;
+			}
+		} finally {
+			resultDocs.releaseReader();
 		}
 	}
 
@@ -1739,13 +1965,14 @@ public class RepositoryManager {
 		//prtln("getOdlQueryResults(): format: " + format + " set: " + set + " from: " + from + " until: " + until + " query: " + queryString);
 
 		// Standard OAI-PMH request (indicated by empty query):
-		if (queryString == null) {
+		boolean isOaiRequest = (queryString == null);
+		if (isOaiRequest) {
 			// If this repsository is not allowed to support regular OAI-PMH requests, return null
 			if (!isOaiPmhEnabled)
 				return null;
-			// Set the query string to all records, boosting non-deletes to the top:
+			// Set the query string to all records. Results are sorted by datestamp rather than relevance (below):
 			else
-				queryString = "deleted:false^10 OR deleted:true";
+				queryString = "deleted:false OR deleted:true";
 		}
 		// If empty ODL search, return null
 		else if (queryString.trim().length() == 0)
@@ -1762,21 +1989,23 @@ public class RepositoryManager {
 		if (convertableFormatsQuery == null)
 			return null;
 
-		// Handle date ranges:
-		DateRangeFilter dateFilter = null;
+		// Handle date ranges. Indexes that contain the trie encoded datestamp for every record are filtered
+		// numerically, older indexes by datestamp term range:
+		boolean numericDatestamps = hasNumericOaiDatestamps();
+		Filter dateFilter = null;
 		try {
 			if (from != null && until == null) {
-				dateFilter = DateRangeFilter.After("oaimodtime", OAIUtils.getDateFromDatestamp(from, 0));
+				dateFilter = getOaiDatestampFilter(OAIUtils.getDateFromDatestamp(from, 0), null, numericDatestamps);
 			}
 			else if (until != null && from == null) {
-				dateFilter = DateRangeFilter.Before("oaimodtime", OAIUtils.getDateFromDatestamp(until, 0));
+				dateFilter = getOaiDatestampFilter(null, OAIUtils.getDateFromDatestamp(until, 0), numericDatestamps);
 			}
 			else if (until != null && from != null) {
 				// If the times are the same, increment the 'until' time so that the result will match records with that exact datestamp.
 				if (until.toLowerCase().equals(from.toLowerCase()))
-					dateFilter = new DateRangeFilter("oaimodtime", OAIUtils.getDateFromDatestamp(from, 0), OAIUtils.getDateFromDatestamp(until, 1));
+					dateFilter = getOaiDatestampFilter(OAIUtils.getDateFromDatestamp(from, 0), OAIUtils.getDateFromDatestamp(until, 1), numericDatestamps);
 				else
-					dateFilter = new DateRangeFilter("oaimodtime", OAIUtils.getDateFromDatestamp(from, 0), OAIUtils.getDateFromDatestamp(until, 0));
+					dateFilter = getOaiDatestampFilter(OAIUtils.getDateFromDatestamp(from, 0), OAIUtils.getDateFromDatestamp(until, 0), numericDatestamps);
 				if (until.length() != from.length())
 					throw new OAIErrorException("Invalid date: 'from' and 'until' date arguments must be of the same granularity.", OAICodes.BAD_ARGUMENT);
 			}
@@ -1785,26 +2014,22 @@ public class RepositoryManager {
 				getGranularity() + ".' " + e.getMessage(), OAICodes.BAD_ARGUMENT);
 		}
 
-		// Construct the query for this ODL or OAI-PMH ListRecords or ListIdentifiers request
-		String query = "(" + queryString + ")"
-			 + " AND " + convertableFormatsQuery;
-		if (removeInvalidRecords)
-			query += " AND !valid:false";
-
-		//prtln("Final Query: " + query);
-
-		// Use the expansion query to apply boosting, stemming, virtual fields etc.
-		Query fullQuery = getExpandedSearchQuery(query);
-
-		// Remove any disabled file sets and other non-discoverable records:
-		Query discoverableOaiRecordsQuery = getDiscoverableOaiRecordsQuery();
-		if (discoverableOaiRecordsQuery != null) {
-			BooleanQuery bq = new BooleanQuery();
-			bq.add(fullQuery, BooleanClause.Occur.MUST);
-			bq.add(discoverableOaiRecordsQuery, BooleanClause.Occur.MUST);
-			fullQuery = bq;
+		// OAI-PMH results are returned in datestamp order, then index order, without scoring. ODL searches
+		// remain ranked by relevance:
+		Sort sort = null;
+		if (isOaiRequest) {
+			if (numericDatestamps)
+				sort = new Sort(new SortField[]{new SortField("oaidatestamp", FieldCache.NUMERIC_UTILS_LONG_PARSER), SortField.FIELD_DOC});
+			else
+				sort = new Sort(new SortField[]{new SortField("oaimodtime", SortField.STRING), SortField.FIELD_DOC});
 		}
 
+		// Only the query for this ODL or OAI-PMH ListRecords or ListIdentifiers request is evaluated here. The
+		// records that are discoverable, not in a disabled set, convertable to the requested format and not
+		// removed by the oaiFilterQuery are applied as a cached Filter (below). Use the expansion query to apply
+		// boosting, stemming, virtual fields etc:
+		Query fullQuery = getExpandedSearchQuery(queryString);
+
 		//prtln("getOdlQueryResults(): set is: " + set);
 
 		// Add a restriction for sets if requested
@@ -1824,15 +2049,7 @@ public class RepositoryManager {
 			}
 		}
 
-		// Filter out records, if oaiFilterQuery is defined:
-		if (oaiFilterQuery != null) {
-			BooleanQuery bq = new BooleanQuery();
-			bq.add(fullQuery, BooleanClause.Occur.MUST);
-			bq.add(oaiFilterQuery, BooleanClause.Occur.MUST_NOT);
-			fullQuery = bq;
-		}
-
-		ResultDocList results = index.searchDocs(fullQuery, dateFilter);
+		ResultDocList results = index.searchDocs(fullQuery, getOaiRecordsFilter(format, convertableFormatsQuery, dateFilter), sort, null);
 		int num = 0;
 		if (results != null)
 			num = results.size();
@@ -1843,6 +2060,297 @@ public class RepositoryManager {
 	}
 
 
+	/**
+	 *  Gets a Filter that matches records whose OAI datestamp falls within the given range, inclusive. Times
+	 *  are compared to the second, the granularity of the datestamps in the index.
+	 *
+	 * @param  from     The earliest datestamp, or null for no lower bound
+	 * @param  until    The latest datestamp, or null for no upper bound
+	 * @param  numeric  True to filter on the trie encoded 'oaidatestamp' field, false to use the
+	 *      'oaimodtime' term range
+	 * @return          The Filter
+	 */
+	private Filter getOaiDatestampFilter(Date from, Date until, boolean numeric) {
+		if (!numeric) {
+			if (until == null)
+				return DateRangeFilter.After("oaimodtime", from);
+			if (from == null)
+				return DateRangeFilter.Before("oaimodtime", until);
+			return new DateRangeFilter("oaimodtime", from, until);
+		}
+		Long min = (from == null ? null : new Long(from.getTime() / 1000 * 1000));
+		Long max = (until == null ? null : new Long(until.getTime() / 1000 * 1000));
+		return NumericRangeFilter.newLongRange("oaidatestamp", min, max, true, true);
+	}
+
+
+	/**
+	 *  Determines whether every record in the current index has the trie encoded 'oaidatestamp' field. Records
+	 *  indexed by earlier versions of the software have only the 'oaimodtime' term and are filtered and sorted
+	 *  by it until they are re-indexed. Every record written since carries the current {@link
+	 *  FileIndexingServiceWriter#INDEX_VERSION} term, so the check compares the document frequency of that term
+	 *  with the 'allrecords' term rather than counting datestamps. Deleted records count until their segments
+	 *  are merged, so an index that has just been re-indexed may fall back briefly. The answer is cached until
+	 *  the index is next updated.
+	 *
+	 * @return    True if the 'oaidatestamp' field may be used for OAI-PMH requests
+	 */
+	private boolean hasNumericOaiDatestamps() {
+		long generation = index.getReaderGeneration();
+		synchronized (numericDatestampsLock) {
+			if (generation == numericDatestampsGeneration)
+				return numericDatestamps;
+		}
+		int numRecords = index.getTermFrequency("allrecords", "true");
+		int numCurrent = index.getTermFrequency("indexversion", FileIndexingServiceWriter.INDEX_VERSION);
+		synchronized (numericDatestampsLock) {
+			numericDatestamps = (numRecords == numCurrent);
+			numericDatestampsGeneration = generation;
+			if (!numericDatestamps)
+				prtln("The index contains " + (numRecords - numCurrent) + " records indexed by an earlier version. Re-index to enable numeric datestamp filtering.");
+			return numericDatestamps;
+		}
+	}
+
+
+	/**
+	 *  Gets a Filter that limits a search to the records that may be served by OAI-PMH or ODL in the given
+	 *  format: records that are discoverable, are not in a disabled set, can be converted to the format and are
+	 *  not removed by the oaiFilterQuery or as invalid. The set of these records is computed once per index
+	 *  reader generation and configuration version and cached, so each request intersects bit sets rather than
+	 *  evaluating the clauses again.
+	 *
+	 * @param  format                   The requested format
+	 * @param  convertableFormatsQuery  The query for the formats that can be converted to the requested format
+	 * @param  dateFilter               A Filter for the requested date range, or null for none
+	 * @return                          The Filter
+	 * @exception  Exception            If error
+	 * @see                             #getConvertableFormatsQuery(String)
+	 */
+	private Filter getOaiRecordsFilter(String format, String convertableFormatsQuery, Filter dateFilter) throws Exception {
+		Filter fallback = new OaiRecordsQueryFilter(convertableFormatsQuery, dateFilter);
+		IndexSearcher searcher = index.acquireSearcher();
+		if (searcher == null)
+			return fallback;
+		try {
+			IndexReader reader = searcher.getIndexReader();
+			OpenBitSet bits = getOaiRecordsSet(searcher, format, convertableFormatsQuery);
+			if (dateFilter != null) {
+				bits = (OpenBitSet) bits.clone();
+				bits.and(DocSetCache.computeDocSet(reader, dateFilter));
+			}
+			return new DocSetFilter(reader, bits, fallback);
+		} finally {
+			index.releaseSearcher(searcher);
+		}
+	}
+
+
+	/**
+	 *  Gets the cached set of records that may be served in the given format, building it if the searcher's
+	 *  reader or the set and format configuration has changed since it was built.
+	 *
+	 * @param  searcher                 An acquired IndexSearcher
+	 * @param  format                   The requested format
+	 * @param  convertableFormatsQuery  The query for the formats that can be converted to the requested format
+	 * @return                          The records, which must not be modified
+	 * @exception  Exception            If error
+	 */
+	private OpenBitSet getOaiRecordsSet(IndexSearcher searcher, String format, String convertableFormatsQuery) throws Exception {
+		IndexReader reader = searcher.getIndexReader();
+		long configVersion;
+		synchronized (oaiRecordsSets) {
+			oaiRecordsFormats.add(format);
+			if (reader != oaiRecordsSetsReader || oaiRecordsSetsConfigVersion != oaiConfigVersion) {
+				oaiRecordsSets.clear();
+				oaiRecordsSetsReader = reader;
+				oaiRecordsSetsGeneration = index.getReaderGeneration();
+				oaiRecordsSetsConfigVersion = oaiConfigVersion;
+			}
+			// The convertable formats change when formats are indexed or converters are added:
+			Object[] cached = (Object[]) oaiRecordsSets.get(format);
+			if (cached != null && cached[0].equals(convertableFormatsQuery))
+				return (OpenBitSet) cached[1];
+			configVersion = oaiConfigVersion;
+		}
+
+		// Compute outside the lock so other requests are not held up:
+		DocSetCache docSets = index.getDocSetCache();
+		OpenBitSet bits = (OpenBitSet) docSets.getDocSet(searcher, getIndex().getQueryParser().parse(getDiscoverableStatusQuery())).clone();
+		bits.and(docSets.getDocSet(searcher, getExpandedSearchQuery(convertableFormatsQuery)));
+		Query disabledSetsQuery = getDisabledSetsQuery();
+		if (disabledSetsQuery != null)
+			bits.andNot(docSets.getDocSet(searcher, disabledSetsQuery));
+		if (removeInvalidRecords)
+			bits.andNot(docSets.getDocSet(searcher, getExpandedSearchQuery("valid:false")));
+		Query filterQuery = oaiFilterQuery;
+		if (filterQuery != null)
+			bits.andNot(docSets.getDocSet(searcher, filterQuery));
+
+		synchronized (oaiRecordsSets) {
+			if (reader == oaiRecordsSetsReader && configVersion == oaiConfigVersion)
+				oaiRecordsSets.put(format, new Object[]{convertableFormatsQuery, bits});
+		}
+		return bits;
+	}
+
+
+	/**
+	 *  Gets a Query that matches the same records as the set returned by {@link #getOaiRecordsSet}.
+	 *
+	 * @param  convertableFormatsQuery  The query for the formats that can be converted to the requested format
+	 * @return                          The Query
+	 * @exception  Exception            If error
+	 */
+	private Query getOaiRecordsQuery(String convertableFormatsQuery) throws Exception {
+		BooleanQuery bq = new BooleanQuery();
+		bq.add(getIndex().getQueryParser().parse(getDiscoverableStatusQuery()), BooleanClause.Occur.MUST);
+		bq.add(getExpandedSearchQuery(convertableFormatsQuery), BooleanClause.Occur.MUST);
+		Query disabledSetsQuery = getDisabledSetsQuery();
+		if (disabledSetsQuery != null)
+			bq.add(disabledSetsQuery, BooleanClause.Occur.MUST_NOT);
+		if (removeInvalidRecords)
+			bq.add(getExpandedSearchQuery("valid:false"), BooleanClause.Occur.MUST_NOT);
+		Query filterQuery = oaiFilterQuery;
+		if (filterQuery != null)
+			bq.add(filterQuery, BooleanClause.Occur.MUST_NOT);
+		return bq;
+	}
+
+
+	/**
+	 *  Rebuilds the cached OAI record sets for the formats that have been requested, using the current index
+	 *  reader. Called in the background after each index update so the next request finds the sets ready.
+	 */
+	private void rebuildOaiRecordsSets() {
+		Object[] formats = null;
+		synchronized (oaiRecordsSets) {
+			formats = oaiRecordsFormats.toArray();
+		}
+		if (formats.length == 0 || index == null)
+			return;
+		IndexSearcher searcher = index.acquireSearcher();
+		if (searcher == null)
+			return;
+		try {
+			for (int i = 0; i < formats.length; i++) {
+				String convertableFormatsQuery = getConvertableFormatsQuery((String) formats[i]);
+				if (convertableFormatsQuery != null)
+					getOaiRecordsSet(searcher, (String) formats[i], convertableFormatsQuery);
+			}
+			prtln("Rebuilt the OAI record sets for " + formats.length + " formats at reader generation " + oaiRecordsSetsGeneration);
+		} catch (Throwable t) {
+			prtlnErr("Error rebuilding the OAI record sets: " + t);
+		} finally {
+			index.releaseSearcher(searcher);
+		}
+	}
+
+
+	/**
+	 *  Notes that the sets, formats or filters that determine which records are served by OAI-PMH have changed,
+	 *  so the cached OAI record sets are rebuilt.
+	 */
+	private void oaiConfigChanged() {
+		synchronized (oaiRecordsSets) {
+			oaiConfigVersion++;
+		}
+		if (oaiRecordsSetsBuilder != null)
+			oaiRecordsSetsBuilder.requestRebuild();
+	}
+
+
+	/**
+	 *  Rebuilds the cached OAI record sets in the background each time the index reader is reopened or the
+	 *  configuration changes. Rebuild requests that arrive while a rebuild is running are combined into one.
+	 */
+	private class OaiRecordsSetsBuilder extends Thread implements IndexReopenListener {
+		private boolean rebuildRequested = false;
+		private boolean stopped = false;
+
+
+		/**  Constructor for the OaiRecordsSetsBuilder object */
+		public OaiRecordsSetsBuilder() {
+			super("RepositoryManager OAI record sets builder");
+			setDaemon(true);
+		}
+
+
+		/**
+		 *  Requests a rebuild after the index has been updated.
+		 *
+		 * @param  index             The index
+		 * @param  readerGeneration  The generation of the new reader
+		 */
+		public void indexReopened(SimpleLuceneIndex index, long readerGeneration) {
+			requestRebuild();
+		}
+
+
+		/**  Requests a rebuild of the sets. */
+		public synchronized void requestRebuild() {
+			rebuildRequested = true;
+			notifyAll();
+		}
+
+
+		/**  Stops the thread. */
+		public synchronized void stopBuilding() {
+			stopped = true;
+			notifyAll();
+		}
+
+
+		/**  Main processing method for the OaiRecordsSetsBuilder object */
+		public void run() {
+			while (true) {
+				synchronized (this) {
+					while (!stopped && !rebuildRequested) {
+						try {
+							wait();
+						} catch (InterruptedException e) {}
+					}
+					if (stopped)
+						return;
+					rebuildRequested = false;
+				}
+				rebuildOaiRecordsSets();
+			}
+		}
+	}
+
+
+	/**
+	 *  A Filter that evaluates the OAI records query and date range directly, used when a cached set does not
+	 *  apply to the reader being searched. The query is built only if needed.
+	 */
+	private class OaiRecordsQueryFilter extends Filter {
+		private final String convertableFormatsQuery;
+		private final Filter dateFilter;
+		private Filter filter = null;
+
+
+		OaiRecordsQueryFilter(String convertableFormatsQuery, Filter dateFilter) {
+			this.convertableFormatsQuery = convertableFormatsQuery;
+			this.dateFilter = dateFilter;
+		}
+
+
+		public synchronized DocIdSet getDocIdSet(IndexReader reader) throws IOException {
+			if (filter == null) {
+				Query query = null;
+				try {
+					query = getOaiRecordsQuery(convertableFormatsQuery);
+				} catch (Exception e) {
+					throw new IOException("Unable to build the OAI records query: " + e);
+				}
+				filter = new QueryWrapperFilter(dateFilter == null ? query : new FilteredQuery(query, dateFilter));
+			}
+			return filter.getDocIdSet(reader);
+		}
+	}
+
+
 	/**
 	 *  Sets a Lucene query that filters the records served by the OAI data provider. Records that match this
 	 *  query will not be served by the OAI data provider. The given filter query persists until this method is
@@ -1854,11 +2362,11 @@ public class RepositoryManager {
 	 */
 	public void setOaiFilterQuery(String luceneQuery)
 		 throws org.apache.lucene.queryParser.ParseException {
-		if (luceneQuery == null) {
+		if (luceneQuery == null)
 			oaiFilterQuery = null;
-			return;
-		}
-		oaiFilterQuery = getIndex().getQueryParser().parse(luceneQuery);
+		else
+			oaiFilterQuery = getIndex().getQueryParser().parse(luceneQuery);
+		oaiConfigChanged();
 	}
 
 
@@ -3073,6 +3581,8 @@ public class RepositoryManager {
 		fieldsUsedForBoosting = null;
 		defaultSearchFields = null;
 		boostingValues = null;
+		// Schemas used to validate are read again too
+		XMLValidator.clearGrammarCache();
 	}
 
 
@@ -3536,6 +4046,7 @@ public class RepositoryManager {
 			configuredSetInfosHashMap = null;
 			setConfigLastModified = System.currentTimeMillis();
 		}
+		oaiConfigChanged();
 	}
 
 
@@ -4926,6 +5437,7 @@ public class RepositoryManager {
 	public void setXMLConversionService(XMLConversionService cs) {
 		xmlConversionService = cs;
 		index.setAttribute("xmlConversionService", cs);
+		oaiConfigChanged();
 	}
 
 
@@ -0,0 +1,486 @@
+/*
+	Copyright 2017 Digital Learning Sciences (DLS) at the
+	University Corporation for Atmospheric Research (UCAR),
+	P.O. Box 3000, Boulder, CO 80307
+
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+
+	http://www.apache.org/licenses/LICENSE-2.0
+
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+package org.dlese.dpc.repository;
+
+import java.io.IOException;
+import java.util.*;
+import java.text.SimpleDateFormat;
+
+import org.apache.lucene.index.IndexReader;
+
+import org.dlese.dpc.index.*;
+
+/**
+ *  Holds the ordered results of OAI-PMH ListRecords and ListIdentifiers requests between resumptionTokens so
+ *  that each subsequent page can be served directly without re-running the query over the index. Each entry
+ *  keeps the ordered list of Lucene document numbers along with a reference to the IndexReader they were
+ *  found in, so pages remain consistent even if the index is updated during a harvest. Entries expire after
+ *  a period of inactivity and are removed by a background timer, so the IndexReaders they hold are released
+ *  even if no further requests arrive. The least recently used entries are evicted when the total number of
+ *  results held exceeds a configured maximum. Since each IndexReader held keeps the index files of its
+ *  generation on disk and its caches in memory, only the newest few readers are held: when results are
+ *  stored from a newer reader than those already held and the limit is exceeded, all entries for the oldest
+ *  reader are removed and the harvests using them continue by re-running the query. <p>
+ *
+ *  Each entry records the format, set, from and until arguments of the request it was made for. If a token is
+ *  requested that is no longer in the store (expired, evicted or the server was restarted), or whose entry
+ *  was made for different arguments, {@link #get(String, String, String, String, String)} returns null and
+ *  the caller should fall back to re-running the query.
+ *
+ * @see       RepositoryManager#getResumptionTokenStore()
+ */
+public final class ResumptionTokenStore {
+	private static boolean debug = false;
+
+	/**  Default number of milliseconds an entry is kept after it was last accessed (30 minutes). */
+	public final static long DEFAULT_TIME_TO_LIVE = 1800000;
+
+	/**  Default maximum total number of results held across all entries (about 4 bytes each). */
+	public final static int DEFAULT_MAX_RESULTS = 5000000;
+
+	/**  Default maximum number of entries held at one time. */
+	public final static int DEFAULT_MAX_ENTRIES = 200;
+
+	/**
+	 *  Default maximum number of distinct IndexReaders held open by the entries, which allows harvests that
+	 *  started before the most recent index update to continue from their stored results.
+	 */
+	public final static int DEFAULT_MAX_READERS = 2;
+
+	/**
+	 *  Maximum number of milliseconds between removals of expired entries by the background timer (1 minute),
+	 *  used unless the time to live is shorter.
+	 */
+	public final static long PURGE_INTERVAL = 60000;
+
+	private long timeToLive = DEFAULT_TIME_TO_LIVE;
+	private int maxResults = DEFAULT_MAX_RESULTS;
+	private int maxEntries = DEFAULT_MAX_ENTRIES;
+	private int maxReaders = DEFAULT_MAX_READERS;
+
+	// Access-ordered so iteration begins with the least recently used entry:
+	private final LinkedHashMap entries = new LinkedHashMap(16, 0.75f, true);
+	private long totalResults = 0;
+	// Number of entries holding each IndexReader:
+	private final HashMap readerEntryCounts = new HashMap();
+	private long keyCounter = System.currentTimeMillis();
+	private Timer purgeTimer = null;
+
+
+	/**  Constructor for the ResumptionTokenStore using the default time to live and limits. */
+	public ResumptionTokenStore() { }
+
+
+	/**
+	 *  Constructor for the ResumptionTokenStore.
+	 *
+	 * @param  timeToLive  Number of milliseconds an entry is kept after it was last accessed
+	 * @param  maxResults  Maximum total number of results held across all entries
+	 * @param  maxEntries  Maximum number of entries held at one time
+	 */
+	public ResumptionTokenStore(long timeToLive, int maxResults, int maxEntries) {
+		setTimeToLive(timeToLive);
+		setMaxResults(maxResults);
+		setMaxEntries(maxEntries);
+	}
+
+
+	/**
+	 *  Stores the given search results and returns a key that can be embedded in a resumptionToken to retrieve
+	 *  them. Returns null if the results can not be stored, for example if they are larger than the configured
+	 *  maximum or the IndexReader they were found in has already been closed.
+	 *
+	 * @param  results  Results from a search over a {@link SimpleLuceneIndex}
+	 * @param  format   The metadataPrefix of the request the results are for
+	 * @param  set      The set of the request, or null
+	 * @param  from     The from argument of the request, or null
+	 * @param  until    The until argument of the request, or null
+	 * @return          The key, or null if not stored
+	 */
+	public String put(ResultDocList results, String format, String set, String from, String until) {
+		if (results == null || results.getResultDocConfig() == null)
+			return null;
+		ResultDocConfig config = results.getResultDocConfig();
+		IndexReader reader = config.indexReader;
+		int[] docNums = results.getDocNums();
+		if (reader == null || docNums == null || docNums.length > maxResults)
+			return null;
+
+		// Hold a reference so the reader stays open (and the doc numbers valid) until this entry is removed:
+		if (!IndexSearcherManager.tryIncRef(reader))
+			return null;
+
+		Entry entry = new Entry(reader, docNums, config, new String[]{format, set, from, until});
+		String key;
+		synchronized (this) {
+			removeExpired();
+			key = Long.toString(++keyCounter, 36);
+			entries.put(key, entry);
+			totalResults += docNums.length;
+			Integer count = (Integer) readerEntryCounts.get(reader);
+			readerEntryCounts.put(reader, new Integer(count == null ? 1 : count.intValue() + 1));
+			evictOverLimit();
+			evictOldReaders();
+			startPurgeTimer();
+		}
+		//prtln("put() key: " + key + " num results: " + docNums.length);
+		return key;
+	}
+
+
+	/**
+	 *  Gets the results previously stored under the given key, or null if they are not available. The results
+	 *  returned hold their own reference to the IndexReader, so a page can be written from them even if the
+	 *  entry expires or is evicted in the mean time. The caller must call {@link ResultDocList#releaseReader()}
+	 *  when done with them. Returns null if the entry was stored for a request with different arguments, for
+	 *  example a resumptionToken that has been altered by the client.
+	 *
+	 * @param  key     The key returned by {@link #put(ResultDocList, String, String, String, String)}
+	 * @param  format  The metadataPrefix of the request
+	 * @param  set     The set of the request, or null
+	 * @param  from    The from argument of the request, or null
+	 * @param  until   The until argument of the request, or null
+	 * @return         The results, or null
+	 */
+	public ResultDocList get(String key, String format, String set, String from, String until) {
+		if (key == null)
+			return null;
+		synchronized (this) {
+			removeExpired();
+			Entry entry = (Entry) entries.get(key);
+			if (entry == null || !entry.isFor(new String[]{format, set, from, until}))
+				return null;
+			entry.lastAccessed = System.currentTimeMillis();
+			ResultDocList results = new ResultDocList(entry.docNums, entry.config);
+
+			// The entry holds the reader open while it is in the store, so this only fails if it was closed elsewhere:
+			if (!results.acquireReader())
+				return null;
+			return results;
+		}
+	}
+
+
+	/**  Removes all entries, releasing the IndexReaders they hold. */
+	public void clear() {
+		List removed;
+		synchronized (this) {
+			removed = new ArrayList(entries.values());
+			entries.clear();
+			readerEntryCounts.clear();
+			totalResults = 0;
+			stopPurgeTimer();
+		}
+		for (int i = 0; i < removed.size(); i++)
+			release((Entry) removed.get(i));
+	}
+
+
+	/**
+	 *  Gets the number of entries currently held.
+	 *
+	 * @return    The number of entries
+	 */
+	public synchronized int getNumEntries() {
+		return entries.size();
+	}
+
+
+	/**
+	 *  Gets the total number of results currently held across all entries.
+	 *
+	 * @return    The number of results
+	 */
+	public synchronized long getNumResults() {
+		return totalResults;
+	}
+
+
+	/**
+	 *  Gets the number of distinct IndexReaders currently held open by the entries.
+	 *
+	 * @return    The number of IndexReaders
+	 */
+	public synchronized int getNumReaders() {
+		return readerEntryCounts.size();
+	}
+
+
+	/**
+	 *  Sets the number of milliseconds an entry is kept after it was last accessed.
+	 *
+	 * @param  timeToLive  The new timeToLive value
+	 */
+	public void setTimeToLive(long timeToLive) {
+		this.timeToLive = timeToLive;
+	}
+
+
+	/**
+	 *  Gets the number of milliseconds an entry is kept after it was last accessed.
+	 *
+	 * @return    The timeToLive value
+	 */
+	public long getTimeToLive() {
+		return timeToLive;
+	}
+
+
+	/**
+	 *  Sets the maximum total number of results held across all entries. Use 0 to disable the store.
+	 *
+	 * @param  maxResults  The new maxResults value
+	 */
+	public void setMaxResults(int maxResults) {
+		this.maxResults = maxResults;
+	}
+
+
+	/**
+	 *  Gets the maximum total number of results held across all entries.
+	 *
+	 * @return    The maxResults value
+	 */
+	public int getMaxResults() {
+		return maxResults;
+	}
+
+
+	/**
+	 *  Sets the maximum number of entries held at one time.
+	 *
+	 * @param  maxEntries  The new maxEntries value
+	 */
+	public void setMaxEntries(int maxEntries) {
+		this.maxEntries = maxEntries;
+	}
+
+
+	/**
+	 *  Gets the maximum number of entries held at one time.
+	 *
+	 * @return    The maxEntries value
+	 */
+	public int getMaxEntries() {
+		return maxEntries;
+	}
+
+
+	/**
+	 *  Sets the maximum number of distinct IndexReaders held open by the entries. When exceeded, the entries for
+	 *  the oldest readers are removed.
+	 *
+	 * @param  maxReaders  The new maxReaders value
+	 */
+	public void setMaxReaders(int maxReaders) {
+		this.maxReaders = maxReaders;
+	}
+
+
+	/**
+	 *  Gets the maximum number of distinct IndexReaders held open by the entries.
+	 *
+	 * @return    The maxReaders value
+	 */
+	public int getMaxReaders() {
+		return maxReaders;
+	}
+
+
+	/**  Removes entries that have not been accessed within the time to live. Must be called while synchronized. */
+	private void removeExpired() {
+		long now = System.currentTimeMillis();
+		Iterator it = entries.values().iterator();
+		while (it.hasNext()) {
+			Entry entry = (Entry) it.next();
+			if (now - entry.lastAccessed > timeToLive)
+				remove(it, entry);
+		}
+	}
+
+
+	/**
+	 *  Starts the timer that removes expired entries, if not already running. Must be called while
+	 *  synchronized.
+	 */
+	private void startPurgeTimer() {
+		if (purgeTimer != null)
+			return;
+		long interval = Math.max(1000, Math.min(PURGE_INTERVAL, timeToLive));
+		purgeTimer = new Timer(true);
+		purgeTimer.schedule(new PurgeTask(), interval, interval);
+	}
+
+
+	/**  Stops the timer that removes expired entries. Must be called while synchronized. */
+	private void stopPurgeTimer() {
+		if (purgeTimer != null) {
+			purgeTimer.cancel();
+			purgeTimer = null;
+		}
+	}
+
+
+	/**  Evicts the least recently used entries until within the limits. Must be called while synchronized. */
+	private void evictOverLimit() {
+		Iterator it = entries.values().iterator();
+		while (it.hasNext() && (totalResults > maxResults || entries.size() > maxEntries))
+			remove(it, (Entry) it.next());
+	}
+
+
+	/**
+	 *  Removes all entries for the oldest IndexReaders until no more than the maximum number of readers are
+	 *  held. Must be called while synchronized.
+	 */
+	private void evictOldReaders() {
+		while (readerEntryCounts.size() > Math.max(1, maxReaders)) {
+			IndexReader oldest = null;
+			Iterator readers = readerEntryCounts.keySet().iterator();
+			while (readers.hasNext()) {
+				IndexReader reader = (IndexReader) readers.next();
+				if (oldest == null || reader.getVersion() < oldest.getVersion())
+					oldest = reader;
+			}
+			prtln("evicting entries for IndexReader version " + oldest.getVersion());
+			Iterator it = entries.values().iterator();
+			while (it.hasNext()) {
+				Entry entry = (Entry) it.next();
+				if (entry.reader == oldest)
+					remove(it, entry);
+			}
+		}
+	}
+
+
+	/**
+	 *  Removes the entry at the iterator's position and releases its IndexReader. Must be called while
+	 *  synchronized.
+	 *
+	 * @param  it     An iterator over the entries, positioned at the entry
+	 * @param  entry  The entry
+	 */
+	private void remove(Iterator it, Entry entry) {
+		it.remove();
+		totalResults -= entry.docNums.length;
+		Integer count = (Integer) readerEntryCounts.get(entry.reader);
+		if (count == null || count.intValue() <= 1)
+			readerEntryCounts.remove(entry.reader);
+		else
+			readerEntryCounts.put(entry.reader, new Integer(count.intValue() - 1));
+		release(entry);
+	}
+
+
+	private void release(Entry entry) {
+		if (entry == null)
+			return;
+		try {
+			entry.reader.decRef();
+		} catch (IOException e) {
+			prtlnErr("Error releasing IndexReader: " + e);
+		}
+	}
+
+
+	/**
+	 *  Removes expired entries so the IndexReaders they hold are released while no requests arrive. Stops the
+	 *  timer once the store is empty; it is started again by the next put.
+	 */
+	private class PurgeTask extends TimerTask {
+		public void run() {
+			synchronized (ResumptionTokenStore.this) {
+				removeExpired();
+				if (entries.isEmpty())
+					stopPurgeTimer();
+			}
+		}
+	}
+
+
+	/**  An ordered list of results pinned to the IndexReader they came from. */
+	private final static class Entry {
+		final IndexReader reader;
+		final int[] docNums;
+		final ResultDocConfig config;
+		final String[] request;
+		long lastAccessed;
+
+
+		Entry(IndexReader reader, int[] docNums, ResultDocConfig config, String[] request) {
+			this.reader = reader;
+			this.docNums = docNums;
+			this.config = config;
+			this.request = request;
+			this.lastAccessed = System.currentTimeMillis();
+		}
+
+
+		/**  Determines whether this entry was stored for a request with the given arguments. */
+		boolean isFor(String[] args) {
+			for (int i = 0; i < request.length; i++) {
+				if (request[i] == null ? args[i] != null : !request[i].equals(args[i]))
+					return false;
+			}
+			return true;
+		}
+	}
+
+
+	// ---------------------- Debug methods -------------------------------
+	/**
+	 *  Gets a datestamp of the current time formatted for display with logs and output.
+	 *
+	 * @return    A datestamp for display purposes.
+	 */
+	public final static String getDateStamp() {
+		return
+			new SimpleDateFormat("MMM d, yyyy h:mm:ss a zzz").format(new Date());
+	}
+
+
+	/**
+	 *  Output a line of text to error out, with datestamp.
+	 *
+	 * @param  s  The text that will be output to error out.
+	 */
+	private final static void prtlnErr(String s) {
+		System.err.println(getDateStamp() + " ResumptionTokenStore ERROR: " + s);
+	}
+
+
+	/**
+	 *  Output a line of text to standard out, with datestamp, if debug is set to true.
+	 *
+	 * @param  s  The String that will be output.
+	 */
+	private final static void prtln(String s) {
+		if (debug)
+			System.out.println(getDateStamp() + " ResumptionTokenStore: " + s);
+	}
+
+
+	/**
+	 *  Sets the debug attribute of the ResumptionTokenStore object
+	 *
+	 * @param  db  The new debug value
+	 */
+	public static void setDebug(boolean db) {
+		debug = db;
+	}
+}
@@ -23,9 +23,8 @@ import java.net.URLEncoder;
 import org.dlese.dpc.util.*;
 import org.dlese.dpc.xml.*;
 
-import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.Query;
 import org.apache.lucene.search.TermQuery;
-import org.apache.lucene.search.BooleanClause;
 import org.apache.lucene.index.Term;
 
 import org.dlese.dpc.webapps.tools.OutputTools;
@@ -376,17 +375,14 @@ public class SetInfo implements Serializable, Comparable {
 	public void setSetInfoData(RepositoryManager rm) {
 		try {
 			//numDiscoverable = rm.getIndex().numDocs(rm.getDiscoverableItemsQuery() + " AND collection:0" + getSetSpec());
-			numIndexed = rm.getIndex().getNumDocs("collection:0" + getSetSpec() + " AND deleted:false");
-			
-			BooleanQuery deletedQ = new BooleanQuery();
-			deletedQ.add(new TermQuery(new Term("deleted", "true")), BooleanClause.Occur.MUST);
-			deletedQ.add(new TermQuery(new Term("docdir", new File(getDirectory()).getAbsolutePath())), BooleanClause.Occur.MUST);			
-			numDeleted = rm.getIndex().getNumDocs(deletedQ);
-			
-			BooleanQuery errQ = new BooleanQuery();
-			errQ.add(new TermQuery(new Term("error", "true")), BooleanClause.Occur.MUST);
-			errQ.add(new TermQuery(new Term("docdir", new File(getDirectory()).getAbsolutePath())), BooleanClause.Occur.MUST);
-			numErrors = rm.getIndex().getNumDocs(errQ);
+			numIndexed = rm.getIndex().getNumDocs(new String[]{"deleted:false"}, "collection:0" + getSetSpec())[0];
+
+			// Count deleted and error records in this directory in one pass over cached doc sets:
+			int[] dirCounts = rm.getIndex().getNumDocs(
+				new Query[]{new TermQuery(new Term("deleted", "true")), new TermQuery(new Term("error", "true"))},
+				new TermQuery(new Term("docdir", new File(getDirectory()).getAbsolutePath())));
+			numDeleted = dirCounts[0];
+			numErrors = dirCounts[1];
 			
 			ArrayList dirInfos = getDirInfos();
 			if (dirInfos != null) {
@@ -0,0 +1,361 @@
+/*
+	Copyright 2017 Digital Learning Sciences (DLS) at the
+	University Corporation for Atmospheric Research (UCAR),
+	P.O. Box 3000, Boulder, CO 80307
+
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+
+	http://www.apache.org/licenses/LICENSE-2.0
+
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+package org.dlese.dpc.repository.action;
+
+import org.dlese.dpc.repository.action.form.*;
+import org.dlese.dpc.index.*;
+import org.dlese.dpc.index.reader.*;
+import org.dlese.dpc.webapps.servlets.filters.FilterCore;
+
+import java.io.*;
+import java.util.*;
+import java.util.zip.GZIPOutputStream;
+import java.text.SimpleDateFormat;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.apache.struts.util.ResponseUtils;
+
+/**
+ *  Writes the OAI-PMH ListRecords, ListIdentifiers and GetRecord responses directly to the servlet
+ *  OutputStream, one record at a time, instead of forwarding to the JSP pages that would otherwise render
+ *  them. The output is identical to that of ListRecords.jsp, ListIdentifiers.jsp and GetRecord.jsp,
+ *  including whitespace, but records are encoded and sent as they are read so the full response is never
+ *  held in memory. The XML for each record is copied from the converted XML cache or the index with {@link
+ *  XMLDocReader#writeXmlFormat(String, Writer)} rather than read into a String first. <p>
+ *
+ *  When the response has already been marked for gzip encoding by one of the response filters (see {@link
+ *  org.dlese.dpc.webapps.servlets.filters.XMLValidationFilter}), the content is compressed here as it is
+ *  written and the filter passes it through untouched rather than buffering and compressing a copy of it.
+ *  Requests that need the full response for post-processing (rt=validate or an XML transform) are not
+ *  streamed and must be forwarded to the JSP as before (see {@link #canStream}).
+ *
+ * @author    John Weatherley
+ * @see       RepositoryAction
+ */
+public final class OaiResponseWriter {
+	private static boolean debug = false;
+
+	/**  The size of the character and gzip buffers used when writing the response. */
+	public final static int BUFFER_SIZE = 16384;
+
+	private final static String XML_DECLARATION = "<?xml version=\"1.0\" encoding=\"UTF-8\" ?>";
+
+
+	/**
+	 *  Determines whether the response to the given request can be streamed. Returns false if the request
+	 *  asks for validation or a transform, which require the complete response to be buffered by a filter.
+	 *
+	 * @param  req  The request
+	 * @return      True if the response can be streamed
+	 */
+	public static boolean canStream(HttpServletRequest req) {
+		String rt = req.getParameter("rt");
+		return (rt == null || !rt.equals("validate")) && req.getParameter("transform") == null;
+	}
+
+
+	/**
+	 *  Writes the ListRecords response for the results held in the RepositoryForm.
+	 *
+	 * @param  rf               The bean holding the results, resumptionToken and requested format
+	 * @param  req              The request
+	 * @param  res              The response
+	 * @exception  IOException  If error writing the response
+	 */
+	public static void writeListRecords(RepositoryForm rf, HttpServletRequest req, HttpServletResponse res)
+		 throws IOException {
+		Writer out = openWriter(req, res);
+		try {
+			writeHead(out, rf, req, true);
+			out.write("<ListRecords>\n\n  ");
+
+			String format = rf.getRequestedFormat();
+			String oaiIdPfx = ResponseUtils.filter(rf.getOaiIdPfx());
+			ResultDocList results = rf.getResults();
+			int end = getEnd(rf, results);
+			for (int i = getOffset(rf); i < end; i++) {
+				out.write("\n\n    ");
+				XMLDocReader rdr = (XMLDocReader) ((ResultDoc) results.get(i)).getDocReader();
+				boolean isDeleted = rdr.isDeleted();
+				out.write("\n\n  <record>\n\n    ");
+				writeHeader(out, rdr, isDeleted, oaiIdPfx, "\n\n\t  ", " <setSpec>", "</setSpec>\n\n\t  ");
+				out.write("\n\n    ");
+				if (!isDeleted) {
+					// Copy the record from the cache or index as it is read:
+					out.write("<metadata>\n\n    ");
+					rdr.writeXmlFormat(format, out);
+					out.write(" \n\n    </metadata>");
+				}
+				out.write("\n\n  </record>");
+			}
+
+			out.write(rf.getResumptionToken());
+			out.write("\n\n</ListRecords>\n\n\n\n");
+			writeNullable(out, rf.getRootCloseTag());
+			out.write(" \n\n\n\n");
+			writeTail(out, req);
+			out.write("\n\n");
+		} finally {
+			out.close();
+		}
+	}
+
+
+	/**
+	 *  Writes the ListIdentifiers response for the results held in the RepositoryForm.
+	 *
+	 * @param  rf               The bean holding the results and resumptionToken
+	 * @param  req              The request
+	 * @param  res              The response
+	 * @exception  IOException  If error writing the response
+	 */
+	public static void writeListIdentifiers(RepositoryForm rf, HttpServletRequest req, HttpServletResponse res)
+		 throws IOException {
+		Writer out = openWriter(req, res);
+		try {
+			writeHead(out, rf, req, true);
+			out.write("<ListIdentifiers>\n\n    ");
+
+			String oaiIdPfx = ResponseUtils.filter(rf.getOaiIdPfx());
+			ResultDocList results = rf.getResults();
+			int end = getEnd(rf, results);
+			for (int i = getOffset(rf); i < end; i++) {
+				out.write("\n\n    ");
+				XMLDocReader rdr = (XMLDocReader) ((ResultDoc) results.get(i)).getDocReader();
+				writeHeader(out, rdr, rdr.isDeleted(), oaiIdPfx, "\n\n\t  ", " <setSpec>", "</setSpec>\n\n\t  ");
+				out.write("\n\n\t");
+			}
+
+			out.write(rf.getResumptionToken());
+			out.write("\n\n</ListIdentifiers>\n\n\n\n");
+			writeNullable(out, rf.getRootCloseTag());
+			out.write("\n\n\n\n");
+			writeTail(out, req);
+		} finally {
+			out.close();
+		}
+	}
+
+
+	/**
+	 *  Writes the GetRecord response for the record held in the RepositoryForm.
+	 *
+	 * @param  rf               The bean holding the record, identifier, datestamp and setSpecs
+	 * @param  req              The request
+	 * @param  res              The response
+	 * @exception  IOException  If error writing the response
+	 */
+	public static void writeGetRecord(RepositoryForm rf, HttpServletRequest req, HttpServletResponse res)
+		 throws IOException {
+		Writer out = openWriter(req, res);
+		try {
+			writeHead(out, rf, req, false);
+			out.write("<GetRecord>\n\n  <record>\n\n  \n\n    ");
+
+			boolean isDeleted = "true".equals(rf.getDeletedStatus());
+			out.write(isDeleted ? "<header status=\"deleted\">" : "<header>");
+			out.write("\n\n      <identifier>");
+			out.write(ResponseUtils.filter(rf.getOaiIdPfx()));
+			out.write(ResponseUtils.filter(rf.getIdentifier()));
+			out.write("</identifier>\n\n      <datestamp>");
+			out.write(ResponseUtils.filter(rf.getDatestamp()));
+			out.write("</datestamp>\n\n      ");
+			List setSpecs = rf.getSetSpecs();
+			for (int i = 0; i < setSpecs.size(); i++) {
+				Object setSpec = setSpecs.get(i);
+				out.write("<setSpec>");
+				if (setSpec != null)
+					out.write(ResponseUtils.filter(setSpec.toString()));
+				out.write("</setSpec> ");
+			}
+			out.write("\t\n\n    </header>\n\n\t\n\n    ");
+			if (!isDeleted) {
+				out.write("<metadata>\n\n\t");
+				writeNullable(out, rf.getRecord());
+				out.write("\t\n\n    </metadata>");
+			}
+			out.write("\n\n  </record>\n\n</GetRecord>\n\n\n\n");
+			writeNullable(out, rf.getRootCloseTag());
+			out.write("\n\n\n\n");
+			writeTail(out, req);
+		} finally {
+			out.close();
+		}
+	}
+
+
+	/**
+	 *  Sets the content type and opens a buffered UTF-8 Writer over the response OutputStream, compressing the
+	 *  output if the response has been marked for gzip encoding.
+	 *
+	 * @param  req              The request
+	 * @param  res              The response
+	 * @return                  The Writer
+	 * @exception  IOException  If error
+	 */
+	private static Writer openWriter(HttpServletRequest req, HttpServletResponse res)
+		 throws IOException {
+		String rt = req.getParameter("rt");
+		if (rt != null && rt.equals("text"))
+			res.setContentType("text/plain; charset=UTF-8");
+		else
+			res.setContentType("text/xml; charset=UTF-8");
+
+		OutputStream os = res.getOutputStream();
+		if (res.containsHeader("Content-Encoding") && FilterCore.isGzipSupported(req))
+			os = new GZIPOutputStream(os, BUFFER_SIZE);
+		return new BufferedWriter(new OutputStreamWriter(os, "UTF-8"), BUFFER_SIZE);
+	}
+
+
+	/**
+	 *  Writes the XML declaration, OAI-PMH root element, responseDate and request elements.
+	 *
+	 * @param  out              The Writer
+	 * @param  rf               The bean
+	 * @param  req              The request
+	 * @param  tagLibIncluded   True for the pages that include TagLibIncludes.jsp, which adds a blank line
+	 * @exception  IOException  If error
+	 */
+	private static void writeHead(Writer out, RepositoryForm rf, HttpServletRequest req, boolean tagLibIncluded)
+		 throws IOException {
+		out.write(XML_DECLARATION);
+		if (tagLibIncluded)
+			out.write("\n\n");
+		out.write("\n\n\n\n");
+		writeNullable(out, rf.getRootOpenTag());
+		out.write("\n\n<responseDate>");
+		SimpleDateFormat df = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'");
+		df.setTimeZone(TimeZone.getTimeZone("UTC"));
+		out.write(df.format(new Date()));
+		out.write("</responseDate>\n\n");
+		out.write(rf.getOAIRequestTag(req));
+		out.write("\n\n\n\n");
+	}
+
+
+	/**
+	 *  Writes the OAI header element for a record in a ListRecords or ListIdentifiers response.
+	 *
+	 * @param  out              The Writer
+	 * @param  rdr              The reader for the record
+	 * @param  isDeleted        True if the record has status deleted
+	 * @param  oaiIdPfx         The OAI identifier prefix, already encoded
+	 * @param  beforeSets       Text written before the setSpecs
+	 * @param  setOpen          Text written before each setSpec
+	 * @param  setClose         Text written after each setSpec
+	 * @exception  IOException  If error
+	 */
+	private static void writeHeader(
+	                                Writer out,
+	                                XMLDocReader rdr,
+	                                boolean isDeleted,
+	                                String oaiIdPfx,
+	                                String beforeSets,
+	                                String setOpen,
+	                                String setClose) throws IOException {
+		out.write(isDeleted ? "<header status=\"deleted\">" : "<header>");
+		out.write("\n\n      <identifier>");
+		out.write(oaiIdPfx);
+		writeNullable(out, ResponseUtils.filter(rdr.getId()));
+		out.write("</identifier>\n\n      <datestamp>");
+		writeNullable(out, ResponseUtils.filter(rdr.getOaiDatestamp()));
+		out.write("</datestamp>");
+		out.write(beforeSets);
+		List sets = rdr.getOaiSets();
+		if (sets != null) {
+			for (int i = 0; i < sets.size(); i++) {
+				Object set = sets.get(i);
+				out.write(setOpen);
+				if (set != null)
+					out.write(set.toString());
+				out.write(setClose);
+			}
+		}
+		out.write("</header>");
+	}
+
+
+	/**
+	 *  Writes the trailing whitespace that the pages emit while setting the response content type.
+	 *
+	 * @param  out              The Writer
+	 * @param  req              The request
+	 * @exception  IOException  If error
+	 */
+	private static void writeTail(Writer out, HttpServletRequest req)
+		 throws IOException {
+		String rt = req.getParameter("rt");
+		out.write("\n\n\n\n");
+		if (rt != null && rt.equals("text"))
+			out.write("\n\n  \n\n");
+		out.write("\n\n");
+		if (rt != null && rt.equals("validate"))
+			out.write("\n\n  \n\n");
+		out.write(" \n\n\n\n");
+	}
+
+
+	private static void writeNullable(Writer out, String s) throws IOException {
+		if (s != null)
+			out.write(s);
+	}
+
+
+	static int getOffset(RepositoryForm rf) {
+		try {
+			return Math.max(0, Integer.parseInt(rf.getResultsOffset()));
+		} catch (NumberFormatException e) {
+			return 0;
+		}
+	}
+
+
+	static int getEnd(RepositoryForm rf, ResultDocList results) {
+		int length = 0;
+		try {
+			length = Integer.parseInt(rf.getResultsLength());
+		} catch (NumberFormatException e) {}
+		if (length <= 0)
+			return results.size();
+		return (int) Math.min((long) results.size(), (long) getOffset(rf) + length);
+	}
+
+
+	// ---------------------- Debug methods -------------------------------
+
+	/**
+	 *  Output a line of text to standard out, with datestamp, if debug is set to true.
+	 *
+	 * @param  s  The String that will be output.
+	 */
+	private final static void prtln(String s) {
+		if (debug)
+			System.out.println(RepositoryAction.getDateStamp() + " OaiResponseWriter: " + s);
+	}
+
+
+	/**
+	 *  Sets the debug attribute of the OaiResponseWriter object
+	 *
+	 * @param  db  The new debug value
+	 */
+	public static void setDebug(boolean db) {
+		debug = db;
+	}
+}
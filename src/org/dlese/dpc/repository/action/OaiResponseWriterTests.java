@@ -0,0 +1,701 @@
+/*
+	Copyright 2017 Digital Learning Sciences (DLS) at the
+	University Corporation for Atmospheric Research (UCAR),
+	P.O. Box 3000, Boulder, CO 80307
+
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+
+	http://www.apache.org/licenses/LICENSE-2.0
+
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+package org.dlese.dpc.repository.action;
+
+import junit.framework.*;
+import java.io.*;
+import java.util.*;
+import java.beans.*;
+import java.lang.reflect.*;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.apache.struts.util.ResponseUtils;
+
+import org.dlese.dpc.index.*;
+import org.dlese.dpc.index.reader.*;
+import org.dlese.dpc.repository.*;
+import org.dlese.dpc.repository.action.form.RepositoryForm;
+import org.dlese.dpc.xml.XMLConversionService;
+import org.dlese.dpc.util.Files;
+
+/**
+ *  Checks that the ListRecords, ListIdentifiers and GetRecord responses written by the {@link
+ *  OaiResponseWriter} are identical to those rendered by the JSP pages in web/oai_requests. The sample
+ *  records are indexed in a RepositoryManager, one of them is then deleted, and each response is written by
+ *  the OaiResponseWriter and rendered from the JSP source for the same request. The JSP pages are rendered
+ *  here by interpreting the tags and expressions they use, with all template text taken from the pages, so a
+ *  change to the whitespace or markup of a page that is not made in the writer fails the test. The
+ *  responseDate, which differs between the two, is removed before comparing. <p>
+ *
+ *  Records are converted to oai_dc by a small stylesheet written by the test. The System property
+ *  'junit.test.dir' sets the directory the repository is built in (default java.io.tmpdir)
+ *  and 'oairesponse.webapp.dir' the webapp directory (default 'web'). RepositoryForm.properties must be on the
+ *  classpath.
+ *
+ * @author    John Weatherley
+ * @see       OaiResponseWriter
+ */
+public class OaiResponseWriterTests extends TestCase {
+	private final static String ADN_TO_OAI_DC =
+		"<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n" +
+		"<xsl:stylesheet version=\"1.0\" xmlns:xsl=\"http://www.w3.org/1999/XSL/Transform\" xmlns:adn=\"http://adn.dlese.org\"\n" +
+		"\texclude-result-prefixes=\"adn\">\n" +
+		"\t<xsl:output method=\"xml\" indent=\"yes\" encoding=\"UTF-8\" omit-xml-declaration=\"yes\"/>\n" +
+		"\t<xsl:template match=\"/adn:itemRecord\">\n" +
+		"\t\t<oai_dc:dc xmlns:oai_dc=\"http://www.openarchives.org/OAI/2.0/oai_dc/\" xmlns:dc=\"http://purl.org/dc/elements/1.1/\">\n" +
+		"\t\t\t<dc:title><xsl:value-of select=\"adn:general/adn:title\"/></dc:title>\n" +
+		"\t\t\t<dc:description><xsl:value-of select=\"adn:general/adn:description\"/></dc:description>\n" +
+		"\t\t</oai_dc:dc>\n" +
+		"\t</xsl:template>\n" +
+		"</xsl:stylesheet>\n";
+
+	File webappDir;
+	File testBaseDir;
+	RepositoryManager rm;
+
+
+	/**
+	 *  A unit test suite for JUnit
+	 *
+	 * @return    The test suite
+	 */
+	public static Test suite() {
+		// Use java reflection to run all test methods in this class:
+		prtln("");
+		return new TestSuite(OaiResponseWriterTests.class);
+	}
+
+
+	/**
+	 *  The JUnit setup method. Indexes the sample adn records and then deletes one of them.
+	 *
+	 * @exception  Exception  If error
+	 */
+	protected void setUp()
+			 throws Exception {
+		prtln(".");
+		webappDir = new File(System.getProperty("oairesponse.webapp.dir", "web"));
+
+		// Assumes a java prop was set that defines junit.test.dir prior to execution.
+		// This prop is defined in the Ant build.xml file.
+		String testDir = System.getProperty("junit.test.dir", System.getProperty("java.io.tmpdir"));
+		testBaseDir = new File(testDir, "oai_response_writer");
+		Files.deleteDirectory(testBaseDir);
+
+		File recordsDir = new File(testBaseDir, "records");
+		recordsDir.mkdirs();
+		File[] files = new File(webappDir, "WEB-INF/sample_metadata").listFiles();
+		for (int i = 0; files != null && i < files.length; i++) {
+			if (files[i].getName().endsWith(".xml"))
+				Files.copy(files[i], new File(recordsDir, files[i].getName()));
+		}
+
+		File dataDir = new File(testBaseDir, "data");
+		dataDir.mkdirs();
+		rm = new RepositoryManager(new File(webappDir, "WEB-INF/conf"), dataDir.getAbsolutePath(), 0, 500, false);
+		Assert.assertEquals("Unable to initialize the RepositoryManager", 1, rm.init(false));
+
+		File cacheDir = new File(dataDir, "converted_xml_cache");
+		cacheDir.mkdirs();
+		XMLConversionService service = new XMLConversionService(cacheDir, true);
+		// The stylesheets in the webapp load vocabularies over the network, so a local one is used
+		File xslDir = new File(testBaseDir, "xsl");
+		xslDir.mkdirs();
+		Files.writeFile(ADN_TO_OAI_DC, new File(xslDir, "adn-to-oai_dc.xsl"));
+		service.addXslConverterHelper("adn-to-oai_dc.xsl|adn|oai_dc", xslDir);
+		rm.setXMLConversionService(service);
+		rm.addSetInfo(new SetInfo("Response test", "response-test", "", "true", recordsDir.getAbsolutePath(), "adn", "response-test"));
+		index();
+
+		// Index one record as deleted
+		File[] records = recordsDir.listFiles();
+		Arrays.sort(records);
+		Assert.assertTrue("No sample records", records.length > 2);
+		Assert.assertTrue(records[1].delete());
+		index();
+	}
+
+
+	/**
+	 *  The JUnit tearDown method. Removes the repository.
+	 *
+	 * @exception  Exception  If error
+	 */
+	protected void tearDown()
+			 throws Exception {
+		if (rm != null)
+			rm.destroy();
+		Files.deleteDirectory(testBaseDir);
+	}
+
+
+	/**
+	 *  A page of records in their native format and all records converted to another format, as text.
+	 *
+	 * @exception  Exception  If error
+	 */
+	public void test_list_records() throws Exception {
+		Map params = new LinkedHashMap();
+		params.put("verb", "ListRecords");
+		params.put("metadataPrefix", "adn");
+		RepositoryForm rf = newListForm("adn", "0", "0", "");
+		int offset = Math.max(0, firstDeleted(rf.getResults()) - 1);
+		rf.getResults().releaseReader();
+		rf = newListForm("adn", Integer.toString(offset), "3", "<resumptionToken>" + offset + "/3</resumptionToken>");
+		try {
+			compare("ListRecords.jsp", rf, params);
+		} finally {
+			rf.getResults().releaseReader();
+		}
+
+		params.put("metadataPrefix", "oai_dc");
+		params.put("rt", "text");
+		rf = newListForm("oai_dc", "0", "0", "");
+		try {
+			String actual = compare("ListRecords.jsp", rf, params);
+			Assert.assertTrue("No converted records in the response", actual.indexOf("<oai_dc:dc") != -1);
+		} finally {
+			rf.getResults().releaseReader();
+		}
+	}
+
+
+	/**
+	 *  The headers of all records, read through the field projection that the RepositoryAction uses.
+	 *
+	 * @exception  Exception  If error
+	 */
+	public void test_list_identifiers() throws Exception {
+		Map params = new LinkedHashMap();
+		params.put("verb", "ListIdentifiers");
+		params.put("metadataPrefix", "adn");
+		RepositoryForm rf = newListForm("adn", "0", "0", "<resumptionToken/>");
+		ResultDocList results = rf.getResults();
+		rf.setResults(results.getFieldProjection(XMLDocReader.OAI_HEADER_FIELDS));
+		try {
+			Assert.assertTrue("No deleted record", firstDeleted(results) != -1);
+			compare("ListIdentifiers.jsp", rf, params);
+		} finally {
+			results.releaseReader();
+		}
+	}
+
+
+	/**
+	 *  A record and a deleted record.
+	 *
+	 * @exception  Exception  If error
+	 */
+	public void test_get_record() throws Exception {
+		ResultDocList results = rm.getOaiQueryResults("adn", null, null, null);
+		try {
+			for (int i = 0; i < results.size(); i++) {
+				XMLDocReader rdr = (XMLDocReader) ((ResultDoc) results.get(i)).getDocReader();
+				Map params = new LinkedHashMap();
+				params.put("verb", "GetRecord");
+				params.put("identifier", rm.getOaiIdPrefix() + rdr.getId());
+				params.put("metadataPrefix", "adn");
+
+				RepositoryForm rf = new RepositoryForm();
+				rf.setBaseURL("http://localhost/oai/provider");
+				rf.setIdentifier(rdr.getId());
+				rf.setDeletedStatus(rdr.isDeleted() ? "true" : "false");
+				rf.setRecord(rdr.isDeleted() ? "" : rdr.getXmlFormat("adn", true));
+				rf.setDatestamp(rdr.getOaiDatestamp());
+				rf.setSetSpecs(rdr.getOaiSets() == null ? new ArrayList() : rdr.getOaiSets());
+				rf.setOaiIdPfx(rm.getOaiIdPrefix());
+				compare("GetRecord.jsp", rf, params);
+			}
+		} finally {
+			results.releaseReader();
+		}
+	}
+
+
+	/**
+	 *  Writes the response with the OaiResponseWriter and renders it from the JSP, and checks they are the
+	 *  same.
+	 *
+	 * @param  page           The JSP page in web/oai_requests
+	 * @param  rf             The bean for the response
+	 * @param  params         The request parameters
+	 * @return                The response
+	 * @exception  Exception  If error
+	 */
+	private String compare(String page, RepositoryForm rf, Map params) throws Exception {
+		HttpServletRequest req = newRequest(params);
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		Map headers = new HashMap();
+		HttpServletResponse res = newResponse(bytes, headers);
+		if (page.equals("ListRecords.jsp"))
+			OaiResponseWriter.writeListRecords(rf, req, res);
+		else if (page.equals("ListIdentifiers.jsp"))
+			OaiResponseWriter.writeListIdentifiers(rf, req, res);
+		else
+			OaiResponseWriter.writeGetRecord(rf, req, res);
+		String actual = removeResponseDate(new String(bytes.toByteArray(), "UTF-8"));
+
+		Map scope = new HashMap();
+		scope.put("rf", rf);
+		scope.put("request", req);
+		StringBuffer expected = new StringBuffer();
+		new JspPage(new File(webappDir, "oai_requests/" + page)).render(scope, expected);
+
+		Assert.assertEquals("Response differs from " + page + " for " + params, removeResponseDate(expected.toString()), actual);
+		Assert.assertEquals("Wrong content type", "text".equals(params.get("rt")) ? "text/plain; charset=UTF-8" : "text/xml; charset=UTF-8",
+			headers.get("Content-Type"));
+		return actual;
+	}
+
+
+	private RepositoryForm newListForm(String format, String offset, String length, String resumptionToken) throws Exception {
+		ResultDocList results = rm.getOaiQueryResults(format, null, null, null);
+		Assert.assertNotNull("No results in format " + format, results);
+		Assert.assertTrue("No results in format " + format, results.size() > 0);
+		RepositoryForm rf = new RepositoryForm();
+		rf.setBaseURL("http://localhost/oai/provider");
+		rf.setResults(results);
+		rf.setResultsOffset(offset);
+		rf.setResultsLength(length);
+		rf.setResumptionToken(resumptionToken);
+		rf.setRequestedFormat(format);
+		rf.setOaiIdPfx(rm.getOaiIdPrefix());
+		return rf;
+	}
+
+
+	private int firstDeleted(ResultDocList results) {
+		for (int i = 0; i < results.size(); i++) {
+			if (((XMLDocReader) ((ResultDoc) results.get(i)).getDocReader()).isDeleted())
+				return i;
+		}
+		Assert.fail("No deleted record in the results");
+		return -1;
+	}
+
+
+	private void index() throws Exception {
+		IndexingObserver observer = new IndexingObserver();
+		rm.indexFiles(observer, true);
+		observer.awaitCompletion();
+	}
+
+
+	private static String removeResponseDate(String s) {
+		return s.replaceAll("<responseDate>[^<]*</responseDate>", "<responseDate/>");
+	}
+
+
+	private static HttpServletRequest newRequest(final Map params) {
+		return (HttpServletRequest) Proxy.newProxyInstance(OaiResponseWriterTests.class.getClassLoader(),
+			new Class[]{HttpServletRequest.class},
+			new InvocationHandler() {
+				public Object invoke(Object proxy, Method method, Object[] args) {
+					String name = method.getName();
+					if (name.equals("getParameter"))
+						return params.get(args[0]);
+					if (name.equals("getParameterValues"))
+						return params.containsKey(args[0]) ? new String[]{(String) params.get(args[0])} : null;
+					if (name.equals("getParameterNames"))
+						return Collections.enumeration(params.keySet());
+					if (name.equals("getParameterMap"))
+						return params;
+					return defaultValue(method);
+				}
+			});
+	}
+
+
+	private static HttpServletResponse newResponse(final OutputStream bytes, final Map headers) {
+		final ServletOutputStream out =
+			new ServletOutputStream() {
+				public void write(int b) throws IOException {
+					bytes.write(b);
+				}
+
+
+				public void write(byte[] b, int off, int len) throws IOException {
+					bytes.write(b, off, len);
+				}
+			};
+		return (HttpServletResponse) Proxy.newProxyInstance(OaiResponseWriterTests.class.getClassLoader(),
+			new Class[]{HttpServletResponse.class},
+			new InvocationHandler() {
+				public Object invoke(Object proxy, Method method, Object[] args) {
+					String name = method.getName();
+					if (name.equals("getOutputStream"))
+						return out;
+					if (name.equals("setContentType"))
+						headers.put("Content-Type", args[0]);
+					if (name.equals("containsHeader"))
+						return Boolean.valueOf(headers.containsKey(args[0]));
+					return defaultValue(method);
+				}
+			});
+	}
+
+
+	private static Object defaultValue(Method method) {
+		Class type = method.getReturnType();
+		if (type == Boolean.TYPE)
+			return Boolean.FALSE;
+		if (type == Integer.TYPE)
+			return new Integer(0);
+		if (type == Long.TYPE)
+			return new Long(0);
+		return null;
+	}
+
+
+	/**
+	 *  Renders one of the OAI-PMH JSP pages. Template text is copied from the page as it stands, and the tags,
+	 *  expressions and scriptlets that the pages use are interpreted as the JSP container would. Anything else
+	 *  fails the test, so the renderer is brought up to date when a page is changed.
+	 */
+	static class JspPage {
+		private final static List TAG_PREFIXES = Arrays.asList(new String[]{
+			"jsp", "bean", "logic", "c", "dt", "resp", "req", "html", "fmt", "x", "fn", "sql"});
+
+		private final String source;
+		private int pos = 0;
+		private final List nodes;
+
+
+		/**
+		 *  Parses the page, including any pages it includes with the include directive.
+		 *
+		 * @param  page           The page
+		 * @exception  Exception  If error
+		 */
+		JspPage(File page) throws Exception {
+			source = include(page);
+			nodes = parse(null);
+		}
+
+
+		/**
+		 *  Renders the page.
+		 *
+		 * @param  scope          The page scope, which holds 'rf' and 'request'
+		 * @param  out            The output
+		 * @exception  Exception  If error
+		 */
+		void render(Map scope, StringBuffer out) throws Exception {
+			render(nodes, scope, out);
+		}
+
+
+		private static String include(File page) throws Exception {
+			// The BLANK token is removed from the pages by the Ant build
+			String content = Files.readFileToEncoding(page, "UTF-8").toString().replaceAll("@BLANK@", "").replaceAll("(?s)<%--.*?--%>", "");
+			java.util.regex.Matcher m = java.util.regex.Pattern.compile("<%@\\s*include\\s+file=\"([^\"]+)\"\\s*%>").matcher(content);
+			StringBuffer ret = new StringBuffer();
+			while (m.find())
+				m.appendReplacement(ret, java.util.regex.Matcher.quoteReplacement(include(new File(page.getParentFile(), m.group(1)))));
+			m.appendTail(ret);
+			return ret.toString();
+		}
+
+
+		/**
+		 *  Parses nodes up to the end tag with the given name, or to the end of the page.
+		 *
+		 * @param  endTag  The name of the enclosing tag, or null
+		 * @return         The nodes, which are Strings for template text and Object[] {type, ...} otherwise
+		 */
+		private List parse(String endTag) {
+			List ret = new ArrayList();
+			StringBuffer text = new StringBuffer();
+			while (pos < source.length()) {
+				String tag = tagAt(pos);
+				if (source.startsWith("<%--", pos))
+					pos = source.indexOf("--%>", pos) + 4;
+				else if (source.startsWith("<%@", pos))
+					pos = source.indexOf("%>", pos) + 2;
+				else if (source.startsWith("<%=", pos)) {
+					flush(text, ret);
+					int end = source.indexOf("%>", pos);
+					ret.add(new Object[]{"expression", source.substring(pos + 3, end).trim()});
+					pos = end + 2;
+				}
+				else if (source.startsWith("<%", pos)) {
+					flush(text, ret);
+					int end = source.indexOf("%>", pos);
+					ret.add(new Object[]{"scriptlet", source.substring(pos + 2, end).trim()});
+					pos = end + 2;
+				}
+				else if (source.startsWith("${", pos)) {
+					flush(text, ret);
+					int end = source.indexOf("}", pos);
+					ret.add(new Object[]{"el", source.substring(pos + 2, end).trim()});
+					pos = end + 1;
+				}
+				else if (tag != null && tag.startsWith("/")) {
+					flush(text, ret);
+					Assert.assertEquals("Unbalanced tag in page", endTag, tag.substring(1));
+					pos = source.indexOf(">", pos) + 1;
+					return ret;
+				}
+				else if (tag != null) {
+					flush(text, ret);
+					ret.add(parseTag(tag));
+				}
+				else
+					text.append(source.charAt(pos++));
+			}
+			Assert.assertNull("Unclosed tag in page: " + endTag, endTag);
+			flush(text, ret);
+			return ret;
+		}
+
+
+		private Object[] parseTag(String name) {
+			pos += name.length() + 1;
+			Map attributes = new HashMap();
+			while (true) {
+				while (Character.isWhitespace(source.charAt(pos)))
+					pos++;
+				if (source.startsWith("/>", pos)) {
+					pos += 2;
+					return new Object[]{name, attributes, new ArrayList()};
+				}
+				if (source.charAt(pos) == '>') {
+					pos++;
+					return new Object[]{name, attributes, parse(name)};
+				}
+				int eq = source.indexOf('=', pos);
+				String attribute = source.substring(pos, eq).trim();
+				char quote = source.charAt(eq + 1);
+				int end = source.indexOf(quote, eq + 2);
+				attributes.put(attribute, source.substring(eq + 2, end));
+				pos = end + 1;
+			}
+		}
+
+
+		/**
+		 *  Gets the name of the custom tag, or the end tag prefixed with '/', at the given position.
+		 *
+		 * @param  i  The position
+		 * @return    The tag name, or null if there is no custom tag at the position
+		 */
+		private String tagAt(int i) {
+			if (source.charAt(i) != '<')
+				return null;
+			int start = (i + 1 < source.length() && source.charAt(i + 1) == '/') ? i + 2 : i + 1;
+			int colon = source.indexOf(':', start);
+			if (colon == -1 || !TAG_PREFIXES.contains(source.substring(start, colon)))
+				return null;
+			int end = colon + 1;
+			while (end < source.length() && Character.isLetter(source.charAt(end)))
+				end++;
+			return source.substring(i + 1, end);
+		}
+
+
+		private static void flush(StringBuffer text, List nodes) {
+			if (text.length() > 0)
+				nodes.add(text.toString());
+			text.setLength(0);
+		}
+
+
+		private void render(List nodes, Map scope, StringBuffer out) throws Exception {
+			for (int i = 0; i < nodes.size(); i++) {
+				Object node = nodes.get(i);
+				if (node instanceof String) {
+					out.append((String) node);
+					continue;
+				}
+				Object[] n = (Object[]) node;
+				String type = (String) n[0];
+				if (type.equals("expression"))
+					out.append(String.valueOf(evaluate((String) n[1], scope)));
+				else if (type.equals("scriptlet"))
+					execute((String) n[1], scope);
+				else if (type.equals("el")) {
+					Object value = getProperty(scope.get(((String) n[1]).split("\\.")[0]), ((String) n[1]).indexOf('.') == -1 ? null : ((String) n[1]).substring(((String) n[1]).indexOf('.') + 1));
+					if (value != null)
+						out.append(value.toString());
+				}
+				else
+					renderTag(type, (Map) n[1], (List) n[2], scope, out);
+			}
+		}
+
+
+		private void renderTag(String name, Map attributes, List body, Map scope, StringBuffer out) throws Exception {
+			if (name.equals("jsp:useBean") || name.equals("dt:timeZone") || name.equals("resp:setContentType"))
+				return;
+			if (name.equals("dt:format")) {
+				out.append("(responseDate)");
+				return;
+			}
+			if (name.equals("bean:write")) {
+				Object value = getProperty(scope.get(attributes.get("name")), (String) attributes.get("property"));
+				if (value != null)
+					out.append("false".equals(attributes.get("filter")) ? value.toString() : ResponseUtils.filter(value.toString()));
+				return;
+			}
+			if (name.equals("logic:match") || name.equals("logic:notMatch")) {
+				Object value = getProperty(scope.get(attributes.get("name")), (String) attributes.get("property"));
+				boolean matches = value != null && value.toString().indexOf((String) attributes.get("value")) != -1;
+				if (matches == name.equals("logic:match"))
+					render(body, scope, out);
+				return;
+			}
+			if (name.equals("req:equalsParameter")) {
+				HttpServletRequest req = (HttpServletRequest) scope.get("request");
+				if (((String) attributes.get("match")).equals(req.getParameter((String) attributes.get("name"))))
+					render(body, scope, out);
+				return;
+			}
+			if (name.equals("logic:iterate") || name.equals("c:forEach")) {
+				Collection items;
+				String var;
+				int offset = 0;
+				int length = 0;
+				if (name.equals("c:forEach")) {
+					String el = ((String) attributes.get("items")).replaceAll("^\\$\\{|\\}$", "");
+					items = (Collection) getProperty(scope.get(el.split("\\.")[0]), el.substring(el.indexOf('.') + 1));
+					var = (String) attributes.get("var");
+				}
+				else {
+					items = (Collection) getProperty(scope.get(attributes.get("name")), (String) attributes.get("property"));
+					var = (String) attributes.get("id");
+					if (attributes.get("offset") != null)
+						offset = Integer.parseInt(String.valueOf(evaluateAttribute((String) attributes.get("offset"), scope)));
+					if (attributes.get("length") != null)
+						length = Integer.parseInt(String.valueOf(evaluateAttribute((String) attributes.get("length"), scope)));
+				}
+				if (items == null)
+					return;
+				// As the Struts iterate tag, a length of zero or less includes all items after the offset
+				Iterator it = items.iterator();
+				for (int i = 0; it.hasNext() && (length <= 0 || i < offset + length); i++) {
+					Object item = it.next();
+					if (i < offset)
+						continue;
+					scope.put(var, item);
+					render(body, scope, out);
+				}
+				scope.remove(var);
+				return;
+			}
+			Assert.fail("The test does not render tag <" + name + ">");
+		}
+
+
+		private Object evaluateAttribute(String value, Map scope) {
+			if (value.startsWith("<%=") && value.endsWith("%>"))
+				return evaluate(value.substring(3, value.length() - 2).trim(), scope);
+			return value;
+		}
+
+
+		private Object evaluate(String expression, Map scope) {
+			RepositoryForm rf = (RepositoryForm) scope.get("rf");
+			if (expression.equals("rf.getOAIRequestTag(request)"))
+				return rf.getOAIRequestTag((HttpServletRequest) scope.get("request"));
+			if (expression.equals("rf.getResultsOffset()"))
+				return rf.getResultsOffset();
+			if (expression.equals("rf.getResultsLength()"))
+				return rf.getResultsLength();
+			if (expression.startsWith("metadata"))
+				return scope.get("metadata");
+			Assert.fail("The test does not evaluate the expression " + expression);
+			return null;
+		}
+
+
+		private void execute(String scriptlet, Map scope) {
+			String code = scriptlet.replaceAll("\\s+", " ");
+			if (code.equals("}"))
+				return;
+			if (code.equals("FileIndexingServiceDocReader rdr = (FileIndexingServiceDocReader)((ResultDoc)result).getDocReader(); " +
+				"String metadata = \"\"; if(!rdr.isDeleted()) metadata = ((XMLDocReader)rdr).getXmlFormat(rf.getRequestedFormat(), true); " +
+				"if(metadata!= null) {")) {
+				XMLDocReader rdr = (XMLDocReader) ((ResultDoc) scope.get("result")).getDocReader();
+				String metadata = "";
+				if (!rdr.isDeleted())
+					metadata = rdr.getXmlFormat(((RepositoryForm) scope.get("rf")).getRequestedFormat(), true);
+				// getXmlFormat does not return null, so the block the scriptlet opens is always rendered
+				Assert.assertNotNull(metadata);
+				scope.put("metadata", metadata);
+				return;
+			}
+			Assert.fail("The test does not execute the scriptlet " + code);
+		}
+
+
+		private static Object getProperty(Object bean, String property) throws Exception {
+			if (property == null || bean == null)
+				return bean;
+			String[] names = property.split("\\.");
+			for (int i = 0; i < names.length && bean != null; i++) {
+				PropertyDescriptor[] descriptors = Introspector.getBeanInfo(bean.getClass()).getPropertyDescriptors();
+				Method getter = null;
+				for (int j = 0; j < descriptors.length; j++) {
+					if (descriptors[j].getName().equals(names[i]))
+						getter = descriptors[j].getReadMethod();
+				}
+				Assert.assertNotNull("No property " + names[i] + " in " + bean.getClass(), getter);
+				bean = getter.invoke(bean, new Object[]{});
+			}
+			return bean;
+		}
+	}
+
+
+	private static class IndexingObserver implements FileIndexingObserver {
+		private boolean completed = false;
+		private int status;
+		private String message = null;
+
+
+		public synchronized void indexingCompleted(int status, String message) {
+			this.status = status;
+			this.message = message;
+			completed = true;
+			notifyAll();
+		}
+
+
+		synchronized void awaitCompletion() throws Exception {
+			while (!completed)
+				wait();
+			Assert.assertEquals("Indexing did not succeed: " + message, FileIndexingObserver.INDEXING_COMPLETED_SUCCESS, status);
+		}
+	}
+
+
+	private static void prtln(String s) {
+		System.out.println(s);
+	}
+
+
+	/**
+	 *  Main method for running this single suite from the command line
+	 *
+	 * @param  args  The command line arguments
+	 */
+	public static void main(String[] args) {
+		junit.textui.TestRunner.run(suite());
+	}
+}
@@ -55,6 +55,7 @@ import org.apache.struts.util.MessageResources;
 public final class RepositoryAction extends Action {
 	private static boolean debug = false;
 	private SimpleLuceneIndex webLogIndex;
+	private WebLogIndexQueue webLogIndexQueue;
 	private WebLogWriter webLogWriter = new WebLogWriter();
 
 	// --------------------------------------------------------- Public Methods
@@ -120,6 +121,8 @@ public final class RepositoryAction extends Action {
 
 			webLogIndex =
 				(SimpleLuceneIndex) servlet.getServletContext().getAttribute("webLogIndex");
+			webLogIndexQueue =
+				(WebLogIndexQueue) servlet.getServletContext().getAttribute("webLogIndexQueue");
 
 			// Set up data in the bean
 			rf.setBaseURL(rm.getProviderBaseUrl(request));
@@ -158,13 +161,15 @@ public final class RepositoryAction extends Action {
 				return doIdentify(request, mapping, num_args, rm, rf);
 			}
 			else if (verb.equals(OAIArgs.GET_RECORD)) {
-				return doGetRecord(request, mapping, num_args, rm, rf);
+				return streamResponse(doGetRecord(request, mapping, num_args, rm, rf), verb, request, response, rf);
 			}
 			else if (verb.equals(OAIArgs.LIST_RECORDS)) {
-				return doListRecordsOrIdentifiers(request, mapping, num_args, rm, rf, OAIArgs.LIST_RECORDS, numListRecordsResults);
+				return streamResponse(doListRecordsOrIdentifiers(request, mapping, num_args, rm, rf, OAIArgs.LIST_RECORDS, numListRecordsResults),
+					verb, request, response, rf);
 			}
 			else if (verb.equals(OAIArgs.LIST_IDENTIFIERS)) {
-				return doListRecordsOrIdentifiers(request, mapping, num_args, rm, rf, OAIArgs.LIST_IDENTIFIERS, numListIdentifiersResults);
+				return streamResponse(doListRecordsOrIdentifiers(request, mapping, num_args, rm, rf, OAIArgs.LIST_IDENTIFIERS, numListIdentifiersResults),
+					verb, request, response, rf);
 			}
 			else if (verb.equals(OAIArgs.LIST_METADATA_FORMATS)) {
 				return doListMetadataFormats(request, mapping, num_args, rm, rf);
@@ -189,6 +194,58 @@ public final class RepositoryAction extends Action {
 
 
 
+	/**
+	 *  Writes the ListRecords, ListIdentifiers or GetRecord response directly to the client using the {@link
+	 *  OaiResponseWriter} in place of forwarding to the JSP page for rendering. The JSP is used instead if the
+	 *  request resulted in an OAI error, requires post-processing of the response (rt=validate) or if
+	 *  streaming has been disabled using the context parameter 'oaiResponseStreaming', in which case the records
+	 *  on the page are read before forwarding. The IndexReader held for the results is released here.
+	 *
+	 * @param  forward          The forward to the JSP that would render the response
+	 * @param  verb             The OAI verb
+	 * @param  request          The HTTP request
+	 * @param  response         The HTTP response
+	 * @param  rf               The bean holding the data for the response
+	 * @return                  Null if the response was written here, otherwise the given forward
+	 * @exception  IOException  If error writing the response
+	 */
+	protected ActionForward streamResponse(
+	                                       ActionForward forward,
+	                                       String verb,
+	                                       HttpServletRequest request,
+	                                       HttpServletResponse response,
+	                                       RepositoryForm rf) throws IOException {
+		boolean isList = verb.equals(OAIArgs.LIST_RECORDS) || verb.equals(OAIArgs.LIST_IDENTIFIERS);
+		ResultDocList results = (isList ? rf.getResults() : null);
+		try {
+			if (forward == null || !("oaipmh." + verb).equals(forward.getName()))
+				return forward;
+			if (!OaiResponseWriter.canStream(request) ||
+				"false".equals(servlet.getServletContext().getInitParameter("oaiResponseStreaming"))) {
+				// The JSP renders the page after the reader has been released, so read its records now:
+				if (results != null) {
+					rf.setResults(results.getLoadedPage(OaiResponseWriter.getOffset(rf), OaiResponseWriter.getEnd(rf, results)));
+					rf.setResultsOffset("0");
+				}
+				return forward;
+			}
+
+			if (verb.equals(OAIArgs.LIST_RECORDS))
+				OaiResponseWriter.writeListRecords(rf, request, response);
+			else if (verb.equals(OAIArgs.LIST_IDENTIFIERS))
+				OaiResponseWriter.writeListIdentifiers(rf, request, response);
+			else if (verb.equals(OAIArgs.GET_RECORD))
+				OaiResponseWriter.writeGetRecord(rf, request, response);
+			else
+				return forward;
+			return null;
+		} finally {
+			if (results != null)
+				results.releaseReader();
+		}
+	}
+
+
 	/**
 	 *  Handles the OAI Identify request. From the spec, this request has the following properties: <p>
 	 *
@@ -529,7 +586,7 @@ public final class RepositoryAction extends Action {
 			// Query the provider and get the results:
 			if (!rf.hasErrors() && odl != null) {
 				try {
-					results = rm.getOdlQueryResults(format, odl.getSet(), from, until, odl.getQueryString());
+					results = getHeldQueryResults(rm, format, odl.getSet(), from, until, odl.getQueryString());
 				} catch (Exception e) {
 					//prtln("throwing bad argument error..." + e);
 					//e.printStackTrace();
@@ -610,7 +667,16 @@ public final class RepositoryAction extends Action {
 			// Query the provider and get the results:
 			if (!rf.hasErrors() && rth != null) {
 				try {
-					results = rm.getOaiQueryResults(rth.getFormat(), rth.getSet(), rth.getFrom(), rth.getUntil());
+					// Serve resumed requests from the results stored with the token, if still available:
+					ResumptionTokenStore tokenStore = rm.getResumptionTokenStore();
+					results = tokenStore.get(rth.getStoreKey(), rth.getFormat(), rth.getSet(), rth.getFrom(), rth.getUntil());
+					if (results == null) {
+						results = getHeldQueryResults(rm, rth.getFormat(), rth.getSet(), rth.getFrom(), rth.getUntil(), null);
+
+						// Store the ordered results so the following pages do not need to re-run the query:
+						if (results != null && !rth.isLastToken(results.size()))
+							rth.setStoreKey(tokenStore.put(results, rth.getFormat(), rth.getSet(), rth.getFrom(), rth.getUntil()));
+					}
 					//if (results != null)
 					//prtln("Number of results: " + results.length);
 				} catch (OAIErrorException oai_e) {
@@ -652,7 +718,13 @@ public final class RepositoryAction extends Action {
 			}
 		}
 
+		// ListIdentifiers responses only show the record headers, so do not read the full record content:
+		if (!rf.hasErrors() && requestType.equals(OAIArgs.LIST_IDENTIFIERS))
+			rf.setResults(rf.getResults().getFieldProjection(XMLDocReader.OAI_HEADER_FIELDS));
+
 		if (rf.hasErrors()) {
+			if (results != null)
+				results.releaseReader();
 			logRequest(request, requestTypeForLog, rf.getErrors());
 			return (mapping.findForward("oaipmh.error"));
 		}
@@ -675,6 +747,37 @@ public final class RepositoryAction extends Action {
 	}
 
 
+	/**
+	 *  Runs an OAI-PMH or ODL query and holds the IndexReader the results were found in open, so the page can be
+	 *  written from the same reader the query ran over. The query is run again if the index was updated between
+	 *  the search and holding its reader. The reader must be released with {@link
+	 *  ResultDocList#releaseReader()}.
+	 *
+	 * @param  rm             The RepositoryManager
+	 * @param  format         The metadata format
+	 * @param  set            The set, or null
+	 * @param  from           The from time, or null
+	 * @param  until          The until time, or null
+	 * @param  queryString    The ODL query, or null for a standard OAI-PMH request
+	 * @return                The results, or null
+	 * @exception  Exception  If the query failed or the index kept changing
+	 */
+	private ResultDocList getHeldQueryResults(
+	                                          RepositoryManager rm,
+	                                          String format,
+	                                          String set,
+	                                          String from,
+	                                          String until,
+	                                          String queryString) throws Exception {
+		for (int i = 0; i < 3; i++) {
+			ResultDocList results = rm.getOdlQueryResults(format, set, from, until, queryString);
+			if (results == null || results.acquireReader())
+				return results;
+		}
+		throw new Exception("The index is being updated, please try again");
+	}
+
+
 	/**
 	 *  Logs an OAI request to an index for tracking.
 	 *
@@ -753,8 +856,13 @@ public final class RepositoryAction extends Action {
 				doLog = false;
 		}
 		//prtln("logging request '" + webNote + "' log level: " + logLevel + " means: " + doLog);
-		if (doLog)
-			webLogIndex.addDoc(webLogWriter.log(request, webNote.toString()), false);
+		if (doLog) {
+			// Queue the entry to be indexed in the background so the response is not held up by the index update:
+			if (webLogIndexQueue != null)
+				webLogIndexQueue.add(webLogWriter.log(request, webNote.toString()));
+			else
+				webLogIndex.addDoc(webLogWriter.log(request, webNote.toString()), false);
+		}
 	}
 
 
@@ -949,13 +1057,15 @@ public final class RepositoryAction extends Action {
 
 	/**
 	 *  Creates a resumptionToken from an OAI-PMH request for ListIdentifiers or ListRecords, and provides the
-	 *  set, format, from and until arguments that are associted with the request.
+	 *  set, format, from and until arguments that are associted with the request. The token may also carry a
+	 *  key to the results held in the {@link ResumptionTokenStore}, which is ignored if those results are no
+	 *  longer available.
 	 *
 	 * @author     John Weatherley
 	 * @version    $Id: RepositoryAction.java,v 1.37 2010/07/14 00:18:49 jweather Exp $
 	 */
 	private class ResumptionTokenHandler {
-		private String set, format, from, until;
+		private String set, format, from, until, storeKey;
 		private int numResultsToReturn, cursor;
 
 		//private final static String DELIM = "%2B";
@@ -983,7 +1093,7 @@ public final class RepositoryAction extends Action {
 			String[] args = previousToken.split("\\/");
 			//String[] args = previousToken.split("\\+|%2B");
 
-			if (args.length != 7)
+			if (args.length != 7 && args.length != 8)
 				throw new Exception("Wrong number of args were parsed from the token");
 
 			/* prtln("resumptionToken parsed args are: ");
@@ -994,6 +1104,8 @@ public final class RepositoryAction extends Action {
 			set = args[4].equals(NP) ? null : args[4];
 			from = args[5].equals(NP) ? null : args[5];
 			until = args[6].equals(NP) ? null : args[6];
+			if (args.length == 8)
+				storeKey = args[7];
 		}
 
 
@@ -1060,6 +1172,26 @@ public final class RepositoryAction extends Action {
 		}
 
 
+		/**
+		 *  Gets the key to the results held in the ResumptionTokenStore, or null if none.
+		 *
+		 * @return    The storeKey value
+		 */
+		public String getStoreKey() {
+			return storeKey;
+		}
+
+
+		/**
+		 *  Sets the key to the results held in the ResumptionTokenStore, which is included in the next token.
+		 *
+		 * @param  storeKey  The new storeKey value, or null
+		 */
+		public void setStoreKey(String storeKey) {
+			this.storeKey = storeKey;
+		}
+
+
 		/**
 		 *  Gets the resultsLength attribute of the ResumptionTokenHandler object
 		 *
@@ -1142,6 +1274,8 @@ public final class RepositoryAction extends Action {
 				((set == null) ? NP : set.trim()) + DELIM +
 				((from == null) ? NP : from.trim()) + DELIM +
 				((until == null) ? NP : until.trim()));
+			if (storeKey != null)
+				out.append(DELIM + storeKey);
 			out.append("</resumptionToken>\n");
 
 			return out.toString();
@@ -137,6 +137,8 @@ public class FrameworkRegistry implements MetadataVocabReloadListener {
 	 */
 	public void loadFramework(String xmlFormat) throws Exception {
 		File configFile = new File(configDir, xmlFormat + ".xml");
+		// The framework's schema may have changed since it was last loaded
+		XMLValidator.clearGrammarCache();
 		loadFramework(configFile);
 	}
 
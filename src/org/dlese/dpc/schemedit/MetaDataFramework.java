@@ -206,10 +206,11 @@ public class MetaDataFramework implements Serializable {
 		return errors;
 	}
 
-	/**  NOT YET DOCUMENTED */
+	/**  Re-reads the framework configuration. The cached validation schemas are cleared so they are read again. */
 	public void refresh() {
 		this.getConfigReader().refresh();
 		this.initialized = false;
+		org.dlese.dpc.xml.XMLValidator.clearGrammarCache();
 	}
 
 
@@ -161,6 +161,16 @@ public final class SchemEditServlet extends HttpServlet {
 			if (dcsDataManager == null) {
 				throw new ServletException("failed to initialize dcsDataManager");
 			} else {
+				String dcsDataCacheSize = (String) servletContext.getInitParameter("dcsDataCacheSize");
+				try {
+					if (dcsDataCacheSize != null && dcsDataCacheSize.trim().length() > 0)
+						dcsDataManager.setMaxCachedRecords(Integer.parseInt(dcsDataCacheSize.trim()));
+				} catch (Throwable nfe) {
+					prtlnErr("Error reading context parameter dcsDataCacheSize: " + nfe.getMessage());
+				}
+				String dcsDataWriteBehind = (String) servletContext.getInitParameter("dcsDataWriteBehind");
+				if (dcsDataWriteBehind != null && dcsDataWriteBehind.trim().equalsIgnoreCase("false"))
+					dcsDataManager.setWriteBehindEnabled(false);
 				servletContext.setAttribute("dcsDataManager", dcsDataManager);
 				/*
 				 *  explicitly call loadCollectionRecords once the dcsDataManager is
@@ -186,6 +196,13 @@ public final class SchemEditServlet extends HttpServlet {
 			servletContext.setAttribute("exportingService", exportingService);
 
 			ValidatingService validatingService = new ValidatingService(servletContext, repositoryData + "/validating_service_data");
+			String numValidatingThreads = (String) servletContext.getInitParameter("numValidatingThreads");
+			try {
+				if (numValidatingThreads != null && numValidatingThreads.trim().length() > 0)
+					validatingService.setNumValidatingThreads(Integer.parseInt(numValidatingThreads.trim()));
+			} catch (Throwable nfe) {
+				prtlnErr("Error reading context parameter numValidatingThreads: " + nfe.getMessage());
+			}
 			servletContext.setAttribute("validatingService", validatingService);
 
 			try {
@@ -21,6 +21,7 @@ import org.dlese.dpc.schemedit.config.*;
 import org.dlese.dpc.schemedit.sif.SIFRefIdManager;
 import org.dlese.dpc.util.Files;
 import org.dlese.dpc.util.strings.FindAndReplace;
+import org.dlese.dpc.schemedit.standards.StandardsRegistry;
 import org.dlese.dpc.schemedit.standards.config.SuggestionServiceManager;
 import org.dlese.dpc.schemedit.standards.adn.AsnToAdnMapper;
 
@@ -243,6 +244,19 @@ public final class SetupServlet extends HttpServlet {
 		AsnToAdnMapper standardsMapper = new AsnToAdnMapper(mappingDataPath);
 		getServletContext().setAttribute("standardsMapper", standardsMapper);
 
+		// keep snapshots of parsed standards documents, and bound the memory held by the tree cache,
+		// before the suggestion service loads the standards documents
+		StandardsRegistry standardsRegistry = StandardsRegistry.getInstance();
+		String repositoryData = getAbsolutePath((String) getServletContext().getInitParameter("repositoryData"));
+		standardsRegistry.setSnapshotDir(new File(repositoryData, "standards_snapshots"));
+		String standardsCacheSizeMB = (String) getServletContext().getInitParameter("standardsCacheSizeMB");
+		try {
+			if (standardsCacheSizeMB != null && standardsCacheSizeMB.trim().length() > 0)
+				standardsRegistry.getTreeCache().setMaxBytes(Long.parseLong(standardsCacheSizeMB.trim()) * 1024 * 1024);
+		} catch (Throwable nfe) {
+			prtlnErr("Error reading context parameter standardsCacheSizeMB: " + nfe.getMessage());
+		}
+
 		SuggestionServiceManager suggestionServiceManager = null;
 		try {
 			suggestionServiceManager = new SuggestionServiceManager(configFile);
@@ -40,7 +40,16 @@ import org.dlese.dpc.util.*;
  *
  *  DcsDataRecords are removed from cache via the {@link #revertToSaved(String)}
  *  method, which forces the DcsDataRecord to be read from disk the next time it
- *  is requested.
+ *  is requested.<p>
+ *
+ *  The cache holds at most {@link #setMaxCachedRecords(int)} records, evicting
+ *  the least recently used, and is striped so that threads working on different
+ *  records do not wait on each other. The xml of a record passed to {@link
+ *  #scheduleWrite(DcsDataRecord)} is captured when the write is scheduled and
+ *  written to disk by a background thread, so later changes to the record that
+ *  are not scheduled, such as those discarded by {@link #revertToSaved(String)},
+ *  are never written. The record is kept in memory until written, so it is never
+ *  read from disk while it has changes that have not been written.
  *
  * @author    ostwald $Id: DcsDataManager.java,v 1.4 2004/12/08 17:05:37 ostwald
  *      Exp $
@@ -51,8 +60,25 @@ public class DcsDataManager {
 	File dcsDataDir = null;
 	MetaDataFramework dcsDataFramework = null;
 	CollectionRegistry collectionRegistry = null;
-	HashMap cache = new HashMap();
+	DcsDataRecordCache cache = new DcsDataRecordCache(DEFAULT_MAX_CACHED_RECORDS);
 	private boolean cachingEnabled = true;
+
+	/**  The default maximum number of DcsDataRecords held in the cache. */
+	public final static int DEFAULT_MAX_CACHED_RECORDS = 20000;
+
+	/**
+	 *  The number of milliseconds the write-behind thread waits before writing a
+	 *  record again after a write of it failed.
+	 */
+	public final static long WRITE_RETRY_INTERVAL = 30000;
+
+	// Records waiting to be written by the write-behind thread: id to PendingWrite, oldest first
+	private LinkedHashMap pendingWrites = new LinkedHashMap();
+	private boolean writeBehindEnabled = true;
+	private Thread writeBehindThread = null;
+	private long numWritesScheduled = 0;
+	private long numWritesCompleted = 0;
+	private long numWritesFailed = 0;
 	private ArrayList listeners;
 
 
@@ -146,8 +172,154 @@ public class DcsDataManager {
 	}
 
 
+	/**
+	 *  Sets the maximum number of DcsDataRecords held in the cache. Defaults to
+	 *  {@link #DEFAULT_MAX_CACHED_RECORDS}.
+	 *
+	 * @param  maxCachedRecords  the maximum number of records cached
+	 */
+	public void setMaxCachedRecords(int maxCachedRecords) {
+		cache.setMaxRecords(maxCachedRecords);
+	}
+
+
+	/**
+	 *  Gets the maximum number of DcsDataRecords held in the cache.
+	 *
+	 * @return    the maximum number of records cached
+	 */
+	public int getMaxCachedRecords() {
+		return cache.getMaxRecords();
+	}
+
+
+	/**
+	 *  Sets whether {@link #scheduleWrite(DcsDataRecord)} writes records in the
+	 *  background. When false, records are written before scheduleWrite returns.
+	 *  Defaults to true.
+	 *
+	 * @param  writeBehindEnabled  true to write records in the background
+	 */
+	public void setWriteBehindEnabled(boolean writeBehindEnabled) {
+		this.writeBehindEnabled = writeBehindEnabled;
+		if (!writeBehindEnabled)
+			flushPendingWrites();
+	}
+
+
+	/**
+	 *  Gets the number of DcsDataRecords in the cache.
+	 *
+	 * @return    the number of records cached
+	 */
+	public int getNumCachedRecords() {
+		return cache.size();
+	}
+
+
+	/**
+	 *  Gets the number of lookups by id that found the record in the cache.
+	 *
+	 * @return    the number of cache hits
+	 */
+	public long getCacheHits() {
+		return cache.getHits();
+	}
+
+
+	/**
+	 *  Gets the number of lookups by id that did not find the record in the
+	 *  cache.
+	 *
+	 * @return    the number of cache misses
+	 */
+	public long getCacheMisses() {
+		return cache.getMisses();
+	}
+
+
+	/**
+	 *  Gets the number of records evicted from the cache to make room for
+	 *  others.
+	 *
+	 * @return    the number of cache evictions
+	 */
+	public long getCacheEvictions() {
+		return cache.getEvictions();
+	}
+
+
+	/**
+	 *  Gets the number of records waiting to be written by the write-behind
+	 *  thread.
+	 *
+	 * @return    the number of pending writes
+	 */
+	public int getNumPendingWrites() {
+		synchronized (pendingWrites) {
+			return pendingWrites.size();
+		}
+	}
+
+
+	/**
+	 *  Gets the number of records whose most recent write to disk failed. These
+	 *  remain pending and are written again by the write-behind thread.
+	 *
+	 * @return    the number of records that could not be written
+	 */
+	public int getNumFailedWrites() {
+		synchronized (pendingWrites) {
+			int failed = 0;
+			for (Iterator i = pendingWrites.values().iterator(); i.hasNext(); ) {
+				if (((PendingWrite) i.next()).lastError != null)
+					failed++;
+			}
+			return failed;
+		}
+	}
+
+
+	/**
+	 *  Gets the number of writes scheduled, completed and failed by the
+	 *  write-behind thread, along with the cache counters, for display. If the
+	 *  most recent write of any record failed, the number of such records and the
+	 *  last error are included.
+	 *
+	 * @return    a summary of the cache and write-behind counters
+	 */
+	public String getCacheStats() {
+		long scheduled;
+		long completed;
+		long failures;
+		int pending;
+		int failed = 0;
+		String lastError = null;
+		synchronized (pendingWrites) {
+			scheduled = numWritesScheduled;
+			completed = numWritesCompleted;
+			failures = numWritesFailed;
+			pending = pendingWrites.size();
+			for (Iterator i = pendingWrites.values().iterator(); i.hasNext(); ) {
+				PendingWrite write = (PendingWrite) i.next();
+				if (write.lastError != null) {
+					failed++;
+					lastError = write.record.getId() + ": " + write.lastError;
+				}
+			}
+		}
+		String stats = "cached: " + getNumCachedRecords() + " of " + getMaxCachedRecords() +
+			", hits: " + getCacheHits() + ", misses: " + getCacheMisses() +
+			", evictions: " + getCacheEvictions() + ", writes scheduled: " + scheduled +
+			", written: " + completed + ", pending: " + pending + ", write failures: " + failures;
+		if (failed > 0)
+			stats += ", records not written: " + failed + " (last error " + lastError + ")";
+		return stats;
+	}
+
+
 	/**  NOT YET DOCUMENTED */
-	public synchronized void normalizeStatuses() {
+	public void normalizeStatuses() {
 		prtln("normaliseStatuses for all collections");
 		for (Iterator i = cache.values().iterator(); i.hasNext(); ) {
 			DcsDataRecord rec = (DcsDataRecord) i.next();
@@ -161,7 +333,7 @@ public class DcsDataManager {
 	 *
 	 * @param  collection  NOT YET DOCUMENTED
 	 */
-	public synchronized void normalizeStatuses(String collection) {
+	public void normalizeStatuses(String collection) {
 		prtln("normaliseStatuses for " + collection);
 		for (Iterator i = cache.values().iterator(); i.hasNext(); ) {
 			DcsDataRecord rec = (DcsDataRecord) i.next();
@@ -184,7 +356,7 @@ public class DcsDataManager {
 		DcsDataRecord dcsDataRecord = null;
 
 		if (cachingEnabled) {
-			dcsDataRecord = (DcsDataRecord) cache.get(id);
+			dcsDataRecord = getCachedRecord(id);
 		}
 
 		if (dcsDataRecord == null) {
@@ -241,7 +413,7 @@ public class DcsDataManager {
 		DcsDataRecord dcsDataRecord = null;
 
 		if (cachingEnabled && id != null) {
-			dcsDataRecord = (DcsDataRecord) cache.get(id);
+			dcsDataRecord = getCachedRecord(id);
 		}
 		else {
 			prtln("getDcsDataRecord with id == null - record will not be added to cache");
@@ -269,7 +441,27 @@ public class DcsDataManager {
 			// add dcsDataRecord to cache if we know the id
 			if (cachingEnabled && id != null && id.length() > 0) {
 				dcsDataRecord.setId(id);
-				cache.put(id, dcsDataRecord);
+				dcsDataRecord = cache.putIfAbsent(id, dcsDataRecord);
+			}
+		}
+		return dcsDataRecord;
+	}
+
+
+	/**
+	 *  Gets a record from the cache, or from the records waiting to be written if
+	 *  it has been evicted from the cache, in which case it is cached again.
+	 *
+	 * @param  id  the record id
+	 * @return     the record, or null if it must be read from disk
+	 */
+	private DcsDataRecord getCachedRecord(String id) {
+		DcsDataRecord dcsDataRecord = cache.get(id);
+		if (dcsDataRecord == null) {
+			synchronized (pendingWrites) {
+				PendingWrite pending = (PendingWrite) pendingWrites.get(id);
+				if (pending != null)
+					dcsDataRecord = cache.putIfAbsent(id, pending.record);
 			}
 		}
 		return dcsDataRecord;
@@ -284,18 +476,21 @@ public class DcsDataManager {
 	 * @param  id  Description of the Parameter
 	 * @return     Description of the Return Value
 	 */
-	public synchronized boolean revertToSaved(String id) {
+	public boolean revertToSaved(String id) {
 		return removeFromCache(id);
 	}
 
 
 	/**
-	 *  NOT YET DOCUMENTED
+	 *  Remove the cached DcsDataRecord, first writing the xml captured by {@link
+	 *  #scheduleWrite(DcsDataRecord)} to disk if it is waiting to be written.
+	 *  Changes made to the record since the write was scheduled are discarded.
 	 *
-	 * @param  id  NOT YET DOCUMENTED
-	 * @return     NOT YET DOCUMENTED
+	 * @param  id  the record id
+	 * @return     true if the record was cached
 	 */
-	public synchronized boolean removeFromCache(String id) {
+	public boolean removeFromCache(String id) {
+		completePendingWrite(id);
 		return (cache.remove(id) != null);
 	}
 
@@ -305,9 +500,10 @@ public class DcsDataManager {
 	 *
 	 * @param  dcsDataRecord  Description of the Parameter
 	 */
-	public synchronized void cacheRecord(DcsDataRecord dcsDataRecord) {
+	public void cacheRecord(DcsDataRecord dcsDataRecord) {
 		String id = dcsDataRecord.getId();
 		if (id != null && id.length() > 0) {
+			completePendingWrite(id);
 			cache.put(id, dcsDataRecord);
 		}
 		else {
@@ -316,13 +512,139 @@ public class DcsDataManager {
 	}
 
 
+	/**
+	 *  Writes the given record to disk in the background. The record's xml is
+	 *  captured now and written later, so changes made to the record after this
+	 *  method returns are not written unless they are scheduled too. The record
+	 *  stays in memory until it is written, and a later write of the same record
+	 *  that is scheduled before then replaces this one. Records without an id, or
+	 *  all records if write-behind is disabled, are written before this method
+	 *  returns.
+	 *
+	 * @param  dcsDataRecord  the record to write
+	 * @exception  Exception  if the record can not be serialized, or if
+	 *      write-behind is not used and the record can not be written
+	 */
+	public void scheduleWrite(DcsDataRecord dcsDataRecord) throws Exception {
+		String id = dcsDataRecord.getId();
+		if (!writeBehindEnabled || id == null || id.length() == 0) {
+			dcsDataRecord.flushToDisk();
+			return;
+		}
+		String xml;
+		synchronized (dcsDataRecord) {
+			xml = dcsDataRecord.getWritableXml();
+		}
+		synchronized (pendingWrites) {
+			PendingWrite pending = (PendingWrite) pendingWrites.get(id);
+			if (pending != null && pending.record == dcsDataRecord) {
+				pending.xml = xml;
+				pending.version++;
+			}
+			else
+				pendingWrites.put(id, new PendingWrite(dcsDataRecord, xml));
+			numWritesScheduled++;
+			if (writeBehindThread == null) {
+				writeBehindThread = new WriteBehindThread();
+				writeBehindThread.start();
+			}
+			pendingWrites.notifyAll();
+		}
+	}
+
+
+	/**
+	 *  Writes the record with the given id to disk now if it is waiting to be
+	 *  written.
+	 *
+	 * @param  id  the record id
+	 */
+	private void completePendingWrite(String id) {
+		PendingWrite pending;
+		synchronized (pendingWrites) {
+			pending = (PendingWrite) pendingWrites.get(id);
+		}
+		if (pending != null)
+			write(id, pending);
+	}
+
+
+	/**
+	 *  Writes all records that are waiting to be written to disk, including
+	 *  those whose previous write failed. Records that can not be written remain
+	 *  pending.
+	 *
+	 * @return    the number of records that could not be written
+	 */
+	public int flushPendingWrites() {
+		List toWrite;
+		synchronized (pendingWrites) {
+			toWrite = new ArrayList(pendingWrites.entrySet());
+		}
+		for (int i = 0; i < toWrite.size(); i++) {
+			Map.Entry next = (Map.Entry) toWrite.get(i);
+			write((String) next.getKey(), (PendingWrite) next.getValue());
+		}
+		return getNumFailedWrites();
+	}
+
+
+	/**
+	 *  Writes the xml captured for a pending record to disk, then removes it from
+	 *  the pending writes unless it was scheduled again while being written. Writes
+	 *  of the same pending record are made one at a time, so the most recently
+	 *  scheduled xml is always written last. If the write fails the record stays
+	 *  pending, moved behind the other pending records, and is not written again
+	 *  by the write-behind thread until {@link #WRITE_RETRY_INTERVAL} has passed.
+	 *
+	 * @param  id       the record id
+	 * @param  pending  the pending write
+	 */
+	private void write(String id, PendingWrite pending) {
+		synchronized (pending) {
+			long version;
+			String xml;
+			synchronized (pendingWrites) {
+				// already written by another thread
+				if (pendingWrites.get(id) != pending)
+					return;
+				version = pending.version;
+				xml = pending.xml;
+			}
+			try {
+				pending.record.writeToDisk(xml);
+			} catch (Throwable t) {
+				prtlnErr("write-behind failed for " + id + " (will retry): " + t);
+				synchronized (pendingWrites) {
+					numWritesFailed++;
+					pending.lastError = t.toString();
+					pending.retryAt = System.currentTimeMillis() + WRITE_RETRY_INTERVAL;
+					if (pendingWrites.get(id) == pending) {
+						pendingWrites.remove(id);
+						pendingWrites.put(id, pending);
+					}
+				}
+				return;
+			}
+			synchronized (pendingWrites) {
+				pending.lastError = null;
+				pending.retryAt = 0;
+				if (pendingWrites.get(id) == pending && pending.version == version) {
+					pendingWrites.remove(id);
+					numWritesCompleted++;
+				}
+			}
+		}
+	}
+
+
 	/**  Write all cached DcsDataRecords to disk and then clear the cache  */
-	public synchronized void flushCache() {
+	public void flushCache() {
+		flushPendingWrites();
 		prtln("flushing " + cache.size() + " DcsDataRecords to disk");
-		for (Iterator i = cache.keySet().iterator(); i.hasNext(); ) {
-			String key = (String) i.next();
+		for (Iterator i = cache.values().iterator(); i.hasNext(); ) {
+			DcsDataRecord rec = (DcsDataRecord) i.next();
 			if (cachingEnabled) {
-				DcsDataRecord rec = (DcsDataRecord) cache.get(key);
 				try {
 					rec.flushToDisk();
 				} catch (OutOfMemoryError me) {
@@ -349,6 +671,16 @@ public class DcsDataManager {
 		prtln("destroy()");
 		boolean flushOnDestroy = false;
 
+		// records scheduled for writing have not necessarily been written yet
+		int failed = flushPendingWrites();
+		if (failed > 0)
+			prtlnErr("destroy(): " + failed + " records could not be written to disk: " + getCacheStats());
+		synchronized (pendingWrites) {
+			if (writeBehindThread != null)
+				writeBehindThread.interrupt();
+			writeBehindThread = null;
+		}
+
 		if (flushOnDestroy)
 			flushCache();
 		else
@@ -356,6 +688,88 @@ public class DcsDataManager {
 	}
 
 
+	/**
+	 *  A record waiting to be written and the xml captured for it, with a version
+	 *  that is incremented each time it is scheduled again. If the last write
+	 *  failed, the error and the time after which it is tried again.
+	 */
+	private static class PendingWrite {
+		DcsDataRecord record;
+		String xml;
+		long version = 0;
+		String lastError = null;
+		long retryAt = 0;
+
+
+		PendingWrite(DcsDataRecord record, String xml) {
+			this.record = record;
+			this.xml = xml;
+		}
+	}
+
+
+	/**
+	 *  Writes pending records to disk, oldest first, skipping records whose last
+	 *  write failed until they are due to be tried again.
+	 */
+	private class WriteBehindThread extends Thread {
+		WriteBehindThread() {
+			super("DcsDataManager write-behind");
+			setDaemon(true);
+		}
+
+
+		public void run() {
+			while (true) {
+				Map.Entry next;
+				synchronized (pendingWrites) {
+					while ((next = nextDue()) == null) {
+						if (writeBehindThread != this)
+							return;
+						try {
+							pendingWrites.wait(retryWait());
+						} catch (InterruptedException e) {
+							if (writeBehindThread != this)
+								return;
+						}
+					}
+				}
+				write((String) next.getKey(), (PendingWrite) next.getValue());
+			}
+		}
+
+
+		/**
+		 *  Gets the oldest pending write that is not waiting to be retried, or null
+		 *  if none. Must be called while synchronized on pendingWrites.
+		 */
+		private Map.Entry nextDue() {
+			long now = System.currentTimeMillis();
+			for (Iterator i = pendingWrites.entrySet().iterator(); i.hasNext(); ) {
+				Map.Entry entry = (Map.Entry) i.next();
+				if (((PendingWrite) entry.getValue()).retryAt <= now)
+					return entry;
+			}
+			return null;
+		}
+
+
+		/**
+		 *  Gets the number of milliseconds until the next failed write is due to be
+		 *  retried, or 0 to wait until a write is scheduled. Must be called while
+		 *  synchronized on pendingWrites.
+		 */
+		private long retryWait() {
+			long next = Long.MAX_VALUE;
+			for (Iterator i = pendingWrites.values().iterator(); i.hasNext(); )
+				next = Math.min(next, ((PendingWrite) i.next()).retryAt);
+			if (next == Long.MAX_VALUE)
+				return 0;
+			return Math.max(1, next - System.currentTimeMillis());
+		}
+	}
+
+
 	/**
 	 *  Print a line to standard out.
 	 *
@@ -368,6 +782,11 @@ public class DcsDataManager {
 	}
 
 
+	static void prtlnErr(String s) {
+		System.err.println("DcsDataManager: " + s);
+	}
+
+
 	/**
 	 *  Description of the Method
 	 *
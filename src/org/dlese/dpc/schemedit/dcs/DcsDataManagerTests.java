@@ -0,0 +1,337 @@
+/*
+	Copyright 2017 Digital Learning Sciences (DLS) at the
+	University Corporation for Atmospheric Research (UCAR),
+	P.O. Box 3000, Boulder, CO 80307
+
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+
+	http://www.apache.org/licenses/LICENSE-2.0
+
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+package org.dlese.dpc.schemedit.dcs;
+
+import org.dlese.dpc.repository.RepositoryManager;
+import org.dlese.dpc.util.Files;
+
+import junit.framework.*;
+import java.io.*;
+import java.util.*;
+import org.dom4j.*;
+
+/**
+ *  Checks the bounded, striped {@link DcsDataRecordCache} and write-behind of the {@link DcsDataManager}:
+ *  that the cache stays within its bound, that a record waiting to be written is not lost when it is evicted,
+ *  that repeated changes to a record waiting to be written are written together, that a write that fails is
+ *  retried, and that records validated by several threads at once are all written. The threads stand in for
+ *  the validating service: each looks up a record, sets its validation report and schedules its write. The
+ *  throughput of lookups and of validating threads is measured by the DcsDataManagerBenchmark in the
+ *  benchmarks module. <p>
+ *
+ *  The following System properties may be used to configure the run: 'dcsdata.num.records' (default 2000) and
+ *  'dcsdata.threads' (default 4).
+ *
+ * @author    ostwald
+ */
+public class DcsDataManagerTests extends TestCase {
+	File tempDir = null;
+	DcsDataManager dcsDataManager = null;
+
+	int numRecords;
+	int numThreads;
+
+
+	/**
+	 *  A unit test suite for JUnit
+	 *
+	 * @return    The test suite
+	 */
+	public static Test suite() {
+		// Use java reflection to run all test methods in this class:
+		prtln("");
+		return new TestSuite(DcsDataManagerTests.class);
+	}
+
+
+	/**
+	 *  The JUnit setup method. Gets called prior to running EACH test method call.
+	 *
+	 * @exception  Exception  If error
+	 */
+	protected void setUp()
+			 throws Exception {
+		prtln(".");
+		DcsDataRecord.setDebug(false);
+		numRecords = Integer.getInteger("dcsdata.num.records", 2000).intValue();
+		numThreads = Integer.getInteger("dcsdata.threads", 4).intValue();
+
+		tempDir = File.createTempFile("DcsDataManagerTests", "");
+		tempDir.delete();
+		tempDir.mkdirs();
+		final String recordsLocation = tempDir.getAbsolutePath();
+		RepositoryManager rm =
+			new RepositoryManager(tempDir, recordsLocation, 0, 0, false) {
+				public String getMetadataRecordsLocation() {
+					return recordsLocation;
+				}
+			};
+		dcsDataManager = new DcsDataManager(rm, null, null);
+	}
+
+
+	/**
+	 *  The JUnit tearDown method
+	 *
+	 * @exception  Exception  If error
+	 */
+	protected void tearDown()
+			 throws Exception {
+		dcsDataManager.destroy();
+		Files.deleteDirectory(tempDir);
+	}
+
+
+	/**
+	 *  Checks that the cache evicts the least recently used records to stay within its bound and counts hits,
+	 *  misses and evictions.
+	 *
+	 * @exception  Exception  If error
+	 */
+	public void test_cache_bounded()
+			 throws Exception {
+		dcsDataManager.setMaxCachedRecords(160);
+		TestRecord first = newRecord(0);
+		dcsDataManager.cacheRecord(first);
+		for (int i = 1; i < 1000; i++) {
+			dcsDataManager.cacheRecord(newRecord(i));
+			// keep the first record in use
+			Assert.assertSame(first, dcsDataManager.cache.get(first.getId()));
+		}
+		Assert.assertTrue("Cached " + dcsDataManager.getNumCachedRecords(), dcsDataManager.getNumCachedRecords() <= 160);
+		Assert.assertEquals(1000 - dcsDataManager.getNumCachedRecords(), dcsDataManager.getCacheEvictions());
+		Assert.assertSame(first, dcsDataManager.getDcsDataRecord(null, null, null, first.getId()));
+		Assert.assertNull(dcsDataManager.cache.get("id-1"));
+		Assert.assertEquals(1000, dcsDataManager.getCacheHits());
+		Assert.assertEquals(1, dcsDataManager.getCacheMisses());
+	}
+
+
+	/**
+	 *  Checks that a record waiting to be written is returned after it has been evicted, that changes made
+	 *  while it waits are written together, that removing a record from the cache writes it first, and that
+	 *  changes made after the write was scheduled are not written.
+	 *
+	 * @exception  Exception  If error
+	 */
+	public void test_write_behind()
+			 throws Exception {
+		dcsDataManager.setMaxCachedRecords(16);
+		TestRecord slow = newRecord(0);
+		slow.setBlocked(true);
+		dcsDataManager.cacheRecord(slow);
+		TestRecord rec = newRecord(1);
+		dcsDataManager.cacheRecord(rec);
+
+		// the writer is busy with the slow record while the other record is changed
+		dcsDataManager.scheduleWrite(slow);
+		Thread.sleep(20);
+		for (int i = 0; i < 50; i++) {
+			rec.setValidationReport("report " + i);
+			dcsDataManager.scheduleWrite(rec);
+		}
+		Assert.assertEquals(0, rec.numWrites);
+		for (int i = 2; i < 200; i++)
+			dcsDataManager.cacheRecord(newRecord(i));
+		Assert.assertSame(rec, dcsDataManager.getDcsDataRecord(null, null, null, rec.getId()));
+
+		slow.setBlocked(false);
+		dcsDataManager.flushPendingWrites();
+		Assert.assertEquals(0, dcsDataManager.getNumPendingWrites());
+		// the 50 changes are written together, though the writer thread and flushPendingWrites may both write it
+		Assert.assertTrue("Writes " + rec.numWrites, rec.numWrites >= 1 && rec.numWrites <= 2);
+		Assert.assertEquals("report 49", rec.lastWrittenReport);
+
+		rec.setValidationReport("final");
+		dcsDataManager.scheduleWrite(rec);
+		Assert.assertTrue(dcsDataManager.removeFromCache(rec.getId()));
+		Assert.assertEquals("final", rec.lastWrittenReport);
+
+		// a change that is reverted is not written, though the record was waiting to be written
+		dcsDataManager.cacheRecord(slow);
+		slow.setValidationReport("saved");
+		dcsDataManager.scheduleWrite(slow);
+		slow.setValidationReport("reverted");
+		Assert.assertTrue(dcsDataManager.revertToSaved(slow.getId()));
+		dcsDataManager.flushPendingWrites();
+		Assert.assertEquals("saved", slow.lastWrittenReport);
+	}
+
+
+	/**
+	 *  Checks that a record that can not be written stays pending and is reported, and is written once writing
+	 *  succeeds again.
+	 *
+	 * @exception  Exception  If error
+	 */
+	public void test_failed_write_retried()
+			 throws Exception {
+		TestRecord rec = newRecord(0);
+		rec.setFailing(true);
+		dcsDataManager.cacheRecord(rec);
+		rec.setValidationReport("unwritten");
+		dcsDataManager.scheduleWrite(rec);
+
+		Assert.assertEquals(1, dcsDataManager.flushPendingWrites());
+		Assert.assertEquals(1, dcsDataManager.getNumPendingWrites());
+		Assert.assertEquals(1, dcsDataManager.getNumFailedWrites());
+		String stats = dcsDataManager.getCacheStats();
+		Assert.assertTrue(stats, stats.indexOf("records not written: 1") != -1 && stats.indexOf("disk full") != -1);
+		Assert.assertNull(rec.lastWrittenReport);
+
+		rec.setFailing(false);
+		Assert.assertEquals(0, dcsDataManager.flushPendingWrites());
+		Assert.assertEquals(0, dcsDataManager.getNumPendingWrites());
+		Assert.assertEquals("unwritten", rec.lastWrittenReport);
+		Assert.assertTrue(dcsDataManager.getCacheStats(), dcsDataManager.getCacheStats().indexOf("records not written") == -1);
+	}
+
+
+	/**
+	 *  Checks that records validated by several threads at once, each of which schedules the write of the
+	 *  record it validated, are all written with their validation report, and that the writes of a record are
+	 *  not repeated.
+	 *
+	 * @exception  Exception  If error
+	 */
+	public void test_parallel_validation_written()
+			 throws Exception {
+		final TestRecord[] records = new TestRecord[numRecords];
+		for (int i = 0; i < numRecords; i++) {
+			records[i] = newRecord(i);
+			dcsDataManager.cacheRecord(records[i]);
+		}
+		final int[] next = {0};
+		final Exception[] error = {null};
+		Thread[] threads = new Thread[numThreads];
+		for (int t = 0; t < threads.length; t++) {
+			threads[t] =
+				new Thread() {
+					public void run() {
+						try {
+							while (true) {
+								int i;
+								synchronized (next) {
+									if (next[0] >= records.length)
+										return;
+									i = next[0]++;
+								}
+								DcsDataRecord rec = dcsDataManager.getDcsDataRecord(null, null, null, records[i].getId());
+								rec.setValidationReport("report " + i);
+								dcsDataManager.scheduleWrite(rec);
+							}
+						} catch (Exception e) {
+							error[0] = e;
+						}
+					}
+				};
+			threads[t].start();
+		}
+		for (int t = 0; t < threads.length; t++)
+			threads[t].join();
+		Assert.assertNull("Validating thread failed: " + error[0], error[0]);
+
+		Assert.assertEquals(0, dcsDataManager.flushPendingWrites());
+		Assert.assertEquals(0, dcsDataManager.getNumPendingWrites());
+		for (int i = 0; i < numRecords; i++) {
+			Assert.assertEquals("Record " + i + " written", "report " + i, records[i].lastWrittenReport);
+			Assert.assertEquals("Record " + i + " writes", 1, records[i].numWrites);
+		}
+	}
+
+
+	private TestRecord newRecord(int i) {
+		TestRecord rec = new TestRecord(new File(tempDir, "id-" + i + ".xml"), dcsDataManager);
+		rec.setId("id-" + i);
+		return rec;
+	}
+
+
+	/**
+	 *  A DcsDataRecord that is not read from a framework, and that counts its writes and keeps the validation
+	 *  report it was given to write instead of writing.
+	 */
+	private static class TestRecord extends DcsDataRecord {
+		int numWrites = 0;
+		String lastWrittenReport = null;
+		private boolean blocked = false;
+		private boolean failing = false;
+
+
+		TestRecord(File file, DcsDataManager dcsDataManager) {
+			super(file, null, null, dcsDataManager);
+		}
+
+
+		public Document getDocument() throws Exception {
+			// only called while constructing, before the document is held by the record
+			return DocumentHelper.parseText(
+				"<dcsDataRecord><recordID/><lastTouchDate/><validationReport/><statusEntries/></dcsDataRecord>");
+		}
+
+
+		public String getWritableXml() throws Exception {
+			return getValidationReport();
+		}
+
+
+		synchronized void setBlocked(boolean blocked) {
+			this.blocked = blocked;
+			notifyAll();
+		}
+
+
+		synchronized void setFailing(boolean failing) {
+			this.failing = failing;
+		}
+
+
+		public void writeToDisk(String xml) throws Exception {
+			synchronized (this) {
+				while (blocked)
+					wait();
+				if (failing)
+					throw new IOException("disk full");
+			}
+			synchronized (this) {
+				numWrites++;
+				lastWrittenReport = xml;
+			}
+		}
+
+
+		public void flushToDisk() throws Exception {
+			writeToDisk(getWritableXml());
+		}
+	}
+
+
+	private static void prtln(String s) {
+		System.out.println(s);
+	}
+
+
+	/**
+	 *  Main method for running this single suite from the command line
+	 *
+	 * @param  args  The command line arguments
+	 */
+	public static void main(String[] args) {
+		junit.textui.TestRunner.run(suite());
+	}
+}
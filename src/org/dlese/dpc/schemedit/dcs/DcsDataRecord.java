@@ -1007,6 +1007,34 @@ public class DcsDataRecord implements Serializable {
 	}
 
 
+	/**
+	 *  Gets the xml that {@link #flushToDisk()} would write for the record as it
+	 *  is now, so it can be written later by {@link #writeToDisk(String)} without
+	 *  picking up changes made in the meantime.
+	 *
+	 * @return                The writable xml
+	 * @exception  Exception  If the record cannot be serialized
+	 */
+	public String getWritableXml()
+		 throws Exception {
+
+		return framework.getWritableRecordXml(getDocument());
+	}
+
+
+	/**
+	 *  Write xml obtained from {@link #getWritableXml()} to the record's file.
+	 *
+	 * @param  xml            the writable xml
+	 * @exception  Exception  If the xml cannot be written to disk.
+	 */
+	public void writeToDisk(String xml)
+		 throws Exception {
+
+		Files.writeFile(xml, source);
+	}
+
+
 	/**
 	 *  Delete this record by removing it from the cache, destroying the contents,
 	 *  and deleting the source file from disk.
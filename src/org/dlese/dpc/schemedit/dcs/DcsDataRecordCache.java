@@ -0,0 +1,254 @@
+/*
+	Copyright 2017 Digital Learning Sciences (DLS) at the
+	University Corporation for Atmospheric Research (UCAR),
+	P.O. Box 3000, Boulder, CO 80307
+
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+
+	http://www.apache.org/licenses/LICENSE-2.0
+
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+package org.dlese.dpc.schemedit.dcs;
+
+import java.util.*;
+
+/**
+ *  A bounded, least-recently-used cache of {@link DcsDataRecord}s keyed by record id, used by the {@link
+ *  DcsDataManager}. The cache is split into stripes by the hash of the id, each with its own lock and its
+ *  share of the capacity, so threads working on different records seldom wait on each other. When a stripe
+ *  is full, the record in it that was used least recently is evicted.
+ *
+ * @author    ostwald
+ */
+final class DcsDataRecordCache {
+	private final static int NUM_STRIPES = 16;
+
+	private final Stripe[] stripes;
+	private volatile int stripeCapacity;
+
+
+	/**
+	 *  Constructor for the DcsDataRecordCache
+	 *
+	 * @param  maxRecords  The maximum number of records held
+	 */
+	DcsDataRecordCache(int maxRecords) {
+		stripes = new Stripe[NUM_STRIPES];
+		for (int i = 0; i < stripes.length; i++)
+			stripes[i] = new Stripe();
+		setMaxRecords(maxRecords);
+	}
+
+
+	/**
+	 *  Sets the maximum number of records held. A smaller maximum takes effect as records are added.
+	 *
+	 * @param  maxRecords  The maximum number of records, at least one per stripe
+	 */
+	void setMaxRecords(int maxRecords) {
+		stripeCapacity = Math.max(1, (maxRecords + NUM_STRIPES - 1) / NUM_STRIPES);
+	}
+
+
+	/**
+	 *  Gets the maximum number of records held.
+	 *
+	 * @return    The maximum number of records
+	 */
+	int getMaxRecords() {
+		return stripeCapacity * NUM_STRIPES;
+	}
+
+
+	/**
+	 *  Gets the cached record for the given id, and counts a hit or a miss.
+	 *
+	 * @param  id  The record id
+	 * @return     The record, or null if not cached
+	 */
+	DcsDataRecord get(String id) {
+		Stripe stripe = stripeFor(id);
+		synchronized (stripe) {
+			DcsDataRecord rec = (DcsDataRecord) stripe.get(id);
+			if (rec == null)
+				stripe.misses++;
+			else
+				stripe.hits++;
+			return rec;
+		}
+	}
+
+
+	/**
+	 *  Caches the given record, replacing any record cached with the same id.
+	 *
+	 * @param  id   The record id
+	 * @param  rec  The record
+	 */
+	void put(String id, DcsDataRecord rec) {
+		Stripe stripe = stripeFor(id);
+		synchronized (stripe) {
+			stripe.put(id, rec);
+		}
+	}
+
+
+	/**
+	 *  Caches the given record unless a record with the same id is already cached, as when another thread
+	 *  read the same record from disk at the same time.
+	 *
+	 * @param  id   The record id
+	 * @param  rec  The record
+	 * @return      The record that is cached for the id
+	 */
+	DcsDataRecord putIfAbsent(String id, DcsDataRecord rec) {
+		Stripe stripe = stripeFor(id);
+		synchronized (stripe) {
+			DcsDataRecord existing = (DcsDataRecord) stripe.get(id);
+			if (existing != null)
+				return existing;
+			stripe.put(id, rec);
+			return rec;
+		}
+	}
+
+
+	/**
+	 *  Removes the record with the given id.
+	 *
+	 * @param  id  The record id
+	 * @return     The removed record, or null if none was cached
+	 */
+	DcsDataRecord remove(String id) {
+		Stripe stripe = stripeFor(id);
+		synchronized (stripe) {
+			return (DcsDataRecord) stripe.remove(id);
+		}
+	}
+
+
+	/**
+	 *  Gets a snapshot of the cached records.
+	 *
+	 * @return    A List of DcsDataRecords
+	 */
+	List values() {
+		List values = new ArrayList();
+		for (int i = 0; i < stripes.length; i++) {
+			synchronized (stripes[i]) {
+				values.addAll(stripes[i].values());
+			}
+		}
+		return values;
+	}
+
+
+	/**  Removes all records. */
+	void clear() {
+		for (int i = 0; i < stripes.length; i++) {
+			synchronized (stripes[i]) {
+				stripes[i].clear();
+			}
+		}
+	}
+
+
+	/**
+	 *  Gets the number of records cached.
+	 *
+	 * @return    The number of records
+	 */
+	int size() {
+		int size = 0;
+		for (int i = 0; i < stripes.length; i++) {
+			synchronized (stripes[i]) {
+				size += stripes[i].size();
+			}
+		}
+		return size;
+	}
+
+
+	/**
+	 *  Gets the number of lookups that found a cached record.
+	 *
+	 * @return    The number of hits
+	 */
+	long getHits() {
+		long n = 0;
+		for (int i = 0; i < stripes.length; i++) {
+			synchronized (stripes[i]) {
+				n += stripes[i].hits;
+			}
+		}
+		return n;
+	}
+
+
+	/**
+	 *  Gets the number of lookups that did not find a cached record.
+	 *
+	 * @return    The number of misses
+	 */
+	long getMisses() {
+		long n = 0;
+		for (int i = 0; i < stripes.length; i++) {
+			synchronized (stripes[i]) {
+				n += stripes[i].misses;
+			}
+		}
+		return n;
+	}
+
+
+	/**
+	 *  Gets the number of records evicted to make room for others.
+	 *
+	 * @return    The number of evictions
+	 */
+	long getEvictions() {
+		long n = 0;
+		for (int i = 0; i < stripes.length; i++) {
+			synchronized (stripes[i]) {
+				n += stripes[i].evictions;
+			}
+		}
+		return n;
+	}
+
+
+	private Stripe stripeFor(String id) {
+		int h = id.hashCode();
+		h ^= (h >>> 16);
+		return stripes[(h & 0x7fffffff) % stripes.length];
+	}
+
+
+	/**  One stripe of the cache: a LinkedHashMap in access order that evicts its eldest entry when full. */
+	private class Stripe extends LinkedHashMap {
+		long hits = 0;
+		long misses = 0;
+		long evictions = 0;
+
+
+		Stripe() {
+			super(64, 0.75f, true);
+		}
+
+
+		protected boolean removeEldestEntry(Map.Entry eldest) {
+			if (size() > stripeCapacity) {
+				evictions++;
+				return true;
+			}
+			return false;
+		}
+	}
+}
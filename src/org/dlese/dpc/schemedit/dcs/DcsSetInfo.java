@@ -154,14 +154,21 @@ public class DcsSetInfo extends SetInfo {
 	 */
 	public void setSetInfoData(RepositoryManager rm) {
 		super.setSetInfoData(rm);
-		numDone = rm.getIndex().getNumDocs("collection:0" + getSetSpec() + " AND " + FIELD_NS + "status:Accessioned");
-		String q = "collection:0" + getSetSpec() + " NOT " + FIELD_NS + "status:Accessioned";
-		numWorking = rm.getIndex().getNumDocs(q);
-		numValid = rm.getIndex().getNumDocs("collection:0" + getSetSpec() + " AND " + FIELD_NS + "isValid:true");
-		numNotValid = rm.getIndex().getNumDocs("collection:0" + getSetSpec() + " NOT " + FIELD_NS + "isValid:true");
-		numFinalAndNotValid = rm.getIndex().getNumDocs("collection:0" + getSetSpec() + 
-			" NOT " + FIELD_NS + "isValid:true" + " AND " + FIELD_NS + "isFinalStatus:true");
-		this.numSyncErrors = rm.getIndex().getNumDocs("collection:0" + getSetSpec() + " AND " + FIELD_NS + "hasSyncError:true");
+		// All counts for this collection in one pass, the NOT counts taken as differences:
+		int[] counts = rm.getIndex().getNumDocs(new String[]{
+			null,
+			FIELD_NS + "status:Accessioned",
+			FIELD_NS + "isValid:true",
+			FIELD_NS + "isFinalStatus:true",
+			FIELD_NS + "isValid:true AND " + FIELD_NS + "isFinalStatus:true",
+			FIELD_NS + "hasSyncError:true"},
+			"collection:0" + getSetSpec());
+		numDone = counts[1];
+		numWorking = counts[0] - counts[1];
+		numValid = counts[2];
+		numNotValid = counts[0] - counts[2];
+		numFinalAndNotValid = counts[3] - counts[4];
+		this.numSyncErrors = counts[5];
 	}
 
 
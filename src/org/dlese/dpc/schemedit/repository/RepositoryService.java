@@ -636,14 +636,27 @@ public class RepositoryService {
 			return;
 		}
 
+		dcsData.setValidationReport(getValidationReport(record, xmlFormat));
+	}
+
+
+	/**
+	 *  Validate the record against the schema of its framework without updating
+	 *  a DcsDataRecord. May be called by several threads at once.
+	 *
+	 * @param  record     An xml record, represented either as String or File
+	 * @param  xmlFormat  the format of the record
+	 * @return            null if the record is valid, otherwise the validation
+	 *      messages, or Constants.UNKNOWN_VALIDITY if there is no framework for
+	 *      the format
+	 */
+	public String getValidationReport(Object record, String xmlFormat) {
 		MetaDataFramework framework = this.getMetaDataFramework(xmlFormat);
 		if (framework == null) {
 			prtlnErr("validateRecord ERROR: framework not found for " + xmlFormat);
 			// throw new Exception ("validateRecord ERROR: framework not found for " + xmlFormat);
 		}
-		String validationReport =
-			(framework != null ? framework.validateRecord(record) : Constants.UNKNOWN_VALIDITY);
-		dcsData.setValidationReport(validationReport);
+		return (framework != null ? framework.validateRecord(record) : Constants.UNKNOWN_VALIDITY);
 	}
 
 
@@ -57,6 +57,7 @@ public class StandardsRegistry {
 	private Map docMap = null;
 
 	private TreeCache treeCache = null;
+	private StandardsSnapshotStore snapshotStore = null;
 
 	// docId --> key
 	private Map docIdMap = null;
@@ -97,6 +98,56 @@ public class StandardsRegistry {
 	}
 
 
+	/**
+	 *  Sets the directory in which snapshots of parsed standards documents are
+	 *  kept, so that documents are read from their snapshots rather than parsed
+	 *  from XML when they are registered or reloaded into the tree cache. Null
+	 *  (the default) disables snapshots.
+	 *
+	 *@param  snapshotDir  the snapshot directory, or null
+	 */
+	public void setSnapshotDir(File snapshotDir) {
+		this.snapshotStore = (snapshotDir == null ? null : new StandardsSnapshotStore(snapshotDir));
+	}
+
+
+	/**
+	 *  Gets the snapshotStore attribute of the StandardsRegistry object
+	 *
+	 *@return    The snapshotStore value, or null if snapshots are disabled
+	 */
+	public StandardsSnapshotStore getSnapshotStore() {
+		return this.snapshotStore;
+	}
+
+
+	/**
+	 *  Gets the TreeCache holding the standards documents (trees) of the registry
+	 *
+	 *@return    The treeCache value
+	 */
+	public TreeCache getTreeCache() {
+		return this.treeCache;
+	}
+
+
+	/**
+	 *  Reads the AsnDocument at the provided path, from its snapshot if snapshots
+	 *  are enabled.
+	 *
+	 *@param  path           path to ASN XML file
+	 *@return                the AsnDocument
+	 *@exception  Exception  if the document can not be read
+	 */
+	private AsnDocument readAsnDocument(String path) throws Exception {
+		StandardsSnapshotStore store = this.snapshotStore;
+		if (store != null) {
+			return store.getAsnDocument(new File(path));
+		}
+		return new AsnDocument(new File(path));
+	}
+
+
 	/**
 	 *  Load all xml documents found by traversing the specified standardsDirectory
 	 *  recursively
@@ -179,7 +230,7 @@ public class StandardsRegistry {
 		}
 
 		try {
-			AsnDocument asnDoc = new AsnDocument(new File (path));
+			AsnDocument asnDoc = this.readAsnDocument(path);
 			if (asnDoc == null) {
 				throw new Exception("AsnDocument could not be created for " + path);
 			}
@@ -263,7 +314,7 @@ public class StandardsRegistry {
 		if (docInfo == null) {
 			throw new Exception("could not find docInfo for " + key);
 		}
-		AsnDocument asnDoc = new AsnDocument(new File (docInfo.path));
+		AsnDocument asnDoc = this.readAsnDocument(docInfo.path);
 		return new AsnStandardsDocument(asnDoc);
 	}
 
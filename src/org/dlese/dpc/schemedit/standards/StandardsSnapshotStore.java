@@ -0,0 +1,279 @@
+/*
+	Copyright 2017 Digital Learning Sciences (DLS) at the
+	University Corporation for Atmospheric Research (UCAR),
+	P.O. Box 3000, Boulder, CO 80307
+
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+
+	http://www.apache.org/licenses/LICENSE-2.0
+
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+package org.dlese.dpc.schemedit.standards;
+
+import org.dlese.dpc.schemedit.SchemEditUtils;
+import org.dlese.dpc.standards.asn.AsnDocument;
+
+import java.io.*;
+import java.security.MessageDigest;
+
+/**
+ *  Stores compact binary snapshots of parsed {@link AsnDocument}s, so that a
+ *  standards document can be read back without parsing its ASN XML file. Each
+ *  snapshot records the MD5 hash of the XML file it was made from, and is
+ *  ignored (and replaced) when the file no longer has that hash. Snapshots are
+ *  named by the hash of the XML file's path, so one directory can hold the
+ *  snapshots for any number of standards directories.
+ *
+ * @author    Jonathan Ostwald
+ */
+public class StandardsSnapshotStore {
+	private static boolean debug = false;
+
+	private final static int MAGIC = 0x41534e53; // "ASNS"
+	private final static int VERSION = 1;
+
+	private File snapshotDir = null;
+	private long numRead = 0;
+	private long numWritten = 0;
+	private long numStale = 0;
+
+
+	/**
+	 *  Constructor for the StandardsSnapshotStore object
+	 *
+	 * @param  snapshotDir  directory in which to keep snapshots, created if necessary
+	 */
+	public StandardsSnapshotStore(File snapshotDir) {
+		this.snapshotDir = snapshotDir;
+	}
+
+
+	/**
+	 *  Gets the directory holding the snapshots
+	 *
+	 * @return    The snapshotDir value
+	 */
+	public File getSnapshotDir() {
+		return this.snapshotDir;
+	}
+
+
+	/**
+	 *  Gets the AsnDocument for the provided ASN XML file, from its snapshot if
+	 *  the snapshot is current, otherwise by parsing the file and writing a new
+	 *  snapshot.
+	 *
+	 * @param  source         an ASN XML file
+	 * @return                the AsnDocument
+	 * @exception  Exception  if the file can not be read
+	 */
+	public AsnDocument getAsnDocument(File source) throws Exception {
+		String sourceHash = hash(source);
+		AsnDocument asnDoc = read(source, sourceHash);
+		if (asnDoc == null) {
+			asnDoc = new AsnDocument(source);
+			write(source, sourceHash, asnDoc);
+		}
+		return asnDoc;
+	}
+
+
+	/**
+	 *  Reads the snapshot of the provided source, returning null if there is no
+	 *  snapshot or it was made from a different version of the file.
+	 *
+	 * @param  source      the ASN XML file
+	 * @param  sourceHash  the MD5 hash of the file's contents
+	 * @return             the AsnDocument, or null
+	 */
+	private AsnDocument read(File source, String sourceHash) {
+		File snapshot = getSnapshotFile(source);
+		if (!snapshot.exists())
+			return null;
+		DataInputStream in = null;
+		try {
+			in = new DataInputStream(new BufferedInputStream(new FileInputStream(snapshot), 65536));
+			if (in.readInt() != MAGIC || in.readInt() != VERSION || !sourceHash.equals(in.readUTF())) {
+				prtln("stale snapshot for " + source);
+				synchronized (this) {
+					numStale++;
+				}
+				return null;
+			}
+			AsnDocument asnDoc = new AsnDocument(source, in);
+			synchronized (this) {
+				numRead++;
+			}
+			return asnDoc;
+		} catch (Throwable t) {
+			prtlnErr("could not read snapshot for " + source + ": " + t);
+			return null;
+		} finally {
+			close(in);
+		}
+	}
+
+
+	/**
+	 *  Writes a snapshot of the provided AsnDocument, replacing any snapshot of
+	 *  the same file. A snapshot that can not be written is not an error, since
+	 *  the document can always be read from its XML file.
+	 *
+	 * @param  source      the ASN XML file
+	 * @param  sourceHash  the MD5 hash of the file's contents
+	 * @param  asnDoc      the AsnDocument read from the file
+	 */
+	private void write(File source, String sourceHash, AsnDocument asnDoc) {
+		File snapshot = getSnapshotFile(source);
+		File temp = new File(snapshot.getPath() + ".tmp");
+		DataOutputStream out = null;
+		try {
+			if (!snapshotDir.exists())
+				snapshotDir.mkdirs();
+			out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp), 65536));
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeUTF(sourceHash);
+			asnDoc.writeSnapshot(out);
+			out.close();
+			out = null;
+			if (snapshot.exists())
+				snapshot.delete();
+			if (!temp.renameTo(snapshot))
+				throw new IOException("could not rename " + temp);
+			synchronized (this) {
+				numWritten++;
+			}
+		} catch (Throwable t) {
+			prtlnErr("could not write snapshot for " + source + ": " + t);
+			temp.delete();
+		} finally {
+			close(out);
+		}
+	}
+
+
+	/**
+	 *  Gets the file holding the snapshot for the provided source.
+	 *
+	 * @param  source  the ASN XML file
+	 * @return         The snapshotFile value
+	 */
+	File getSnapshotFile(File source) {
+		String path;
+		try {
+			path = source.getCanonicalPath();
+		} catch (IOException e) {
+			path = source.getAbsolutePath();
+		}
+		try {
+			return new File(snapshotDir, md5(path.getBytes("UTF-8")) + ".snapshot");
+		} catch (UnsupportedEncodingException e) {
+			throw new RuntimeException(e.toString());
+		}
+	}
+
+
+	/**
+	 *  Gets the number of documents read from snapshots
+	 *
+	 * @return    The numRead value
+	 */
+	public synchronized long getNumRead() {
+		return numRead;
+	}
+
+
+	/**
+	 *  Gets the number of snapshots written
+	 *
+	 * @return    The numWritten value
+	 */
+	public synchronized long getNumWritten() {
+		return numWritten;
+	}
+
+
+	/**
+	 *  Gets the number of snapshots found to be out of date with their XML file
+	 *
+	 * @return    The numStale value
+	 */
+	public synchronized long getNumStale() {
+		return numStale;
+	}
+
+
+	private static String hash(File source) throws IOException {
+		byte[] content = new byte[(int) source.length()];
+		DataInputStream in = new DataInputStream(new FileInputStream(source));
+		try {
+			in.readFully(content);
+		} finally {
+			in.close();
+		}
+		return md5(content);
+	}
+
+
+	private static String md5(byte[] content) {
+		try {
+			byte[] digest = MessageDigest.getInstance("MD5").digest(content);
+			StringBuffer hex = new StringBuffer();
+			for (int i = 0; i < digest.length; i++) {
+				hex.append(Character.forDigit((digest[i] >> 4) & 0xf, 16));
+				hex.append(Character.forDigit(digest[i] & 0xf, 16));
+			}
+			return hex.toString();
+		} catch (java.security.NoSuchAlgorithmException e) {
+			throw new RuntimeException(e.toString());
+		}
+	}
+
+
+	private static void close(InputStream in) {
+		if (in != null) {
+			try {
+				in.close();
+			} catch (IOException e) {}
+		}
+	}
+
+
+	private static void close(OutputStream out) {
+		if (out != null) {
+			try {
+				out.close();
+			} catch (IOException e) {}
+		}
+	}
+
+
+	/**
+	 *  Sets the debug attribute of the StandardsSnapshotStore class
+	 *
+	 * @param  bool  The new debug value
+	 */
+	public static void setDebug(boolean bool) {
+		debug = bool;
+	}
+
+
+	private static void prtln(String s) {
+		if (debug) {
+			SchemEditUtils.prtln(s, "StandardsSnapshotStore");
+		}
+	}
+
+
+	private static void prtlnErr(String s) {
+		System.err.println("StandardsSnapshotStore: " + s);
+	}
+}
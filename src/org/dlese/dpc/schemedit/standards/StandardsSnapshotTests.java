@@ -0,0 +1,258 @@
+/*
+	Copyright 2017 Digital Learning Sciences (DLS) at the
+	University Corporation for Atmospheric Research (UCAR),
+	P.O. Box 3000, Boulder, CO 80307
+
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+
+	http://www.apache.org/licenses/LICENSE-2.0
+
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+package org.dlese.dpc.schemedit.standards;
+
+import org.dlese.dpc.schemedit.standards.asn.AsnStandardsDocument;
+import org.dlese.dpc.schemedit.standards.asn.AsnStandardsNode;
+import org.dlese.dpc.standards.asn.AsnDocument;
+import org.dlese.dpc.standards.asn.AsnStandard;
+import org.dlese.dpc.util.Files;
+
+import junit.framework.*;
+import java.io.*;
+import java.util.*;
+
+/**
+ *  Checks the {@link StandardsSnapshotStore} and the {@link TreeCache}, using
+ *  generated ASN documents: that a document read from its snapshot has the
+ *  same standards as one parsed from XML, that a snapshot is replaced when its
+ *  XML file changes, and that the TreeCache evicts by estimated size rather
+ *  than by number of trees. The time to read a document from its snapshot and
+ *  from XML is measured by the StandardsSnapshotBenchmark in the benchmarks
+ *  module.
+ *
+ * @author    Jonathan Ostwald
+ */
+public class StandardsSnapshotTests extends TestCase {
+	File tempDir = null;
+
+
+	/**
+	 *  A unit test suite for JUnit
+	 *
+	 * @return    The test suite
+	 */
+	public static Test suite() {
+		// Use java reflection to run all test methods in this class:
+		prtln("");
+		return new TestSuite(StandardsSnapshotTests.class);
+	}
+
+
+	/**
+	 *  The JUnit setup method. Gets called prior to running EACH test method call.
+	 *
+	 * @exception  Exception  If error
+	 */
+	protected void setUp()
+			 throws Exception {
+		prtln(".");
+		tempDir = File.createTempFile("StandardsSnapshotTests", "");
+		tempDir.delete();
+		tempDir.mkdirs();
+	}
+
+
+	/**
+	 *  The JUnit tearDown method
+	 *
+	 * @exception  Exception  If error
+	 */
+	protected void tearDown()
+			 throws Exception {
+		Files.deleteDirectory(tempDir);
+	}
+
+
+	/**
+	 *  Checks that a document read from its snapshot matches the document parsed
+	 *  from XML, and that a changed XML file is parsed again.
+	 *
+	 * @exception  Exception  If error
+	 */
+	public void test_snapshot_round_trip()
+			 throws Exception {
+		File source = writeAsnDocument("D1000001", 300, "");
+		StandardsSnapshotStore store = new StandardsSnapshotStore(new File(tempDir, "snapshots"));
+
+		AsnDocument parsed = store.getAsnDocument(source);
+		Assert.assertEquals(0, store.getNumRead());
+		Assert.assertEquals(1, store.getNumWritten());
+		AsnDocument read = store.getAsnDocument(source);
+		Assert.assertEquals(1, store.getNumRead());
+		assertSameDocument(parsed, read);
+		assertSameTree(new AsnStandardsDocument(parsed), new AsnStandardsDocument(read));
+
+		// a changed file invalidates the snapshot
+		writeAsnDocument("D1000001", 300, " (revised)");
+		AsnDocument revised = store.getAsnDocument(source);
+		Assert.assertEquals(1, store.getNumStale());
+		Assert.assertEquals(2, store.getNumWritten());
+		Assert.assertTrue(revised.getStandard(statementId("D1000001", 5)).getDescription().endsWith(" (revised)"));
+		assertSameDocument(revised, store.getAsnDocument(source));
+	}
+
+
+	/**
+	 *  Checks that the TreeCache holds trees up to its size limit, so that one
+	 *  large tree displaces several small ones, and keeps the tree added last.
+	 *
+	 * @exception  Exception  If error
+	 */
+	public void test_weighted_eviction()
+			 throws Exception {
+		AsnStandardsDocument small = new AsnStandardsDocument(new AsnDocument(writeAsnDocument("D2000001", 50, "")));
+		AsnStandardsDocument large = new AsnStandardsDocument(new AsnDocument(writeAsnDocument("D2000002", 1000, "")));
+		Assert.assertTrue(large.getEstimatedSize() > 10 * small.getEstimatedSize());
+
+		TreeCache cache = new TreeCache(null);
+		cache.setMaxBytes(small.getEstimatedSize() * 8);
+		for (int i = 0; i < 6; i++)
+			cache.addTree("small" + i, new AsnStandardsDocument(new AsnDocument(writeAsnDocument("D300000" + i, 50, ""))));
+		Assert.assertEquals(6, cache.size());
+		Assert.assertEquals(0, cache.getEvictions());
+
+		cache.addTree("large", large);
+		Assert.assertEquals(1, cache.size());
+		Assert.assertEquals(6, cache.getEvictions());
+		Assert.assertSame(large, cache.getTree("large"));
+
+		cache.addTree("small", small);
+		Assert.assertEquals(1, cache.size());
+		Assert.assertTrue(cache.getTotalBytes() <= cache.getMaxBytes());
+	}
+
+
+	private void assertSameDocument(AsnDocument expected, AsnDocument actual) {
+		Assert.assertEquals(expected.getIdentifier(), actual.getIdentifier());
+		Assert.assertEquals(expected.getTitle(), actual.getTitle());
+		Assert.assertEquals(expected.getCreated(), actual.getCreated());
+		Assert.assertEquals(expected.getVersion(), actual.getVersion());
+		Assert.assertEquals(expected.getAuthorPurl(), actual.getAuthorPurl());
+		Assert.assertEquals(expected.getTopicPurl(), actual.getTopicPurl());
+		Assert.assertEquals(expected.getIdentifiers(), actual.getIdentifiers());
+		for (Iterator i = expected.getStandards().iterator(); i.hasNext(); ) {
+			AsnStandard std = (AsnStandard) i.next();
+			AsnStandard other = actual.getStandard(std.getId());
+			Assert.assertEquals(std.getClass(), other.getClass());
+			Assert.assertEquals(std.getDisplayText(), other.getDisplayText());
+			Assert.assertEquals(std.getGradeRange(), other.getGradeRange());
+			Assert.assertEquals(std.getLevel(), other.getLevel());
+			Assert.assertEquals(std.getAsnStatement().getChildrenIDs(), other.getAsnStatement().getChildrenIDs());
+		}
+	}
+
+
+	private void assertSameTree(AsnStandardsDocument expected, AsnStandardsDocument actual) {
+		List expectedNodes = expected.getNodeList();
+		List actualNodes = actual.getNodeList();
+		Assert.assertEquals(expectedNodes.size(), actualNodes.size());
+		for (int i = 0; i < expectedNodes.size(); i++) {
+			AsnStandardsNode node = (AsnStandardsNode) expectedNodes.get(i);
+			AsnStandardsNode other = (AsnStandardsNode) actualNodes.get(i);
+			Assert.assertEquals(node.getId(), other.getId());
+			Assert.assertEquals(node.getLabel(), other.getLabel());
+			Assert.assertEquals(node.getFullText(), other.getFullText());
+		}
+	}
+
+
+	/**
+	 *  Writes an ASN standards document with the given number of statements, in
+	 *  three levels under the document.
+	 *
+	 * @param  uid            uid of the document
+	 * @param  numStatements  number of statements
+	 * @param  revision       text appended to each description
+	 * @return                the file
+	 * @exception  Exception  If error
+	 */
+	private File writeAsnDocument(String uid, int numStatements, String revision) throws Exception {
+		String docId = "http://purl.org/ASN/resources/" + uid;
+		int perParent = 10;
+		StringBuffer xml = new StringBuffer();
+		xml.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+		xml.append("<rdf:RDF xmlns:rdf=\"http://www.w3.org/1999/02/22-rdf-syntax-ns#\"" +
+			" xmlns:asn=\"http://purl.org/ASN/schema/core/\" xmlns:dcterms=\"http://purl.org/dc/terms/\"" +
+			" xmlns:gemq=\"http://purl.org/gem/qualifiers/\">\n");
+		xml.append("<asn:StandardDocument rdf:about=\"" + docId + "\">\n");
+		xml.append("  <dcterms:title>Generated Science Standards " + uid + "</dcterms:title>\n");
+		xml.append("  <asn:jurisdiction rdf:resource=\"http://purl.org/ASN/scheme/ASNJurisdiction/NSES\"/>\n");
+		xml.append("  <dcterms:subject rdf:resource=\"http://purl.org/ASN/scheme/ASNTopic/science\"/>\n");
+		xml.append("  <dcterms:description>Generated for testing</dcterms:description>\n");
+		xml.append("  <asn:exportVersion>http://purl.org/ASN/export/2.0.0</asn:exportVersion>\n");
+		xml.append("  <dcterms:created>2005</dcterms:created>\n");
+		xml.append("  <asn:fileCreated>2009-06-25</asn:fileCreated>\n");
+		appendChildren(xml, uid, 0, Math.min(perParent, numStatements));
+		xml.append("</asn:StandardDocument>\n");
+
+		for (int i = 0; i < numStatements; i++) {
+			String parentId = (i < perParent ? docId : statementId(uid, i / perParent - 1));
+			xml.append("<asn:Statement rdf:about=\"" + statementId(uid, i) + "\">\n");
+			xml.append("  <gemq:isChildOf rdf:resource=\"" + parentId + "\"/>\n");
+			xml.append("  <dcterms:isPartOf rdf:resource=\"" + docId + "\"/>\n");
+			xml.append("  <dcterms:subject rdf:resource=\"http://purl.org/ASN/scheme/ASNTopic/science\"/>\n");
+			xml.append("  <dcterms:educationLevel rdf:resource=\"http://purl.org/ASN/scheme/ASNEducationLevel/" + (i % 5 + 1) + "\"/>\n");
+			xml.append("  <dcterms:educationLevel rdf:resource=\"http://purl.org/ASN/scheme/ASNEducationLevel/" + (i % 5 + 4) + "\"/>\n");
+			xml.append("  <dcterms:description>Students should understand that statement " + i +
+				" describes properties of matter, motion and forces, and the transfer of energy &amp; heat" + revision + "</dcterms:description>\n");
+			int firstChild = (i + 1) * perParent;
+			if (firstChild < numStatements)
+				appendChildren(xml, uid, firstChild, Math.min(firstChild + perParent, numStatements));
+			xml.append("</asn:Statement>\n");
+		}
+		xml.append("</rdf:RDF>\n");
+
+		File file = new File(tempDir, uid + ".xml");
+		Writer out = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+		try {
+			out.write(xml.toString());
+		} finally {
+			out.close();
+		}
+		return file;
+	}
+
+
+	private void appendChildren(StringBuffer xml, String uid, int from, int to) {
+		xml.append("  <gemq:hasChild><rdf:Seq>\n");
+		for (int c = from; c < to; c++)
+			xml.append("    <rdf:li rdf:resource=\"" + statementId(uid, c) + "\"/>\n");
+		xml.append("  </rdf:Seq></gemq:hasChild>\n");
+	}
+
+
+	private static String statementId(String uid, int i) {
+		return "http://purl.org/ASN/resources/S" + uid.substring(1) + "_" + i;
+	}
+
+
+	private static void prtln(String s) {
+		System.out.println(s);
+	}
+
+
+	/**
+	 *  Main method for running this single suite from the command line
+	 *
+	 * @param  args  The command line arguments
+	 */
+	public static void main(String[] args) {
+		junit.textui.TestRunner.run(suite());
+	}
+}
@@ -31,11 +31,18 @@ import java.io.File;
 
 /**
 *  Cashe of AsnStandardsDocuments. Works with a {@link StandardsRegistry} instance to support
- *  the "getStandardsDocument" call. Maintains a tree map of specified size.
- *  When a call to getStandardsDocument is called: - Most recently used list is
- *  updated to put that tree first. - if requested tree is not in the tree map,
- *  the least recently used tree is destroyed and the requested tree is read
- *  (using path obtained from the Registry).
+ *  the "getStandardsDocument" call. Maintains a tree map holding at most a
+ *  specified number of trees, with an estimated heap size (see {@link
+ *  AsnStandardsDocument#getEstimatedSize()}) of at most a specified number of
+ *  bytes. When a call to getStandardsDocument is called: - Most recently used
+ *  list is updated to put that tree first. - if requested tree is not in the
+ *  tree map, the requested tree is read (using path obtained from the
+ *  Registry), and least recently used trees are destroyed until the cache is
+ *  within its limits. The tree most recently added is never destroyed, however
+ *  large it is.<p>
+ *
+ *  Trees are read outside of the cache lock, so a large document being read
+ *  does not hold up requests for trees that are cached.
  *
  * @author     Jonathan Ostwald
  * @created    December 31, 2008
@@ -43,14 +50,27 @@ import java.io.File;
 public class TreeCache {
 	private static Log log = LogFactory.getLog(TreeCache.class);
 	private static boolean debug = true;
-	private int capacity = 20;
-	// private List mru = null; // most Recently Used List
-	// private static TreeCache instance = null;
-	private Map treeMap = null;
+
+	/**  Default maximum number of trees held */
+	public final static int DEFAULT_MAX_TREES = 200;
+
+	/**  Default maximum estimated size, in bytes, of the trees held */
+	public final static long DEFAULT_MAX_BYTES = 64L * 1024 * 1024;
+
+	private int capacity = DEFAULT_MAX_TREES;
+	private long maxBytes = DEFAULT_MAX_BYTES;
+	// key --> AsnStandardsDocument, least recently used first
+	private LinkedHashMap treeMap = null;
+	// key --> Long estimated size
+	private Map treeSizes = null;
+	private long totalBytes = 0;
 	private NodeMap nodeMap = null;
-	private UsageQueue usageQueue = null;
 	private StandardsRegistry standardsRegistry = null;
 
+	private long hits = 0;
+	private long misses = 0;
+	private long evictions = 0;
+
 
 	/**
 	 *  Constructor for the TreeCache object
@@ -60,9 +80,101 @@ public class TreeCache {
 	 */
 	public TreeCache(StandardsRegistry standardsRegistry) throws Exception {
 		this.standardsRegistry = standardsRegistry;
-		this.treeMap = new HashMap();
+		this.treeMap = new LinkedHashMap(16, 0.75f, true);
+		this.treeSizes = new HashMap();
 		this.nodeMap = new NodeMap();
-		this.usageQueue = new UsageQueue(this.capacity);
+	}
+
+
+	/**
+	 *  Sets the maximum number of trees held in the cache
+	 *
+	 * @param  maxTrees  The new maxTrees value
+	 */
+	public synchronized void setMaxTrees(int maxTrees) {
+		this.capacity = maxTrees;
+		this.removeExcessTrees();
+	}
+
+
+	/**
+	 *  Gets the maximum number of trees held in the cache
+	 *
+	 * @return    The maxTrees value
+	 */
+	public synchronized int getMaxTrees() {
+		return this.capacity;
+	}
+
+
+	/**
+	 *  Sets the maximum estimated size, in bytes, of the trees held in the cache
+	 *
+	 * @param  maxBytes  The new maxBytes value
+	 */
+	public synchronized void setMaxBytes(long maxBytes) {
+		this.maxBytes = maxBytes;
+		this.removeExcessTrees();
+	}
+
+
+	/**
+	 *  Gets the maximum estimated size, in bytes, of the trees held in the cache
+	 *
+	 * @return    The maxBytes value
+	 */
+	public synchronized long getMaxBytes() {
+		return this.maxBytes;
+	}
+
+
+	/**
+	 *  Gets the estimated size, in bytes, of the trees held in the cache
+	 *
+	 * @return    The totalBytes value
+	 */
+	public synchronized long getTotalBytes() {
+		return this.totalBytes;
+	}
+
+
+	/**
+	 *  Gets the number of trees held in the cache
+	 *
+	 * @return    the number of trees
+	 */
+	public synchronized int size() {
+		return this.treeMap.size();
+	}
+
+
+	/**
+	 *  Gets the number of calls to getTree that found the tree in the cache
+	 *
+	 * @return    The hits value
+	 */
+	public synchronized long getHits() {
+		return this.hits;
+	}
+
+
+	/**
+	 *  Gets the number of calls to getTree that had to read the tree
+	 *
+	 * @return    The misses value
+	 */
+	public synchronized long getMisses() {
+		return this.misses;
+	}
+
+
+	/**
+	 *  Gets the number of trees removed to keep the cache within its limits
+	 *
+	 * @return    The evictions value
+	 */
+	public synchronized long getEvictions() {
+		return this.evictions;
 	}
 
 
@@ -72,12 +184,18 @@ public class TreeCache {
 	 * @param  key   Document key of the form (<author>.<topic>.<year>.<uid>)
 	 * @param  tree  Description of the Parameter
 	 */
-	public void addTree(String key, AsnStandardsDocument tree) {
+	public synchronized void addTree(String key, AsnStandardsDocument tree) {
+		AsnStandardsDocument existing = (AsnStandardsDocument) this.treeMap.get(key);
+		if (existing == tree)
+			return;
+		if (existing != null)
+			this.removeTree(key);
+		long size = tree.getEstimatedSize();
 		this.treeMap.put(key, tree);
+		this.treeSizes.put(key, new Long(size));
+		this.totalBytes += size;
 		this.nodeMap.addNodes(key, tree);
-		this.usageQueue.addItem(key);
-		if (this.isFull())
-			this.removeTree();
+		this.removeExcessTrees();
 	}
 
 
@@ -86,14 +204,28 @@ public class TreeCache {
 	 *
 	 * @return    The full value
 	 */
-	public boolean isFull() {
-		return this.treeMap.size() > this.capacity;
+	public synchronized boolean isFull() {
+		return this.treeMap.size() > this.capacity || this.totalBytes > this.maxBytes;
+	}
+
+
+	/**
+	 *  Remove least recently used trees until the cache is within its limits,
+	 *  keeping at least the most recently used tree.
+	 */
+	private void removeExcessTrees() {
+		while (this.treeMap.size() > 1 && this.isFull()) {
+			this.removeTree();
+			this.evictions++;
+		}
 	}
 
 
 	/**  Remove least recently used tree from the cache */
-	public void removeTree() {
-		String key = this.usageQueue.getLRU();
+	public synchronized void removeTree() {
+		if (this.treeMap.isEmpty())
+			return;
+		String key = (String) this.treeMap.keySet().iterator().next();
 		this.removeTree(key);
 	}
 
@@ -103,19 +235,22 @@ public class TreeCache {
 	 *
 	 * @param  key  key of asnStandardsDocument
 	 */
-	public void removeTree(String key) {
+	public synchronized void removeTree(String key) {
 		// prtln ("removeTree: " + key);
-		AsnStandardsDocument tree = (AsnStandardsDocument) treeMap.get(key);
+		AsnStandardsDocument tree = (AsnStandardsDocument) treeMap.remove(key);
+		if (tree == null)
+			return;
 		tree.destroy();
-		this.treeMap.remove(key);
-		this.usageQueue.removeItem(key);
+		Long size = (Long) this.treeSizes.remove(key);
+		if (size != null)
+			this.totalBytes -= size.longValue();
 	}
 
 
 	/**
 	 *  Get the StandardsTree specified by provided key. <pre>
 	 * if the treeMap.containsKey(key)
-	 * - usageQueue.touch(key)
+	 * - mark key as most recently used
 	 * otherwise
 	 * - tree = new AsnStandardsDocument (key)
 	 * - addTree (key, tree)
@@ -127,20 +262,29 @@ public class TreeCache {
 	 */
 	public AsnStandardsDocument getTree(String key) {
 		AsnStandardsDocument tree = null;
-		if (this.treeMap.containsKey(key)) {
-			this.usageQueue.touch(key);
-			tree = (AsnStandardsDocument) treeMap.get(key);
-		}
-		else {
-			try {
-				prtln("Loading Standards Tree for " + key);
-				tree = standardsRegistry.instantiateStandardsDocument(key);
-				this.addTree(key, tree);
-			} catch (Exception e) {
-				prtln("getTree error: " + e.getMessage());
+		synchronized (this) {
+			tree = (AsnStandardsDocument) this.treeMap.get(key);
+			if (tree != null) {
+				this.hits++;
+				return tree;
 			}
+			this.misses++;
+		}
+		try {
+			prtln("Loading Standards Tree for " + key);
+			tree = standardsRegistry.instantiateStandardsDocument(key);
+		} catch (Exception e) {
+			prtln("getTree error: " + e.getMessage());
+			return null;
+		}
+		synchronized (this) {
+			// another thread may have read the same tree meanwhile
+			AsnStandardsDocument existing = (AsnStandardsDocument) this.treeMap.get(key);
+			if (existing != null)
+				return existing;
+			this.addTree(key, tree);
+			return tree;
 		}
-		return (AsnStandardsDocument) this.treeMap.get(key);
 	}
 
 
@@ -150,7 +294,7 @@ public class TreeCache {
 	 * @param  asnId  Description of the Parameter
 	 * @return        The standardsNode value
 	 */
-	public AsnStandardsNode getStandardsNodeOLD(String asnId) {
+	public synchronized AsnStandardsNode getStandardsNodeOLD(String asnId) {
 		AsnStandardsNode std = null;
 		for (Iterator i = this.treeMap.values().iterator(); i.hasNext(); ) {
 			AsnStandardsDocument tree = (AsnStandardsDocument) i.next();
@@ -172,7 +316,10 @@ public class TreeCache {
 	 * @exception  Exception  NOT YET DOCUMENTED
 	 */
 	public AsnStandardsNode getStandardsNode(String asnId) throws Exception {
-		String docKey = this.nodeMap.getDocKey(asnId);
+		String docKey = null;
+		synchronized (this) {
+			docKey = this.nodeMap.getDocKey(asnId);
+		}
 		if (docKey == null)
 			throw new Exception("docKey not found for " + asnId);
 		AsnStandardsDocument tree = this.getTree(docKey);
@@ -183,9 +330,17 @@ public class TreeCache {
 
 
 	/**  NOT YET DOCUMENTED */
-	public void report() {
+	public synchronized void report() {
 		prtln("\nTreeCache Report");
-		this.usageQueue.report();
+		prtln("Trees - Least Recently Used first");
+		for (Iterator i = this.treeMap.keySet().iterator(); i.hasNext(); ) {
+			String key = (String) i.next();
+			prtln("\t" + key + " (" + this.treeSizes.get(key) + " bytes)");
+		}
+		prtln("--------------");
+		prtln(this.treeMap.size() + " trees (max " + this.capacity + "), " + this.totalBytes +
+			" bytes (max " + this.maxBytes + ")");
+		prtln("hits: " + this.hits + ", misses: " + this.misses + ", evictions: " + this.evictions);
 		prtln("NodeMap has " + this.nodeMap.size() + " items");
 	}
 
@@ -201,94 +356,6 @@ public class TreeCache {
 	}
 
 
-	/**
-	 *  Queue supporting LeastRecentlyUsed functions. Least recently used item is
-	 *  first, Most recently used is last.
-	 *
-	 * @author     ostwald
-	 * @created    December 31, 2008
-	 */
-	private class UsageQueue {
-		List items = null;
-		private int capacity = -1;
-
-
-		/**
-		 *  Constructor for the UsageQueue object
-		 *
-		 * @param  capacity  NOT YET DOCUMENTED
-		 */
-		UsageQueue(int capacity) {
-			this.capacity = capacity;
-			this.items = new ArrayList();
-		}
-
-
-		/**
-		 *  Make the supplied key the most recently used, and return the least
-		 *  recently used key if there are more than capacity items.
-		 *
-		 * @param  key  Description of the Parameter
-		 */
-		private synchronized void touch(String key) {
-			if (items.contains(key)) {
-				items.remove(key);
-				items.add(key);
-			}
-		}
-
-
-		/**
-		 *  Gets the lRU attribute of the UsageQueue object
-		 *
-		 * @return    The lRU value
-		 */
-		public String getLRU() {
-			return (String) items.get(0);
-		}
-
-
-		/**
-		 *  NOT YET DOCUMENTED
-		 *
-		 * @param  key  NOT YET DOCUMENTED
-		 */
-		public void removeItem(String key) {
-			items.remove(key);
-		}
-
-
-		/**
-		 *  NOT YET DOCUMENTED
-		 *
-		 * @param  index  NOT YET DOCUMENTED
-		 */
-		public void removeItem(int index) {
-			items.remove(index);
-		}
-
-
-		/**
-		 *  Adds a feature to the Item attribute of the UsageQueue object
-		 *
-		 * @param  key  The feature to be added to the Item attribute
-		 */
-		public void addItem(String key) {
-			items.add(key);
-		}
-
-
-		/**  NOT YET DOCUMENTED */
-		public void report() {
-			prtln("UsageQueue - Least Recently Used first");
-			for (Iterator i = this.items.iterator(); i.hasNext(); )
-				prtln("\t" + (String) i.next());
-			prtln("--------------");
-		}
-
-	}
-
-
 	/**
 	 *  Map supporting quick look up of standards nodes by their asn id
 	 *
@@ -56,6 +56,13 @@ public class AsnStandardsDocument implements StandardsDocument {
 	String title = null;
 	String id = null;
 	String uid = null;
+	long estimatedSize = -1;
+
+	/**  Estimated heap bytes for each node and its AsnStandard and AsnStatement, apart from their text. */
+	static final int NODE_OVERHEAD = 600;
+
+	/**  Estimated heap bytes held by the XML element of a statement read from an ASN XML file. */
+	static final int ELEMENT_OVERHEAD = 2000;
 
 
 	/**
@@ -123,6 +130,34 @@ public class AsnStandardsDocument implements StandardsDocument {
 	}
 
 
+	/**
+	 *  Gets an estimate of the heap used by this document, counting the text
+	 *  held by each node and the XML elements retained by statements read from
+	 *  an XML file. Used to weigh documents in the {@link
+	 *  org.dlese.dpc.schemedit.standards.TreeCache}.
+	 *
+	 * @return    the estimated size in bytes
+	 */
+	public long getEstimatedSize() {
+		if (estimatedSize < 0) {
+			long size = 0;
+			for (Iterator i = nodeList.iterator(); i.hasNext(); ) {
+				AsnStandardsNode node = (AsnStandardsNode) i.next();
+				size += NODE_OVERHEAD + 2 * (length(node.getId()) + length(node.getFullText()) + length(node.getItemText()));
+				if (node.getAsnStandard().getAsnStatement().getElement() != null)
+					size += ELEMENT_OVERHEAD + 4 * length(node.getItemText());
+			}
+			estimatedSize = size;
+		}
+		return estimatedSize;
+	}
+
+
+	private static int length(String s) {
+		return (s == null ? 0 : s.length());
+	}
+
+
 	/**
 	 *  Gets the author attribute of the AsnStandardsDocument object
 	 *
@@ -117,6 +117,26 @@ public abstract class ThreadedService extends MonitoredTask {
 	 * @param  dcsDataRecord  NOT YET DOCUMENTED
 	 */
 	protected void validate(XMLDocReader docReader, DcsDataRecord dcsDataRecord) {
+		try {
+			dcsDataRecord.setValidationReport(getValidationReport(docReader));
+		} catch (Exception e) {
+			prtlnErr ("could not validate: " + e.getMessage());
+		}
+		updateValidatedRecord(docReader, dcsDataRecord);
+	}
+
+
+	/**
+	 *  Validates the record file for the given docReader against the schema of
+	 *  its framework. Does not change the record or its DcsDataRecord, so it may
+	 *  be called by several threads at once.
+	 *
+	 * @param  docReader      the docReader for the record
+	 * @return                null if the record is valid, otherwise the
+	 *      validation messages
+	 * @exception  Exception  if the record file could not be read
+	 */
+	protected String getValidationReport(XMLDocReader docReader) throws Exception {
 		RepositoryService repositoryService =
 			(RepositoryService) servletContext.getAttribute("repositoryService");
 		if (repositoryService == null) {
@@ -129,12 +149,22 @@ public abstract class ThreadedService extends MonitoredTask {
 		*/
 		// repositoryService.validateRecord(docReader.getFile(), dcsDataRecord, docReader.getNativeFormat());
 		
-		try {
-			StringBuffer xml = Files.readFileToEncoding(file, "utf-8");
-			repositoryService.validateRecord(xml.toString(), dcsDataRecord, docReader.getNativeFormat());
-		} catch (Exception e) {
-			prtlnErr ("could not validate: " + e.getMessage());
-		}
+		StringBuffer xml = Files.readFileToEncoding(file, "utf-8");
+		return repositoryService.getValidationReport(xml.toString(), docReader.getNativeFormat());
+	}
+
+
+	/**
+	 *  Reindexes a record after its validation report has been set, if
+	 *  indexOnValidation is true, and schedules its DcsDataRecord to be written
+	 *  to disk by the DcsDataManager.
+	 *
+	 * @param  docReader      the docReader for the record
+	 * @param  dcsDataRecord  the DcsDataRecord holding the validation report
+	 */
+	protected void updateValidatedRecord(XMLDocReader docReader, DcsDataRecord dcsDataRecord) {
+		RepositoryService repositoryService =
+			(RepositoryService) servletContext.getAttribute("repositoryService");
 
 		// perform badcharacter check on localized Document
 		String xmlRecord = docReader.getXmlLocalized();
@@ -143,7 +173,10 @@ public abstract class ThreadedService extends MonitoredTask {
 				prtln("indexing " + docReader.getId());
 				repositoryService.updateRecord(docReader.getId());
 			}
-			dcsDataRecord.flushToDisk();
+			if (dcsDataManager != null)
+				dcsDataManager.scheduleWrite(dcsDataRecord);
+			else
+				dcsDataRecord.flushToDisk();
 		} catch (Exception e) {
 			prtlnErr ("WARNING: failed to write dcsDataRecord to disk: " + e);
 			e.printStackTrace();
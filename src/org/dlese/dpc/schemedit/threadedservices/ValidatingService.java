@@ -37,7 +37,10 @@ import javax.servlet.ServletContext;
 import org.dom4j.Document;
 
 /**
- *  Threaded Service for validating records.
+ *  Threaded Service for validating records. The records may be validated by a
+ *  number of worker threads at once (see {@link #setNumValidatingThreads(int)}),
+ *  while the validation reports are saved and the records reindexed one at a
+ *  time, in order.
  *
  * @author    ostwald
  *
@@ -46,6 +49,10 @@ import org.dom4j.Document;
 public class ValidatingService extends ThreadedService {
 
 	private boolean ignoreCachedValidation = true;
+	private int numValidatingThreads = 1;
+
+	// the number of records looked up, then validated by the workers, at a time
+	private final static int BLOCK_SIZE = 100;
 
 
 	/**
@@ -69,6 +76,27 @@ public class ValidatingService extends ThreadedService {
 	}
 
 
+	/**
+	 *  Sets the number of threads used to validate records. Values less than 2
+	 *  validate each record in turn. Default is 1.
+	 *
+	 * @param  numValidatingThreads  The number of validating threads
+	 */
+	public void setNumValidatingThreads(int numValidatingThreads) {
+		this.numValidatingThreads = numValidatingThreads;
+	}
+
+
+	/**
+	 *  Gets the number of threads used to validate records.
+	 *
+	 * @return    The number of validating threads
+	 */
+	public int getNumValidatingThreads() {
+		return numValidatingThreads;
+	}
+
+
 	/**
 	 *  NOT YET DOCUMENTED
 	 *
@@ -122,9 +150,10 @@ public class ValidatingService extends ThreadedService {
 	/**
 	 *  Description of the Method
 	 *
-	 * @param  idsToValidate  NOT YET DOCUMENTED
+	 * @param  idsToValidate             NOT YET DOCUMENTED
+	 * @exception  InterruptedException  if interrupted while validating
 	 */
-	private void doValidateRecords(List idsToValidate) {
+	private void doValidateRecords(List idsToValidate) throws InterruptedException {
 
 		// validation stats (numValidated = numNotValid + numValid)
 		int numNotValid = 0; // count of invalid records
@@ -149,87 +178,92 @@ public class ValidatingService extends ThreadedService {
 		ValidationReport report = new ValidationReport(dcsSetInfo, statuses);
 		long start = new Date().getTime();
 
-		for (int i = 0; i < idsToValidate.size() && !stopProcessing; i++) {
-			String id = (String) idsToValidate.get(i);
-
-			progress.setDone(i + 1); // in the end, we want i to be 100%
-
-			if (i % granularity == 0 && i != 0) {
-				// msg = "Validated " + i + " of " + records.length + " items";
-				msg = "Validated " + (i - 1) + " of " + numToValidate + " items";
-				msg += " - " + numValid + " valid, " + numNotValid + " invalid";
-				addStatusMessage(msg);
+		for (int blockStart = 0; blockStart < numToValidate && !stopProcessing; blockStart += BLOCK_SIZE) {
+			int blockEnd = Math.min(numToValidate, blockStart + BLOCK_SIZE);
+
+			// Look up each record in the block and find those that need to be validated
+			RecordToValidate[] block = new RecordToValidate[blockEnd - blockStart];
+			List toValidate = new ArrayList();
+			for (int i = blockStart; i < blockEnd && !stopProcessing; i++) {
+				RecordToValidate record = lookupRecord((String) idsToValidate.get(i));
+				block[i - blockStart] = record;
+				if (record.needsValidation)
+					toValidate.add(record);
 			}
 
-			XMLDocReader docReader = getDocReader(id);
-			if (docReader == null) {
-				errorMsg = "ERROR: could not find record for " + id + " in index";
-				prtln(errorMsg);
-				addStatusMessage(errorMsg);
-				numNotValidated++;
-				continue;
-			}
+			// ---------- VALIDATE -------------
+			// this is validating from the record on disk
+			computeValidationReports(toValidate);
 
-			File sourceFile = docReader.getFile();
-			// prtln ("\n\n" + id + "     " + sourceFile.getAbsolutePath());
+			for (int i = blockStart; i < blockEnd && !stopProcessing; i++) {
+				RecordToValidate record = block[i - blockStart];
+				String id = record.id;
 
-			if (!sourceFile.exists()) {
-				errorMsg = "ERROR: source file does not exist at " + sourceFile.getAbsolutePath();
-				prtln(errorMsg);
-				addStatusMessage(errorMsg);
-				numNotValidated++;
-				continue;
-			}
+				progress.setDone(i + 1); // in the end, we want i to be 100%
 
-			RepositoryManager rm = docReader.getRepositoryManager();
-			DcsDataRecord dcsDataRecord = dcsDataManager.getDcsDataRecord(id, rm);
-
-			boolean validationIsStale = this.validationIsStale(sourceFile, docReader);
-			boolean validityUnknown = dcsDataRecord.getIsValidityUnknown();
-
-			// perform validation and bad char checking if this record's file has
-			// been modified outside of the DCS
-			if (validationIsStale || validityUnknown || this.ignoreCachedValidation) {
-				if (validityUnknown)
-					prtln(id + " validity is unknown");
-				if (validationIsStale) {
-					prtln(id + " file mod does not match with reader mod ... validating ...");
-					try {
-						/* record on disk has been changed, so we first index it so that the
-						index is consistent with the file on disk
-						- RATIONALE - files on disk are primary!
-						*/
-						String recordXml = Files.readFile(sourceFile).toString();
-						String collection = docReader.getCollectionKey();
-						rm.putRecord (recordXml, docReader.getNativeFormat(), collection, id, true);
-					} catch (Throwable t) {
-						prtlnErr ("ERROR (" + id + ") :" + t.getMessage());
-					}
+				if (i % granularity == 0 && i != 0) {
+					// msg = "Validated " + i + " of " + records.length + " items";
+					msg = "Validated " + (i - 1) + " of " + numToValidate + " items";
+					msg += " - " + numValid + " valid, " + numNotValid + " invalid";
+					addStatusMessage(msg);
 				}
-				if (ignoreCachedValidation)
-					prtln("ignoring cashed validation");
 
-				// ---------- VALIDATE -------------
-				// this is validating from indexed record, NOT record on disk!
-				validate(docReader, dcsDataRecord);
+				if (record.errorMsg != null) {
+					errorMsg = record.errorMsg;
+					prtln(errorMsg);
+					addStatusMessage(errorMsg);
+					numNotValidated++;
+					continue;
+				}
 
-				if (dcsDataRecord.getIsValidityUnknown())
-					prtlnErr ("ERROR: " + id + " validity is unknown AFTER validation");
-			}
+				XMLDocReader docReader = record.docReader;
+				DcsDataRecord dcsDataRecord = record.dcsDataRecord;
+
+				// perform validation and bad char checking if this record's file has
+				// been modified outside of the DCS
+				if (record.needsValidation) {
+					if (record.validityUnknown)
+						prtln(id + " validity is unknown");
+					if (record.validationIsStale) {
+						prtln(id + " file mod does not match with reader mod ... validating ...");
+						try {
+							/* record on disk has been changed, so we first index it so that the
+							index is consistent with the file on disk
+							- RATIONALE - files on disk are primary!
+							*/
+							String recordXml = Files.readFile(docReader.getFile()).toString();
+							String collection = docReader.getCollectionKey();
+							record.rm.putRecord (recordXml, docReader.getNativeFormat(), collection, id, true);
+						} catch (Throwable t) {
+							prtlnErr ("ERROR (" + id + ") :" + t.getMessage());
+						}
+					}
+					if (ignoreCachedValidation)
+						prtln("ignoring cashed validation");
 
-			if (dcsDataRecord.getIsValid() == "false") {
-				errorMsg = id + " is NOT VALID";
-				numNotValid++;
-			}
-			else {
-				numValid++;
-			}
-			numValidated++;
-			report.addEntry(dcsDataRecord);
+					if (record.validationError != null)
+						prtlnErr ("could not validate: " + record.validationError.getMessage());
+					else
+						dcsDataRecord.setValidationReport(record.validationReport);
+					updateValidatedRecord(docReader, dcsDataRecord);
 
-			Thread.yield();
-			// prtln("validateRecords() stopProcessing: " + stopProcessing + ", " + i +"/"+records.length);
+					if (dcsDataRecord.getIsValidityUnknown())
+						prtlnErr ("ERROR: " + id + " validity is unknown AFTER validation");
+				}
 
+				if (dcsDataRecord.getIsValid() == "false") {
+					errorMsg = id + " is NOT VALID";
+					numNotValid++;
+				}
+				else {
+					numValid++;
+				}
+				numValidated++;
+				report.addEntry(dcsDataRecord);
+
+				Thread.yield();
+				// prtln("validateRecords() stopProcessing: " + stopProcessing + ", " + i +"/"+records.length);
+			}
 		}
 
 		if (stopProcessing) {
@@ -257,6 +291,97 @@ public class ValidatingService extends ThreadedService {
 	}
 
 
+	/**
+	 *  Looks up the record for the given id and determines whether it needs to
+	 *  be validated.
+	 *
+	 * @param  id  the record id
+	 * @return     the record, with errorMsg set if it can not be validated
+	 */
+	private RecordToValidate lookupRecord(String id) {
+		RecordToValidate record = new RecordToValidate(id);
+
+		XMLDocReader docReader = getDocReader(id);
+		if (docReader == null) {
+			record.errorMsg = "ERROR: could not find record for " + id + " in index";
+			return record;
+		}
+
+		File sourceFile = docReader.getFile();
+		// prtln ("\n\n" + id + "     " + sourceFile.getAbsolutePath());
+
+		if (!sourceFile.exists()) {
+			record.errorMsg = "ERROR: source file does not exist at " + sourceFile.getAbsolutePath();
+			return record;
+		}
+
+		record.docReader = docReader;
+		record.rm = docReader.getRepositoryManager();
+		record.dcsDataRecord = dcsDataManager.getDcsDataRecord(id, record.rm);
+
+		record.validationIsStale = this.validationIsStale(sourceFile, docReader);
+		record.validityUnknown = record.dcsDataRecord.getIsValidityUnknown();
+		record.needsValidation = record.validationIsStale || record.validityUnknown || this.ignoreCachedValidation;
+		return record;
+	}
+
+
+	/**
+	 *  Computes the validation reports for the given records, using the
+	 *  configured number of threads. Only the reports are computed here; the
+	 *  DcsDataRecords are not changed.
+	 *
+	 * @param  records                   the RecordToValidate to validate
+	 * @exception  InterruptedException  if interrupted while waiting for the
+	 *      workers
+	 */
+	private void computeValidationReports(final List records) throws InterruptedException {
+		int numThreads = Math.min(numValidatingThreads, records.size());
+		if (numThreads < 2) {
+			for (int i = 0; i < records.size() && !stopProcessing; i++)
+				computeValidationReport((RecordToValidate) records.get(i));
+			return;
+		}
+
+		final int[] next = {0};
+		Thread[] workers = new Thread[numThreads];
+		for (int t = 0; t < workers.length; t++) {
+			workers[t] =
+				new Thread() {
+					public void run() {
+						while (!stopProcessing) {
+							int i;
+							synchronized (next) {
+								if (next[0] >= records.size())
+									return;
+								i = next[0]++;
+							}
+							computeValidationReport((RecordToValidate) records.get(i));
+						}
+					}
+				};
+			workers[t].setDaemon(true);
+			workers[t].start();
+		}
+		for (int t = 0; t < workers.length; t++)
+			workers[t].join();
+	}
+
+
+	/**
+	 *  Computes the validation report for a record.
+	 *
+	 * @param  record  the record
+	 */
+	private void computeValidationReport(RecordToValidate record) {
+		try {
+			record.validationReport = getValidationReport(record.docReader);
+		} catch (Throwable t) {
+			record.validationError = t;
+		}
+	}
+
+
 	/**
 	 *  Print a line to standard out.
 	 *
@@ -311,5 +436,35 @@ public class ValidatingService extends ThreadedService {
 		}
 	}
 
-}
 
+
+	/**
+	 *  A record being validated, and the outcome of looking it up and
+	 *  validating it.
+	 *
+	 * @author    ostwald
+	 */
+	private static class RecordToValidate {
+		String id;
+		XMLDocReader docReader = null;
+		RepositoryManager rm = null;
+		DcsDataRecord dcsDataRecord = null;
+		String errorMsg = null;
+		boolean validationIsStale = false;
+		boolean validityUnknown = false;
+		boolean needsValidation = false;
+		String validationReport = null;
+		Throwable validationError = null;
+
+
+		/**
+		 *  Constructor for the RecordToValidate object
+		 *
+		 * @param  id  the record id
+		 */
+		RecordToValidate(String id) {
+			this.id = id;
+		}
+	}
+
+}
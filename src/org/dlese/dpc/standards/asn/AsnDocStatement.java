@@ -25,6 +25,7 @@ import org.dlese.dpc.util.strings.FindAndReplace;
 import java.util.regex.*;
 
 import java.util.*;
+import java.io.*;
 
 /**
  *  Extends AsnStatement to capture document-level information from the
@@ -58,6 +59,39 @@ public class AsnDocStatement extends AsnStatement {
 	}
 
 
+	/**
+	 *  Constructor for the AsnDocStatement object, reading the values written by
+	 *  {@link #writeSnapshot(DataOutput)}.
+	 *
+	 * @param  in            input positioned at a statement snapshot
+	 * @exception  IOException  if the snapshot can not be read
+	 */
+	public AsnDocStatement(DataInput in) throws IOException {
+		super(in);
+		this.title = readString(in);
+		this.fileCreated = readString(in);
+		this.created = readString(in);
+		this.exportVersion = readString(in);
+		this.jurisdiction = readString(in);
+	}
+
+
+	/**
+	 *  Writes the values of this statement, including the document-level values.
+	 *
+	 * @param  out           the output
+	 * @exception  IOException  if the snapshot can not be written
+	 */
+	public void writeSnapshot(DataOutput out) throws IOException {
+		super.writeSnapshot(out);
+		writeString(out, title);
+		writeString(out, fileCreated);
+		writeString(out, created);
+		writeString(out, exportVersion);
+		writeString(out, jurisdiction);
+	}
+
+
 	/**
 	 *  Gets the title attribute of the AsnDocStatement object
 	 *
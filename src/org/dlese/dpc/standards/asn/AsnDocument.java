@@ -24,7 +24,7 @@ import org.dlese.dpc.xml.Dom4jUtils;
 import org.dlese.dpc.xml.schema.SchemaHelper;
 import org.dlese.dpc.util.Files;
 import java.util.*;
-import java.io.File;
+import java.io.*;
 
 /**
  *  Encapsulates an ASN Standards Document by reading the source XML file and
@@ -73,6 +73,72 @@ public class AsnDocument {
 	}
 
 
+	/**
+	 *  Constructor for the AsnDocument object reading a snapshot written by {@link
+	 *  #writeSnapshot(DataOutput)}, which is much faster than reading the XML
+	 *  file. The AsnStatements of the document have no XML elements.
+	 *
+	 * @param  file           the ASN XML file the snapshot was made from
+	 * @param  in             input positioned at the snapshot
+	 * @exception  Exception  if the snapshot can not be read
+	 */
+	public AsnDocument(File file, DataInput in) throws Exception {
+		this.asnHelper = AsnHelper.getInstance();
+		this.path = file.getCanonicalPath();
+		map = new HashMap();
+
+		this.identifier = AsnStatement.readString(in);
+		this.fileCreated = AsnStatement.readString(in);
+		this.created = AsnStatement.readString(in);
+		this.title = AsnStatement.readString(in);
+		this.description = AsnStatement.readString(in);
+		this.authorPurl = AsnStatement.readString(in);
+		this.author = AsnStatement.readString(in);
+		this.topicPurl = AsnStatement.readString(in);
+		this.topic = AsnStatement.readString(in);
+		this.version = AsnStatement.readString(in);
+
+		RootAsnStandard root = new RootAsnStandard(new AsnDocStatement(in), this);
+		map.put(root.getId(), root);
+		int numStatements = in.readInt();
+		for (int i = 0; i < numStatements; i++) {
+			AsnStandard std = this.makeAsnStandard(new AsnStatement(in));
+			map.put(std.getId(), std);
+		}
+	}
+
+
+	/**
+	 *  Writes the document values and statements, so that the document can be
+	 *  read back with {@link #AsnDocument(File, DataInput)} without parsing the
+	 *  XML file.
+	 *
+	 * @param  out           the output
+	 * @exception  IOException  if the snapshot can not be written
+	 */
+	public void writeSnapshot(DataOutput out) throws IOException {
+		AsnStatement.writeString(out, identifier);
+		AsnStatement.writeString(out, fileCreated);
+		AsnStatement.writeString(out, created);
+		AsnStatement.writeString(out, title);
+		AsnStatement.writeString(out, description);
+		AsnStatement.writeString(out, authorPurl);
+		AsnStatement.writeString(out, author);
+		AsnStatement.writeString(out, topicPurl);
+		AsnStatement.writeString(out, topic);
+		AsnStatement.writeString(out, version);
+
+		AsnStandard root = getRootStandard();
+		root.getAsnStatement().writeSnapshot(out);
+		out.writeInt(map.size() - 1);
+		for (Iterator i = map.values().iterator(); i.hasNext(); ) {
+			AsnStandard std = (AsnStandard) i.next();
+			if (std != root)
+				std.getAsnStatement().writeSnapshot(out);
+		}
+	}
+
+
 	/**
 	 *  Gets the path attribute of the AsnDocument object
 	 *
@@ -315,7 +381,18 @@ public class AsnDocument {
 	 * @return    AsnStandard instance created from statement element
 	 */
 	private AsnStandard makeAsnStandard(Element e) {
-		AsnStatement stmnt = new AsnStatement (e);
+		return makeAsnStandard(new AsnStatement (e));
+	}
+
+
+	/**
+	 *  Creates an AsnStandard instance for the provided statement based on the
+	 *  AsnDocuments authorPurl attribute
+	 *
+	 * @param  stmnt  statement from the XML document or a snapshot
+	 * @return        AsnStandard instance for the statement
+	 */
+	private AsnStandard makeAsnStandard(AsnStatement stmnt) {
 		AsnStandard std = null;
 		if (authorIsColorado()) {
 			std = new ColoradoBenchmark(stmnt, this);
@@ -393,8 +470,6 @@ public class AsnDocument {
 		}
 
 		doc.destroy();
-		System.runFinalization();
-		System.gc();
 	}
 
 
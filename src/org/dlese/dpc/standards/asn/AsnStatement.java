@@ -25,6 +25,7 @@ import org.dlese.dpc.util.strings.FindAndReplace;
 import java.util.regex.*;
 
 import java.util.*;
+import java.io.*;
 
 /**
  *  Encapsulates a single statement of an ASN Standards Document or ASN Resolver
@@ -70,10 +71,97 @@ public class AsnStatement {
 		setGradeLevels();
 	}
 
+	/**
+	 *  Constructor for the AsnStatement object, reading the values written by
+	 *  {@link #writeSnapshot(DataOutput)}. The statement has no element.
+	 *
+	 * @param  in            input positioned at a statement snapshot
+	 * @exception  IOException  if the snapshot can not be read
+	 */
+	public AsnStatement(DataInput in) throws IOException {
+		this.element = null;
+		itemIdentifier = readString(in);
+		isChildOf = readString(in);
+		isPartOf = readString(in);
+		subject = readString(in);
+		description = readString(in);
+		startGradeLevel = in.readInt();
+		endGradeLevel = in.readInt();
+		int numChildren = in.readInt();
+		children = new ArrayList(numChildren);
+		for (int i = 0; i < numChildren; i++)
+			children.add(readString(in));
+	}
+
+
+	/**
+	 *  Gets the XML element for this statement, or null if the statement was
+	 *  read from a snapshot.
+	 *
+	 * @return    The element value
+	 */
 	public Element getElement () {
 		return this.element;
 	}
 
+
+	/**
+	 *  Writes the values of this statement, so that it can be read back with
+	 *  {@link #AsnStatement(DataInput)} without the XML.
+	 *
+	 * @param  out           the output
+	 * @exception  IOException  if the snapshot can not be written
+	 */
+	public void writeSnapshot(DataOutput out) throws IOException {
+		writeString(out, itemIdentifier);
+		writeString(out, isChildOf);
+		writeString(out, isPartOf);
+		writeString(out, subject);
+		writeString(out, description);
+		out.writeInt(startGradeLevel);
+		out.writeInt(endGradeLevel);
+		List childIds = getChildrenIDs();
+		out.writeInt(childIds.size());
+		for (Iterator i = childIds.iterator(); i.hasNext(); )
+			writeString(out, (String) i.next());
+	}
+
+
+	/**
+	 *  Writes a String that may be null or longer than DataOutput.writeUTF
+	 *  allows.
+	 *
+	 * @param  out           the output
+	 * @param  s             the String
+	 * @exception  IOException  if the String can not be written
+	 */
+	static void writeString(DataOutput out, String s) throws IOException {
+		if (s == null) {
+			out.writeInt(-1);
+			return;
+		}
+		byte[] bytes = s.getBytes("UTF-8");
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+
+	/**
+	 *  Reads a String written by {@link #writeString(DataOutput, String)}.
+	 *
+	 * @param  in            the input
+	 * @return               the String, or null
+	 * @exception  IOException  if the String can not be read
+	 */
+	static String readString(DataInput in) throws IOException {
+		int length = in.readInt();
+		if (length < 0)
+			return null;
+		byte[] bytes = new byte[length];
+		in.readFully(bytes);
+		return new String(bytes, "UTF-8");
+	}
+
 	/**
 	 *  Gets the childrenIDs attribute of the AsnStatement object
 	 *
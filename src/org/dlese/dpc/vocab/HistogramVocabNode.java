@@ -127,11 +127,14 @@ public class HistogramVocabNode {
 		int ret = 0;
 		if ( vocabNode.getList().item.size() == 0 ) {                 // Sub-headers are not currently tallied
 			String addedQuery = "";
+			String nodeQuery = null;
 			if ( vocabNode.getFieldId().equals( "ky" ) ) {
-				addedQuery = addQuery + " AND " + DDSQueryAction.getCollectionQueryTerm( vocabNode.getId() );
+				nodeQuery = DDSQueryAction.getCollectionQueryTerm( vocabNode.getId() );
+				addedQuery = addQuery + " AND " + nodeQuery;
 			}
 			else if ( vocabNode.getId() != null ) {
-				addedQuery = addQuery + " AND " + vocabNode.getFieldId() + ":" + vocabNode.getId();
+				nodeQuery = vocabNode.getFieldId() + ":" + vocabNode.getId();
+				addedQuery = addQuery + " AND " + nodeQuery;
 			}
 			if ( vocabNode.getDivider() ) {
 				ret = 0;
@@ -141,7 +144,9 @@ public class HistogramVocabNode {
 					ret = ( (Integer)indexTotals.get( addedQuery ) ).intValue();
 				}
 				else {
-					ret = index.getNumDocs( rm.getDiscoverableItemsQuery() + addedQuery );
+					// The constraint is cached as a doc set and intersected with each node's set:
+					String constraint = rm.getDiscoverableItemsQuery() + ( nodeQuery == null ? "" : addQuery );
+					ret = index.getNumDocs( new String[]{ nodeQuery }, constraint )[0];
 					indexTotals.put( addedQuery, new Integer( ret ) );
 				}
 			}
@@ -36,6 +36,16 @@ public final class MetadataVocabInputState implements Serializable {
 	 */
 	public MetadataVocabInputState() { }
 
+	/**
+	 *  Constructor for a MetadataVocabInputState with the given selections.
+	 *
+	 * @param  state  the vocab part of a query string, in the form returned by
+	 *      getState(), for example "&amp;field=value&amp;"
+	 */
+	MetadataVocabInputState( String state ) {
+		vocabQueryString.append( state );
+	}
+
 	/**
 	 *  Sets the state attribute of the MetadataVocabInputState object
 	 *
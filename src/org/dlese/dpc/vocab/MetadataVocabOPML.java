@@ -57,7 +57,13 @@ import java.text.*;
  *  loaded version is assumed.</p> Instances of this class are loaded via
  *  LoadMetadataOPML and are placed into application scope via
  *  MetadataVocabServlet as an attribute named according to the context
- *  parameter "metadataVocabInstanceAttributeName".</p>
+ *  parameter "metadataVocabInstanceAttributeName".</p> <p>
+ *
+ *  An instance is not changed once it has been loaded, and a reload replaces
+ *  it in application scope with a new instance, so lookups and UI renderings
+ *  are made without locking. Rendered UI fragments are cached by system, group
+ *  and the other rendering arguments, and only the selected inputs are filled
+ *  in for each request.</p>
  *
  * @author    Ryan Deardorff
  */
@@ -81,22 +87,22 @@ public class MetadataVocabOPML implements MetadataVocab, Serializable {
 	private OPMLTree currentTree = null;                           // one of many trees hashed into the trees maps
 	private OPMLTree currentDefaultTree = null;                    // corresponding tree for default audience (has ids)
 	private OPMLTree.TreeNode currentNode = null;
-	private HashMap descriptions = new HashMap();
-	// mappings for quick access w/out tree traversal:
-	private static HashMap fieldValueIdPairExists = new HashMap(); // does the given field/value Id pair exist?
-	private static HashMap translatedFields = new HashMap();       // NAME/ID FIELD translations
-	private static HashMap translatedValues = new HashMap();       // NAME/ID VALUE translations
-	private static HashMap translatedFieldPaths = new HashMap();   // PATHNAME/ID FIELD translations
-	private static HashMap translatedValuePaths = new HashMap();   // PATHNAME/ID VALUE translations
-	private static HashMap uiFieldLabels = new HashMap();          // metadata FIELD NAME/ID -> UI label
-	private static HashMap uiValueLabels = new HashMap();          // metadata VALUE NAME/ID -> UI label
-	private static HashMap uiValueDisplay = new HashMap();         // metadata VALUE NAME/ID -> UI "display" attribute
-	private static HashMap currentVersions = new HashMap();        // stores most recently loaded framework version numbers
-	private static HashMap vocabNodes = new HashMap();             // stores VocabNode representations
-
-	private HashMap vocabTreeMenuCache = new HashMap();            // cache the JavaScript vocab flyout code
-	private HashMap vocabTreeMenuCacheDate = new HashMap();        // date of current cache
-	private final static int VOCAB_TREE_CACHE_TIME = 3000000;      // how long before refreshing cache (5 mins)
+	private volatile HashMap descriptions = new HashMap();         // node descriptions, replaced (never changed) on add
+	// mappings for quick access w/out tree traversal. These belong to the instance, so that a reload fills
+	// the maps of a new instance while pages go on reading the maps of the one in application scope:
+	private HashMap fieldValueIdPairExists = new HashMap();        // does the given field/value Id pair exist?
+	private HashMap translatedFields = new HashMap();              // NAME/ID FIELD translations
+	private HashMap translatedValues = new HashMap();              // NAME/ID VALUE translations
+	private HashMap translatedFieldPaths = new HashMap();          // PATHNAME/ID FIELD translations
+	private HashMap translatedValuePaths = new HashMap();          // PATHNAME/ID VALUE translations
+	private HashMap uiFieldLabels = new HashMap();                 // metadata FIELD NAME/ID -> UI label
+	private HashMap uiValueLabels = new HashMap();                 // metadata VALUE NAME/ID -> UI label
+	private HashMap uiValueDisplay = new HashMap();                // metadata VALUE NAME/ID -> UI "display" attribute
+	private HashMap currentVersions = new HashMap();               // stores most recently loaded framework version numbers
+	private HashMap vocabNodes = new HashMap();                    // stores VocabNode representations
+
+	private volatile HashMap fragments = new HashMap();            // rendered UI fragments, replaced (never changed) on add
+	private final static int VOCAB_TREE_CACHE_TIME = 3000000;      // how long before re-rendering a tree menu (50 mins)
 
 	private ArrayList messages = new ArrayList();
 
@@ -157,6 +163,19 @@ public class MetadataVocabOPML implements MetadataVocab, Serializable {
 	 * @param  subGroup  The new node value
 	 */
 	private void setNode( String subGroup ) {
+		currentNode = getGroupNode( currentNode, subGroup );
+	}
+
+	/**
+	 *  Finds the node of the given sub-group beneath the given node, without
+	 *  changing the current tree or node.
+	 *
+	 * @param  list      node to search beneath
+	 * @param  subGroup  colon-seperated sub-group specifier
+	 * @return           the sub-group node, or the given node if there is no such
+	 *      sub-group
+	 */
+	private OPMLTree.TreeNode getGroupNode( OPMLTree.TreeNode list, String subGroup ) {
 		String groupMatch = subGroup;
 		int ind = groupMatch.indexOf( ":" );
 		if ( ind > -1 ) {
@@ -166,17 +185,51 @@ public class MetadataVocabOPML implements MetadataVocab, Serializable {
 		else {
 			subGroup = "";
 		}
-		for ( int i = 0; i < currentNode.treeNodes.size(); i++ ) {
-			OPMLTree.TreeNode node = (OPMLTree.TreeNode)currentNode.treeNodes.get( i );
+		for ( int i = 0; i < list.treeNodes.size(); i++ ) {
+			OPMLTree.TreeNode node = (OPMLTree.TreeNode)list.treeNodes.get( i );
 			if ( ( node.getAttribute( "text" ) != null ) &&
 				( (String)node.getAttribute( "text" ) ).equals( groupMatch ) ) {
-				i = currentNode.treeNodes.size();
-				currentNode = node;
 				if ( subGroup.length() > 0 ) {
-					setNode( subGroup );
+					return getGroupNode( node, subGroup );
 				}
+				return node;
 			}
 		}
+		return list;
+	}
+
+	/**
+	 *  Finds the node of the given vocab group, without changing the current tree
+	 *  or node, so that several threads may render the vocabulary at once.
+	 *
+	 * @param  key       system (framework/version/audience/language/id) key
+	 * @param  subGroup  colon-seperated sub-group specifier, or null for the top
+	 *      of the tree
+	 * @return           the group node, or null if the tree does not exist
+	 */
+	private OPMLTree.TreeNode getGroupNode( String key, String subGroup ) {
+		OPMLTree tree = ( key == null ) ? null : (OPMLTree)trees.get( key );
+		if ( tree == null ) {
+			return null;
+		}
+		if ( subGroup == null ) {
+			return tree.topMenu;
+		}
+		return getGroupNode( tree.topMenu, subGroup );
+	}
+
+	/**
+	 *  Gets the metadata id (input name) at the end of a system key
+	 *
+	 * @param  key  system (framework/version/audience/language/id) key
+	 * @return      metadata id
+	 */
+	private String getInputName( String key ) {
+		int ind = key.lastIndexOf( "/" );
+		if ( ind > -1 ) {
+			return key.substring( ind + 1, key.length() );
+		}
+		return "";
 	}
 
 	/**
@@ -297,8 +350,8 @@ public class MetadataVocabOPML implements MetadataVocab, Serializable {
 	 * @return                The encoded value Id
 	 * @exception  Exception
 	 */
-	public synchronized String getFieldValueSystemId( String field,
-	                                                  String value ) throws Exception {
+	public String getFieldValueSystemId( String field,
+	                                     String value ) throws Exception {
 		String ret = "";
 		if ( ( value != null ) && !value.equals( "" ) ) {
 			ret = (String)translatedValues.get( field + value );
@@ -317,7 +370,7 @@ public class MetadataVocabOPML implements MetadataVocab, Serializable {
 	 * @return                The encoded field Id
 	 * @exception  Exception
 	 */
-	public synchronized String getFieldSystemId( String field ) throws Exception {
+	public String getFieldSystemId( String field ) throws Exception {
 		String ret = (String)translatedFields.get( field );
 		if ( ret == null ) {
 			throw new Exception( "Vocabulary Manager: getFieldSystemId is NULL for field " + field );
@@ -370,10 +423,10 @@ public class MetadataVocabOPML implements MetadataVocab, Serializable {
 	 * @return                The user interface label associated with the given
 	 *      vocabulary value
 	 */
-	public synchronized String getUiLabelOf( String system,
-	                                         String metadataField,
-	                                         String metadataValue,
-	                                         boolean abbreviated ) {
+	public String getUiLabelOf( String system,
+	                            String metadataField,
+	                            String metadataValue,
+	                            boolean abbreviated ) {
 		String ret = null;
 		if ( metadataValue == null ) {
 			metadataValue = "";
@@ -447,8 +500,10 @@ public class MetadataVocabOPML implements MetadataVocab, Serializable {
 	public ArrayList getVocabNodes( String system,
 	                                String group ) {
 		ArrayList ret = new ArrayList();
-		String inputName = setCurrentTree( system, group );
-		iterateVocabNodes( currentNode, ret );
+		OPMLTree.TreeNode groupNode = getGroupNode( system, group );
+		if ( groupNode != null ) {
+			iterateVocabNodes( groupNode, ret );
+		}
 		return ret;
 	}
 
@@ -499,21 +554,26 @@ public class MetadataVocabOPML implements MetadataVocab, Serializable {
 	 * @param  inputState
 	 * @return             the HTML code
 	 */
-	public synchronized String getVocabCheckboxes( String system,
-	                                               String group,
-	                                               int size,
-	                                               String tdWidth,
-	                                               boolean skipTopRow,
-	                                               MetadataVocabInputState inputState ) {
-		StringBuffer ret = new StringBuffer();
-		String inputName = setCurrentTree( system, group );
-		if ( inputName.startsWith( "ERROR:" ) ) {
-			return errorDisplay( inputName, "getVocabCheckboxes" );
+	public String getVocabCheckboxes( String system,
+	                                  String group,
+	                                  int size,
+	                                  String tdWidth,
+	                                  boolean skipTopRow,
+	                                  MetadataVocabInputState inputState ) {
+		String key = "checkboxes/" + system + "/" + group + "/" + size + "/" + tdWidth + "/" + skipTopRow;
+		VocabFragment fragment = getFragment( key );
+		if ( fragment == null ) {
+			OPMLTree.TreeNode groupNode = getGroupNode( system, group );
+			if ( groupNode == null ) {
+				return errorDisplay( groupError( system ), "getVocabCheckboxes" );
+			}
+			fragment = new VocabFragment();
+			fragment.append( "<table border='0' cellpadding='0' cellspacing='0' class='dlese_checkboxesTable'><td width='" + tdWidth + "' valign='top'>" );
+			vocabCheckboxes( groupNode, size, tdWidth, fragment, getInputName( system ), new CBCount( 0 ), skipTopRow );
+			fragment.append( "</td></table>" );
+			putFragment( key, fragment.done() );
 		}
-		ret.append( "<table border='0' cellpadding='0' cellspacing='0' class='dlese_checkboxesTable'><td width='" + tdWidth + "' valign='top'>" )
-			.append( vocabCheckboxes( currentNode, size, tdWidth, inputState, inputName, new CBCount( 0 ), skipTopRow ) )
-			.append( "</td></table>" );
-		return ret.toString();
+		return fragment.render( inputState );
 	}
 
 	/**
@@ -522,61 +582,54 @@ public class MetadataVocabOPML implements MetadataVocab, Serializable {
 	 * @param  list
 	 * @param  size
 	 * @param  tdWidth
-	 * @param  inputState
+	 * @param  fragment    the fragment being rendered
 	 * @param  name
 	 * @param  count
 	 * @param  skipTopRow
-	 * @return
 	 */
-	private synchronized String vocabCheckboxes( OPMLTree.TreeNode list,
-	                                             int size,
-	                                             String tdWidth,
-	                                             MetadataVocabInputState inputState,
-	                                             String name,
-	                                             CBCount count,
-	                                             boolean skipTopRow ) {
-		StringBuffer ret = new StringBuffer();
+	private void vocabCheckboxes( OPMLTree.TreeNode list,
+	                              int size,
+	                              String tdWidth,
+	                              VocabFragment fragment,
+	                              String name,
+	                              CBCount count,
+	                              boolean skipTopRow ) {
 		boolean isHeading = false;
 		for ( int i = 0; i < list.treeNodes.size(); i++ ) {
 			if ( ( count.value != 0 ) && ( ( count.value % size ) == 0 ) ) {
-				ret.append( "</td><td width='" + tdWidth + "' valign='top'>" );
+				fragment.append( "</td><td width='" + tdWidth + "' valign='top'>" );
 				if ( skipTopRow ) {
-					ret.append( "<div class='vocabCheckboxLabels'>&nbsp;</div>" );
+					fragment.append( "<div class='vocabCheckboxLabels'>&nbsp;</div>" );
 					count.value++;
 				}
 			}
 			count.value++;
 			OPMLTree.TreeNode node = (OPMLTree.TreeNode)list.treeNodes.get( i );
 			if ( node.isHr ) {
-				ret.append( "<hr/>" );
+				fragment.append( "<hr/>" );
 			}
 			else if ( !node.isComment ) {
 				String nodeId = getNodeId( node );
 				isHeading = ( node.treeNodes.size() > 0 ) ? true : false;
 				if ( isHeading ) {
-					ret.append( "<div class='subCatHeading'>" );
+					fragment.append( "<div class='subCatHeading'>" );
 				}
 				else if ( ( node.getAttribute( "display" ) == null ) ||
 					( !node.getAttribute( "display" ).equals( "false" ) ) ) {
-					String chk = "";
-					if ( ( inputState != null ) &&
-						( inputState.isSelected( getFieldId( node.getHeader() ),
-						(String)node.getAttribute( "id" ) ) ) ) {
-						chk = " checked";
-					}
-					ret.append( "<div class='vocabCheckboxLabels'><input type='checkbox'" )
-						.append( chk ).append( " name='" ).append( name ).append( "' value=\"" ).append( nodeId ).append( "\" id=\"" ).append( name ).append( nodeId )
+					fragment.append( "<div class='vocabCheckboxLabels'><input type='checkbox'" );
+					fragment.appendSelected( getFieldId( node.getHeader() ), (String)node.getAttribute( "id" ), " checked" );
+					fragment.append( " name='" ).append( name ).append( "' value=\"" ).append( nodeId ).append( "\" id=\"" ).append( name ).append( nodeId )
 						.append( "\">" );
 				}
 				if ( isHeading ) {
-					ret.append( (String)node.getAttribute( "text" )
-						 + ":</div><div class='subCatBlock'>\n" )
-						.append( vocabCheckboxes( node, size, tdWidth, inputState, name, count, skipTopRow ) )
-						.append( "</div>\n" );
+					fragment.append( (String)node.getAttribute( "text" )
+						 + ":</div><div class='subCatBlock'>\n" );
+					vocabCheckboxes( node, size, tdWidth, fragment, name, count, skipTopRow );
+					fragment.append( "</div>\n" );
 				}
 				else if ( ( node.getAttribute( "display" ) == null ) ||
 					( !( (String)node.getAttribute( "display" ) ).equals( "false" ) ) ) {
-					ret.append( "<label for=\"" )
+					fragment.append( "<label for=\"" )
 						.append( name )
 						.append( nodeId )
 						.append( "\">" )
@@ -585,7 +638,6 @@ public class MetadataVocabOPML implements MetadataVocab, Serializable {
 				}
 			}
 		}
-		return ret.toString();
 	}
 
 	/**
@@ -626,39 +678,37 @@ public class MetadataVocabOPML implements MetadataVocab, Serializable {
 	 * @param  language
 	 * @return           the Javascript code defining the menu
 	 */
-	public synchronized String getVocabTreeMenu( String system,
-	                                             String language,
-	                                             String group,
-	                                             PageContext page ) {
-		if ( vocabTreeMenuCache.get( system + language + group ) != null ) {
-			Date now = new Date();
-			if ( ( now.getTime() - ( (Date)vocabTreeMenuCacheDate.get( system + language + group ) ).getTime() )
-				 < ( VOCAB_TREE_CACHE_TIME ) ) {
-				return (String)vocabTreeMenuCache.get( system + language + group );
-			}
-		}
-		StringBuffer ret = new StringBuffer();
-		String inputName = setCurrentTree( system, group );
-		if ( inputName.startsWith( "ERROR:" ) ) {
-			return errorDisplay( inputName, "getVocabTreeMenu" );
-		}
+	public String getVocabTreeMenu( String system,
+	                                String language,
+	                                String group,
+	                                PageContext page ) {
+		String key = "treeMenu/" + system + "/" + language + "/" + group;
+		VocabFragment fragment = getFragment( key );
+		if ( ( fragment != null ) &&
+			( ( System.currentTimeMillis() - fragment.created ) < VOCAB_TREE_CACHE_TIME ) ) {
+			return fragment.render( null );
+		}
+		OPMLTree.TreeNode groupNode = getGroupNode( system, group );
+		if ( groupNode == null ) {
+			return errorDisplay( groupError( system ), "getVocabTreeMenu" );
+		}
+		fragment = new VocabFragment();
 		try {
-			String abbrevLabel = currentNode.getAttribute( "textAbbrev" );
+			String abbrevLabel = groupNode.getAttribute( "textAbbrev" );
 			if ( abbrevLabel == null ) {
-				abbrevLabel = (String)currentNode.getAttribute( "text" );
+				abbrevLabel = (String)groupNode.getAttribute( "text" );
 			}
-			ret.append( "var tm_" + currentNode.fieldId + "0 = new dlese_vocabList( \"tm_" + currentNode.fieldId + "0\", 0, \""
-				 + currentNode.getAttribute( "text" ) + "\", \"" + abbrevLabel + "\" );\n" );
+			fragment.append( "var tm_" + groupNode.fieldId + "0 = new dlese_vocabList( \"tm_" + groupNode.fieldId + "0\", 0, \""
+				 + groupNode.getAttribute( "text" ) + "\", \"" + abbrevLabel + "\" );\n" );
 		}
 		catch ( Exception e ) {
 			e.printStackTrace();
 		}
-		String setList = "\ndlese_setList( \"" + currentNode.fieldId + "\" );\n";
-		ret.append( vocabTreeMenu( currentNode, currentNode.fieldId + "0", currentNode.fieldId, page ) );
-		ret.append( setList );
-		vocabTreeMenuCache.put( system + language + group, ret.toString() );
-		vocabTreeMenuCacheDate.put( system + language + group, new Date() );
-		return ret.toString();
+		String setList = "\ndlese_setList( \"" + groupNode.fieldId + "\" );\n";
+		fragment.append( vocabTreeMenu( groupNode, groupNode.fieldId + "0", groupNode.fieldId, page ) );
+		fragment.append( setList );
+		putFragment( key, fragment.done() );
+		return fragment.render( null );
 	}
 
 	/**
@@ -670,10 +720,10 @@ public class MetadataVocabOPML implements MetadataVocab, Serializable {
 	 * @param  page
 	 * @return
 	 */
-	private synchronized String vocabTreeMenu( OPMLTree.TreeNode list,
-	                                           String id,
-	                                           String fieldId,
-	                                           PageContext page ) {
+	private String vocabTreeMenu( OPMLTree.TreeNode list,
+	                              String id,
+	                              String fieldId,
+	                              PageContext page ) {
 		StringBuffer ret = new StringBuffer();
 		boolean isHeading = false;
 		int jsCount = 0;
@@ -736,51 +786,87 @@ public class MetadataVocabOPML implements MetadataVocab, Serializable {
 	 * @param  inputState
 	 * @return             the HTML code
 	 */
-	public synchronized String getVocabHiddenInputs( String system,
-	                                                 String group,
-	                                                 MetadataVocabInputState inputState ) {
-		StringBuffer ret = new StringBuffer();
-		String inputName = setCurrentTree( system, group );
-		if ( inputName.startsWith( "ERROR:" ) ) {
-			return errorDisplay( inputName, "getVocabHiddenInputs" );
+	public String getVocabHiddenInputs( String system,
+	                                    String group,
+	                                    MetadataVocabInputState inputState ) {
+		String key = "hiddenInputs/" + system + "/" + group;
+		VocabFragment fragment = getFragment( key );
+		if ( fragment == null ) {
+			OPMLTree.TreeNode groupNode = getGroupNode( system, group );
+			if ( groupNode == null ) {
+				return errorDisplay( groupError( system ), "getVocabHiddenInputs" );
+			}
+			fragment = new VocabFragment();
+			vocabHiddenInputs( groupNode, fragment );
+			putFragment( key, fragment.done() );
 		}
-		ret.append( vocabHiddenInputs( currentNode, inputState, inputName ) );
-		return ret.toString();
+		return fragment.render( inputState );
 	}
 
 	/**
 	 *  Description of the Method
 	 *
 	 * @param  list
-	 * @param  inputState
-	 * @param  name
-	 * @return
+	 * @param  fragment  the fragment being rendered
 	 */
-	private synchronized String vocabHiddenInputs( OPMLTree.TreeNode list,
-	                                               MetadataVocabInputState inputState,
-	                                               String name ) {
-		StringBuffer ret = new StringBuffer();
+	private void vocabHiddenInputs( OPMLTree.TreeNode list,
+	                                VocabFragment fragment ) {
 		for ( int i = 0; i < list.treeNodes.size(); i++ ) {
 			OPMLTree.TreeNode node = (OPMLTree.TreeNode)list.treeNodes.get( i );
 			if ( !node.isHr && !node.isComment ) {
-				try {
-					String fieldId = node.fieldId;
-					String valueId = (String)node.getAttribute( "id" );
-					if ( ( inputState != null ) && ( inputState.isSelected( fieldId, valueId ) ) ) {
-						ret.append( "<input type='hidden' name='" )
-							.append( fieldId )
-							.append( "' value='" )
-							.append( valueId )
-							.append( "'/>\n" );
-					}
-				}
-				catch ( Exception e ) {}
+				String fieldId = node.fieldId;
+				String valueId = (String)node.getAttribute( "id" );
+				fragment.appendSelected( fieldId, valueId, "<input type='hidden' name='" + fieldId
+					 + "' value='" + valueId + "'/>\n" );
 				if ( node.treeNodes.size() > 0 ) {
-					ret.append( vocabHiddenInputs( node, inputState, name ) );
+					vocabHiddenInputs( node, fragment );
 				}
 			}
 		}
-		return ret.toString();
+	}
+
+	/**
+	 *  Gets the rendered fragment cached under the given key. The map of
+	 *  fragments is replaced, never changed, when a fragment is added, so it is
+	 *  read without locking.
+	 *
+	 * @param  key  method and arguments the fragment was rendered for
+	 * @return      the fragment, or null if it has not been rendered
+	 */
+	private VocabFragment getFragment( String key ) {
+		return (VocabFragment)fragments.get( key );
+	}
+
+	/**
+	 *  Caches a rendered fragment, by replacing the map of fragments with a copy
+	 *  that includes it.
+	 *
+	 * @param  key       method and arguments the fragment was rendered for
+	 * @param  fragment  the fragment
+	 */
+	private synchronized void putFragment( String key, VocabFragment fragment ) {
+		HashMap copy = new HashMap( fragments );
+		copy.put( key, fragment );
+		fragments = copy;
+	}
+
+	/**
+	 *  Gets the number of rendered fragments that are cached
+	 *
+	 * @return    The numCachedFragments value
+	 */
+	public int getNumCachedFragments() {
+		return fragments.size();
+	}
+
+	/**
+	 *  Error message for a vocab group that does not exist
+	 *
+	 * @param  key  system (framework/version/audience/language/id) key
+	 * @return      the error, starting with "ERROR:"
+	 */
+	private String groupError( String key ) {
+		return "ERROR: Vocabulary group \"" + key + "\" does not exist";
 	}
 
 	/**
@@ -1010,6 +1096,87 @@ public class MetadataVocabOPML implements MetadataVocab, Serializable {
 		return ret;
 	}
 
+	/**
+	 *  A rendered UI fragment, which is the same for every request except for
+	 *  the inputs that are selected: the text of the fragment is kept in parts,
+	 *  between slots whose text is included only when the slot's field/value
+	 *  pair is selected in the MetadataVocabInputState. A fragment is not changed
+	 *  once it is done, so it may be rendered by many requests at once.
+	 */
+	static class VocabFragment implements Serializable {
+		long created = System.currentTimeMillis();
+		private ArrayList partList = new ArrayList();
+		private ArrayList slotList = new ArrayList();
+		private StringBuffer current = new StringBuffer();
+		private String[] parts = null;
+		private String[][] slots = null;
+		private int length = 0;
+
+		/**
+		 *  Appends text that does not depend on the selected inputs
+		 *
+		 * @param  text
+		 * @return       this fragment
+		 */
+		VocabFragment append( String text ) {
+			current.append( text );
+			return this;
+		}
+
+		/**
+		 *  Appends text that is included only when the given field/value pair is
+		 *  selected
+		 *
+		 * @param  fieldId
+		 * @param  valueId
+		 * @param  selectedText
+		 */
+		void appendSelected( String fieldId, String valueId, String selectedText ) {
+			partList.add( current.toString() );
+			current.setLength( 0 );
+			slotList.add( new String[]{fieldId, valueId, selectedText} );
+		}
+
+		/**
+		 *  Ends the rendering of the fragment
+		 *
+		 * @return    this fragment
+		 */
+		VocabFragment done() {
+			partList.add( current.toString() );
+			parts = (String[])partList.toArray( new String[]{} );
+			slots = (String[][])slotList.toArray( new String[][]{} );
+			for ( int i = 0; i < parts.length; i++ ) {
+				length += parts[i].length();
+			}
+			partList = null;
+			slotList = null;
+			current = null;
+			return this;
+		}
+
+		/**
+		 *  Renders the fragment for the given input state
+		 *
+		 * @param  inputState  the selected inputs, or null if none are selected
+		 * @return             the HTML or Javascript code
+		 */
+		String render( MetadataVocabInputState inputState ) {
+			if ( slots.length == 0 ) {
+				return parts[0];
+			}
+			StringBuffer ret = new StringBuffer( length + 64 );
+			ret.append( parts[0] );
+			for ( int i = 0; i < slots.length; i++ ) {
+				if ( ( inputState != null ) && inputState.isSelected( slots[i][0], slots[i][1] ) ) {
+					ret.append( slots[i][2] );
+				}
+				ret.append( parts[i + 1] );
+			}
+			return ret.toString();
+		}
+	}
+
 	/**
 	 *  CBCount = CheckBoxesCount, used to render Javascript "All | Clear" links
 	 */
@@ -1238,13 +1405,16 @@ public class MetadataVocabOPML implements MetadataVocab, Serializable {
 	}
 
 	/**
-	 *  Gets the description from HTTP request of SRC URL
+	 *  Gets the description from HTTP request of SRC URL. Descriptions are
+	 *  cached once they have been fetched. The request is made without holding
+	 *  any lock, so two pages that need the same description at once may both
+	 *  fetch it.
 	 *
 	 * @param  page
 	 * @param  node
 	 * @return       The description value
 	 */
-	public synchronized String getDescription( OPMLTree.TreeNode node, PageContext page ) {
+	public String getDescription( OPMLTree.TreeNode node, PageContext page ) {
 		String description = (String)descriptions.get( node );
 		String src = node.getAttribute( "url" );
 		if ( ( description == null ) || ( description.equals( "" ) ) ) {
@@ -1281,7 +1451,7 @@ public class MetadataVocabOPML implements MetadataVocab, Serializable {
 			}
 			if ( description != null ) {
 				description = description.replaceAll( "[\\r\\n]", " " );
-				descriptions.put( node, description );
+				putDescription( node, description );
 			}
 		}
 		if ( description == null ) {
@@ -1290,6 +1460,19 @@ public class MetadataVocabOPML implements MetadataVocab, Serializable {
 		return description;
 	}
 
+	/**
+	 *  Caches the description of a node, by replacing the map of descriptions
+	 *  with a copy that includes it.
+	 *
+	 * @param  node         the node
+	 * @param  description  its description
+	 */
+	private synchronized void putDescription( OPMLTree.TreeNode node, String description ) {
+		HashMap copy = new HashMap( descriptions );
+		copy.put( node, description );
+		descriptions = copy;
+	}
+
 	/**
 	 *  Get the most recently loaded metadata format version number
 	 *
@@ -0,0 +1,107 @@
+/*
+	Copyright 2017 Digital Learning Sciences (DLS) at the
+	University Corporation for Atmospheric Research (UCAR),
+	P.O. Box 3000, Boulder, CO 80307
+
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+
+	http://www.apache.org/licenses/LICENSE-2.0
+
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+package org.dlese.dpc.vocab;
+
+import junit.framework.*;
+
+/**
+ *  Tests the rendered UI fragments that {@link MetadataVocabOPML} caches: the
+ *  text between slots is always rendered, and the text of a slot only when its
+ *  field/value pair is selected in the {@link MetadataVocabInputState}.
+ *
+ * @author    Ryan Deardorff
+ */
+public class MetadataVocabOPMLTests extends TestCase {
+
+	/**
+	 *  A unit test suite for JUnit
+	 *
+	 * @return    The test suite
+	 */
+	public static Test suite() {
+		// Use java reflection to run all test methods in this class:
+		prtln( "" );
+		return new TestSuite( MetadataVocabOPMLTests.class );
+	}
+
+	/**
+	 *  A fragment without slots renders the same text for any input state.
+	 */
+	public void test_fragment_without_slots() {
+		MetadataVocabOPML.VocabFragment fragment = new MetadataVocabOPML.VocabFragment();
+		fragment.append( "<div>" ).append( "text" ).append( "</div>" ).done();
+		assertEquals( "<div>text</div>", fragment.render( null ) );
+		assertEquals( "<div>text</div>", fragment.render( new MetadataVocabInputState( "&gr=01&" ) ) );
+	}
+
+	/**
+	 *  Slot text is rendered in place only for the selected pairs.
+	 */
+	public void test_fragment_slots() {
+		MetadataVocabOPML.VocabFragment fragment = new MetadataVocabOPML.VocabFragment();
+		fragment.append( "<input name='gr' value='01'" );
+		fragment.appendSelected( "gr", "01", " checked" );
+		fragment.append( "/>\n<input name='gr' value='02'" );
+		fragment.appendSelected( "gr", "02", " checked" );
+		fragment.append( "/>\n" );
+		fragment.appendSelected( "su", "10", "<input type='hidden' name='su' value='10'/>\n" );
+		fragment.done();
+
+		String none = "<input name='gr' value='01'/>\n<input name='gr' value='02'/>\n";
+		assertEquals( none, fragment.render( null ) );
+		assertEquals( none, fragment.render( new MetadataVocabInputState( "&" ) ) );
+		assertEquals( "<input name='gr' value='01'/>\n<input name='gr' value='02' checked/>\n",
+			fragment.render( new MetadataVocabInputState( "&gr=02&" ) ) );
+		assertEquals( "<input name='gr' value='01' checked/>\n<input name='gr' value='02' checked/>\n"
+			 + "<input type='hidden' name='su' value='10'/>\n",
+			fragment.render( new MetadataVocabInputState( "&su=10&gr=01&gr=02&" ) ) );
+
+		// A value is not selected by another value that it is a prefix of:
+		assertEquals( none, fragment.render( new MetadataVocabInputState( "&gr=012&su=1&" ) ) );
+
+		// Rendering does not change the fragment:
+		assertEquals( none, fragment.render( null ) );
+	}
+
+	/**
+	 *  Slots that are next to each other, or at the start, leave empty parts
+	 *  between them.
+	 */
+	public void test_adjacent_slots() {
+		MetadataVocabOPML.VocabFragment fragment = new MetadataVocabOPML.VocabFragment();
+		fragment.appendSelected( "a", "1", "A" );
+		fragment.appendSelected( "b", "2", "B" );
+		fragment.done();
+		assertEquals( "", fragment.render( null ) );
+		assertEquals( "B", fragment.render( new MetadataVocabInputState( "&b=2&" ) ) );
+		assertEquals( "AB", fragment.render( new MetadataVocabInputState( "&a=1&b=2&" ) ) );
+	}
+
+	private static void prtln( String s ) {
+		System.out.println( s );
+	}
+
+	/**
+	 *  Main method for running this single suite from the command line
+	 *
+	 * @param  args  The command line arguments
+	 */
+	public static void main( String[] args ) {
+		junit.textui.TestRunner.run( suite() );
+	}
+}
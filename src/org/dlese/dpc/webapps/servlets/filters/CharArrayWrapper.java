@@ -36,6 +36,7 @@ public class CharArrayWrapper extends HttpServletResponseWrapper
 	private String contentType;
 	private int status_code;
 	private String error_msg = null;
+	private boolean outputStreamUsed = false;
 
 
 	/**
@@ -61,6 +62,30 @@ public class CharArrayWrapper extends HttpServletResponseWrapper
 	}
 
 
+	/**
+	 *  Gets the OutputStream of the wrapped response. Content written here bypasses the char[] and goes
+	 *  directly to the client, which is used by servlets that stream their own (possibly gzipped) response.
+	 *
+	 * @return                  The outputStream value
+	 * @exception  IOException  If error
+	 */
+	public ServletOutputStream getOutputStream() throws IOException {
+		outputStreamUsed = true;
+		return super.getOutputStream();
+	}
+
+
+	/**
+	 *  Determines whether the servlet or JSP wrote its response directly to the OutputStream rather than to
+	 *  the char[], in which case the Filter must not write the char[] content to the client.
+	 *
+	 * @return    True if the OutputStream was used
+	 */
+	public boolean isOutputStreamUsed() {
+		return outputStreamUsed;
+	}
+
+
 	/**
 	 *  Convert to String.
 	 *
@@ -71,7 +71,9 @@ public final class GzipFilter extends FilterCore {
 			res.setHeader("Content-Encoding", "gzip");
 			// Invoke the response, storing output into the wrapper
 			chain.doFilter(req, respWrapper);
-			writeGzipResponse(respWrapper.toCharArray(), res);
+			// The servlet may have already streamed the gzipped response itself:
+			if (!respWrapper.isOutputStreamUsed())
+				writeGzipResponse(respWrapper.toCharArray(), res);
 			res.getOutputStream().close();
 		}
 	}
@@ -233,7 +233,9 @@ public class XMLPostProcessingFilter extends FilterCore {
 				if (handleErrorCodes(res, respWrapper))
 					return;
 
-				writeGzipResponse(respWrapper.toCharArray(), res);
+				// The servlet may have already streamed the gzipped response itself:
+				if (!respWrapper.isOutputStreamUsed())
+					writeGzipResponse(respWrapper.toCharArray(), res);
 			}
 		}
 	}
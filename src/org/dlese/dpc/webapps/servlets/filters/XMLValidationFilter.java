@@ -134,7 +134,9 @@ public final class XMLValidationFilter extends FilterCore {
 				if (handleErrorCodes(res, respWrapper))
 					return;
 
-				writeGzipResponse(respWrapper.toCharArray(), res);
+				// The servlet may have already streamed the gzipped response itself:
+				if (!respWrapper.isOutputStreamUsed())
+					writeGzipResponse(respWrapper.toCharArray(), res);
 			}
 		}
 	}
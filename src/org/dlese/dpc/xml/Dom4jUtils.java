@@ -28,6 +28,7 @@ import org.dom4j.Document;
 import org.dom4j.Element;
 import org.dom4j.Node;
 import org.dom4j.Attribute;
+import org.dom4j.ProcessingInstruction;
 import org.dom4j.DocumentException;
 import org.dom4j.DocumentHelper;
 import org.dom4j.io.SAXReader;
@@ -211,24 +212,83 @@ public class Dom4jUtils {
 
 	/**
 	 *  Load XML into a dom4j Document and localize the XML by removing all namespaces from it. If error, return
-	 *  null. No validation is performed.
+	 *  null. No validation is performed. Namespaces are removed in a single pass as the XML is parsed.
 	 *
 	 * @param  xml                    A string representation of an XML document
 	 * @return                        An XML Document containing the localized dom4j DOM, or null if unable to
 	 *      process the string.
 	 * @exception  DocumentException  If dom4j error
+	 * @see                           LocalizingXMLFilter
 	 */
 	public static Document getXmlDocumentLocalized(String xml)
 		 throws DocumentException {
-		// No validation...
-		SAXReader reader = new SAXReader(false);
-		StringReader sr = new StringReader(localizeXml(xml));
-		Document document = reader.read(sr);
+		StringReader sr = new StringReader(xml);
+		Document document = getLocalizingReader().read(sr);
 		sr.close();
 		return document;
 	}
 
 
+	/**
+	 *  Load XML from a file into a dom4j Document and localize the XML by removing all namespaces from it. No
+	 *  validation is performed. Namespaces are removed in a single pass as the XML is parsed.
+	 *
+	 * @param  file                       An XML file
+	 * @return                            An XML Document containing the localized dom4j DOM
+	 * @exception  DocumentException      If dom4j error
+	 * @exception  MalformedURLException  If error in file name
+	 * @see                               LocalizingXMLFilter
+	 */
+	public static Document getXmlDocumentLocalized(File file)
+		 throws DocumentException, MalformedURLException {
+		return getLocalizingReader().read(file);
+	}
+
+
+	/**
+	 *  Load XML from a URL into a dom4j Document and localize the XML by removing all namespaces from it. No
+	 *  validation is performed. Namespaces are removed in a single pass as the XML is parsed.
+	 *
+	 * @param  url                        A URL to an XML document
+	 * @return                            An XML Document containing the localized dom4j DOM
+	 * @exception  DocumentException      If dom4j error
+	 * @exception  MalformedURLException  If error in the URL
+	 * @see                               LocalizingXMLFilter
+	 */
+	public static Document getXmlDocumentLocalized(URL url)
+		 throws DocumentException, MalformedURLException {
+		return getLocalizingReader().read(url);
+	}
+
+
+	/**
+	 *  Load XML bytes into a dom4j Document and localize the XML by removing all namespaces from it. The
+	 *  character encoding is detected from the bytes. No validation is performed. Namespaces are removed in a
+	 *  single pass as the XML is parsed.
+	 *
+	 * @param  xml                    The bytes of an XML document
+	 * @return                        An XML Document containing the localized dom4j DOM
+	 * @exception  DocumentException  If dom4j error
+	 * @see                           LocalizingXMLFilter
+	 */
+	public static Document getXmlDocumentLocalized(byte[] xml)
+		 throws DocumentException {
+		return getLocalizingReader().read(new ByteArrayInputStream(xml));
+	}
+
+
+	/**
+	 *  Gets a non-validating SAXReader that removes all namespaces from the XML it reads.
+	 *
+	 * @return    The SAXReader
+	 */
+	private static SAXReader getLocalizingReader() {
+		SAXReader reader = new SAXReader(false);
+		reader.setXMLFilter(new LocalizingXMLFilter());
+		return reader;
+	}
+
+
 	/**
 	 *  Takes a dom4j Node that contains an XML serialized JavaBean and returns a JavaBean Object.
 	 *
@@ -324,7 +384,9 @@ public class Dom4jUtils {
 
 
 	/**
-	 *  Gets the localizingTransformer attribute of the Dom4jUtils class
+	 *  Gets a Transformer that removes all namespaces from XML using the XSL in {@link
+	 *  XSLUtils#getRemoveNamespacesXSL()}. The localizeXml methods no longer use this Transformer and instead
+	 *  remove namespaces with a {@link LocalizingXMLFilter}, which is much faster.
 	 *
 	 * @return                                        The localizingTransformer value
 	 * @exception  TransformerConfigurationException  NOT YET DOCUMENTED
@@ -369,15 +431,12 @@ public class Dom4jUtils {
 	 * @return      XML without namespaces
 	 */
 	public static String localizeXml(String xml) {
-		javax.xml.transform.Transformer transformer = null;
-		String localizedXml = "";
 		try {
-			transformer = getLocalizingTransformer();
-			localizedXml = XSLTransformer.transformString(xml, transformer);
+			return getXmlDocumentLocalized(xml).asXML();
 		} catch (Exception e) {
 			prtlnErr(e.getMessage());
 		}
-		return localizedXml;
+		return "";
 	}
 
 
@@ -390,7 +449,22 @@ public class Dom4jUtils {
 	 */
 	public static Document localizeXml(Document doc) {
 		try {
-			return getXmlDocument(localizeXml(doc.asXML()));
+			Document localized = DocumentHelper.createDocument();
+			for (Iterator i = doc.nodeIterator(); i.hasNext(); ) {
+				Node node = (Node) i.next();
+				switch (node.getNodeType()) {
+					case Node.ELEMENT_NODE:
+						localized.add(localizeElement((Element) node));
+						break;
+					case Node.COMMENT_NODE:
+						localized.addComment(node.getText());
+						break;
+					case Node.PROCESSING_INSTRUCTION_NODE:
+						localized.addProcessingInstruction(((ProcessingInstruction) node).getTarget(), node.getText());
+						break;
+				}
+			}
+			return localized;
 		} catch (Exception e) {
 			prtlnErr("unable to localize Document: " + e);
 		}
@@ -406,13 +480,8 @@ public class Dom4jUtils {
 	 * @return          A localized Element, or null if fail
 	 */
 	public static Element localizeXml(Element element) {
-
-		String localizedXml = localizeXml(element.asXML());
 		try {
-			Document doc = getXmlDocument(localizedXml);
-			if (doc == null)
-				throw new Exception("could not process localized xml");
-			return doc.getRootElement().createCopy();
+			return localizeElement(element);
 		} catch (Exception e) {
 			prtln("unable to element: " + e);
 		}
@@ -429,10 +498,12 @@ public class Dom4jUtils {
 	 * @return       A localized Document, or null if fail
 	 */
 	public static Document localizeXml(Node node) {
-		// Note: Needs to be tested/refined... it would be better to return the same object type as was passed in...
-		String localizedXml = localizeXml(node.asXML());
+		if (node instanceof Document)
+			return localizeXml((Document) node);
 		try {
-			Document doc = getXmlDocument(localizedXml);
+			if (node instanceof Element)
+				return DocumentHelper.createDocument(localizeElement((Element) node));
+			Document doc = getXmlDocumentLocalized(node.asXML());
 			if (doc == null)
 				throw new Exception("could not process localized xml");
 			return doc;
@@ -443,6 +514,51 @@ public class Dom4jUtils {
 	}
 
 
+	/**
+	 *  Copies an Element and its content without namespaces, in the same way as the remove-namespaces XSL.
+	 *  Adjacent text, CDATA and entity nodes are merged into a single text node.
+	 *
+	 * @param  element  The Element
+	 * @return          A detached, localized copy of the Element
+	 */
+	private static Element localizeElement(Element element) {
+		Element localized = DocumentHelper.createElement(element.getName());
+		for (Iterator i = element.attributeIterator(); i.hasNext(); ) {
+			Attribute attribute = (Attribute) i.next();
+			localized.addAttribute(attribute.getName(), attribute.getValue());
+		}
+
+		StringBuffer text = null;
+		for (Iterator i = element.nodeIterator(); i.hasNext(); ) {
+			Node node = (Node) i.next();
+			short type = node.getNodeType();
+			if (type == Node.TEXT_NODE || type == Node.CDATA_SECTION_NODE || type == Node.ENTITY_REFERENCE_NODE) {
+				if (node.getText() != null) {
+					if (text == null)
+						text = new StringBuffer();
+					text.append(node.getText());
+				}
+				continue;
+			}
+			if (type != Node.ELEMENT_NODE && type != Node.COMMENT_NODE && type != Node.PROCESSING_INSTRUCTION_NODE)
+				continue;
+			if (text != null) {
+				localized.addText(text.toString());
+				text = null;
+			}
+			if (type == Node.ELEMENT_NODE)
+				localized.add(localizeElement((Element) node));
+			else if (type == Node.COMMENT_NODE)
+				localized.addComment(node.getText());
+			else
+				localized.addProcessingInstruction(((ProcessingInstruction) node).getTarget(), node.getText());
+		}
+		if (text != null)
+			localized.addText(text.toString());
+		return localized;
+	}
+
+
 	/**
 	 *  Insert nameSpaceInformation into the root element to make validation possible.<p>
 	 *
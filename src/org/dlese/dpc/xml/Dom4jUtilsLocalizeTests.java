@@ -0,0 +1,138 @@
+/*
+	Copyright 2017 Digital Learning Sciences (DLS) at the
+	University Corporation for Atmospheric Research (UCAR),
+	P.O. Box 3000, Boulder, CO 80307
+
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+
+	http://www.apache.org/licenses/LICENSE-2.0
+
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+package org.dlese.dpc.xml;
+
+import org.dlese.dpc.util.Files;
+
+import junit.framework.*;
+import java.io.*;
+import java.util.*;
+
+import javax.xml.transform.Transformer;
+
+import org.dom4j.Document;
+
+/**
+ *  Checks the namespace localizing done by {@link Dom4jUtils} with a {@link LocalizingXMLFilter} against the
+ *  previous approach, which compiled the remove-namespaces XSL for each call and serialized and re-parsed the
+ *  XML around the transform. Two corpora are used: the adn records in the sample_metadata directory and the
+ *  nsdl_dc records produced from them by the adn to nsdl_dc XSL. The localized Documents produced by both
+ *  approaches, from an XML String and from a parsed Document, must be the same. The throughput of both
+ *  approaches is measured by the Dom4jLocalizeBenchmark in the benchmarks module. <p>
+ *
+ *  The System property 'localize.webapp.dir' sets the webapp directory (default 'web').
+ *
+ * @author    John Weatherley
+ */
+public class Dom4jUtilsLocalizeTests extends TestCase {
+	Map corpora = null;
+
+
+	/**
+	 *  A unit test suite for JUnit
+	 *
+	 * @return    The test suite
+	 */
+	public static Test suite() {
+		// Use java reflection to run all test methods in this class:
+		prtln("");
+		return new TestSuite(Dom4jUtilsLocalizeTests.class);
+	}
+
+
+	/**
+	 *  The JUnit setup method. Gets called prior to running EACH test method call.
+	 *
+	 * @exception  Exception  If error
+	 */
+	protected void setUp()
+			 throws Exception {
+		prtln(".");
+
+		File webappDir = new File(System.getProperty("localize.webapp.dir", "web"));
+
+		List adn = new ArrayList();
+		File[] files = new File(webappDir, "WEB-INF/sample_metadata").listFiles(new XMLFileFilter());
+		for (int i = 0; files != null && i < files.length; i++) {
+			String xml = Files.readFileToEncoding(files[i], "UTF-8").toString();
+			if (xml.indexOf("<itemRecord") != -1)
+				adn.add(xml);
+		}
+		Assert.assertTrue("No adn records found in sample_metadata", adn.size() > 0);
+
+		Transformer toNsdlDc = XSLTransformer.getTransformer(
+			new File(webappDir, "WEB-INF/xsl_files/adn-v0.6.50-to-nsdl_dc-v1.02.xsl").getAbsolutePath());
+		List nsdlDc = new ArrayList();
+		for (int i = 0; i < adn.size(); i++)
+			nsdlDc.add(XSLTransformer.transformString((String) adn.get(i), toNsdlDc));
+
+		corpora = new LinkedHashMap();
+		corpora.put("adn", adn);
+		corpora.put("nsdl_dc", nsdlDc);
+	}
+
+
+	/**
+	 *  Checks that the filter produces the same localized Documents as the XSL.
+	 *
+	 * @exception  Exception  If error
+	 */
+	public void test_localized_output_matches_xsl()
+			 throws Exception {
+		for (Iterator it = corpora.keySet().iterator(); it.hasNext(); ) {
+			String format = (String) it.next();
+			List records = (List) corpora.get(format);
+			for (int i = 0; i < records.size(); i++) {
+				String xml = (String) records.get(i);
+				String expected = localizeWithXsl(xml).asXML();
+				Assert.assertEquals(format + " record " + i + " localized from a String differs from the XSL output",
+					expected, Dom4jUtils.getXmlDocumentLocalized(xml).asXML());
+				Assert.assertEquals(format + " record " + i + " localized from a Document differs from the XSL output",
+					expected, Dom4jUtils.localizeXml(Dom4jUtils.getXmlDocument(xml)).asXML());
+			}
+		}
+	}
+
+
+	/**
+	 *  Localizes the way Dom4jUtils previously did: compile the remove-namespaces XSL, transform the XML String
+	 *  and parse the result.
+	 *
+	 * @param  xml            The XML
+	 * @return                The localized Document
+	 * @exception  Exception  If error
+	 */
+	private static Document localizeWithXsl(String xml) throws Exception {
+		return Dom4jUtils.getXmlDocument(XSLTransformer.transformString(xml, Dom4jUtils.getLocalizingTransformer()));
+	}
+
+
+	private static void prtln(String s) {
+		System.out.println(s);
+	}
+
+
+	/**
+	 *  Main method for running this single suite from the command line
+	 *
+	 * @param  args  The command line arguments
+	 */
+	public static void main(String[] args) {
+		junit.textui.TestRunner.run(suite());
+	}
+}
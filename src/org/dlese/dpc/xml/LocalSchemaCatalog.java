@@ -0,0 +1,183 @@
+/*
+	Copyright 2017 Digital Learning Sciences (DLS) at the
+	University Corporation for Atmospheric Research (UCAR),
+	P.O. Box 3000, Boulder, CO 80307
+
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+
+	http://www.apache.org/licenses/LICENSE-2.0
+
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+package org.dlese.dpc.xml;
+
+import org.xml.sax.EntityResolver;
+import org.xml.sax.InputSource;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.*;
+
+/**
+ *  An EntityResolver that reads schemas and DTDs from local copies instead of fetching them from the
+ *  Internet. The catalog maps URI prefixes to local directories or files. A system ID that starts with a
+ *  mapped prefix is read from the local directory at the path that follows the prefix, or from the local file
+ *  if the prefix is mapped to a file. The longest matching prefix is used. System IDs that are not mapped, or
+ *  whose local copy does not exist, are resolved normally. <p>
+ *
+ *  The resolved InputSource keeps the original system ID, so relative includes and imports inside a local
+ *  schema are resolved through the catalog as well, and cached grammars are keyed the same way as if they had
+ *  been fetched. <p>
+ *
+ *  A catalog may be read from a properties file where each key is a URI prefix and each value a local path,
+ *  for example:
+ *  <pre>
+ *  http\://www.dlese.org/Metadata/=/usr/local/schemas/dlese/Metadata/
+ *  http\://www.openarchives.org/OAI/2.0/oai_dc.xsd=oai_dc.xsd
+ *  </pre>
+ *  Relative paths are resolved against the directory of the properties file.
+ *
+ * @author    John Weatherley
+ * @see       XMLValidator#setLocalSchemaCatalog(LocalSchemaCatalog)
+ */
+public class LocalSchemaCatalog implements EntityResolver {
+	private static boolean debug = false;
+
+	// URI prefix (String) to local File, longest prefixes first
+	private final TreeMap mappings = new TreeMap(new LongestFirstComparator());
+
+
+	/**  Constructor for an empty LocalSchemaCatalog. */
+	public LocalSchemaCatalog() { }
+
+
+	/**
+	 *  Constructor for a LocalSchemaCatalog read from a properties file.
+	 *
+	 * @param  catalogFile      A properties file mapping URI prefixes to local paths
+	 * @exception  IOException  If the file can not be read
+	 */
+	public LocalSchemaCatalog(File catalogFile) throws IOException {
+		Properties props = new Properties();
+		FileInputStream in = new FileInputStream(catalogFile);
+		try {
+			props.load(in);
+		} finally {
+			in.close();
+		}
+		File baseDir = catalogFile.getAbsoluteFile().getParentFile();
+		Enumeration e = props.propertyNames();
+		while (e.hasMoreElements()) {
+			String uriPrefix = (String) e.nextElement();
+			String path = props.getProperty(uriPrefix).trim();
+			File local = new File(path);
+			if (!local.isAbsolute())
+				local = new File(baseDir, path);
+			addMapping(uriPrefix.trim(), local);
+		}
+	}
+
+
+	/**
+	 *  Maps a URI prefix to a local directory or file.
+	 *
+	 * @param  uriPrefix  The start of the system IDs to read locally, for example
+	 *      'http://www.dlese.org/Metadata/'
+	 * @param  local      The local directory that mirrors the prefix, or the local file for a single URI
+	 */
+	public synchronized void addMapping(String uriPrefix, File local) {
+		mappings.put(uriPrefix, local);
+	}
+
+
+	/**
+	 *  Gets the number of URI prefixes mapped in this catalog.
+	 *
+	 * @return    The number of mappings
+	 */
+	public synchronized int size() {
+		return mappings.size();
+	}
+
+
+	/**
+	 *  Gets the local file for the given system ID.
+	 *
+	 * @param  systemId  The system ID
+	 * @return           The local file, or null if the system ID is not mapped or the local copy does not exist
+	 */
+	public synchronized File getLocalFile(String systemId) {
+		if (systemId == null)
+			return null;
+		Iterator i = mappings.entrySet().iterator();
+		while (i.hasNext()) {
+			Map.Entry entry = (Map.Entry) i.next();
+			String uriPrefix = (String) entry.getKey();
+			if (systemId.startsWith(uriPrefix)) {
+				File local = (File) entry.getValue();
+				String rest = systemId.substring(uriPrefix.length());
+				if (rest.length() > 0)
+					local = new File(local, rest);
+				if (local.isFile())
+					return local;
+				prtln("No local copy of " + systemId + " at " + local);
+				return null;
+			}
+		}
+		return null;
+	}
+
+
+	/**
+	 *  Resolves the given entity to its local copy, if there is one.
+	 *
+	 * @param  publicId         The public ID
+	 * @param  systemId         The system ID
+	 * @return                  An InputSource for the local copy, or null to resolve the entity normally
+	 * @exception  IOException  If the local copy can not be opened
+	 */
+	public InputSource resolveEntity(String publicId, String systemId) throws IOException {
+		File local = getLocalFile(systemId);
+		if (local == null)
+			return null;
+		InputSource input = new InputSource(new FileInputStream(local));
+		input.setPublicId(publicId);
+		input.setSystemId(systemId);
+		return input;
+	}
+
+
+	/**  Orders the URI prefixes so that the longest is tried first. */
+	private static class LongestFirstComparator implements Comparator {
+		public int compare(Object o1, Object o2) {
+			String s1 = (String) o1;
+			String s2 = (String) o2;
+			if (s1.length() != s2.length())
+				return s2.length() - s1.length();
+			return s1.compareTo(s2);
+		}
+	}
+
+
+	/**
+	 *  Sets the debug attribute of the LocalSchemaCatalog class
+	 *
+	 * @param  isDebugOutput  The new debug value
+	 */
+	public static void setDebug(boolean isDebugOutput) {
+		debug = isDebugOutput;
+	}
+
+
+	private static void prtln(String s) {
+		if (debug)
+			System.out.println("LocalSchemaCatalog: " + s);
+	}
+}
@@ -0,0 +1,182 @@
+/*
+	Copyright 2017 Digital Learning Sciences (DLS) at the
+	University Corporation for Atmospheric Research (UCAR),
+	P.O. Box 3000, Boulder, CO 80307
+
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+
+	http://www.apache.org/licenses/LICENSE-2.0
+
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+package org.dlese.dpc.xml;
+
+import org.xml.sax.*;
+import org.xml.sax.ext.LexicalHandler;
+import org.xml.sax.helpers.AttributesImpl;
+import org.xml.sax.helpers.XMLFilterImpl;
+
+/**
+ *  A SAX filter that removes all namespaces from XML as it is parsed, producing the same result as the
+ *  remove-namespaces XSL in {@link XSLUtils#getRemoveNamespacesXSL()} in a single streaming pass. Elements and
+ *  attributes are passed on with their local names and no namespace, namespace declarations are dropped, and
+ *  the DOCTYPE is dropped and CDATA sections are passed on as plain text, as they are by the XSL. Comments and
+ *  processing instructions are kept. <p>
+ *
+ *  Install the filter in a dom4j SAXReader with <code>setXMLFilter</code> to read XML straight into a
+ *  localized dom4j Document. A new filter should be used for each parse.
+ *
+ * @author    John Weatherley
+ * @see       Dom4jUtils#getXmlDocumentLocalized(String)
+ */
+public class LocalizingXMLFilter extends XMLFilterImpl {
+	private final static String LEXICAL_HANDLER = "http://xml.org/sax/properties/lexical-handler";
+	private final static String LEXICAL_HANDLER_ALT = "http://xml.org/sax/handlers/LexicalHandler";
+
+	private final AttributesImpl localAttributes = new AttributesImpl();
+
+
+	/**  Constructor for the LocalizingXMLFilter, with no parent. */
+	public LocalizingXMLFilter() { }
+
+
+	/**
+	 *  Constructor for the LocalizingXMLFilter.
+	 *
+	 * @param  parent  The XMLReader that does the parsing
+	 */
+	public LocalizingXMLFilter(XMLReader parent) {
+		super(parent);
+	}
+
+
+	/**
+	 *  Sets a property on the parent reader. A LexicalHandler is wrapped so that comments reach it but the
+	 *  DOCTYPE and CDATA boundaries do not.
+	 *
+	 * @param  name                           The property name
+	 * @param  value                          The property value
+	 * @exception  SAXNotRecognizedException  If the property is not recognized
+	 * @exception  SAXNotSupportedException   If the property is not supported
+	 */
+	public void setProperty(String name, Object value)
+		 throws SAXNotRecognizedException, SAXNotSupportedException {
+		if ((LEXICAL_HANDLER.equals(name) || LEXICAL_HANDLER_ALT.equals(name)) && value instanceof LexicalHandler)
+			value = new CommentsOnlyLexicalHandler((LexicalHandler) value);
+		super.setProperty(name, value);
+	}
+
+
+	/**
+	 *  Drops the namespace prefix mapping.
+	 *
+	 * @param  prefix  The prefix
+	 * @param  uri     The namespace URI
+	 */
+	public void startPrefixMapping(String prefix, String uri) { }
+
+
+	/**
+	 *  Drops the end of the namespace prefix mapping.
+	 *
+	 * @param  prefix  The prefix
+	 */
+	public void endPrefixMapping(String prefix) { }
+
+
+	/**
+	 *  Passes on the start of an element with its local name and attributes, without namespaces.
+	 *
+	 * @param  uri               The namespace URI
+	 * @param  localName         The local name
+	 * @param  qName             The qualified name
+	 * @param  atts              The attributes
+	 * @exception  SAXException  If error
+	 */
+	public void startElement(String uri, String localName, String qName, Attributes atts) throws SAXException {
+		localAttributes.clear();
+		for (int i = 0; i < atts.getLength(); i++) {
+			String attQName = atts.getQName(i);
+			if (attQName.equals("xmlns") || attQName.startsWith("xmlns:"))
+				continue;
+			String attLocalName = getLocalName(atts.getLocalName(i), attQName);
+
+			// As with xsl:attribute, a later attribute with the same name replaces the earlier one:
+			int existing = localAttributes.getIndex(attLocalName);
+			if (existing >= 0)
+				localAttributes.setValue(existing, atts.getValue(i));
+			else
+				localAttributes.addAttribute("", attLocalName, attLocalName, "CDATA", atts.getValue(i));
+		}
+		String name = getLocalName(localName, qName);
+		super.startElement("", name, name, localAttributes);
+	}
+
+
+	/**
+	 *  Passes on the end of an element with its local name.
+	 *
+	 * @param  uri               The namespace URI
+	 * @param  localName         The local name
+	 * @param  qName             The qualified name
+	 * @exception  SAXException  If error
+	 */
+	public void endElement(String uri, String localName, String qName) throws SAXException {
+		String name = getLocalName(localName, qName);
+		super.endElement("", name, name);
+	}
+
+
+	private final static String getLocalName(String localName, String qName) {
+		if (localName != null && localName.length() > 0)
+			return localName;
+		int colon = qName.indexOf(':');
+		return (colon < 0 ? qName : qName.substring(colon + 1));
+	}
+
+
+	/**  Passes comments outside of the DTD on to the wrapped handler and drops all other lexical events. */
+	private final static class CommentsOnlyLexicalHandler implements LexicalHandler {
+		private final LexicalHandler handler;
+		private boolean inDTD = false;
+
+
+		CommentsOnlyLexicalHandler(LexicalHandler handler) {
+			this.handler = handler;
+		}
+
+
+		public void comment(char[] ch, int start, int length) throws SAXException {
+			if (!inDTD)
+				handler.comment(ch, start, length);
+		}
+
+
+		public void startDTD(String name, String publicId, String systemId) {
+			inDTD = true;
+		}
+
+
+		public void endDTD() {
+			inDTD = false;
+		}
+
+
+		public void startEntity(String name) { }
+
+
+		public void endEntity(String name) { }
+
+
+		public void startCDATA() { }
+
+
+		public void endCDATA() { }
+	}
+}
@@ -32,18 +32,38 @@ import java.util.*;
 import java.text.*;
 import java.io.*;
 import java.text.*;
+import java.security.MessageDigest;
 import javax.servlet.ServletContext;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.ServletException;
 
 import javax.xml.transform.Transformer;
+import javax.xml.transform.Templates;
 
 /**
  *  Manages the conversion of XML files from one format to another using XSL or
  *  Java classes. Caches the converted XML to disc and provides rapid access to
  *  the converted format. Conversions may be accomplished using XSL stylesheets
  *  or Java classes that implement one of either the {@link XMLFormatConverter}
- *  or {@link XMLDocumentFormatConverter} interfaces.
+ *  or {@link XMLDocumentFormatConverter} interfaces. <p>
+ *
+ *  Cached files are keyed by a hash of the original content plus the version
+ *  (last modified time) of the converter, so identical content is converted only
+ *  once and a changed converter never serves stale output. Files can be
+ *  converted ahead of time using {@link #preConvertInBackground(String, File, String)},
+ *  which also records the content hash in an in-memory freshness index. Only XSL
+ *  conversions are made ahead of time, since Java converters may look up other
+ *  records in the index, which may be only partly built while the file is being
+ *  indexed. Requests for a file in the freshness index are served straight from
+ *  the cache without checking file modification times. The freshness index is
+ *  updated each time the file is re-indexed, and the cached files for its
+ *  previous content are then deleted. The hash is also stored in the index
+ *  with the record (see {@link XMLDocReader#getContentHash()}), so after a
+ *  restart records are found in the cache without reading their files. <p>
+ *
+ *  Cache files left in the layout used by earlier versions, which kept one
+ *  file per original file path, are deleted by a background thread when the
+ *  service is created.
  *
  * @author     John Weatherley
  * @version    $Id: XMLConversionService.java,v 1.24 2007/02/23 21:20:00
@@ -58,6 +78,19 @@ public final class XMLConversionService {
 	private Hashtable converters = new Hashtable();
 	private boolean filter = false;
 
+	// Original file path -> hash of its content when last converted or indexed:
+	private final HashMap freshnessIndex = new HashMap();
+	// Content hash -> int[] { number of files in the freshness index with that content }:
+	private final HashMap contentHashCounts = new HashMap();
+	// XmlConverter -> long[] { version, time last checked }:
+	private final HashMap converterVersions = new HashMap();
+	private final static long CONVERTER_CHECK_INTERVAL = 10000;
+
+	private final LinkedList preConversionQueue = new LinkedList();
+	private int maxPreConversionQueueSize = 1000;
+	private PreConversionThread preConversionThread = null;
+	private boolean preConversionStopped = false;
+
 
 	/**
 	 *  Constructor for the XMLConversionService.
@@ -79,6 +112,7 @@ public final class XMLConversionService {
 				"is not valid or does not have read/write access.");
 		this.cacheDir = cacheDir;
 		this.filter = filterDeclarations;
+		new LegacyCacheCleanupThread().start();
 	}
 
 
@@ -86,9 +120,10 @@ public final class XMLConversionService {
 	 *  Converts XML from one format to another, saving and retrieving the
 	 *  converted content to and from a file cache. Returns null if there are no
 	 *  known conversions available for the requested conversion, or if a
-	 *  processing error occurs. The cache file is automatically updated if the
-	 *  modification time of the input XML file is newer than the cache. Characters
-	 *  returned in the StringBuffer are encoded in UTF-8.
+	 *  processing error occurs. The file is re-converted if its content or the
+	 *  converter has changed since it was last converted, or, for files in the
+	 *  freshness index, since it was last indexed. Characters returned in the
+	 *  StringBuffer are encoded in UTF-8.
 	 *
 	 * @param  fromFormat       The XML format to convert from. Example:
 	 *      'dlese_ims.'
@@ -149,9 +184,10 @@ public final class XMLConversionService {
 	 *  Converts XML from one format to another, saving and retrieving the
 	 *  converted content to and from a file cache. Returns null if there are no
 	 *  known conversions available for the requested conversion, or if a
-	 *  processing error occurs. The cache file is automatically updated if the
-	 *  modification time of the input XML file is newer than the cache. Characters
-	 *  returned in the StringBuffer are encoded in UTF-8.
+	 *  processing error occurs. The file is re-converted if its content or the
+	 *  converter has changed since it was last converted, or, for files in the
+	 *  freshness index, since it was last indexed. Characters returned in the
+	 *  StringBuffer are encoded in UTF-8.
 	 *
 	 * @param  fromFormat       The XML format to convert from. Example:
 	 *      'dlese_ims.'
@@ -194,47 +230,502 @@ public final class XMLConversionService {
 				return null;
 		}
 
+		File cachedFile = getConvertedFile(fromFormat, toFormat, originalXMLFile, luceneDoc);
+		if (cachedFile == null)
+			return null;
+		return readCachedXml(cachedFile);
+	}
+
+
+	/**
+	 *  Writes XML converted from one format to another to the given Writer, in the same way as {@link
+	 *  #getConvertedXml(String, String, File, XMLDocReader)} but without reading the content into memory: the
+	 *  cached file, or the original file if the formats are the same, is copied to the Writer as it is read.
+	 *  Nothing is written if the content can not be converted.
+	 *
+	 * @param  fromFormat       The XML format to convert from. Example: 'dlese_ims.'
+	 * @param  toFormat         The format to convert to. Example: 'adn.'
+	 * @param  originalXMLFile  The original XML file, in the 'from' format.
+	 * @param  luceneDoc        The reader for the record, which may be used by the conversion class, or null.
+	 * @param  out              The Writer
+	 * @return                  True if the content was written, false if unable to process
+	 * @exception  IOException  If error writing the content
+	 */
+	public boolean writeConvertedXml(String fromFormat,
+	                                 String toFormat,
+	                                 File originalXMLFile,
+	                                 XMLDocReader luceneDoc,
+	                                 Writer out) throws IOException {
+		File file = null;
+		if (fromFormat.equals(toFormat)) {
+			if (originalXMLFile != null && originalXMLFile.canRead())
+				file = originalXMLFile;
+			else if (luceneDoc != null) {
+				if (filter)
+					stripXmlDeclaration(new BufferedReader(new StringReader(luceneDoc.getXml())), out);
+				else
+					out.write(luceneDoc.getXml());
+				return true;
+			}
+			else
+				return false;
+		}
+		else
+			file = getConvertedFile(fromFormat, toFormat, originalXMLFile, luceneDoc);
+		if (file == null)
+			return false;
+
+		Reader in;
+		try {
+			in = new InputStreamReader(new FileInputStream(file), "UTF-8");
+		} catch (FileNotFoundException e) {
+			return false;
+		}
+		try {
+			if (filter)
+				stripXmlDeclaration(new BufferedReader(in), out);
+			else {
+				char[] buf = new char[8192];
+				int n;
+				while ((n = in.read(buf)) != -1)
+					out.write(buf, 0, n);
+			}
+		} finally {
+			in.close();
+		}
+		return true;
+	}
+
+
+	/**
+	 *  Gets the cache file that holds the given content converted to the given format, converting it first if
+	 *  it has not been converted with the current version of the converter. The file is re-converted if its
+	 *  content has changed since it was last converted, or, for files in the freshness index, since it was last
+	 *  indexed.
+	 *
+	 * @param  fromFormat       The XML format to convert from
+	 * @param  toFormat         The format to convert to
+	 * @param  originalXMLFile  The original XML file
+	 * @param  luceneDoc        The reader for the record, or null
+	 * @return                  The cache file, or null if unable to convert
+	 */
+	private File getConvertedFile(String fromFormat,
+	                              String toFormat,
+	                              File originalXMLFile,
+	                              XMLDocReader luceneDoc) {
 		// Grab the converter, checking to see if we can convert.
 		XmlConverter xmlConverter = (XmlConverter) getConverter(fromFormat, toFormat);
 		if (xmlConverter == null)
 			return null;
 
-		// If the cached file is up-to-date, return it.
-		File cachedFile = new File(cacheDir.getAbsolutePath() + "/" +
-			toFormat + "/" +
-			Files.escapeWindowsPath(originalXMLFile.getAbsolutePath()));
-		if (cachedFile.isFile() && cachedFile.lastModified() > originalXMLFile.lastModified() &&
-			cachedFile.lastModified() > xmlConverter.lastModified()) {
-			try {
-				StringBuffer cachedFileAsBuffer = Files.readFileToEncoding(cachedFile, "UTF-8");
-				if (cachedFileAsBuffer.length() > 0)
-					return cachedFileAsBuffer;
-			} catch (IOException e) {
-				prtlnErr("Could not read cached XML file (1): " + e);
+		String originalPath = (originalXMLFile == null ? null : originalXMLFile.getAbsolutePath());
+		long converterVersion = getConverterVersion(xmlConverter);
+
+		// If the content has been converted since it was last indexed, return it without checking the file. The
+		// hash stored with the record is used if the file is not in the freshness index, e.g. after a restart.
+		String contentHash = getIndexedContentHash(originalPath);
+		boolean isIndexed = (contentHash != null);
+		if (contentHash == null && luceneDoc != null)
+			contentHash = luceneDoc.getContentHash();
+		if (contentHash != null) {
+			File cachedFile = getCacheFile(toFormat, contentHash, converterVersion);
+			if (cachedFile.length() > 0) {
+				if (!isIndexed)
+					setIndexedContentHash(originalPath, contentHash);
+				return cachedFile;
 			}
 		}
 
-		// Delete if cached file needs updating.
-		cachedFile.delete();
+		// Not converted yet, or indexed by an earlier version without a stored hash - hash the content
+		contentHash = getContentHash(originalXMLFile, luceneDoc);
+		if (contentHash == null)
+			return null;
+		File cachedFile = getCacheFile(toFormat, contentHash, converterVersion);
+		if (cachedFile.length() == 0 && !writeCachedFile(xmlConverter, originalXMLFile, luceneDoc, cachedFile))
+			return null;
+		setIndexedContentHash(originalPath, contentHash);
+		return cachedFile;
+	}
+
+
+	/**
+	 *  Converts the given file to all formats that are available from its format by XSL and saves the results
+	 *  to the cache, updating the freshness index so later requests for the file are served directly from the
+	 *  cache. Conversions that are already in the cache for the current content and converter are skipped. Java
+	 *  converters are skipped because they may read other records from the index, so their output is made when
+	 *  it is first requested.
+	 *
+	 * @param  fromFormat       The format of the file
+	 * @param  originalXMLFile  The file
+	 * @return                  The number of formats that were converted
+	 */
+	public int preConvert(String fromFormat, File originalXMLFile) {
+		return preConvert(fromFormat, originalXMLFile, null);
+	}
+
+
+	/**
+	 *  Converts the given file to all formats that are available from its format by XSL, using the hash of its
+	 *  content that was computed when it was indexed.
+	 *
+	 * @param  fromFormat       The format of the file
+	 * @param  originalXMLFile  The file
+	 * @param  contentHash      The hash of the file content, or null to hash the file
+	 * @return                  The number of formats that were converted
+	 * @see                     #getContentHash(File)
+	 */
+	public int preConvert(String fromFormat, File originalXMLFile, String contentHash) {
+		Hashtable formatConverters = (Hashtable) converters.get(fromFormat);
+		if (formatConverters == null || originalXMLFile == null)
+			return 0;
+
+		if (contentHash == null)
+			contentHash = getContentHash(originalXMLFile, null);
+		if (contentHash == null)
+			return 0;
+
+		int numConverted = 0;
+		Enumeration toFormats = formatConverters.keys();
+		while (toFormats.hasMoreElements()) {
+			String toFormat = (String) toFormats.nextElement();
+			XmlConverter xmlConverter = (XmlConverter) formatConverters.get(toFormat);
+			if (!xmlConverter.isContentOnly())
+				continue;
+			File cachedFile = getCacheFile(toFormat, contentHash, getConverterVersion(xmlConverter));
+			if (!cachedFile.isFile() && writeCachedFile(xmlConverter, originalXMLFile, null, cachedFile))
+				numConverted++;
+		}
+		setIndexedContentHash(originalXMLFile.getAbsolutePath(), contentHash);
+		return numConverted;
+	}
 
-		cachedFile.getParentFile().mkdirs();
-		xmlConverter.writeConvertedFile(originalXMLFile, luceneDoc, cachedFile);
 
-		// Return the transformed content and save in cache.
+	/**
+	 *  Queues the given file to be converted to all formats that are available from its format by a background
+	 *  thread, for use when the file has been (re)indexed. If the queue is full this method blocks until there
+	 *  is room, slowing the caller to the rate at which conversions can be made.
+	 *
+	 * @param  fromFormat       The format of the file
+	 * @param  originalXMLFile  The file
+	 * @see                     #preConvert(String, File)
+	 */
+	public void preConvertInBackground(String fromFormat, File originalXMLFile) {
+		preConvertInBackground(fromFormat, originalXMLFile, null);
+	}
+
+
+	/**
+	 *  Queues the given file to be converted by a background thread, using the hash of its content that was
+	 *  computed when it was indexed.
+	 *
+	 * @param  fromFormat       The format of the file
+	 * @param  originalXMLFile  The file
+	 * @param  contentHash      The hash of the file content, or null to hash the file
+	 * @see                     #preConvert(String, File, String)
+	 */
+	public void preConvertInBackground(String fromFormat, File originalXMLFile, String contentHash) {
+		if (fromFormat == null || originalXMLFile == null || !converters.containsKey(fromFormat))
+			return;
+		synchronized (preConversionQueue) {
+			if (preConversionStopped)
+				return;
+			if (preConversionThread == null) {
+				preConversionThread = new PreConversionThread();
+				preConversionThread.start();
+			}
+			while (preConversionQueue.size() >= maxPreConversionQueueSize && !preConversionStopped) {
+				try {
+					preConversionQueue.wait(1000);
+				} catch (InterruptedException e) {
+					return;
+				}
+			}
+			preConversionQueue.addLast(new String[]{fromFormat, originalXMLFile.getAbsolutePath(), contentHash});
+			preConversionQueue.notifyAll();
+		}
+	}
+
+
+	/**
+	 *  Removes the given file from the freshness index and deletes its converted files from the cache, unless
+	 *  another file in the freshness index has the same content. For use when the file is removed from the
+	 *  index.
+	 *
+	 * @param  originalXMLFile  The file
+	 */
+	public void removeFromFreshnessIndex(File originalXMLFile) {
+		if (originalXMLFile == null)
+			return;
+		String unusedHash;
+		synchronized (freshnessIndex) {
+			unusedHash = releaseContentHash((String) freshnessIndex.remove(originalXMLFile.getAbsolutePath()));
+		}
+		if (unusedHash != null)
+			deleteCachedFiles(unusedHash, null);
+	}
+
+
+	/**  Stops the background conversion thread, discarding any files still waiting to be converted. */
+	public void destroy() {
+		synchronized (preConversionQueue) {
+			preConversionStopped = true;
+			preConversionQueue.clear();
+			preConversionQueue.notifyAll();
+		}
+		if (preConversionThread != null)
+			preConversionThread.interrupt();
+	}
+
+
+	/**
+	 *  Gets the version of the given converter, checking its modification time at most once per
+	 *  converterCheckInterval.
+	 *
+	 * @param  xmlConverter  The converter
+	 * @return               The converter version
+	 */
+	private long getConverterVersion(XmlConverter xmlConverter) {
+		long now = System.currentTimeMillis();
+		synchronized (converterVersions) {
+			long[] version = (long[]) converterVersions.get(xmlConverter);
+			if (version != null && now - version[1] < CONVERTER_CHECK_INTERVAL)
+				return version[0];
+		}
+		long lastModified = xmlConverter.lastModified();
+		synchronized (converterVersions) {
+			converterVersions.put(xmlConverter, new long[]{lastModified, now});
+		}
+		return lastModified;
+	}
+
+
+	private String getIndexedContentHash(String originalPath) {
+		if (originalPath == null)
+			return null;
+		synchronized (freshnessIndex) {
+			return (String) freshnessIndex.get(originalPath);
+		}
+	}
+
+
+	/**
+	 *  Records the hash of the given file's content in the freshness index. If the file's content has changed,
+	 *  the cached files for its previous content are deleted, unless another file has the same content.
+	 *
+	 * @param  originalPath  The path to the original file
+	 * @param  contentHash   Hash of its content
+	 */
+	private void setIndexedContentHash(String originalPath, String contentHash) {
+		if (originalPath == null)
+			return;
+		String unusedHash;
+		synchronized (freshnessIndex) {
+			// Share the String instance between files with the same content
+			contentHash = contentHash.intern();
+			String previousHash = (String) freshnessIndex.put(originalPath, contentHash);
+			if (contentHash.equals(previousHash))
+				return;
+			int[] count = (int[]) contentHashCounts.get(contentHash);
+			if (count == null)
+				contentHashCounts.put(contentHash, new int[]{1});
+			else
+				count[0]++;
+			unusedHash = releaseContentHash(previousHash);
+		}
+		if (unusedHash != null)
+			deleteCachedFiles(unusedHash, null);
+	}
+
+
+	/**
+	 *  Decrements the number of files in the freshness index that have the given content. Must be called while
+	 *  holding the lock on the freshnessIndex.
+	 *
+	 * @param  contentHash  Hash of the content, or null
+	 * @return              The hash if no file in the freshness index has that content any longer, otherwise
+	 *      null
+	 */
+	private String releaseContentHash(String contentHash) {
+		if (contentHash == null)
+			return null;
+		int[] count = (int[]) contentHashCounts.get(contentHash);
+		if (count != null && --count[0] > 0)
+			return null;
+		contentHashCounts.remove(contentHash);
+		return contentHash;
+	}
+
+
+	/**
+	 *  Deletes the files in the cache that hold the given content converted to any format with any converter
+	 *  version, except for the given file.
+	 *
+	 * @param  contentHash  Hash of the original content
+	 * @param  keep         A cache file to keep, or null
+	 */
+	private void deleteCachedFiles(final String contentHash, File keep) {
+		File[] formatDirs = cacheDir.listFiles();
+		for (int i = 0; formatDirs != null && i < formatDirs.length; i++) {
+			File[] files = new File(formatDirs[i], contentHash.substring(0, 2)).listFiles(
+				new FilenameFilter() {
+					public boolean accept(File dir, String name) {
+						return name.startsWith(contentHash + "-") && name.endsWith(".xml");
+					}
+				});
+			for (int j = 0; files != null && j < files.length; j++) {
+				if (!files[j].equals(keep))
+					files[j].delete();
+			}
+		}
+	}
+
+
+	/**
+	 *  Gets the file in the cache that holds the given content converted to the given format.
+	 *
+	 * @param  toFormat          The format
+	 * @param  contentHash       Hash of the original content
+	 * @param  converterVersion  The converter version
+	 * @return                   The cache file
+	 */
+	private File getCacheFile(String toFormat, String contentHash, long converterVersion) {
+		return new File(cacheDir, toFormat + File.separator +
+			contentHash.substring(0, 2) + File.separator +
+			contentHash + "-" + Long.toString(converterVersion, 36) + ".xml");
+	}
+
+
+	/**
+	 *  Reads a converted file from the cache, or returns null if it does not exist or is empty.
+	 *
+	 * @param  cachedFile  The cache file
+	 * @return             The content, or null
+	 */
+	private StringBuffer readCachedXml(File cachedFile) {
 		try {
+			StringBuffer content;
 			if (filter)
-				return stripXmlDeclaration(new BufferedReader(
+				content = stripXmlDeclaration(new BufferedReader(
 					new InputStreamReader(new FileInputStream(cachedFile), "UTF-8")));
 			else
-				return Files.readFileToEncoding(cachedFile, "UTF-8");
+				content = Files.readFileToEncoding(cachedFile, "UTF-8");
+			if (content != null && content.length() > 0)
+				return content;
+		} catch (FileNotFoundException e) {
+			// Not yet converted
 		} catch (IOException e) {
-			prtlnErr("Could not read cached XML file (2): " + e);
+			prtlnErr("Could not read cached XML file: " + e);
 		}
-
 		return null;
 	}
 
 
+	/**
+	 *  Converts the content and writes it to the cache file. The content is written to a temporary file first so
+	 *  concurrent readers never see a partially written file. Files for the same content made by earlier
+	 *  versions of the converter are then deleted.
+	 *
+	 * @param  xmlConverter     The converter
+	 * @param  originalXMLFile  The original file
+	 * @param  luceneDoc        The reader for the record, or null
+	 * @param  cachedFile       The cache file
+	 * @return                  True if successful
+	 */
+	private boolean writeCachedFile(XmlConverter xmlConverter, File originalXMLFile, XMLDocReader luceneDoc, File cachedFile) {
+		cachedFile.getParentFile().mkdirs();
+		File tmpFile = new File(cachedFile.getParentFile(), cachedFile.getName() + "." + Thread.currentThread().getId() + ".tmp");
+		try {
+			if (!xmlConverter.writeConvertedFile(originalXMLFile, luceneDoc, tmpFile))
+				return false;
+			if (!tmpFile.renameTo(cachedFile)) {
+				cachedFile.delete();
+				if (!tmpFile.renameTo(cachedFile)) {
+					prtlnErr("Could not move converted file to " + cachedFile);
+					return false;
+				}
+			}
+			deleteSupersededVersions(cachedFile);
+			return true;
+		} finally {
+			tmpFile.delete();
+		}
+	}
+
+
+	/**
+	 *  Deletes the files in the same format directory as the given cache file that hold the same content made by
+	 *  other versions of the converter.
+	 *
+	 * @param  cachedFile  The cache file that was just written
+	 */
+	private void deleteSupersededVersions(File cachedFile) {
+		final String name = cachedFile.getName();
+		final String prefix = name.substring(0, name.indexOf('-') + 1);
+		File[] files = cachedFile.getParentFile().listFiles(
+			new FilenameFilter() {
+				public boolean accept(File dir, String n) {
+					return n.startsWith(prefix) && n.endsWith(".xml") && !n.equals(name);
+				}
+			});
+		for (int i = 0; files != null && i < files.length; i++)
+			files[i].delete();
+	}
+
+
+	/**
+	 *  Gets the hash of the content of the given file that keys its converted formats in the cache. Computed
+	 *  when the file is indexed and stored with the record, so the cache can be used without reading the file.
+	 *
+	 * @param  originalXMLFile  The original file
+	 * @return                  A hex-encoded MD5 hash, or null if the file can not be read
+	 */
+	public static String getContentHash(File originalXMLFile) {
+		if (originalXMLFile == null || !originalXMLFile.canRead())
+			return null;
+		return getContentHash(originalXMLFile, null);
+	}
+
+
+	/**
+	 *  Gets a hash of the original content, read from the file if available or else from the index.
+	 *
+	 * @param  originalXMLFile  The original file, or null
+	 * @param  luceneDoc        The reader for the record, or null
+	 * @return                  A hex-encoded MD5 hash, or null if no content is available
+	 */
+	private static String getContentHash(File originalXMLFile, XMLDocReader luceneDoc) {
+		try {
+			MessageDigest md = MessageDigest.getInstance("MD5");
+			if (originalXMLFile != null && originalXMLFile.canRead()) {
+				InputStream in = new FileInputStream(originalXMLFile);
+				try {
+					byte[] buf = new byte[8192];
+					int n;
+					while ((n = in.read(buf)) != -1)
+						md.update(buf, 0, n);
+				} finally {
+					in.close();
+				}
+			}
+			else if (luceneDoc != null)
+				md.update(luceneDoc.getXml().getBytes("UTF-8"));
+			else
+				return null;
+
+			byte[] digest = md.digest();
+			StringBuffer hex = new StringBuffer(digest.length * 2);
+			for (int i = 0; i < digest.length; i++) {
+				hex.append(Character.forDigit((digest[i] >> 4) & 0xf, 16));
+				hex.append(Character.forDigit(digest[i] & 0xf, 16));
+			}
+			return hex.toString();
+		} catch (Exception e) {
+			prtlnErr("Unable to hash XML content: " + e);
+			return null;
+		}
+	}
+
+
 	/**
 	 *  Determines whether this XMLConversionService can perform the given
 	 *  converstion. Returns true of the toFormat is the same as the fromFormat.
@@ -454,7 +945,23 @@ public final class XMLConversionService {
 	 */
 	public static final StringBuffer stripXmlDeclaration(BufferedReader rdr)
 		 throws IOException {
-		StringBuffer out = new StringBuffer("");
+		StringWriter out = new StringWriter();
+		stripXmlDeclaration(rdr, out);
+		return out.getBuffer();
+	}
+
+
+	/**
+	 *  Strips the XML declaration and DTD declaration from the given XML, writing the result to the given
+	 *  Writer a line at a time. The Reader is closed when done.
+	 *
+	 * @param  rdr              A BufferedReader containing XML.
+	 * @param  out              The Writer the content is written to, with the XML and DTD declarations stipped
+	 *      out.
+	 * @exception  IOException  If error
+	 */
+	public static final void stripXmlDeclaration(BufferedReader rdr, Writer out)
+		 throws IOException {
 		String tmp = "";
 
 		// Check the first few lines in the file for the xml encoding string and
@@ -474,25 +981,27 @@ public final class XMLConversionService {
 			else if (tmp.toUpperCase().indexOf("<!DOCTYPE") != -1 &&
 				tmp.toUpperCase().indexOf("DLESE.ORG") != -1 &&
 				tmp.toUpperCase().indexOf(".DTD") != -1) {
-				out.append("<!--");
-				out.append(tmp);
-				out.append("-->\n");
+				out.write("<!--");
+				out.write(tmp);
+				out.write("-->\n");
+			}
+			else if (tmp != null) {
+				out.write(tmp);
+				out.write("\n");
 			}
-			else if (tmp != null)
-				out.append(tmp + "\n");
 		}
 
 		// Output the remainder file.
 		tmp = "";
 		while (rdr.ready() && tmp != null) {
 			tmp = rdr.readLine();
-			if (tmp != null)
-				out.append(tmp + "\n");
+			if (tmp != null) {
+				out.write(tmp);
+				out.write("\n");
+			}
 		}
 
 		rdr.close();
-
-		return out;
 	}
 
 
@@ -560,13 +1069,30 @@ public final class XMLConversionService {
 		 * @return    The time this converter code was last modified.
 		 */
 		public long lastModified();
+
+
+		/**
+		 *  Determines whether the output of this converter depends only on the content of the original XML, so
+		 *  it may be made ahead of time, for example while the index is being built.
+		 *
+		 * @return    True if the output depends only on the original XML
+		 */
+		public boolean isContentOnly();
 	}
 
 
+	/**
+	 *  Converts XML using an XSL stylesheet. The stylesheet is compiled once into a thread-safe {@link
+	 *  javax.xml.transform.Templates} and each conversion borrows a {@link javax.xml.transform.Transformer} from
+	 *  a small pool, so concurrent conversions of the same format run in parallel rather than waiting on a
+	 *  single shared Transformer. The stylesheet is re-compiled if the file is modified.
+	 */
 	private class XslConverter implements XmlConverter {
 		private String toFormat = null, fromFormat = null, xslFilePath = null;
-		private Transformer transformer = null;
-		private long xslLastModified = -1;
+		private volatile Templates templates = null;
+		private volatile long xslLastModified = -1;
+		// Idle Transformers created from the current templates:
+		private final LinkedList transformerPool = new LinkedList();
 
 
 		/**
@@ -596,6 +1122,73 @@ public final class XMLConversionService {
 		}
 
 
+		/**
+		 *  The output of a stylesheet depends only on the original XML.
+		 *
+		 * @return    True
+		 */
+		public boolean isContentOnly() {
+			return true;
+		}
+
+
+		/**
+		 *  Gets the compiled stylesheet, compiling it if this is the first use or the file has been modified
+		 *  since it was last compiled.
+		 *
+		 * @return                The compiled stylesheet
+		 * @exception  Exception  If the stylesheet can not be compiled
+		 */
+		private Templates getTemplates() throws Exception {
+			long modTime = lastModified();
+			Templates current = templates;
+			if (current != null && modTime == xslLastModified)
+				return current;
+
+			synchronized (transformerPool) {
+				if (templates == null || modTime != xslLastModified) {
+					templates = XSLTransformer.getTemplates(xslFilePath);
+					xslLastModified = modTime;
+					// Transformers from the previous stylesheet are discarded:
+					transformerPool.clear();
+				}
+				return templates;
+			}
+		}
+
+
+		/**
+		 *  Borrows a Transformer for the current stylesheet. Must be returned using {@link
+		 *  #returnTransformer(Transformer, Templates)} when done.
+		 *
+		 * @param  current  The current compiled stylesheet
+		 * @return          A Transformer for exclusive use by the caller
+		 * @exception  Exception  If error
+		 */
+		private Transformer borrowTransformer(Templates current) throws Exception {
+			synchronized (transformerPool) {
+				if (current == templates && !transformerPool.isEmpty())
+					return (Transformer) transformerPool.removeFirst();
+			}
+			return current.newTransformer();
+		}
+
+
+		/**
+		 *  Returns a Transformer to the pool for re-use, unless the stylesheet has since been re-compiled.
+		 *
+		 * @param  transformer  The Transformer
+		 * @param  current      The compiled stylesheet the Transformer was created from
+		 */
+		private void returnTransformer(Transformer transformer, Templates current) {
+			transformer.reset();
+			synchronized (transformerPool) {
+				if (current == templates)
+					transformerPool.addFirst(transformer);
+			}
+		}
+
+
 		/**
 		 *  Convert the XML from the given file, saving it to the output file
 		 *  indicated.
@@ -608,21 +1201,17 @@ public final class XMLConversionService {
 		public boolean writeConvertedFile(File originalXMLFile, XMLDocReader luceneDoc, File fileToWrite) {
 			//prtln("XslConverter.writeConvertedFile()");
 			try {
-				if (transformer == null || lastModified() != xslLastModified) {
-					transformer = XSLTransformer.getTransformer(xslFilePath);
-					xslLastModified = lastModified();
-				}
+				Templates current = getTemplates();
+				Transformer transformer = borrowTransformer(current);
 
 				String content = null;
-				if (originalXMLFile != null & originalXMLFile.canRead()) {
-					synchronized (transformer) {
+				try {
+					if (originalXMLFile != null & originalXMLFile.canRead())
 						content = XSLTransformer.transformFile(originalXMLFile, transformer);
-					}
-				}
-				else if (luceneDoc != null) {
-					synchronized (transformer) {
+					else if (luceneDoc != null)
 						content = XSLTransformer.transformString(luceneDoc.getXml(), transformer);
-					}
+				} finally {
+					returnTransformer(transformer, current);
 				}
 
 				// Make sure the transformed content is not empty:
@@ -661,13 +1250,12 @@ public final class XMLConversionService {
 			//prtln("XslConverter.convertXml()");
 			String convertedXML = null;
 			try {
-				if (transformer == null || lastModified() != xslLastModified) {
-					transformer = XSLTransformer.getTransformer(xslFilePath);
-					xslLastModified = lastModified();
-				}
-
-				synchronized (transformer) {
+				Templates current = getTemplates();
+				Transformer transformer = borrowTransformer(current);
+				try {
 					convertedXML = XSLTransformer.transformString(originalXML, transformer);
+				} finally {
+					returnTransformer(transformer, current);
 				}
 
 				// Make sure the transformed content is not empty:
@@ -689,6 +1277,91 @@ public final class XMLConversionService {
 	}
 
 
+	/**  Converts the files queued by {@link #preConvertInBackground(String, File)}. */
+	/**
+	 *  Deletes the cache files left by earlier versions, which were stored under each format directory at the
+	 *  absolute path of the original file. Everything in a format directory other than the two character hash
+	 *  prefix directories, and anything in those directories other than converted files, is removed.
+	 */
+	private class LegacyCacheCleanupThread extends Thread {
+		/**  Constructor for the LegacyCacheCleanupThread object */
+		public LegacyCacheCleanupThread() {
+			super("XMLConversionService legacy cache cleanup");
+			setDaemon(true);
+			setPriority(Thread.MIN_PRIORITY);
+		}
+
+
+		/**  Main processing method for the LegacyCacheCleanupThread object */
+		public void run() {
+			int numDeleted = 0;
+			File[] formatDirs = cacheDir.listFiles();
+			for (int i = 0; formatDirs != null && i < formatDirs.length; i++) {
+				File[] files = formatDirs[i].listFiles();
+				for (int j = 0; files != null && j < files.length; j++) {
+					if (files[j].isDirectory() && files[j].getName().matches("[0-9a-f]{2}")) {
+						File[] cached = files[j].listFiles();
+						for (int k = 0; cached != null && k < cached.length; k++) {
+							if (!cached[k].isFile() || !cached[k].getName().matches("[0-9a-f]{32}-[0-9a-z]+\\.xml(\\..*\\.tmp)?"))
+								numDeleted += delete(cached[k]);
+						}
+					}
+					else
+						numDeleted += delete(files[j]);
+				}
+			}
+			if (numDeleted > 0)
+				prtln("Deleted " + numDeleted + " files from the converted XML cache left by an earlier version");
+		}
+
+
+		private int delete(File file) {
+			int numDeleted = 0;
+			File[] files = file.listFiles();
+			for (int i = 0; files != null && i < files.length; i++)
+				numDeleted += delete(files[i]);
+			if (file.isFile())
+				numDeleted++;
+			file.delete();
+			return numDeleted;
+		}
+	}
+
+
+	private class PreConversionThread extends Thread {
+		/**  Constructor for the PreConversionThread object */
+		public PreConversionThread() {
+			super("XMLConversionService pre-conversion");
+			setDaemon(true);
+			setPriority(Thread.MIN_PRIORITY);
+		}
+
+
+		/**  Main processing method for the PreConversionThread object */
+		public void run() {
+			while (true) {
+				String[] item;
+				synchronized (preConversionQueue) {
+					while (preConversionQueue.isEmpty() && !preConversionStopped) {
+						try {
+							preConversionQueue.wait();
+						} catch (InterruptedException e) {}
+					}
+					if (preConversionStopped)
+						return;
+					item = (String[]) preConversionQueue.removeFirst();
+					preConversionQueue.notifyAll();
+				}
+				try {
+					preConvert(item[0], new File(item[1]), item[2]);
+				} catch (Throwable t) {
+					prtlnErr("Error pre-converting " + item[1] + ": " + t);
+				}
+			}
+		}
+	}
+
+
 	private class JavaXmlConverter implements XmlConverter {
 		private String toFormat = null, fromFormat = null, className = null;
 		private XMLFormatConverter xmlFormatConverter = null;
@@ -735,6 +1408,17 @@ public final class XMLConversionService {
 		}
 
 
+		/**
+		 *  Java converters may read other records from the index or the servlet context, for example to resolve
+		 *  related resources, so their output may depend on more than the original XML.
+		 *
+		 * @return    False
+		 */
+		public boolean isContentOnly() {
+			return false;
+		}
+
+
 		/**
 		 *  Writes the converted content to file.
 		 *
@@ -891,7 +1575,7 @@ public final class XMLConversionService {
 	 *
 	 * @param  s  The text that will be output to error out.
 	 */
-	private final void prtlnErr(String s) {
+	private final static void prtlnErr(String s) {
 		System.err.println(getDateStamp() + " XMLConversionService Error: " + s);
 	}
 
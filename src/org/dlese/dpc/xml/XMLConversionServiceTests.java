@@ -0,0 +1,185 @@
+/*
+	Copyright 2017 Digital Learning Sciences (DLS) at the
+	University Corporation for Atmospheric Research (UCAR),
+	P.O. Box 3000, Boulder, CO 80307
+
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+
+	http://www.apache.org/licenses/LICENSE-2.0
+
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+package org.dlese.dpc.xml;
+
+import org.dlese.dpc.util.Files;
+
+import junit.framework.*;
+import java.io.*;
+import java.util.*;
+import java.util.regex.*;
+
+import javax.xml.transform.Transformer;
+
+/**
+ *  Checks the XSL conversions made by the {@link XMLConversionService} from several threads at once, using the
+ *  adn to oai_dc converters configured in web.xml and the adn records in the sample_metadata directory. The
+ *  records are converted by the service's pooled Transformers from several threads, and each conversion is
+ *  compared with the conversion made by a single Transformer, one record at a time. The throughput of the
+ *  conversions is measured by the XMLConversionBenchmark in the benchmarks module. <p>
+ *
+ *  The following System properties may be used to configure the run: 'xmlconversion.webapp.dir' (default
+ *  'web') and 'xmlconversion.threads' (default 4).
+ *
+ * @author    John Weatherley
+ */
+public class XMLConversionServiceTests extends TestCase {
+	File webappDir = null;
+	File cacheDir = null;
+	List converterParams = null;
+	List records = null;
+
+	int numThreads;
+
+
+	/**
+	 *  A unit test suite for JUnit
+	 *
+	 * @return    The test suite
+	 */
+	public static Test suite() {
+		// Use java reflection to run all test methods in this class:
+		prtln("");
+		return new TestSuite(XMLConversionServiceTests.class);
+	}
+
+
+	/**
+	 *  The JUnit setup method. Gets called prior to running EACH test method call.
+	 *
+	 * @exception  Exception  If error
+	 */
+	protected void setUp()
+			 throws Exception {
+		prtln(".");
+
+		webappDir = new File(System.getProperty("xmlconversion.webapp.dir", "web"));
+		numThreads = Integer.getInteger("xmlconversion.threads", 4).intValue();
+
+		// Assumes a java prop was set that defines junit.test.dir prior to execution.
+		// This prop is defined in the Ant build.xml file.
+		String testDir = System.getProperty("junit.test.dir", System.getProperty("java.io.tmpdir"));
+		cacheDir = new File(testDir, "xml_conversion_cache");
+		cacheDir.mkdirs();
+
+		converterParams = getXslConverterParams(new File(webappDir, "WEB-INF/web.xml"), "adn", "oai_dc");
+		Assert.assertTrue("No adn to oai_dc xslconverter found in web.xml", converterParams.size() > 0);
+
+		records = new ArrayList();
+		File[] files = new File(webappDir, "WEB-INF/sample_metadata").listFiles(new XMLFileFilter());
+		for (int i = 0; files != null && i < files.length; i++) {
+			String xml = Files.readFileToEncoding(files[i], "UTF-8").toString();
+			if (xml.indexOf("<itemRecord") != -1)
+				records.add(xml);
+		}
+		Assert.assertTrue("No adn records found in sample_metadata", records.size() > 0);
+	}
+
+
+	/**
+	 *  Checks that each configured adn to oai_dc converter gives the same output when records are converted
+	 *  by several threads at once as a single Transformer gives converting them in turn.
+	 *
+	 * @exception  Exception  If error
+	 */
+	public void test_parallel_conversions_match_sequential()
+			 throws Exception {
+		File xslDir = new File(webappDir, "WEB-INF/xsl_files");
+		for (int c = 0; c < converterParams.size(); c++) {
+			String param = (String) converterParams.get(c);
+			String xslFile = param.split("\\|")[0];
+
+			Transformer transformer = XSLTransformer.getTransformer(new File(xslDir, xslFile).getAbsolutePath());
+			String[] expected = new String[records.size()];
+			for (int i = 0; i < expected.length; i++) {
+				expected[i] = XSLTransformer.transformString((String) records.get(i), transformer);
+				Assert.assertTrue("Converter " + xslFile + " produced no output for record " + i, expected[i].length() > 0);
+			}
+
+			final XMLConversionService service = new XMLConversionService(cacheDir, true);
+			service.addXslConverterHelper(param, xslDir);
+			// Each record is converted several times so the pooled Transformers are reused
+			final String[] actual = new String[records.size() * 4];
+			final int[] next = {0};
+			Thread[] threads = new Thread[numThreads];
+			for (int t = 0; t < threads.length; t++) {
+				threads[t] =
+					new Thread() {
+						public void run() {
+							while (true) {
+								int i;
+								synchronized (next) {
+									if (next[0] >= actual.length)
+										return;
+									i = next[0]++;
+								}
+								actual[i] = service.convertXml("adn", "oai_dc", (String) records.get(i % records.size()));
+							}
+						}
+					};
+				threads[t].start();
+			}
+			for (int t = 0; t < threads.length; t++)
+				threads[t].join();
+			service.destroy();
+
+			for (int i = 0; i < actual.length; i++)
+				Assert.assertEquals("Converter " + xslFile + " record " + (i % expected.length) + " converted in parallel differs",
+					expected[i % expected.length], actual[i]);
+		}
+	}
+
+
+	/**
+	 *  Gets the xslconverter context-param values in web.xml that convert between the given formats.
+	 *
+	 * @param  webXml         The web.xml file
+	 * @param  fromFormat     Format to convert from
+	 * @param  toFormat       Format to convert to
+	 * @return                A List of param values of the form 'xslfile.xsl|from|to'
+	 * @exception  Exception  If error
+	 */
+	private List getXslConverterParams(File webXml, String fromFormat, String toFormat) throws Exception {
+		String content = Files.readFileToEncoding(webXml, "UTF-8").toString();
+		Pattern p = Pattern.compile("<param-name>\\s*xslconverter[^<]*</param-name>\\s*<param-value>\\s*([^<]+?)\\s*</param-value>");
+		Matcher m = p.matcher(content);
+		List params = new ArrayList();
+		while (m.find()) {
+			String val = m.group(1);
+			String[] vals = val.split("\\|");
+			if (vals.length == 3 && vals[1].equals(fromFormat) && vals[2].equals(toFormat))
+				params.add(val);
+		}
+		return params;
+	}
+
+
+	private static void prtln(String s) {
+		System.out.println(s);
+	}
+
+
+	/**
+	 *  Main method for running this single suite from the command line
+	 *
+	 * @param  args  The command line arguments
+	 */
+	public static void main(String[] args) {
+		junit.textui.TestRunner.run(suite());
+	}
+}
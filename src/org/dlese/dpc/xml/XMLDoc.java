@@ -242,6 +242,8 @@ public class XMLDoc {
 
 		factory.setCoalescing(true);	// convert CDATA nodes to Text nodes
 		factory.setIgnoringElementContentWhitespace(true);
+		if (validating)
+			XMLValidator.configureGrammarCaching(factory);	// share DTDs and schemas with the XMLValidator
 
 		DocumentBuilder bldr = null;
 		try {
@@ -253,6 +255,8 @@ public class XMLDoc {
 		SimpleErrorHandler simpleErrorHandler
 			= new SimpleErrorHandler(errors, warnings);
 		bldr.setErrorHandler(simpleErrorHandler);
+		if (XMLValidator.getLocalSchemaCatalog() != null)
+			bldr.setEntityResolver(XMLValidator.getLocalSchemaCatalog());
 
 		try {
 			doc = bldr.parse(xmlSource);
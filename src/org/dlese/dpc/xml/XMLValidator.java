@@ -39,6 +39,11 @@ import org.xml.sax.helpers.XMLReaderFactory;
 //import org.xml.sax.helpers.ParserFactory;
 import org.xml.sax.helpers.ParserAdapter;
 
+// Xerces grammar caching
+import org.apache.xerces.util.SymbolTable;
+import org.apache.xerces.util.SynchronizedSymbolTable;
+import org.apache.xerces.util.XMLGrammarPoolImpl;
+
 // Imported java.io classes
 import java.io.FileNotFoundException;
 import java.io.IOException;
@@ -56,7 +61,13 @@ import java.text.*;
  *  declaration or a schema reference, which is used to perform the validation.
  *  XMLValidator then writes a report to the file path indicated listing the
  *  number of files validated and any validation problems encountered. How: Use
- *  JAXP SAXPaser to parse 1 .xml file or all the .xml files in a directory.
+ *  JAXP SAXPaser to parse 1 .xml file or all the .xml files in a directory. <p>
+ *
+ *  The schemas and DTDs used to validate are cached in a grammar pool that is shared by all threads, so each
+ *  is read and compiled only once rather than once per validated document. Grammars are cached by target
+ *  namespace (schemas) or system ID (DTDs), see {@link #setGrammarCachingEnabled(boolean)}. Use {@link
+ *  #clearGrammarCache()} after a schema has changed. A
+ *  {@link LocalSchemaCatalog} may be set to read the schemas from local copies instead of the Internet.
  *
  * @author    John Weatherley
  */
@@ -90,6 +101,11 @@ public class XMLValidator {
 	 */
 	protected final static String DYNAMIC_VALIDATION_FEATURE_ID = "http://apache.org/xml/features/validation/dynamic";
 
+	/**
+	 *  Grammar pool property id (http://apache.org/xml/properties/internal/grammar-pool).
+	 */
+	protected final static String GRAMMAR_POOL_PROPERTY_ID = "http://apache.org/xml/properties/internal/grammar-pool";
+
 	// default settings
 
 	/**  Default parser name.  */
@@ -128,6 +144,15 @@ public class XMLValidator {
 	private boolean useLogFile = false;
 	private StringBuffer buff = new StringBuffer();
 
+	// The grammars shared by all validating readers, and the symbols they are made of
+	private final static SymbolTable symbolTable = new SynchronizedSymbolTable();
+	private final static XMLGrammarPoolImpl grammarPool = new XMLGrammarPoolImpl();
+	private static boolean grammarCachingEnabled = true;
+	private static LocalSchemaCatalog localSchemaCatalog = null;
+
+	// A validating reader for each thread, which uses the shared grammar pool
+	private final static ThreadLocal validatingReader = new ThreadLocal();
+
 
 	// ----------------------------------------------------------------------------
 
@@ -501,11 +526,16 @@ public class XMLValidator {
 	public final static String validateFile(File f, boolean showWarnings) {
 		try {
 			StringBuffer messages = new StringBuffer();
-			InputSource input = new InputSource(new FileInputStream(f));
-			if (doValidate(input, f.toString(), messages, showWarnings))
-				return null;
-			else
-				return messages.toString();
+			FileInputStream in = new FileInputStream(f);
+			try {
+				InputSource input = new InputSource(in);
+				if (doValidate(input, f.toString(), messages, showWarnings))
+					return null;
+				else
+					return messages.toString();
+			} finally {
+				in.close();
+			}
 		} catch (Throwable e) {
 			return "Unable to validate: " + e;
 		}
@@ -523,73 +553,21 @@ public class XMLValidator {
 	 */
 	private final static boolean doValidate(InputSource input, String source, StringBuffer messages, boolean showWarnings) {
 		boolean isValid = true;
+		XMLReader reader = null;
 		try {
 			// Set systemID so parser can find the dtd with a relative URL in the source document.
 			input.setSystemId(source);
 
-			boolean namespaces = DEFAULT_NAMESPACES;
-			boolean namespacePrefixes = DEFAULT_NAMESPACE_PREFIXES;
-			boolean validation = DEFAULT_VALIDATION;
-			boolean schemaValidation = DEFAULT_SCHEMA_VALIDATION;
-			boolean schemaFullChecking = DEFAULT_SCHEMA_FULL_CHECKING;
-			boolean dynamicValidation = DEFAULT_DYNAMIC_VALIDATION;
-			boolean memoryUsage = DEFAULT_MEMORY_USAGE;
-			boolean tagginess = DEFAULT_TAGGINESS;
-
-			SAXParserFactory spfact = SAXParserFactory.newInstance();
-			SAXParser parser = spfact.newSAXParser();
-			XMLReader reader = parser.getXMLReader();
+			reader = getValidatingReader();
 
 			StringBuffer errorBuff = new StringBuffer();
 
 			StringBuffer warningBuff = new StringBuffer();
 
-			//reader.setFeature("http://xml.org/sax/features/validation", true);
-			//reader.setFeature("http://apache.org/xml/features/validation/schema", true);
-			//reader.setFeature("http://apache.org/xml/features/validation/schema-full-checking",true);
-
-			// set parser features
-			try {
-				reader.setFeature(NAMESPACES_FEATURE_ID, namespaces);
-			} catch (SAXException e) {
-				System.err.println("warning: Parser does not support feature (" + NAMESPACES_FEATURE_ID + ")");
-			}
-			try {
-				reader.setFeature(NAMESPACE_PREFIXES_FEATURE_ID, namespacePrefixes);
-			} catch (SAXException e) {
-				System.err.println("warning: Parser does not support feature (" + NAMESPACE_PREFIXES_FEATURE_ID + ")");
-			}
-			try {
-				reader.setFeature(VALIDATION_FEATURE_ID, validation);
-			} catch (SAXException e) {
-				System.err.println("warning: Parser does not support feature (" + VALIDATION_FEATURE_ID + ")");
-			}
-			try {
-				reader.setFeature(SCHEMA_VALIDATION_FEATURE_ID, schemaValidation);
-			} catch (SAXNotRecognizedException e) {
-				// ignore
-			} catch (SAXNotSupportedException e) {
-				System.err.println("warning: Parser does not support feature (" + SCHEMA_VALIDATION_FEATURE_ID + ")");
-			}
-			try {
-				reader.setFeature(SCHEMA_FULL_CHECKING_FEATURE_ID, schemaFullChecking);
-			} catch (SAXNotRecognizedException e) {
-				// ignore
-			} catch (SAXNotSupportedException e) {
-				System.err.println("warning: Parser does not support feature (" + SCHEMA_FULL_CHECKING_FEATURE_ID + ")");
-			}
-			try {
-				reader.setFeature(DYNAMIC_VALIDATION_FEATURE_ID, dynamicValidation);
-			} catch (SAXNotRecognizedException e) {
-				// ignore
-			} catch (SAXNotSupportedException e) {
-				System.err.println("warning: Parser does not support feature (" + DYNAMIC_VALIDATION_FEATURE_ID + ")");
-			}
-
 			SimpleErrorHandler handler = new SimpleErrorHandler(errorBuff, warningBuff);
 
 			// Do the parse and capture validation errors in the handler
-			parser.parse(input, handler);
+			parse(reader, input, handler);
 
 			if (showWarnings && handler.hasWarnings()) {
 				// warnings
@@ -609,12 +587,209 @@ public class XMLValidator {
 
 			messages.append("NOT WELL-FORMED: " + e.getMessage());
 			isValid = false;
+			discardValidatingReader(reader);
 		}
 		return isValid;
 		
 	}
 
 
+	/**
+	 *  Gets a validating XMLReader for the current thread. If grammar caching is enabled, the same reader is
+	 *  returned on each call from a given thread and it uses the shared grammar pool, otherwise a new reader is
+	 *  created for each call.
+	 *
+	 * @return                                   A validating XMLReader
+	 * @exception  ParserConfigurationException  If the reader can not be created
+	 * @exception  SAXException                  If the reader can not be created
+	 */
+	private final static XMLReader getValidatingReader()
+		 throws ParserConfigurationException, SAXException {
+		if (!grammarCachingEnabled) {
+			SAXParserFactory spfact = SAXParserFactory.newInstance();
+			SAXParser parser = spfact.newSAXParser();
+			XMLReader reader = parser.getXMLReader();
+			setValidationFeatures(reader);
+			return reader;
+		}
+
+		XMLReader reader = (XMLReader) validatingReader.get();
+		if (reader == null) {
+			reader = new org.apache.xerces.parsers.SAXParser(symbolTable, grammarPool);
+			setValidationFeatures(reader);
+			validatingReader.set(reader);
+		}
+		return reader;
+	}
+
+
+	/**
+	 *  Drops the current thread's validating reader after a failed parse, so a new one is created for the next
+	 *  document.
+	 *
+	 * @param  reader  The reader that failed, or null
+	 */
+	private final static void discardValidatingReader(XMLReader reader) {
+		if (reader != null && validatingReader.get() == reader)
+			validatingReader.set(null);
+	}
+
+
+	/**
+	 *  Parses the input with the given reader, reporting to the given handler.
+	 *
+	 * @param  reader            The validating reader
+	 * @param  input             The XML to parse
+	 * @param  handler           The handler that captures validation errors and warnings
+	 * @exception  IOException   If the input can not be read
+	 * @exception  SAXException  If the input is not well-formed
+	 */
+	private final static void parse(XMLReader reader, InputSource input, SimpleErrorHandler handler)
+		 throws IOException, SAXException {
+		reader.setContentHandler(handler);
+		reader.setDTDHandler(handler);
+		reader.setErrorHandler(handler);
+		LocalSchemaCatalog catalog = localSchemaCatalog;
+		if (catalog != null)
+			reader.setEntityResolver(catalog);
+		else
+			reader.setEntityResolver(handler);
+		reader.parse(input);
+	}
+
+
+	/**
+	 *  Sets the features used to validate on the given reader.
+	 *
+	 * @param  reader  The reader
+	 */
+	private final static void setValidationFeatures(XMLReader reader) {
+		boolean namespaces = DEFAULT_NAMESPACES;
+		boolean namespacePrefixes = DEFAULT_NAMESPACE_PREFIXES;
+		boolean validation = DEFAULT_VALIDATION;
+		boolean schemaValidation = DEFAULT_SCHEMA_VALIDATION;
+		boolean schemaFullChecking = DEFAULT_SCHEMA_FULL_CHECKING;
+		boolean dynamicValidation = DEFAULT_DYNAMIC_VALIDATION;
+
+		// set parser features
+		try {
+			reader.setFeature(NAMESPACES_FEATURE_ID, namespaces);
+		} catch (SAXException e) {
+			System.err.println("warning: Parser does not support feature (" + NAMESPACES_FEATURE_ID + ")");
+		}
+		try {
+			reader.setFeature(NAMESPACE_PREFIXES_FEATURE_ID, namespacePrefixes);
+		} catch (SAXException e) {
+			System.err.println("warning: Parser does not support feature (" + NAMESPACE_PREFIXES_FEATURE_ID + ")");
+		}
+		try {
+			reader.setFeature(VALIDATION_FEATURE_ID, validation);
+		} catch (SAXException e) {
+			System.err.println("warning: Parser does not support feature (" + VALIDATION_FEATURE_ID + ")");
+		}
+		try {
+			reader.setFeature(SCHEMA_VALIDATION_FEATURE_ID, schemaValidation);
+		} catch (SAXNotRecognizedException e) {
+			// ignore
+		} catch (SAXNotSupportedException e) {
+			System.err.println("warning: Parser does not support feature (" + SCHEMA_VALIDATION_FEATURE_ID + ")");
+		}
+		try {
+			reader.setFeature(SCHEMA_FULL_CHECKING_FEATURE_ID, schemaFullChecking);
+		} catch (SAXNotRecognizedException e) {
+			// ignore
+		} catch (SAXNotSupportedException e) {
+			System.err.println("warning: Parser does not support feature (" + SCHEMA_FULL_CHECKING_FEATURE_ID + ")");
+		}
+		try {
+			reader.setFeature(DYNAMIC_VALIDATION_FEATURE_ID, dynamicValidation);
+		} catch (SAXNotRecognizedException e) {
+			// ignore
+		} catch (SAXNotSupportedException e) {
+			System.err.println("warning: Parser does not support feature (" + DYNAMIC_VALIDATION_FEATURE_ID + ")");
+		}
+	}
+
+
+	/**
+	 *  Sets whether the schemas and DTDs used to validate are cached and shared between documents and threads.
+	 *  Default is true. When disabled, each document is validated with a new parser that reads its schemas
+	 *  again. <p>
+	 *
+	 *  The cache holds one schema per target namespace, and all schemas that have no target namespace share a
+	 *  single entry, so the first no-namespace schema read is used for every document that names a different
+	 *  no-namespace schema in its xsi:noNamespaceSchemaLocation. Likewise, two versions of a schema with the
+	 *  same target namespace can not both be cached. Disable caching when documents are validated against more
+	 *  than one such schema.
+	 *
+	 * @param  enabled  True to cache grammars
+	 */
+	public static void setGrammarCachingEnabled(boolean enabled) {
+		grammarCachingEnabled = enabled;
+	}
+
+
+	/**
+	 *  Determines whether the schemas and DTDs used to validate are cached.
+	 *
+	 * @return    True if grammars are cached
+	 * @see       #setGrammarCachingEnabled(boolean)
+	 */
+	public static boolean isGrammarCachingEnabled() {
+		return grammarCachingEnabled;
+	}
+
+
+	/**
+	 *  Removes all cached schemas and DTDs, so they are read again the next time they are needed. Called when
+	 *  the local schema catalog is set and when a metadata framework or the repository configuration is
+	 *  reloaded, and should be called when a schema has changed.
+	 */
+	public static void clearGrammarCache() {
+		grammarPool.clear();
+	}
+
+
+	/**
+	 *  Sets the catalog used to read schemas and DTDs from local copies, or null to always read them from their
+	 *  system IDs. Default is null. The cached schemas and DTDs are cleared, since they may have been read from
+	 *  other copies.
+	 *
+	 * @param  catalog  The LocalSchemaCatalog, or null
+	 */
+	public static void setLocalSchemaCatalog(LocalSchemaCatalog catalog) {
+		localSchemaCatalog = catalog;
+		clearGrammarCache();
+	}
+
+
+	/**
+	 *  Gets the catalog used to read schemas and DTDs from local copies.
+	 *
+	 * @return    The LocalSchemaCatalog, or null if none has been set
+	 */
+	public static LocalSchemaCatalog getLocalSchemaCatalog() {
+		return localSchemaCatalog;
+	}
+
+
+	/**
+	 *  Configures a DocumentBuilderFactory to use the shared grammar pool and local schema catalog when it is a
+	 *  Xerces factory and grammar caching is enabled, otherwise leaves it unchanged.
+	 *
+	 * @param  factory  The factory
+	 */
+	final static void configureGrammarCaching(javax.xml.parsers.DocumentBuilderFactory factory) {
+		if (grammarCachingEnabled && factory.getClass().getName().startsWith("org.apache.xerces.")) {
+			try {
+				factory.setAttribute(GRAMMAR_POOL_PROPERTY_ID, grammarPool);
+			} catch (IllegalArgumentException e) {
+				// not supported by this parser
+			}
+		}
+	}
+
+
 	// ----------------------------------------------------------------------------
 
 	/**
@@ -624,6 +799,7 @@ public class XMLValidator {
 	 * @param  filename  DESCRIPTION
 	 */
 	private void parseAndValidate(String dir, String filename) {
+		XMLReader reader = null;
 		try {
 			//prtln("parse: dir = " + dir + " filename = " + filename );
 
@@ -636,70 +812,22 @@ public class XMLValidator {
 			//prtln("parse: f.getAbsolutePath(): " + f.getAbsolutePath());
 
 			StringBuffer warningBuff = new StringBuffer();
-			InputSource input = new InputSource(new FileInputStream(f));
+			FileInputStream in = new FileInputStream(f);
+			InputSource input = new InputSource(in);
 
 			// Set systemID so parser can find the dtd with a relative URL in the source document.
 			input.setSystemId(f.toString());
 
-			boolean namespaces = DEFAULT_NAMESPACES;
-			boolean namespacePrefixes = DEFAULT_NAMESPACE_PREFIXES;
-			boolean validation = DEFAULT_VALIDATION;
-			boolean schemaValidation = DEFAULT_SCHEMA_VALIDATION;
-			boolean schemaFullChecking = DEFAULT_SCHEMA_FULL_CHECKING;
-			boolean dynamicValidation = DEFAULT_DYNAMIC_VALIDATION;
-			boolean memoryUsage = DEFAULT_MEMORY_USAGE;
-			boolean tagginess = DEFAULT_TAGGINESS;
-
-			SAXParserFactory spfact = SAXParserFactory.newInstance();
-			SAXParser parser = spfact.newSAXParser();
-			XMLReader reader = parser.getXMLReader();
-
-			//reader.setFeature("http://xml.org/sax/features/validation", true);
-			//reader.setFeature("http://apache.org/xml/features/validation/schema", true);
-			//reader.setFeature("http://apache.org/xml/features/validation/schema-full-checking",true);
-
-			// set parser features
-			try {
-				reader.setFeature(NAMESPACES_FEATURE_ID, namespaces);
-			} catch (SAXException e) {
-				System.err.println("warning: Parser does not support feature (" + NAMESPACES_FEATURE_ID + ")");
-			}
-			try {
-				reader.setFeature(NAMESPACE_PREFIXES_FEATURE_ID, namespacePrefixes);
-			} catch (SAXException e) {
-				System.err.println("warning: Parser does not support feature (" + NAMESPACE_PREFIXES_FEATURE_ID + ")");
-			}
-			try {
-				reader.setFeature(VALIDATION_FEATURE_ID, validation);
-			} catch (SAXException e) {
-				System.err.println("warning: Parser does not support feature (" + VALIDATION_FEATURE_ID + ")");
-			}
-			try {
-				reader.setFeature(SCHEMA_VALIDATION_FEATURE_ID, schemaValidation);
-			} catch (SAXNotRecognizedException e) {
-				// ignore
-			} catch (SAXNotSupportedException e) {
-				System.err.println("warning: Parser does not support feature (" + SCHEMA_VALIDATION_FEATURE_ID + ")");
-			}
-			try {
-				reader.setFeature(SCHEMA_FULL_CHECKING_FEATURE_ID, schemaFullChecking);
-			} catch (SAXNotRecognizedException e) {
-				// ignore
-			} catch (SAXNotSupportedException e) {
-				System.err.println("warning: Parser does not support feature (" + SCHEMA_FULL_CHECKING_FEATURE_ID + ")");
-			}
-			try {
-				reader.setFeature(DYNAMIC_VALIDATION_FEATURE_ID, dynamicValidation);
-			} catch (SAXNotRecognizedException e) {
-				// ignore
-			} catch (SAXNotSupportedException e) {
-				System.err.println("warning: Parser does not support feature (" + DYNAMIC_VALIDATION_FEATURE_ID + ")");
-			}
+			reader = getValidatingReader();
 
 			SimpleErrorHandler handler = new SimpleErrorHandler(errorBuff, warningBuff);
 
 			// Do the parse and capture validation errors in the handler
-			parser.parse(input, handler);
+			try {
+				parse(reader, input, handler);
+			} finally {
+				in.close();
+			}
 
 			if (handler.hasErrors()) {
 				// not valid
@@ -723,6 +851,7 @@ public class XMLValidator {
 
 			buff.append("NOT WELL-FORMED: " + filename + "\n " + e.getMessage() + "\n");
 			numMalformedFiles++;
+			discardValidatingReader(reader);
 		} finally {
 			numXMLFiles++;
 		}
@@ -0,0 +1,231 @@
+/*
+	Copyright 2017 Digital Learning Sciences (DLS) at the
+	University Corporation for Atmospheric Research (UCAR),
+	P.O. Box 3000, Boulder, CO 80307
+
+	Licensed under the Apache License, Version 2.0 (the "License");
+	you may not use this file except in compliance with the License.
+	You may obtain a copy of the License at
+
+	http://www.apache.org/licenses/LICENSE-2.0
+
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+*/
+package org.dlese.dpc.xml;
+
+import org.dlese.dpc.util.Files;
+
+import junit.framework.*;
+import java.io.*;
+import java.util.*;
+
+/**
+ *  Checks validating with the {@link XMLValidator} grammar pool against the previous approach, which created
+ *  a new parser and read the schema again for each record, and checks validating in several threads with the
+ *  shared pool. A schema made of two files, one included by the other, is written to a temporary directory and
+ *  served through a {@link LocalSchemaCatalog} under an http URI prefix, so the test runs offline. The corpus
+ *  is generated records that reference the schema by its http URI, every tenth of which is not valid. The
+ *  throughput of validating is measured by the XMLValidatorBenchmark in the benchmarks module. <p>
+ *
+ *  The following System properties may be used to configure the run: 'validator.num.records' (default 500)
+ *  and 'validator.threads' (default 4).
+ *
+ * @author    John Weatherley
+ */
+public class XMLValidatorTests extends TestCase {
+	private final static String NAMESPACE = "http://schemas.example.org/record";
+	private final static String SCHEMA_URI_PREFIX = "http://schemas.example.org/record/1.0/";
+
+	private final static String RECORD_XSD =
+		"<?xml version='1.0' encoding='UTF-8'?>\n" +
+		"<xsd:schema xmlns:xsd='http://www.w3.org/2001/XMLSchema' xmlns='" + NAMESPACE + "'\n" +
+		"    targetNamespace='" + NAMESPACE + "' elementFormDefault='qualified'>\n" +
+		"  <xsd:include schemaLocation='types.xsd'/>\n" +
+		"  <xsd:element name='record'>\n" +
+		"    <xsd:complexType>\n" +
+		"      <xsd:sequence>\n" +
+		"        <xsd:element name='id' type='idType'/>\n" +
+		"        <xsd:element name='title' type='xsd:string'/>\n" +
+		"        <xsd:element name='subject' type='subjectType' maxOccurs='unbounded'/>\n" +
+		"        <xsd:element name='date' type='xsd:date'/>\n" +
+		"      </xsd:sequence>\n" +
+		"    </xsd:complexType>\n" +
+		"  </xsd:element>\n" +
+		"</xsd:schema>\n";
+
+	private final static String TYPES_XSD =
+		"<?xml version='1.0' encoding='UTF-8'?>\n" +
+		"<xsd:schema xmlns:xsd='http://www.w3.org/2001/XMLSchema' xmlns='" + NAMESPACE + "'\n" +
+		"    targetNamespace='" + NAMESPACE + "' elementFormDefault='qualified'>\n" +
+		"  <xsd:simpleType name='idType'>\n" +
+		"    <xsd:restriction base='xsd:string'><xsd:pattern value='REC-[0-9]+'/></xsd:restriction>\n" +
+		"  </xsd:simpleType>\n" +
+		"  <xsd:simpleType name='subjectType'>\n" +
+		"    <xsd:restriction base='xsd:string'>\n" +
+		"      <xsd:enumeration value='Atmospheric science'/>\n" +
+		"      <xsd:enumeration value='Geology'/>\n" +
+		"      <xsd:enumeration value='Oceanography'/>\n" +
+		"    </xsd:restriction>\n" +
+		"  </xsd:simpleType>\n" +
+		"</xsd:schema>\n";
+
+	File tempDir = null;
+	List records = null;
+
+	int numThreads;
+
+
+	/**
+	 *  A unit test suite for JUnit
+	 *
+	 * @return    The test suite
+	 */
+	public static Test suite() {
+		// Use java reflection to run all test methods in this class:
+		prtln("");
+		return new TestSuite(XMLValidatorTests.class);
+	}
+
+
+	/**
+	 *  The JUnit setup method. Gets called prior to running EACH test method call.
+	 *
+	 * @exception  Exception  If error
+	 */
+	protected void setUp()
+			 throws Exception {
+		prtln(".");
+
+		int numRecords = Integer.getInteger("validator.num.records", 500).intValue();
+		numThreads = Integer.getInteger("validator.threads", 4).intValue();
+
+		tempDir = File.createTempFile("XMLValidatorTests", "");
+		tempDir.delete();
+		File schemaDir = new File(tempDir, "schemas");
+		schemaDir.mkdirs();
+		Files.writeFile(RECORD_XSD, new File(schemaDir, "record.xsd"));
+		Files.writeFile(TYPES_XSD, new File(schemaDir, "types.xsd"));
+
+		LocalSchemaCatalog catalog = new LocalSchemaCatalog();
+		catalog.addMapping(SCHEMA_URI_PREFIX, schemaDir);
+		XMLValidator.setLocalSchemaCatalog(catalog);
+		XMLValidator.setGrammarCachingEnabled(true);
+		XMLValidator.clearGrammarCache();
+
+		String[] subjects = {"Atmospheric science", "Geology", "Oceanography"};
+		records = new ArrayList();
+		for (int i = 0; i < numRecords; i++) {
+			StringBuffer xml = new StringBuffer();
+			xml.append("<?xml version='1.0' encoding='UTF-8'?>\n");
+			xml.append("<record xmlns='" + NAMESPACE + "' xmlns:xsi='http://www.w3.org/2001/XMLSchema-instance'");
+			xml.append(" xsi:schemaLocation='" + NAMESPACE + " " + SCHEMA_URI_PREFIX + "record.xsd'>\n");
+			xml.append("  <id>REC-" + i + "</id>\n");
+			xml.append("  <title>Record number " + i + "</title>\n");
+			for (int j = 0; j <= i % 3; j++)
+				xml.append("  <subject>" + subjects[(i + j) % 3] + "</subject>\n");
+			if (i % 10 == 9)
+				xml.append("  <subject>Astrology</subject>\n");
+			xml.append("  <date>2009-0" + (1 + i % 9) + "-15</date>\n");
+			xml.append("</record>\n");
+			records.add(xml.toString());
+		}
+	}
+
+
+	/**
+	 *  The JUnit tearDown method
+	 *
+	 * @exception  Exception  If error
+	 */
+	protected void tearDown()
+			 throws Exception {
+		XMLValidator.setLocalSchemaCatalog(null);
+		XMLValidator.setGrammarCachingEnabled(true);
+		XMLValidator.clearGrammarCache();
+		Files.deleteDirectory(tempDir);
+	}
+
+
+	/**
+	 *  Checks that validating with the grammar pool gives the same messages as validating with a new parser for
+	 *  each record, and that the not valid records are found.
+	 *
+	 * @exception  Exception  If error
+	 */
+	public void test_cached_validation_matches_uncached()
+			 throws Exception {
+		for (int i = 0; i < records.size(); i++) {
+			String xml = (String) records.get(i);
+			XMLValidator.setGrammarCachingEnabled(false);
+			String expected = XMLValidator.validateString(xml, true);
+			XMLValidator.setGrammarCachingEnabled(true);
+			String actual = XMLValidator.validateString(xml, true);
+			Assert.assertEquals("Record " + i + " validated with the grammar pool differs", expected, actual);
+			if (i % 10 == 9)
+				Assert.assertTrue("Record " + i + " should not be valid: " + actual,
+					actual != null && actual.startsWith("NOT VALID"));
+			else
+				Assert.assertNull("Record " + i + " should be valid", actual);
+		}
+	}
+
+
+	/**
+	 *  Checks that records validated by several threads at once with the shared grammar pool give the same
+	 *  messages as validating them in turn.
+	 *
+	 * @exception  Exception  If error
+	 */
+	public void test_parallel_validation_matches_sequential()
+			 throws Exception {
+		final String[] expected = new String[records.size()];
+		for (int i = 0; i < records.size(); i++)
+			expected[i] = XMLValidator.validateString((String) records.get(i));
+
+		XMLValidator.clearGrammarCache();
+		final String[] actual = new String[records.size()];
+		final int[] next = {0};
+		Thread[] threads = new Thread[numThreads];
+		for (int t = 0; t < threads.length; t++) {
+			threads[t] =
+				new Thread() {
+					public void run() {
+						while (true) {
+							int i;
+							synchronized (next) {
+								if (next[0] >= records.size())
+									return;
+								i = next[0]++;
+							}
+							actual[i] = XMLValidator.validateString((String) records.get(i));
+						}
+					}
+				};
+			threads[t].start();
+		}
+		for (int t = 0; t < threads.length; t++)
+			threads[t].join();
+
+		for (int i = 0; i < records.size(); i++)
+			Assert.assertEquals("Record " + i + " validated in parallel differs", expected[i], actual[i]);
+	}
+
+
+	private static void prtln(String s) {
+		System.out.println(s);
+	}
+
+
+	/**
+	 *  Main method for running this single suite from the command line
+	 *
+	 * @param  args  The command line arguments
+	 */
+	public static void main(String[] args) {
+		junit.textui.TestRunner.run(suite());
+	}
+}
@@ -24,6 +24,7 @@ import java.text.*;
 // Imported TraX classes
 import javax.xml.transform.TransformerFactory;
 import javax.xml.transform.Transformer;
+import javax.xml.transform.Templates;
 import javax.xml.transform.stream.StreamSource;
 import javax.xml.transform.stream.StreamResult;
 import javax.xml.transform.TransformerException;
@@ -463,10 +464,10 @@ public class XSLTransformer {
 	 *
 	 * @param  xmlString  The XML String to strip of namespaces
 	 * @return            A String containing XML without namespaces
-	 * @see               #XSLUtils.getRemoveNamespacesXSL()
+	 * @see               Dom4jUtils#localizeXml(String)
 	 */
 	public final static String localizeXml(String xmlString) {
-		return transformStringUsingString(xmlString, XSLUtils.getRemoveNamespacesXSL());
+		return Dom4jUtils.localizeXml(xmlString);
 	}
 
 
@@ -533,6 +534,36 @@ public class XSLTransformer {
 		return tFactory.newTransformer(stream);
 	}
 
+	/**
+	 *  Gets a compiled, thread-safe {@link javax.xml.transform.Templates} for a given XSL stylesheet. The
+	 *  stylesheet is parsed and compiled once, after which any number of threads may each obtain their own
+	 *  {@link javax.xml.transform.Transformer} cheaply using Templates.newTransformer().
+	 *
+	 * @param  xslFilePath                            A path to an XSL stylesheet file.
+	 * @return                                        The compiled stylesheet.
+	 * @exception  TransformerConfigurationException  If error.
+	 * @exception  FileNotFoundException              If file can not be found.
+	 */
+	public static Templates getTemplates(String xslFilePath)
+		 throws TransformerConfigurationException, FileNotFoundException {
+
+		TransformerFactory tFactory = getTransformerFactory();
+
+		File xslFile = new File(xslFilePath);
+		StreamSource stream = new StreamSource(new FileInputStream(xslFile));
+
+		// Set systemId so xsl style sheets can find relative style sheets referenced in include and import directives
+		stream.setSystemId(xslFile);
+		try {
+			return tFactory.newTemplates(stream);
+		} finally {
+			try {
+				stream.getInputStream().close();
+			} catch (IOException e) {}
+		}
+	}
+
+
 	/**
 	 *  Gets a {@link javax.xml.transform.Transformer} used to transform XML using a given XSL stylesheet. For
 	 *  efficiency, one {@link javax.xml.transform.Transformer} should be used to transform multiple XMLs from a
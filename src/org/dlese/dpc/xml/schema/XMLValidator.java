@@ -38,15 +38,19 @@ import java.io.*;
 import java.net.*;
 
 /**
- *  Validate XML against a schema using a cached validator.
+ *  Validate XML against a schema using a cached validator. The compiled Schema is shared, and each thread
+ *  validates with its own Validator from it, so a single XMLValidator may be used by several threads at once.
  *
  * @author    Jonathan Ostwald
  */
 public class XMLValidator {
 
-	Validator validator = null;
+	Schema schema = null;
 	URI uri = null;
 
+	// A Validator for each thread, since a Validator may not be used by two threads at once
+	private final ThreadLocal validator = new ThreadLocal();
+
 
 	/**
 	 *  Constructor for the XMLValidator object
@@ -57,7 +61,6 @@ public class XMLValidator {
 	public XMLValidator(URI uri) throws Exception {
 		this.uri = uri;
 		SchemaFactory factory = SchemaFactory.newInstance(XMLConstants.W3C_XML_SCHEMA_NS_URI);
-		Schema schema = null;
 		try {
 			String uriScheme = uri.getScheme();
 			if (uriScheme != null && uriScheme.equals("http"))
@@ -69,8 +72,21 @@ public class XMLValidator {
 		} catch (Throwable t) {
 			throw new Exception("Validator init error: " + t.getMessage());
 		}
+	}
 
-		this.validator = schema.newValidator();
+
+	/**
+	 *  Gets the Validator for the current thread, creating it from the Schema on first use.
+	 *
+	 * @return    The Validator
+	 */
+	private Validator getValidator() {
+		Validator v = (Validator) validator.get();
+		if (v == null) {
+			v = schema.newValidator();
+			validator.set(v);
+		}
+		return v;
 	}
 
 
@@ -92,6 +108,7 @@ public class XMLValidator {
 			StringBuffer errorBuff = new StringBuffer();
 			StringBuffer warningBuff = new StringBuffer();
 			MyErrorHandler handler = new MyErrorHandler(errorBuff, warningBuff);
+			Validator validator = getValidator();
 			validator.setErrorHandler(handler);
 
 			validator.validate(source);
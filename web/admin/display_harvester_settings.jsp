@@ -100,6 +100,15 @@
 	      </tr>
         </table> <br>
 
+		<c:if test="${!empty haf.harvestQueue}">
+			<p><b>Harvests running</b>: <c:out value="${haf.harvestQueue.numRunning}"/> of at most <c:out value="${haf.harvestQueue.numWorkers}"/>
+			<c:forEach var="description" items="${haf.harvestQueue.runningDescriptions}" varStatus="status"><c:if test="${status.first}"> (</c:if><c:out value="${description}"/><c:choose><c:when test="${status.last}">)</c:when><c:otherwise>, </c:otherwise></c:choose></c:forEach>
+			<br>
+			<b>Harvests waiting to run</b>: <c:out value="${haf.harvestQueue.numQueued}"/>
+			<c:forEach var="description" items="${haf.harvestQueue.queuedDescriptions}" varStatus="status"><c:if test="${status.first}"> (</c:if><c:out value="${description}"/><c:choose><c:when test="${status.last}">)</c:when><c:otherwise>, </c:otherwise></c:choose></c:forEach>
+			</p>
+		</c:if>
+
 		<%--	<p>Records from harvests will be saved in directories by baseURL, set and format inside the following directory:<br>
 			<c:out value="${haf.shHarvestedDataDir}" />&nbsp;[&nbsp;<a href="harvester.do?editShHarvestedDataDir=edit">Edit</a>&nbsp;]									
 			</p>--%>
@@ -123,6 +123,7 @@
 	  <c:set var="totalDeleted" value="0"/>
 	  <c:set var="totalErrors" value="0"/>
 	  <c:set var="totalIndexEntries" value="${index.numDocs}"/>
+	  <c:set var="totalIndexSegments" value="${rm.index.numSegments}"/>
 	  
 	  <table id="form" cellpadding="6" cellspacing="1" border="0">
         <%-- ######## Collections UI ######## --%>
@@ -518,6 +519,7 @@
 			  </td>		  
 			  <td align="center" colspan="2">
 				Index contains<br/> <fmt:formatNumber type="number" value="${totalIndexEntries}"/> entries		  
+				<c:if test="${totalIndexSegments > 0}"><br/>in <fmt:formatNumber type="number" value="${totalIndexSegments}"/> segments</c:if>
 			  </td>
 					  
 			</tr>